@@ -49,6 +49,7 @@ import com.github.k1rakishou.chan.core.helper.ThreadDownloaderFileManagerWrapper
 import com.github.k1rakishou.chan.core.manager.ApplicationCrashNotifier
 import com.github.k1rakishou.chan.core.manager.ApplicationMigrationManager
 import com.github.k1rakishou.chan.core.manager.ApplicationVisibilityManager
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator
 import com.github.k1rakishou.chan.core.manager.ReportManager
 import com.github.k1rakishou.chan.core.manager.SettingsNotificationManager
 import com.github.k1rakishou.chan.ui.activity.CrashReportActivity
@@ -124,6 +125,8 @@ class Chan : Application(), ActivityLifecycleCallbacks {
   lateinit var appConstants: Lazy<AppConstants>
   @Inject
   lateinit var applicationCrashNotifier: ApplicationCrashNotifier
+  @Inject
+  lateinit var memoryPressureCoordinator: Lazy<MemoryPressureCoordinator>
 
   private val normalDnsCreatorFactory: NormalDnsSelectorFactory = object : NormalDnsSelectorFactory {
     override fun createDnsSelector(okHttpClient: OkHttpClient): NormalDnsSelector {
@@ -508,6 +511,22 @@ class Chan : Application(), ActivityLifecycleCallbacks {
     return appRunningTimeFormatter.print(Duration.millis(time).toPeriod())
   }
 
+  override fun onTrimMemory(level: Int) {
+    super.onTrimMemory(level)
+
+    if (::memoryPressureCoordinator.isInitialized) {
+      memoryPressureCoordinator.get().onTrimMemory(level)
+    }
+  }
+
+  override fun onLowMemory() {
+    super.onLowMemory()
+
+    if (::memoryPressureCoordinator.isInitialized) {
+      memoryPressureCoordinator.get().onLowMemory()
+    }
+  }
+
   override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) {}
   override fun onActivityStarted(activity: Activity) {
     activityEnteredForeground()
@@ -5,6 +5,7 @@ import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager
 import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.manager.ThreadBookmarkGroupManager
 import com.github.k1rakishou.chan.core.watcher.BookmarkWatcherCoordinator
@@ -23,7 +24,8 @@ class AppDependenciesInitializer(
   private val filterWatcherCoordinator: FilterWatcherCoordinator,
   private val archivesManager: ArchivesManager,
   private val chanFilterManager: ChanFilterManager,
-  private val threadDownloadingCoordinator: ThreadDownloadingCoordinator
+  private val threadDownloadingCoordinator: ThreadDownloadingCoordinator,
+  private val memoryPressureCoordinator: MemoryPressureCoordinator
 ) {
 
   fun init() {
@@ -44,6 +46,7 @@ class AppDependenciesInitializer(
 
     archivesManager.initialize()
     chanFilterManager.initialize()
+    memoryPressureCoordinator.initialize()
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package com.github.k1rakishou.chan.core.base
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlin.random.Random
+
+/**
+ * Central scheduler for the periodic refreshes that run while the app is in use (the opened thread
+ * auto-update, the foreground bookmark watcher). Instead of every one of them sleeping on its own
+ * timer they tell the scheduler when they want to run next and the scheduler wakes up once for every
+ * batch of refreshes that are due together, so the network requests are made in bursts and the radio
+ * can go back to sleep in between.
+ *
+ * Every refresh has a window: it never runs later than its deadline (the interval plus a random
+ * jitter) but it may run up to its flex earlier if the scheduler is waking up anyway. The scheduler
+ * always wakes up at the earliest deadline and then releases every refresh whose window has already
+ * opened.
+ *
+ * [currentTimeMs] must be monotonic and must match the time that [kotlinx.coroutines.delay] uses
+ * (in tests that's the virtual time of the test scheduler).
+ * */
+class RefreshScheduler(
+  scope: CoroutineScope,
+  private val verboseLogs: Boolean = false,
+  private val random: Random = Random.Default,
+  private val currentTimeMs: () -> Long = monotonicTimeMs()
+) {
+  private val wakeUpChannel = Channel<Unit>(Channel.CONFLATED)
+
+  @GuardedBy("this")
+  private val timingWheel = TimingWheel<Refresh>(startTimeMs = currentTimeMs())
+
+  init {
+    scope.launch { schedulerLoop() }
+  }
+
+  /**
+   * Suspends until the refresh with the tag [tag] is allowed to run, which is somewhere between
+   * (intervalMs - flexMs) and (intervalMs + jitterMs) from now. Returns right away when [intervalMs]
+   * is not positive. Cancelling the caller removes the refresh from the scheduler.
+   *
+   * [onDeadlineChosen] is called before suspending with the time from now until the refresh runs at
+   * the latest (the deadline rounded up to the tick of the timing wheel), so that the callers can show
+   * when the refresh is going to happen.
+   * */
+  suspend fun awaitRefresh(
+    tag: String,
+    intervalMs: Long,
+    flexMs: Long = defaultFlexMs(intervalMs),
+    jitterMs: Long = defaultJitterMs(intervalMs),
+    onDeadlineChosen: ((timeUntilDeadlineMs: Long) -> Unit)? = null
+  ) {
+    if (intervalMs <= 0) {
+      return
+    }
+
+    val nowMs = currentTimeMs()
+    val jitter = if (jitterMs > 0) random.nextLong(jitterMs + 1) else 0L
+    val deadlineMs = nowMs + intervalMs + jitter
+    val earliestMs = deadlineMs - flexMs.coerceIn(0L, intervalMs)
+
+    val refresh = Refresh(tag = tag, earliestMs = earliestMs, deadlineMs = deadlineMs)
+    val expirationMs = synchronized(this) {
+      val entry = timingWheel.add(refresh, deadlineMs)
+      refresh.entry = entry
+
+      return@synchronized timingWheel.expirationMs(entry)
+    }
+
+    onDeadlineChosen?.invoke(expirationMs - nowMs)
+
+    if (verboseLogs) {
+      Logger.d(TAG, "awaitRefresh(${tag}) intervalMs=${intervalMs}, " +
+        "window=[${earliestMs - nowMs}ms, ${deadlineMs - nowMs}ms]")
+    }
+
+    // The new refresh may be due earlier than what the scheduler is currently waiting for
+    wakeUpChannel.trySend(Unit)
+
+    try {
+      refresh.released.await()
+    } finally {
+      synchronized(this) { refresh.entry?.let { entry -> timingWheel.remove(entry) } }
+    }
+  }
+
+  @Synchronized
+  fun scheduledRefreshesCount(): Int = timingWheel.size
+
+  private suspend fun schedulerLoop() {
+    while (true) {
+      releaseDueRefreshes()
+
+      val nextDeadlineMs = synchronized(this) { timingWheel.nextExpirationMs() }
+      if (nextDeadlineMs == null) {
+        wakeUpChannel.receive()
+        continue
+      }
+
+      val waitTimeMs = nextDeadlineMs - currentTimeMs()
+      if (waitTimeMs > 0) {
+        withTimeoutOrNull(waitTimeMs) { wakeUpChannel.receive() }
+      }
+    }
+  }
+
+  private fun releaseDueRefreshes() {
+    val batch = synchronized(this) {
+      val nowMs = currentTimeMs()
+
+      val dueRefreshes = timingWheel.advanceTo(nowMs)
+      if (dueRefreshes.isEmpty()) {
+        return@synchronized dueRefreshes
+      }
+
+      // We are waking up anyway so take everything that is allowed to run now with us instead of
+      // waking up again a little bit later.
+      dueRefreshes + timingWheel.removeAll { refresh -> refresh.earliestMs <= nowMs }
+    }
+
+    if (batch.isEmpty()) {
+      return
+    }
+
+    if (verboseLogs) {
+      Logger.d(TAG, "releaseDueRefreshes() batch=${batch.joinToString { refresh -> refresh.tag }}")
+    }
+
+    batch.forEach { refresh ->
+      refresh.entry = null
+      refresh.released.complete(Unit)
+    }
+  }
+
+  private class Refresh(
+    val tag: String,
+    val earliestMs: Long,
+    val deadlineMs: Long
+  ) {
+    val released = CompletableDeferred<Unit>()
+
+    @Volatile
+    var entry: TimingWheel.Entry<Refresh>? = null
+  }
+
+  companion object {
+    private const val TAG = "RefreshScheduler"
+
+    private const val MAX_JITTER_MS = 5_000L
+
+    // A quarter of the interval, so a refresh that runs every 20 seconds may run up to 5 seconds
+    // earlier to join another one.
+    fun defaultFlexMs(intervalMs: Long): Long = intervalMs / 4
+
+    fun defaultJitterMs(intervalMs: Long): Long = (intervalMs / 20).coerceAtMost(MAX_JITTER_MS)
+
+    private fun monotonicTimeMs(): () -> Long {
+      val startNanos = System.nanoTime()
+      return { (System.nanoTime() - startNanos) / 1_000_000L }
+    }
+  }
+}
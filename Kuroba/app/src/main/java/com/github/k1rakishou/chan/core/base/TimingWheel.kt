@@ -0,0 +1,281 @@
+package com.github.k1rakishou.chan.core.base
+
+/**
+ * Hierarchical timing wheel. Every level has [wheelSize] buckets, a bucket of the first level spans
+ * one tick ([tickMs]) and a bucket of every next level spans a whole revolution of the previous
+ * level. Entries go into the lowest level that can fit their deadline and are moved into the lower
+ * levels (cascaded) as the time advances so adding/removing an entry doesn't depend on the amount of
+ * entries and advancing the time only touches the buckets that expire.
+ *
+ * Deadlines are rounded up to the tick so entries never expire before their deadline and the entries
+ * with deadlines within the same tick always expire together.
+ *
+ * Not thread-safe.
+ * */
+class TimingWheel<T>(
+  startTimeMs: Long,
+  private val tickMs: Long = DEFAULT_TICK_MS,
+  private val wheelSize: Int = DEFAULT_WHEEL_SIZE,
+  private val levels: Int = DEFAULT_LEVELS
+) {
+  private val buckets = Array(levels) { Array(wheelSize) { mutableListOf<Entry<T>>() } }
+  // Entries that don't fit even into the highest level. Re-added every time the highest level wraps around.
+  private val overflow = mutableListOf<Entry<T>>()
+  // Entries that were added with a deadline that has already passed.
+  private val expired = mutableListOf<Entry<T>>()
+  private val totalTicks: Long
+
+  private var currentTick = Math.floorDiv(startTimeMs, tickMs)
+
+  var size: Int = 0
+    private set
+
+  init {
+    require(tickMs > 0) { "Bad tickMs: $tickMs" }
+    require(wheelSize > 1) { "Bad wheelSize: $wheelSize" }
+    require(levels > 0) { "Bad levels: $levels" }
+
+    var ticks = 1L
+    repeat(levels) { ticks *= wheelSize }
+    totalTicks = ticks
+  }
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun add(value: T, deadlineMs: Long): Entry<T> {
+    val entry = Entry(value, deadlineMs)
+    place(entry)
+    ++size
+
+    return entry
+  }
+
+  /**
+   * Returns the time at which [advanceTo] is going to return the [entry] (its deadline rounded up to the tick).
+   * */
+  fun expirationMs(entry: Entry<T>): Long = deadlineTick(entry) * tickMs
+
+  fun remove(entry: Entry<T>): Boolean {
+    val bucket = entry.bucket
+      ?: return false
+
+    bucket.remove(entry)
+    entry.bucket = null
+    --size
+
+    return true
+  }
+
+  /**
+   * Removes every entry (no matter when its deadline is) that matches the [predicate].
+   * */
+  fun removeAll(predicate: (T) -> Boolean): List<T> {
+    val removed = mutableListOf<T>()
+
+    forEachBucket { bucket ->
+      val iterator = bucket.iterator()
+
+      while (iterator.hasNext()) {
+        val entry = iterator.next()
+        if (!predicate(entry.value)) {
+          continue
+        }
+
+        iterator.remove()
+        entry.bucket = null
+        removed += entry.value
+      }
+    }
+
+    size -= removed.size
+    return removed
+  }
+
+  /**
+   * Moves the wheel to [nowMs] and removes all entries whose deadlines have been reached.
+   * */
+  fun advanceTo(nowMs: Long): List<T> {
+    val targetTick = Math.floorDiv(nowMs, tickMs)
+    val result = mutableListOf<T>()
+
+    if (isEmpty()) {
+      currentTick = maxOf(currentTick, targetTick)
+      return result
+    }
+
+    if (targetTick - currentTick >= totalTicks) {
+      // The clock jumped further than the wheel can see (the process was frozen for a long time),
+      // it's faster to rebuild everything than to go through every tick in between.
+      val entries = mutableListOf<Entry<T>>()
+      forEachBucket { bucket ->
+        entries += bucket
+        bucket.clear()
+      }
+
+      currentTick = targetTick
+      entries.forEach { entry -> place(entry) }
+    }
+
+    drainInto(expired, result)
+
+    while (currentTick < targetTick && !isEmpty()) {
+      ++currentTick
+      cascade()
+
+      drainInto(buckets[0][bucketIndex(currentTick)], result)
+      drainInto(expired, result)
+    }
+
+    currentTick = maxOf(currentTick, targetTick)
+    return result
+  }
+
+  /**
+   * Returns the earliest time at which [advanceTo] will return anything or null if the wheel is empty.
+   * */
+  fun nextExpirationMs(): Long? {
+    if (isEmpty()) {
+      return null
+    }
+
+    if (expired.isNotEmpty()) {
+      return currentTick * tickMs
+    }
+
+    var nextTick = Long.MAX_VALUE
+
+    // The first level covers exactly the next wheelSize ticks so the first non-empty bucket is the
+    // earliest one there.
+    for (offset in 1..wheelSize) {
+      val tick = currentTick + offset
+      if (buckets[0][bucketIndex(tick)].isNotEmpty()) {
+        nextTick = tick
+        break
+      }
+    }
+
+    for (level in 1 until levels) {
+      for (bucket in buckets[level]) {
+        for (entry in bucket) {
+          nextTick = minOf(nextTick, deadlineTick(entry))
+        }
+      }
+    }
+
+    for (entry in overflow) {
+      nextTick = minOf(nextTick, deadlineTick(entry))
+    }
+
+    return nextTick * tickMs
+  }
+
+  private fun cascade() {
+    if (Math.floorMod(currentTick, totalTicks) == 0L) {
+      val entries = overflow.toList()
+      overflow.clear()
+      entries.forEach { entry -> place(entry) }
+    }
+
+    // From the highest level down so that the cascaded entries may cascade again into the lower
+    // levels during the same tick.
+    for (level in levels - 1 downTo 1) {
+      val ticksPerBucket = ticksPerBucket(level)
+      if (Math.floorMod(currentTick, ticksPerBucket) != 0L) {
+        continue
+      }
+
+      val bucket = buckets[level][bucketIndex(Math.floorDiv(currentTick, ticksPerBucket))]
+      if (bucket.isEmpty()) {
+        continue
+      }
+
+      val entries = bucket.toList()
+      bucket.clear()
+      entries.forEach { entry -> place(entry) }
+    }
+  }
+
+  private fun place(entry: Entry<T>) {
+    val deadlineTick = deadlineTick(entry)
+    val delta = deadlineTick - currentTick
+
+    if (delta <= 0) {
+      addToBucket(expired, entry)
+      return
+    }
+
+    var ticksPerBucket = 1L
+
+    for (level in 0 until levels) {
+      if (delta < ticksPerBucket * wheelSize) {
+        val index = bucketIndex(Math.floorDiv(deadlineTick, ticksPerBucket))
+        addToBucket(buckets[level][index], entry)
+        return
+      }
+
+      ticksPerBucket *= wheelSize
+    }
+
+    addToBucket(overflow, entry)
+  }
+
+  private fun addToBucket(bucket: MutableList<Entry<T>>, entry: Entry<T>) {
+    bucket += entry
+    entry.bucket = bucket
+  }
+
+  private fun drainInto(bucket: MutableList<Entry<T>>, result: MutableList<T>) {
+    if (bucket.isEmpty()) {
+      return
+    }
+
+    bucket.forEach { entry ->
+      entry.bucket = null
+      result += entry.value
+    }
+
+    size -= bucket.size
+    bucket.clear()
+  }
+
+  private inline fun forEachBucket(func: (MutableList<Entry<T>>) -> Unit) {
+    func(expired)
+
+    for (level in buckets) {
+      for (bucket in level) {
+        func(bucket)
+      }
+    }
+
+    func(overflow)
+  }
+
+  private fun ticksPerBucket(level: Int): Long {
+    var ticks = 1L
+    repeat(level) { ticks *= wheelSize }
+    return ticks
+  }
+
+  private fun bucketIndex(tick: Long): Int {
+    return Math.floorMod(tick, wheelSize.toLong()).toInt()
+  }
+
+  private fun deadlineTick(entry: Entry<T>): Long {
+    return Math.floorDiv(entry.deadlineMs + tickMs - 1, tickMs)
+  }
+
+  class Entry<T> internal constructor(
+    val value: T,
+    val deadlineMs: Long
+  ) {
+    internal var bucket: MutableList<Entry<T>>? = null
+  }
+
+  companion object {
+    const val DEFAULT_TICK_MS = 1000L
+    const val DEFAULT_WHEEL_SIZE = 64
+    // 64 ^ 4 seconds is a little more than 194 days
+    const val DEFAULT_LEVELS = 4
+  }
+
+}
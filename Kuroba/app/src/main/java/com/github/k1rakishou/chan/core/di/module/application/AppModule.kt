@@ -13,6 +13,7 @@ import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager
 import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.manager.ThreadBookmarkGroupManager
 import com.github.k1rakishou.chan.core.watcher.BookmarkWatcherCoordinator
@@ -55,7 +56,8 @@ class AppModule {
     filterWatcherCoordinator: FilterWatcherCoordinator,
     archivesManager: ArchivesManager,
     chanFilterManager: ChanFilterManager,
-    threadDownloadingCoordinator: ThreadDownloadingCoordinator
+    threadDownloadingCoordinator: ThreadDownloadingCoordinator,
+    memoryPressureCoordinator: MemoryPressureCoordinator
   ): AppDependenciesInitializer {
     deps("AppDependenciesInitializer")
 
@@ -69,7 +71,8 @@ class AppModule {
       filterWatcherCoordinator,
       archivesManager,
       chanFilterManager,
-      threadDownloadingCoordinator
+      threadDownloadingCoordinator,
+      memoryPressureCoordinator
     )
   }
 
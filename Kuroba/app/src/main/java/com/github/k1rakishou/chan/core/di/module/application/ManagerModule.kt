@@ -1,8 +1,11 @@
 package com.github.k1rakishou.chan.core.di.module.application
 
+import android.content.ComponentCallbacks2
 import android.content.Context
 import androidx.core.app.NotificationManagerCompat
+import coil.ImageLoader
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient
@@ -39,6 +42,7 @@ import com.github.k1rakishou.chan.core.manager.DownloadedImagesManager
 import com.github.k1rakishou.chan.core.manager.FirewallBypassManager
 import com.github.k1rakishou.chan.core.manager.HapticFeedbackManager
 import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator
 import com.github.k1rakishou.chan.core.manager.NotificationAutoDismissManager
 import com.github.k1rakishou.chan.core.manager.OnDemandContentLoaderManager
 import com.github.k1rakishou.chan.core.manager.PageRequestManager
@@ -69,6 +73,7 @@ import com.github.k1rakishou.chan.core.usecase.CatalogDataPreloader
 import com.github.k1rakishou.chan.core.usecase.FetchThreadBookmarkInfoUseCase
 import com.github.k1rakishou.chan.core.usecase.GetThreadBookmarkGroupIdsUseCase
 import com.github.k1rakishou.chan.core.usecase.ParsePostRepliesUseCase
+import com.github.k1rakishou.chan.core.usecase.ReapplyFiltersUseCase
 import com.github.k1rakishou.chan.core.usecase.ThreadDataPreloader
 import com.github.k1rakishou.chan.core.usecase.ThreadDownloaderPersistPostsInDatabaseUseCase
 import com.github.k1rakishou.chan.core.watcher.BookmarkForegroundWatcher
@@ -317,6 +322,73 @@ class ManagerModule {
     return ApplicationVisibilityManager()
   }
 
+  @Provides
+  @Singleton
+  fun provideRefreshScheduler(appScope: CoroutineScope): RefreshScheduler {
+    deps("RefreshScheduler")
+    return RefreshScheduler(
+      scope = appScope,
+      verboseLogs = ChanSettings.verboseLogs.get()
+    )
+  }
+
+  @Provides
+  @Singleton
+  fun provideMemoryPressureCoordinator(
+    appScope: CoroutineScope,
+    applicationVisibilityManager: ApplicationVisibilityManager,
+    refreshScheduler: RefreshScheduler,
+    imageLoader: Lazy<ImageLoader>,
+    chanThreadsCache: Lazy<ChanThreadsCache>
+  ): MemoryPressureCoordinator {
+    deps("MemoryPressureCoordinator")
+    val memoryPressureCoordinator = MemoryPressureCoordinator(
+      appScope = appScope,
+      verboseLogs = ChanSettings.verboseLogs.get(),
+      applicationVisibilityManager = applicationVisibilityManager,
+      refreshScheduler = refreshScheduler
+    )
+
+    memoryPressureCoordinator.register(
+      name = "CoilMemoryCache",
+      priority = MemoryPressureCoordinator.TrimPriority.Disposable,
+      unit = "bytes"
+    ) { memoryPressure ->
+      val memoryCache = imageLoader.get().memoryCache
+        ?: return@register 0L
+
+      val sizeBefore = memoryCache.size
+
+      if (memoryPressure == MemoryPressureCoordinator.MemoryPressure.Low) {
+        // Coil halves the cache for this level
+        memoryCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+      } else {
+        memoryCache.clear()
+      }
+
+      return@register (sizeBefore - memoryCache.size).toLong().coerceAtLeast(0L)
+    }
+
+    // Other managers (PostFilterManager, SeenPostsManager, PostHideManager, SavedReplyManager,
+    // ThirdEyeManager, etc) drop the data of the evicted threads/posts when notified by ChanThreadsCache
+    memoryPressureCoordinator.register(
+      name = "ChanThreadsCache.catalogOriginalPosts",
+      priority = MemoryPressureCoordinator.TrimPriority.Rebuildable,
+      unit = "posts"
+    ) { chanThreadsCache.get().trimCatalogOriginalPosts().toLong() }
+
+    memoryPressureCoordinator.register(
+      name = "ChanThreadsCache.threads",
+      priority = MemoryPressureCoordinator.TrimPriority.Expensive,
+      unit = "posts"
+    ) {
+      val immuneThreadsCount = ChanThreadsCache.immuneThreadsCount(isLowRamDevice = true)
+      return@register chanThreadsCache.get().trimThreads(immuneThreadsCount).toLong()
+    }
+
+    return memoryPressureCoordinator
+  }
+
   @Provides
   @Singleton
   fun provideHistoryNavigationManager(
@@ -421,7 +493,8 @@ class ManagerModule {
     archivesManager: ArchivesManager,
     bookmarkWatcherDelegate: Lazy<BookmarkWatcherDelegate>,
     applicationVisibilityManager: ApplicationVisibilityManager,
-    currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager
+    currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager,
+    refreshScheduler: RefreshScheduler
   ): BookmarkForegroundWatcher {
     deps("BookmarkForegroundWatcher")
     return BookmarkForegroundWatcher(
@@ -433,7 +506,8 @@ class ManagerModule {
       archivesManager,
       bookmarkWatcherDelegate,
       applicationVisibilityManager,
-      currentOpenedDescriptorStateManager
+      currentOpenedDescriptorStateManager,
+      refreshScheduler
     )
   }
 
@@ -474,7 +548,8 @@ class ManagerModule {
     chanPostRepository: Lazy<ChanPostRepository>,
     imageLoaderDeprecated: Lazy<ImageLoaderDeprecated>,
     themeEngine: Lazy<ThemeEngine>,
-    simpleCommentParser: Lazy<SimpleCommentParser>
+    simpleCommentParser: Lazy<SimpleCommentParser>,
+    memoryPressureCoordinator: MemoryPressureCoordinator
   ): ReplyNotificationsHelper {
     deps("ReplyNotificationsHelper")
     return ReplyNotificationsHelper(
@@ -488,7 +563,8 @@ class ManagerModule {
       chanPostRepository,
       imageLoaderDeprecated,
       themeEngine,
-      simpleCommentParser
+      simpleCommentParser,
+      memoryPressureCoordinator
     )
   }
 
@@ -582,8 +658,9 @@ class ManagerModule {
     chanFilterRepository: Lazy<ChanFilterRepository>,
     chanPostRepository: Lazy<ChanPostRepository>,
     chanFilterWatchRepository: Lazy<ChanFilterWatchRepository>,
+    postFilterHighlightManager: Lazy<PostFilterHighlightManager>,
     postFilterManager: Lazy<PostFilterManager>,
-    postFilterHighlightManager: Lazy<PostFilterHighlightManager>
+    reapplyFiltersUseCase: Lazy<ReapplyFiltersUseCase>
   ): ChanFilterManager {
     deps("ChanFilterManager")
     return ChanFilterManager(
@@ -593,7 +670,8 @@ class ManagerModule {
       chanPostRepository,
       chanFilterWatchRepository,
       postFilterHighlightManager,
-      postFilterManager
+      postFilterManager,
+      reapplyFiltersUseCase
     )
   }
 
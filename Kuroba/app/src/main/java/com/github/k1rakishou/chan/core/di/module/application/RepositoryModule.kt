@@ -11,7 +11,9 @@ import com.github.k1rakishou.chan.core.site.ParserRepository
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.usecase.DownloadThemeJsonFilesUseCase
 import com.github.k1rakishou.chan.core.usecase.ExportBackupFileUseCase
+import com.github.k1rakishou.chan.core.usecase.ExportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.ImportBackupFileUseCase
+import com.github.k1rakishou.chan.core.usecase.ImportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.KurobaSettingsImportUseCase
 import com.github.k1rakishou.chan.core.usecase.LoadBoardFlagsUseCase
 import com.github.k1rakishou.chan.features.media_viewer.helper.ChanPostBackgroundColorStorage
@@ -32,7 +34,9 @@ class RepositoryModule {
     fileManager: FileManager,
     kurobaSettingsImportUseCase: KurobaSettingsImportUseCase,
     exportBackupFileUseCase: ExportBackupFileUseCase,
-    importBackupFileUseCase: ImportBackupFileUseCase
+    importBackupFileUseCase: ImportBackupFileUseCase,
+    exportLogicalBackupUseCase: ExportLogicalBackupUseCase,
+    importLogicalBackupUseCase: ImportLogicalBackupUseCase
   ): ImportExportRepository {
     deps("ImportExportRepository")
     return ImportExportRepository(
@@ -40,7 +44,9 @@ class RepositoryModule {
       fileManager,
       kurobaSettingsImportUseCase,
       exportBackupFileUseCase,
-      importBackupFileUseCase
+      importBackupFileUseCase,
+      exportLogicalBackupUseCase,
+      importLogicalBackupUseCase
     )
   }
 
@@ -11,6 +11,8 @@ import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadViewableInfoManager
+import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.core.manager.PageRequestManager
 import com.github.k1rakishou.chan.core.manager.PostFilterManager
 import com.github.k1rakishou.chan.core.manager.PostHideManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
@@ -32,6 +34,7 @@ import com.github.k1rakishou.chan.core.usecase.ExportDownloadedThreadAsHtmlUseCa
 import com.github.k1rakishou.chan.core.usecase.ExportDownloadedThreadAsJsonUseCase
 import com.github.k1rakishou.chan.core.usecase.ExportDownloadedThreadMediaUseCase
 import com.github.k1rakishou.chan.core.usecase.ExportFiltersUseCase
+import com.github.k1rakishou.chan.core.usecase.ExportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.ExtractPostMapInfoHolderUseCase
 import com.github.k1rakishou.chan.core.usecase.FetchThreadBookmarkInfoUseCase
 import com.github.k1rakishou.chan.core.usecase.FilterOutHiddenImagesUseCase
@@ -39,12 +42,14 @@ import com.github.k1rakishou.chan.core.usecase.GetThreadBookmarkGroupIdsUseCase
 import com.github.k1rakishou.chan.core.usecase.GlobalSearchUseCase
 import com.github.k1rakishou.chan.core.usecase.ImportBackupFileUseCase
 import com.github.k1rakishou.chan.core.usecase.ImportFiltersUseCase
+import com.github.k1rakishou.chan.core.usecase.ImportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.InstallMpvNativeLibrariesFromGithubUseCase
 import com.github.k1rakishou.chan.core.usecase.InstallMpvNativeLibrariesFromLocalDirectoryUseCase
 import com.github.k1rakishou.chan.core.usecase.KurobaSettingsImportUseCase
 import com.github.k1rakishou.chan.core.usecase.LoadBoardFlagsUseCase
 import com.github.k1rakishou.chan.core.usecase.LoadChan4CaptchaUseCase
 import com.github.k1rakishou.chan.core.usecase.ParsePostRepliesUseCase
+import com.github.k1rakishou.chan.core.usecase.ReapplyFiltersUseCase
 import com.github.k1rakishou.chan.core.usecase.RefreshChan4CaptchaTicketUseCase
 import com.github.k1rakishou.chan.core.usecase.SearxImageSearchUseCase
 import com.github.k1rakishou.chan.core.usecase.ThreadDataPreloader
@@ -59,6 +64,7 @@ import com.github.k1rakishou.core_logger.Logger.deps
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
+import com.github.k1rakishou.model.repository.ChanFilterRepository
 import com.github.k1rakishou.model.repository.ChanFilterWatchRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
@@ -101,6 +107,9 @@ class UseCaseModule {
     okHttpClient: Lazy<ProxiedOkHttpClient>,
     siteManager: SiteManager,
     bookmarksManager: BookmarksManager,
+    pageRequestManager: Lazy<PageRequestManager>,
+    replyParser: Lazy<ReplyParser>,
+    chanSavedReplyRepository: Lazy<ChanSavedReplyRepository>,
     appConstants: AppConstants
   ): FetchThreadBookmarkInfoUseCase {
     deps("FetchThreadBookmarkInfoUseCase")
@@ -111,6 +120,9 @@ class UseCaseModule {
       okHttpClient,
       siteManager,
       bookmarksManager,
+      pageRequestManager,
+      replyParser,
+      chanSavedReplyRepository,
       appConstants
     )
   }
@@ -118,18 +130,10 @@ class UseCaseModule {
   @Provides
   @Singleton
   fun provideParsePostRepliesUseCase(
-    appScope: CoroutineScope,
-    replyParser: Lazy<ReplyParser>,
-    siteManager: SiteManager,
-    chanSavedReplyRepository: Lazy<ChanSavedReplyRepository>
+    siteManager: SiteManager
   ): ParsePostRepliesUseCase {
     deps("ParsePostRepliesUseCase")
-    return ParsePostRepliesUseCase(
-      appScope,
-      replyParser,
-      siteManager,
-      chanSavedReplyRepository
-    )
+    return ParsePostRepliesUseCase(siteManager)
   }
 
   @Provides
@@ -185,6 +189,21 @@ class UseCaseModule {
     )
   }
 
+  @Provides
+  @Singleton
+  fun provideReapplyFiltersUseCase(
+    filterEngine: Lazy<FilterEngine>,
+    postFilterManager: Lazy<PostFilterManager>,
+    postHideManager: Lazy<PostHideManager>
+  ): ReapplyFiltersUseCase {
+    deps("ReapplyFiltersUseCase")
+    return ReapplyFiltersUseCase(
+      filterEngine,
+      postFilterManager,
+      postHideManager
+    )
+  }
+
   @Provides
   @Singleton
   fun provideBookmarkFilterWatchableThreadsUseCase(
@@ -251,6 +270,52 @@ class UseCaseModule {
     )
   }
 
+  @Provides
+  @Singleton
+  fun provideExportLogicalBackupUseCase(
+    appContext: Context,
+    fileManager: FileManager,
+    chanFilterRepository: ChanFilterRepository,
+    bookmarksManager: BookmarksManager,
+    chanSavedReplyRepository: ChanSavedReplyRepository,
+    historyNavigationManager: HistoryNavigationManager,
+    chanPostRepository: ChanPostRepository
+  ): ExportLogicalBackupUseCase {
+    deps("ExportLogicalBackupUseCase")
+    return ExportLogicalBackupUseCase(
+      appContext,
+      fileManager,
+      chanFilterRepository,
+      bookmarksManager,
+      chanSavedReplyRepository,
+      historyNavigationManager,
+      chanPostRepository
+    )
+  }
+
+  @Provides
+  @Singleton
+  fun provideImportLogicalBackupUseCase(
+    fileManager: FileManager,
+    boardManager: BoardManager,
+    chanFilterRepository: ChanFilterRepository,
+    bookmarksManager: BookmarksManager,
+    chanSavedReplyRepository: ChanSavedReplyRepository,
+    historyNavigationManager: HistoryNavigationManager,
+    chanPostRepository: ChanPostRepository
+  ): ImportLogicalBackupUseCase {
+    deps("ImportLogicalBackupUseCase")
+    return ImportLogicalBackupUseCase(
+      fileManager,
+      boardManager,
+      chanFilterRepository,
+      bookmarksManager,
+      chanSavedReplyRepository,
+      historyNavigationManager,
+      chanPostRepository
+    )
+  }
+
   @Provides
   @Singleton
   fun provideTwoCaptchaCheckBalanceUseCase(
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.helper
 
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
 import com.github.k1rakishou.common.rethrowCancellationException
@@ -11,7 +12,6 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.actor
 import kotlinx.coroutines.channels.consumeEach
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -23,6 +23,7 @@ class ChanThreadTicker(
   private val isDevFlavor: Boolean,
   private val archivesManager: ArchivesManager,
   private val chanThreadManager: ChanThreadManager,
+  private val refreshScheduler: RefreshScheduler,
   private val action: suspend (ChanDescriptor) -> Unit
 ) {
   private val debouncer = DebouncingCoroutineExecutor(scope)
@@ -147,7 +148,13 @@ class ChanThreadTicker(
       Logger.d(TAG, "startOrRestartTickerInternal scheduled, " +
         "chanDescriptor=${tickerAction.chanDescriptor}, waiting ${waitTimeMillis}ms")
 
-      delay(waitTimeMillis)
+      // Let the scheduler batch the thread update together with other refreshes (e.g. bookmarks)
+      // that are due around the same time.
+      refreshScheduler.awaitRefresh(
+        tag = TAG,
+        intervalMs = waitTimeMillis,
+        onDeadlineChosen = { timeUntilDeadlineMs -> chanTickerData.updateRefreshDeadline(timeUntilDeadlineMs) }
+      )
 
       run {
         Logger.d(TAG, "startOrRestartTickerInternal run action begin")
@@ -270,7 +277,9 @@ class ChanThreadTicker(
     private var currentTimeoutIndex: Int = 0
     private var tickerJob: Job? = null
     private var waitTimeSeconds: Long = 0
-    private var lastLoadTime: Long = 0
+    // The wall clock time at which the next update is going to happen at the latest (the scheduler may
+    // run it a little bit earlier to batch it together with other refreshes).
+    private var refreshDeadlineTime: Long = 0
 
     @Synchronized
     fun isTicking(): Boolean = tickerJob != null
@@ -280,11 +289,11 @@ class ChanThreadTicker(
 
     @Synchronized
     fun getTimeUntilLoadMoreMs(): Long {
-      if (lastLoadTime == 0L) {
+      if (refreshDeadlineTime == 0L) {
         return 0
       }
 
-      return lastLoadTime + (waitTimeSeconds * 1000L) - System.currentTimeMillis()
+      return refreshDeadlineTime - System.currentTimeMillis()
     }
 
     @Synchronized
@@ -304,7 +313,7 @@ class ChanThreadTicker(
     fun resetAll() {
       this.currentTimeoutIndex = 0
       this.waitTimeSeconds = 0
-      this.lastLoadTime = 0
+      this.refreshDeadlineTime = 0
     }
 
     @Synchronized
@@ -320,10 +329,16 @@ class ChanThreadTicker(
 
     @Synchronized
     fun updateWaitTimeSeconds(waitTimeSeconds: Long) {
-      this.lastLoadTime = System.currentTimeMillis()
+      // An estimate until the next update is scheduled and the actual deadline is known
+      this.refreshDeadlineTime = System.currentTimeMillis() + (waitTimeSeconds * 1000L)
       this.waitTimeSeconds = waitTimeSeconds
     }
 
+    @Synchronized
+    fun updateRefreshDeadline(timeUntilDeadlineMs: Long) {
+      this.refreshDeadlineTime = System.currentTimeMillis() + timeUntilDeadlineMs
+    }
+
     @Synchronized
     fun getCurrentTimeoutIndex(): Int = this.currentTimeoutIndex
 
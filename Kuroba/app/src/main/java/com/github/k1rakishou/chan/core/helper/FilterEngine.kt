@@ -7,8 +7,10 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
 import com.github.k1rakishou.model.data.filter.ChanFilterMutable
+import com.github.k1rakishou.model.data.filter.FilterAction
 import com.github.k1rakishou.model.data.filter.FilterType
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.PostFilter
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicLong
 import java.util.regex.Pattern
@@ -83,7 +85,12 @@ class FilterEngine @Inject constructor(
    */
   @AnyThread
   fun matches(filter: ChanFilter, post: ChanPostBuilder): Boolean {
-    if (post.moderatorCapcode.isNotEmpty() || post.sticky) {
+    return matches(filter, PostFilterInput.fromPostBuilder(post))
+  }
+
+  @AnyThread
+  fun matches(filter: ChanFilter, post: PostFilterInput): Boolean {
+    if (post.neverFiltered) {
       return false
     }
 
@@ -95,12 +102,12 @@ class FilterEngine @Inject constructor(
       return false
     }
 
-    if (filter.applyToEmptyComments && post.postCommentBuilder.getComment().isEmpty()) {
+    if (filter.applyToEmptyComments && post.comment.isEmpty()) {
       return true
     }
 
-    if (typeMatches(filter, FilterType.COMMENT) && post.postCommentBuilder.getComment().isNotEmpty()) {
-      if (matches(filter, post.postCommentBuilder.getComment())) {
+    if (typeMatches(filter, FilterType.COMMENT) && post.comment.isNotEmpty()) {
+      if (matches(filter, post.comment)) {
         return true
       }
     }
@@ -121,61 +128,84 @@ class FilterEngine @Inject constructor(
       return true
     }
 
-    if (post.postImages.size > 0) {
-      if (tryMatchPostImagesWithFilter(filter, post)) {
-        return true
+    if (typeMatches(filter, FilterType.IMAGE)) {
+      for (fileHash in post.imageFileHashes) {
+        if (matches(filter, fileHash)) {
+          return true
+        }
       }
     }
 
-    if (post.httpIcons.size > 0) {
-      if (tryMatchPostFlagsWithFilter(filter, post)) {
-        return true
-      }
+    if (typeMatches(filter, FilterType.FILENAME) && matches(filter, post.imageFileNames)) {
+      return true
+    }
+
+    if (typeMatches(filter, FilterType.COUNTRY_CODE) && matches(filter, post.countryCode)) {
+      return true
     }
 
     return false
   }
 
-  private fun tryMatchPostFlagsWithFilter(filter: ChanFilter, post: ChanPostBuilder): Boolean {
-    // figure out if the post has a country code, if so check the filter
-    var countryCode = ""
-
-    for (icon in post.httpIcons) {
-      val index = icon.iconName.indexOf('/')
-      if (index != -1) {
-        countryCode = icon.iconName.substring(index + 1)
-        break
+  /**
+   * Returns the first filter of [filters] (which must be sorted the same way as [enabledFilters])
+   * that matches the [post] or null if none of them match. Watch filters are skipped because we
+   * never create post filters out of them.
+   * */
+  @AnyThread
+  fun findFirstMatchingFilter(filters: List<ChanFilter>, post: PostFilterInput): ChanFilter? {
+    for (filter in filters) {
+      if (filter.isWatchFilter() || filter.isAvoidWatchFilter()) {
+        // Do not auto create watch filters, this may end up pretty bad
+        continue
       }
-    }
 
-    if (countryCode.isEmpty()) {
-      return false
+      if (matches(filter, post)) {
+        return filter
+      }
     }
 
-    return typeMatches(filter, FilterType.COUNTRY_CODE) && matches(filter, countryCode)
+    return null
   }
 
-  private fun tryMatchPostImagesWithFilter(filter: ChanFilter, post: ChanPostBuilder): Boolean {
-    for (image in post.postImages) {
-      if (typeMatches(filter, FilterType.IMAGE) && matches(filter, image.fileHash)) {
-        return true
+  @Suppress("WHEN_ENUM_CAN_BE_NULL_IN_JAVA")
+  fun createPostFilter(filter: ChanFilter): PostFilter {
+    return when (FilterAction.forId(filter.action)) {
+      FilterAction.COLOR -> {
+        PostFilter(
+          ownerFilterId = filter.getDatabaseId(),
+          filterEnabled = filter.enabled,
+          filterHighlightedColor = filter.color,
+          filterReplies = filter.applyToReplies,
+          filterOnlyOP = filter.onlyOnOP,
+          filterSaved = filter.applyToSaved
+        )
       }
-    }
-
-    val files = StringBuilder()
-
-    for (image in post.postImages) {
-      files.append(image.filename).append(" ")
-    }
-
-    val fnames = files.toString()
-    if (fnames.isNotEmpty()) {
-      if (typeMatches(filter, FilterType.FILENAME) && matches(filter, fnames)) {
-        return true
+      FilterAction.HIDE -> {
+        PostFilter(
+          ownerFilterId = filter.getDatabaseId(),
+          filterEnabled = filter.enabled,
+          filterStub = true,
+          filterReplies = filter.applyToReplies,
+          filterOnlyOP = filter.onlyOnOP
+        )
+      }
+      FilterAction.REMOVE -> {
+        PostFilter(
+          ownerFilterId = filter.getDatabaseId(),
+          filterEnabled = filter.enabled,
+          filterRemove = true,
+          filterReplies = filter.applyToReplies,
+          filterOnlyOP = filter.onlyOnOP
+        )
+      }
+      FilterAction.WATCH -> {
+        throw IllegalStateException("Cannot auto-create WATCH filters")
+      }
+      FilterAction.AVOID_WATCH -> {
+        throw IllegalStateException("Cannot auto-create AVOID_WATCH filters")
       }
     }
-
-    return false
   }
 
   @AnyThread
@@ -235,6 +265,47 @@ class FilterEngine @Inject constructor(
       return false
     }
 
+    val pattern = getOrCompilePattern(patternRaw, filterType, forceCompile)
+      ?: return false
+
+    return matches(pattern, text)
+  }
+
+  /**
+   * Returns the compiled pattern of the [filter] (taken from the pattern cache when possible) or
+   * null if the filter has no pattern or the pattern can't be compiled (such filters never match
+   * anything).
+   * */
+  @AnyThread
+  fun getOrCompilePattern(filter: ChanFilter): Pattern? {
+    val patternRaw = filter.pattern
+      ?: return null
+
+    return getOrCompilePattern(patternRaw, filter.type, forceCompile = false)
+  }
+
+  @AnyThread
+  fun matches(pattern: Pattern, text: CharSequence?): Boolean {
+    if (text.isNullOrEmpty()) {
+      return false
+    }
+
+    val matcher = pattern.matcher(text)
+
+    try {
+      return matcher.find()
+    } catch (e: IllegalArgumentException) {
+      Logger.error(TAG, e) { "matcher.find() exception, pattern: ${pattern.pattern()}" }
+      return false
+    }
+  }
+
+  @AnyThread
+  private fun getOrCompilePattern(
+    patternRaw: String,
+    filterType: Int,
+    forceCompile: Boolean
+  ): Pattern? {
     var pattern: Pattern? = null
     if (!forceCompile) {
       pattern = patternCache[patternRaw]
@@ -258,18 +329,7 @@ class FilterEngine @Inject constructor(
       }
     }
 
-    if (pattern == null) {
-      return false
-    }
-
-    val matcher = pattern.matcher(text)
-
-    try {
-      return matcher.find()
-    } catch (e: IllegalArgumentException) {
-      Logger.error(TAG, e) { "matcher.find() exception, pattern: ${pattern.pattern()}" }
-      return false
-    }
+    return pattern
   }
 
   @AnyThread
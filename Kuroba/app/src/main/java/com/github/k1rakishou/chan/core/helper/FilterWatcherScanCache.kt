@@ -0,0 +1,96 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.common.datastructure.LongObjectMap
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+
+/**
+ * Remembers, per board, which catalog threads (threadNo + hash of the OP subject and comment) were
+ * already matched against the watch filters by the filter watcher and what the result was, so that
+ * the next runs only need to match new threads and threads which OP was edited. Only kept in memory.
+ *
+ * Everything is forgotten when the watch filters change since the results may not be valid
+ * anymore. Threads that are not in the catalog anymore and boards that are not checked anymore are
+ * dropped at the end of every run.
+ * */
+class FilterWatcherScanCache {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private var watchFilters: List<ChanFilter> = emptyList()
+  @GuardedBy("lock")
+  private val evaluatedThreadsPerBoard = mutableMapOf<BoardDescriptor, LongObjectMap<EvaluatedThread>>()
+
+  /**
+   * Must be called at the beginning of every run. Returns the results of the previous runs or an
+   * empty snapshot when [currentWatchFilters] are not the same as the filters of the previous run.
+   * The returned snapshot is never modified so it can be read from multiple threads without locking.
+   * */
+  fun startRun(currentWatchFilters: List<ChanFilter>): Snapshot {
+    synchronized(lock) {
+      if (watchFilters != currentWatchFilters) {
+        val invalidated = evaluatedThreadsPerBoard.isNotEmpty()
+
+        watchFilters = currentWatchFilters
+        evaluatedThreadsPerBoard.clear()
+
+        return Snapshot(emptyMap(), invalidated)
+      }
+
+      return Snapshot(evaluatedThreadsPerBoard.toMap(), invalidated = false)
+    }
+  }
+
+  /**
+   * [checkedBoards] - all the boards the filter watcher tried to check during this run.
+   * [scannedBoards] - the evaluated threads of the boards which catalogs were successfully loaded.
+   * Boards that were checked but which catalogs couldn't be loaded keep the old results.
+   * */
+  fun finishRun(
+    runWatchFilters: List<ChanFilter>,
+    checkedBoards: Set<BoardDescriptor>,
+    scannedBoards: Map<BoardDescriptor, LongObjectMap<EvaluatedThread>>
+  ) {
+    synchronized(lock) {
+      if (watchFilters != runWatchFilters) {
+        // The filters were changed while we were running, whatever we have is already outdated.
+        return
+      }
+
+      evaluatedThreadsPerBoard.keys.retainAll(checkedBoards)
+      evaluatedThreadsPerBoard.putAll(scannedBoards)
+    }
+  }
+
+  class Snapshot(
+    private val evaluatedThreadsPerBoard: Map<BoardDescriptor, LongObjectMap<EvaluatedThread>>,
+    // True when there were some results but they were dropped because the watch filters changed
+    val invalidated: Boolean
+  ) {
+
+    fun get(boardDescriptor: BoardDescriptor, threadNo: Long): EvaluatedThread? {
+      return evaluatedThreadsPerBoard[boardDescriptor]?.get(threadNo)
+    }
+
+  }
+
+  class EvaluatedThread(
+    val opHash: Long,
+    // Database id of the watch filter that matched the thread or NO_MATCHED_FILTER
+    val matchedFilterId: Long
+  )
+
+  companion object {
+    const val NO_MATCHED_FILTER = -1L
+
+    /**
+     * Hash of the unparsed OP subject and comment. Two 32-bit String hashes are enough to notice
+     * that the OP was edited and this way we don't need to allocate anything.
+     * */
+    fun opHash(subject: String, rawComment: String): Long {
+      return (subject.hashCode().toLong() shl 32) or (rawComment.hashCode().toLong() and 0xFFFFFFFFL)
+    }
+  }
+
+}
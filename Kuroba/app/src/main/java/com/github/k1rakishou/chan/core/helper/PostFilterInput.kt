@@ -0,0 +1,74 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+
+/**
+ * The post fields [FilterEngine] matches filters against. Unlike [ChanPostBuilder] it contains
+ * neither spans nor linkables nor images so it's cheap to keep one for every post that went
+ * through the filters. This is what allows us to re-run only the changed filters when the user
+ * creates/updates/deletes a filter instead of reloading and parsing all the cached posts again.
+ * */
+class PostFilterInput(
+  val postDescriptor: PostDescriptor,
+  val comment: String,
+  val subject: String?,
+  val name: String?,
+  val tripcode: String?,
+  val posterId: String?,
+  val imageFileHashes: List<String>,
+  val imageFileNames: String,
+  val countryCode: String,
+  val op: Boolean,
+  val isSavedReply: Boolean,
+  // Posts of moderators and sticky posts are never filtered
+  val neverFiltered: Boolean
+) {
+
+  companion object {
+    fun fromPostBuilder(postBuilder: ChanPostBuilder): PostFilterInput {
+      val imageFileHashes = if (postBuilder.postImages.isEmpty()) {
+        emptyList()
+      } else {
+        postBuilder.postImages.mapNotNull { postImage -> postImage.fileHash }
+      }
+
+      val imageFileNames = if (postBuilder.postImages.isEmpty()) {
+        ""
+      } else {
+        buildString {
+          for (postImage in postBuilder.postImages) {
+            append(postImage.filename).append(" ")
+          }
+        }
+      }
+
+      return PostFilterInput(
+        postDescriptor = postBuilder.postDescriptor,
+        comment = postBuilder.postCommentBuilder.getComment().toString(),
+        subject = postBuilder.subject?.toString(),
+        name = postBuilder.name,
+        tripcode = postBuilder.tripcode?.toString(),
+        posterId = postBuilder.posterId,
+        imageFileHashes = imageFileHashes,
+        imageFileNames = imageFileNames,
+        countryCode = extractCountryCode(postBuilder),
+        op = postBuilder.op,
+        isSavedReply = postBuilder.isSavedReply,
+        neverFiltered = postBuilder.moderatorCapcode.isNotEmpty() || postBuilder.sticky
+      )
+    }
+
+    private fun extractCountryCode(postBuilder: ChanPostBuilder): String {
+      for (icon in postBuilder.httpIcons) {
+        val index = icon.iconName.indexOf('/')
+        if (index != -1) {
+          return icon.iconName.substring(index + 1)
+        }
+      }
+
+      return ""
+    }
+  }
+
+}
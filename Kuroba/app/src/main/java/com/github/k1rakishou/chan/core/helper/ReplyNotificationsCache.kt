@@ -0,0 +1,147 @@
+package com.github.k1rakishou.chan.core.helper
+
+import android.graphics.drawable.BitmapDrawable
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkReplyView
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import okhttp3.HttpUrl
+
+/**
+ * Remembers what [ReplyNotificationsHelper] needs to build a thread notification (the thread title
+ * and the thumbnail bitmap) so that the original posts are not loaded from the database and the
+ * thumbnails are not decoded again every time the notifications are updated. Also remembers what
+ * every shown notification looked like so that only the notifications that changed are rebuilt.
+ *
+ * Thread info is only valid for as long as the bookmark title and thumbnail url are the same as
+ * when it was cached.
+ * */
+class ReplyNotificationsCache(
+  private val maxCachedThreads: Int = MAX_CACHED_THREADS
+) {
+  @GuardedBy("this")
+  private val threadInfoCache = object : LinkedHashMap<ChanDescriptor.ThreadDescriptor, ThreadInfo>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ChanDescriptor.ThreadDescriptor, ThreadInfo>?): Boolean {
+      return size > maxCachedThreads
+    }
+  }
+
+  // ThreadDescriptor -> fingerprint of the notification that is currently shown for that thread
+  @GuardedBy("this")
+  private val shownNotifications = mutableMapOf<ChanDescriptor.ThreadDescriptor, Long>()
+
+  @Synchronized
+  fun getThreadInfo(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    bookmarkKey: BookmarkKey
+  ): ThreadInfo? {
+    val threadInfo = threadInfoCache[threadDescriptor]
+      ?: return null
+
+    if (threadInfo.bookmarkKey != bookmarkKey) {
+      threadInfoCache.remove(threadDescriptor)
+      return null
+    }
+
+    return threadInfo
+  }
+
+  @Synchronized
+  fun putThreadInfo(threadDescriptor: ChanDescriptor.ThreadDescriptor, threadInfo: ThreadInfo) {
+    threadInfoCache[threadDescriptor] = threadInfo
+  }
+
+  /**
+   * Returns true when the notification with the same [fingerprint] was already shown for this thread.
+   * */
+  @Synchronized
+  fun isNotificationUpToDate(threadDescriptor: ChanDescriptor.ThreadDescriptor, fingerprint: Long): Boolean {
+    return shownNotifications[threadDescriptor] == fingerprint
+  }
+
+  @Synchronized
+  fun onNotificationShown(threadDescriptor: ChanDescriptor.ThreadDescriptor, fingerprint: Long) {
+    shownNotifications[threadDescriptor] = fingerprint
+  }
+
+  /**
+   * Forgets the notifications of the threads that are not in [threadDescriptors] (they were closed
+   * either by us or by the user).
+   * */
+  @Synchronized
+  fun retainShownNotifications(threadDescriptors: Set<ChanDescriptor.ThreadDescriptor>) {
+    shownNotifications.keys.retainAll(threadDescriptors)
+  }
+
+  @Synchronized
+  fun clearShownNotifications() {
+    shownNotifications.clear()
+  }
+
+  @Synchronized
+  fun invalidate(threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>) {
+    threadDescriptors.forEach { threadDescriptor ->
+      threadInfoCache.remove(threadDescriptor)
+      shownNotifications.remove(threadDescriptor)
+    }
+  }
+
+  @Synchronized
+  fun invalidateAll() {
+    threadInfoCache.clear()
+    shownNotifications.clear()
+  }
+
+  /**
+   * Drops the cached thread info (with the thumbnail bitmaps) but keeps the shown notifications so
+   * that they are not rebuilt unless they change. Returns the amount of dropped threads.
+   * */
+  @Synchronized
+  fun clearThreadInfos(): Int {
+    val count = threadInfoCache.size
+    threadInfoCache.clear()
+
+    return count
+  }
+
+  @Synchronized
+  fun cachedThreadsCount(): Int = threadInfoCache.size
+
+  data class BookmarkKey(
+    val title: String?,
+    val thumbnailUrl: HttpUrl?
+  )
+
+  class ThreadInfo(
+    val bookmarkKey: BookmarkKey,
+    val title: String,
+    val thumbnail: BitmapDrawable?
+  )
+
+  companion object {
+    private const val MAX_CACHED_THREADS = 32
+
+    /**
+     * Everything that a thread notification is built from (except for the things that are the same
+     * for all notifications) so that when it's the same the notification doesn't need to be rebuilt.
+     * */
+    fun notificationFingerprint(
+      threadTitle: String,
+      hasThumbnail: Boolean,
+      threadBookmarkReplies: Collection<ThreadBookmarkReplyView>
+    ): Long {
+      var fingerprint = threadTitle.hashCode().toLong()
+      fingerprint = 31 * fingerprint + hasThumbnail.hashCode()
+      fingerprint = 31 * fingerprint + threadBookmarkReplies.size
+
+      threadBookmarkReplies.forEach { threadBookmarkReplyView ->
+        fingerprint = 31 * fingerprint + threadBookmarkReplyView.postDescriptor.postNo
+        fingerprint = 31 * fingerprint + threadBookmarkReplyView.postDescriptor.postSubNo
+        fingerprint = 31 * fingerprint + threadBookmarkReplyView.alreadySeen.hashCode()
+        fingerprint = 31 * fingerprint + (threadBookmarkReplyView.commentRaw?.hashCode() ?: 0)
+      }
+
+      return fingerprint
+    }
+  }
+
+}
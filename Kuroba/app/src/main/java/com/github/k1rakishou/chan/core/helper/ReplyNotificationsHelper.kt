@@ -23,6 +23,7 @@ import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.image.ImageLoaderDeprecated
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator
 import com.github.k1rakishou.chan.core.receiver.ReplyNotificationDeleteIntentBroadcastReceiver
 import com.github.k1rakishou.chan.core.site.parser.search.SimpleCommentParser
 import com.github.k1rakishou.chan.ui.activity.StartActivity
@@ -71,10 +72,12 @@ class ReplyNotificationsHelper(
   private val _chanPostRepository: Lazy<ChanPostRepository>,
   private val _imageLoaderDeprecated: Lazy<ImageLoaderDeprecated>,
   private val _themeEngine: Lazy<ThemeEngine>,
-  private val _simpleCommentParser: Lazy<SimpleCommentParser>
+  private val _simpleCommentParser: Lazy<SimpleCommentParser>,
+  private val memoryPressureCoordinator: MemoryPressureCoordinator
 ) {
   private val debouncer = DebouncingCoroutineExecutor(appScope)
   private val working = AtomicBoolean(false)
+  private val replyNotificationsCache = ReplyNotificationsCache()
 
   val bookmarksManager: BookmarksManager
     get() = _bookmarksManager.get()
@@ -88,6 +91,12 @@ class ReplyNotificationsHelper(
     get() = _simpleCommentParser.get()
 
   init {
+    memoryPressureCoordinator.register(
+      name = "ReplyNotificationsCache",
+      priority = MemoryPressureCoordinator.TrimPriority.Disposable,
+      unit = "threads"
+    ) { replyNotificationsCache.clearThreadInfos().toLong() }
+
     appScope.launch {
       bookmarksManager.awaitUntilInitialized()
 
@@ -97,7 +106,22 @@ class ReplyNotificationsHelper(
             || bookmarkChange is BookmarksManager.BookmarkChange.BookmarksInitialized
             || bookmarkChange is BookmarksManager.BookmarkChange.BookmarksDeleted
         }
-        .collect { showOrUpdateNotifications() }
+        .collect { bookmarkChange ->
+          when (bookmarkChange) {
+            is BookmarksManager.BookmarkChange.BookmarksInitialized -> {
+              replyNotificationsCache.invalidateAll()
+            }
+            is BookmarksManager.BookmarkChange.BookmarksDeleted -> {
+              replyNotificationsCache.invalidate(bookmarkChange.threadDescriptors)
+            }
+            else -> {
+              // Updated bookmarks are checked against the cached thread info when the notifications
+              // are shown
+            }
+          }
+
+          showOrUpdateNotifications()
+        }
     }
   }
 
@@ -126,9 +150,14 @@ class ReplyNotificationsHelper(
 
     val unreadNotificationsGrouped =
       mutableMapOf<ChanDescriptor.ThreadDescriptor, MutableSet<ThreadBookmarkReplyView>>()
+    val bookmarkKeys = mutableMapOf<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.BookmarkKey>()
 
     bookmarksManager.mapAllBookmarks { threadBookmarkView ->
       val threadDescriptor = threadBookmarkView.threadDescriptor
+      bookmarkKeys[threadDescriptor] = ReplyNotificationsCache.BookmarkKey(
+        title = threadBookmarkView.title,
+        thumbnailUrl = threadBookmarkView.thumbnailUrl
+      )
 
       return@mapAllBookmarks threadBookmarkView.threadBookmarkReplyViews.forEach { (_, threadBookmarkReplyView) ->
         if (threadBookmarkReplyView.alreadyRead) {
@@ -141,7 +170,7 @@ class ReplyNotificationsHelper(
       }
     }
 
-    val shownNotifications = showNotificationForReplies(unreadNotificationsGrouped)
+    val shownNotifications = showNotificationForReplies(unreadNotificationsGrouped, bookmarkKeys)
     if (shownNotifications.isEmpty()) {
       return
     }
@@ -159,7 +188,8 @@ class ReplyNotificationsHelper(
   }
 
   private suspend fun showNotificationForReplies(
-    unreadNotificationsGrouped: MutableMap<ChanDescriptor.ThreadDescriptor, MutableSet<ThreadBookmarkReplyView>>
+    unreadNotificationsGrouped: MutableMap<ChanDescriptor.ThreadDescriptor, MutableSet<ThreadBookmarkReplyView>>,
+    bookmarkKeys: Map<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.BookmarkKey>
   ): Map<ChanDescriptor.ThreadDescriptor, Set<ThreadBookmarkReplyView>> {
     Logger.d(TAG, "showNotificationForReplies(${unreadNotificationsGrouped.size})")
 
@@ -197,7 +227,8 @@ class ReplyNotificationsHelper(
 
     val shownNotifications = showNotificationsForAndroidOreoAndAbove(
       notificationTime,
-      sortedUnreadNotificationsGrouped
+      sortedUnreadNotificationsGrouped,
+      bookmarkKeys
     )
 
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && verboseLogsEnabled) {
@@ -426,49 +457,78 @@ class ReplyNotificationsHelper(
   @RequiresApi(Build.VERSION_CODES.O)
   suspend fun showNotificationsForAndroidOreoAndAbove(
     notificationTime: DateTime,
-    unreadNotificationsGrouped: Map<ChanDescriptor.ThreadDescriptor, List<ThreadBookmarkReplyView>>
+    unreadNotificationsGrouped: Map<ChanDescriptor.ThreadDescriptor, List<ThreadBookmarkReplyView>>,
+    bookmarkKeys: Map<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.BookmarkKey>
   ): Map<ChanDescriptor.ThreadDescriptor, Set<ThreadBookmarkReplyView>> {
     Logger.d(TAG, "showNotificationsForAndroidOreoAndAbove() called")
 
     val shownNotifications = mutableMapOf<ChanDescriptor.ThreadDescriptor, HashSet<ThreadBookmarkReplyView>>()
     var notificationCounter = 0
+    var upToDateNotifications = 0
 
-    val originalPosts = getOriginalPostsForNotifications(unreadNotificationsGrouped.keys)
-    Logger.d(TAG, "Loaded ${originalPosts.size} original posts")
+    // Only the threads that we are going to show notifications for
+    val threadsToNotify = unreadNotificationsGrouped
+      .filter { (_, threadBookmarkReplies) ->
+        threadBookmarkReplies.any { threadBookmarkReplyView -> !threadBookmarkReplyView.alreadySeen }
+      }
+      .entries
+      .take(MAX_VISIBLE_NOTIFICATIONS + 1)
 
-    val thumbnailBitmaps = getThreadThumbnails(originalPosts)
-    Logger.d(TAG, "Loaded ${thumbnailBitmaps.size} thumbnail bitmaps")
+    val threadInfos = getThreadInfos(
+      threadDescriptors = threadsToNotify.map { (threadDescriptor, _) -> threadDescriptor },
+      bookmarkKeys = bookmarkKeys
+    )
 
-    for ((threadDescriptor, threadBookmarkReplies) in unreadNotificationsGrouped) {
-      if (threadBookmarkReplies.isEmpty()) {
-        continue
-      }
+    val activeNotificationTags = notificationManager.activeNotifications
+      .mapNotNullTo(hashSetOf()) { statusBarNotification -> statusBarNotification.tag }
 
-      val hasUnseenReplies = threadBookmarkReplies.any { threadBookmarkReplyView ->
-        !threadBookmarkReplyView.alreadySeen
-      }
+    for ((threadDescriptor, threadBookmarkReplies) in threadsToNotify) {
+      val threadInfo = threadInfos[threadDescriptor]
+      val threadTitle = threadInfo?.title ?: threadDescriptor.threadNo.toString()
+      val thumbnail = threadInfo?.thumbnail
+      val notificationTag = getUniqueNotificationTag(threadDescriptor)
+
+      val fingerprint = ReplyNotificationsCache.notificationFingerprint(
+        threadTitle = threadTitle,
+        hasThumbnail = thumbnail != null,
+        threadBookmarkReplies = threadBookmarkReplies
+      )
 
-      if (!hasUnseenReplies) {
+      ++notificationCounter
+
+      shownNotifications.putIfNotContains(threadDescriptor, hashSetOf())
+      shownNotifications[threadDescriptor]!!.addAll(threadBookmarkReplies)
+
+      val upToDate = notificationTag in activeNotificationTags
+        && replyNotificationsCache.isNotificationUpToDate(threadDescriptor, fingerprint)
+
+      if (upToDate) {
+        ++upToDateNotifications
         continue
       }
 
-      val threadTitle = getThreadTitle(originalPosts, threadDescriptor)
       val titleText = appContext.resources.getString(
         R.string.reply_notifications_new_replies_in_thread,
         threadBookmarkReplies.size,
         threadDescriptor.threadNo
       )
-      val notificationTag = getUniqueNotificationTag(threadDescriptor)
       val notificationId = NotificationConstants.ReplyNotifications.notificationId(threadDescriptor)
 
+      // Use the time of the thread's own latest reply so that the notification only changes when
+      // this thread gets new replies
+      val threadNotificationTime = threadBookmarkReplies
+        .maxByOrNull { threadBookmarkReply -> threadBookmarkReply.time }
+        ?.time
+        ?: notificationTime
+
       val notificationBuilder = NotificationCompat.Builder(
         appContext,
         NotificationConstants.ReplyNotifications.REPLY_NOTIFICATION_CHANNEL_ID
       )
         .setContentTitle(titleText)
-        .setWhen(notificationTime.millis)
+        .setWhen(threadNotificationTime.millis)
         .setShowWhen(true)
-        .setupLargeIcon(thumbnailBitmaps[threadDescriptor])
+        .setupLargeIcon(thumbnail)
         .setSmallIcon(R.drawable.ic_stat_notify_alert)
         .setAutoCancel(true)
         .setupReplyNotificationsStyle(threadTitle, threadBookmarkReplies)
@@ -491,24 +551,78 @@ class ReplyNotificationsHelper(
         notificationBuilder.build()
       )
 
+      replyNotificationsCache.onNotificationShown(threadDescriptor, fingerprint)
+
       Logger.d(
         TAG, "showNotificationsForAndroidOreoAndAbove() notificationManagerCompat.notify() " +
         "called, tag=${notificationTag}, counter=${notificationCounter}")
+    }
 
-      ++notificationCounter
+    replyNotificationsCache.retainShownNotifications(shownNotifications.keys)
 
-      shownNotifications.putIfNotContains(threadDescriptor, hashSetOf())
-      shownNotifications[threadDescriptor]!!.addAll(threadBookmarkReplies)
+    Logger.d(
+      TAG, "showNotificationsForAndroidOreoAndAbove() shown ${notificationCounter} notifications, " +
+      "${upToDateNotifications} of them were up to date")
 
-      if (notificationCounter > MAX_VISIBLE_NOTIFICATIONS) {
-        Logger.d(
-          TAG, "showNotificationsForAndroidOreoAndAbove() " +
-          "notificationCounter ($notificationCounter) exceeded MAX_VISIBLE_NOTIFICATIONS")
-        break
+    return shownNotifications
+  }
+
+  /**
+   * Thread titles and thumbnails are cached, the original posts are only loaded (and the
+   * thumbnails downloaded) for the threads that are not in the cache.
+   * */
+  private suspend fun getThreadInfos(
+    threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>,
+    bookmarkKeys: Map<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.BookmarkKey>
+  ): Map<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.ThreadInfo> {
+    val resultMap = mutableMapOf<ChanDescriptor.ThreadDescriptor, ReplyNotificationsCache.ThreadInfo>()
+    val notCachedThreadDescriptors = mutableSetOf<ChanDescriptor.ThreadDescriptor>()
+
+    threadDescriptors.forEach { threadDescriptor ->
+      val bookmarkKey = bookmarkKeys[threadDescriptor]
+        ?: return@forEach
+
+      val threadInfo = replyNotificationsCache.getThreadInfo(threadDescriptor, bookmarkKey)
+      if (threadInfo != null) {
+        resultMap[threadDescriptor] = threadInfo
+      } else {
+        notCachedThreadDescriptors += threadDescriptor
       }
     }
 
-    return shownNotifications
+    if (notCachedThreadDescriptors.isEmpty()) {
+      Logger.d(TAG, "getThreadInfos() all ${resultMap.size} thread infos were cached")
+      return resultMap
+    }
+
+    val originalPosts = getOriginalPostsForNotifications(notCachedThreadDescriptors)
+    val thumbnailBitmaps = getThreadThumbnails(originalPosts)
+
+    originalPosts.forEach { (threadDescriptor, originalPost) ->
+      val thumbnail = thumbnailBitmaps[threadDescriptor]
+      val threadInfo = ReplyNotificationsCache.ThreadInfo(
+        bookmarkKey = bookmarkKeys[threadDescriptor]!!,
+        title = getThreadTitle(originalPost, threadDescriptor),
+        thumbnail = thumbnail
+      )
+
+      resultMap[threadDescriptor] = threadInfo
+
+      val hasThumbnailUrl = originalPost.postImages.firstOrNull()?.actualThumbnailUrl != null
+      if (hasThumbnailUrl && thumbnail == null) {
+        // Failed to download the thumbnail, try again next time
+        return@forEach
+      }
+
+      replyNotificationsCache.putThreadInfo(threadDescriptor, threadInfo)
+    }
+
+    Logger.d(
+      TAG, "getThreadInfos() cached: ${resultMap.size - originalPosts.size}, " +
+      "loaded original posts: ${originalPosts.size}, downloaded thumbnails: ${thumbnailBitmaps.size}, " +
+      "total cached: ${replyNotificationsCache.cachedThreadsCount()}")
+
+    return resultMap
   }
 
   private suspend fun getThreadThumbnails(
@@ -575,13 +689,13 @@ class ReplyNotificationsHelper(
   }
 
   private fun getThreadTitle(
-    originalPosts: Map<ChanDescriptor.ThreadDescriptor, ChanPost>,
+    originalPost: ChanPost,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ): String {
-    var title = originalPosts[threadDescriptor]?.subject?.toString()
+    var title = originalPost.subject?.toString()
 
     if (title.isNullOrBlank()) {
-      title = originalPosts[threadDescriptor]?.postComment?.comment()?.toString()
+      title = originalPost.postComment.comment().toString()
     }
 
     if (title.isNullOrBlank()) {
@@ -893,6 +1007,8 @@ class ReplyNotificationsHelper(
       notificationManagerCompat.cancel(notification.tag, notification.id)
     }
 
+    replyNotificationsCache.clearShownNotifications()
+
     Logger.d(TAG, "closeAllNotifications() closed ${visibleNotifications.size} notifications")
   }
 
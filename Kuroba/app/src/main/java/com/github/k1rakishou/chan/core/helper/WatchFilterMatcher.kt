@@ -0,0 +1,114 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+/**
+ * All enabled watch/avoid watch filters prepared once per filter watcher run: patterns are compiled
+ * (filters without a valid pattern or without comment/subject type are dropped since they can never
+ * match a catalog thread) and the filters applicable to a board are resolved once per board instead
+ * of once per catalog thread.
+ *
+ * Matches the same way the filters were matched one by one: the first filter (in the order of
+ * [watchFilters]) that matches the comment or the subject wins, unless it's an avoid watch filter
+ * in which case the thread is not matched at all.
+ * */
+class WatchFilterMatcher(
+  private val filterEngine: FilterEngine,
+  watchFilters: List<ChanFilter>
+) {
+  private val compiledFilters: List<CompiledWatchFilter>
+  private val filtersById: Map<Long, ChanFilter>
+  private val boardFiltersMap = ConcurrentHashMap<BoardDescriptor, BoardWatchFilters>()
+
+  val compiledFiltersCount: Int
+    get() = compiledFilters.size
+
+  init {
+    compiledFilters = watchFilters.mapNotNull { chanFilter ->
+      val matchComment = filterEngine.typeMatches(chanFilter, FilterType.COMMENT)
+      val matchSubject = filterEngine.typeMatches(chanFilter, FilterType.SUBJECT)
+
+      if (!matchComment && !matchSubject) {
+        return@mapNotNull null
+      }
+
+      val pattern = filterEngine.getOrCompilePattern(chanFilter)
+        ?: return@mapNotNull null
+
+      return@mapNotNull CompiledWatchFilter(chanFilter, pattern, matchComment, matchSubject)
+    }
+
+    filtersById = compiledFilters.associate { compiledWatchFilter ->
+      compiledWatchFilter.chanFilter.getDatabaseId() to compiledWatchFilter.chanFilter
+    }
+  }
+
+  fun hasFiltersForBoard(boardDescriptor: BoardDescriptor): Boolean {
+    return getBoardFilters(boardDescriptor).filters.isNotEmpty()
+  }
+
+  /**
+   * The comment only needs to be parsed for matching when at least one of the filters of the board
+   * matches comments.
+   * */
+  fun needsCommentForBoard(boardDescriptor: BoardDescriptor): Boolean {
+    return getBoardFilters(boardDescriptor).hasCommentFilters
+  }
+
+  fun findFilterById(filterDatabaseId: Long): ChanFilter? {
+    return filtersById[filterDatabaseId]
+  }
+
+  fun match(
+    boardDescriptor: BoardDescriptor,
+    parsedComment: CharSequence?,
+    subject: String
+  ): ChanFilter? {
+    for (compiledWatchFilter in getBoardFilters(boardDescriptor).filters) {
+      val matches = (compiledWatchFilter.matchComment && filterEngine.matches(compiledWatchFilter.pattern, parsedComment))
+        || (compiledWatchFilter.matchSubject && filterEngine.matches(compiledWatchFilter.pattern, subject))
+
+      if (!matches) {
+        continue
+      }
+
+      if (compiledWatchFilter.chanFilter.isAvoidWatchFilter()) {
+        return null
+      }
+
+      return compiledWatchFilter.chanFilter
+    }
+
+    return null
+  }
+
+  private fun getBoardFilters(boardDescriptor: BoardDescriptor): BoardWatchFilters {
+    return boardFiltersMap.getOrPut(boardDescriptor) {
+      val filters = compiledFilters.filter { compiledWatchFilter ->
+        compiledWatchFilter.chanFilter.matchesBoard(boardDescriptor)
+      }
+
+      return@getOrPut BoardWatchFilters(
+        filters = filters,
+        hasCommentFilters = filters.any { compiledWatchFilter -> compiledWatchFilter.matchComment }
+      )
+    }
+  }
+
+  private class CompiledWatchFilter(
+    val chanFilter: ChanFilter,
+    val pattern: Pattern,
+    val matchComment: Boolean,
+    val matchSubject: Boolean
+  )
+
+  private class BoardWatchFilters(
+    val filters: List<CompiledWatchFilter>,
+    val hasCommentFilters: Boolean
+  )
+
+}
@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.core.loader
 
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.post.LoaderType
 
 abstract class OnDemandContentLoader(
@@ -9,6 +10,15 @@ abstract class OnDemandContentLoader(
   abstract suspend fun startLoading(postLoaderData: PostLoaderData): LoaderResult
   abstract fun cancelLoading(postLoaderData: PostLoaderData)
 
+  /**
+   * Called (on a background thread) once a thread is loaded and its posts are parsed. Loaders may
+   * use it to prefetch stuff for the whole thread at once instead of doing it post by post in
+   * [startLoading].
+   * */
+  open suspend fun onThreadLoaded(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    // no-op by default
+  }
+
   protected fun succeeded(needUpdateView: Boolean): LoaderResult {
     return LoaderResult.Succeeded(loaderType, needUpdateView)
   }
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.loader.impl
 
 import android.text.Spanned
+import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.loader.LoaderResult
 import com.github.k1rakishou.chan.core.loader.OnDemandContentLoader
 import com.github.k1rakishou.chan.core.loader.PostLoaderData
@@ -16,17 +17,28 @@ import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.common.putIfNotContainsLazy
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.PostLinkable
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.media.GenericVideoId
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.LoaderType
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withTimeout
 import java.util.concurrent.TimeUnit
+import kotlin.math.max
 
 class PostExtraContentLoader(
   private val chanThreadManager: ChanThreadManager,
   private val linkExtraInfoFetchers: List<ExternalMediaServiceExtraInfoFetcher>
 ) : OnDemandContentLoader(LoaderType.PostExtraContentLoader) {
 
+  // ThreadDescriptor -> the max postNo of that thread that has already been prefetched
+  @GuardedBy("itself")
+  private val lastPrefetchedPostNos = object : LinkedHashMap<ChanDescriptor.ThreadDescriptor, Long>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ChanDescriptor.ThreadDescriptor, Long>?): Boolean {
+      return size > MAX_PREFETCHED_THREADS
+    }
+  }
+
   override suspend fun isCached(postLoaderData: PostLoaderData): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -92,6 +104,85 @@ class PostExtraContentLoader(
     // I guess there is no real need to cancel these requests since they are lightweight
   }
 
+  /**
+   * Collects the media links of all new posts of the thread (deduplicated by request url) and
+   * fetches their extra info in one bounded batch so that by the time the posts are bound the info
+   * is already in the cache. Posts that have no media links at all are marked as loaded so that
+   * we don't need to parse their spans again on every bind. At most [MAX_PREFETCH_LINKS] links are
+   * collected per call, the posts after the last post whose links were collected are left for the
+   * next call.
+   * */
+  override suspend fun onThreadLoaded(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val lastPrefetchedPostNo = synchronized(lastPrefetchedPostNos) { lastPrefetchedPostNos[threadDescriptor] }
+      ?: 0L
+
+    var maxPostNo = lastPrefetchedPostNo
+    var postsWithoutLinks = 0
+    val linkInfoRequests = mutableMapOf<String, LinkInfoRequest>()
+
+    chanThreadManager.iteratePostsWhile(threadDescriptor) { post ->
+      val postNo = post.postNo()
+      if (postNo <= lastPrefetchedPostNo) {
+        return@iteratePostsWhile true
+      }
+
+      if (post.isContentLoadedForLoader(loaderType)) {
+        maxPostNo = max(maxPostNo, postNo)
+        return@iteratePostsWhile true
+      }
+
+      val comment = post.postComment.originalComment()
+      val postLinkableSpans = if (comment.isNotEmpty() && comment is Spanned) {
+        parseSpans(comment)
+      } else {
+        emptyList()
+      }
+
+      if (!hasMediaServiceLinks(postLinkableSpans)) {
+        post.setContentLoadedForLoader(loaderType)
+        ++postsWithoutLinks
+        maxPostNo = max(maxPostNo, postNo)
+
+        return@iteratePostsWhile true
+      }
+
+      val newRequests = createNewRequests(postLinkableSpans)
+        .filter { (requestUrl, _) -> !linkInfoRequests.containsKey(requestUrl) }
+
+      if (linkInfoRequests.isNotEmpty() && linkInfoRequests.size + newRequests.size > MAX_PREFETCH_LINKS) {
+        // The batch is full, this post (and everything after it) will be processed by the next call
+        return@iteratePostsWhile false
+      }
+
+      linkInfoRequests.putAll(newRequests)
+
+      maxPostNo = max(maxPostNo, postNo)
+      return@iteratePostsWhile true
+    }
+
+    synchronized(lastPrefetchedPostNos) { lastPrefetchedPostNos[threadDescriptor] = maxPostNo }
+
+    if (linkInfoRequests.isEmpty()) {
+      return
+    }
+
+    // Only a single post with more links than that can go over the limit, the rest of its links are
+    // loaded when the post is bound
+    val toPrefetch = linkInfoRequests.entries.take(MAX_PREFETCH_LINKS)
+    Logger.d(TAG, "onThreadLoaded($threadDescriptor) prefetching ${toPrefetch.size} links " +
+      "(total: ${linkInfoRequests.size}), postsWithoutLinks=$postsWithoutLinks, lastPrefetchedPostNo=$maxPostNo")
+
+    parallelForEach(
+      dataList = toPrefetch,
+      parallelization = PREFETCH_PARALLELIZATION,
+      dispatcher = Dispatchers.IO
+    ) { (requestUrl, linkInfoRequest) ->
+      fetchExtraLinkInfo(requestUrl, linkInfoRequest)
+    }
+  }
+
   private fun extractVideoIds(postLoaderData: PostLoaderData): List<GenericVideoId> {
     val post = chanThreadManager.getPost(postLoaderData.postDescriptor)
       ?: return emptyList()
@@ -208,6 +299,13 @@ class PostExtraContentLoader(
     return newSpans
   }
 
+  private fun hasMediaServiceLinks(postLinkableSpans: List<CommentPostLinkableSpan>): Boolean {
+    return postLinkableSpans.any { postLinkableSpan ->
+      val url = postLinkableSpan.postLinkable.key.toString()
+      return@any linkExtraInfoFetchers.any { fetcher -> fetcher.linkMatchesToService(url) }
+    }
+  }
+
   private fun parseSpans(comment: Spanned): List<CommentPostLinkableSpan> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -260,5 +358,8 @@ class PostExtraContentLoader(
   companion object {
     private const val TAG = "PostExtraContentLoader"
     private const val MAX_LINK_INFO_FETCH_TIMEOUT_SECONDS = 3L
+    private const val MAX_PREFETCHED_THREADS = 32
+    private const val MAX_PREFETCH_LINKS = 128
+    private const val PREFETCH_PARALLELIZATION = 4
   }
 }
\ No newline at end of file
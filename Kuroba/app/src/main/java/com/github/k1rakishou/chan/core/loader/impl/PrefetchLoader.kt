@@ -1,6 +1,8 @@
 package com.github.k1rakishou.chan.core.loader.impl
 
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.Setting
+import com.github.k1rakishou.SettingsSnapshot
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.downloader.ChunkedMediaDownloader
@@ -171,17 +173,20 @@ class PrefetchLoader(
       return emptyList()
     }
 
-    if (!ChanSettings.prefetchMedia.get()) {
+    // This is called for every bound post so read all the settings we need at once.
+    val settings = Setting.snapshot()
+
+    if (!settings.get(ChanSettings.prefetchMedia)) {
       return emptyList()
     }
 
     // Disable prefetching if highResCells are enabled. They do not work really well together.
-    if (ChanSettings.highResCells.get()) {
+    if (settings.get(ChanSettings.highResCells)) {
       return emptyList()
     }
 
     return post.postImages.mapNotNull { postImage ->
-      if (!postImage.canBeUsedForPrefetch()) {
+      if (!postImage.canBeUsedForPrefetch(settings)) {
         return@mapNotNull null
       }
 
@@ -212,7 +217,7 @@ class PrefetchLoader(
     prefetchStateManager.onPrefetchCompleted(postImage, success)
   }
 
-  private fun ChanPostImage.canBeUsedForPrefetch(): Boolean {
+  private fun ChanPostImage.canBeUsedForPrefetch(settings: SettingsSnapshot): Boolean {
     if (isInlined) {
       return false
     }
@@ -228,8 +233,8 @@ class PrefetchLoader(
 
     return when (type) {
       ChanPostImageType.STATIC,
-      ChanPostImageType.GIF -> shouldLoadForNetworkType(ChanSettings.imageAutoLoadNetwork.get())
-      ChanPostImageType.MOVIE -> shouldLoadForNetworkType(ChanSettings.videoAutoLoadNetwork.get())
+      ChanPostImageType.GIF -> shouldLoadForNetworkType(settings.get(ChanSettings.imageAutoLoadNetwork))
+      ChanPostImageType.MOVIE -> shouldLoadForNetworkType(settings.get(ChanSettings.videoAutoLoadNetwork))
       ChanPostImageType.PDF,
       ChanPostImageType.SWF -> false
       else -> throw IllegalStateException("Unexpected value: $type")
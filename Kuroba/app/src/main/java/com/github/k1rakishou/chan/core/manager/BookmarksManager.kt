@@ -385,6 +385,66 @@ class BookmarksManager(
     }
   }
 
+  /**
+   * Returns copies of all bookmarks including the changes that were not persisted yet.
+   * */
+  suspend fun getAllBookmarksSnapshot(): List<ThreadBookmark> {
+    awaitUntilInitialized()
+
+    return getAllBookmarks()
+  }
+
+  /**
+   * Replaces the bookmarks that already exist with [restoredBookmarks], creates the rest of them and
+   * deletes [deletedBookmarks]. Used when restoring a backup so the bookmarks are persisted right away.
+   * */
+  suspend fun importBookmarks(
+    restoredBookmarks: Collection<ThreadBookmark>,
+    deletedBookmarks: Collection<ChanDescriptor.ThreadDescriptor>
+  ) {
+    if (restoredBookmarks.isEmpty() && deletedBookmarks.isEmpty()) {
+      return
+    }
+
+    awaitUntilInitialized()
+
+    val created = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val updated = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val deleted = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    lock.write {
+      restoredBookmarks.forEach { threadBookmark ->
+        val threadDescriptor = threadBookmark.threadDescriptor
+
+        if (bookmarks.put(threadDescriptor, threadBookmark.deepCopy()) != null) {
+          updated += threadDescriptor
+        } else {
+          created += threadDescriptor
+        }
+      }
+
+      deletedBookmarks.forEach { threadDescriptor ->
+        if (bookmarks.remove(threadDescriptor) != null) {
+          deleted += threadDescriptor
+        }
+      }
+    }
+
+    persistBookmarksInternal()
+
+    if (created.isNotEmpty()) {
+      bookmarksChangeFlow.emit(BookmarkChange.BookmarksCreated(created))
+    }
+    if (updated.isNotEmpty()) {
+      bookmarksChangeFlow.emit(BookmarkChange.BookmarksUpdated(updated))
+    }
+    if (deleted.isNotEmpty()) {
+      bookmarksChangeFlow.emit(BookmarkChange.BookmarksDeleted(deleted))
+    }
+
+    Logger.d(TAG, "importBookmarks() created=${created.size}, updated=${updated.size}, deleted=${deleted.size}")
+  }
+
   fun deleteAllBookmarks() {
     check(isReady()) { "BookmarksManager is not ready yet! Use awaitUntilInitialized()" }
 
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.manager
 
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
+import com.github.k1rakishou.chan.core.usecase.ReapplyFiltersUseCase
 import com.github.k1rakishou.chan.ui.compose.reorder.move
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.SuspendableInitializer
@@ -34,7 +35,8 @@ class ChanFilterManager(
   private val _chanPostRepository: Lazy<ChanPostRepository>,
   private val _chanFilterWatchRepository: Lazy<ChanFilterWatchRepository>,
   private val _postFilterHighlightManager: Lazy<PostFilterHighlightManager>,
-  private val _postFilterManager: Lazy<PostFilterManager>
+  private val _postFilterManager: Lazy<PostFilterManager>,
+  private val _reapplyFiltersUseCase: Lazy<ReapplyFiltersUseCase>
 ) {
   private val filterChangesFlow = MutableSharedFlow<FilterEvent>(
     extraBufferCapacity = 32,
@@ -61,6 +63,8 @@ class ChanFilterManager(
     get() = _chanFilterWatchRepository.get()
   private val postFilterManager: PostFilterManager
     get() = _postFilterManager.get()
+  private val reapplyFiltersUseCase: ReapplyFiltersUseCase
+    get() = _reapplyFiltersUseCase.get()
   private val postFilterHighlightManager: PostFilterHighlightManager
     get() = _postFilterHighlightManager.get()
 
@@ -156,30 +160,35 @@ class ChanFilterManager(
         }
       }
 
-      var anySucceeded = false
+      val createdFilters = if (toCreate.isNotEmpty()) {
+        createNewFilterInternal(toCreate)
+      } else {
+        emptyList()
+      }
 
-      if (toCreate.isNotEmpty()) {
-        val createdFilters = createNewFilterInternal(toCreate)
-        if (createdFilters.isNotEmpty()) {
-          anySucceeded = true
+      val updatedFilters = if (toUpdate.isNotEmpty()) {
+        updateOldFilterInternal(toUpdate)
+      } else {
+        emptyList()
+      }
 
-          filterChangesFlow.emit(FilterEvent.Created(createdFilters))
-        }
+      if (createdFilters.isEmpty() && updatedFilters.isEmpty()) {
+        onFinished()
+        return@post
       }
 
-      if (toUpdate.isNotEmpty()) {
-        val updatedFilters = updateOldFilterInternal(toUpdate)
-        if (updatedFilters.isNotEmpty()) {
-          anySucceeded = true
-          filterChangesFlow.emit(FilterEvent.Updated(updatedFilters))
-        }
+      // Post filters must already be up to date when the listeners receive the events
+      val postsNeedReparsing = reapplyChangedFilters(createdFilters + updatedFilters)
+
+      if (createdFilters.isNotEmpty()) {
+        filterChangesFlow.emit(FilterEvent.Created(createdFilters, postsNeedReparsing))
       }
 
-      if (anySucceeded) {
-        clearFiltersAndPostHashes()
-        clearFilterWatchGroups(chanFilters)
+      if (updatedFilters.isNotEmpty()) {
+        filterChangesFlow.emit(FilterEvent.Updated(updatedFilters, postsNeedReparsing))
       }
 
+      clearFilterWatchGroups(chanFilters)
       onFinished()
     }
   }
@@ -265,10 +274,10 @@ class ChanFilterManager(
         .onError { error -> Logger.e(TAG, "Failed to update filters in database", error) }
         .ignore()
 
-      clearFiltersAndPostHashes()
+      val postsNeedReparsing = reapplyChangedFilters(chanFilters)
       clearFilterWatchGroups(chanFilters)
 
-      filterChangesFlow.emit(FilterEvent.Deleted(chanFilters))
+      filterChangesFlow.emit(FilterEvent.Deleted(chanFilters, postsNeedReparsing))
 
       filterWatchGroupResultMap.entries.forEach { (databaseId, filterWatchGroupResult) ->
         if (filterWatchGroupResult is ModularResult.Error) {
@@ -298,13 +307,13 @@ class ChanFilterManager(
         return@post
       }
 
-      clearFiltersAndPostHashes()
-
       val allFilters = lock.read { filters.map { filter -> filter.copy() } }
       allFilters.forEach { chanFilter -> clearFilterWatchGroups(chanFilter) }
 
       lock.read { filters.clear() }
-      filterChangesFlow.emit(FilterEvent.Deleted(allFilters))
+
+      val postsNeedReparsing = reapplyChangedFilters(allFilters)
+      filterChangesFlow.emit(FilterEvent.Deleted(allFilters, postsNeedReparsing))
 
       onFinished(null)
     }
@@ -317,7 +326,7 @@ class ChanFilterManager(
         return@post
       }
 
-      val changed = lock.write {
+      val changedFilters = lock.write {
         val filterIds = filters.map { chanFilter ->
           val databaseId = chanFilter.getDatabaseId()
           require(databaseId > 0L) { "Bad databaseId: ${databaseId}, filter = ${chanFilter}" }
@@ -325,19 +334,21 @@ class ChanFilterManager(
           return@map databaseId
         }
 
-        var changed = false
+        val changedFilters = mutableListOf<ChanFilter>()
 
         for ((index, chanFilter) in this.filters.withIndex()) {
           if (chanFilter.getDatabaseId() in filterIds && chanFilter.enabled != enable) {
-            this.filters[index] = chanFilter.copy(enable = enable)
-            changed = true
+            val changedFilter = chanFilter.copy(enable = enable)
+
+            this.filters[index] = changedFilter
+            changedFilters += changedFilter
           }
         }
 
-        return@write changed
+        return@write changedFilters
       }
 
-      if (!changed) {
+      if (changedFilters.isEmpty()) {
         onUpdated()
         return@post
       }
@@ -348,9 +359,9 @@ class ChanFilterManager(
         .onError { error -> Logger.e(TAG, "Failed to update filters in database", error) }
         .ignore()
 
-      clearFiltersAndPostHashes()
+      val postsNeedReparsing = reapplyChangedFilters(changedFilters)
 
-      filterChangesFlow.emit(FilterEvent.Updated(allFilters))
+      filterChangesFlow.emit(FilterEvent.Updated(allFilters, postsNeedReparsing))
       onUpdated()
     }
   }
@@ -410,12 +421,31 @@ class ChanFilterManager(
     }
   }
 
-  // Whenever we update the filters we need to reload already cached posts and parse them again.
-  // We also need to clear the existing post highlights so that they can get recalculated
-  private fun clearFiltersAndPostHashes() {
-    postFilterManager.clear()
-    chanPostRepository.clearPostHashes()
+  // Whenever we update the filters we need to re-evaluate the changed filters against the already
+  // processed posts (the posts themselves don't need to be parsed again since filters don't affect
+  // the parsing). We also need to clear the existing post highlights so that they can get recalculated.
+  // Returns true when the filters couldn't be re-applied and the posts must be parsed again.
+  private suspend fun reapplyChangedFilters(changedFilters: Collection<ChanFilter>): Boolean {
+    val changedFilterIds = changedFilters
+      .filter { chanFilter -> chanFilter.hasDatabaseId() }
+      .map { chanFilter -> chanFilter.getDatabaseId() }
+      .toSet()
+
+    val parameter = ReapplyFiltersUseCase.Parameter(
+      enabledFilters = getEnabledFiltersSorted(),
+      changedFilterIds = changedFilterIds
+    )
+
+    val result = reapplyFiltersUseCase.execute(parameter)
+    if (result.postsNeedReparsing) {
+      // Some posts were processed while there were no enabled filters so we have nothing to re-apply
+      // the filters to. Fallback to reloading the cached posts and parsing them again.
+      postFilterManager.clear()
+      chanPostRepository.clearPostHashes()
+    }
+
     postFilterHighlightManager.clear()
+    return result.postsNeedReparsing
   }
 
   // Whenever we create/update/or delete a filter with WATCH flag, we want to delete all filter
@@ -566,21 +596,36 @@ class ChanFilterManager(
   sealed class FilterEvent {
     abstract fun hasWatchFilter(): Boolean
 
+    /**
+     * Whether the post filters were cleared instead of being re-applied to the already processed
+     * posts, in which case the posts must be reloaded and parsed again.
+     * */
+    open val postsNeedReparsing: Boolean = false
+
     data object Initialized : FilterEvent() {
       override fun hasWatchFilter(): Boolean = false
     }
 
-    class Created(val chanFilters: Collection<ChanFilter>) : FilterEvent() {
+    class Created(
+      val chanFilters: Collection<ChanFilter>,
+      override val postsNeedReparsing: Boolean
+    ) : FilterEvent() {
       override fun hasWatchFilter(): Boolean = chanFilters.any { chanFilter -> chanFilter.isWatchFilter() }
     }
 
-    class Updated(val chanFilters: Collection<ChanFilter>) : FilterEvent() {
+    class Updated(
+      val chanFilters: Collection<ChanFilter>,
+      override val postsNeedReparsing: Boolean
+    ) : FilterEvent() {
       override fun hasWatchFilter(): Boolean {
         return chanFilters.any { chanFilter -> chanFilter.isWatchFilter() }
       }
     }
 
-    class Deleted(val chanFilters: Collection<ChanFilter>) : FilterEvent() {
+    class Deleted(
+      val chanFilters: Collection<ChanFilter>,
+      override val postsNeedReparsing: Boolean
+    ) : FilterEvent() {
       override fun hasWatchFilter(): Boolean {
         return chanFilters.any { chanFilter -> chanFilter.isWatchFilter() }
       }
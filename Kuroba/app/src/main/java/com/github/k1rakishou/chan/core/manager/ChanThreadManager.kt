@@ -20,10 +20,12 @@ import com.github.k1rakishou.model.data.options.ChanLoadOption
 import com.github.k1rakishou.model.data.options.ChanLoadOptions
 import com.github.k1rakishou.model.data.options.ChanReadOptions
 import com.github.k1rakishou.model.data.options.PostsToReloadOptions
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.LoaderType
 import com.github.k1rakishou.model.data.thread.ChanThread
+import com.github.k1rakishou.model.data.thread.ChanThreadChangeSet
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.model.util.ChanPostUtils
@@ -214,7 +216,17 @@ class ChanThreadManager(
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
         val chanThread = chanThreadsCache.getThread(chanDescriptor)
-          ?: return
+        if (chanThread == null) {
+          // The thread was never opened, only its original post may be cached.
+          val originalPost = chanThreadsCache.getOriginalPostFromCache(chanDescriptor.toOriginalPostDescriptor())
+            ?: return
+
+          if (postDescriptors == null || originalPost.postDescriptor in postDescriptors) {
+            iterator(originalPost)
+          }
+
+          return
+        }
 
         if (postDescriptors != null) {
           for (postDescriptor in postDescriptors) {
@@ -250,13 +262,25 @@ class ChanThreadManager(
   }
 
   fun getSafeToUseThreadSubject(threadDescriptor: ChanDescriptor.ThreadDescriptor): String? {
-    val originalPost = chanThreadsCache.getThread(threadDescriptor)
-      ?.getOriginalPost()
+    val originalPost = chanThreadsCache.getOriginalPostFromCache(threadDescriptor.toOriginalPostDescriptor())
       ?: return null
 
     return ChanPostUtils.getSafeToUseTitle(originalPost)
   }
 
+  /**
+   * Returns the original post of the thread no matter whether the thread was opened (and is cached
+   * as a [ChanThread]) or was only seen in a catalog (see [getChanThread] which returns null in the
+   * latter case).
+   * */
+  fun getOriginalPost(threadDescriptor: ChanDescriptor.ThreadDescriptor?): ChanOriginalPost? {
+    if (threadDescriptor == null) {
+      return null
+    }
+
+    return chanThreadsCache.getOriginalPostFromCache(threadDescriptor.toOriginalPostDescriptor())
+  }
+
   fun getChanThread(threadDescriptor: ChanDescriptor.ThreadDescriptor?): ChanThread? {
     if (threadDescriptor == null) {
       return null
@@ -367,8 +391,7 @@ class ChanThreadManager(
     val postImages = mutableListOf<ChanPostImage>()
 
     imagesToGet.forEach { (postDescriptor, imageUrl) ->
-      val chanPostImage = chanThreadsCache.getThread(postDescriptor.threadDescriptor())
-        ?.getPostImage(postDescriptor, imageUrl)
+      val chanPostImage = chanThreadsCache.getPostImage(postDescriptor, imageUrl)
 
       if (chanPostImage != null) {
         postImages += chanPostImage
@@ -379,16 +402,26 @@ class ChanThreadManager(
   }
 
   fun addImage(chanPostImage: ChanPostImage): Boolean {
-    val threadDescriptor = chanPostImage.ownerPostDescriptor.threadDescriptor()
-    val chanThread = chanThreadsCache.getThread(threadDescriptor)
-      ?: return false
-
-    chanThread.addImage(chanPostImage)
-    return true
+    return chanThreadsCache.addImage(chanPostImage)
   }
 
   fun getPost(postDescriptor: PostDescriptor): ChanPost? {
-    return chanThreadsCache.getThread(postDescriptor.threadDescriptor())?.getPost(postDescriptor)
+    return chanThreadsCache.getThreadPostFromCache(postDescriptor)
+  }
+
+  fun getThreadRevision(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
+    return chanThreadsCache.getThreadRevision(threadDescriptor)
+  }
+
+  /**
+   * Returns what has changed in the thread since [fromRevision] (see [getThreadRevision]) or null if
+   * that's unknown and whatever was built out of the thread posts has to be rebuilt from scratch.
+   * */
+  fun getThreadChangeSetSince(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    fromRevision: Long
+  ): ChanThreadChangeSet? {
+    return chanThreadsCache.getThreadChangeSetSince(threadDescriptor, fromRevision)
   }
 
   fun getPosts(postDescriptors: Collection<PostDescriptor>): List<ChanPost> {
@@ -396,13 +429,13 @@ class ChanThreadManager(
       .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
 
     return postGroups.entries.flatMapNotNull { (threadDescriptor, postDescriptors) ->
-      chanThreadsCache.getThread(threadDescriptor)?.getPosts(postDescriptors)
+      chanThreadsCache.getThreadPostsFromCache(threadDescriptor, postDescriptors)
     }
   }
 
   fun getCatalogPreviewPosts(threadDescriptor: ChanDescriptor.ThreadDescriptor): List<ChanPost> {
     val chanThread = chanThreadsCache.getThread(threadDescriptor)
-      ?: return emptyList()
+      ?: return chanThreadsCache.getThreadPosts(threadDescriptor)
 
     val postsCount = chanThread.postsCount
 
@@ -456,14 +489,13 @@ class ChanThreadManager(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
     lastPostNo: Long
   ): Int {
-    return chanThreadsCache.getThread(threadDescriptor)?.getNewPostsCount(lastPostNo) ?: 0
+    return chanThreadsCache.getNewPostsCount(threadDescriptor, lastPostNo)
   }
 
   fun isContentLoadedForLoader(postDescriptor: PostDescriptor, loaderType: LoaderType): Boolean {
     when (val descriptor = postDescriptor.descriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
-        return chanThreadsCache.getThread(descriptor)
-          ?.getPost(postDescriptor)
+        return chanThreadsCache.getThreadPostFromCache(postDescriptor)
           ?.isContentLoadedForLoader(loaderType)
           ?: false
       }
@@ -487,8 +519,7 @@ class ChanThreadManager(
           ?.setContentLoadedForLoader(loaderType)
       }
       is ChanDescriptor.ThreadDescriptor -> {
-        chanThreadsCache.getThread(descriptor)
-          ?.getPost(postDescriptor)
+        chanThreadsCache.getThreadPostFromCache(postDescriptor)
           ?.setContentLoadedForLoader(loaderType)
       }
     }
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.manager
 
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.chan.core.base.RendezvousCoroutineExecutor
 import com.github.k1rakishou.chan.core.helper.OneShotRunnable
 import com.github.k1rakishou.common.ModularResult
@@ -12,11 +13,13 @@ import com.github.k1rakishou.model.data.navigation.NavHistoryElement
 import com.github.k1rakishou.model.data.navigation.NavHistoryElementInfo
 import com.github.k1rakishou.model.repository.HistoryNavigationRepository
 import dagger.Lazy
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
@@ -35,12 +38,22 @@ class HistoryNavigationManager(
     get() = _navigationStackUpdatesFlow.asSharedFlow()
 
   private val rendezvousCoroutineExecutor = RendezvousCoroutineExecutor(appScope)
+  private val debouncingCoroutineExecutor = DebouncingCoroutineExecutor(appScope)
 
   private val mutex = Mutex()
   @GuardedBy("mutex")
   private val navigationStack = mutableListWithCap<NavHistoryElement>(MAX_NAV_HISTORY_ENTRIES)
+  @GuardedBy("mutex")
+  private val navHistoryJournal = NavHistoryJournal()
+
+  // Serializes writes of the journal into the database
+  private val persistMutex = Mutex()
 
+  // The first page of the navigation history is loaded by initializationRunnable, the rest of it is
+  // loaded in the background afterwards. Everything that modifies the navigation stack (or needs to
+  // see all of it) has to wait until fullyLoaded is completed.
   private val initializationRunnable = OneShotRunnable()
+  private val fullyLoaded = CompletableDeferred<Unit>()
 
   private val historyNavigationRepository: HistoryNavigationRepository
     get() = _historyNavigationRepository.get()
@@ -63,13 +76,17 @@ class HistoryNavigationManager(
   }
 
   suspend fun contains(descriptor: ChanDescriptor): Boolean {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     return mutex.withLock {
       navigationStack.any { navHistoryElement -> navHistoryElement.descriptor() == descriptor }
     }
   }
 
+  /**
+   * Only waits for the first page of the navigation history to be loaded, the rest of it is
+   * published with [UpdateEvent.Appended] once loaded.
+   * */
   suspend fun getAll(reversed: Boolean = false): List<NavHistoryElement> {
     ensureInitialized()
 
@@ -82,6 +99,15 @@ class HistoryNavigationManager(
     }
   }
 
+  /**
+   * Unlike [getAll] waits for the whole navigation history to be loaded.
+   * */
+  suspend fun getAllFullyLoaded(): List<NavHistoryElement> {
+    ensureFullyLoaded()
+
+    return mutex.withLock { navigationStack.toList() }
+  }
+
   suspend fun getNavElementAtTop(): NavHistoryElement? {
     if (initializationRunnable.alreadyRun) {
       return mutex.withLock { navigationStack.firstOrNull() }
@@ -93,6 +119,8 @@ class HistoryNavigationManager(
   }
 
   suspend fun getNavHistoryElementByDescriptor(chanDescriptor: ChanDescriptor): NavHistoryElement? {
+    ensureFullyLoaded()
+
     return mutex.withLock {
       return@withLock navigationStack
         .firstOrNull { navHistoryElement -> navHistoryElement.descriptor() == chanDescriptor }
@@ -101,10 +129,7 @@ class HistoryNavigationManager(
 
   suspend fun getFirstThreadNavElement(): NavHistoryElement? {
     if (initializationRunnable.alreadyRun) {
-      return mutex.withLock {
-        return@withLock navigationStack
-          .firstOrNull { navHistoryElement -> navHistoryElement is NavHistoryElement.Thread }
-      }
+      return findFirstNavElement { navHistoryElement -> navHistoryElement is NavHistoryElement.Thread }
     } else {
       return historyNavigationRepository.getFirstThreadNavElement()
         .onError { error -> Logger.e(TAG, "historyNavigationRepository.getFirstThreadNavElement() error", error) }
@@ -114,10 +139,7 @@ class HistoryNavigationManager(
 
   suspend fun getFirstCatalogNavElement(): NavHistoryElement? {
     if (initializationRunnable.alreadyRun) {
-      return mutex.withLock {
-        return@withLock navigationStack
-          .firstOrNull { navHistoryElement -> navHistoryElement is NavHistoryElement.Catalog }
-      }
+      return findFirstNavElement { navHistoryElement -> navHistoryElement is NavHistoryElement.Catalog }
     } else {
       return historyNavigationRepository.getFirstCatalogNavElement()
         .onError { error -> Logger.e(TAG, "historyNavigationRepository.getFirstCatalogNavElement() error", error) }
@@ -125,6 +147,17 @@ class HistoryNavigationManager(
     }
   }
 
+  private suspend fun findFirstNavElement(predicate: (NavHistoryElement) -> Boolean): NavHistoryElement? {
+    val navHistoryElement = mutex.withLock { navigationStack.firstOrNull(predicate) }
+    if (navHistoryElement != null || fullyLoaded.isCompleted) {
+      return navHistoryElement
+    }
+
+    // Not in the first page, maybe it's in the rest of the history
+    fullyLoaded.await()
+    return mutex.withLock { navigationStack.firstOrNull(predicate) }
+  }
+
   fun canCreateNavElement(
     bookmarksManager: BookmarksManager,
     chanDescriptor: ChanDescriptor
@@ -169,7 +202,7 @@ class HistoryNavigationManager(
     title: String,
     canInsertAtTheBeginning: Boolean
   ) {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     val newNavigationElement = NewNavigationElement(descriptor, thumbnailImageUrl, title)
     createNewNavElements(listOf(newNavigationElement), canInsertAtTheBeginning)
@@ -193,7 +226,7 @@ class HistoryNavigationManager(
       return
     }
 
-    ensureInitialized()
+    ensureFullyLoaded()
 
     var created = false
 
@@ -239,7 +272,7 @@ class HistoryNavigationManager(
     chanDescriptor: ChanDescriptor,
     newNavigationElement: NewNavigationElement
   ) {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     mutex.withLock {
       val indexOfElem = navigationStack.indexOfFirst { navHistoryElement ->
@@ -278,6 +311,7 @@ class HistoryNavigationManager(
       }
 
       navigationStack[indexOfElem] = newElement
+      navHistoryJournal.onNavigationStackModified(listOf(newElement.descriptor()))
       _navigationStackUpdatesFlow.emit(UpdateEvent.Deleted(listOf(prevElement)))
       _navigationStackUpdatesFlow.emit(UpdateEvent.Created(listOf(newElement)))
     }
@@ -290,7 +324,7 @@ class HistoryNavigationManager(
       return
     }
 
-    ensureInitialized()
+    ensureFullyLoaded()
 
     mutex.withLock {
       val indexOfElem = navigationStack.indexOfFirst { navHistoryElement ->
@@ -326,6 +360,7 @@ class HistoryNavigationManager(
       }
 
       navigationStack.addSafe(newIndex, navigationStack.removeAt(indexOfElem))
+      navHistoryJournal.onNavigationStackModified()
       _navigationStackUpdatesFlow.emit(UpdateEvent.Moved(movedElement))
     }
 
@@ -333,7 +368,7 @@ class HistoryNavigationManager(
   }
 
   private suspend fun addNewOrIgnore(navElement: NavHistoryElement, canInsertAtTheBeginning: Boolean): Boolean {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     return mutex.withLock {
       val indexOfElem = navigationStack.indexOf(navElement)
@@ -365,12 +400,13 @@ class HistoryNavigationManager(
       }
 
       navigationStack.addSafe(newIndex, navElement)
+      navHistoryJournal.onNavigationStackModified()
       return@withLock true
     }
   }
 
   suspend fun pinOrUnpin(chanDescriptors: Collection<ChanDescriptor>): PinResult {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     if (chanDescriptors.isEmpty()) {
       return PinResult.Failure
@@ -426,6 +462,7 @@ class HistoryNavigationManager(
       }
 
       if (pinnedUnpinned.isNotEmpty()) {
+        navHistoryJournal.onNavigationStackModified(pinnedUnpinned.map { navHistoryElement -> navHistoryElement.descriptor() })
         _navigationStackUpdatesFlow.emit(UpdateEvent.PinnedOrUnpinned(pinnedUnpinned))
       }
 
@@ -445,7 +482,7 @@ class HistoryNavigationManager(
   }
 
   suspend fun deleteNavElement(descriptor: ChanDescriptor) {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     deleteNavElements(listOf(descriptor))
   }
@@ -455,7 +492,7 @@ class HistoryNavigationManager(
       return
     }
 
-    ensureInitialized()
+    ensureFullyLoaded()
 
     val removedElements = mutex.withLock {
       val removedElements = mutableListWithCap<NavHistoryElement>(descriptors.size)
@@ -476,6 +513,10 @@ class HistoryNavigationManager(
         removedElements += navigationStack.removeAt(indexOfElem)
       }
 
+      if (removedElements.isNotEmpty()) {
+        navHistoryJournal.onNavigationStackModified()
+      }
+
       return@withLock removedElements
     }
 
@@ -487,8 +528,41 @@ class HistoryNavigationManager(
     persistNavigationStack()
   }
 
+  /**
+   * Puts [navHistoryElements] on top of the navigation stack replacing the elements with the same
+   * descriptors. Used when restoring a backup so the changes are persisted right away.
+   * */
+  suspend fun importNavElements(navHistoryElements: List<NavHistoryElement>) {
+    if (navHistoryElements.isEmpty()) {
+      return
+    }
+
+    ensureFullyLoaded()
+
+    val importedElements = navHistoryElements.distinctBy { navHistoryElement -> navHistoryElement.descriptor() }
+    val importedDescriptors = importedElements.mapTo(hashSetOf()) { navHistoryElement -> navHistoryElement.descriptor() }
+
+    val removedElements = mutex.withLock {
+      val removedElements = navigationStack
+        .filter { navHistoryElement -> navHistoryElement.descriptor() in importedDescriptors }
+
+      navigationStack.removeAll { navHistoryElement -> navHistoryElement.descriptor() in importedDescriptors }
+      navigationStack.addAll(0, importedElements)
+      navHistoryJournal.onNavigationStackModified(importedDescriptors)
+
+      return@withLock removedElements
+    }
+
+    if (removedElements.isNotEmpty()) {
+      _navigationStackUpdatesFlow.emit(UpdateEvent.Deleted(removedElements))
+    }
+
+    _navigationStackUpdatesFlow.emit(UpdateEvent.Created(importedElements))
+    persistNavigationStack(immediately = true)
+  }
+
   suspend fun clear() {
-    ensureInitialized()
+    ensureFullyLoaded()
 
     val cleared = mutex.withLock {
       if (navigationStack.isEmpty()) {
@@ -496,6 +570,7 @@ class HistoryNavigationManager(
       }
 
       navigationStack.clear()
+      navHistoryJournal.onNavigationStackModified()
       return@withLock true
     }
 
@@ -507,42 +582,65 @@ class HistoryNavigationManager(
     persistNavigationStack()
   }
 
-  private fun persistNavigationStack() {
-    rendezvousCoroutineExecutor.post {
-      Logger.d(TAG, "persistNavigationStack async called")
-      persistNavigationStackInternal()
-      Logger.d(TAG, "persistNavigationStack async finished")
+  /**
+   * Changes are accumulated in [navHistoryJournal] and written in one batch once there were no new
+   * changes for [PERSIST_DEBOUNCE_MS] (or right away when [immediately] is true).
+   * */
+  private fun persistNavigationStack(immediately: Boolean = false) {
+    if (immediately) {
+      rendezvousCoroutineExecutor.post { persistNavigationStackInternal() }
+      return
     }
+
+    debouncingCoroutineExecutor.post(PERSIST_DEBOUNCE_MS) { persistNavigationStackInternal() }
   }
 
   private suspend fun persistNavigationStackInternal() {
-    if (!initializationRunnable.alreadyRun) {
-      Logger.d(TAG, "persistNavigationStackInternal not initialized yet, can't persist")
+    if (!fullyLoaded.isCompleted) {
+      Logger.d(TAG, "persistNavigationStackInternal not fully loaded yet, can't persist")
       return
     }
 
-    val navStackCopy = mutex.withLock { navigationStack.toList() }
-    Logger.d(TAG, "persistNavigationStackInternal navStackCopy.size=${navStackCopy.size}")
+    persistMutex.withLock {
+      // Changes made while we were writing the previous batch may have had their persist request
+      // dropped by the executors so keep going until there is nothing left.
+      while (true) {
+        val pendingChanges = mutex.withLock { navHistoryJournal.collectChanges(navigationStack) }
+          ?: break
+
+        Logger.d(TAG, "persistNavigationStackInternal changeSet=${pendingChanges.changeSet.javaClass.simpleName}")
 
-    historyNavigationRepository.persist(navStackCopy)
-      .safeUnwrap { error ->
-        Logger.e(TAG, "Error while trying to persist navigation stack", error)
-        return
+        val result = historyNavigationRepository.applyChanges(pendingChanges.changeSet)
+        if (result is ModularResult.Error) {
+          Logger.e(TAG, "Error while trying to persist navigation stack", result.error)
+          mutex.withLock { navHistoryJournal.onChangesPersistFailed(pendingChanges) }
+          break
+        }
+
+        mutex.withLock { navHistoryJournal.onChangesPersisted(pendingChanges) }
       }
+    }
   }
 
   private suspend fun ensureInitialized() {
     initializationRunnable.runIfNotYet { initializeHistoryNavigationManagerInternal() }
   }
 
+  private suspend fun ensureFullyLoaded() {
+    ensureInitialized()
+    fullyLoaded.await()
+  }
+
   @OptIn(ExperimentalTime::class)
   private suspend fun initializeHistoryNavigationManagerInternal() {
     withContext(Dispatchers.IO) {
       Logger.d(TAG, "initializeHistoryNavigationManagerInternal() start")
 
+      var loadedFirstPage = false
+
       val time = measureTime {
         @Suppress("MoveVariableDeclarationIntoWhen")
-        val loadedNavElementsResult = historyNavigationRepository.initialize(MAX_NAV_HISTORY_ENTRIES)
+        val loadedNavElementsResult = historyNavigationRepository.initialize(FIRST_PAGE_NAV_HISTORY_ENTRIES)
         when (loadedNavElementsResult) {
           is ModularResult.Value -> {
             mutex.withLock {
@@ -550,11 +648,14 @@ class HistoryNavigationManager(
               navigationStack.addAll(loadedNavElementsResult.value)
             }
 
+            loadedFirstPage = true
+
             Logger.d(TAG, "initializeHistoryNavigationManagerInternal() done. " +
                 "Loaded ${loadedNavElementsResult.value.size} history nav elements")
           }
           is ModularResult.Error -> {
             Logger.e(TAG, "initializeHistoryNavigationManagerInternal() error", loadedNavElementsResult.error)
+            mutex.withLock { navHistoryJournal.onNavigationStackLoadFailed() }
           }
         }
 
@@ -562,7 +663,60 @@ class HistoryNavigationManager(
       }
 
       Logger.d(TAG, "initializeHistoryNavigationManagerInternal() end, took $time")
+
+      if (!loadedFirstPage) {
+        fullyLoaded.complete(Unit)
+        return@withContext
+      }
+
+      appScope.launch(Dispatchers.IO) {
+        try {
+          loadRemainingNavElements()
+        } finally {
+          fullyLoaded.complete(Unit)
+        }
+      }
+    }
+  }
+
+  @OptIn(ExperimentalTime::class)
+  private suspend fun loadRemainingNavElements() {
+    val time = measureTime {
+      val loadedNavElementsResult = historyNavigationRepository.loadPage(
+        offset = FIRST_PAGE_NAV_HISTORY_ENTRIES,
+        count = MAX_NAV_HISTORY_ENTRIES - FIRST_PAGE_NAV_HISTORY_ENTRIES
+      )
+
+      if (loadedNavElementsResult is ModularResult.Error) {
+        Logger.e(TAG, "loadRemainingNavElements() error", loadedNavElementsResult.error)
+        mutex.withLock { navHistoryJournal.onNavigationStackLoadFailed() }
+        return@measureTime
+      }
+
+      val loadedNavElements = (loadedNavElementsResult as ModularResult.Value).value
+      if (loadedNavElements.isEmpty()) {
+        return@measureTime
+      }
+
+      val appendedElements = mutex.withLock {
+        // Nothing can modify the stack until it's fully loaded so it still only contains the
+        // first page here, but better be safe than sorry.
+        val alreadyAdded = navigationStack.mapTo(hashSetOf()) { navHistoryElement -> navHistoryElement.descriptor() }
+        val appendedElements = loadedNavElements
+          .filter { navHistoryElement -> alreadyAdded.add(navHistoryElement.descriptor()) }
+
+        navigationStack.addAll(appendedElements)
+        return@withLock appendedElements
+      }
+
+      if (appendedElements.isNotEmpty()) {
+        _navigationStackUpdatesFlow.emit(UpdateEvent.Appended(appendedElements))
+      }
+
+      Logger.d(TAG, "loadRemainingNavElements() loaded ${appendedElements.size} history nav elements")
     }
+
+    Logger.d(TAG, "loadRemainingNavElements() took $time")
   }
 
   private fun startListeningForAppVisibilityUpdates() {
@@ -571,7 +725,7 @@ class HistoryNavigationManager(
         return@addListener
       }
 
-      persistNavigationStack()
+      persistNavigationStack(immediately = true)
     }
   }
 
@@ -599,6 +753,8 @@ class HistoryNavigationManager(
 
   sealed class UpdateEvent {
     data object Initialized : UpdateEvent()
+    // The rest of the navigation history (after the first page) was loaded and added to the end of the stack
+    data class Appended(val navHistoryElements: Collection<NavHistoryElement>) : UpdateEvent()
     data class Created(val navHistoryElements: Collection<NavHistoryElement>) : UpdateEvent()
     data class PinnedOrUnpinned(val navHistoryElements: Collection<NavHistoryElement>) : UpdateEvent()
     data class Moved(val navHistoryElement: NavHistoryElement) : UpdateEvent()
@@ -617,6 +773,10 @@ class HistoryNavigationManager(
 
     // Only used when reloading navigation history back from the database.
     // Can grow unlimited until the app restart.
-    private const val MAX_NAV_HISTORY_ENTRIES = 256
+    const val MAX_NAV_HISTORY_ENTRIES = 256
+    // Loaded before anything else so that the drawer can be shown as soon as possible
+    private const val FIRST_PAGE_NAV_HISTORY_ENTRIES = 32
+
+    private const val PERSIST_DEBOUNCE_MS = 1000L
   }
 }
\ No newline at end of file
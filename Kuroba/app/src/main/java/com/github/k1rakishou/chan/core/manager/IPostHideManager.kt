@@ -7,4 +7,5 @@ interface IPostHideManager {
   fun createOrUpdateMany(chanPostHideList: Collection<ChanPostHide>)
   fun countPostHides(postDescriptors: List<PostDescriptor>): Int
   fun getHiddenPostsMap(postDescriptors: Set<PostDescriptor>): Map<PostDescriptor, ChanPostHide>
+  fun contains(postDescriptor: PostDescriptor): Boolean
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package com.github.k1rakishou.chan.core.manager
+
+import android.content.ComponentCallbacks2
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+/**
+ * Gives memory back when the system (or our own heap) is running low on it. In-process caches
+ * register a [MemoryTrimmer] with a [TrimPriority] and every time there is memory pressure the
+ * trimmers are invoked, cheapest to rebuild first, up to the priority that the pressure level allows:
+ *
+ * - [MemoryPressure.Low] (the app went into the background) trims only the [TrimPriority.Disposable]
+ *   caches.
+ * - [MemoryPressure.Moderate] additionally trims the [TrimPriority.Rebuildable] caches.
+ * - [MemoryPressure.Critical] (we are about to get killed) trims everything, including the
+ *   [TrimPriority.Expensive] caches.
+ *
+ * The pressure comes either from [ComponentCallbacks2.onTrimMemory]/[ComponentCallbacks2.onLowMemory]
+ * or from the heap watermark which is checked periodically while the app is in the foreground. The
+ * used heap includes the garbage that wasn't collected yet so the [TrimPriority.Expensive] caches are
+ * only trimmed because of the heap watermark if the heap usage is still critical after a GC.
+ * */
+class MemoryPressureCoordinator(
+  private val appScope: CoroutineScope,
+  private val verboseLogs: Boolean,
+  private val applicationVisibilityManager: ApplicationVisibilityManager,
+  private val refreshScheduler: RefreshScheduler,
+  private val heapUsageProvider: () -> HeapUsage = { HeapUsage.current() },
+  private val gcRequester: () -> Unit = { Runtime.getRuntime().gc() },
+  private val currentTimeMs: () -> Long = { System.currentTimeMillis() }
+) {
+  private val registrations = CopyOnWriteArrayList<Registration>()
+
+  @GuardedBy("this")
+  private var lastTrimPressure: MemoryPressure? = null
+  @GuardedBy("this")
+  private var lastTrimTime: Long = 0L
+
+  fun initialize() {
+    appScope.launch {
+      applicationVisibilityManager.applicationVisibilityUpdatesFlow.collectLatest { applicationVisibility ->
+        if (applicationVisibility != ApplicationVisibility.Foreground) {
+          return@collectLatest
+        }
+
+        // Only watch the heap while the app is in use, in the background we get onTrimMemory calls
+        while (true) {
+          refreshScheduler.awaitRefresh(tag = TAG, intervalMs = HEAP_CHECK_INTERVAL_MS)
+
+          // May request a GC so keep it off the main thread
+          withContext(Dispatchers.Default) {
+            val memoryPressure = checkHeapWatermark()
+              ?: return@withContext
+
+            trimAndLog(memoryPressure, "checkHeapWatermark()")
+          }
+        }
+      }
+    }
+  }
+
+  fun register(name: String, priority: TrimPriority, unit: String, trimmer: MemoryTrimmer) {
+    registrations += Registration(
+      name = name,
+      priority = priority,
+      unit = unit,
+      order = registrations.size,
+      trimmer = trimmer
+    )
+  }
+
+  fun onTrimMemory(level: Int) {
+    val memoryPressure = trimLevelToMemoryPressure(level)
+      ?: return
+
+    appScope.launch(Dispatchers.Default) { trimAndLog(memoryPressure, "onTrimMemory(${level})") }
+  }
+
+  fun onLowMemory() {
+    appScope.launch(Dispatchers.Default) { trimAndLog(MemoryPressure.Critical, "onLowMemory()") }
+  }
+
+  /**
+   * Returns the memory pressure that corresponds to the current heap usage or null if the heap usage
+   * is below the watermarks. The critical heap usage is re-checked after a GC.
+   * */
+  fun checkHeapWatermark(): MemoryPressure? {
+    val memoryPressure = heapUsageToMemoryPressure(heapUsageProvider())
+    if (memoryPressure != MemoryPressure.Critical) {
+      return memoryPressure
+    }
+
+    // Make sure it's not just the garbage before dropping the expensive caches
+    gcRequester()
+    return heapUsageToMemoryPressure(heapUsageProvider())
+  }
+
+  private fun heapUsageToMemoryPressure(heapUsage: HeapUsage): MemoryPressure? {
+    val usedRatio = heapUsage.usedRatio()
+
+    return when {
+      usedRatio >= CRITICAL_HEAP_WATERMARK -> MemoryPressure.Critical
+      usedRatio >= MODERATE_HEAP_WATERMARK -> MemoryPressure.Moderate
+      else -> null
+    }
+  }
+
+  /**
+   * Invokes the trimmers allowed by [memoryPressure] in the order of their priority and returns how
+   * much every one of them freed. Trimming at the same or lower pressure level as the previous trim
+   * is skipped for a while since there is most likely nothing left to trim (an empty list is
+   * returned in that case).
+   * */
+  @Synchronized
+  fun trim(memoryPressure: MemoryPressure): List<TrimReport> {
+    val now = currentTimeMs()
+    val prevTrimPressure = lastTrimPressure
+
+    if (prevTrimPressure != null
+      && memoryPressure <= prevTrimPressure
+      && now - lastTrimTime < MIN_TRIM_INTERVAL_MS
+    ) {
+      return emptyList()
+    }
+
+    lastTrimPressure = memoryPressure
+    lastTrimTime = now
+
+    return registrations
+      .filter { registration -> registration.priority <= memoryPressure.maxTrimPriority }
+      .sortedWith(compareBy<Registration> { registration -> registration.priority }.thenBy { registration -> registration.order })
+      .map { registration ->
+        var error: Throwable? = null
+
+        val freed = try {
+          registration.trimmer.trim(memoryPressure)
+        } catch (throwable: Throwable) {
+          error = throwable
+          0L
+        }
+
+        TrimReport(name = registration.name, freed = freed, unit = registration.unit, error = error)
+      }
+  }
+
+  private fun trimAndLog(memoryPressure: MemoryPressure, reason: String) {
+    val heapUsageBefore = heapUsageProvider()
+    val reports = trim(memoryPressure)
+
+    if (reports.isEmpty()) {
+      if (verboseLogs) {
+        Logger.d(TAG, "${reason} trim(${memoryPressure}) skipped, heapUsage=${heapUsageBefore}")
+      }
+
+      return
+    }
+
+    val heapUsageAfter = heapUsageProvider()
+
+    reports.forEach { report ->
+      if (report.error != null) {
+        Logger.e(TAG, "${reason} trim(${memoryPressure}) '${report.name}' error", report.error)
+      }
+    }
+
+    Logger.d(TAG, "${reason} trim(${memoryPressure}) done, " +
+      "heap used before: ${heapUsageBefore.usedBytes / 1024}KB, after: ${heapUsageAfter.usedBytes / 1024}KB, " +
+      "freed: ${reports.joinToString { report -> "${report.name}=${report.freed} ${report.unit}" }}")
+  }
+
+  private class Registration(
+    val name: String,
+    val priority: TrimPriority,
+    val unit: String,
+    val order: Int,
+    val trimmer: MemoryTrimmer
+  )
+
+  fun interface MemoryTrimmer {
+    /**
+     * Frees as much memory as makes sense for [memoryPressure] and returns how much was freed (in
+     * the units the trimmer was registered with).
+     * */
+    fun trim(memoryPressure: MemoryPressure): Long
+  }
+
+  // In the order in which the caches are trimmed
+  enum class TrimPriority {
+    // Caches of things that are cheap to get back (decoded bitmaps, etc)
+    Disposable,
+    // Caches that have to be reloaded from the database
+    Rebuildable,
+    // Caches that have to be reloaded from the network or the loss of which is visible to the user
+    Expensive
+  }
+
+  enum class MemoryPressure(val maxTrimPriority: TrimPriority) {
+    Low(TrimPriority.Disposable),
+    Moderate(TrimPriority.Rebuildable),
+    Critical(TrimPriority.Expensive)
+  }
+
+  data class TrimReport(
+    val name: String,
+    val freed: Long,
+    val unit: String,
+    val error: Throwable? = null
+  )
+
+  data class HeapUsage(
+    val usedBytes: Long,
+    val maxBytes: Long
+  ) {
+    fun usedRatio(): Float {
+      if (maxBytes <= 0L) {
+        return 0f
+      }
+
+      return usedBytes.toFloat() / maxBytes.toFloat()
+    }
+
+    companion object {
+      fun current(): HeapUsage {
+        val runtime = Runtime.getRuntime()
+
+        return HeapUsage(
+          usedBytes = runtime.totalMemory() - runtime.freeMemory(),
+          maxBytes = runtime.maxMemory()
+        )
+      }
+    }
+  }
+
+  companion object {
+    private const val TAG = "MemoryPressureCoordinator"
+
+    private const val MODERATE_HEAP_WATERMARK = 0.75f
+    private const val CRITICAL_HEAP_WATERMARK = 0.9f
+
+    private val HEAP_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30)
+    private val MIN_TRIM_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30)
+
+    fun trimLevelToMemoryPressure(level: Int): MemoryPressure? {
+      return when {
+        level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE -> MemoryPressure.Critical
+        level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> MemoryPressure.Moderate
+        // TRIM_MEMORY_UI_HIDDEN and TRIM_MEMORY_BACKGROUND
+        level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> MemoryPressure.Low
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> MemoryPressure.Critical
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> MemoryPressure.Moderate
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> MemoryPressure.Low
+        else -> null
+      }
+    }
+  }
+}
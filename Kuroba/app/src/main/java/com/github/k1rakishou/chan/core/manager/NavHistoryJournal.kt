@@ -0,0 +1,272 @@
+package com.github.k1rakishou.chan.core.manager
+
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.navigation.NavHistoryChangeSet
+import com.github.k1rakishou.model.data.navigation.NavHistoryElement
+
+/**
+ * Keeps track of what the database currently contains (element orders) and of the elements whose
+ * info changed so that the navigation stack can be persisted by only writing the rows that actually
+ * changed instead of rewriting the whole table every time. All the changes that happen between two
+ * writes are coalesced into one [NavHistoryChangeSet]. The persisted orders are sparse (see
+ * [assignOrders]) so inserting or moving an element to the top of the stack only writes that one
+ * element.
+ *
+ * Not thread-safe, must be used under the same lock as the navigation stack.
+ * */
+class NavHistoryJournal {
+  private var persistedOrders = HashMap<ChanDescriptor, PersistedElement>()
+  private val changedDescriptors = hashSetOf<ChanDescriptor>()
+
+  // Until the first write we don't know whether the database order of the elements matches their
+  // indexes (the database may have more elements than we loaded or may contain elements that we
+  // failed to load) so the first write is always a full rewrite.
+  private var needsRewrite = true
+  // A rewrite deletes every row that is not in the navigation stack. When the navigation stack
+  // failed to load completely the rows that we failed to load would be deleted too, so in this case
+  // the elements are only ever inserted/updated (and deleted when we know they were persisted).
+  private var rewriteAllowed = true
+  private var hasPendingChanges = false
+
+  val pendingChanges: Boolean
+    get() = hasPendingChanges
+
+  /**
+   * Must be called after every modification of the navigation stack.
+   * [changedDescriptors] are the elements which info (title/thumbnail/pinned) was modified, moved,
+   * inserted and deleted elements are detected automatically.
+   * */
+  fun onNavigationStackModified(changedDescriptors: Collection<ChanDescriptor> = emptyList()) {
+    this.changedDescriptors.addAll(changedDescriptors)
+    hasPendingChanges = true
+  }
+
+  /**
+   * Must be called when the navigation stack failed to load (completely or partially) from the
+   * database. Disables rewrites since the stack does not contain everything the database does.
+   * */
+  fun onNavigationStackLoadFailed() {
+    rewriteAllowed = false
+  }
+
+  fun collectChanges(navigationStack: List<NavHistoryElement>): PendingChanges? {
+    if (!hasPendingChanges) {
+      return null
+    }
+
+    val collectedChangedDescriptors = changedDescriptors.toSet()
+    changedDescriptors.clear()
+    hasPendingChanges = false
+
+    if (needsRewrite && rewriteAllowed) {
+      return createRewrite(navigationStack, collectedChangedDescriptors)
+    }
+
+    val newOrders = assignOrders(navigationStack)
+      ?: compactedOrders(navigationStack)
+
+    val newPersistedOrders = HashMap<ChanDescriptor, PersistedElement>(navigationStack.size)
+    val updated = mutableListOf<IndexedValue<NavHistoryElement>>()
+
+    navigationStack.forEachIndexed { index, navHistoryElement ->
+      val descriptor = navHistoryElement.descriptor()
+      val order = newOrders[index]
+
+      newPersistedOrders[descriptor] = PersistedElement(navHistoryElement, order)
+
+      if (needsRewrite || persistedOrders[descriptor]?.order != order || descriptor in collectedChangedDescriptors) {
+        updated += IndexedValue(order, navHistoryElement)
+      }
+    }
+
+    val deleted = persistedOrders.values
+      .filter { persistedElement -> persistedElement.element.descriptor() !in newPersistedOrders }
+      .map { persistedElement -> persistedElement.element }
+
+    val rewriteIsCheaper = navigationStack.isEmpty() || updated.size + deleted.size > navigationStack.size / 2
+    if (rewriteAllowed && rewriteIsCheaper) {
+      // When most of the elements changed it's cheaper to rewrite everything (this also compacts
+      // the orders).
+      return createRewrite(navigationStack, collectedChangedDescriptors)
+    }
+
+    return PendingChanges(
+      changeSet = NavHistoryChangeSet.Delta(updated = updated, deleted = deleted),
+      newPersistedOrders = newPersistedOrders,
+      changedDescriptors = collectedChangedDescriptors
+    )
+  }
+
+  private fun createRewrite(
+    navigationStack: List<NavHistoryElement>,
+    collectedChangedDescriptors: Set<ChanDescriptor>
+  ): PendingChanges {
+    val newOrders = compactedOrders(navigationStack)
+    val newPersistedOrders = HashMap<ChanDescriptor, PersistedElement>(navigationStack.size)
+
+    navigationStack.forEachIndexed { index, navHistoryElement ->
+      newPersistedOrders[navHistoryElement.descriptor()] = PersistedElement(navHistoryElement, newOrders[index])
+    }
+
+    return PendingChanges(
+      changeSet = NavHistoryChangeSet.Rewrite(navigationStack.toList()),
+      newPersistedOrders = newPersistedOrders,
+      changedDescriptors = collectedChangedDescriptors
+    )
+  }
+
+  /**
+   * Orders are sparse, so instead of renumbering the whole stack when an element is inserted or
+   * moved, the elements that are still in the same relative order keep their persisted orders (the
+   * longest increasing run of them) and only the rest get new orders that fit between their
+   * neighbours. An element put on the top of the stack gets the current top order - [ORDERS_GAP].
+   * When there is no free order left between two elements the elements above them are renumbered as
+   * well. Returns null when the orders went out of the allowed range and need to be compacted.
+   * */
+  private fun assignOrders(navigationStack: List<NavHistoryElement>): IntArray? {
+    val keptOrders = findOrdersToKeep(navigationStack)
+    val orders = LongArray(navigationStack.size)
+
+    var index = 0
+    while (index < navigationStack.size) {
+      val keptOrder = keptOrders[index]
+      if (keptOrder != null) {
+        orders[index] = keptOrder.toLong()
+        ++index
+        continue
+      }
+
+      // A run of elements that need new orders, between the element above it (which already has
+      // its new order) and the next element which keeps its order
+      val runStart = index
+      var runEnd = index
+      while (runEnd < navigationStack.size && keptOrders[runEnd] == null) {
+        ++runEnd
+      }
+
+      val runLength = runEnd - runStart
+      val lower = if (runStart > 0) orders[runStart - 1] else null
+      val upper = keptOrders.getOrNull(runEnd)?.toLong()
+
+      if (lower != null && upper != null && upper - lower <= runLength) {
+        // No free orders left here, renumber everything above the next kept element
+        for (keptIndex in 0 until runEnd) {
+          keptOrders[keptIndex] = null
+        }
+
+        index = 0
+        continue
+      }
+
+      for (runIndex in runStart until runEnd) {
+        val positionInRun = (runIndex - runStart + 1).toLong()
+
+        orders[runIndex] = when {
+          lower != null && upper != null -> lower + (upper - lower) * positionInRun / (runLength + 1)
+          lower != null -> lower + positionInRun * ORDERS_GAP
+          upper != null -> upper - (runLength - positionInRun + 1) * ORDERS_GAP
+          else -> (runIndex.toLong()) * ORDERS_GAP
+        }
+      }
+
+      index = runEnd
+    }
+
+    if (orders.any { order -> order < MIN_ORDER || order > MAX_ORDER }) {
+      return null
+    }
+
+    return IntArray(orders.size) { orderIndex -> orders[orderIndex].toInt() }
+  }
+
+  /**
+   * Returns the persisted orders of the longest run of elements that are still in increasing order
+   * (null for every other element).
+   * */
+  private fun findOrdersToKeep(navigationStack: List<NavHistoryElement>): Array<Int?> {
+    val keptOrders = arrayOfNulls<Int>(navigationStack.size)
+
+    // Patience sorting: tails[length - 1] is the index of the smallest order that ends an
+    // increasing run of that length, previous[index] is the index before it in its run
+    val tails = IntArray(navigationStack.size)
+    val previous = IntArray(navigationStack.size) { -1 }
+    var longestRun = 0
+
+    navigationStack.forEachIndexed { index, navHistoryElement ->
+      val order = persistedOrders[navHistoryElement.descriptor()]?.order
+        ?: return@forEachIndexed
+
+      var low = 0
+      var high = longestRun
+      while (low < high) {
+        val middle = (low + high) ushr 1
+        val middleOrder = persistedOrders[navigationStack[tails[middle]].descriptor()]!!.order
+
+        if (middleOrder < order) {
+          low = middle + 1
+        } else {
+          high = middle
+        }
+      }
+
+      if (low > 0) {
+        previous[index] = tails[low - 1]
+      }
+
+      tails[low] = index
+      if (low == longestRun) {
+        ++longestRun
+      }
+    }
+
+    var index = if (longestRun > 0) tails[longestRun - 1] else -1
+    while (index >= 0) {
+      keptOrders[index] = persistedOrders[navigationStack[index].descriptor()]!!.order
+      index = previous[index]
+    }
+
+    return keptOrders
+  }
+
+  private fun compactedOrders(navigationStack: List<NavHistoryElement>): IntArray {
+    return IntArray(navigationStack.size) { index -> index * ORDERS_GAP }
+  }
+
+  @VisibleForTesting
+  internal fun persistedOrder(descriptor: ChanDescriptor): Int? {
+    return persistedOrders[descriptor]?.order
+  }
+
+  fun onChangesPersisted(pendingChanges: PendingChanges) {
+    persistedOrders = pendingChanges.newPersistedOrders
+    needsRewrite = false
+  }
+
+  fun onChangesPersistFailed(pendingChanges: PendingChanges) {
+    // We don't know what state the database is in now so the next write must rewrite everything
+    changedDescriptors.addAll(pendingChanges.changedDescriptors)
+    needsRewrite = true
+    hasPendingChanges = true
+  }
+
+  class PendingChanges(
+    val changeSet: NavHistoryChangeSet,
+    internal val newPersistedOrders: HashMap<ChanDescriptor, PersistedElement>,
+    internal val changedDescriptors: Set<ChanDescriptor>
+  )
+
+  class PersistedElement(
+    val element: NavHistoryElement,
+    val order: Int
+  )
+
+  companion object {
+    private const val ORDERS_GAP = NavHistoryChangeSet.ORDERS_GAP
+
+    // Leave enough room to compact the orders before they overflow
+    private const val MIN_ORDER = Int.MIN_VALUE / 2L
+    private const val MAX_ORDER = Int.MAX_VALUE / 2L
+  }
+
+}
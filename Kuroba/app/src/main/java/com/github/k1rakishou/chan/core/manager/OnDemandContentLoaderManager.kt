@@ -20,6 +20,7 @@ import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeoutOrNull
 import java.util.*
@@ -129,6 +130,22 @@ class OnDemandContentLoaderManager(
     }
   }
 
+  fun onThreadLoaded(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    check(loaders.isNotEmpty()) { "No loaders!" }
+
+    loaders.forEach { loader ->
+      scope.launch(dispatcher) {
+        try {
+          loader.onThreadLoaded(threadDescriptor)
+        } catch (error: Throwable) {
+          if (error.isExceptionImportant()) {
+            Logger.e(TAG, "${loader.loaderType}.onThreadLoaded($threadDescriptor) error", error)
+          }
+        }
+      }
+    }
+  }
+
   private suspend fun CoroutineScope.onPostBindInternal(postLoaderData: PostLoaderData): LoaderBatchResult? {
     BackgroundUtils.ensureBackgroundThread()
     val postDescriptor = postLoaderData.postDescriptor
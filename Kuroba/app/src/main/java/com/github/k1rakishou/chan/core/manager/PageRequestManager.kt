@@ -119,6 +119,37 @@ class PageRequestManager(
     return threadNoTimeModPairSet
   }
 
+  /**
+   * Returns the board's pages if they were received no longer than [maxAgeMs] ago, otherwise requests
+   * them and waits for the response. Unlike [getBoardPages] this ignores [ChanSettings.neverShowPages]
+   * because the pages are not shown to the user. Returns null when the pages couldn't be received (or
+   * are already being requested by someone else).
+   * */
+  suspend fun getFreshBoardPages(boardDescriptor: BoardDescriptor, maxAgeMs: Long): BoardPages? {
+    if (!pagesRequestsSupported(boardDescriptor.siteDescriptor)) {
+      return null
+    }
+
+    if (!arePagesFresh(boardDescriptor, maxAgeMs)) {
+      requestBoardInternal(boardDescriptor)
+    }
+
+    if (!arePagesFresh(boardDescriptor, maxAgeMs)) {
+      return null
+    }
+
+    return boardPagesMap[boardDescriptor]
+  }
+
+  /**
+   * Whether the thread last modified time in the board's pages changes every time a post is added,
+   * deleted or modified. Otherwise (2ch's "lasthit" is only updated by bumps) the pages can't be used
+   * to tell whether a thread has changed.
+   * */
+  fun pagesTrackAllThreadChanges(siteDescriptor: SiteDescriptor): Boolean {
+    return siteDescriptor.is4chan()
+  }
+
   @Synchronized
   fun canAlertAboutThreadBeingOnLastPage(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
     val boardPage = findPage(
@@ -291,6 +322,13 @@ class PageRequestManager(
     _boardPagesUpdateFlow.tryEmit(boardDescriptor)
   }
 
+  private fun arePagesFresh(boardDescriptor: BoardDescriptor, maxAgeMs: Long): Boolean {
+    val lastUpdateTime = boardTimeMap[boardDescriptor]
+      ?: return false
+
+    return System.currentTimeMillis() - lastUpdateTime <= maxAgeMs
+  }
+
   private fun pagesRequestsSupported(siteDescriptor: SiteDescriptor): Boolean {
     return siteDescriptor.is4chan() || siteDescriptor.isDvach()
   }
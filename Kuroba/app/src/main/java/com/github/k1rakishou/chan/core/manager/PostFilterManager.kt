@@ -1,27 +1,45 @@
 package com.github.k1rakishou.chan.core.manager
 
 import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.chan.core.helper.PostFilterInput
+import com.github.k1rakishou.chan.core.usecase.ReapplyFiltersUseCase
 import com.github.k1rakishou.common.mutableIteration
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
-import com.github.k1rakishou.common.putIfNotContains
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.PostFilter
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import kotlinx.coroutines.CoroutineScope
-import java.util.concurrent.locks.ReentrantReadWriteLock
-import kotlin.concurrent.read
-import kotlin.concurrent.write
-
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Post filters are stored per thread and every thread has its own lock so that the parser
+ * processing posts of one thread doesn't block readers of other threads (and vice versa). The
+ * amount of posts matched by every filter is tracked separately and kept up to date whenever a post
+ * filter is added or removed so it can be queried without going through all the stored post filters.
+ *
+ * Along with the post filters we also keep the [PostFilterInput] of every post that went through
+ * the filters (whether any of them matched or not) so that the filters can be re-evaluated when
+ * they change without parsing the posts again (see [ReapplyFiltersUseCase]). They are removed
+ * together with the thread's post filters when the thread is removed from the cache. When there are
+ * no enabled filters at all the inputs are not stored (every one of them is a copy of the post
+ * comment) and we only remember that some were skipped, in this case the posts have to be parsed
+ * again once a filter is created or enabled.
+ * */
 open class PostFilterManager(
   private val verboseLogsEnabled: Boolean,
   private val appScope: CoroutineScope,
   private val chanThreadsCache: ChanThreadsCache
 ) : IPostFilterManager{
-  private val lock = ReentrantReadWriteLock()
-  @GuardedBy("lock")
-  private val filterStorage = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, MutableMap<PostDescriptor, PostFilter>>(16)
+  private val filterStorage = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ThreadPostFilters>(16)
+  // ChanFilter database id -> amount of posts that have a PostFilter created by that filter
+  private val matchedPostsCounters = ConcurrentHashMap<Long, AtomicInteger>()
+  private val filterInputsSkipped = AtomicBoolean(false)
 
   init {
     chanThreadsCache.addChanThreadDeleteEventListener { threadDeleteEvent ->
@@ -35,109 +53,110 @@ open class PostFilterManager(
   }
 
   override fun countMatchedFilters(postDescriptors: List<PostDescriptor>): Int {
-    return lock.read {
-      var counter = 0
+    var counter = 0
 
-      postDescriptors.forEach { postDescriptor ->
-        val threadDescriptor = postDescriptor.threadDescriptor()
-        if (filterStorage[threadDescriptor]?.containsKey(postDescriptor) == true) {
-          ++counter
-        }
+    postDescriptors.forEach { postDescriptor ->
+      if (filterStorage[postDescriptor.threadDescriptor()]?.contains(postDescriptor) == true) {
+        ++counter
       }
-
-      return@read counter
     }
+
+    return counter
   }
 
   fun countMatchedPosts(filterDatabaseId: Long): Int {
-    return lock.read {
-      var postsCount = 0
+    return matchedPostsCounters[filterDatabaseId]?.get() ?: 0
+  }
 
-      for (postFilterMap in filterStorage.values) {
-        for ((_, postFilter) in postFilterMap) {
-          if (postFilter.ownerFilterId == filterDatabaseId) {
-            ++postsCount
-          }
-        }
+  fun insert(postDescriptor: PostDescriptor, postFilter: PostFilter) {
+    val threadDescriptor = postDescriptor.threadDescriptor()
+
+    while (true) {
+      if (getOrCreateThreadPostFilters(threadDescriptor).put(postDescriptor, postFilter)) {
+        return
       }
+    }
+  }
 
-      return@read postsCount
+  fun storeFilterInput(postFilterInput: PostFilterInput) {
+    val threadDescriptor = postFilterInput.postDescriptor.threadDescriptor()
+
+    while (true) {
+      if (getOrCreateThreadPostFilters(threadDescriptor).putFilterInput(postFilterInput)) {
+        return
+      }
     }
   }
 
-  fun insert(postDescriptor: PostDescriptor, postFilter: PostFilter) {
-    lock.write {
-      val threadDescriptor = postDescriptor.threadDescriptor()
+  fun onFilterInputsSkipped() {
+    filterInputsSkipped.set(true)
+  }
+
+  /**
+   * Returns false when some posts went through the filters without storing their [PostFilterInput]s
+   * since the last [clear] so the filters can't be re-applied using [getAllFilterInputs] alone.
+   * */
+  fun hasAllFilterInputs(): Boolean {
+    return !filterInputsSkipped.get()
+  }
+
+  fun getAllFilterInputs(): List<PostFilterInput> {
+    val resultList = mutableListWithCap<PostFilterInput>(128)
 
-      filterStorage.putIfNotContains(threadDescriptor, mutableMapWithCap(128))
-      filterStorage[threadDescriptor]!![postDescriptor] = postFilter
+    filterStorage.values.forEach { threadPostFilters ->
+      threadPostFilters.collectFilterInputs(resultList)
     }
+
+    return resultList
   }
 
   fun contains(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      val threadDescriptor = postDescriptor.threadDescriptor()
-      return@read filterStorage[threadDescriptor]?.containsKey(postDescriptor) == true
-    }
+    return filterStorage[postDescriptor.threadDescriptor()]?.contains(postDescriptor) == true
   }
 
   fun remove(postDescriptor: PostDescriptor) {
-    lock.write {
-      val threadDescriptor = postDescriptor.threadDescriptor()
-      filterStorage[threadDescriptor]?.remove(postDescriptor)
-    }
+    filterStorage[postDescriptor.threadDescriptor()]?.remove(postDescriptor)
   }
 
   fun removeMany(postDescriptorList: Collection<PostDescriptor>) {
-    lock.write {
-      postDescriptorList.forEach { postDescriptor ->
-        val threadDescriptor = postDescriptor.threadDescriptor()
-
-        filterStorage[threadDescriptor]?.remove(postDescriptor)
-      }
-    }
+    postDescriptorList.forEach { postDescriptor -> remove(postDescriptor) }
   }
 
   fun removeAllForDescriptor(chanDescriptor: ChanDescriptor) {
-    lock.write {
-      when (chanDescriptor) {
-        is ChanDescriptor.ICatalogDescriptor -> {
-          val boardDescriptors = when (chanDescriptor) {
-            is ChanDescriptor.CatalogDescriptor -> {
-              setOf(chanDescriptor.boardDescriptor)
-            }
-            is ChanDescriptor.CompositeCatalogDescriptor -> {
-              chanDescriptor.catalogDescriptors
-                .map { catalogDescriptor -> catalogDescriptor.boardDescriptor }
-                .toSet()
-            }
+    when (chanDescriptor) {
+      is ChanDescriptor.ICatalogDescriptor -> {
+        val boardDescriptors = when (chanDescriptor) {
+          is ChanDescriptor.CatalogDescriptor -> {
+            setOf(chanDescriptor.boardDescriptor)
           }
+          is ChanDescriptor.CompositeCatalogDescriptor -> {
+            chanDescriptor.catalogDescriptors
+              .map { catalogDescriptor -> catalogDescriptor.boardDescriptor }
+              .toSet()
+          }
+        }
 
-          filterStorage.mutableIteration { mutableIterator, entry ->
-            if (entry.key.boardDescriptor in boardDescriptors) {
-              mutableIterator.remove()
-            }
-
-            return@mutableIteration true
+        // Only goes through the threads, not through their posts
+        filterStorage.keys.forEach { threadDescriptor ->
+          if (threadDescriptor.boardDescriptor in boardDescriptors) {
+            removeThread(threadDescriptor)
           }
         }
-        is ChanDescriptor.ThreadDescriptor -> filterStorage.remove(chanDescriptor)
       }
+      is ChanDescriptor.ThreadDescriptor -> removeThread(chanDescriptor)
     }
   }
 
   fun update(postDescriptor: PostDescriptor, ownerFilterId: Long?, updateFunc: (PostFilter) -> Unit) {
-    lock.write {
-      val threadDescriptor = postDescriptor.threadDescriptor()
-      filterStorage.putIfNotContains(threadDescriptor, mutableMapWithCap(128))
+    val threadDescriptor = postDescriptor.threadDescriptor()
 
-      val postFilter = filterStorage[threadDescriptor]!!.getOrPut(
-        key = postDescriptor,
-        defaultValue = { PostFilter(ownerFilterId = ownerFilterId) }
-      )
+    while (true) {
+      val updated = getOrCreateThreadPostFilters(threadDescriptor)
+        .getOrCreateAndUpdate(postDescriptor, ownerFilterId, updateFunc)
 
-      updateFunc(postFilter)
-      filterStorage[threadDescriptor]!![postDescriptor] = postFilter
+      if (updated) {
+        return
+      }
     }
   }
 
@@ -146,35 +165,22 @@ open class PostFilterManager(
   }
 
   fun updateIfExists(postDescriptors: Collection<PostDescriptor>, updateFunc: (PostFilter) -> Unit) {
-    lock.write {
-      postDescriptors.forEach { postDescriptor ->
-        val threadDescriptor = postDescriptor.threadDescriptor()
-
-        val postFilter = filterStorage[threadDescriptor]?.get(postDescriptor)
-        if (postFilter == null) {
-          return@forEach
-        }
-
-        updateFunc(postFilter)
-        filterStorage[threadDescriptor]!![postDescriptor] = postFilter
-      }
+    postDescriptors.forEach { postDescriptor ->
+      filterStorage[postDescriptor.threadDescriptor()]?.updateIfExists(postDescriptor, updateFunc)
     }
   }
 
   fun clear() {
-    lock.write { filterStorage.clear() }
+    filterInputsSkipped.set(false)
+    filterStorage.keys.forEach { threadDescriptor -> removeThread(threadDescriptor) }
   }
 
   fun isEnabled(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      val threadDescriptor = postDescriptor.threadDescriptor()
-
-      return@read filterStorage[threadDescriptor]?.get(postDescriptor)?.enabled ?: false
-    }
+    return getPostFilter(postDescriptor)?.enabled ?: false
   }
 
   fun getPostFilter(postDescriptor: PostDescriptor): PostFilter? {
-    return lock.read { filterStorage[postDescriptor.threadDescriptor()]?.get(postDescriptor) }
+    return filterStorage[postDescriptor.threadDescriptor()]?.get(postDescriptor)
   }
 
   override fun getManyPostFilters(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, PostFilter> {
@@ -182,18 +188,16 @@ open class PostFilterManager(
       return emptyMap()
     }
 
-    return lock.read {
-      val postFilterMap = mutableMapWithCap<PostDescriptor, PostFilter>(postDescriptors.size)
+    val postFilterMap = mutableMapWithCap<PostDescriptor, PostFilter>(postDescriptors.size)
 
-      for (postDescriptor in postDescriptors) {
-        val postFilter = filterStorage[postDescriptor.threadDescriptor()]?.get(postDescriptor)
-        if (postFilter != null && postFilter.enabled) {
-          postFilterMap[postDescriptor] = postFilter
-        }
+    for (postDescriptor in postDescriptors) {
+      val postFilter = getPostFilter(postDescriptor)
+      if (postFilter != null && postFilter.enabled) {
+        postFilterMap[postDescriptor] = postFilter
       }
-
-      return@read postFilterMap
     }
+
+    return postFilterMap
   }
 
   fun getManyFilterHashes(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, Int> {
@@ -201,143 +205,237 @@ open class PostFilterManager(
       return emptyMap()
     }
 
-    return lock.read {
-      val resultMap = mutableMapWithCap<PostDescriptor, Int>(postDescriptors.size)
+    val resultMap = mutableMapWithCap<PostDescriptor, Int>(postDescriptors.size)
 
-      for (postDescriptor in postDescriptors) {
-        val filterHash = filterStorage[postDescriptor.threadDescriptor()]
-          ?.get(postDescriptor)
-          ?.hashCode()
-          ?: 0
+    for (postDescriptor in postDescriptors) {
+      resultMap[postDescriptor] = getPostFilter(postDescriptor)?.hashCode() ?: 0
+    }
 
-        resultMap[postDescriptor] = filterHash
+    return resultMap
+  }
+
+  fun getManyFilterHighlights(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, PostFilter> {
+    if (postDescriptors.isEmpty()) {
+      return emptyMap()
+    }
+
+    val resultMap = mutableMapWithCap<PostDescriptor, PostFilter>(postDescriptors.size)
+
+    for (postDescriptor in postDescriptors) {
+      val postFilter = getPostFilter(postDescriptor)
+      if (postFilter == null || !postFilter.enabled) {
+        continue
       }
 
-      return@read resultMap
+      resultMap[postDescriptor] = postFilter
     }
+
+    return resultMap
   }
 
-  fun getManyFilterHighlights(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, PostFilter> {
+  fun getFilterStubOrRemove(postDescriptor: PostDescriptor): Boolean {
+    val postFilter = getPostFilter(postDescriptor)
+    if (postFilter == null || !postFilter.enabled) {
+      return false
+    }
+
+    return postFilter.stub || postFilter.remove
+  }
+
+  fun getFilterStub(postDescriptor: PostDescriptor): Boolean {
+    val postFilter = getPostFilter(postDescriptor)
+    if (postFilter == null || !postFilter.enabled) {
+      return false
+    }
+
+    return postFilter.stub
+  }
+
+  fun getManyFilterStubs(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, Boolean> {
     if (postDescriptors.isEmpty()) {
       return emptyMap()
     }
 
-    return lock.read {
-      val resultMap = mutableMapWithCap<PostDescriptor, PostFilter>(postDescriptors.size)
+    val resultMap = mutableMapWithCap<PostDescriptor, Boolean>(postDescriptors.size)
 
-      for (postDescriptor in postDescriptors) {
-        val threadDescriptor = postDescriptor.threadDescriptor()
-        val enabled = filterStorage[threadDescriptor]?.get(postDescriptor)?.enabled ?: false
+    for (postDescriptor in postDescriptors) {
+      resultMap[postDescriptor] = getFilterStub(postDescriptor)
+    }
 
-        val postFilterHighlight = if (!enabled) {
-          null
-        } else {
-          filterStorage[threadDescriptor]?.get(postDescriptor)
-        }
+    return resultMap
+  }
+
+  private fun onThreadDeleteEventReceived(threadDeleteEvent: ChanThreadsCache.ThreadDeleteEvent) {
+    when (threadDeleteEvent) {
+      is ChanThreadsCache.ThreadDeleteEvent.RemoveThreads -> {
+        var removedThreads = 0
 
-        if (postFilterHighlight == null) {
-          continue
+        threadDeleteEvent.threadDescriptors.forEach { threadDescriptor ->
+          ++removedThreads
+          removeThread(threadDescriptor)
         }
 
-        resultMap[postDescriptor] = postFilterHighlight
+        Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreads() removed ${removedThreads} threads")
       }
+      is ChanThreadsCache.ThreadDeleteEvent.RemoveThreadPostsExceptOP -> {
+        var removedPosts = 0
 
-      return@read resultMap
+        threadDeleteEvent.entries.forEach { (threadDescriptor, originalPostDescriptor) ->
+          removedPosts += removeThreadPostsExceptOP(threadDescriptor, originalPostDescriptor)
+        }
+
+        Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreadPostsExceptOP() removed ${removedPosts} post filters")
+      }
     }
   }
 
-  fun getFilterStubOrRemove(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      val threadDescriptor = postDescriptor.threadDescriptor()
+  @VisibleForTesting
+  internal fun removeThreadPostsExceptOP(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    originalPostDescriptor: PostDescriptor
+  ): Int {
+    return filterStorage[threadDescriptor]?.removeAllExcept(originalPostDescriptor) ?: 0
+  }
 
-      val enabled = filterStorage[threadDescriptor]?.get(postDescriptor)?.enabled ?: false
-      if (!enabled) {
-        return@read false
-      }
+  private fun getOrCreateThreadPostFilters(threadDescriptor: ChanDescriptor.ThreadDescriptor): ThreadPostFilters {
+    // ConcurrentMap.getOrPut() is atomic (uses putIfAbsent)
+    return filterStorage.getOrPut(threadDescriptor) { ThreadPostFilters() }
+  }
 
-      if (filterStorage[threadDescriptor]?.get(postDescriptor)?.stub == true) {
-        return@read true
-      }
+  private fun removeThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    filterStorage.remove(threadDescriptor)?.detach()
+  }
 
-      if (filterStorage[threadDescriptor]?.get(postDescriptor)?.remove == true) {
-        return@read true
-      }
+  private fun onPostFilterAdded(postFilter: PostFilter) {
+    val ownerFilterId = postFilter.ownerFilterId
+      ?: return
 
-      return@read false
-    }
+    matchedPostsCounters.getOrPut(ownerFilterId) { AtomicInteger(0) }.incrementAndGet()
   }
 
-  fun getFilterStub(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      val threadDescriptor = postDescriptor.threadDescriptor()
+  private fun onPostFilterRemoved(postFilter: PostFilter) {
+    val ownerFilterId = postFilter.ownerFilterId
+      ?: return
 
-      val enabled = filterStorage[threadDescriptor]?.get(postDescriptor)?.enabled ?: false
-      if (!enabled) {
-        return@read false
-      }
+    matchedPostsCounters[ownerFilterId]?.decrementAndGet()
+  }
 
-      return@read filterStorage[threadDescriptor]?.get(postDescriptor)?.stub ?: false
+  /**
+   * Post filters of one thread. Once detached (the thread was removed from [filterStorage]) it
+   * can't be modified anymore, methods that add post filters return false in this case and the
+   * caller must retry with the new [ThreadPostFilters] of that thread. Otherwise post filters added
+   * concurrently with the thread removal would be lost while still being counted.
+   * */
+  private inner class ThreadPostFilters {
+    @GuardedBy("this")
+    private val postFilters = mutableMapWithCap<PostDescriptor, PostFilter>(128)
+    @GuardedBy("this")
+    private val filterInputs = mutableMapWithCap<PostDescriptor, PostFilterInput>(128)
+    @GuardedBy("this")
+    private var detached = false
+
+    @Synchronized
+    fun get(postDescriptor: PostDescriptor): PostFilter? {
+      return postFilters[postDescriptor]
     }
-  }
 
-  fun getManyFilterStubs(postDescriptors: Collection<PostDescriptor>): Map<PostDescriptor, Boolean> {
-    if (postDescriptors.isEmpty()) {
-      return emptyMap()
+    @Synchronized
+    fun contains(postDescriptor: PostDescriptor): Boolean {
+      return postFilters.containsKey(postDescriptor)
     }
 
-    return lock.read {
-      val resultMap = mutableMapWithCap<PostDescriptor, Boolean>(postDescriptors.size)
+    @Synchronized
+    fun put(postDescriptor: PostDescriptor, postFilter: PostFilter): Boolean {
+      if (detached) {
+        return false
+      }
 
-      for (postDescriptor in postDescriptors) {
-        val threadDescriptor = postDescriptor.threadDescriptor()
-        val enabled = filterStorage[threadDescriptor]?.get(postDescriptor)?.enabled ?: false
+      val prevPostFilter = postFilters.put(postDescriptor, postFilter)
+      if (prevPostFilter != null) {
+        onPostFilterRemoved(prevPostFilter)
+      }
 
-        val filterStub = if (!enabled) {
-          false
-        } else {
-          filterStorage[threadDescriptor]?.get(postDescriptor)?.stub ?: false
-        }
+      onPostFilterAdded(postFilter)
+      return true
+    }
 
-        resultMap[postDescriptor] = filterStub
+    @Synchronized
+    fun putFilterInput(postFilterInput: PostFilterInput): Boolean {
+      if (detached) {
+        return false
       }
 
-      return@read resultMap
+      filterInputs[postFilterInput.postDescriptor] = postFilterInput
+      return true
     }
-  }
 
-  private fun onThreadDeleteEventReceived(threadDeleteEvent: ChanThreadsCache.ThreadDeleteEvent) {
-    lock.write {
-      when (threadDeleteEvent) {
-        is ChanThreadsCache.ThreadDeleteEvent.RemoveThreads -> {
-          var removedThreads = 0
-
-          threadDeleteEvent.threadDescriptors.forEach { threadDescriptor ->
-            ++removedThreads
-            filterStorage.remove(threadDescriptor)
-          }
+    @Synchronized
+    fun collectFilterInputs(resultList: MutableList<PostFilterInput>) {
+      resultList.addAll(filterInputs.values)
+    }
 
-          Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreads() removed ${removedThreads} threads")
-        }
-        is ChanThreadsCache.ThreadDeleteEvent.RemoveThreadPostsExceptOP -> {
-          var removedPosts = 0
+    @Synchronized
+    fun getOrCreateAndUpdate(
+      postDescriptor: PostDescriptor,
+      ownerFilterId: Long?,
+      updateFunc: (PostFilter) -> Unit
+    ): Boolean {
+      if (detached) {
+        return false
+      }
 
-          threadDeleteEvent.entries.forEach { (threadDescriptor, originalPostDescriptor) ->
-            val innerFilterMap = filterStorage[threadDescriptor]
-              ?: return@forEach
+      var postFilter = postFilters[postDescriptor]
+      if (postFilter == null) {
+        postFilter = PostFilter(ownerFilterId = ownerFilterId)
+        postFilters[postDescriptor] = postFilter
+        onPostFilterAdded(postFilter)
+      }
 
-            innerFilterMap.mutableIteration { mutableIterator, mapEntry ->
-              if (mapEntry.key != originalPostDescriptor) {
-                ++removedPosts
-                mutableIterator.remove()
-              }
+      updateFunc(postFilter)
+      return true
+    }
 
-              return@mutableIteration true
-            }
-          }
+    @Synchronized
+    fun updateIfExists(postDescriptor: PostDescriptor, updateFunc: (PostFilter) -> Unit) {
+      val postFilter = postFilters[postDescriptor]
+        ?: return
+
+      updateFunc(postFilter)
+    }
+
+    @Synchronized
+    fun remove(postDescriptor: PostDescriptor) {
+      val removedPostFilter = postFilters.remove(postDescriptor)
+      if (removedPostFilter != null) {
+        onPostFilterRemoved(removedPostFilter)
+      }
+    }
 
-          Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreadPostsExceptOP() removed ${removedPosts} post filters")
+    @Synchronized
+    fun removeAllExcept(postDescriptor: PostDescriptor): Int {
+      var removedPosts = 0
+
+      postFilters.mutableIteration { mutableIterator, mapEntry ->
+        if (mapEntry.key != postDescriptor) {
+          ++removedPosts
+          onPostFilterRemoved(mapEntry.value)
+          mutableIterator.remove()
         }
+
+        return@mutableIteration true
       }
+
+      filterInputs.keys.retainAll { filterInputPostDescriptor -> filterInputPostDescriptor == postDescriptor }
+      return removedPosts
+    }
+
+    @Synchronized
+    fun detach() {
+      detached = true
+
+      postFilters.values.forEach { postFilter -> onPostFilterRemoved(postFilter) }
+      postFilters.clear()
+      filterInputs.clear()
     }
   }
 
@@ -345,4 +443,4 @@ open class PostFilterManager(
     private const val TAG = "PostFilterManager"
   }
 
-}
\ No newline at end of file
+}
@@ -198,7 +198,7 @@ open class PostHideManager(
     return chanPostHideRepository.getTotalCount()
   }
 
-  fun contains(postDescriptor: PostDescriptor): Boolean {
+  override fun contains(postDescriptor: PostDescriptor): Boolean {
     return lock.read { postHideMap[postDescriptor.descriptor]?.containsKey(postDescriptor) == true }
   }
 
@@ -19,6 +19,7 @@ import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroup
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupEntry
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupEntryToCreate
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupMatchPattern
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupMatcher
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupToCreate
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
@@ -46,6 +47,15 @@ class ThreadBookmarkGroupManager(
   // Map<GroupId, ThreadBookmarkGroup>
   private val groupsByGroupIdMap = mutableMapOf<String, ThreadBookmarkGroup>()
 
+  @GuardedBy("mutex")
+  // Reverse index of groupsByGroupIdMap so that we don't have to ask every group whether it contains
+  // a bookmark. Map<ThreadDescriptor, GroupId>
+  private val groupIdByThreadDescriptorMap = mutableMapOf<ChanDescriptor.ThreadDescriptor, String>()
+
+  @GuardedBy("mutex")
+  // Lazily rebuilt after any group is created/removed/reordered or its matching pattern is changed
+  private var groupMatcher: ThreadBookmarkGroupMatcher? = null
+
   private val threadBookmarkGroupRepository: ThreadBookmarkGroupRepository
     get() = _threadBookmarkGroupRepository.get()
   private val bookmarksManager: BookmarksManager
@@ -71,39 +81,29 @@ class ThreadBookmarkGroupManager(
   ): GroupIdWithName {
     ensureInitialized()
 
-    return mutex.withLockNonCancellable {
-      val threadBookmarkGroupEntriesSorted = groupsByGroupIdMap.entries
-        .sortedBy { (_, threadBookmarkGroup) -> threadBookmarkGroup.groupOrder }
-
-      for ((groupId, threadBookmarkGroup) in threadBookmarkGroupEntriesSorted) {
-        if (threadBookmarkGroup.isDefaultGroup()) {
-          // Skip the default group here since it always matches everything and will be used
-          // if no other group matches this bookmark info
-          continue
-        }
+    // The matcher is immutable so there is no need to hold the mutex while running the regexes.
+    // The default group is not a part of the matcher since it always matches everything and will
+    // be used if no other group matches this bookmark info
+    val matchedGroup = mutex.withLockNonCancellable { getOrCreateGroupMatcher() }
+      .findFirstMatchingGroup(boardDescriptor, postSubject, postComment)
 
-        if (threadBookmarkGroup.matches(boardDescriptor, postSubject, postComment)) {
-          return@withLockNonCancellable GroupIdWithName(
-            groupId = groupId,
-            groupName = threadBookmarkGroup.groupName
-          )
-        }
-      }
-
-      return@withLockNonCancellable GroupIdWithName(
+    if (matchedGroup == null) {
+      return GroupIdWithName(
         groupId = ThreadBookmarkGroup.DEFAULT_GROUP_ID,
         groupName = ThreadBookmarkGroup.DEFAULT_GROUP_NAME
       )
     }
+
+    return GroupIdWithName(
+      groupId = matchedGroup.groupId,
+      groupName = matchedGroup.groupName
+    )
   }
 
   suspend fun contains(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
     ensureInitialized()
 
-    return mutex.withLockNonCancellable {
-      return@withLockNonCancellable groupsByGroupIdMap.values
-        .any { threadBookmarkGroup -> threadBookmarkGroup.contains(threadDescriptor) }
-    }
+    return mutex.withLockNonCancellable { groupIdByThreadDescriptorMap.containsKey(threadDescriptor) }
   }
 
   suspend fun getMatchingPattern(bookmarkGroupId: String): ThreadBookmarkGroupMatchPattern? {
@@ -158,6 +158,7 @@ class ThreadBookmarkGroupManager(
         groupsByGroupIdMap[groupId]?.groupOrder = newOrder
       }
 
+      invalidateGroupMatcher()
       return@withLockNonCancellable true
     }
   }
@@ -255,6 +256,7 @@ class ThreadBookmarkGroupManager(
 
             groupsByGroupIdMap[bookmarkGroupId]
               ?.removeThreadBookmarkGroupEntry(threadBookmarkGroupEntry)
+            removeFromGroupIndex(bookmarkGroupId, threadBookmarkGroupEntry.threadDescriptor)
           }
 
           createTransaction.toCreate.forEach { (groupId, threadBookmarkGroupToCreate) ->
@@ -289,6 +291,7 @@ class ThreadBookmarkGroupManager(
                 threadBookmarkGroupEntry = threadBookmarkGroupEntry,
                 orderInGroup = order
               )
+              addToGroupIndex(groupId, threadBookmarkGroupEntry.threadDescriptor)
             }
 
             groupsByGroupIdMap[groupId]?.checkConsistency()
@@ -314,6 +317,7 @@ class ThreadBookmarkGroupManager(
           ?: return@withLockNonCancellable false
 
         threadBookmarkGroup.updateMatchingPattern(ThreadBookmarkGroupMatchPattern(matchFlag))
+        invalidateGroupMatcher()
 
         threadBookmarkGroupRepository.updateGroup(threadBookmarkGroup)
           .onError { error -> Logger.e(TAG, "updateGroupMatcherPattern() updateGroup(${groupId}) error", error) }
@@ -337,7 +341,10 @@ class ThreadBookmarkGroupManager(
           .unwrap()
 
         groupsByGroupIdMap.remove(groupId)
+          ?.getBookmarkDescriptors()
+          ?.forEach { threadDescriptor -> removeFromGroupIndex(groupId, threadDescriptor) }
 
+        invalidateGroupMatcher()
         return@withLockNonCancellable true
       }
     }
@@ -434,6 +441,8 @@ class ThreadBookmarkGroupManager(
           groupOrder = groupOrder,
           newMatchingPattern = null
         )
+
+        invalidateGroupMatcher()
       }
     }
   }
@@ -554,11 +563,7 @@ class ThreadBookmarkGroupManager(
       bookmarksManager.viewBookmarks(bookmarkThreadDescriptors) { threadBookmarkView ->
         val threadDescriptor = threadBookmarkView.threadDescriptor
 
-        val containsBookmarkEntry = groupsByGroupIdMap
-          .values
-          .any { threadBookmarkGroup -> threadBookmarkGroup.contains(threadDescriptor) }
-
-        if (containsBookmarkEntry) {
+        if (groupIdByThreadDescriptorMap.containsKey(threadDescriptor)) {
           return@viewBookmarks
         }
 
@@ -650,17 +655,15 @@ class ThreadBookmarkGroupManager(
             groupOrder = groupOrder,
             newMatchingPattern = bookmarkGroupToCreate.matchingPattern
           )
+
+          invalidateGroupMatcher()
         }
 
         val threadBookmarkGroup = groupsByGroupIdMap[groupId]!!
         val reserveDBId = ThreadBookmarkGroup.nextReserveDBId()
 
         val entries = bookmarkGroupToCreate.entries.mapNotNull { threadDescriptor ->
-          val containsBookmarkEntry = groupsByGroupIdMap
-            .values
-            .any { threadBookmarkGroup -> threadBookmarkGroup.contains(threadDescriptor) }
-
-          if (containsBookmarkEntry) {
+          if (groupIdByThreadDescriptorMap.containsKey(threadDescriptor)) {
             return@mapNotNull null
           }
 
@@ -744,6 +747,12 @@ class ThreadBookmarkGroupManager(
           newOrders = threadBookmarkGroupToCreate.getEntryDatabaseIdsSorted().toMutableList(),
           newMatchingPattern = threadBookmarkGroupToCreate.matchingPattern
         )
+
+        threadBookmarkGroupEntries.values.forEach { threadBookmarkGroupEntry ->
+          addToGroupIndex(groupId, threadBookmarkGroupEntry.threadDescriptor)
+        }
+
+        invalidateGroupMatcher()
       } else {
         threadBookmarkGroupEntries.values.forEach { threadBookmarkGroupEntry ->
           val order = requireNotNull(orders[threadBookmarkGroupEntry.databaseId]) {
@@ -755,6 +764,7 @@ class ThreadBookmarkGroupManager(
             threadBookmarkGroupEntry = threadBookmarkGroupEntry,
             orderInGroup = order
           )
+          addToGroupIndex(groupId, threadBookmarkGroupEntry.threadDescriptor)
         }
 
         groupsByGroupIdMap[groupId]?.checkConsistency()
@@ -779,19 +789,16 @@ class ThreadBookmarkGroupManager(
 
       // 1. Find ThreadBookmarkGroupEntry that we want to delete by their ThreadDescriptors
       for (bookmarkThreadDescriptor in bookmarkThreadDescriptors) {
-        for ((groupId, threadBookmarkGroup) in groupsByGroupIdMap) {
-          if (!threadBookmarkGroup.contains(bookmarkThreadDescriptor)) {
-            continue
-          }
+        val groupId = groupIdByThreadDescriptorMap[bookmarkThreadDescriptor]
+          ?: continue
 
-          val groupEntry = threadBookmarkGroup.getGroupEntryByThreadDescriptor(bookmarkThreadDescriptor)
-            ?: continue
+        val groupEntry = groupsByGroupIdMap[groupId]?.getGroupEntryByThreadDescriptor(bookmarkThreadDescriptor)
+          ?: continue
 
-          grouped.getOrPut(
-            key = groupId,
-            defaultValue = { mutableListOf() }
-          ).also { groupList -> groupList.add(groupEntry) }
-        }
+        grouped.getOrPut(
+          key = groupId,
+          defaultValue = { mutableListOf() }
+        ).also { groupList -> groupList.add(groupEntry) }
       }
 
       // 2. Remove the from the groupsByGroupIdMap + fill in the deleteTransaction
@@ -799,6 +806,7 @@ class ThreadBookmarkGroupManager(
         threadBookmarkGroupEntryList.forEach { threadBookmarkGroupEntry ->
           groupsByGroupIdMap[groupId]
             ?.removeThreadBookmarkGroupEntry(threadBookmarkGroupEntry)
+          removeFromGroupIndex(groupId, threadBookmarkGroupEntry.threadDescriptor)
         }
 
         deleteTransaction.toDelete.addAll(threadBookmarkGroupEntryList)
@@ -829,6 +837,7 @@ class ThreadBookmarkGroupManager(
               // everything at the end of the "orders" list.
               groupsByGroupIdMap[groupId]
                 ?.addThreadBookmarkGroupEntry(threadBookmarkGroupEntry)
+              addToGroupIndex(groupId, threadBookmarkGroupEntry.threadDescriptor)
             }
 
             groupsByGroupIdMap[groupId]?.checkConsistency()
@@ -909,11 +918,18 @@ class ThreadBookmarkGroupManager(
           is ModularResult.Value -> {
             mutex.withLockNonCancellable {
               groupsByGroupIdMap.clear()
+              groupIdByThreadDescriptorMap.clear()
 
               groupsResult.value.forEach { threadBookmarkGroup ->
                 groupsByGroupIdMap[threadBookmarkGroup.groupId] = threadBookmarkGroup
+
+                threadBookmarkGroup.getBookmarkDescriptors().forEach { threadDescriptor ->
+                  addToGroupIndex(threadBookmarkGroup.groupId, threadDescriptor)
+                }
               }
 
+              invalidateGroupMatcher()
+
               // Pre-create the default groups (for now the Default where all bookmarks are moved
               // by default and Filter watcher that is used by the filter watcher)
               createDefaultGroupsIfNeeded()
@@ -975,23 +991,62 @@ class ThreadBookmarkGroupManager(
     threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>
   ): Set<String> {
     require(mutex.isLocked) { "Mutex is not locked!" }
-    val resultSet = hashSetWithCap<String>(threadDescriptors.size)
+    val resultSet = hashSetWithCap<String>(groupsByGroupIdMap.size)
 
-    fun findGroupOrUseDefaultGroup(threadDescriptor: ChanDescriptor.ThreadDescriptor): String {
-      for (threadBookmarkGroup in groupsByGroupIdMap.values) {
-        if (threadBookmarkGroup.contains(threadDescriptor)) {
-          return threadBookmarkGroup.groupId
-        }
+    for (threadDescriptor in threadDescriptors) {
+      resultSet.add(groupIdByThreadDescriptorMap[threadDescriptor] ?: ThreadBookmarkGroup.DEFAULT_GROUP_ID)
+
+      if (resultSet.size >= groupsByGroupIdMap.size) {
+        // Every group is already in the set
+        break
       }
+    }
+
+    return resultSet
+  }
+
+  private fun addToGroupIndex(groupId: String, threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    require(mutex.isLocked) { "Mutex is not locked!" }
 
-      return ThreadBookmarkGroup.DEFAULT_GROUP_ID
+    val prevGroupId = groupIdByThreadDescriptorMap.put(threadDescriptor, groupId)
+    if (prevGroupId != null && prevGroupId != groupId) {
+      Logger.e(TAG, "addToGroupIndex() ${threadDescriptor} moved from group ${prevGroupId} " +
+        "to group ${groupId} without being removed first")
     }
+  }
 
-    for (threadDescriptor in threadDescriptors) {
-      resultSet.add(findGroupOrUseDefaultGroup(threadDescriptor))
+  private fun removeFromGroupIndex(groupId: String, threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    require(mutex.isLocked) { "Mutex is not locked!" }
+
+    // Only remove the descriptor if it still belongs to this group
+    groupIdByThreadDescriptorMap.remove(threadDescriptor, groupId)
+  }
+
+  private fun invalidateGroupMatcher() {
+    require(mutex.isLocked) { "Mutex is not locked!" }
+
+    groupMatcher = null
+  }
+
+  private fun getOrCreateGroupMatcher(): ThreadBookmarkGroupMatcher {
+    require(mutex.isLocked) { "Mutex is not locked!" }
+
+    val existingGroupMatcher = groupMatcher
+    if (existingGroupMatcher != null) {
+      return existingGroupMatcher
     }
 
-    return resultSet
+    val threadBookmarkGroupsSorted = groupsByGroupIdMap.values
+      .sortedBy { threadBookmarkGroup -> threadBookmarkGroup.groupOrder }
+
+    val newGroupMatcher = ThreadBookmarkGroupMatcher.build(threadBookmarkGroupsSorted)
+    groupMatcher = newGroupMatcher
+
+    if (verboseLogs) {
+      Logger.d(TAG, "getOrCreateGroupMatcher() rebuilt, groupsCount=${newGroupMatcher.groupsCount}")
+    }
+
+    return newGroupMatcher
   }
 
   data class GroupIdWithName(val groupId: String, val groupName: String)
@@ -7,6 +7,7 @@ import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingD
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.extractFileName
+import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
@@ -50,6 +51,10 @@ class ThreadDownloadManager(
 
   @GuardedBy("mutex")
   private val threadDownloadsMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadDownload>(16)
+  // Threads which download was started or resumed by the user since the last time their media was
+  // enqueued. Media that failed to download too many times is retried once for such threads.
+  @GuardedBy("mutex")
+  private val retryFailedMediaThreads = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(16)
 
   private val initializationRunnable = OneShotRunnable()
 
@@ -166,6 +171,7 @@ class ThreadDownloadManager(
     })
 
     if (updated) {
+      mutex.withLock { retryFailedMediaThreads += threadDescriptor }
       _threadDownloadUpdateFlow.emit(Event.StartDownload(threadDescriptor))
     }
 
@@ -281,6 +287,16 @@ class ThreadDownloadManager(
     }
   }
 
+  /**
+   * Whether the media of [threadDescriptor] that failed to download too many times should be retried
+   * because the user started or resumed the download manually. Only returns true once per user action.
+   * */
+  suspend fun consumeRetryFailedMedia(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    ensureInitialized()
+
+    return mutex.withLock { retryFailedMediaThreads.remove(threadDescriptor) }
+  }
+
   suspend fun onThreadsProcessed() {
     ensureInitialized()
 
@@ -383,6 +399,7 @@ class ThreadDownloadManager(
     })
 
     if (updated) {
+      mutex.withLock { retryFailedMediaThreads += threadDescriptor }
       _threadDownloadUpdateFlow.emit(Event.StartDownload(threadDescriptor))
     }
 
@@ -76,6 +76,13 @@ class ThreadPostSearchManager(
       return postDescriptors.isNotEmpty()
     }
 
+    val activeSearch = getOrCreateSearch(chanDescriptor)
+    if (activeSearch.searchQuery.value == searchQuery) {
+      // The matched posts are only replaced when the query changes so there is no need to go through
+      // every post again (e.g. when the search toolbar is shown again with the same query).
+      return activeSearch.matchedPostDescriptors.value.isNotEmpty()
+    }
+
     val matchedPostDescriptors = parallelForEachOrdered<PostDescriptor, PostDescriptor?>(
       dataList = postDescriptors,
       dispatcher = Dispatchers.IO
@@ -103,7 +110,7 @@ class ThreadPostSearchManager(
       return@parallelForEachOrdered postDescriptor
     }.filterNotNull()
 
-    getOrCreateSearch(chanDescriptor).updateSearchQuery(
+    activeSearch.updateSearchQuery(
       searchQuery = searchQuery,
       matchedPostDescriptors = matchedPostDescriptors
     )
@@ -6,6 +6,7 @@ import android.widget.Toast
 import androidx.annotation.StringRes
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.R
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
 import com.github.k1rakishou.chan.core.base.RendezvousCoroutineExecutor
 import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
 import com.github.k1rakishou.chan.core.base.ThrottlingCoroutineExecutorWithAccumulator
@@ -151,7 +152,8 @@ class ThreadPresenter @Inject constructor(
   private val chanCatalogSnapshotCacheLazy: Lazy<ChanCatalogSnapshotCache>,
   private val compositeCatalogManagerLazy: Lazy<CompositeCatalogManager>,
   private val refreshChan4CaptchaTicketUseCaseLazy: Lazy<RefreshChan4CaptchaTicketUseCase>,
-  private val revealedSpoilerImagesManagerLazy: Lazy<RevealedSpoilerImagesManager>
+  private val revealedSpoilerImagesManagerLazy: Lazy<RevealedSpoilerImagesManager>,
+  private val refreshSchedulerLazy: Lazy<RefreshScheduler>
 ) : PostAdapterCallback,
   PostCellCallback,
   ThreadStatusCell.Callback,
@@ -214,6 +216,8 @@ class ThreadPresenter @Inject constructor(
     get() = refreshChan4CaptchaTicketUseCaseLazy.get()
   private val revealedSpoilerImagesManager: RevealedSpoilerImagesManager
     get() = revealedSpoilerImagesManagerLazy.get()
+  private val refreshScheduler: RefreshScheduler
+    get() = refreshSchedulerLazy.get()
 
   override val endOfCatalogReached: Boolean
     get() {
@@ -295,6 +299,7 @@ class ThreadPresenter @Inject constructor(
       isDevFlavor = isDevBuild(),
       archivesManager = archivesManager,
       chanThreadManager = chanThreadManager,
+      refreshScheduler = refreshScheduler,
       action = this::onChanTickerTick
     )
   }
@@ -977,7 +982,7 @@ class ThreadPresenter @Inject constructor(
         return false
       }
 
-    val op = chanThreadManager.getChanThread(threadDescriptor)?.getOriginalPost()
+    val op = chanThreadManager.getOriginalPost(threadDescriptor)
     if (op != null) {
       bookmarksManager.createBookmark(
         threadDescriptor,
@@ -1087,13 +1092,22 @@ class ThreadPresenter @Inject constructor(
     }
 
     chanPostRepository.awaitUntilInitialized()
-    Logger.d(TAG, "onFiltersChanged($currentChanDescriptor) force reloading posts from the cache")
+    Logger.d(TAG, "onFiltersChanged($currentChanDescriptor) " +
+      "postsNeedReparsing=${filterEvent.postsNeedReparsing}")
 
     val catalogDescriptor = currentOpenedDescriptorStateManager.currentCatalogDescriptor
     val threadDescriptor = currentOpenedDescriptorStateManager.currentThreadDescriptor
 
     if (catalogDescriptor == currentChanDescriptor || threadDescriptor == currentChanDescriptor) {
-      quickReloadFromMemoryCache(chanLoadOptions = ChanLoadOptions.forceUpdateAllPosts())
+      if (filterEvent.postsNeedReparsing) {
+        quickReloadFromMemoryCache(chanLoadOptions = ChanLoadOptions.forceUpdateAllPosts())
+        return
+      }
+
+      // ChanFilterManager has already re-applied the changed filters to the cached posts by the
+      // time we receive the event so there is no need to reload and parse them again, we only
+      // need to re-run PostsFilter and update the cells.
+      showPosts()
     }
   }
 
@@ -1213,6 +1227,7 @@ class ThreadPresenter @Inject constructor(
 
       if (localChanDescriptor is ChanDescriptor.ThreadDescriptor) {
         updateBookmarkInfoIfNecessary(localChanDescriptor)
+        onDemandContentLoaderManager.onThreadLoaded(localChanDescriptor)
       }
     }
 
@@ -1297,8 +1312,7 @@ class ThreadPresenter @Inject constructor(
   }
 
   private suspend fun updateBookmarkInfoIfNecessary(localThreadDescriptor: ChanDescriptor.ThreadDescriptor) {
-    val originalPost = chanThreadManager.getChanThread(localThreadDescriptor)
-      ?.getOriginalPost()
+    val originalPost = chanThreadManager.getOriginalPost(localThreadDescriptor)
 
     val opThumbnailUrl = originalPost?.firstImage()
       ?.actualThumbnailUrl
@@ -1375,16 +1389,13 @@ class ThreadPresenter @Inject constructor(
       }
 
       is ChanDescriptor.ThreadDescriptor -> {
-        val chanOriginalPost = chanThreadManager.getChanThread(localChanDescriptor)
-          ?.getOriginalPost()
+        val chanOriginalPost = chanThreadManager.getOriginalPost(localChanDescriptor)
 
         if (chanOriginalPost == null) {
           return
         }
 
-        var opThumbnailUrl = chanThreadManager.getChanThread(localChanDescriptor)
-          ?.getOriginalPost()
-          ?.firstImage()
+        var opThumbnailUrl = chanOriginalPost.firstImage()
           ?.actualThumbnailUrl
 
         if (opThumbnailUrl == null) {
@@ -2541,8 +2552,19 @@ class ThreadPresenter @Inject constructor(
     // Trigger onDemandContentLoaderManager for this post again
     onDemandContentLoaderManager.onPostUnbind(post.postDescriptor, isActuallyRecycling = true)
 
-    val chanThread = chanThreadManager.getChanThread(post.postDescriptor.threadDescriptor())
-    if (chanThread == null) {
+    val threadDescriptor = post.postDescriptor.threadDescriptor()
+    val chanThread = chanThreadManager.getChanThread(threadDescriptor)
+
+    if (chanThread == null && chanThreadManager.getOriginalPost(threadDescriptor) != null) {
+      // The thread was never opened (only its original post is cached because of the catalog) so
+      // nothing can reply to the post yet
+      normalLoad(
+        showLoading = false,
+        chanLoadOptions = ChanLoadOptions.forceUpdatePosts(setOf(post.postDescriptor)),
+        chanCacheUpdateOptions = ChanCacheUpdateOptions.DoNotUpdateCache,
+        refreshPostPopupHelperPosts = true
+      )
+    } else if (chanThread == null) {
       normalLoad(
         showLoading = true,
         chanLoadOptions = ChanLoadOptions.forceUpdateAllPosts(),
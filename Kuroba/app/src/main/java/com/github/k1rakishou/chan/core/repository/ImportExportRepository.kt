@@ -17,7 +17,9 @@
 package com.github.k1rakishou.chan.core.repository
 
 import com.github.k1rakishou.chan.core.usecase.ExportBackupFileUseCase
+import com.github.k1rakishou.chan.core.usecase.ExportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.ImportBackupFileUseCase
+import com.github.k1rakishou.chan.core.usecase.ImportLogicalBackupUseCase
 import com.github.k1rakishou.chan.core.usecase.KurobaSettingsImportUseCase
 import com.github.k1rakishou.chan.features.settings.screens.delegate.ExportBackupOptions
 import com.github.k1rakishou.common.ModularResult
@@ -25,6 +27,7 @@ import com.github.k1rakishou.common.ModularResult.Companion.Try
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.ExternalFile
+import com.github.k1rakishou.model.source.backup.LogicalBackupWriter
 import com.google.gson.Gson
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -36,7 +39,9 @@ class ImportExportRepository @Inject constructor(
   private val fileManager: FileManager,
   private val kurobaSettingsImportUseCase: KurobaSettingsImportUseCase,
   private val exportBackupFileUseCase: ExportBackupFileUseCase,
-  private val importBackupFileUseCase: ImportBackupFileUseCase
+  private val importBackupFileUseCase: ImportBackupFileUseCase,
+  private val exportLogicalBackupUseCase: ExportLogicalBackupUseCase,
+  private val importLogicalBackupUseCase: ImportLogicalBackupUseCase
 ) {
 
   suspend fun exportTo(
@@ -52,6 +57,20 @@ class ImportExportRepository @Inject constructor(
     return withContext(Dispatchers.IO) { importBackupFileUseCase.execute(backupFile) }
   }
 
+  suspend fun exportLogicalBackupTo(
+    backupFile: ExternalFile,
+    exportThreadPosts: Boolean,
+    incremental: Boolean
+  ): ModularResult<LogicalBackupWriter.Stats> {
+    val params = ExportLogicalBackupUseCase.Params(backupFile, exportThreadPosts, incremental)
+
+    return withContext(Dispatchers.IO) { exportLogicalBackupUseCase.execute(params) }
+  }
+
+  suspend fun importLogicalBackupFrom(backupFile: ExternalFile): ModularResult<Unit> {
+    return withContext(Dispatchers.IO) { importLogicalBackupUseCase.execute(backupFile) }
+  }
+
   suspend fun importFromKuroba(settingsFile: ExternalFile): ModularResult<Boolean> {
     return Try {
       if (!fileManager.exists(settingsFile)) {
@@ -15,6 +15,7 @@ import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.board.ChanBoard
 import com.github.k1rakishou.model.data.bookmark.StickyThread
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
@@ -33,7 +34,6 @@ import org.jsoup.parser.Parser
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
-import kotlin.math.max
 
 class FutabaChanReader(
   private val archivesManager: ArchivesManager,
@@ -313,40 +313,29 @@ class FutabaChanReader(
 
   override suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    expectedCapacity: Int,
+    collector: ThreadBookmarkInfoCollector,
     requestUrl: String,
     responseBodyStream: InputStream,
   ): ModularResult<ThreadBookmarkInfoObject> {
     return ModularResult.Try {
-      val postObjects = ArrayList<ThreadBookmarkInfoPostObject>(
-        max(expectedCapacity, DEFAULT_POST_LIST_CAPACITY)
-      )
-
       JsonReader(InputStreamReader(responseBodyStream)).use { jsonReader ->
         iteratePostsInThread(jsonReader) { reader ->
-          val postObject = readThreadBookmarkInfoPostObject(reader)
+          val postObject = readThreadBookmarkInfoPostObject(reader, collector.needPostComments)
           if (postObject != null) {
-            postObjects += postObject
+            collector.collect(postObject)
           }
         }
       }
 
-      val originalPost = postObjects.firstOrNull { postObject ->
-        postObject is ThreadBookmarkInfoPostObject.OriginalPost
-      } as? ThreadBookmarkInfoPostObject.OriginalPost
-        ?: throw IllegalStateException("Thread $threadDescriptor has no OP")
-
-      check(threadDescriptor.threadNo == originalPost.postNo) {
-        "Original post has incorrect postNo, " +
-          "expected: ${threadDescriptor.threadNo}, actual: ${originalPost.postNo}"
-      }
-
-      return@Try ThreadBookmarkInfoObject(threadDescriptor, postObjects)
+      return@Try collector.build()
     }
   }
 
   @Throws(Exception::class)
-  private suspend fun readThreadBookmarkInfoPostObject(reader: JsonReader): ThreadBookmarkInfoPostObject? {
+  private suspend fun readThreadBookmarkInfoPostObject(
+    reader: JsonReader,
+    readComment: Boolean
+  ): ThreadBookmarkInfoPostObject? {
     var isOp: Boolean = false
     var postNo: Long? = null
     var closed: Boolean = false
@@ -364,7 +353,14 @@ class FutabaChanReader(
         "no" -> postNo = reader.nextInt().toLong()
         "closed" -> closed = reader.nextInt() == 1
         "archived" -> archived = reader.nextInt() == 1
-        "com" -> comment = reader.nextString()
+        "com" -> {
+          if (readComment) {
+            comment = reader.nextString()
+          } else {
+            // Comments are only needed to find replies to our posts
+            reader.skipValue()
+          }
+        }
         "resto" -> {
           val opId = reader.nextInt()
           isOp = opId == 0
@@ -455,7 +451,14 @@ class FutabaChanReader(
     while (reader.hasNext()) {
       when (reader.nextName()) {
         "no" -> threadNo = reader.nextInt().toLong()
-        "com" -> comment = reader.nextString()
+        "com" -> {
+          if (readComment) {
+            comment = reader.nextString()
+          } else {
+            // Comments are only needed to find replies to our posts
+            reader.skipValue()
+          }
+        }
         "resto" -> {
           val opId = reader.nextInt()
           isOp = opId == 0
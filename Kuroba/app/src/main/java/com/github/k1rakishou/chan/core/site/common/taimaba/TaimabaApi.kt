@@ -11,8 +11,8 @@ import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
-import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.filter.FilterWatchCatalogInfoObject
@@ -27,7 +27,6 @@ import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.util.*
-import kotlin.math.max
 
 @Suppress("BlockingMethodInNonBlockingContext")
 class TaimabaApi(
@@ -274,35 +273,21 @@ class TaimabaApi(
 
   override suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    expectedCapacity: Int,
+    collector: ThreadBookmarkInfoCollector,
     requestUrl: String,
     responseBodyStream: InputStream,
   ): ModularResult<ThreadBookmarkInfoObject> {
     return ModularResult.Try {
-      val postObjects = ArrayList<ThreadBookmarkInfoPostObject>(
-        max(expectedCapacity, DEFAULT_POST_LIST_CAPACITY)
-      )
-
       JsonReader(InputStreamReader(responseBodyStream)).use { jsonReader ->
         vichanReaderExtensions.iteratePostsInThread(jsonReader) { reader ->
           val postObject = vichanReaderExtensions.readThreadBookmarkInfoPostObject(reader)
           if (postObject != null) {
-            postObjects += postObject
+            collector.collect(postObject)
           }
         }
       }
 
-      val originalPost = postObjects.firstOrNull { postObject ->
-        postObject is ThreadBookmarkInfoPostObject.OriginalPost
-      } as? ThreadBookmarkInfoPostObject.OriginalPost
-        ?: throw IllegalStateException("Thread $threadDescriptor has no OP")
-
-      check(threadDescriptor.threadNo == originalPost.postNo) {
-        "Original post has incorrect postNo, " +
-          "expected: ${threadDescriptor.threadNo}, actual: ${originalPost.postNo}"
-      }
-
-      return@Try ThreadBookmarkInfoObject(threadDescriptor, postObjects)
+      return@Try collector.build()
     }
   }
 
@@ -20,14 +20,16 @@ import androidx.annotation.NonNull;
 
 import com.github.k1rakishou.chan.core.site.parser.CommentParser;
 import com.github.k1rakishou.chan.core.site.parser.ICommentParser;
+import com.github.k1rakishou.chan.core.site.parser.QuoteLinkFormat;
 import com.github.k1rakishou.chan.core.site.parser.style.StyleRule;
 import com.github.k1rakishou.core_themes.ChanThemeColorId;
 
 import java.util.regex.Pattern;
 
 public class VichanCommentParser extends CommentParser implements ICommentParser {
-    private static final Pattern QUOTE_PATTERN = Pattern.compile("#(\\d+)");
-    private static final Pattern FULL_QUOTE_PATTERN = Pattern.compile("/(\\w+)/\\w+/(\\d+)\\.html#(\\d+)");
+    private static final QuoteLinkFormat QUOTE_LINK_FORMAT = new QuoteLinkFormat(null, ".html", "#");
+    private static final Pattern QUOTE_PATTERN = QUOTE_LINK_FORMAT.quotePattern();
+    private static final Pattern FULL_QUOTE_PATTERN = QUOTE_LINK_FORMAT.fullQuotePattern();
 
     public VichanCommentParser() {
         addDefaultRules();
@@ -53,4 +55,9 @@ public class VichanCommentParser extends CommentParser implements ICommentParser
     public Pattern getFullQuotePattern() {
         return FULL_QUOTE_PATTERN;
     }
+
+    @Override
+    protected QuoteLinkFormat getQuoteLinkFormat() {
+        return QUOTE_LINK_FORMAT;
+    }
 }
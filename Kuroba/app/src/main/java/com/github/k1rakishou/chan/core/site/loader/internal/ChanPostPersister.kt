@@ -84,6 +84,11 @@ internal class ChanPostPersister(
         postBuildersToParse = chanReaderProcessor.getToParse()
       )
 
+      parsePostsV1UseCase.processFiltersForNotParsedPosts(
+        chanDescriptor = chanDescriptor,
+        postBuilders = chanReaderProcessor.getToProcessFiltersOnly()
+      )
+
       chanLoadProgressNotifier.sendProgressEvent(
         ChanLoadProgressEvent.PersistingPosts(chanDescriptor, parsingResult.parsedPosts.size)
       )
@@ -3,21 +3,21 @@ package com.github.k1rakishou.chan.core.site.loader.internal.usecase
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
 import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.PostFilterInput
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.PostFilterManager
 import com.github.k1rakishou.chan.core.manager.PostHideManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.datastructure.LongHashSet
 import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.common.parallelForEachIndexed
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
-import com.github.k1rakishou.model.data.filter.FilterAction
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
-import com.github.k1rakishou.model.data.post.PostFilter
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import kotlinx.coroutines.Dispatchers
 import kotlin.time.Duration
@@ -40,6 +40,32 @@ abstract class AbstractParsePostsUseCase(
     postBuildersToParse: List<ChanPostBuilder>
   ): ParsingResult
 
+  /**
+   * Runs only the filters for posts that were not parsed again because they did not change since
+   * they were stored in the database (see ChanReaderProcessor.getToProcessFiltersOnly()). Filter
+   * matches are only stored in memory so they are lost after the app restart.
+   * */
+  suspend fun processFiltersForNotParsedPosts(
+    chanDescriptor: ChanDescriptor,
+    postBuilders: List<ChanPostBuilder>
+  ) {
+    BackgroundUtils.ensureBackgroundThread()
+
+    if (postBuilders.isEmpty()) {
+      return
+    }
+
+    // Even when there are no filters for this board we still need to go through the posts to store
+    // their PostFilterInputs, otherwise a filter created later won't be applied to them.
+    val filters = loadFilters(chanDescriptor)
+
+    processSavedReplies(postBuilders)
+    processFilters(chanDescriptor, postBuilders, filters)
+
+    Logger.d(TAG, "processFiltersForNotParsedPosts(chanDescriptor=$chanDescriptor) " +
+      "postBuilders=${postBuilders.size}, filters=${filters.size}")
+  }
+
   protected suspend fun processSavedReplies(postBuildersToParse: List<ChanPostBuilder>) {
     if (postBuildersToParse.isEmpty()) {
       return
@@ -56,7 +82,22 @@ abstract class AbstractParsePostsUseCase(
     postBuildersToParse: List<ChanPostBuilder>,
     filters: List<ChanFilter>
   ) {
-    if (postBuildersToParse.isEmpty() || filters.isEmpty()) {
+    if (postBuildersToParse.isEmpty()) {
+      return
+    }
+
+    if (filters.isEmpty()) {
+      if (filterEngine.enabledFilters.isEmpty()) {
+        // No point in keeping a copy of every post comment when there are no enabled filters at all.
+        // The posts will be parsed again once a filter is created or enabled.
+        postFilterManager.onFilterInputsSkipped()
+        return
+      }
+
+      postBuildersToParse.forEach { postToParse ->
+        postFilterManager.storeFilterInput(PostFilterInput.fromPostBuilder(postToParse))
+      }
+
       return
     }
 
@@ -64,9 +105,7 @@ abstract class AbstractParsePostsUseCase(
     val filtersCount = filters.size
 
     parallelForEachIndexed(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { index, postToParse ->
-      if (filters.isNotEmpty()) {
-        processFilters(postToParse, filters)
-      }
+      processFilters(postToParse, filters)
 
       chanLoadProgressNotifier.sendProgressEvent(
         ChanLoadProgressEvent.ProcessingFilters(
@@ -88,8 +127,12 @@ abstract class AbstractParsePostsUseCase(
   }
 
   private fun processFilters(postToParse: ChanPostBuilder, filters: List<ChanFilter>) {
-    // Process the filters before finish, because parsing the html is dependent on filter matches
     val postDescriptor = postToParse.postDescriptor
+    val postFilterInput = PostFilterInput.fromPostBuilder(postToParse)
+
+    // Store the filter input before taking any of the fast paths so that the filters can be
+    // re-evaluated for every post once they change (see ReapplyFiltersUseCase).
+    postFilterManager.storeFilterInput(postFilterInput)
 
     if (postFilterManager.contains(postDescriptor)) {
       // Fast path. We have already processed this post so we don't want to do that again. This
@@ -111,74 +154,38 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    for (filter in filters) {
-      if (filter.isWatchFilter() || filter.isAvoidWatchFilter()) {
-        // Do not auto create watch filters, this may end up pretty bad
-        continue
-      }
-
-      if (filterEngine.matches(filter, postToParse)) {
-        postFilterManager.insert(postDescriptor, createPostFilter(filter))
-        return
-      }
+    val matchedFilter = filterEngine.findFirstMatchingFilter(filters, postFilterInput)
+    if (matchedFilter != null) {
+      postFilterManager.insert(postDescriptor, filterEngine.createPostFilter(matchedFilter))
+      return
     }
 
     // None of the filters matched this post so remove PostFilter associated with this post.
     postFilterManager.remove(postDescriptor)
   }
 
-  @Suppress("WHEN_ENUM_CAN_BE_NULL_IN_JAVA")
-  private fun createPostFilter(filter: ChanFilter): PostFilter {
-    return when (FilterAction.forId(filter.action)) {
-      FilterAction.COLOR -> {
-        PostFilter(
-          ownerFilterId = filter.getDatabaseId(),
-          filterEnabled = filter.enabled,
-          filterHighlightedColor = filter.color,
-          filterReplies = filter.applyToReplies,
-          filterOnlyOP = filter.onlyOnOP,
-          filterSaved = filter.applyToSaved
-        )
-      }
-      FilterAction.HIDE -> {
-        PostFilter(
-          ownerFilterId = filter.getDatabaseId(),
-          filterEnabled = filter.enabled,
-          filterStub = true,
-          filterReplies = filter.applyToReplies,
-          filterOnlyOP = filter.onlyOnOP
-        )
-      }
-      FilterAction.REMOVE -> {
-        PostFilter(
-          ownerFilterId = filter.getDatabaseId(),
-          filterEnabled = filter.enabled,
-          filterRemove = true,
-          filterReplies = filter.applyToReplies,
-          filterOnlyOP = filter.onlyOnOP
-        )
-      }
-      FilterAction.WATCH -> {
-        throw IllegalStateException("Cannot auto-create WATCH filters")
-      }
-      FilterAction.AVOID_WATCH -> {
-        throw IllegalStateException("Cannot auto-create AVOID_WATCH filters")
-      }
-    }
-  }
-
   protected fun getInternalIds(
     chanDescriptor: ChanDescriptor,
     postBuildersToParse: List<ChanPostBuilder>
-  ): Set<Long> {
-    val postsToParseNoSet = postBuildersToParse.map { postBuilder -> postBuilder.id }.toSet()
+  ): LongHashSet {
+    val internalIds = if (chanDescriptor is ChanDescriptor.ICatalogDescriptor) {
+      LongHashSet(postBuildersToParse.size)
+    } else {
+      chanDescriptor as ChanDescriptor.ThreadDescriptor
+
+      // The returned set is a new one so we can add the posts to parse into it directly instead of
+      // creating yet another set.
+      chanPostRepository.getCachedThreadPostsNos(
+        threadDescriptor = chanDescriptor,
+        extraCapacity = postBuildersToParse.size
+      )
+    }
 
-    if (chanDescriptor is ChanDescriptor.ICatalogDescriptor) {
-      return postsToParseNoSet
+    for (postBuilder in postBuildersToParse) {
+      internalIds.add(postBuilder.id)
     }
 
-    chanDescriptor as ChanDescriptor.ThreadDescriptor
-    return postsToParseNoSet + chanPostRepository.getCachedThreadPostsNos(chanDescriptor)
+    return internalIds
   }
 
   protected fun loadFilters(chanDescriptor: ChanDescriptor): List<ChanFilter> {
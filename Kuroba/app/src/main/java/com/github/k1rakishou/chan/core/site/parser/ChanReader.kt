@@ -3,6 +3,7 @@ package com.github.k1rakishou.chan.core.site.parser
 import com.github.k1rakishou.chan.core.site.parser.processor.AbstractChanReaderProcessor
 import com.github.k1rakishou.chan.core.site.parser.processor.ChanReaderProcessor
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
@@ -44,7 +45,7 @@ abstract class ChanReader {
 
   abstract suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    expectedCapacity: Int,
+    collector: ThreadBookmarkInfoCollector,
     requestUrl: String,
     responseBodyStream: InputStream,
   ): ModularResult<ThreadBookmarkInfoObject>
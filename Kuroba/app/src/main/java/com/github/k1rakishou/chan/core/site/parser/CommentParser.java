@@ -67,13 +67,16 @@ import okhttp3.HttpUrl;
 public class CommentParser implements ICommentParser, HasQuotePatterns {
     private static final String TAG = "CommentParser";
     private static final String IFRAME_CONTENT_PREFIX = "[Iframe content]";
+    private static final QuoteLinkFormat QUOTE_LINK_FORMAT = new QuoteLinkFormat(null, "", "#p");
 
     private final Map<String, List<StyleRule>> rules = new HashMap<>();
+    @Nullable
+    private volatile QuoteScanner quoteScanner = null;
 
     private final Pattern defaultQuoteRegex = Pattern.compile("//boards\\.4chan.*?\\.org/(.*?)/thread/(\\d*?)#p(\\d*)");
     private final Pattern deadQuotePattern = Pattern.compile(">>(\\d+)");
-    private final Pattern fullQuotePattern = Pattern.compile("/(\\w+)/\\w+/(\\d+)#p(\\d+)");
-    private final Pattern quotePattern = Pattern.compile("#p(\\d+)");
+    private final Pattern fullQuotePattern = QUOTE_LINK_FORMAT.fullQuotePattern();
+    private final Pattern quotePattern = QUOTE_LINK_FORMAT.quotePattern();
     private final Pattern boardLinkPattern = Pattern.compile("//boards\\.4chan.*?\\.org/(.*?)/");
     private final Pattern boardLinkPattern8Chan = Pattern.compile("/(.*?)/index.html");
     private final Pattern boardSearchPattern = Pattern.compile("//boards\\.4chan.*?\\.org/(.*?)/catalog#s=(.*)");
@@ -183,6 +186,36 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
         return fullQuotePattern;
     }
 
+    /**
+     * Must describe the same links as {@link #getQuotePattern()} and {@link #getFullQuotePattern()}.
+     * Parsers that override the patterns must override this method as well (or return null to always
+     * use the patterns).
+     * */
+    @Nullable
+    protected QuoteLinkFormat getQuoteLinkFormat() {
+        return QUOTE_LINK_FORMAT;
+    }
+
+    @Nullable
+    @Override
+    public QuoteScanner getQuoteScanner() {
+        QuoteScanner scanner = quoteScanner;
+        if (scanner != null) {
+            return scanner;
+        }
+
+        QuoteLinkFormat quoteLinkFormat = getQuoteLinkFormat();
+        if (quoteLinkFormat == null) {
+            return null;
+        }
+
+        // Racy but the scanner is immutable so at worst it will be created more than once
+        scanner = new QuoteScanner(quoteLinkFormat);
+        quoteScanner = scanner;
+
+        return scanner;
+    }
+
     public HtmlTag preprocessTag(@NonNull HtmlNode.Tag node) {
         return node.getHtmlTag();
     }
@@ -713,27 +746,20 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             PostParser.Callback callback
     ) {
         String href = extractQuote(anchorTag.attrUnescapedOrNull("href"), post);
-        Matcher externalMatcher = matchExternalQuote(href, post);
+        QuoteScanner.FullQuoteMatch externalQuote = matchExternalQuote(href, post);
 
         PostLinkable.Type type = PostLinkable.Type.LINK;
         PostLinkable.Value value = new PostLinkable.Value.StringValue(href);
 
-        if (externalMatcher.find()) {
-            String board = externalMatcher.group(1);
+        if (externalQuote != null) {
+            String board = externalQuote.getBoardCode();
 
-            long threadId;
-            try {
-                threadId = Long.parseLong(externalMatcher.group(2));
-            } catch (NumberFormatException error) {
+            if (externalQuote.getThreadNo() == null || externalQuote.getPostNo() == null) {
                 return new PostLinkable.Link(type, text, value);
             }
 
-            long postId;
-            try {
-                postId = Long.parseLong(externalMatcher.group(3));
-            } catch (NumberFormatException e) {
-                return new PostLinkable.Link(type, text, value);
-            }
+            long threadId = externalQuote.getThreadNo();
+            long postId = externalQuote.getPostNo();
 
             boolean isInternalQuote = board.equals(post.boardDescriptor.getBoardCode())
                     && callback.isInternal(postId)
@@ -749,15 +775,14 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
                 value = new PostLinkable.Value.ThreadOrPostLink(board, threadId, postId, 0L);
             }
         } else {
-            Matcher quoteMatcher = matchInternalQuote(href, post);
-            if (quoteMatcher.matches()) {
-                long postId;
-                try {
-                    postId = Long.parseLong(quoteMatcher.group(1));
-                } catch (NumberFormatException error) {
+            QuoteScanner.QuoteMatch internalQuote = matchInternalQuote(href, post);
+            if (internalQuote != null) {
+                if (internalQuote.getPostNo() == null) {
                     return new PostLinkable.Link(type, text, value);
                 }
 
+                long postId = internalQuote.getPostNo();
+
                 if (callback.isInternal(postId)) {
                     // TODO(KurobaEx / @GhostPosts): archive ghost posts
                     int hiddenOrRemoved = callback.isHiddenOrRemoved(post.getOpId(), postId, 0);
@@ -825,12 +850,57 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
         return boardLinkPattern8Chan.matcher(href);
     }
 
-    private Matcher matchInternalQuote(String href, ChanPostBuilder post) {
-        return getQuotePattern().matcher(href);
+    @Nullable
+    private QuoteScanner.QuoteMatch matchInternalQuote(String href, ChanPostBuilder post) {
+        QuoteScanner quoteScanner = getQuoteScanner();
+        if (quoteScanner != null) {
+            return quoteScanner.matchQuote(href);
+        }
+
+        Matcher matcher = getQuotePattern().matcher(href);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        return new QuoteScanner.QuoteMatch(
+                matcher.start(),
+                matcher.end(),
+                parseLongOrNull(matcher.group(1))
+        );
+    }
+
+    @Nullable
+    private QuoteScanner.FullQuoteMatch matchExternalQuote(String href, ChanPostBuilder post) {
+        QuoteScanner quoteScanner = getQuoteScanner();
+        if (quoteScanner != null) {
+            return quoteScanner.findFullQuote(href, 0);
+        }
+
+        Matcher matcher = getFullQuotePattern().matcher(href);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        return new QuoteScanner.FullQuoteMatch(
+                matcher.start(),
+                matcher.end(),
+                matcher.group(1),
+                parseLongOrNull(matcher.group(2)),
+                parseLongOrNull(matcher.group(3))
+        );
     }
 
-    private Matcher matchExternalQuote(String href, ChanPostBuilder post) {
-        return getFullQuotePattern().matcher(href);
+    @Nullable
+    private static Long parseLongOrNull(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException error) {
+            return null;
+        }
     }
 
     protected String extractQuote(@Nullable String href, @NonNull ChanPostBuilder post) {
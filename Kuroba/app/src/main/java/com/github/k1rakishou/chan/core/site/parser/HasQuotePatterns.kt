@@ -5,4 +5,10 @@ import java.util.regex.Pattern
 interface HasQuotePatterns {
   fun getQuotePattern(): Pattern
   fun getFullQuotePattern(): Pattern
-}
\ No newline at end of file
+
+  /**
+   * Recognizes the same quotes as [getQuotePattern] and [getFullQuotePattern] but faster. Null when
+   * the parser has no [QuoteLinkFormat], in this case the patterns are used instead.
+   * */
+  fun getQuoteScanner(): QuoteScanner?
+}
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.site.parser
 
 import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.datastructure.LongHashSet
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPost
@@ -10,7 +11,7 @@ import java.util.*
 internal class PostParseWorker(
   private val postBuilder: ChanPostBuilder,
   private val postParser: PostParser,
-  private val internalIds: Set<Long>,
+  private val internalIds: LongHashSet,
   private val savedPosts: Set<PostDescriptor>,
   private val hiddenOrRemovedPosts: Map<PostDescriptor, Int>,
   private val isParsingCatalog: Boolean
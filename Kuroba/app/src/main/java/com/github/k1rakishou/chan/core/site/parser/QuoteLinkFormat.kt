@@ -0,0 +1,55 @@
+package com.github.k1rakishou.chan.core.site.parser
+
+import java.util.regex.Pattern
+
+/**
+ * Describes how quote links of a site look like:
+ *  - full quote: /{boardCode}/{threadSegment}/{threadNo}{threadNoSuffix}{postNoPrefix}{postNo}
+ *    (e.g. "/g/thread/12345#p12346" or "/b/res/12345.html#12346").
+ *  - quote: {postNoPrefix}{postNo} (e.g. "#p12346").
+ *
+ * Both the regex patterns ([HasQuotePatterns]) and the [QuoteScanner] of a comment parser are built
+ * from it so that they always recognize the same links.
+ * */
+class QuoteLinkFormat(
+  /**
+   * Null means any word (e.g. both "/g/thread/123" and "/g/res/123" are full quotes).
+   * */
+  val threadSegment: String?,
+  val threadNoSuffix: String,
+  val postNoPrefix: String
+) {
+
+  init {
+    require(postNoPrefix.isNotEmpty()) { "postNoPrefix must not be empty" }
+    require(threadSegment == null || threadSegment.isNotEmpty()) { "threadSegment must not be empty" }
+  }
+
+  fun quotePattern(): Pattern {
+    return Pattern.compile(escape(postNoPrefix) + "(\\d+)")
+  }
+
+  fun fullQuotePattern(): Pattern {
+    val threadSegmentRegex = threadSegment?.let { segment -> escape(segment) } ?: "\\w+"
+    val regex = "/(\\w+)/${threadSegmentRegex}/(\\d+)${escape(threadNoSuffix)}${escape(postNoPrefix)}(\\d+)"
+
+    return Pattern.compile(regex)
+  }
+
+  private fun escape(literal: String): String {
+    return buildString(capacity = literal.length * 2) {
+      literal.forEach { ch ->
+        if (ch in REGEX_META_CHARACTERS) {
+          append('\\')
+        }
+
+        append(ch)
+      }
+    }
+  }
+
+  companion object {
+    private const val REGEX_META_CHARACTERS = "\\.[]{}()<>*+-=!?^$|"
+  }
+
+}
@@ -0,0 +1,250 @@
+package com.github.k1rakishou.chan.core.site.parser
+
+/**
+ * Hand written matcher for the links described by a [QuoteLinkFormat]. Gives exactly the same results
+ * as the regex patterns built from the same format (the [findFullQuote] is the same as
+ * fullQuotePattern.find(), [matchQuote] is the same as quotePattern.matches()) but doesn't backtrack,
+ * doesn't allocate anything unless something is found and [scanQuotes] recognizes both kinds of
+ * quotes in a single pass over the text.
+ *
+ * Thread-safe (immutable).
+ * */
+class QuoteScanner(
+  private val quoteLinkFormat: QuoteLinkFormat
+) {
+  private val postNoPrefixFirstChar = quoteLinkFormat.postNoPrefix.first()
+
+  fun findFullQuote(text: CharSequence, startIndex: Int = 0): FullQuoteMatch? {
+    for (index in startIndex until text.length) {
+      if (text[index] != '/') {
+        continue
+      }
+
+      val fullQuoteMatch = matchFullQuoteAt(text, index)
+      if (fullQuoteMatch != null) {
+        return fullQuoteMatch
+      }
+    }
+
+    return null
+  }
+
+  /**
+   * The whole [text] must be a quote.
+   * */
+  fun matchQuote(text: CharSequence): QuoteMatch? {
+    val quoteEnd = matchQuoteAt(text, 0)
+    if (quoteEnd != text.length) {
+      return null
+    }
+
+    return QuoteMatch(
+      start = 0,
+      end = quoteEnd,
+      postNo = parseLongOrNull(text, quoteLinkFormat.postNoPrefix.length, quoteEnd)
+    )
+  }
+
+  /**
+   * Finds all the (non overlapping) full quotes and quotes of the [text] at the same time.
+   * */
+  fun scanQuotes(text: CharSequence): ScanResult {
+    var fullQuotes: MutableList<FullQuoteMatch>? = null
+    var quotes: MutableList<QuoteMatch>? = null
+
+    var fullQuoteSearchFrom = 0
+    var quoteSearchFrom = 0
+
+    for (index in text.indices) {
+      val ch = text[index]
+
+      if (ch == '/' && index >= fullQuoteSearchFrom) {
+        val fullQuoteMatch = matchFullQuoteAt(text, index)
+        if (fullQuoteMatch != null) {
+          if (fullQuotes == null) {
+            fullQuotes = mutableListOf()
+          }
+
+          fullQuotes += fullQuoteMatch
+          fullQuoteSearchFrom = fullQuoteMatch.end
+        }
+      }
+
+      if (ch == postNoPrefixFirstChar && index >= quoteSearchFrom) {
+        val quoteEnd = matchQuoteAt(text, index)
+        if (quoteEnd >= 0) {
+          if (quotes == null) {
+            quotes = mutableListOf()
+          }
+
+          val postNoStart = index + quoteLinkFormat.postNoPrefix.length
+          quotes += QuoteMatch(index, quoteEnd, parseLongOrNull(text, postNoStart, quoteEnd))
+          quoteSearchFrom = quoteEnd
+        }
+      }
+    }
+
+    return ScanResult(
+      fullQuotes = fullQuotes ?: emptyList(),
+      quotes = quotes ?: emptyList()
+    )
+  }
+
+  private fun matchFullQuoteAt(text: CharSequence, start: Int): FullQuoteMatch? {
+    // "/{boardCode}/"
+    val boardCodeStart = start + 1
+    val boardCodeEnd = skipWordChars(text, boardCodeStart)
+    if (boardCodeEnd == boardCodeStart || !charAt(text, boardCodeEnd, '/')) {
+      return null
+    }
+
+    // "{threadSegment}/"
+    val threadSegmentStart = boardCodeEnd + 1
+    val threadSegmentEnd = if (quoteLinkFormat.threadSegment == null) {
+      skipWordChars(text, threadSegmentStart)
+    } else {
+      skipLiteral(text, threadSegmentStart, quoteLinkFormat.threadSegment)
+    }
+
+    if (threadSegmentEnd <= threadSegmentStart || !charAt(text, threadSegmentEnd, '/')) {
+      return null
+    }
+
+    // "{threadNo}{threadNoSuffix}"
+    val threadNoStart = threadSegmentEnd + 1
+    val threadNoEnd = skipDigits(text, threadNoStart)
+    if (threadNoEnd == threadNoStart) {
+      return null
+    }
+
+    val threadNoSuffixEnd = skipLiteral(text, threadNoEnd, quoteLinkFormat.threadNoSuffix)
+    if (threadNoSuffixEnd < 0) {
+      return null
+    }
+
+    // "{postNoPrefix}{postNo}"
+    val postNoStart = skipLiteral(text, threadNoSuffixEnd, quoteLinkFormat.postNoPrefix)
+    if (postNoStart < 0) {
+      return null
+    }
+
+    val postNoEnd = skipDigits(text, postNoStart)
+    if (postNoEnd == postNoStart) {
+      return null
+    }
+
+    return FullQuoteMatch(
+      start = start,
+      end = postNoEnd,
+      boardCode = text.subSequence(boardCodeStart, boardCodeEnd).toString(),
+      threadNo = parseLongOrNull(text, threadNoStart, threadNoEnd),
+      postNo = parseLongOrNull(text, postNoStart, postNoEnd)
+    )
+  }
+
+  /**
+   * Returns the end of the quote or -1 if there is no quote at [start].
+   * */
+  private fun matchQuoteAt(text: CharSequence, start: Int): Int {
+    val postNoStart = skipLiteral(text, start, quoteLinkFormat.postNoPrefix)
+    if (postNoStart < 0) {
+      return -1
+    }
+
+    val postNoEnd = skipDigits(text, postNoStart)
+    if (postNoEnd == postNoStart) {
+      return -1
+    }
+
+    return postNoEnd
+  }
+
+  private fun skipWordChars(text: CharSequence, start: Int): Int {
+    var index = start
+
+    while (index < text.length && isWordChar(text[index])) {
+      ++index
+    }
+
+    return index
+  }
+
+  private fun skipDigits(text: CharSequence, start: Int): Int {
+    var index = start
+
+    while (index < text.length && isDigit(text[index])) {
+      ++index
+    }
+
+    return index
+  }
+
+  /**
+   * Returns the index right after the [literal] or -1 if the text at [start] is not the [literal].
+   * */
+  private fun skipLiteral(text: CharSequence, start: Int, literal: String): Int {
+    if (start + literal.length > text.length) {
+      return -1
+    }
+
+    for (offset in literal.indices) {
+      if (text[start + offset] != literal[offset]) {
+        return -1
+      }
+    }
+
+    return start + literal.length
+  }
+
+  private fun charAt(text: CharSequence, index: Int, expected: Char): Boolean {
+    return index < text.length && text[index] == expected
+  }
+
+  // Same as regex "\d" and "\w" without the UNICODE_CHARACTER_CLASS flag
+  private fun isDigit(ch: Char): Boolean = ch in '0'..'9'
+
+  private fun isWordChar(ch: Char): Boolean {
+    return ch in 'a'..'z' || ch in 'A'..'Z' || ch in '0'..'9' || ch == '_'
+  }
+
+  /**
+   * Returns null when the number doesn't fit into a Long (same as String.toLongOrNull()).
+   * */
+  private fun parseLongOrNull(text: CharSequence, start: Int, end: Int): Long? {
+    var result = 0L
+
+    for (index in start until end) {
+      val digit = text[index] - '0'
+
+      if (result > (Long.MAX_VALUE - digit) / 10) {
+        return null
+      }
+
+      result = result * 10 + digit
+    }
+
+    return result
+  }
+
+  class FullQuoteMatch(
+    val start: Int,
+    val end: Int,
+    val boardCode: String,
+    // Null when the number is too big
+    val threadNo: Long?,
+    val postNo: Long?
+  )
+
+  class QuoteMatch(
+    val start: Int,
+    val end: Int,
+    // Null when the number is too big
+    val postNo: Long?
+  )
+
+  class ScanResult(
+    val fullQuotes: List<FullQuoteMatch>,
+    val quotes: List<QuoteMatch>
+  )
+
+}
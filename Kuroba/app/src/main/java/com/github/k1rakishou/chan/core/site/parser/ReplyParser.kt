@@ -3,6 +3,7 @@ package com.github.k1rakishou.chan.core.site.parser
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.ParserRepository
 import com.github.k1rakishou.common.groupOrNull
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
 import java.util.regex.Matcher
 import java.util.regex.Pattern
@@ -13,67 +14,59 @@ class ReplyParser(
 ) {
 
   fun extractCommentReplies(siteDescriptor: SiteDescriptor, comment: CharSequence): List<ExtractedQuote> {
-    val quotePatterns = getQuotePatterns(siteDescriptor)
+    val hasQuotePatterns = getHasQuotePatterns(siteDescriptor)
       ?: return emptyList()
 
-    var matcher = quotePatterns.fullQuotePattern.matcher(comment)
-    if (matcher.find()) {
-      return matchFullQuotes(matcher)
+    val quoteScanner = hasQuotePatterns.getQuoteScanner()
+    if (quoteScanner != null) {
+      return extractCommentReplies(quoteScanner, comment)
     }
 
-    matcher = quotePatterns.quotePattern.matcher(comment)
-    if (matcher.find()) {
-      return matchQuotes(matcher)
-    }
-
-    return emptyList()
+    return extractCommentReplies(
+      quotePattern = hasQuotePatterns.getQuotePattern(),
+      fullQuotePattern = hasQuotePatterns.getFullQuotePattern(),
+      comment = comment
+    )
   }
 
-  private fun matchQuotes(matcher: Matcher): MutableList<ExtractedQuote> {
-    matcher.reset()
-    val extractedReplies = mutableListOf<ExtractedQuote>()
-
-    while (matcher.find()) {
-      val postId = matcher.groupOrNull(1)?.toLongOrNull()
-        ?: continue
-
-      extractedReplies += ExtractedQuote.Quote(postId)
+  /**
+   * Returns the postNos of the posts of [threadDescriptor] that are quoted by [comment].
+   * */
+  fun extractQuotedPostNosInThread(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    comment: CharSequence
+  ): List<Long> {
+    if (comment.isEmpty()) {
+      return emptyList()
     }
 
-    return extractedReplies
-  }
-
-  private fun matchFullQuotes(matcher: Matcher): MutableList<ExtractedQuote> {
-    matcher.reset()
-    val extractedReplies = mutableListOf<ExtractedQuote>()
-
-    while (matcher.find()) {
-      val boardCode = matcher.groupOrNull(1)
-        ?: continue
-      val threadId = matcher.groupOrNull(2)?.toLongOrNull()
-        ?: continue
-      val postId = matcher.groupOrNull(3)?.toLongOrNull()
-        ?: continue
-
-      extractedReplies += ExtractedQuote.FullQuote(boardCode, threadId, postId)
+    return extractCommentReplies(threadDescriptor.siteDescriptor(), comment).mapNotNull { extractedQuote ->
+      when (extractedQuote) {
+        is ExtractedQuote.FullQuote -> {
+          val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
+            && extractedQuote.threadId == threadDescriptor.threadNo)
+
+          if (!isQuotedPostInTheSameThread) {
+            // Cross-thread reply or something like that, we don't support it since it shouldn't
+            // be used normally. The only use case that come to mind is when there are two
+            // different threads bookmarked and someone from one bookmarked thread replied to our
+            // post in another bookmarked thread. Normally, nobody would expect for this to work
+            // and that's why we don't support it.
+            return@mapNotNull null
+          }
+
+          extractedQuote.postId
+        }
+        is ExtractedQuote.Quote -> extractedQuote.postId
+      }
     }
-
-    return extractedReplies
   }
 
-  private fun getQuotePatterns(siteDescriptor: SiteDescriptor): QuotePatterns? {
+  private fun getHasQuotePatterns(siteDescriptor: SiteDescriptor): HasQuotePatterns? {
     val site = siteManager.bySiteDescriptor(siteDescriptor)
       ?: return null
 
-    val commentParser = parserRepository.getCommentParser(site.commentParserType())
-    if (commentParser !is HasQuotePatterns) {
-      return null
-    }
-
-    return QuotePatterns(
-      commentParser.getQuotePattern(),
-      commentParser.getFullQuotePattern()
-    )
+    return parserRepository.getCommentParser(site.commentParserType()) as? HasQuotePatterns
   }
 
   sealed class ExtractedQuote {
@@ -86,8 +79,80 @@ class ReplyParser(
     class Quote(val postId: Long) : ExtractedQuote()
   }
 
-  private class QuotePatterns(
-    val quotePattern: Pattern,
-    val fullQuotePattern: Pattern
-  )
-}
\ No newline at end of file
+  companion object {
+
+    // Full quotes win, quotes are only used when the comment has no full quotes at all
+    internal fun extractCommentReplies(quoteScanner: QuoteScanner, comment: CharSequence): List<ExtractedQuote> {
+      val scanResult = quoteScanner.scanQuotes(comment)
+
+      if (scanResult.fullQuotes.isNotEmpty()) {
+        return scanResult.fullQuotes.mapNotNull { fullQuoteMatch ->
+          val threadId = fullQuoteMatch.threadNo
+            ?: return@mapNotNull null
+          val postId = fullQuoteMatch.postNo
+            ?: return@mapNotNull null
+
+          return@mapNotNull ExtractedQuote.FullQuote(fullQuoteMatch.boardCode, threadId, postId)
+        }
+      }
+
+      return scanResult.quotes.mapNotNull { quoteMatch ->
+        val postId = quoteMatch.postNo
+          ?: return@mapNotNull null
+
+        return@mapNotNull ExtractedQuote.Quote(postId)
+      }
+    }
+
+    internal fun extractCommentReplies(
+      quotePattern: Pattern,
+      fullQuotePattern: Pattern,
+      comment: CharSequence
+    ): List<ExtractedQuote> {
+      var matcher = fullQuotePattern.matcher(comment)
+      if (matcher.find()) {
+        return matchFullQuotes(matcher)
+      }
+
+      matcher = quotePattern.matcher(comment)
+      if (matcher.find()) {
+        return matchQuotes(matcher)
+      }
+
+      return emptyList()
+    }
+
+    private fun matchQuotes(matcher: Matcher): MutableList<ExtractedQuote> {
+      matcher.reset()
+      val extractedReplies = mutableListOf<ExtractedQuote>()
+
+      while (matcher.find()) {
+        val postId = matcher.groupOrNull(1)?.toLongOrNull()
+          ?: continue
+
+        extractedReplies += ExtractedQuote.Quote(postId)
+      }
+
+      return extractedReplies
+    }
+
+    private fun matchFullQuotes(matcher: Matcher): MutableList<ExtractedQuote> {
+      matcher.reset()
+      val extractedReplies = mutableListOf<ExtractedQuote>()
+
+      while (matcher.find()) {
+        val boardCode = matcher.groupOrNull(1)
+          ?: continue
+        val threadId = matcher.groupOrNull(2)?.toLongOrNull()
+          ?: continue
+        val postId = matcher.groupOrNull(3)?.toLongOrNull()
+          ?: continue
+
+        extractedReplies += ExtractedQuote.FullQuote(boardCode, threadId, postId)
+      }
+
+      return extractedReplies
+    }
+  }
+
+}
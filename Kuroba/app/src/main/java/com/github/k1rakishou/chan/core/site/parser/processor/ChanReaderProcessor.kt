@@ -25,6 +25,9 @@ class ChanReaderProcessor(
   override val chanDescriptor: ChanDescriptor
 ) : AbstractChanReaderProcessor() {
   private val toParse = mutableListWithCap<ChanPostBuilder>(64)
+  // Posts that we skipped parsing because their hashes (restored from the database) matched, but
+  // which still need to be checked against the filters since filter matches are only kept in memory.
+  private val toProcessFiltersOnly = mutableListWithCap<ChanPostBuilder>(16)
   private val postOrderedList = mutableListWithCap<PostDescriptor>(64)
 
   private val lock = Mutex()
@@ -53,6 +56,8 @@ class ChanReaderProcessor(
     val totalPostsRead = lock.withLock {
       if (differsFromCached(postBuilder)) {
         toParse.add(postBuilder)
+      } else if (chanPostRepository.consumeRestoredPostHash(postBuilder.postDescriptor)) {
+        toProcessFiltersOnly.add(postBuilder)
       }
 
       postOrderedList.add(postBuilder.postDescriptor)
@@ -101,6 +106,7 @@ class ChanReaderProcessor(
 
       postOrderedList.removeAll(postDescriptorsToDelete)
       toParse.removeIfKt { postToParse -> postToParse.postDescriptor in postDescriptorsToDelete }
+      toProcessFiltersOnly.removeIfKt { postBuilder -> postBuilder.postDescriptor in postDescriptorsToDelete }
     }
   }
 
@@ -108,6 +114,10 @@ class ChanReaderProcessor(
     return lock.withLock { toParse }
   }
 
+  suspend fun getToProcessFiltersOnly(): List<ChanPostBuilder> {
+    return lock.withLock { toProcessFiltersOnly }
+  }
+
   override suspend fun getThreadDescriptors(): List<ChanDescriptor.ThreadDescriptor> {
     return lock.withLock {
       return@withLock toParse
@@ -170,6 +180,7 @@ class ChanReaderProcessor(
 
   override fun toString(): String {
     return "ChanReaderProcessor{chanDescriptor=$chanDescriptor, toParse=${toParse.size}, " +
+      "toProcessFiltersOnly=${toProcessFiltersOnly.size}, " +
       "closed=${closed}, deleted=${deleted}, archived=${archived}, error=${error}}"
   }
 
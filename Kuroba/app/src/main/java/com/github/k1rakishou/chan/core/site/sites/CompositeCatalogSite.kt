@@ -27,6 +27,7 @@ import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.model.data.board.ChanBoard
 import com.github.k1rakishou.model.data.board.pages.BoardPages
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
@@ -146,7 +147,7 @@ class CompositeCatalogSite : Site {
 
     override suspend fun readThreadBookmarkInfoObject(
       threadDescriptor: ChanDescriptor.ThreadDescriptor,
-      expectedCapacity: Int,
+      collector: ThreadBookmarkInfoCollector,
       requestUrl: String,
       responseBodyStream: InputStream
     ): ModularResult<ThreadBookmarkInfoObject> {
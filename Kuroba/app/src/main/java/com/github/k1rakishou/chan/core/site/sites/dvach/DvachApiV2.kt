@@ -14,6 +14,7 @@ import com.github.k1rakishou.common.useBufferedSource
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.board.ChanBoard
 import com.github.k1rakishou.model.data.bookmark.StickyThread
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
@@ -41,6 +42,8 @@ class DvachApiV2(
 ) : CommonSite.CommonApi(commonSite) {
   private val extraThreadInfoMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ExtraThreadInfo>(16)
 
+  private val dvachPostsStreamReader by lazy { DvachPostsStreamReader(moshi.get()) }
+
   override suspend fun loadThreadFresh(
     requestUrl: String,
     responseBodyStream: InputStream,
@@ -55,11 +58,28 @@ class DvachApiV2(
 
     val endpoints = site.endpoints()
 
-    val dvachThreadsFreshAdapter = moshi.get().adapter(DvachThreadsFresh::class.java)
-    val dvachThreadsFresh = responseBodyStream
-      .useBufferedSource { bufferedSource -> dvachThreadsFreshAdapter.fromJson(bufferedSource) }
+    var threadDescriptor: ChanDescriptor.ThreadDescriptor? = null
+    var originalPostBuilder: ChanPostBuilder? = null
+    // The "error" object may come after the posts so they are only handed to the processor once the
+    // whole response is read and is known to not be an error.
+    val postBuilders = mutableListOf<ChanPostBuilder>()
+
+    val readResult = responseBodyStream.useBufferedSource { bufferedSource ->
+      dvachPostsStreamReader.readThreadFresh(bufferedSource) { threadPost ->
+        if (threadDescriptor == null) {
+          threadDescriptor = threadPost.threadDescriptor(board.boardDescriptor)
+        }
+
+        val builder = processPost(threadPost, chanReaderProcessor, board, endpoints, null)
+        if (builder.op) {
+          originalPostBuilder = builder
+        }
 
-    val error = dvachThreadsFresh?.error
+        postBuilders += builder
+      }
+    }
+
+    val error = readResult.error
     if (error != null && error.isActuallyError()) {
       chanReaderProcessor.error = SiteSpecificError.DvachError(error.errorCode, error.message())
 
@@ -74,25 +94,22 @@ class DvachApiV2(
       return
     }
 
-    val bumpLimit = dvachThreadsFresh?.board?.bumpLimit
-    val posters = dvachThreadsFresh?.posters
-    val threadPosts = dvachThreadsFresh?.threads?.firstOrNull()?.posts
-
-    if (threadPosts == null) {
+    if (!readResult.postsFound) {
       throw IllegalStateException("No posts parsed for '$requestUrl'")
     }
 
-    if (threadPosts.isEmpty()) {
-      return
-    }
+    addPosts(chanReaderProcessor, postBuilders)
 
-    val threadDescriptor = threadPosts.first().threadDescriptor(board.boardDescriptor)
-    val extraThreadInfo = extraThreadInfoMap.getOrPut(threadDescriptor, { ExtraThreadInfo() })
+    val descriptor = threadDescriptor
+      ?: return
 
-    extraThreadInfo.bumpLimit = bumpLimit
-    extraThreadInfo.posters = posters
+    val extraThreadInfo = extraThreadInfoMap.getOrPut(descriptor, { ExtraThreadInfo() })
+    extraThreadInfo.bumpLimit = readResult.bumpLimit
+    extraThreadInfo.posters = readResult.posters
 
-    processPostsInternal(threadPosts, chanReaderProcessor, board, endpoints)
+    // "unique_posters" may come after the posts array so we can only update the OP once the whole
+    // response is read. The builder is not parsed until the processor is done reading.
+    readResult.posters?.let { posters -> originalPostBuilder?.uniqueIps(posters) }
 
     if (requestUrl.contains("/arch/res/")) {
       chanReaderProcessor.archived = true
@@ -112,12 +129,29 @@ class DvachApiV2(
       ?: return
 
     val endpoints = site.endpoints()
-    val dvachThreadIncrementalAdapter = moshi.get().adapter(DvachThreadIncremental::class.java)
 
-    val dvachThreadIncremental = responseBodyStream
-      .useBufferedSource { bufferedSource -> dvachThreadIncrementalAdapter.fromJson(bufferedSource) }
+    var threadDescriptor: ChanDescriptor.ThreadDescriptor? = null
+    var originalPostBuilder: ChanPostBuilder? = null
+    // The "error" object may come after the posts so they are only handed to the processor once the
+    // whole response is read and is known to not be an error.
+    val postBuilders = mutableListOf<ChanPostBuilder>()
+
+    val readResult = responseBodyStream.useBufferedSource { bufferedSource ->
+      dvachPostsStreamReader.readThreadIncremental(bufferedSource) { threadPost ->
+        if (threadDescriptor == null) {
+          threadDescriptor = threadPost.threadDescriptor(board.boardDescriptor)
+        }
+
+        val builder = processPost(threadPost, chanReaderProcessor, board, endpoints, null)
+        if (builder.op) {
+          originalPostBuilder = builder
+        }
 
-    val error = dvachThreadIncremental?.error
+        postBuilders += builder
+      }
+    }
+
+    val error = readResult.error
     if (error != null && error.isActuallyError()) {
       chanReaderProcessor.error = SiteSpecificError.DvachError(error.errorCode, error.message())
 
@@ -132,23 +166,19 @@ class DvachApiV2(
       return
     }
 
-    val threadPosts = dvachThreadIncremental?.posts
-    val posters = dvachThreadIncremental?.posters
-
-    if (threadPosts == null) {
+    if (!readResult.postsFound) {
       throw IllegalStateException("No posts parsed for '$requestUrl'")
     }
 
-    if (threadPosts.isEmpty()) {
-      return
-    }
+    addPosts(chanReaderProcessor, postBuilders)
 
-    val threadDescriptor = threadPosts.first().threadDescriptor(board.boardDescriptor)
-    val extraThreadInfo = extraThreadInfoMap.getOrPut(threadDescriptor, { ExtraThreadInfo() })
+    val descriptor = threadDescriptor
+      ?: return
 
-    extraThreadInfo.posters = posters
+    val extraThreadInfo = extraThreadInfoMap.getOrPut(descriptor, { ExtraThreadInfo() })
+    extraThreadInfo.posters = readResult.posters
 
-    processPostsInternal(threadPosts, chanReaderProcessor, board, endpoints)
+    readResult.posters?.let { posters -> originalPostBuilder?.uniqueIps(posters) }
   }
 
   override suspend fun loadCatalog(
@@ -161,14 +191,21 @@ class DvachApiV2(
     val site = siteManager.bySiteDescriptor(chanReaderProcessor.chanDescriptor.siteDescriptor())
       ?: return
     val board = boardManager.byBoardDescriptor(chanReaderProcessor.chanDescriptor.boardDescriptor())
+    val boardDescriptor = chanReaderProcessor.chanDescriptor.boardDescriptor()
 
     val endpoints = site.endpoints()
 
-    val dvachCatalogAdapter = moshi.get().adapter(DvachCatalog::class.java)
-    val dvachCatalog = responseBodyStream
-      .useBufferedSource { bufferedSource -> dvachCatalogAdapter.fromJson(bufferedSource) }
+    // See loadThreadFresh() for why the posts are not handed to the processor right away
+    val postBuilders = mutableListOf<ChanPostBuilder>()
+
+    val readResult = responseBodyStream.useBufferedSource { bufferedSource ->
+      dvachPostsStreamReader.readCatalog(bufferedSource) { catalogThreadPost ->
+        val posters = extraThreadInfoMap[catalogThreadPost.threadDescriptor(boardDescriptor)]?.posters
+        postBuilders += processPost(catalogThreadPost, chanReaderProcessor, board, endpoints, posters)
+      }
+    }
 
-    val error = dvachCatalog?.error
+    val error = readResult.error
     if (error != null && error.isActuallyError()) {
       chanReaderProcessor.error = SiteSpecificError.DvachError(error.errorCode, error.message())
 
@@ -179,127 +216,127 @@ class DvachApiV2(
       return
     }
 
-    val catalogThreadPosts = dvachCatalog?.threads
-
-    if (catalogThreadPosts == null) {
+    if (!readResult.postsFound) {
       throw IllegalStateException("No posts parsed for '$requestUrl'")
     }
 
-    if (catalogThreadPosts.isEmpty()) {
-      return
-    }
-
-    processPostsInternal(catalogThreadPosts, chanReaderProcessor, board, endpoints)
+    addPosts(chanReaderProcessor, postBuilders)
   }
 
-  private suspend fun processPostsInternal(
-    posts: List<DvachPost>,
+  private suspend fun processPost(
+    threadPost: DvachPost,
     chanReaderProcessor: AbstractChanReaderProcessor,
     board: ChanBoard?,
-    endpoints: SiteEndpoints
-  ) {
-    val postsCount = posts.size
+    endpoints: SiteEndpoints,
+    posters: Int?
+  ): ChanPostBuilder {
     val boardDescriptor = chanReaderProcessor.chanDescriptor.boardDescriptor()
 
-    // TODO(KurobaEx): this seems to be incorrect when we are reading a catalog
-    val threadDescriptor = posts.first().threadDescriptor(boardDescriptor)
-    val posters = extraThreadInfoMap[threadDescriptor]?.posters
-
-    posts.forEach { threadPost ->
-      val builder = ChanPostBuilder()
-      builder.boardDescriptor(chanReaderProcessor.chanDescriptor.boardDescriptor())
+    val builder = ChanPostBuilder()
+    builder.boardDescriptor(boardDescriptor)
 
-      builder.op(threadPost.parent == 0L)
-      builder.lastModified(threadPost.lasthit)
-      builder.id(threadPost.num)
+    builder.op(threadPost.parent == 0L)
+    builder.lastModified(threadPost.lasthit)
+    builder.id(threadPost.num)
 
-      if (threadPost.parent != 0L) {
-        builder.opId(threadPost.parent)
-      } else {
-        builder.opId(threadPost.num)
-      }
-
-      if (builder.op) {
-        builder.sticky(threadPost.sticky > 0L)
-        builder.closed(threadPost.closed == 1L)
-        builder.endless(threadPost.endless == 1L)
-
-        if (posters != null) {
-          builder.uniqueIps(posters)
-        }
-
-        if (threadPost.postsCount != null && postsCount > 0) {
-          builder.replies(threadPost.postsCount)
-        }
+    if (threadPost.parent != 0L) {
+      builder.opId(threadPost.parent)
+    } else {
+      builder.opId(threadPost.num)
+    }
 
-        if (threadPost.filesCount != null && threadPost.filesCount > 0) {
-          builder.threadImagesCount(threadPost.filesCount)
-        }
+    if (builder.op) {
+      builder.sticky(threadPost.sticky > 0L)
+      builder.closed(threadPost.closed == 1L)
+      builder.endless(threadPost.endless == 1L)
 
-        chanReaderProcessor.setOp(builder)
+      if (posters != null) {
+        builder.uniqueIps(posters)
       }
 
-      if (threadPost.trip.startsWith("!!%")) {
-        val trip = threadPost.trip
-          .removePrefix("!!%")
-          .removeSuffix("%!!")
-
-        builder.moderatorCapcode(trip)
-      } else {
-        builder.tripcode(threadPost.trip)
+      if (threadPost.postsCount != null) {
+        builder.replies(threadPost.postsCount)
       }
 
-      if (threadPost.name != DvachPostParser.DVACH_DEFAULT_POSTER_NAME) {
-        builder.name(threadPost.name)
-      } else {
-        builder.name("")
+      if (threadPost.filesCount != null && threadPost.filesCount > 0) {
+        builder.threadImagesCount(threadPost.filesCount)
       }
 
-      builder.subject(threadPost.subject)
-      builder.comment(threadPost.comment)
-      builder.setUnixTimestampSeconds(threadPost.timestamp)
-      builder.sage(threadPost.isSage())
+    }
 
-      val postImages = threadPost.files
-        ?.mapNotNull { postFile -> postFile.toChanPostImage(board, boardDescriptor, endpoints) }
-        ?: emptyList()
+    if (threadPost.trip.startsWith("!!%")) {
+      val trip = threadPost.trip
+        .removePrefix("!!%")
+        .removeSuffix("%!!")
 
-      builder.postImages(postImages, builder.postDescriptor)
+      builder.moderatorCapcode(trip)
+    } else {
+      builder.tripcode(threadPost.trip)
+    }
 
-      if (threadPost.icon.isNotNullNorEmpty()) {
-        val document = Jsoup.parseBodyFragment(threadPost.icon)
-        val icons = document.body().select("img")
+    if (threadPost.name != DvachPostParser.DVACH_DEFAULT_POSTER_NAME) {
+      builder.name(threadPost.name)
+    } else {
+      builder.name("")
+    }
 
-        for (icon in icons) {
-          val imageUrl = icon?.attr("src")
-            ?.takeIf { attrValue -> attrValue.isNotNullNorEmpty() }
-            ?.removePrefix("/")
-            ?: continue
+    builder.subject(threadPost.subject)
+    builder.comment(threadPost.comment)
+    builder.setUnixTimestampSeconds(threadPost.timestamp)
+    builder.sage(threadPost.isSage())
 
-          var title = icon.attr("title")
+    val postImages = threadPost.files
+      ?.mapNotNull { postFile -> postFile.toChanPostImage(board, boardDescriptor, endpoints) }
+      ?: emptyList()
 
-          if (title.isEmpty()) {
-            val start = imageUrl.indexOfLast { ch -> ch == '/' }.takeIf { it >= 0 }?.plus(1) ?: continue
-            val end = imageUrl.indexOfLast { ch -> ch == '.' }.takeIf { it >= 0 } ?: continue
+    builder.postImages(postImages, builder.postDescriptor)
 
-            if (start >= end) {
-              continue
-            }
+    if (threadPost.icon.isNotNullNorEmpty()) {
+      val document = Jsoup.parseBodyFragment(threadPost.icon)
+      val icons = document.body().select("img")
 
-            title = imageUrl.substring(start, end)
-          }
+      for (icon in icons) {
+        val imageUrl = icon?.attr("src")
+          ?.takeIf { attrValue -> attrValue.isNotNullNorEmpty() }
+          ?.removePrefix("/")
+          ?: continue
+
+        var title = icon.attr("title")
 
-          if (title.isEmpty()) {
+        if (title.isEmpty()) {
+          val start = imageUrl.indexOfLast { ch -> ch == '/' }.takeIf { it >= 0 }?.plus(1) ?: continue
+          val end = imageUrl.indexOfLast { ch -> ch == '.' }.takeIf { it >= 0 } ?: continue
+
+          if (start >= end) {
             continue
           }
 
-          val iconUrl = endpoints.icon(
-            title,
-            SiteEndpoints.makeArgument("icon", imageUrl)
-          )
+          title = imageUrl.substring(start, end)
+        }
 
-          builder.addHttpIcon(ChanPostHttpIcon(iconUrl, title))
+        if (title.isEmpty()) {
+          continue
         }
+
+        val iconUrl = endpoints.icon(
+          title,
+          SiteEndpoints.makeArgument("icon", imageUrl)
+        )
+
+        builder.addHttpIcon(ChanPostHttpIcon(iconUrl, title))
+      }
+    }
+
+    return builder
+  }
+
+  private suspend fun addPosts(
+    chanReaderProcessor: AbstractChanReaderProcessor,
+    postBuilders: List<ChanPostBuilder>
+  ) {
+    postBuilders.forEach { builder ->
+      if (builder.op) {
+        chanReaderProcessor.setOp(builder)
       }
 
       chanReaderProcessor.addPost(builder)
@@ -308,7 +345,7 @@ class DvachApiV2(
 
   override suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    expectedCapacity: Int,
+    collector: ThreadBookmarkInfoCollector,
     requestUrl: String,
     responseBodyStream: InputStream
   ): ModularResult<ThreadBookmarkInfoObject> {
@@ -324,16 +361,12 @@ class DvachApiV2(
         throw IllegalStateException("No posts parsed for '$requestUrl'")
       }
 
-      if (threadPosts.isEmpty()) {
-        return@Try ThreadBookmarkInfoObject(threadDescriptor, emptyList())
-      }
-
       if (bumpLimitCount != null && bumpLimitCount > 0) {
         val extraThreadInfo = extraThreadInfoMap.getOrPut(threadDescriptor, { ExtraThreadInfo() })
         extraThreadInfo.bumpLimit = bumpLimitCount
       }
 
-      val postObjects = threadPosts.map { threadPost ->
+      threadPosts.forEach { threadPost ->
         val postNo = threadPost.num
 
         if (threadPost.isOp) {
@@ -354,7 +387,7 @@ class DvachApiV2(
             isBumpLimit = false
           }
 
-          return@map ThreadBookmarkInfoPostObject.OriginalPost(
+          val originalPost = ThreadBookmarkInfoPostObject.OriginalPost(
             postNo,
             closed,
             false,
@@ -363,12 +396,15 @@ class DvachApiV2(
             stickyPost,
             threadPost.comment
           )
+
+          collector.collect(originalPost)
+          return@forEach
         }
 
-        return@map ThreadBookmarkInfoPostObject.RegularPost(postNo, threadPost.comment)
+        collector.collect(ThreadBookmarkInfoPostObject.RegularPost(postNo, threadPost.comment))
       }
 
-      return@Try ThreadBookmarkInfoObject(threadDescriptor, postObjects)
+      return@Try collector.build()
     }
   }
 
@@ -511,24 +547,6 @@ class DvachApiV2(
     val error: DvachError?
   )
 
-  @JsonClass(generateAdapter = true)
-  data class DvachThreadIncremental(
-    @Json(name = "posts")
-    val posts: List<DvachPost>?,
-    @Json(name = "unique_posters")
-    val posters: Int?,
-    @Json(name = "error")
-    val error: DvachError?
-  )
-
-  @JsonClass(generateAdapter = true)
-  data class DvachCatalog(
-    @Json(name = "threads")
-    val threads: List<DvachPost>?,
-    @Json(name = "error")
-    val error: DvachError?
-  )
-
   @JsonClass(generateAdapter = true)
   data class DvachPost(
     val num: Long,
@@ -0,0 +1,190 @@
+package com.github.k1rakishou.chan.core.site.sites.dvach
+
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.Moshi
+import okio.BufferedSource
+
+/**
+ * Reads 2ch.hk thread/catalog json responses one post at a time instead of decoding the whole
+ * response into [DvachApiV2.DvachThreadsFresh] (or similar) first. The reader itself only keeps the
+ * post that is currently being decoded, so the json tree of the whole response is never in memory,
+ * but whatever the iterator builds out of the posts is kept by the caller until the read finishes.
+ *
+ * The "error" object may come after the posts so the posts that were passed to the iterator must
+ * not be used until the read is finished and [ReadResult.error] is checked.
+ * */
+class DvachPostsStreamReader(
+  private val moshi: Moshi
+) {
+  private val dvachPostAdapter by lazy { moshi.adapter(DvachApiV2.DvachPost::class.java) }
+  private val dvachErrorAdapter by lazy { moshi.adapter(DvachApiV2.DvachError::class.java) }
+  private val dvachBoardInfoAdapter by lazy { moshi.adapter(DvachApiV2.DvachThreadBoardInfo::class.java) }
+
+  /**
+   * Fresh thread response: `{ "board": {..}, "threads": [ { "posts": [..] } ], "unique_posters": N }`.
+   * */
+  suspend fun readThreadFresh(
+    bufferedSource: BufferedSource,
+    iterator: suspend (DvachApiV2.DvachPost) -> Unit
+  ): ReadResult {
+    return readRootObject(bufferedSource, readBoardInfo = true) { reader, name, readResult ->
+      if (name != "threads") {
+        return@readRootObject false
+      }
+
+      if (readResult.error?.isActuallyError() == true) {
+        reader.skipValue()
+        return@readRootObject true
+      }
+
+      reader.beginArray()
+
+      var isFirstThread = true
+
+      while (reader.hasNext()) {
+        if (!isFirstThread) {
+          // The old implementation only ever used the first thread of the response
+          reader.skipValue()
+          continue
+        }
+
+        isFirstThread = false
+        reader.beginObject()
+
+        while (reader.hasNext()) {
+          if (reader.nextName() == "posts") {
+            readResult.postsFound = true
+            iteratePosts(reader, readResult, iterator)
+          } else {
+            reader.skipValue()
+          }
+        }
+
+        reader.endObject()
+      }
+
+      reader.endArray()
+      return@readRootObject true
+    }
+  }
+
+  /**
+   * Incremental thread response: `{ "posts": [..], "unique_posters": N }`.
+   * */
+  suspend fun readThreadIncremental(
+    bufferedSource: BufferedSource,
+    iterator: suspend (DvachApiV2.DvachPost) -> Unit
+  ): ReadResult {
+    return readPostsArrayByName(bufferedSource, "posts", iterator)
+  }
+
+  /**
+   * Catalog response: `{ "board": {..}, "threads": [..] }` where every thread is an original post.
+   * */
+  suspend fun readCatalog(
+    bufferedSource: BufferedSource,
+    iterator: suspend (DvachApiV2.DvachPost) -> Unit
+  ): ReadResult {
+    return readPostsArrayByName(bufferedSource, "threads", iterator)
+  }
+
+  private suspend fun readPostsArrayByName(
+    bufferedSource: BufferedSource,
+    arrayName: String,
+    iterator: suspend (DvachApiV2.DvachPost) -> Unit
+  ): ReadResult {
+    return readRootObject(bufferedSource, readBoardInfo = false) { reader, name, readResult ->
+      if (name != arrayName) {
+        return@readRootObject false
+      }
+
+      if (readResult.error?.isActuallyError() == true) {
+        reader.skipValue()
+        return@readRootObject true
+      }
+
+      readResult.postsFound = true
+      iteratePosts(reader, readResult, iterator)
+      return@readRootObject true
+    }
+  }
+
+  private suspend fun iteratePosts(
+    reader: JsonReader,
+    readResult: ReadResult,
+    iterator: suspend (DvachApiV2.DvachPost) -> Unit
+  ) {
+    if (reader.peek() == JsonReader.Token.NULL) {
+      reader.nextNull<Unit>()
+      readResult.postsFound = false
+      return
+    }
+
+    reader.beginArray()
+
+    while (reader.hasNext()) {
+      val dvachPost = dvachPostAdapter.fromJson(reader)
+        ?: continue
+
+      ++readResult.postsCount
+      iterator(dvachPost)
+    }
+
+    reader.endArray()
+  }
+
+  private suspend fun readRootObject(
+    bufferedSource: BufferedSource,
+    readBoardInfo: Boolean,
+    readPosts: suspend (JsonReader, String, ReadResult) -> Boolean
+  ): ReadResult {
+    val readResult = ReadResult()
+
+    JsonReader.of(bufferedSource).use { reader ->
+      reader.beginObject()
+
+      while (reader.hasNext()) {
+        val name = reader.nextName()
+
+        if (readPosts(reader, name, readResult)) {
+          continue
+        }
+
+        when (name) {
+          "board" -> {
+            if (!readBoardInfo) {
+              reader.skipValue()
+              continue
+            }
+
+            readResult.bumpLimit = dvachBoardInfoAdapter.fromJson(reader)?.bumpLimit
+          }
+          "unique_posters" -> readResult.posters = reader.nextIntOrNull()
+          "error" -> readResult.error = dvachErrorAdapter.fromJson(reader)
+          else -> reader.skipValue()
+        }
+      }
+
+      reader.endObject()
+    }
+
+    return readResult
+  }
+
+  private fun JsonReader.nextIntOrNull(): Int? {
+    if (peek() == JsonReader.Token.NULL) {
+      return nextNull<Int>()
+    }
+
+    return nextInt()
+  }
+
+  class ReadResult(
+    var bumpLimit: Int? = null,
+    var posters: Int? = null,
+    var error: DvachApiV2.DvachError? = null,
+    var postsFound: Boolean = false,
+    var postsCount: Int = 0
+  )
+
+}
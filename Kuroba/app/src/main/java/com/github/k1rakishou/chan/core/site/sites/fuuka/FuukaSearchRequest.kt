@@ -6,12 +6,17 @@ import com.github.k1rakishou.chan.core.site.sites.search.PageCursor
 import com.github.k1rakishou.chan.core.site.sites.search.SearchEntry
 import com.github.k1rakishou.chan.core.site.sites.search.SearchError
 import com.github.k1rakishou.chan.core.site.sites.search.SearchResult
+import com.github.k1rakishou.common.BadStatusResponseException
+import com.github.k1rakishou.common.EmptyBodyResponseException
 import com.github.k1rakishou.common.errorMessageOrClassName
-import com.github.k1rakishou.common.suspendConvertIntoJsoupDocument
+import com.github.k1rakishou.common.rethrowCancellationException
+import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import okhttp3.Request
-import org.jsoup.nodes.Document
+import okio.BufferedSource
 
 class FuukaSearchRequest(
   private val verboseLogs: Boolean,
@@ -22,29 +27,49 @@ class FuukaSearchRequest(
   private val commandBuffer = FuukaSearchRequestParseCommandBufferBuilder().getBuilder().build()
 
   suspend fun execute(): SearchResult {
-    return proxiedOkHttpClient.okHttpClient().suspendConvertIntoJsoupDocument(request)
-      .mapValue { document -> readHtml(request.url.toString(), document) }
-      .mapErrorToValue { error -> SearchResult.Failure(SearchError.UnknownError(error)) }
-  }
+    return withContext(Dispatchers.IO) {
+      try {
+        val response = proxiedOkHttpClient.okHttpClient().suspendCall(request)
 
-  suspend fun readHtml(requestUrl: String, document: Document): SearchResult {
-    val collector = FuukaSearchRequestParseCommandBufferBuilder.FuukaSearchPageCollector(
-      verboseLogs,
-      requestUrl,
-      searchParams.boardDescriptor
-    )
+        if (!response.isSuccessful) {
+          throw BadStatusResponseException(response.code)
+        }
+
+        if (response.body == null) {
+          throw EmptyBodyResponseException()
+        }
+
+        return@withContext response.body!!.use { body ->
+          // The page is parsed while it's being downloaded
+          return@use readHtml(request.url.toString(), body.source())
+        }
+      } catch (error: Throwable) {
+        error.rethrowCancellationException()
+        return@withContext SearchResult.Failure(SearchError.UnknownError(error))
+      }
+    }
+  }
 
+  fun readHtml(requestUrl: String, source: BufferedSource): SearchResult {
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<FuukaSearchRequestParseCommandBufferBuilder.FuukaSearchPageCollector>()
 
-    try {
+    val collector = try {
       parserCommandExecutor.executeCommands(
-        document,
-        commandBuffer,
-        collector,
-        requestUrl
-      )
+        source = source,
+        kurobaParserCommands = commandBuffer,
+        collectorFactory = {
+          FuukaSearchRequestParseCommandBufferBuilder.FuukaSearchPageCollector(
+            verboseLogs,
+            requestUrl,
+            searchParams.boardDescriptor
+          )
+        },
+        url = requestUrl
+      ).collector
     } catch (error: Throwable) {
+      error.rethrowCancellationException()
+
       Logger.e(TAG, "parserCommandExecutor.executeCommands() error", error)
       return SearchResult.Failure(SearchError.ParsingError(error.errorMessageOrClassName()))
     }
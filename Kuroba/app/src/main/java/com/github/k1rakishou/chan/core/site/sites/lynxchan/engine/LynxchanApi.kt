@@ -17,6 +17,7 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.board.ChanBoard
 import com.github.k1rakishou.model.data.board.LynxchanBoardMeta
 import com.github.k1rakishou.model.data.bookmark.StickyThread
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
@@ -155,7 +156,7 @@ open class LynxchanApi(
 
   override suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    expectedCapacity: Int,
+    collector: ThreadBookmarkInfoCollector,
     requestUrl: String,
     responseBodyStream: InputStream
   ): ModularResult<ThreadBookmarkInfoObject> {
@@ -168,8 +169,6 @@ open class LynxchanApi(
         throw IllegalStateException("No posts parsed for '$requestUrl'")
       }
 
-      val postObjects = mutableListWithCap<ThreadBookmarkInfoPostObject>(lynxchanBookmarkThreadInfo.postsCount)
-
       lynxchanBookmarkThreadInfo.iterate { lynxchanCatalogThread ->
         if (lynxchanCatalogThread.isOp) {
           val threadId = lynxchanCatalogThread.threadId!!
@@ -191,7 +190,7 @@ open class LynxchanApi(
             isBumpLimit = false
           }
 
-          postObjects += ThreadBookmarkInfoPostObject.OriginalPost(
+          val originalPost = ThreadBookmarkInfoPostObject.OriginalPost(
             postNo = threadId,
             closed = closed,
             archived = false,
@@ -200,15 +199,17 @@ open class LynxchanApi(
             stickyThread = stickyPost,
             comment = comment
           )
+
+          collector.collect(originalPost)
         } else {
           val postId = lynxchanCatalogThread.postId!!
           val comment = lynxchanCatalogThread.message ?: ""
 
-          postObjects += ThreadBookmarkInfoPostObject.RegularPost(postId, comment)
+          collector.collect(ThreadBookmarkInfoPostObject.RegularPost(postId, comment))
         }
       }
 
-      return@Try ThreadBookmarkInfoObject(threadDescriptor, postObjects)
+      return@Try collector.build()
     }
   }
 
@@ -1,8 +1,11 @@
 package com.github.k1rakishou.chan.core.usecase
 
+import android.os.Debug
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.FilterWatcherScanCache
+import com.github.k1rakishou.chan.core.helper.WatchFilterMatcher
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager
@@ -13,8 +16,10 @@ import com.github.k1rakishou.chan.core.site.parser.search.SimpleCommentParser
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.EmptyBodyResponseException
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.datastructure.LongObjectMap
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.isNotNullNorEmpty
+import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
@@ -27,7 +32,6 @@ import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
 import com.github.k1rakishou.model.data.filter.ChanFilterWatchGroup
-import com.github.k1rakishou.model.data.filter.FilterType
 import com.github.k1rakishou.model.data.filter.FilterWatchCatalogInfoObject
 import com.github.k1rakishou.model.data.filter.FilterWatchCatalogThreadInfoObject
 import com.github.k1rakishou.model.repository.ChanFilterWatchRepository
@@ -43,6 +47,8 @@ import okhttp3.Request
 import org.jsoup.parser.Parser
 import java.io.IOException
 import java.util.BitSet
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 class BookmarkFilterWatchableThreadsUseCase(
   private val verboseLogsEnabled: Boolean,
@@ -58,18 +64,19 @@ class BookmarkFilterWatchableThreadsUseCase(
   private val filterEngine: FilterEngine,
   private val chanPostRepository: ChanPostRepository,
   private val chanFilterWatchRepository: ChanFilterWatchRepository
-) : ISuspendUseCase<Unit, ModularResult<Map<String, MutableList<ChanDescriptor.ThreadDescriptor>>>> {
+) : ISuspendUseCase<Unit, ModularResult<BookmarkFilterWatchableThreadsUseCase.Result>> {
+  private val filterWatcherScanCache = FilterWatcherScanCache()
 
   /**
-   * Returns true is we successfully fetched catalog threads, matched at least one filter with at
-   * least one thread and successfully created at least one watch filter group.
+   * Returns the bookmarks that were created for the threads that matched watch filters (grouped by
+   * the filter pattern) and the statistics of the catalog threads scan.
    * */
-  override suspend fun execute(parameter: Unit): ModularResult<Map<String, MutableList<ChanDescriptor.ThreadDescriptor>>> {
+  override suspend fun execute(parameter: Unit): ModularResult<Result> {
     return ModularResult.Try { doWorkInternal() }
   }
 
   @Suppress("UnnecessaryVariable")
-  private suspend fun doWorkInternal(): Map<String, MutableList<ChanDescriptor.ThreadDescriptor>> {
+  private suspend fun doWorkInternal(): Result {
     boardManager.awaitUntilInitialized()
     bookmarksManager.awaitUntilInitialized()
     chanFilterManager.awaitUntilInitialized()
@@ -79,13 +86,13 @@ class BookmarkFilterWatchableThreadsUseCase(
     val enabledWatchFilters = chanFilterManager.getEnabledWatchFilters()
     if (enabledWatchFilters.isEmpty()) {
       Logger.d(TAG, "doWorkInternal() enabledWatchFilters is empty")
-      return emptyMap()
+      return Result.EMPTY
     }
 
     val boardDescriptorsToCheck = collectBoardDescriptorsToCheck()
     if (boardDescriptorsToCheck.isEmpty()) {
       Logger.d(TAG, "doWorkInternal() boardDescriptorsToCheck is empty")
-      return emptyMap()
+      return Result.EMPTY
     }
 
     Logger.d(TAG, "doWorkInternal() enabledWatchFilters=${enabledWatchFilters.size}")
@@ -102,38 +109,30 @@ class BookmarkFilterWatchableThreadsUseCase(
     val filterWatchCatalogInfoObjects = filterOutNonSuccessResults(catalogFetchResults)
     if (filterWatchCatalogInfoObjects.isEmpty()) {
       Logger.d(TAG, "doWorkInternal() Nothing has left after filtering out error results")
-      return emptyMap()
+      return Result.EMPTY
     }
 
-    val matchedCatalogThreads = filterOutThreadsThatDoNotMatchWatchFilters(
-      filterWatchCatalogInfoObjects
-    ) { catalogThread ->
-      val rawComment = catalogThread.comment()
-      val subject = catalogThread.subject
-      val catalogBoardDescriptor = catalogThread.threadDescriptor.boardDescriptor
-      val parsedComment = simpleCommentParser.get().parseComment(rawComment) ?: ""
-
-      // Update the old unparsed comment with the parsed one
-      catalogThread.replaceRawCommentWithParsed(parsedComment.toString())
-
-      val matchedFilter = tryMatchWatchFiltersWithThreadInfo(
-        enabledWatchFilters = enabledWatchFilters,
-        catalogBoardDescriptor = catalogBoardDescriptor,
-        parsedComment = parsedComment,
-        subject = subject
-      )
+    val watchFilterMatcher = WatchFilterMatcher(filterEngine, enabledWatchFilters)
+    val scanCacheSnapshot = filterWatcherScanCache.startRun(enabledWatchFilters)
 
-      if (matchedFilter != null) {
-        // Set the matched filter which we will use for grouping
-        catalogThread.setMatchedFilter(matchedFilter)
-      }
+    val catalogScanResult = scanCatalogThreads(
+      filterWatchCatalogInfoObjects = filterWatchCatalogInfoObjects,
+      watchFilterMatcher = watchFilterMatcher,
+      scanCacheSnapshot = scanCacheSnapshot
+    )
 
-      return@filterOutThreadsThatDoNotMatchWatchFilters matchedFilter != null
-    }
+    filterWatcherScanCache.finishRun(
+      runWatchFilters = enabledWatchFilters,
+      checkedBoards = boardDescriptorsToCheck,
+      scannedBoards = catalogScanResult.evaluatedThreadsPerBoard
+    )
+
+    val matchedCatalogThreads = catalogScanResult.matchedCatalogThreads
+    val scanStats = catalogScanResult.scanStats
 
     if (matchedCatalogThreads.isEmpty()) {
       Logger.d(TAG, "doWorkInternal() Nothing has left after filtering out non-matching catalog threads")
-      return emptyMap()
+      return Result(emptyMap(), scanStats)
     }
 
     Logger.d(TAG, "doWorkInternal() matchedCatalogThreads=${matchedCatalogThreads.size}")
@@ -144,7 +143,7 @@ class BookmarkFilterWatchableThreadsUseCase(
       Logger.d(TAG, "doWorkInternal() pattern=\'${pattern}\', bookmarkDescriptors: ${bookmarkDescriptors.size}")
     }
 
-    return createdBookmarks
+    return Result(createdBookmarks, scanStats)
   }
 
   private suspend fun createOrUpdateBookmarks(
@@ -375,62 +374,145 @@ class BookmarkFilterWatchableThreadsUseCase(
     return ChanPostUtils.getTitle(subject, comment, threadDescriptor)
   }
 
-  private fun tryMatchWatchFiltersWithThreadInfo(
-    enabledWatchFilters: List<ChanFilter>,
-    catalogBoardDescriptor: BoardDescriptor,
-    parsedComment: CharSequence,
-    subject: String
-  ): ChanFilter? {
-    for (watchFilter in enabledWatchFilters) {
-      if (!watchFilter.matchesBoard(catalogBoardDescriptor)) {
-        continue
-      }
-
-      if (filterEngine.typeMatches(watchFilter, FilterType.COMMENT)) {
-        if (filterEngine.matches(watchFilter, parsedComment)) {
-          if (watchFilter.isAvoidWatchFilter())
-          {
-            return null;
-          }
-          return watchFilter
-        }
-      }
-
-      if (filterEngine.typeMatches(watchFilter, FilterType.SUBJECT)) {
-        if (filterEngine.matches(watchFilter, subject)) {
-          if (watchFilter.isAvoidWatchFilter())
-          {
-            return null;
-          }
-          return watchFilter
-        }
-      }
-    }
-
-    return null
-  }
-
-  private suspend fun filterOutThreadsThatDoNotMatchWatchFilters(
+  private suspend fun scanCatalogThreads(
     filterWatchCatalogInfoObjects: List<FilterWatchCatalogInfoObject>,
-    predicate: suspend (FilterWatchCatalogThreadInfoObject) -> Boolean
-  ): List<FilterWatchCatalogThreadInfoObject> {
+    watchFilterMatcher: WatchFilterMatcher,
+    scanCacheSnapshot: FilterWatcherScanCache.Snapshot
+  ): CatalogScanResult {
     val batchSize = (appConstants.processorsCount * BATCH_PER_CORE)
       .coerceAtLeast(MIN_BATCHES_COUNT)
 
     val filterWatchCatalogThreadInfoObjectList = filterWatchCatalogInfoObjects
       .flatMap { filterWatchCatalogInfoObject -> filterWatchCatalogInfoObject.catalogThreads }
 
-    return parallelForEach(
+    val cpuTimeNanos = AtomicLong(0)
+
+    val scannedCatalogThreads = parallelForEach(
       dataList = filterWatchCatalogThreadInfoObjectList,
       parallelization = batchSize,
       dispatcher = Dispatchers.IO
     ) { catalogThread ->
-      if (predicate(catalogThread)) {
-        return@parallelForEach catalogThread
+      val cpuTimeStart = Debug.threadCpuTimeNanos()
+
+      try {
+        return@parallelForEach scanCatalogThread(catalogThread, watchFilterMatcher, scanCacheSnapshot)
+      } finally {
+        cpuTimeNanos.addAndGet(Debug.threadCpuTimeNanos() - cpuTimeStart)
+      }
+    }
+
+    val evaluatedThreadsPerBoard = mutableMapWithCap<BoardDescriptor, LongObjectMap<FilterWatcherScanCache.EvaluatedThread>>(
+      filterWatchCatalogInfoObjects.size
+    )
+
+    filterWatchCatalogInfoObjects.forEach { filterWatchCatalogInfoObject ->
+      evaluatedThreadsPerBoard[filterWatchCatalogInfoObject.boardDescriptor] =
+        LongObjectMap(filterWatchCatalogInfoObject.catalogThreads.size)
+    }
+
+    val matchedCatalogThreads = mutableListOf<FilterWatchCatalogThreadInfoObject>()
+    var evaluatedThreadsCount = 0
+
+    scannedCatalogThreads.forEach { scannedCatalogThread ->
+      val threadDescriptor = scannedCatalogThread.catalogThread.threadDescriptor
+
+      evaluatedThreadsPerBoard[threadDescriptor.boardDescriptor]
+        ?.put(threadDescriptor.threadNo, scannedCatalogThread.evaluatedThread)
+
+      if (scannedCatalogThread.evaluated) {
+        ++evaluatedThreadsCount
+      }
+
+      if (scannedCatalogThread.evaluatedThread.matchedFilterId != FilterWatcherScanCache.NO_MATCHED_FILTER) {
+        matchedCatalogThreads += scannedCatalogThread.catalogThread
+      }
+    }
+
+    val scanStats = ScanStats(
+      boardsCount = filterWatchCatalogInfoObjects.size,
+      watchFiltersCount = watchFilterMatcher.compiledFiltersCount,
+      catalogThreadsCount = filterWatchCatalogThreadInfoObjectList.size,
+      evaluatedThreadsCount = evaluatedThreadsCount,
+      skippedThreadsCount = scannedCatalogThreads.size - evaluatedThreadsCount,
+      matchedThreadsCount = matchedCatalogThreads.size,
+      scanCacheInvalidated = scanCacheSnapshot.invalidated,
+      cpuTimeMs = TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos.get())
+    )
+
+    return CatalogScanResult(matchedCatalogThreads, evaluatedThreadsPerBoard, scanStats)
+  }
+
+  /**
+   * Only threads that are new or which OP was edited since the previous run are matched against the
+   * watch filters, for the rest of them the result of the previous run is used.
+   * */
+  private fun scanCatalogThread(
+    catalogThread: FilterWatchCatalogThreadInfoObject,
+    watchFilterMatcher: WatchFilterMatcher,
+    scanCacheSnapshot: FilterWatcherScanCache.Snapshot
+  ): ScannedCatalogThread {
+    val threadDescriptor = catalogThread.threadDescriptor
+    val boardDescriptor = threadDescriptor.boardDescriptor
+    val rawComment = catalogThread.comment()
+    val subject = catalogThread.subject
+    val opHash = FilterWatcherScanCache.opHash(subject, rawComment)
+
+    val prevEvaluatedThread = scanCacheSnapshot.get(boardDescriptor, threadDescriptor.threadNo)
+    if (prevEvaluatedThread != null && prevEvaluatedThread.opHash == opHash) {
+      if (prevEvaluatedThread.matchedFilterId == FilterWatcherScanCache.NO_MATCHED_FILTER) {
+        return ScannedCatalogThread(catalogThread, prevEvaluatedThread, evaluated = false)
+      }
+
+      val prevMatchedFilter = watchFilterMatcher.findFilterById(prevEvaluatedThread.matchedFilterId)
+      if (prevMatchedFilter != null) {
+        // Filter watch groups are recreated on every run so the matched threads must still be
+        // returned even though they were already matched before.
+        onCatalogThreadMatched(catalogThread, prevMatchedFilter, parsedComment = null)
+        return ScannedCatalogThread(catalogThread, prevEvaluatedThread, evaluated = false)
       }
 
-      return@parallelForEach null
+      // Shouldn't happen since the watch filters are the same as in the previous run, just match it again
+    }
+
+    val parsedComment = if (watchFilterMatcher.needsCommentForBoard(boardDescriptor)) {
+      simpleCommentParser.get().parseComment(rawComment) ?: ""
+    } else {
+      null
+    }
+
+    val matchedFilter = watchFilterMatcher.match(
+      boardDescriptor = boardDescriptor,
+      parsedComment = parsedComment,
+      subject = subject
+    )
+
+    if (matchedFilter != null) {
+      onCatalogThreadMatched(catalogThread, matchedFilter, parsedComment)
     }
+
+    val evaluatedThread = FilterWatcherScanCache.EvaluatedThread(
+      opHash = opHash,
+      matchedFilterId = matchedFilter?.getDatabaseId() ?: FilterWatcherScanCache.NO_MATCHED_FILTER
+    )
+
+    return ScannedCatalogThread(catalogThread, evaluatedThread, evaluated = true)
+  }
+
+  private fun onCatalogThreadMatched(
+    catalogThread: FilterWatchCatalogThreadInfoObject,
+    matchedFilter: ChanFilter,
+    parsedComment: CharSequence?
+  ) {
+    // The comment is only used for the bookmarks of the matched threads so there is no need to
+    // parse it for every catalog thread
+    val comment = parsedComment
+      ?: simpleCommentParser.get().parseComment(catalogThread.comment())
+      ?: ""
+
+    // Update the old unparsed comment with the parsed one
+    catalogThread.replaceRawCommentWithParsed(comment.toString())
+    // Set the matched filter which we will use for grouping
+    catalogThread.setMatchedFilter(matchedFilter)
   }
 
   private fun filterOutNonSuccessResults(
@@ -571,6 +653,46 @@ class BookmarkFilterWatchableThreadsUseCase(
     return boardDescriptorsToCheck
   }
 
+  class Result(
+    // Created bookmarks grouped by the pattern of the filter that matched them
+    val createdBookmarks: Map<String, MutableList<ChanDescriptor.ThreadDescriptor>>,
+    val scanStats: ScanStats
+  ) {
+    companion object {
+      val EMPTY = Result(emptyMap(), ScanStats.EMPTY)
+    }
+  }
+
+  data class ScanStats(
+    val boardsCount: Int,
+    val watchFiltersCount: Int,
+    val catalogThreadsCount: Int,
+    // Threads that were matched against the watch filters (new threads or threads with edited OP)
+    val evaluatedThreadsCount: Int,
+    // Threads which results were taken from the previous run
+    val skippedThreadsCount: Int,
+    val matchedThreadsCount: Int,
+    val scanCacheInvalidated: Boolean,
+    // Sum of the CPU time of all threads that took part in the scan
+    val cpuTimeMs: Long
+  ) {
+    companion object {
+      val EMPTY = ScanStats(0, 0, 0, 0, 0, 0, false, 0L)
+    }
+  }
+
+  private class CatalogScanResult(
+    val matchedCatalogThreads: List<FilterWatchCatalogThreadInfoObject>,
+    val evaluatedThreadsPerBoard: Map<BoardDescriptor, LongObjectMap<FilterWatcherScanCache.EvaluatedThread>>,
+    val scanStats: ScanStats
+  )
+
+  private class ScannedCatalogThread(
+    val catalogThread: FilterWatchCatalogThreadInfoObject,
+    val evaluatedThread: FilterWatcherScanCache.EvaluatedThread,
+    val evaluated: Boolean
+  )
+
   sealed class CatalogFetchResult {
     data class Success(
       val filterWatchCatalogInfoObject: FilterWatchCatalogInfoObject
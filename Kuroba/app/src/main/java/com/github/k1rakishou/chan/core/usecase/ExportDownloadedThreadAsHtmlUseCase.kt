@@ -3,15 +3,14 @@ package com.github.k1rakishou.chan.core.usecase
 import android.content.Context
 import android.net.Uri
 import com.github.k1rakishou.chan.R
-import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingDelegate
+import com.github.k1rakishou.chan.features.thread_downloading.ThreadExportPipeline
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.extractFileName
+import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.AbstractFile
-import com.github.k1rakishou.fsaf.file.FileSegment
-import com.github.k1rakishou.fsaf.file.Segment
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
@@ -19,16 +18,15 @@ import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.util.ChanPostUtils
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ensureActive
-import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
 import org.joda.time.DateTimeZone
 import org.joda.time.format.DateTimeFormatterBuilder
 import org.joda.time.format.ISODateTimeFormat
-import java.io.File
+import java.io.Writer
 import java.util.*
 import java.util.regex.Pattern
-import java.util.zip.ZipEntry
 import java.util.zip.ZipOutputStream
+import kotlin.coroutines.coroutineContext
 
 class ExportDownloadedThreadAsHtmlUseCase(
   private val appContext: Context,
@@ -36,6 +34,7 @@ class ExportDownloadedThreadAsHtmlUseCase(
   private val fileManager: FileManager,
   private val chanPostRepository: ChanPostRepository
 ) : ISuspendUseCase<ExportDownloadedThreadAsHtmlUseCase.Params, ModularResult<Unit>> {
+  private val exportPipeline = ThreadExportPipeline(appConstants, fileManager)
 
   override suspend fun execute(parameter: Params): ModularResult<Unit> {
     return ModularResult.Try {
@@ -44,9 +43,10 @@ class ExportDownloadedThreadAsHtmlUseCase(
       val onUpdate = parameter.onUpdate
 
       withContext(Dispatchers.IO) {
-        withContext(Dispatchers.Main) { onUpdate(0, threadDescriptors.size) }
+        val progressTracker = exportPipeline.createProgressTracker(threadDescriptors, onUpdate = onUpdate)
+        progressTracker.publish(force = true)
 
-        threadDescriptors.forEachIndexed { index, threadDescriptor ->
+        threadDescriptors.forEach { threadDescriptor ->
           ensureActive()
 
           val outputDir = fileManager.fromUri(outputDirUri)
@@ -57,28 +57,25 @@ class ExportDownloadedThreadAsHtmlUseCase(
             ?: throw ThreadExportException("Failed to create output file \'$fileName\' in directory \'${outputDir}\'")
 
           try {
-            exportThreadAsHtml(outputFile, threadDescriptor)
+            exportThreadAsHtml(outputFile, threadDescriptor, progressTracker)
           } catch (error: Throwable) {
-            fileManager.fromUri(outputDirUri)?.let { file ->
-              if (fileManager.isFile(file)) {
-                fileManager.delete(file)
-              }
+            if (fileManager.isFile(outputFile)) {
+              fileManager.delete(outputFile)
             }
 
             throw error
           }
 
-          withContext(Dispatchers.Main) { onUpdate(index + 1, threadDescriptors.size) }
+          progressTracker.onThreadExported()
         }
-
-        withContext(Dispatchers.Main) { onUpdate(threadDescriptors.size, threadDescriptors.size) }
       }
     }
   }
 
   private suspend fun exportThreadAsHtml(
     outputFile: AbstractFile,
-    threadDescriptor: ChanDescriptor.ThreadDescriptor
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    progressTracker: ThreadExportPipeline.ExportProgressTracker
   ) {
     val postsLoadResult = chanPostRepository.getThreadPostsFromDatabase(threadDescriptor)
 
@@ -105,56 +102,61 @@ class ExportDownloadedThreadAsHtmlUseCase(
       throw ThreadExportException("Failed to open output stream for file '${outputFileUri}'")
     }
 
-    runInterruptible {
-      outputStream.use { os ->
-        ZipOutputStream(os).use { zos ->
-          appContext.resources.openRawResource(R.raw.tomorrow).use { cssFileInputStream ->
-            zos.putNextEntry(ZipEntry("tomorrow.css"))
-            cssFileInputStream.copyTo(zos)
-          }
-
-          kotlin.run {
-            zos.putNextEntry(ZipEntry("thread_data.html"))
-            HTML_TEMPLATE_START.byteInputStream().use { templateStartStream ->
-              templateStartStream.copyTo(zos)
-            }
-
-            chanPosts.forEach { chanPost ->
-              formatPost(chanPost).byteInputStream().use { formattedPostStream ->
-                formattedPostStream.copyTo(zos)
-              }
-            }
-
-            HTML_TEMPLATE_END.byteInputStream().use { templateEndStream ->
-              templateEndStream.copyTo(zos)
-            }
-          }
-
-          val threadMediaDirName = ThreadDownloadingDelegate.formatDirectoryName(threadDescriptor)
-          val threadMediaDir = File(appConstants.threadDownloaderCacheDir, threadMediaDirName)
-
-          threadMediaDir.listFiles()?.forEach { mediaFile ->
-            zos.putNextEntry(ZipEntry(mediaFile.name))
-
-            mediaFile.inputStream().use { mediaFileSteam ->
-              mediaFileSteam.copyTo(zos)
-            }
-          }
+    outputStream.use { os ->
+      ZipOutputStream(os.buffered()).use { zos ->
+        exportPipeline.writeStreamEntry(
+          zipOutputStream = zos,
+          entryName = "tomorrow.css",
+          inputStream = appContext.resources.openRawResource(R.raw.tomorrow)
+        )
+
+        exportPipeline.writeTextEntry(zos, "thread_data.html") { writer ->
+          writer.write(HTML_TEMPLATE_START)
+          writePosts(writer, chanPosts)
+          writer.write(HTML_TEMPLATE_END)
         }
+
+        exportPipeline.writeMediaEntries(
+          zipOutputStream = zos,
+          mediaFiles = exportPipeline.threadMediaFiles(threadDescriptor),
+          progressTracker = progressTracker
+        )
       }
     }
 
     Logger.d(TAG, "exportThreadAsHtml done")
   }
 
-  private fun formatPost(chanPost: ChanPost): String {
+  /**
+   * Posts are formatted in parallel, in batches, every worker formats a chunk of posts into its own
+   * StringBuilder and then the chunks are written in the original order.
+   * */
+  private suspend fun writePosts(writer: Writer, chanPosts: List<ChanPost>) {
+    chanPosts.chunked(POSTS_BATCH_SIZE).forEach { batch ->
+      coroutineContext.ensureActive()
+
+      val formattedChunks = parallelForEach(
+        dataList = batch.chunked(POSTS_PER_WORKER),
+        dispatcher = Dispatchers.Default,
+        rethrowErrors = true
+      ) { postsChunk ->
+        val chunkBuilder = StringBuilder(postsChunk.size * OP_POST_TEMPLATE.length)
+        postsChunk.forEach { chanPost -> formatPost(chanPost, chunkBuilder) }
+
+        return@parallelForEach chunkBuilder
+      }
+
+      formattedChunks.forEach { formattedChunk -> writer.append(formattedChunk) }
+    }
+  }
+
+  private fun formatPost(chanPost: ChanPost, templateBuilder: StringBuilder) {
     val template = if (chanPost is ChanOriginalPost) {
       OP_POST_TEMPLATE
     } else {
       REGULAR_POST_TEMPLATE
     }
 
-    val templateBuilder = StringBuilder(template.length)
     val matcher = TEMPLATE_PARAMETER_PATTERN.matcher(template)
 
     var offset = 0
@@ -163,16 +165,18 @@ class ExportDownloadedThreadAsHtmlUseCase(
       val startIndex = matcher.start(0)
       val endIndex = matcher.end(0)
 
-      templateBuilder.append(template.substring(offset, startIndex))
+      templateBuilder.append(template, offset, startIndex)
 
-      val templateParam = template.substring(startIndex, endIndex)
-        .removePrefix("{{")
-        .removeSuffix("}}")
+      // Strip the "{{" and "}}"
+      val templateParam = template.substring(startIndex + 2, endIndex - 2)
 
       val templateValue = when (templateParam) {
         "POST_NO" -> chanPost.postDescriptor.postNo.toString()
         "ORIGINAL_POST_FILES",
-        "REGULAR_POST_FILES" -> formatPostFiles(chanPost)
+        "REGULAR_POST_FILES" -> {
+          formatPostFiles(chanPost, templateBuilder)
+          ""
+        }
         "THREAD_SUBJECT" -> {
           chanPost.subject ?: ""
         }
@@ -194,17 +198,14 @@ class ExportDownloadedThreadAsHtmlUseCase(
       offset = endIndex
     }
 
-    templateBuilder.append(template.substring(offset, template.length))
-
-    return templateBuilder.toString()
+    templateBuilder.append(template, offset, template.length)
   }
 
-  private fun formatPostFiles(chanPost: ChanPost): String {
+  private fun formatPostFiles(chanPost: ChanPost, templateBuilder: StringBuilder) {
     if (chanPost.postImages.isEmpty()) {
-      return ""
+      return
     }
 
-    val templateBuilder = StringBuilder(128)
     templateBuilder
       .append("<div class=\"files_container\">")
 
@@ -223,11 +224,10 @@ class ExportDownloadedThreadAsHtmlUseCase(
         val startIndex = matcher.start(0)
         val endIndex = matcher.end(0)
 
-        templateBuilder.append(template.substring(offset, startIndex))
+        templateBuilder.append(template, offset, startIndex)
 
-        val templateParam = template.substring(startIndex, endIndex)
-          .removePrefix("{{")
-          .removeSuffix("}}")
+        // Strip the "{{" and "}}"
+        val templateParam = template.substring(startIndex + 2, endIndex - 2)
 
         val templateValue = when (templateParam) {
           "POST_NO" -> chanPost.postDescriptor.postNo.toString()
@@ -251,13 +251,11 @@ class ExportDownloadedThreadAsHtmlUseCase(
       }
 
       templateBuilder
-        .append(template.substring(offset, template.length))
+        .append(template, offset, template.length)
     }
 
     templateBuilder
       .append("</div>")
-
-    return templateBuilder.toString()
   }
 
   class ThreadExportException(message: String) : Exception(message)
@@ -265,11 +263,13 @@ class ExportDownloadedThreadAsHtmlUseCase(
   data class Params(
     val outputDirUri: Uri,
     val threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    val onUpdate: (Int, Int) -> Unit
+    val onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   )
 
   companion object {
     private const val TAG = "ExportDownloadedThreadAsHtmlUseCase"
+    private const val POSTS_BATCH_SIZE = 1024
+    private const val POSTS_PER_WORKER = 128
 
     private val TEMPLATE_PARAMETER_PATTERN = Pattern.compile("\\{\\{\\w+\\}\\}")
 
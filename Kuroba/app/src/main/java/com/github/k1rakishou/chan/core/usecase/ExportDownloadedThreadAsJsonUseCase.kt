@@ -2,7 +2,7 @@ package com.github.k1rakishou.chan.core.usecase
 
 import android.content.Context
 import android.net.Uri
-import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingDelegate
+import com.github.k1rakishou.chan.features.thread_downloading.ThreadExportPipeline
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.core_logger.Logger
@@ -14,12 +14,8 @@ import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.google.gson.Gson
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ensureActive
-import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
-import java.io.ByteArrayInputStream
-import java.io.File
 import java.util.regex.Pattern
-import java.util.zip.ZipEntry
 import java.util.zip.ZipOutputStream
 
 class ExportDownloadedThreadAsJsonUseCase(
@@ -29,6 +25,7 @@ class ExportDownloadedThreadAsJsonUseCase(
   private val fileManager: FileManager,
   private val chanPostRepository: ChanPostRepository
 ) : ISuspendUseCase<ExportDownloadedThreadAsJsonUseCase.Params, ModularResult<Unit>> {
+  private val exportPipeline = ThreadExportPipeline(appConstants, fileManager)
 
   override suspend fun execute(parameter: Params): ModularResult<Unit> {
     return ModularResult.Try {
@@ -37,9 +34,14 @@ class ExportDownloadedThreadAsJsonUseCase(
       val onUpdate = parameter.onUpdate
 
       withContext(Dispatchers.IO) {
-        withContext(Dispatchers.Main) { onUpdate(0, threadDescriptors.size) }
-
-        threadDescriptors.forEachIndexed { index, threadDescriptor ->
+        val progressTracker = exportPipeline.createProgressTracker(
+          threadDescriptors = threadDescriptors,
+          excludePattern = MEDIA_EXCLUDE_PATTERN,
+          onUpdate = onUpdate
+        )
+        progressTracker.publish(force = true)
+
+        threadDescriptors.forEach { threadDescriptor ->
           ensureActive()
 
           val outputDir = fileManager.fromUri(outputDirUri)
@@ -50,28 +52,25 @@ class ExportDownloadedThreadAsJsonUseCase(
             ?: throw ThreadExportException("Failed to create output file \'$fileName\' in directory \'${outputDir}\'")
 
           try {
-            exportThreadAsJson(outputFile, threadDescriptor)
+            exportThreadAsJson(outputFile, threadDescriptor, progressTracker)
           } catch (error: Throwable) {
-            fileManager.fromUri(outputDirUri)?.let { file ->
-              if (fileManager.isFile(file)) {
-                fileManager.delete(file)
-              }
+            if (fileManager.isFile(outputFile)) {
+              fileManager.delete(outputFile)
             }
 
             throw error
           }
 
-          withContext(Dispatchers.Main) { onUpdate(index + 1, threadDescriptors.size) }
+          progressTracker.onThreadExported()
         }
-
-        withContext(Dispatchers.Main) { onUpdate(threadDescriptors.size, threadDescriptors.size) }
       }
     }
   }
 
   private suspend fun exportThreadAsJson(
     outputFile: AbstractFile,
-    threadDescriptor: ChanDescriptor.ThreadDescriptor
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    progressTracker: ThreadExportPipeline.ExportProgressTracker
   ) {
     val postsLoadResult = chanPostRepository.getThreadPostsFromDatabase(threadDescriptor)
 
@@ -98,27 +97,18 @@ class ExportDownloadedThreadAsJsonUseCase(
       throw ThreadExportException("Failed to open output stream for file '${outputFileUri}'")
     }
 
-    runInterruptible {
-      outputStream.use { os ->
-        ZipOutputStream(os).use { zos ->
-          zos.putNextEntry(ZipEntry("thread_data.json"))
-
-          ByteArrayInputStream(gson.toJson(chanPosts).toByteArray())
-            .use { postsJsonByteArray -> postsJsonByteArray.copyTo(zos) }
-
-          val threadMediaDirName = ThreadDownloadingDelegate.formatDirectoryName(threadDescriptor)
-          val threadMediaDir = File(appConstants.threadDownloaderCacheDir, threadMediaDirName)
-          threadMediaDir.listFiles()?.forEach { mediaFile ->
-            // Use this to skip exporting thumbnails
-            val matcher = MEDIA_EXCLUDE_PATTERN.matcher(mediaFile.name)
-            if (matcher.matches()) return@forEach
-
-            zos.putNextEntry(ZipEntry(mediaFile.name))
-            mediaFile.inputStream().use { mediaFileSteam ->
-              mediaFileSteam.copyTo(zos)
-            }
-          }
+    outputStream.use { os ->
+      ZipOutputStream(os.buffered()).use { zos ->
+        exportPipeline.writeTextEntry(zos, "thread_data.json") { writer ->
+          gson.toJson(chanPosts, writer)
         }
+
+        exportPipeline.writeMediaEntries(
+          zipOutputStream = zos,
+          // Use this to skip exporting thumbnails
+          mediaFiles = exportPipeline.threadMediaFiles(threadDescriptor, MEDIA_EXCLUDE_PATTERN),
+          progressTracker = progressTracker
+        )
       }
     }
 
@@ -130,7 +120,7 @@ class ExportDownloadedThreadAsJsonUseCase(
   data class Params(
     val outputDirUri: Uri,
     val threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    val onUpdate: (Int, Int) -> Unit
+    val onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   )
 
   companion object {
@@ -1,23 +1,22 @@
 package com.github.k1rakishou.chan.core.usecase
 
 import android.net.Uri
-import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingDelegate
+import com.github.k1rakishou.chan.features.thread_downloading.ThreadExportPipeline
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.AbstractFile
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
-import java.io.File
 
 class ExportDownloadedThreadMediaUseCase(
   private val appConstants: AppConstants,
   private val fileManager: FileManager
 ) : ISuspendUseCase<ExportDownloadedThreadMediaUseCase.Params, ModularResult<Unit>> {
+  private val exportPipeline = ThreadExportPipeline(appConstants, fileManager)
 
   override suspend fun execute(parameter: Params): ModularResult<Unit> {
     return ModularResult.Try {
@@ -26,9 +25,10 @@ class ExportDownloadedThreadMediaUseCase(
       val onUpdate = parameter.onUpdate
 
       withContext(Dispatchers.IO) {
-        withContext(Dispatchers.Main) { onUpdate(0, threadDescriptors.size) }
+        val progressTracker = exportPipeline.createProgressTracker(threadDescriptors, onUpdate = onUpdate)
+        progressTracker.publish(force = true)
 
-        threadDescriptors.forEachIndexed { index, threadDescriptor ->
+        threadDescriptors.forEach { threadDescriptor ->
           ensureActive()
 
           val outputDir = fileManager.fromUri(outputDirUri)
@@ -40,52 +40,30 @@ class ExportDownloadedThreadMediaUseCase(
             ?: throw MediaExportException("Failed to create output directory \'$directoryName\' in directory \'${outputDir}\'")
 
           exportThreadMedia(
-            coroutineScope = this,
             outputDirectory = outputDirectory,
-            threadDescriptor = threadDescriptor
+            threadDescriptor = threadDescriptor,
+            progressTracker = progressTracker
           )
 
-          withContext(Dispatchers.Main) { onUpdate(index + 1, threadDescriptors.size) }
+          progressTracker.onThreadExported()
         }
-
-        withContext(Dispatchers.Main) { onUpdate(threadDescriptors.size, threadDescriptors.size) }
       }
     }
   }
 
-  private fun exportThreadMedia(
-    coroutineScope: CoroutineScope,
+  private suspend fun exportThreadMedia(
     outputDirectory: AbstractFile,
-    threadDescriptor: ChanDescriptor.ThreadDescriptor
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    progressTracker: ThreadExportPipeline.ExportProgressTracker
   ) {
-    val threadMediaDirName = ThreadDownloadingDelegate.formatDirectoryName(threadDescriptor)
-    val threadMediaDir = File(appConstants.threadDownloaderCacheDir, threadMediaDirName)
-
-    val threadMediaDirFiles = threadMediaDir.listFiles()
-      ?: emptyArray()
-
+    val threadMediaDirFiles = exportPipeline.threadMediaFiles(threadDescriptor)
     Logger.d(TAG, "exportThreadMedia() start, totalFilesCount=${threadMediaDirFiles.size}")
 
-    var succeeded = 0
-
-    threadMediaDirFiles.forEach { mediaFile ->
-      coroutineScope.ensureActive()
-
-      val outputFile = fileManager.createFile(outputDirectory, mediaFile.name)
-      if (outputFile == null) {
-        Logger.e(TAG, "fileManager.createFile(${outputDirectory}, ${mediaFile.name}) -> null")
-        return@forEach
-      }
-
-      val success = fileManager.copyFileContents(
-        sourceFile = fileManager.fromRawFile(mediaFile),
-        destinationFile = outputFile
-      )
-
-      if (success) {
-        ++succeeded
-      }
-    }
+    val succeeded = exportPipeline.copyMediaFiles(
+      outputDirectory = outputDirectory,
+      mediaFiles = threadMediaDirFiles,
+      progressTracker = progressTracker
+    )
 
     Logger.d(TAG, "exportThreadMedia() end, succeeded=${succeeded}, totalFilesCount=${threadMediaDirFiles.size}")
   }
@@ -95,7 +73,7 @@ class ExportDownloadedThreadMediaUseCase(
   data class Params(
     val outputDirectoryUri: Uri,
     val threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    val onUpdate: (Int, Int) -> Unit
+    val onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   )
 
   companion object {
@@ -0,0 +1,127 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import android.content.Context
+import com.github.k1rakishou.chan.core.manager.BookmarksManager
+import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.fsaf.FileManager
+import com.github.k1rakishou.fsaf.file.ExternalFile
+import com.github.k1rakishou.model.repository.ChanFilterRepository
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
+import com.github.k1rakishou.model.source.backup.LogicalBackupManifest
+import com.github.k1rakishou.model.source.backup.LogicalBackupWriter
+import com.github.k1rakishou.model.source.backup.codec.ChanFilterBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ChanSavedReplyBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.NavHistoryElementBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ThreadBookmarkBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ThreadPostsBackupCodec
+import java.io.File
+import java.io.IOException
+import kotlin.time.ExperimentalTime
+import kotlin.time.measureTimedValue
+
+/**
+ * Exports the user data into a logical backup (see [com.github.k1rakishou.model.source.backup.LogicalBackup]).
+ * Incremental backups only contain what changed since the previous export so all of them (starting
+ * with the last full one) have to be imported, in order, to restore everything.
+ * */
+class ExportLogicalBackupUseCase(
+  private val appContext: Context,
+  private val fileManager: FileManager,
+  private val chanFilterRepository: ChanFilterRepository,
+  private val bookmarksManager: BookmarksManager,
+  private val chanSavedReplyRepository: ChanSavedReplyRepository,
+  private val historyNavigationManager: HistoryNavigationManager,
+  private val chanPostRepository: ChanPostRepository
+) : ISuspendUseCase<ExportLogicalBackupUseCase.Params, ModularResult<LogicalBackupWriter.Stats>> {
+
+  private val manifestFile by lazy { File(appContext.filesDir, MANIFEST_FILE_NAME) }
+
+  override suspend fun execute(parameter: Params): ModularResult<LogicalBackupWriter.Stats> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    return ModularResult.Try { exportInternal(parameter) }
+  }
+
+  @OptIn(ExperimentalTime::class)
+  private suspend fun exportInternal(params: Params): LogicalBackupWriter.Stats {
+    val previousManifest = if (params.incremental) {
+      LogicalBackupManifest.read(manifestFile)
+    } else {
+      null
+    }
+
+    Logger.d(TAG, "Export start, incremental=${params.incremental}, previousManifest=${previousManifest}")
+
+    val outputStream = fileManager.getOutputStream(params.externalFile)
+      ?: throw IOException("Failed to open output stream for file '${params.externalFile.getFullPath()}'")
+
+    val (manifestAndStats, duration) = measureTimedValue {
+      LogicalBackupWriter(outputStream, System.currentTimeMillis(), previousManifest).use { writer ->
+        writeSections(writer, params.exportThreadPosts)
+        return@use writer.finish() to writer.stats
+      }
+    }
+
+    val (manifest, stats) = manifestAndStats
+
+    // Only store the manifest once the backup is fully written otherwise the next incremental backup
+    // would skip the records that are not in any backup.
+    LogicalBackupManifest.write(manifestFile, manifest)
+
+    Logger.d(TAG, "Export success! took ${duration}, stats=${stats}, manifest=${manifest}")
+    return stats
+  }
+
+  private suspend fun writeSections(writer: LogicalBackupWriter, exportThreadPosts: Boolean) {
+    writer.writeSection(ChanFilterBackupCodec, chanFilterRepository.loadAllFilters().unwrap())
+    // Taken from the managers (and not from the database) so that the changes that were not persisted
+    // yet are exported too
+    writer.writeSection(
+      NavHistoryElementBackupCodec,
+      historyNavigationManager.getAllFullyLoaded().take(HistoryNavigationManager.MAX_NAV_HISTORY_ENTRIES)
+    )
+
+    val bookmarks = bookmarksManager.getAllBookmarksSnapshot()
+
+    val bookmarksSectionWriter = writer.beginSection(ThreadBookmarkBackupCodec)
+    bookmarks.forEach { threadBookmark -> bookmarksSectionWriter.write(threadBookmark) }
+    bookmarksSectionWriter.finish()
+
+    val savedRepliesSectionWriter = writer.beginSection(ChanSavedReplyBackupCodec)
+    chanSavedReplyRepository.loadAll().unwrap()
+      .forEach { chanSavedReply -> savedRepliesSectionWriter.write(chanSavedReply) }
+    savedRepliesSectionWriter.finish()
+
+    if (!exportThreadPosts) {
+      return
+    }
+
+    chanPostRepository.awaitUntilInitialized()
+
+    // One thread at a time so that we never have more than one thread's posts in memory.
+    val threadPostsSectionWriter = writer.beginSection(ThreadPostsBackupCodec)
+    bookmarks.forEach { threadBookmark ->
+      val threadPostsBackupRecord = chanPostRepository.getThreadPostsBackupRecord(threadBookmark.threadDescriptor)
+        .unwrap()
+        ?: return@forEach
+
+      threadPostsSectionWriter.write(threadPostsBackupRecord)
+    }
+    threadPostsSectionWriter.finish()
+  }
+
+  data class Params(
+    val externalFile: ExternalFile,
+    val exportThreadPosts: Boolean,
+    val incremental: Boolean
+  )
+
+  companion object {
+    private const val TAG = "ExportLogicalBackupUseCase"
+    private const val MANIFEST_FILE_NAME = "logical_backup.manifest"
+  }
+}
@@ -2,24 +2,34 @@ package com.github.k1rakishou.chan.core.usecase
 
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
+import com.github.k1rakishou.chan.core.manager.PageRequestManager
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.parser.ChanReader
+import com.github.k1rakishou.chan.core.site.parser.ReplyParser
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.EmptyBodyResponseException
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.datastructure.LongHashSet
+import com.github.k1rakishou.common.datastructure.LongObjectMap
+import com.github.k1rakishou.common.linkedMapWithCap
 import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoCollector
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
-import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
+import com.github.k1rakishou.model.data.board.pages.BoardPages
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import okhttp3.HttpUrl
 import okhttp3.Request
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 import kotlin.math.max
 
 @Suppress("FoldInitializerAndIfToElvis")
@@ -30,9 +40,26 @@ class FetchThreadBookmarkInfoUseCase(
   private val proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>,
   private val siteManager: SiteManager,
   private val bookmarksManager: BookmarksManager,
+  private val pageRequestManager: Lazy<PageRequestManager>,
+  private val replyParser: Lazy<ReplyParser>,
+  private val savedReplyRepository: Lazy<ChanSavedReplyRepository>,
   private val appConstants: AppConstants
 ) : ISuspendUseCase<List<ChanDescriptor.ThreadDescriptor>, ModularResult<List<ThreadBookmarkFetchResult>>> {
 
+  /**
+   * Thread last modified times (taken from the board pages) of the threads the last successful fetch
+   * was made for. A thread is only fetched again once its last modified time on the board pages is
+   * different from this one.
+   * */
+  private val lastFetchedThreadModifiedMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>()
+
+  /**
+   * Amount of saved replies the thread had when its posts were scanned for replies the last time.
+   * Posts that were already scanned are only scanned again when this changes (e.g. when an old post
+   * was marked as ours).
+   * */
+  private val scannedSavedRepliesCountMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Int>()
+
   override suspend fun execute(parameter: List<ChanDescriptor.ThreadDescriptor>): ModularResult<List<ThreadBookmarkFetchResult>> {
     Logger.d(TAG, "FetchThreadBookmarkInfoUseCase.execute(${parameter.size})")
     return Try { fetchThreadBookmarkInfoBatched(parameter) }
@@ -44,7 +71,9 @@ class FetchThreadBookmarkInfoUseCase(
     val batchSize = (appConstants.processorsCount * BATCH_PER_CORE)
       .coerceAtLeast(MIN_BATCHES_COUNT)
 
-    return parallelForEach(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
+    val threadsToFetch = getChangedThreads(watchingBookmarkDescriptors)
+
+    return parallelForEach(threadsToFetch.keys, batchSize, Dispatchers.IO) { threadDescriptor ->
       val site = siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())
       if (site == null) {
         Logger.e(TAG, "Site with descriptor ${threadDescriptor.siteDescriptor()} " +
@@ -54,12 +83,89 @@ class FetchThreadBookmarkInfoUseCase(
 
       val threadJsonEndpoint = site.endpoints().thread(threadDescriptor)
 
-      return@parallelForEach fetchThreadBookmarkInfo(
+      val fetchResult = fetchThreadBookmarkInfo(
         threadDescriptor,
         threadJsonEndpoint,
         site.chanReader()
       )
+
+      val threadModified = threadsToFetch[threadDescriptor]
+      if (fetchResult is ThreadBookmarkFetchResult.Success && threadModified != null) {
+        lastFetchedThreadModifiedMap[threadDescriptor] = threadModified
+      } else {
+        lastFetchedThreadModifiedMap.remove(threadDescriptor)
+      }
+
+      return@parallelForEach fetchResult
+    }
+  }
+
+  /**
+   * Requests the pages of every board with watched threads (one request per board, fresh pages that
+   * were already loaded by [PageRequestManager] are reused) and returns the threads that have changed
+   * since they were fetched the last time mapped to their last modified time. Threads that are not on
+   * the board pages anymore (archived or deleted), threads that are fetched for the first time and all
+   * threads of boards without usable pages are always returned (with null last modified time).
+   * */
+  private suspend fun getChangedThreads(
+    watchingBookmarkDescriptors: List<ChanDescriptor.ThreadDescriptor>
+  ): Map<ChanDescriptor.ThreadDescriptor, Long?> {
+    val changedThreads = linkedMapWithCap<ChanDescriptor.ThreadDescriptor, Long?>(watchingBookmarkDescriptors.size)
+    val threadDescriptorsByBoard = watchingBookmarkDescriptors.groupBy { threadDescriptor -> threadDescriptor.boardDescriptor }
+
+    val boardPagesByBoard = loadBoardPages(threadDescriptorsByBoard.keys)
+    var unchangedThreadsCount = 0
+
+    threadDescriptorsByBoard.forEach { (boardDescriptor, threadDescriptors) ->
+      val boardPages = boardPagesByBoard[boardDescriptor]
+      if (boardPages == null) {
+        threadDescriptors.forEach { threadDescriptor -> changedThreads[threadDescriptor] = null }
+        return@forEach
+      }
+
+      val threadModifiedMap = hashMapOf<ChanDescriptor.ThreadDescriptor, Long>()
+      boardPages.boardPages.forEach { boardPage -> threadModifiedMap.putAll(boardPage.threads) }
+
+      threadDescriptors.forEach { threadDescriptor ->
+        val threadModified = threadModifiedMap[threadDescriptor]
+        val isFirstFetch = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
+          threadBookmarkView.isFirstFetch()
+        } ?: true
+
+        if (threadModified != null
+          && !isFirstFetch
+          && lastFetchedThreadModifiedMap[threadDescriptor] == threadModified
+        ) {
+          ++unchangedThreadsCount
+          return@forEach
+        }
+
+        changedThreads[threadDescriptor] = threadModified
+      }
     }
+
+    Logger.d(TAG, "getChangedThreads() watching=${watchingBookmarkDescriptors.size}, " +
+      "boards=${threadDescriptorsByBoard.size}, boardsWithPages=${boardPagesByBoard.size}, " +
+      "unchanged=${unchangedThreadsCount}, toFetch=${changedThreads.size}")
+
+    return changedThreads
+  }
+
+  private suspend fun loadBoardPages(boardDescriptors: Collection<BoardDescriptor>): Map<BoardDescriptor, BoardPages> {
+    val boardDescriptorsWithPages = boardDescriptors.filter { boardDescriptor ->
+      pageRequestManager.get().pagesTrackAllThreadChanges(boardDescriptor.siteDescriptor)
+    }
+
+    if (boardDescriptorsWithPages.isEmpty()) {
+      return emptyMap()
+    }
+
+    return parallelForEach(boardDescriptorsWithPages, MIN_BATCHES_COUNT, Dispatchers.IO) { boardDescriptor ->
+      val boardPages = pageRequestManager.get().getFreshBoardPages(boardDescriptor, BOARD_PAGES_MAX_AGE_MS)
+        ?: return@parallelForEach null
+
+      return@parallelForEach boardDescriptor to boardPages
+    }.toMap()
   }
 
   private suspend fun fetchThreadBookmarkInfo(
@@ -99,39 +205,100 @@ class FetchThreadBookmarkInfoUseCase(
       ?: return ThreadBookmarkFetchResult.Error(EmptyBodyResponseException(), threadDescriptor)
 
     return body.byteStream().use { inputStream ->
-      val postsCount = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
-        threadBookmarkView.postsCount()
+      val bookmarkInfo = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
+        BookmarkInfo(
+          postsCount = threadBookmarkView.postsCount(),
+          threadLastPostNo = threadBookmarkView.threadLastPostNo,
+          isFirstFetch = threadBookmarkView.isFirstFetch()
+        )
       }
 
-      if (postsCount == null) {
+      if (bookmarkInfo == null) {
         return@use ThreadBookmarkFetchResult.AlreadyDeleted(threadDescriptor)
       }
 
+      val savedPostNos = loadSavedPostNos(threadDescriptor)
+
+      // Replies in the posts that were already received by the previous fetch were already found
+      // back then so only the new posts have to be scanned.
+      val scanPostsAfterPostNo = if (
+        bookmarkInfo.isFirstFetch
+        || scannedSavedRepliesCountMap[threadDescriptor] != savedPostNos.size
+      ) {
+        0L
+      } else {
+        bookmarkInfo.threadLastPostNo
+      }
+
+      // Key - postNo of a post that quotes our posts, value - postNos of our posts that it quotes.
+      val quotedSavedPostNosMap = LongObjectMap<List<Long>>(16)
+
+      val collector = ThreadBookmarkInfoCollector(
+        threadDescriptor = threadDescriptor,
+        expectedCapacity = max(bookmarkInfo.postsCount, ChanReader.DEFAULT_POST_LIST_CAPACITY),
+        needPostComments = savedPostNos.isNotEmpty(),
+        keepPostObject = { postObject ->
+          if (postObject.postNo() <= scanPostsAfterPostNo) {
+            return@ThreadBookmarkInfoCollector false
+          }
+
+          val quotedSavedPostNos = replyParser.get()
+            .extractQuotedPostNosInThread(threadDescriptor, postObject.comment())
+            .filter { quotedPostNo -> quotedPostNo in savedPostNos }
+
+          if (quotedSavedPostNos.isEmpty()) {
+            return@ThreadBookmarkInfoCollector false
+          }
+
+          quotedSavedPostNosMap[postObject.postNo()] = quotedSavedPostNos
+          return@ThreadBookmarkInfoCollector true
+        }
+      )
+
       val threadBookmarkInfoObject = chanReader.readThreadBookmarkInfoObject(
         threadDescriptor,
-        max(postsCount, ChanReader.DEFAULT_POST_LIST_CAPACITY),
+        collector,
         request.url.toString(),
         inputStream
       ).safeUnwrap { error -> return@use ThreadBookmarkFetchResult.Error(error, threadDescriptor) }
 
       if (isDevFlavor && !threadDescriptor.siteDescriptor().isLainchan() && !threadDescriptor.siteDescriptor().isDiochan()) {
-        ensureCorrectPostOrder(threadBookmarkInfoObject.simplePostObjects)
+        ensureCorrectPostOrder(threadBookmarkInfoObject)
       }
 
-      return@use ThreadBookmarkFetchResult.Success(threadBookmarkInfoObject, threadDescriptor)
+      scannedSavedRepliesCountMap[threadDescriptor] = savedPostNos.size
+
+      return@use ThreadBookmarkFetchResult.Success(
+        threadBookmarkInfoObject = threadBookmarkInfoObject,
+        quotedSavedPostNosMap = quotedSavedPostNosMap,
+        threadDescriptor = threadDescriptor
+      )
     }
   }
 
-  private fun ensureCorrectPostOrder(simplePostObjects: List<ThreadBookmarkInfoPostObject>) {
-    if (simplePostObjects.isEmpty()) {
+  private suspend fun loadSavedPostNos(threadDescriptor: ChanDescriptor.ThreadDescriptor): LongHashSet {
+    val savedReplies = savedReplyRepository.get().preloadForThread(threadDescriptor)
+      .onError { error -> Logger.e(TAG, "savedReplyRepository.preloadForThread($threadDescriptor) error", error) }
+      .valueOrNull()
+
+    if (savedReplies.isNullOrEmpty()) {
+      return LongHashSet(0)
+    }
+
+    val savedPostNos = LongHashSet(savedReplies.size)
+    savedReplies.forEach { chanSavedReply -> savedPostNos.add(chanSavedReply.postDescriptor.postNo) }
+
+    return savedPostNos
+  }
+
+  private fun ensureCorrectPostOrder(threadBookmarkInfoObject: ThreadBookmarkInfoObject) {
+    if (threadBookmarkInfoObject.postsCount == 0) {
       return
     }
 
     var prevPostNo = 0L
 
-    simplePostObjects.forEach { threadBookmarkInfoPostObject ->
-      val currentPostNo = threadBookmarkInfoPostObject.postNo()
-
+    threadBookmarkInfoObject.forEachPostNo { currentPostNo ->
       check(prevPostNo <= currentPostNo) {
         "Incorrect post ordering detected: (prevPostNo=$prevPostNo, currentPostNo=${currentPostNo}"
       }
@@ -140,11 +307,19 @@ class FetchThreadBookmarkInfoUseCase(
     }
   }
 
+  private class BookmarkInfo(
+    val postsCount: Int,
+    val threadLastPostNo: Long,
+    val isFirstFetch: Boolean
+  )
+
   companion object {
     private const val TAG = "FetchThreadBookmarkInfoUseCase"
     private const val BATCH_PER_CORE = 4
     private const val MIN_BATCHES_COUNT = 8
     private const val NOT_FOUND_STATUS = 404
+
+    private val BOARD_PAGES_MAX_AGE_MS = TimeUnit.SECONDS.toMillis(30)
   }
 }
 
@@ -169,6 +344,9 @@ sealed class ThreadBookmarkFetchResult(val threadDescriptor: ChanDescriptor.Thre
 
   class Success(
     val threadBookmarkInfoObject: ThreadBookmarkInfoObject,
+    // Key - postNo of a post from ThreadBookmarkInfoObject.replyPostObjects, value - postNos of our
+    // posts that it quotes.
+    val quotedSavedPostNosMap: LongObjectMap<List<Long>>,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) : ThreadBookmarkFetchResult(threadDescriptor)
 }
\ No newline at end of file
@@ -36,7 +36,7 @@ class GetThreadBookmarkGroupIdsUseCase(
           return@forEach
         }
 
-        val chanOriginalPost = chanThreadManager.getChanThread(threadDescriptor)?.getOriginalPostSafe()
+        val chanOriginalPost = chanThreadManager.getOriginalPost(threadDescriptor)
         if (chanOriginalPost == null) {
           resultMap[threadDescriptor] = defaultGroup()
           return@forEach
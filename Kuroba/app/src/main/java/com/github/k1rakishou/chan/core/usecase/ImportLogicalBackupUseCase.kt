@@ -0,0 +1,223 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.chan.core.manager.BoardManager
+import com.github.k1rakishou.chan.core.manager.BookmarksManager
+import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
+import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.fsaf.FileManager
+import com.github.k1rakishou.fsaf.file.ExternalFile
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmark
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.navigation.NavHistoryElement
+import com.github.k1rakishou.model.repository.ChanFilterRepository
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+import com.github.k1rakishou.model.source.backup.LogicalBackupReader
+import com.github.k1rakishou.model.source.backup.codec.ChanFilterBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ChanSavedReplyBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.NavHistoryElementBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ThreadBookmarkBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ThreadPostsBackupCodec
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import java.io.IOException
+import kotlin.time.ExperimentalTime
+import kotlin.time.measureTime
+
+/**
+ * Restores a logical backup on top of the existing data. Every chunk of the backup is restored as
+ * one batch (one transaction) as soon as it's read. Records of the boards that don't exist
+ * anymore are skipped. Bookmarks and the navigation history are applied through their managers once
+ * the whole backup is read so that the managers don't overwrite them with their own state.
+ * */
+class ImportLogicalBackupUseCase(
+  private val fileManager: FileManager,
+  private val boardManager: BoardManager,
+  private val chanFilterRepository: ChanFilterRepository,
+  private val bookmarksManager: BookmarksManager,
+  private val chanSavedReplyRepository: ChanSavedReplyRepository,
+  private val historyNavigationManager: HistoryNavigationManager,
+  private val chanPostRepository: ChanPostRepository
+) : ISuspendUseCase<ExternalFile, ModularResult<Unit>> {
+
+  override suspend fun execute(parameter: ExternalFile): ModularResult<Unit> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    return ModularResult.Try { importInternal(parameter) }
+  }
+
+  @OptIn(ExperimentalTime::class)
+  private suspend fun importInternal(backupFile: ExternalFile) {
+    val inputStream = fileManager.getInputStream(backupFile)
+      ?: throw IOException("Failed to open input stream for file '${backupFile.getFullPath()}'")
+
+    boardManager.awaitUntilInitialized()
+    chanPostRepository.awaitUntilInitialized()
+
+    val importState = ImportState()
+
+    val duration = measureTime {
+      LogicalBackupReader(inputStream).use { reader ->
+        Logger.d(TAG, "Import start, header=${reader.header}")
+
+        while (true) {
+          val chunk = reader.nextChunk()
+            ?: break
+
+          importChunk(chunk, importState)
+        }
+      }
+
+      bookmarksManager.importBookmarks(importState.bookmarks.values, importState.deletedBookmarks)
+
+      importState.navHistory?.let { navHistory ->
+        // The restored history goes on top of the current one
+        historyNavigationManager.importNavElements(navHistory.take(HistoryNavigationManager.MAX_NAV_HISTORY_ENTRIES))
+      }
+    }
+
+    Logger.d(TAG, "Import success! took ${duration}, skippedRecords=${importState.skippedRecords}")
+  }
+
+  private suspend fun importChunk(chunk: LogicalBackupReader.Chunk, importState: ImportState) {
+    val section = chunk.section
+    val chunkType = chunk.chunkType
+
+    if (section == null || chunkType == null) {
+      Logger.d(TAG, "Skipping unknown chunk (section=${section}, chunkType=${chunkType})")
+      return
+    }
+
+    when (chunkType) {
+      LogicalBackup.ChunkType.Records -> importRecords(section, chunk, importState)
+      LogicalBackup.ChunkType.DeletedKeys -> importDeletedKeys(section, chunk, importState)
+    }
+  }
+
+  private suspend fun importRecords(
+    section: LogicalBackup.Section,
+    chunk: LogicalBackupReader.Chunk,
+    importState: ImportState
+  ) {
+    when (section) {
+      LogicalBackup.Section.Filters -> {
+        importFilters(chunk.readRecords(ChanFilterBackupCodec))
+      }
+      LogicalBackup.Section.NavHistory -> {
+        val navHistory = importState.navHistory ?: mutableListOf()
+        navHistory += chunk.readRecords(NavHistoryElementBackupCodec)
+        importState.navHistory = navHistory
+      }
+      LogicalBackup.Section.Bookmarks -> {
+        val threadBookmarks = filterExistingBoards(chunk.readRecords(ThreadBookmarkBackupCodec), importState) { threadBookmark ->
+          threadBookmark.threadDescriptor.boardDescriptor
+        }
+
+        // Bookmarks reference threads so they must exist before the bookmarks are persisted
+        chanPostRepository.createManyEmptyThreadsIfNotExist(
+          threadBookmarks.map { threadBookmark -> threadBookmark.threadDescriptor }
+        ).unwrap()
+
+        threadBookmarks.forEach { threadBookmark ->
+          importState.bookmarks[threadBookmark.threadDescriptor] = threadBookmark
+          importState.deletedBookmarks.remove(threadBookmark.threadDescriptor)
+        }
+      }
+      LogicalBackup.Section.SavedReplies -> {
+        val savedReplies = filterExistingBoards(chunk.readRecords(ChanSavedReplyBackupCodec), importState) { chanSavedReply ->
+          chanSavedReply.postDescriptor.boardDescriptor()
+        }
+
+        chanSavedReplyRepository.saveMany(savedReplies).unwrap()
+      }
+      LogicalBackup.Section.ThreadPosts -> {
+        val records = filterExistingBoards(chunk.readRecords(ThreadPostsBackupCodec), importState) { record ->
+          record.threadDescriptor.boardDescriptor
+        }
+
+        chanPostRepository.restoreThreadPostsFromBackup(records).unwrap()
+      }
+    }
+  }
+
+  private suspend fun importDeletedKeys(
+    section: LogicalBackup.Section,
+    chunk: LogicalBackupReader.Chunk,
+    importState: ImportState
+  ) {
+    when (section) {
+      LogicalBackup.Section.Bookmarks -> {
+        chunk.readDeletedKeys(ThreadBookmarkBackupCodec)
+          .forEach { threadDescriptor ->
+            importState.bookmarks.remove(threadDescriptor)
+            importState.deletedBookmarks.add(threadDescriptor)
+          }
+      }
+      LogicalBackup.Section.SavedReplies -> {
+        chanSavedReplyRepository.unsavePosts(chunk.readDeletedKeys(ChanSavedReplyBackupCodec)).unwrap()
+      }
+      LogicalBackup.Section.ThreadPosts -> {
+        // Posts are a cache which is cleaned up on its own, there is no need to delete them
+      }
+      LogicalBackup.Section.Filters,
+      LogicalBackup.Section.NavHistory -> {
+        throw IOException("Section ${section} cannot have deleted keys")
+      }
+    }
+  }
+
+  /**
+   * Filters have no identity other than their content so only the filters that don't exist yet are
+   * created (at the end of the list).
+   * */
+  private suspend fun importFilters(restoredFilters: List<ChanFilter>) {
+    val existingFilters = chanFilterRepository.loadAllFilters().unwrap()
+    val existingEncodedFilters = existingFilters
+      .mapTo(hashSetOf()) { chanFilter -> encodeFilter(chanFilter) }
+
+    var order = existingFilters.size
+
+    restoredFilters.forEach { chanFilter ->
+      if (!existingEncodedFilters.add(encodeFilter(chanFilter))) {
+        return@forEach
+      }
+
+      chanFilterRepository.createFilter(chanFilter, order++).unwrap()
+    }
+  }
+
+  private inline fun <T> filterExistingBoards(
+    records: List<T>,
+    importState: ImportState,
+    boardDescriptorSelector: (T) -> BoardDescriptor
+  ): List<T> {
+    val filtered = records.filter { record -> boardManager.byBoardDescriptor(boardDescriptorSelector(record)) != null }
+    importState.skippedRecords += records.size - filtered.size
+
+    return filtered
+  }
+
+  private fun encodeFilter(chanFilter: ChanFilter): ByteString {
+    val output = BackupOutput()
+    ChanFilterBackupCodec.write(output, chanFilter)
+
+    return output.copyOfRange(0).toByteString()
+  }
+
+  private class ImportState(
+    val bookmarks: MutableMap<ChanDescriptor.ThreadDescriptor, ThreadBookmark> = linkedMapOf(),
+    val deletedBookmarks: MutableSet<ChanDescriptor.ThreadDescriptor> = linkedSetOf(),
+    var navHistory: MutableList<NavHistoryElement>? = null,
+    var skippedRecords: Int = 0
+  )
+
+  companion object {
+    private const val TAG = "ImportLogicalBackupUseCase"
+  }
+}
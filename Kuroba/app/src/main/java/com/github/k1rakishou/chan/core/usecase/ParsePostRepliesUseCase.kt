@@ -1,31 +1,17 @@
 package com.github.k1rakishou.chan.core.usecase
 
 import com.github.k1rakishou.chan.core.manager.SiteManager
-import com.github.k1rakishou.chan.core.site.parser.ReplyParser
-import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.datastructure.LongObjectMap
 import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
-import com.github.k1rakishou.common.putIfNotContains
-import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
-import com.github.k1rakishou.model.data.post.ChanSavedReply
-import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
-import dagger.Lazy
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
-
-typealias YousPerThreadMap = Map<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>>
+
+// Key - postNo of our post, value - replies to that post.
+typealias YousPerThreadMap = Map<ChanDescriptor.ThreadDescriptor, LongObjectMap<List<ReplyToMyPost>>>
 
 class ParsePostRepliesUseCase(
-  private val appScope: CoroutineScope,
-  private val replyParser: Lazy<ReplyParser>,
-  private val siteManager: SiteManager,
-  private val savedReplyRepository: Lazy<ChanSavedReplyRepository>
+  private val siteManager: SiteManager
 ) : ISuspendUseCase<List<ThreadBookmarkFetchResult.Success>, YousPerThreadMap> {
 
   override suspend fun execute(parameter: List<ThreadBookmarkFetchResult.Success>): YousPerThreadMap {
@@ -34,154 +20,75 @@ class ParsePostRepliesUseCase(
     return parsePostReplies(parameter)
   }
 
-  private suspend fun parsePostReplies(
+  private fun parsePostReplies(
     successThreadBookmarkFetchResults: List<ThreadBookmarkFetchResult.Success>
-  ): Map<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>> {
+  ): YousPerThreadMap {
     val cap = successThreadBookmarkFetchResults.size
-    val quotesToMePerThreadMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>>(cap)
-    val mutex = Mutex()
-
-    successThreadBookmarkFetchResults
-      .chunked(BATCH_SIZE)
-      .forEach { chunk ->
-        chunk.map { successFetchResult ->
-          appScope.async(Dispatchers.IO) {
-            return@async ModularResult.Try {
-              val threadDescriptor = successFetchResult.threadDescriptor
-              val quotesToMeInThreadMap = parsePostRepliesWorker(successFetchResult)
-
-              mutex.withLock {
-                quotesToMePerThreadMap[threadDescriptor] = quotesToMeInThreadMap
-              }
-            }.safeUnwrap { error ->
-              Logger.e(TAG, "Error parsing post replies", error)
-              return@async
-            }
-          }
-        }.awaitAll()
-      }
+    val quotesToMePerThreadMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, LongObjectMap<List<ReplyToMyPost>>>(cap)
+
+    successThreadBookmarkFetchResults.forEach { successFetchResult ->
+      val threadDescriptor = successFetchResult.threadDescriptor
+      val quotesToMeInThreadMap = parsePostRepliesWorker(successFetchResult)
+        ?: return@forEach
+
+      quotesToMePerThreadMap[threadDescriptor] = quotesToMeInThreadMap
+    }
 
     return quotesToMePerThreadMap
   }
 
-  private suspend fun parsePostRepliesWorker(
+  private fun parsePostRepliesWorker(
     successFetchResult: ThreadBookmarkFetchResult.Success
-  ): Map<Long, List<ReplyToMyPost>> {
+  ): LongObjectMap<List<ReplyToMyPost>>? {
     val threadDescriptor = successFetchResult.threadDescriptor
+    val quotedSavedPostNosMap = successFetchResult.quotedSavedPostNosMap
 
-    // Key - postNo of a post that quotes other posts.
-    // Value - set of postNo that the "Key" quotes.
-    val quoteOwnerPostsMap = mutableMapWithCap<Long, MutableSet<TempReplyToMyPost>>(32)
-
-    successFetchResult.threadBookmarkInfoObject.simplePostObjects.forEach { simplePostObject ->
-      val extractedQuotes = replyParser.get().extractCommentReplies(
-        threadDescriptor.siteDescriptor(),
-        simplePostObject.comment()
-      )
-
-      extractedQuotes.forEach { extractedQuote ->
-        when (extractedQuote) {
-          is ReplyParser.ExtractedQuote.FullQuote -> {
-            val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
-              && extractedQuote.threadId == threadDescriptor.threadNo)
-
-            if (!isQuotedPostInTheSameThread) {
-              // Cross-thread reply or something like that, we don't support it since it shouldn't
-              // be used normally. The only use case that come to mind is when there are two
-              // different threads bookmarked and someone from one bookmarked thread replied to our
-              // post in another bookmarked thread. Normally, nobody would expect for this to work
-              // and that's why we don't support it.
-              return@forEach
-            }
-
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-          is ReplyParser.ExtractedQuote.Quote -> {
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-        }
-      }
-    }
-
-    if (quoteOwnerPostsMap.isEmpty()) {
-      return emptyMap()
+    if (quotedSavedPostNosMap.isEmpty()) {
+      return null
     }
 
     if (siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor()) == null) {
-      return emptyMap()
+      return null
     }
 
-    val threadSavedReplies = savedReplyRepository.get().preloadForThread(threadDescriptor)
-      .onError { error -> Logger.e(TAG, "savedReplyRepository.preloadForThread($threadDescriptor) error", error) }
-      .valueOrNull() ?: emptyList()
+    // Key - postNo of our post that is quoted by other posts.
+    // Value - set of posts that quote the "Key".
+    val quoteOwnerPostsMap = LongObjectMap<MutableSet<TempReplyToMyPost>>(16)
 
-    if (threadSavedReplies.isEmpty()) {
-      return emptyMap()
-    }
+    // Only contains posts that quote our posts, the quotes were already extracted by
+    // FetchThreadBookmarkInfoUseCase so there is no need to parse the comments again.
+    successFetchResult.threadBookmarkInfoObject.replyPostObjects.forEach { simplePostObject ->
+      val quotedSavedPostNos = quotedSavedPostNosMap[simplePostObject.postNo()]
+        ?: return@forEach
 
-    val quotesToMeInThreadMap = retainSavedPostNoMap(
-      threadSavedReplies,
-      quoteOwnerPostsMap
-    )
+      val tempReplyToMyPost = TempReplyToMyPost(
+        simplePostObject.postNo(),
+        simplePostObject.comment()
+      )
 
-    if (quotesToMeInThreadMap.isEmpty()) {
-      return emptyMap()
+      quotedSavedPostNos.forEach { quotedSavedPostNo ->
+        quoteOwnerPostsMap.getOrPut(quotedSavedPostNo) { hashSetWithCap(16) }.add(tempReplyToMyPost)
+      }
     }
 
-    val quotePostDescriptorsMap = HashMap<Long, MutableList<ReplyToMyPost>>(quotesToMeInThreadMap.size)
+    if (quoteOwnerPostsMap.isEmpty()) {
+      return null
+    }
 
-    quotesToMeInThreadMap.forEach { (myPostNo, repliesToMeSet) ->
-      quotePostDescriptorsMap.putIfNotContains(myPostNo, ArrayList(repliesToMeSet.size))
+    val quotePostDescriptorsMap = LongObjectMap<List<ReplyToMyPost>>(16)
 
-      repliesToMeSet.forEach { tempReplyToMyPost ->
-        val replyToMyPost = ReplyToMyPost(
+    quoteOwnerPostsMap.forEach { quotePostNo, repliesToMeSet ->
+      quotePostDescriptorsMap[quotePostNo] = repliesToMeSet.map { tempReplyToMyPost ->
+        ReplyToMyPost(
           PostDescriptor.create(threadDescriptor, tempReplyToMyPost.postNo),
           tempReplyToMyPost.commentRaw
         )
-
-        quotePostDescriptorsMap[myPostNo]!!.add(replyToMyPost)
       }
     }
 
     return quotePostDescriptorsMap
   }
 
-  private fun retainSavedPostNoMap(
-    threadSavedReplies: List<ChanSavedReply>,
-    quoteOwnerPostsMap: Map<Long, Set<TempReplyToMyPost>>
-  ): Map<Long, MutableSet<TempReplyToMyPost>> {
-    val resultMap: MutableMap<Long, MutableSet<TempReplyToMyPost>> = mutableMapWithCap(16)
-
-    val savedRepliesNoSet = threadSavedReplies
-      .map { chanSavedReply -> chanSavedReply.postDescriptor.postNo }
-      .toSet()
-
-    for ((quotePostNo, tempReplies) in quoteOwnerPostsMap) {
-      for (tempReply in tempReplies) {
-        if (!savedRepliesNoSet.contains(quotePostNo)) {
-          continue
-        }
-
-        resultMap.putIfNotContains(quotePostNo, mutableSetOf())
-        resultMap[quotePostNo]!!.add(tempReply)
-      }
-    }
-
-    return resultMap
-  }
-
   class TempReplyToMyPost(
     val postNo: Long,
     val commentRaw: String
@@ -210,7 +117,6 @@ class ParsePostRepliesUseCase(
 
   companion object {
     private const val TAG = "ParsePostRepliesUseCase"
-    private const val BATCH_SIZE = 8
   }
 }
 
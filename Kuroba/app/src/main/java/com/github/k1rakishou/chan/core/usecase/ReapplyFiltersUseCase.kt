@@ -0,0 +1,235 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.PostFilterInput
+import com.github.k1rakishou.chan.core.manager.PostFilterManager
+import com.github.k1rakishou.chan.core.manager.IPostHideManager
+import com.github.k1rakishou.common.parallelForEach
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.post.PostFilter
+import dagger.Lazy
+import kotlinx.coroutines.Dispatchers
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.ExperimentalTime
+import kotlin.time.measureTimedValue
+
+/**
+ * Re-evaluates the filters that were created/updated/deleted against the [PostFilterInput]s of all
+ * the posts that went through the filters (see [PostFilterManager.getAllFilterInputs]) and updates
+ * their post filters. Posts are neither reloaded from the database nor parsed again.
+ *
+ * Posts get the post filter of the first enabled filter (in the order of the filters list) that
+ * matches them. So when some filters change, for every post we only need to:
+ * - Re-run all the filters if the post filter was created by one of the changed filters (or by a
+ * filter that is not enabled anymore), since the post may not match it anymore.
+ * - Otherwise run only the changed filters that precede the filter that created the post filter
+ * (all of the changed filters when the post has no post filter). If one of them matches then it
+ * takes over the post.
+ *
+ * This only works when every processed post has its [PostFilterInput] stored. When some posts were
+ * processed while there were no enabled filters (see [PostFilterManager.hasAllFilterInputs]) nothing
+ * is re-applied and [Result.postsNeedReparsing] is set instead.
+ * */
+class ReapplyFiltersUseCase(
+  private val _filterEngine: Lazy<FilterEngine>,
+  private val _postFilterManager: Lazy<PostFilterManager>,
+  private val _postHideManager: Lazy<out IPostHideManager>
+) : ISuspendUseCase<ReapplyFiltersUseCase.Parameter, ReapplyFiltersUseCase.Result> {
+
+  private val filterEngine: FilterEngine
+    get() = _filterEngine.get()
+  private val postFilterManager: PostFilterManager
+    get() = _postFilterManager.get()
+  private val postHideManager: IPostHideManager
+    get() = _postHideManager.get()
+
+  @OptIn(ExperimentalTime::class)
+  override suspend fun execute(parameter: Parameter): Result {
+    val (result, duration) = measureTimedValue { executeInternal(parameter) }
+
+    Logger.d(TAG, "execute(changedFilters=${parameter.changedFilterIds.size}, " +
+      "enabledFilters=${parameter.enabledFilters.size}) processedPosts=${result.processedPostsCount}, " +
+      "updatedPosts=${result.updatedPosts.size}, postsNeedReparsing=${result.postsNeedReparsing}, " +
+      "took ${duration}")
+
+    return result
+  }
+
+  @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+  suspend fun executeInternal(parameter: Parameter): Result {
+    if (parameter.changedFilterIds.isEmpty()) {
+      return Result(processedPostsCount = 0, updatedPosts = emptySet())
+    }
+
+    if (!postFilterManager.hasAllFilterInputs()) {
+      return Result(processedPostsCount = 0, updatedPosts = emptySet(), postsNeedReparsing = true)
+    }
+
+    val postFilterInputs = postFilterManager.getAllFilterInputs()
+    if (postFilterInputs.isEmpty()) {
+      return Result(processedPostsCount = 0, updatedPosts = emptySet())
+    }
+
+    val filterOrder = HashMap<Long, Int>(parameter.enabledFilters.size)
+    parameter.enabledFilters.forEachIndexed { index, chanFilter ->
+      filterOrder[chanFilter.getDatabaseId()] = index
+    }
+
+    val boardFiltersCache = BoardFiltersCache(parameter.enabledFilters, parameter.changedFilterIds)
+    val chunkSize = (postFilterInputs.size / THREAD_COUNT) + 1
+
+    val updatedPosts = parallelForEach(
+      dataList = postFilterInputs.chunked(chunkSize),
+      parallelization = THREAD_COUNT,
+      dispatcher = Dispatchers.Default
+    ) { postFilterInputsChunk ->
+      val updatedPostsInChunk = mutableListOf<PostDescriptor>()
+
+      for (postFilterInput in postFilterInputsChunk) {
+        val updated = reapplyFilters(
+          postFilterInput = postFilterInput,
+          changedFilterIds = parameter.changedFilterIds,
+          filterOrder = filterOrder,
+          boardFiltersCache = boardFiltersCache
+        )
+
+        if (updated) {
+          updatedPostsInChunk += postFilterInput.postDescriptor
+        }
+      }
+
+      return@parallelForEach updatedPostsInChunk
+    }.flatten().toSet()
+
+    return Result(processedPostsCount = postFilterInputs.size, updatedPosts = updatedPosts)
+  }
+
+  /**
+   * Returns true if the post filter of the post was created, updated or removed.
+   * */
+  private fun reapplyFilters(
+    postFilterInput: PostFilterInput,
+    changedFilterIds: Set<Long>,
+    filterOrder: Map<Long, Int>,
+    boardFiltersCache: BoardFiltersCache
+  ): Boolean {
+    val postDescriptor = postFilterInput.postDescriptor
+
+    if (postHideManager.contains(postDescriptor)) {
+      // Same as when processing the filters during the posts parsing, the user has already
+      // hidden/removed or restored this post manually.
+      return false
+    }
+
+    val prevPostFilter = postFilterManager.getPostFilter(postDescriptor)
+    val ownerFilterId = prevPostFilter?.ownerFilterId
+
+    if (prevPostFilter != null && ownerFilterId == null) {
+      // Not created by a filter
+      return false
+    }
+
+    val ownerFilterOrder = ownerFilterId?.let { filterId -> filterOrder[filterId] }
+    val boardFilters = boardFiltersCache.get(postDescriptor.boardDescriptor())
+
+    val reapplyAllFilters = ownerFilterId != null
+      && (ownerFilterId in changedFilterIds || ownerFilterOrder == null)
+
+    if (reapplyAllFilters) {
+      val matchedFilter = filterEngine.findFirstMatchingFilter(boardFilters.allFilters, postFilterInput)
+      if (matchedFilter == null) {
+        postFilterManager.remove(postDescriptor)
+        return true
+      }
+
+      return updatePostFilter(postDescriptor, prevPostFilter, matchedFilter)
+    }
+
+    val filtersToCheck = if (ownerFilterOrder == null) {
+      boardFilters.changedFilters
+    } else {
+      boardFilters.changedFilters.filter { chanFilter ->
+        val order = filterOrder[chanFilter.getDatabaseId()] ?: Int.MAX_VALUE
+        return@filter order < ownerFilterOrder
+      }
+    }
+
+    if (filtersToCheck.isEmpty()) {
+      return false
+    }
+
+    val matchedFilter = filterEngine.findFirstMatchingFilter(filtersToCheck, postFilterInput)
+      ?: return false
+
+    return updatePostFilter(postDescriptor, prevPostFilter, matchedFilter)
+  }
+
+  private fun updatePostFilter(
+    postDescriptor: PostDescriptor,
+    prevPostFilter: PostFilter?,
+    matchedFilter: ChanFilter
+  ): Boolean {
+    val newPostFilter = filterEngine.createPostFilter(matchedFilter)
+    if (newPostFilter == prevPostFilter) {
+      return false
+    }
+
+    postFilterManager.insert(postDescriptor, newPostFilter)
+    return true
+  }
+
+  /**
+   * Enabled filters (all of them and only the changed ones) that can be applied to the posts of a
+   * board. Most of the time all posts belong to a couple of boards so there is no need to check
+   * every filter against the board of every post.
+   * */
+  private class BoardFiltersCache(
+    private val enabledFilters: List<ChanFilter>,
+    private val changedFilterIds: Set<Long>
+  ) {
+    private val cache = ConcurrentHashMap<BoardDescriptor, BoardFilters>()
+
+    fun get(boardDescriptor: BoardDescriptor): BoardFilters {
+      return cache.getOrPut(boardDescriptor) {
+        val allFilters = enabledFilters.filter { chanFilter -> chanFilter.matchesBoard(boardDescriptor) }
+        val changedFilters = allFilters.filter { chanFilter -> chanFilter.getDatabaseId() in changedFilterIds }
+
+        return@getOrPut BoardFilters(allFilters, changedFilters)
+      }
+    }
+  }
+
+  private class BoardFilters(
+    val allFilters: List<ChanFilter>,
+    val changedFilters: List<ChanFilter>
+  )
+
+  /**
+   * [enabledFilters] must be sorted the same way as ChanFilterManager.getEnabledFiltersSorted()
+   * sorts them. [changedFilterIds] are the database ids of the created/updated/deleted filters.
+   * */
+  class Parameter(
+    val enabledFilters: List<ChanFilter>,
+    val changedFilterIds: Set<Long>
+  )
+
+  /**
+   * [postsNeedReparsing] is true when the filters could not be re-applied because some of the posts
+   * have no [PostFilterInput] stored. The caller must clear the post filters and parse the posts again.
+   * */
+  class Result(
+    val processedPostsCount: Int,
+    val updatedPosts: Set<PostDescriptor>,
+    val postsNeedReparsing: Boolean = false
+  )
+
+  companion object {
+    private const val TAG = "ReapplyFiltersUseCase"
+    private val THREAD_COUNT = Runtime.getRuntime().availableProcessors()
+  }
+
+}
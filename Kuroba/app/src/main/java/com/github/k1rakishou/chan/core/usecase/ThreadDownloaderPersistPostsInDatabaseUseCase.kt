@@ -117,15 +117,25 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
     val postParser = chanReader.getParser()
       ?: throw NullPointerException("PostParser cannot be null!")
 
+    val postBuildersToParse = chanReaderProcessor.getToParse()
+
+    // Store the raw post hashes alongside the posts so that we can skip parsing unchanged posts
+    // when this thread is opened after the app restart. Must be calculated before the posts are
+    // parsed because parsing modifies the builders.
+    val rawPostHashes = postBuildersToParse.associate { postBuilder ->
+      postBuilder.postDescriptor to postBuilder.getPostHash
+    }
+
     val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
       chanDescriptor = threadDescriptor,
       postParser = postParser,
-      postBuildersToParse = chanReaderProcessor.getToParse()
+      postBuildersToParse = postBuildersToParse
     )
 
     chanPostRepository.insertOrUpdatePostsInDatabase(
       ownerThreadDatabaseId,
-      parsingResult.parsedPosts
+      parsingResult.parsedPosts,
+      rawPostHashes
     ).unwrap()
 
     Logger.d(TAG, "downloadThreadPosts() deleted: ${chanReaderProcessor.deleted}, " +
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.watcher
 
 import android.content.Context
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
 import com.github.k1rakishou.chan.core.manager.ApplicationVisibility
 import com.github.k1rakishou.chan.core.manager.ApplicationVisibilityManager
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
@@ -19,7 +20,6 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.consumeEach
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.isActive
@@ -37,7 +37,8 @@ class BookmarkForegroundWatcher(
   private val archivesManager: ArchivesManager,
   private val bookmarkWatcherDelegate: Lazy<BookmarkWatcherDelegate>,
   private val applicationVisibilityManager: ApplicationVisibilityManager,
-  private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager
+  private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager,
+  private val refreshScheduler: RefreshScheduler
 ) {
   private val channel = Channel<Unit>(Channel.RENDEZVOUS)
   private val workJob = AtomicReference<Job?>(null)
@@ -234,7 +235,10 @@ class BookmarkForegroundWatcher(
       val additionalInterval = calculateAndLogAdditionalInterval()
 
       Logger.d(TAG, "updateBookmarksWorkerLoop() start waiting...")
-      delay(foregroundWatchIntervalMs() + additionalInterval)
+      refreshScheduler.awaitRefresh(
+        tag = TAG,
+        intervalMs = foregroundWatchIntervalMs() + additionalInterval
+      )
       Logger.d(TAG, "updateBookmarksWorkerLoop() start ...OK")
 
       if (!isActive) {
@@ -15,6 +15,7 @@ import com.github.k1rakishou.chan.core.usecase.ThreadBookmarkFetchResult
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.datastructure.LongObjectMap
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.isExceptionImportant
 import com.github.k1rakishou.core_logger.Logger
@@ -243,20 +244,14 @@ class BookmarkWatcherDelegate(
     }.toList()
 
     val updatedBookmarkDescriptors = fetchResultPairsList.mapNotNull { (threadDescriptor, threadBookmarkInfoObject) ->
-      val quotesToMeMap = postsQuotingMe[threadDescriptor] ?: emptyMap()
-
-      val originalPost = threadBookmarkInfoObject.simplePostObjects.firstOrNull { postObject ->
-        postObject is ThreadBookmarkInfoPostObject.OriginalPost
-      } as? ThreadBookmarkInfoPostObject.OriginalPost
-
-      checkNotNull(originalPost) { "threadBookmarkInfoObject has no OP!" }
+      val quotesToMeMap = postsQuotingMe[threadDescriptor]
 
       return@mapNotNull bookmarksManager.updateBookmarkNoPersist(threadDescriptor) { threadBookmark ->
         updateSingleBookmark(
           threadBookmark = threadBookmark,
           threadDescriptor = threadDescriptor,
           threadBookmarkInfoObject = threadBookmarkInfoObject,
-          originalPost = originalPost,
+          originalPost = threadBookmarkInfoObject.originalPost,
           quotesToMeMap = quotesToMeMap
         )
       }
@@ -270,7 +265,7 @@ class BookmarkWatcherDelegate(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
     threadBookmarkInfoObject: ThreadBookmarkInfoObject,
     originalPost: ThreadBookmarkInfoPostObject.OriginalPost,
-    quotesToMeMap: Map<Long, List<ReplyToMyPost>>
+    quotesToMeMap: LongObjectMap<List<ReplyToMyPost>>?
   ) {
     // If we have just bookmarked this thread then use the last viewed post no to mark all posts
     // with postNo less than lastViewedPostNo as seen (as well as replies and notifications). We
@@ -306,9 +301,13 @@ class BookmarkWatcherDelegate(
       threadBookmark.seenPostsCount = threadBookmarkInfoObject.countAmountOfSeenPosts(lastViewedPostNo)
     }
 
-    quotesToMeMap.forEach { (myPostNo, replyToMyPostList) ->
+    // Only the posts that came after the previous fetch are scanned for replies so the replies
+    // we have already found are not reported again and have to be updated here.
+    updateExistingRepliesToMyPosts(threadBookmark, lastViewedPostNo)
+
+    quotesToMeMap?.forEach { myPostNo, replyToMyPostList ->
       replyToMyPostList.forEach { replyToMyPost ->
-        createOrUpdateReplyToMyPosts(
+        createReplyToMyPost(
           threadBookmark = threadBookmark,
           replyToMyPost = replyToMyPost,
           threadDescriptor = threadDescriptor,
@@ -318,12 +317,7 @@ class BookmarkWatcherDelegate(
       }
     }
 
-    val newPostsCount = threadBookmarkInfoObject.simplePostObjects
-      .count { threadBookmarkInfoPostObject ->
-        val postNo = threadBookmarkInfoPostObject.postNo()
-
-        return@count postNo > lastViewedPostNo
-      }
+    val newPostsCount = threadBookmarkInfoObject.countAmountOfNewPosts(lastViewedPostNo)
 
     threadBookmark.updateSeenPostCountAfterFetch(newPostsCount)
     threadBookmark.setBumpLimit(originalPost.isBumpLimit)
@@ -341,33 +335,9 @@ class BookmarkWatcherDelegate(
     threadBookmark.clearFirstFetchFlag()
   }
 
-  private fun createOrUpdateReplyToMyPosts(
-    threadBookmark: ThreadBookmark,
-    replyToMyPost: ReplyToMyPost,
-    threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    myPostNo: Long,
-    lastViewedPostNo: Long
-  ) {
-    val postReplyDescriptor = replyToMyPost.postDescriptor
-    val alreadyRead = lastViewedPostNo >= postReplyDescriptor.postNo
-
-    if (!threadBookmark.threadBookmarkReplies.containsKey(postReplyDescriptor)) {
-      threadBookmark.threadBookmarkReplies[postReplyDescriptor] = ThreadBookmarkReply(
-        postDescriptor = postReplyDescriptor,
-        repliesTo = PostDescriptor.create(threadDescriptor, myPostNo),
-        // If lastViewPostNo is greater or equal to reply's postNo then we have already seen/read
-        // that reply and we don't need to notify the user about it. This happens when the user
-        // replies to a thread then someone else replies to him and before we update the bookmarks
-        // the user scroll below the reply position. In such case we don't want to show any kind
-        // of notifications because the user has already seen/read the reply.
-        alreadySeen = alreadyRead,
-        alreadyNotified = alreadyRead,
-        alreadyRead = alreadyRead,
-        time = DateTime.now(),
-        commentRaw = replyToMyPost.commentRaw
-      )
-    } else {
-      val existingReply = checkNotNull(threadBookmark.threadBookmarkReplies[postReplyDescriptor])
+  private fun updateExistingRepliesToMyPosts(threadBookmark: ThreadBookmark, lastViewedPostNo: Long) {
+    threadBookmark.threadBookmarkReplies.values.forEach { existingReply ->
+      val alreadyRead = lastViewedPostNo >= existingReply.postDescriptor.postNo
 
       // Mark replies as seen and notified if necessary
       if (!existingReply.alreadySeen) {
@@ -384,6 +354,36 @@ class BookmarkWatcherDelegate(
     }
   }
 
+  private fun createReplyToMyPost(
+    threadBookmark: ThreadBookmark,
+    replyToMyPost: ReplyToMyPost,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    myPostNo: Long,
+    lastViewedPostNo: Long
+  ) {
+    val postReplyDescriptor = replyToMyPost.postDescriptor
+    if (threadBookmark.threadBookmarkReplies.containsKey(postReplyDescriptor)) {
+      return
+    }
+
+    val alreadyRead = lastViewedPostNo >= postReplyDescriptor.postNo
+
+    threadBookmark.threadBookmarkReplies[postReplyDescriptor] = ThreadBookmarkReply(
+      postDescriptor = postReplyDescriptor,
+      repliesTo = PostDescriptor.create(threadDescriptor, myPostNo),
+      // If lastViewPostNo is greater or equal to reply's postNo then we have already seen/read
+      // that reply and we don't need to notify the user about it. This happens when the user
+      // replies to a thread then someone else replies to him and before we update the bookmarks
+      // the user scroll below the reply position. In such case we don't want to show any kind
+      // of notifications because the user has already seen/read the reply.
+      alreadySeen = alreadyRead,
+      alreadyNotified = alreadyRead,
+      alreadyRead = alreadyRead,
+      time = DateTime.now(),
+      commentRaw = replyToMyPost.commentRaw
+    )
+  }
+
   @OptIn(ExperimentalTime::class)
   private suspend fun awaitUntilAllDependenciesAreReady() {
     Logger.d(TAG, "awaitUntilAllDependenciesAreReady()...")
@@ -437,14 +437,6 @@ class BookmarkWatcherDelegate(
           ++badStatusCount
         }
         is ThreadBookmarkFetchResult.Success -> {
-          if (verboseLogsEnabled) {
-            val originalPost = fetchResult.threadBookmarkInfoObject.simplePostObjects.firstOrNull { post ->
-              post is ThreadBookmarkInfoPostObject.OriginalPost
-            } as? ThreadBookmarkInfoPostObject.OriginalPost
-
-            requireNotNull(originalPost) { "No OP!" }
-          }
-
           ++successCount
         }
       }
@@ -65,7 +65,10 @@ class FilterWatcherDelegate(
           "error: ${result.error.errorMessageOrClassName()}")
       }
     } else {
-      val createdBookmarks = (result as ModularResult.Value).value
+      val runResult = (result as ModularResult.Value).value
+      reportScanStats(runResult.scanStats)
+
+      val createdBookmarks = runResult.createdBookmarks
       if (createdBookmarks.isNotEmpty()) {
         val totalCreatedBookmarksCount = createdBookmarks.values.sumOf { it.size }
 
@@ -77,6 +80,22 @@ class FilterWatcherDelegate(
     Logger.d(TAG, "FilterWatcherDelegate.doWork() done, took $duration")
   }
 
+  private fun reportScanStats(scanStats: BookmarkFilterWatchableThreadsUseCase.ScanStats) {
+    if (scanStats.catalogThreadsCount == 0) {
+      return
+    }
+
+    Logger.d(TAG, "FilterWatcherDelegate.doWork() scan stats: " +
+      "boards=${scanStats.boardsCount}, " +
+      "watchFilters=${scanStats.watchFiltersCount}, " +
+      "catalogThreads=${scanStats.catalogThreadsCount}, " +
+      "evaluated=${scanStats.evaluatedThreadsCount}, " +
+      "skippedUnchanged=${scanStats.skippedThreadsCount}, " +
+      "matched=${scanStats.matchedThreadsCount}, " +
+      "scanCacheInvalidated=${scanStats.scanCacheInvalidated}, " +
+      "cpuTime=${scanStats.cpuTimeMs}ms")
+  }
+
   private suspend fun onFilterDeleted(filterDeletionEvent: ChanFilterManager.FilterDeletionEvent) {
     bookmarksManager.awaitUntilInitialized()
 
@@ -38,6 +38,7 @@ import com.github.k1rakishou.common.toHashSetBy
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
@@ -89,6 +90,10 @@ class AlbumViewControllerViewModel(
   private val hapticFeedbackManager: HapticFeedbackManager
 ) : BaseViewModel() {
   private val _albumItemIdCounter = AtomicLong(0)
+  // Revision of the thread the album items were last built from. Used to only process the images
+  // added since then when the thread gets updated instead of going over all of the thread posts.
+  @Volatile
+  private var _lastAlbumThreadRevision: AlbumThreadRevision? = null
 
   private val _currentListenMode: AlbumViewController.ListenMode
     get() = savedStateHandle.requireParams<AlbumViewController.Params>().listenMode
@@ -404,7 +409,7 @@ class AlbumViewControllerViewModel(
       }
 
       updateToolbarTitle(
-        newAlbumItems = allAlbumItems,
+        newAlbumItems = if (album.isDelta) _albumItems else allAlbumItems,
         chanDescriptor = _currentDescriptor.value
       )
 
@@ -436,7 +441,7 @@ class AlbumViewControllerViewModel(
       }
       is ChanDescriptor.ThreadDescriptor -> {
         ChanPostUtils.getTitle(
-          chanThreadManager.getChanThread(chanDescriptor)?.getOriginalPost(),
+          chanThreadManager.getOriginalPost(chanDescriptor),
           chanDescriptor
         )
       }
@@ -507,6 +512,13 @@ class AlbumViewControllerViewModel(
       }
     }
 
+    if (!initialLoad && actualChanDescriptor is ChanDescriptor.ThreadDescriptor) {
+      val albumDelta = getAlbumItemsDeltaForThread(actualChanDescriptor)
+      if (albumDelta != null) {
+        return albumDelta
+      }
+    }
+
     val posts = kotlin.run {
       when (actualChanDescriptor) {
         is ChanDescriptor.ICatalogDescriptor -> {
@@ -521,6 +533,11 @@ class AlbumViewControllerViewModel(
             }
         }
         is ChanDescriptor.ThreadDescriptor -> {
+          // The revision must be read before the posts so that we never skip any changes (at worst
+          // some of them will be processed twice which is fine since duplicates are not added).
+          _lastAlbumThreadRevision = chanThreadsCache.getThreadRevision(actualChanDescriptor)
+            ?.let { revision -> AlbumThreadRevision(actualChanDescriptor, revision) }
+
           return@run chanThreadsCache.getThreadPosts(actualChanDescriptor)
         }
       }
@@ -563,43 +580,10 @@ class AlbumViewControllerViewModel(
     val albumItemDataList = filteredImages.mapNotNull { chanPostImage ->
       BackgroundUtils.ensureBackgroundThread()
 
-      val thumbnailUrl = chanPostImage.actualThumbnailUrl
-      if (thumbnailUrl == null) {
-        return@mapNotNull null
-      }
-
-      val spoilerThumbnailImageUrl = if (chanPostImage.spoiler) {
-        if (revealedSpoilerImagesManager.isImageSpoilerImageRevealed(chanPostImage)) {
-          null
-        } else {
-          chanPostImage.spoilerThumbnailUrl
-        }
-      } else {
-        null
-      }
-
-      return@mapNotNull AlbumItemData(
-        id = _albumItemIdCounter.getAndIncrement(),
-        isCatalogMode = actualChanDescriptor.isCatalogDescriptor(),
-        postDescriptor = chanPostImage.ownerPostDescriptor,
-        thumbnailImageUrl = thumbnailUrl,
-        spoilerThumbnailImageUrl = spoilerThumbnailImageUrl,
-        fullImageUrl = chanPostImage.imageUrl,
-        albumItemPostData = AlbumItemPostData(
-          threadSubject = when (actualChanDescriptor) {
-            is ChanDescriptor.ICatalogDescriptor -> {
-              ChanPostUtils.getTitle(
-                post = postsMap[chanPostImage.ownerPostDescriptor],
-                chanDescriptor = actualChanDescriptor
-              )
-            }
-            is ChanDescriptor.ThreadDescriptor -> null
-          },
-          mediaInfo = formatImageDetails(chanPostImage),
-          aspectRatio = calculateAspectRatio(chanPostImage)
-        ),
-        mediaType = chanPostImage.extension.asKurobaMediaType(),
-        downloadUniqueId = null
+      return@mapNotNull mapToAlbumItemData(
+        chanPostImage = chanPostImage,
+        chanDescriptor = actualChanDescriptor,
+        postsMap = postsMap
       )
     }
 
@@ -611,6 +595,100 @@ class AlbumViewControllerViewModel(
   }
 
 
+  /**
+   * Returns album items only for the images that were added to the thread since the last time the
+   * album was built or null if the album has to be rebuilt from all of the thread posts.
+   * */
+  private fun getAlbumItemsDeltaForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Album? {
+    val lastAlbumThreadRevision = _lastAlbumThreadRevision
+    if (lastAlbumThreadRevision == null || lastAlbumThreadRevision.threadDescriptor != threadDescriptor) {
+      return null
+    }
+
+    val changeSet = chanThreadsCache.getThreadChangeSetSince(threadDescriptor, lastAlbumThreadRevision.revision)
+    if (changeSet == null || changeSet.invalidated) {
+      Logger.debug(TAG) { "getAlbumItemsDeltaForThread() change set is not available for '${threadDescriptor}'" }
+      return null
+    }
+
+    _lastAlbumThreadRevision = AlbumThreadRevision(threadDescriptor, changeSet.toRevision)
+
+    val input = FilterOutHiddenImagesUseCase.Input(
+      images = changeSet.addedImages,
+      index = null,
+      isOpeningAlbum = false,
+      postDescriptorSelector = { chanPostImage -> chanPostImage.ownerPostDescriptor },
+      elementExistsInList = { image, images -> images.any { postImage -> postImage.equalUrl(image) } }
+    )
+
+    val filteredImages = filterOutHiddenImagesUseCase.filter(input).images
+
+    Logger.debug(TAG) {
+      "getAlbumItemsDeltaForThread() got ${filteredImages.size}/${changeSet.addedImages.size} " +
+        "new images for '${threadDescriptor}' (${changeSet})"
+    }
+
+    val albumItemDataList = filteredImages.mapNotNull { chanPostImage ->
+      mapToAlbumItemData(
+        chanPostImage = chanPostImage,
+        chanDescriptor = threadDescriptor,
+        postsMap = emptyMap()
+      )
+    }
+
+    return Album(
+      initialImageFullUrl = null,
+      scrollToPosition = null,
+      albumItemDataList = albumItemDataList,
+      isDelta = true
+    )
+  }
+
+  private fun mapToAlbumItemData(
+    chanPostImage: ChanPostImage,
+    chanDescriptor: ChanDescriptor,
+    postsMap: Map<PostDescriptor, ChanPost>
+  ): AlbumItemData? {
+    val thumbnailUrl = chanPostImage.actualThumbnailUrl
+    if (thumbnailUrl == null) {
+      return null
+    }
+
+    val spoilerThumbnailImageUrl = if (chanPostImage.spoiler) {
+      if (revealedSpoilerImagesManager.isImageSpoilerImageRevealed(chanPostImage)) {
+        null
+      } else {
+        chanPostImage.spoilerThumbnailUrl
+      }
+    } else {
+      null
+    }
+
+    return AlbumItemData(
+      id = _albumItemIdCounter.getAndIncrement(),
+      isCatalogMode = chanDescriptor.isCatalogDescriptor(),
+      postDescriptor = chanPostImage.ownerPostDescriptor,
+      thumbnailImageUrl = thumbnailUrl,
+      spoilerThumbnailImageUrl = spoilerThumbnailImageUrl,
+      fullImageUrl = chanPostImage.imageUrl,
+      albumItemPostData = AlbumItemPostData(
+        threadSubject = when (chanDescriptor) {
+          is ChanDescriptor.ICatalogDescriptor -> {
+            ChanPostUtils.getTitle(
+              post = postsMap[chanPostImage.ownerPostDescriptor],
+              chanDescriptor = chanDescriptor
+            )
+          }
+          is ChanDescriptor.ThreadDescriptor -> null
+        },
+        mediaInfo = formatImageDetails(chanPostImage),
+        aspectRatio = calculateAspectRatio(chanPostImage)
+      ),
+      mediaType = chanPostImage.extension.asKurobaMediaType(),
+      downloadUniqueId = null
+    )
+  }
+
   private suspend fun loadAndUpdateAlbumItems() {
     _currentDescriptor
       .flatMapLatest { currentDescriptor ->
@@ -835,7 +913,14 @@ class AlbumViewControllerViewModel(
   data class Album(
     val initialImageFullUrl: String?,
     val scrollToPosition: Int?,
-    val albumItemDataList: List<AlbumItemData>
+    val albumItemDataList: List<AlbumItemData>,
+    // When true albumItemDataList only contains the items that were added since the previous update
+    val isDelta: Boolean = false
+  )
+
+  private data class AlbumThreadRevision(
+    val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    val revision: Long
   )
 
   @Immutable
@@ -477,8 +477,7 @@ class BookmarksController(
         }
 
         threadDescriptors.forEach { threadDescriptor ->
-          var threadThumbnailUrl = chanThreadManager.getChanThread(threadDescriptor)
-            ?.getOriginalPost()
+          var threadThumbnailUrl = chanThreadManager.getOriginalPost(threadDescriptor)
             ?.firstImage()
             ?.actualThumbnailUrl
 
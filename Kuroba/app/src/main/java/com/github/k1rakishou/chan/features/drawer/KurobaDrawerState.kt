@@ -139,6 +139,10 @@ class KurobaDrawerState(
     _selectedHistoryEntries.clear()
   }
 
+  /**
+   * Must be serialized with [onNavigationStackUpdated] (see MainControllerViewModel), the whole
+   * displayed list is replaced with a snapshot of the navigation history.
+   * */
   suspend fun reloadNavigationHistory() {
     ModularResult.Try {
       val navigationHistoryList = withContext(Dispatchers.Default) {
@@ -171,16 +175,13 @@ class KurobaDrawerState(
       return null
     }
 
-    val chanOriginalPost = chanThreadManager.getChanThread(threadDescriptor)
-      ?.getOriginalPost()
+    val chanOriginalPost = chanThreadManager.getOriginalPost(threadDescriptor)
 
     var opThumbnailUrl: HttpUrl? = null
     var title: String? = null
 
     if (chanOriginalPost != null) {
-      opThumbnailUrl = chanThreadManager.getChanThread(threadDescriptor)
-        ?.getOriginalPost()
-        ?.firstImage()
+      opThumbnailUrl = chanOriginalPost.firstImage()
         ?.actualThumbnailUrl
 
       title = ChanPostUtils.getTitle(
@@ -359,6 +360,23 @@ class KurobaDrawerState(
         HistoryNavigationManager.UpdateEvent.Initialized -> {
           // no-op
         }
+        is HistoryNavigationManager.UpdateEvent.Appended -> {
+          // The history may have been (re)loaded after the rest of it was already appended to the
+          // nav stack so skip whatever is already displayed.
+          val alreadyDisplayed = _navigationHistoryEntryList
+            .toHashSetBy { navigationHistoryEntry -> navigationHistoryEntry.descriptor }
+
+          updateEvent.navHistoryElements.forEach { navHistoryElement ->
+            if (!alreadyDisplayed.add(navHistoryElement.descriptor())) {
+              return@forEach
+            }
+
+            val navigationHistoryEntry = navHistoryElementToNavigationHistoryEntryOrNull(navHistoryElement)
+              ?: return@forEach
+
+            _navigationHistoryEntryList.add(navigationHistoryEntry)
+          }
+        }
         is HistoryNavigationManager.UpdateEvent.Created -> {
           val toCreate = updateEvent.navHistoryElements
             .filter { navHistoryElement ->
@@ -19,6 +19,7 @@ import com.github.k1rakishou.chan.features.drawer.data.NavigationHistoryEntry
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.isDevBuild
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import dagger.Lazy
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
@@ -147,7 +148,22 @@ class MainControllerViewModel(
   }
 
   suspend fun reloadNavigationHistory() {
-    kurobaDrawerState.reloadNavigationHistory()
+    // Reload on the same executor that applies the navigation stack updates. Otherwise an update
+    // that is applied after the history was read but before the displayed list was replaced with it
+    // would be overwritten and lost.
+    val reloaded = CompletableDeferred<Unit>()
+
+    val posted = updateNavigationHistoryEntryListExecutor.post {
+      try {
+        kurobaDrawerState.reloadNavigationHistory()
+      } finally {
+        reloaded.complete(Unit)
+      }
+    }
+
+    if (posted) {
+      reloaded.await()
+    }
   }
 
   fun onNavigationItemDrawerInfoUpdated(hasDrawer: Boolean) {
@@ -1324,8 +1324,7 @@ class PostingServiceDelegate(
       }
 
       val comment = replyManager.readReply(prevChanDescriptor) { prevReply -> prevReply.comment }
-      val subject = chanThreadManager.getChanThread(responsePostDescriptor.threadDescriptor())
-        ?.getOriginalPost()
+      val subject = chanThreadManager.getOriginalPost(responsePostDescriptor.threadDescriptor())
         ?.let { chanOriginalPost -> ChanPostUtils.getTitle(chanOriginalPost, prevChanDescriptor) }
 
       val chanSavedReply = ChanSavedReply(
@@ -592,6 +592,22 @@ sealed class ImportExportScreen(
     }
   }
 
+  sealed class LogicalBackupSettingsGroup(
+    settingsId: String,
+    groupIdentifier: GroupIdentifier = LogicalBackupSettingsGroup.getGroupIdentifier()
+  ) : IGroup,
+    ImportExportScreen(groupIdentifier, SettingIdentifier(settingsId)) {
+
+    object ExportFullLogicalBackup : LogicalBackupSettingsGroup("export_full_logical_backup")
+    object ExportIncrementalLogicalBackup : LogicalBackupSettingsGroup("export_incremental_logical_backup")
+    object ImportLogicalBackup : LogicalBackupSettingsGroup("import_logical_backup")
+
+    companion object : IGroupIdentifier() {
+      override fun screenIdentifier(): ScreenIdentifier = ImportExportScreen.screenIdentifier()
+      override fun getGroupIdentifier(): GroupIdentifier = GroupIdentifier("logical_backup_settings_group")
+    }
+  }
+
   companion object : IScreenIdentifier() {
     override fun screenIdentifier(): ScreenIdentifier = ScreenIdentifier("import_export_screen")
   }
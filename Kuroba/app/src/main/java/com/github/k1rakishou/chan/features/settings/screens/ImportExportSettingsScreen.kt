@@ -47,10 +47,51 @@ class ImportExportSettingsScreen(
   override suspend fun buildGroups(): List<SettingsGroup.SettingsGroupBuilder> {
     return listOf(
       buildMainSettingsGroup(),
+      buildLogicalBackupGroup(),
       buildImportFromKurobaGroup()
     )
   }
 
+  private fun buildLogicalBackupGroup(): SettingsGroup.SettingsGroupBuilder {
+    val identifier = ImportExportScreen.LogicalBackupSettingsGroup
+
+    return SettingsGroup.SettingsGroupBuilder(
+      groupIdentifier = identifier,
+      buildFunction = {
+        val group = SettingsGroup(
+          groupTitle = context.getString(R.string.logical_backup),
+          groupIdentifier = identifier
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = ImportExportScreen.LogicalBackupSettingsGroup.ExportFullLogicalBackup,
+          topDescriptionIdFunc = { R.string.logical_backup_export_full },
+          bottomDescriptionIdFunc = { R.string.logical_backup_export_full_description },
+          callback = { importExportSettingsDelegate.onExportLogicalBackupClicked(incremental = false) }
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = ImportExportScreen.LogicalBackupSettingsGroup.ExportIncrementalLogicalBackup,
+          topDescriptionIdFunc = { R.string.logical_backup_export_incremental },
+          bottomDescriptionIdFunc = { R.string.logical_backup_export_incremental_description },
+          callback = { importExportSettingsDelegate.onExportLogicalBackupClicked(incremental = true) }
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = ImportExportScreen.LogicalBackupSettingsGroup.ImportLogicalBackup,
+          topDescriptionIdFunc = { R.string.logical_backup_import },
+          bottomDescriptionIdFunc = { R.string.logical_backup_import_description },
+          callback = { importExportSettingsDelegate.onImportLogicalBackupClicked() }
+        )
+
+        group
+      }
+    )
+  }
+
   private fun buildImportFromKurobaGroup(): SettingsGroup.SettingsGroupBuilder {
     val identifier = ImportExportScreen.ImportFromKurobaSettingsGroup
 
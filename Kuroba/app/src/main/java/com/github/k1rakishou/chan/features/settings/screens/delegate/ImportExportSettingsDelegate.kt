@@ -92,6 +92,135 @@ class ImportExportSettingsDelegate(
     })
   }
 
+  fun onExportLogicalBackupClicked(incremental: Boolean) {
+    dialogFactory.createSimpleConfirmationDialog(
+      context = context,
+      titleText = getString(R.string.logical_backup_export_thread_posts_title),
+      descriptionText = getString(R.string.logical_backup_export_thread_posts_description),
+      positiveButtonText = getString(R.string.logical_backup_export_with_posts),
+      onPositiveButtonClickListener = { onExportLogicalBackupOptionsSelected(incremental, exportThreadPosts = true) },
+      negativeButtonText = getString(R.string.logical_backup_export_without_posts),
+      onNegativeButtonClickListener = { onExportLogicalBackupOptionsSelected(incremental, exportThreadPosts = false) }
+    )
+  }
+
+  fun onImportLogicalBackupClicked() {
+    if (threadDownloadingDelegate.running) {
+      dialogFactory.createSimpleInformationDialog(
+        context = context,
+        titleText = getString(R.string.import_export_backup_export_thread_downloader_is_running),
+        descriptionText = getString(R.string.import_export_backup_export_thread_downloader_is_running_description)
+      )
+
+      return
+    }
+
+    fileChooser.openChooseFileDialog(object : FileChooserCallback() {
+      override fun onResult(uri: Uri) {
+        onImportLogicalBackupFileChosen(uri)
+      }
+
+      override fun onCancel(reason: String) {
+        showToast(context, reason, Toast.LENGTH_LONG)
+      }
+    })
+  }
+
+  private fun onExportLogicalBackupOptionsSelected(incremental: Boolean, exportThreadPosts: Boolean) {
+    val dateString = LOGICAL_BACKUP_DATE_FORMAT.print(DateTime.now())
+    val backupType = if (incremental) "changes" else "full"
+    val exportFileName = "KurobaEx_v${BuildConfig.VERSION_CODE}_($dateString)_userdata_${backupType}.kbak"
+
+    fileChooser.openCreateFileDialog(
+      exportFileName,
+      object : FileCreateCallback() {
+        override fun onResult(uri: Uri) {
+          onExportLogicalBackupFileChosen(uri, incremental, exportThreadPosts)
+        }
+
+        override fun onCancel(reason: String) {
+          showToast(context, reason, Toast.LENGTH_LONG)
+        }
+      })
+  }
+
+  private fun onExportLogicalBackupFileChosen(uri: Uri, incremental: Boolean, exportThreadPosts: Boolean) {
+    val externalFile = fileManager.fromUri(uri)
+    if (externalFile == null) {
+      val message = "onExportLogicalBackupFileChosen() fileManager.fromUri() returned null, uri = $uri"
+      Logger.d(TAG, message)
+      showToast(context, message, Toast.LENGTH_LONG)
+      return
+    }
+
+    coroutineScope.launch {
+      navigationController.presentController(loadingViewController)
+
+      val result = importExportRepository.exportLogicalBackupTo(externalFile, exportThreadPosts, incremental)
+      loadingViewController.stopPresenting()
+
+      when (result) {
+        is ModularResult.Error -> {
+          Logger.e(TAG, "Logical backup export error", result.error)
+
+          dialogFactory.createSimpleInformationDialog(
+            context = context,
+            titleText = getString(R.string.import_export_backup_export_error),
+            descriptionText = getString(
+              R.string.import_export_backup_export_error_description,
+              result.error.errorMessageOrClassName()
+            )
+          )
+        }
+        is ModularResult.Value -> {
+          val stats = result.value
+
+          showToast(
+            context,
+            getString(
+              R.string.logical_backup_export_success,
+              stats.writtenRecords,
+              stats.skippedRecords,
+              stats.deletedKeys
+            )
+          )
+        }
+      }
+    }
+  }
+
+  private fun onImportLogicalBackupFileChosen(uri: Uri) {
+    val externalFile = fileManager.fromUri(uri)
+    if (externalFile == null) {
+      val message = "onImportLogicalBackupFileChosen() fileManager.fromUri() returned null, uri = $uri"
+      Logger.d(TAG, message)
+      showToast(context, message, Toast.LENGTH_LONG)
+      return
+    }
+
+    coroutineScope.launch {
+      navigationController.presentController(loadingViewController)
+
+      val result = importExportRepository.importLogicalBackupFrom(externalFile)
+      loadingViewController.stopPresenting()
+
+      when (result) {
+        is ModularResult.Error -> {
+          Logger.e(TAG, "Logical backup import error", result.error)
+          showToast(context, getString(R.string.import_export_backup_import_error, result.error))
+        }
+        is ModularResult.Value -> {
+          dialogFactory.createSimpleInformationDialog(
+            context = context,
+            titleText = getString(R.string.import_export_backup_import_success),
+            descriptionText = getString(R.string.import_export_backup_import_success_description),
+            onDismissListener = { appRestarter.restart() }
+          )
+        }
+      }
+    }
+  }
+
   private fun onExportFileChosen(uri: Uri) {
     // We use SAF here by default because settings importing/exporting does not depend on the
     // Kuroba default directory location. There is just no need to use old java files.
@@ -217,5 +346,14 @@ class ImportExportSettingsDelegate(
     private val BACKUP_DATE_FORMAT = DateTimeFormatterBuilder()
       .append(ISODateTimeFormat.date())
       .toFormatter()
+
+    // Several incremental backups can be exported in one day
+    private val LOGICAL_BACKUP_DATE_FORMAT = DateTimeFormatterBuilder()
+      .append(ISODateTimeFormat.date())
+      .appendLiteral('_')
+      .appendHourOfDay(2)
+      .appendMinuteOfHour(2)
+      .appendSecondOfMinute(2)
+      .toFormatter()
   }
 }
\ No newline at end of file
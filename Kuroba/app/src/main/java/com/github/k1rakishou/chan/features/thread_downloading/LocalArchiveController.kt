@@ -845,10 +845,7 @@ class LocalArchiveController(
             viewModel.exportThreadsAsHtml(
               outputDirUri = uri,
               threadDescriptors = threadDescriptors,
-              onUpdate = { exported, total ->
-                val text = context.resources.getString(R.string.controller_local_archive_exported_format, exported, total)
-                loadingViewController.updateWithText(text)
-              }
+              onUpdate = { exportProgress -> loadingViewController.updateWithText(formatExportProgress(exportProgress)) }
             )
               .toastOnError(message = { error -> "Failed to export. Error: ${error.errorMessageOrClassName()}" })
               .toastOnSuccess(message = { "Successfully exported" })
@@ -888,10 +885,7 @@ class LocalArchiveController(
             viewModel.exportThreadsAsJson(
               outputDirUri = uri,
               threadDescriptors = threadDescriptors,
-              onUpdate = { exported, total ->
-                val text = context.resources.getString(R.string.controller_local_archive_exported_format, exported, total)
-                loadingViewController.updateWithText(text)
-              }
+              onUpdate = { exportProgress -> loadingViewController.updateWithText(formatExportProgress(exportProgress)) }
             )
               .toastOnError(message = { error -> "Failed to export. Error: ${error.errorMessageOrClassName()}" })
               .toastOnSuccess(message = { "Successfully exported" })
@@ -927,10 +921,7 @@ class LocalArchiveController(
             viewModel.exportThreadsMedia(
               outputDirectoryUri = uri,
               threadDescriptors = threadDescriptors,
-              onUpdate = { exported, total ->
-                val text = context.resources.getString(R.string.controller_local_archive_exported_format, exported, total)
-                loadingViewController.updateWithText(text)
-              }
+              onUpdate = { exportProgress -> loadingViewController.updateWithText(formatExportProgress(exportProgress)) }
             )
               .toastOnError(message = { error -> "Failed to export. Error: ${error.errorMessageOrClassName()}" })
               .toastOnSuccess(message = { "Successfully exported" })
@@ -952,6 +943,29 @@ class LocalArchiveController(
     })
   }
 
+  private fun formatExportProgress(exportProgress: ThreadExportPipeline.ExportProgress): String {
+    val exportedText = context.resources.getString(
+      R.string.controller_local_archive_exported_format,
+      exportProgress.exportedThreads,
+      exportProgress.totalThreads
+    )
+
+    val etaMs = exportProgress.etaMs
+    if (etaMs == null) {
+      return exportedText
+    }
+
+    val speedText = context.resources.getString(
+      R.string.controller_local_archive_export_speed_format,
+      ChanPostUtils.getReadableFileSize(exportProgress.bytesPerSecond),
+      ChanPostUtils.getReadableFileSize(exportProgress.processedBytes),
+      ChanPostUtils.getReadableFileSize(exportProgress.totalBytes),
+      etaMs / 1000L
+    )
+
+    return "${exportedText}\n${speedText}"
+  }
+
   private fun onNewSelectionEvent(selectionEvent: BaseSelectionHelper.SelectionEvent?) {
     when (selectionEvent) {
       is BaseSelectionHelper.SelectionEvent.EnteredSelectionMode,
@@ -411,6 +411,7 @@ class LocalArchiveViewModel(
         val ownerThreadDatabaseId = threadDownloadView.ownerThreadDatabaseId
 
         val files = directory.listFiles()
+          ?.filter { file -> !file.name.startsWith('.') }
         val filesTotalSize = files?.sumOf { file -> file.length() } ?: 0L
         val mediaCount = files?.size?.div(2) ?: 0
 
@@ -478,7 +479,7 @@ class LocalArchiveViewModel(
   suspend fun exportThreadsAsHtml(
     outputDirUri: Uri,
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    onUpdate: (Int, Int) -> Unit
+    onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   ): ModularResult<Unit> {
     val params = ExportDownloadedThreadAsHtmlUseCase.Params(outputDirUri, threadDescriptors, onUpdate)
     return exportDownloadedThreadAsHtmlUseCase.execute(params)
@@ -488,7 +489,7 @@ class LocalArchiveViewModel(
   suspend fun exportThreadsAsJson(
     outputDirUri: Uri,
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    onUpdate: (Int, Int) -> Unit
+    onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   ): ModularResult<Unit> {
     val params = ExportDownloadedThreadAsJsonUseCase.Params(outputDirUri, threadDescriptors, onUpdate)
     return exportDownloadedThreadAsJsonUseCase.execute(params)
@@ -498,7 +499,7 @@ class LocalArchiveViewModel(
   suspend fun exportThreadsMedia(
     outputDirectoryUri: Uri,
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
-    onUpdate: (Int, Int) -> Unit
+    onUpdate: (ThreadExportPipeline.ExportProgress) -> Unit
   ): ModularResult<Unit> {
     val params = ExportDownloadedThreadMediaUseCase.Params(outputDirectoryUri, threadDescriptors, onUpdate)
     return exportDownloadedThreadMediaUseCase.execute(params)
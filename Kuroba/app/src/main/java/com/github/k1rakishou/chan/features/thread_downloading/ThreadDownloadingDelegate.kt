@@ -7,15 +7,16 @@ import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.usecase.DownloadParams
+import com.github.k1rakishou.chan.core.usecase.DownloadResult
 import com.github.k1rakishou.chan.core.usecase.ThreadDownloaderPersistPostsInDatabaseUseCase
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.extractFileName
-import com.github.k1rakishou.common.isNotNullNorEmpty
+import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.isOutOfDiskSpaceError
-import com.github.k1rakishou.common.parallelForEach
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
@@ -29,16 +30,21 @@ import com.github.k1rakishou.model.repository.ChanPostImageRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import dagger.Lazy
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import okhttp3.HttpUrl
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.internal.closeQuietly
+import java.io.File
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.coroutines.coroutineContext
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTimedValue
@@ -61,6 +67,11 @@ class ThreadDownloadingDelegate(
     get() = downloaderOkHttpClient.get().okHttpClient()
   private val batchCount = appConstants.processorsCount
 
+  @Volatile
+  private var lastNetworkCheckTime = 0L
+  @Volatile
+  private var lastNetworkCheckResult = true
+
   private val _running = AtomicBoolean(false)
   val running: Boolean
     get() = _running.get()
@@ -107,38 +118,49 @@ class ThreadDownloadingDelegate(
     val outputDirError = AtomicBoolean(false)
     val canceled = AtomicBoolean(false)
 
-    threadDownloads.forEachIndexed { index, threadDownload ->
-      try {
-        if (outOfDiskSpaceError.get() || canceled.get()) {
-          return@forEachIndexed
+    coroutineScope {
+      // Media of all threads goes into the same queue so that it's downloaded while the posts of
+      // the next threads are being loaded.
+      val downloadQueue = ThreadMediaDownloadQueue<MediaToDownload>(
+        scope = this,
+        maxConcurrentDownloads = batchCount,
+        maxConcurrentDownloadsPerHost = MAX_CONCURRENT_DOWNLOADS_PER_HOST,
+        downloadFunc = { mediaToDownload ->
+          downloadMedia(
+            mediaToDownload = mediaToDownload,
+            outOfDiskSpaceError = outOfDiskSpaceError,
+            outputDirError = outputDirError
+          )
         }
+      )
 
-        threadDownloadProgressNotifier.notifyProgressEvent(
-          threadDownload.threadDescriptor,
-          ThreadDownloadProgressNotifier.Event.Progress(0.1f)
-        )
-
-        processThread(
-          threadDownload = threadDownload,
-          index = index + 1,
-          total = threadDownloads.size,
-          outOfDiskSpaceError = outOfDiskSpaceError,
-          outputDirError = outputDirError
-        )
+      threadDownloads.forEachIndexed { index, threadDownload ->
+        try {
+          if (outOfDiskSpaceError.get() || canceled.get()) {
+            return@forEachIndexed
+          }
 
-        threadDownloadProgressNotifier.notifyProgressEvent(
-          threadDownload.threadDescriptor,
-          ThreadDownloadProgressNotifier.Event.Progress(1f)
-        )
+          threadDownloadProgressNotifier.notifyProgressEvent(
+            threadDownload.threadDescriptor,
+            ThreadDownloadProgressNotifier.Event.Progress(0.1f)
+          )
 
-        threadDownloadProgressNotifier.notifyProgressEvent(
-          threadDownload.threadDescriptor,
-          ThreadDownloadProgressNotifier.Event.Empty
-        )
-      } catch (error: CancellationException) {
-        Logger.e(TAG, "doWorkInternal() ${threadDownload.threadDescriptor} canceled")
-        canceled.set(true)
+          processThread(
+            coroutineScope = this,
+            downloadQueue = downloadQueue,
+            threadDownload = threadDownload,
+            index = index + 1,
+            total = threadDownloads.size,
+            outOfDiskSpaceError = outOfDiskSpaceError,
+            outputDirError = outputDirError
+          )
+        } catch (error: CancellationException) {
+          Logger.e(TAG, "doWorkInternal() ${threadDownload.threadDescriptor} canceled")
+          canceled.set(true)
+        }
       }
+
+      downloadQueue.closeAndJoin()
     }
 
     coroutineContext[Job.Key]?.invokeOnCompletion { cause ->
@@ -157,6 +179,8 @@ class ThreadDownloadingDelegate(
   }
 
   private suspend fun processThread(
+    coroutineScope: CoroutineScope,
+    downloadQueue: ThreadMediaDownloadQueue<MediaToDownload>,
     threadDownload: ThreadDownload,
     index: Int,
     total: Int,
@@ -183,6 +207,7 @@ class ThreadDownloadingDelegate(
           ?: executionResult.error.errorMessageOrClassName()
       )
 
+      notifyThreadProcessed(threadDescriptor)
       return
     } else {
       executionResult as ModularResult.Value
@@ -190,28 +215,23 @@ class ThreadDownloadingDelegate(
     }
 
     val ownerThreadDatabaseId = threadDownload.ownerThreadDatabaseId
-
-    val isNetworkGoodForMediaDownload = if (ChanSettings.threadDownloaderDownloadMediaOnMeteredNetwork.get()) {
-      true
-    } else {
-      AppModuleAndroidUtils.isConnectionUnmetered()
-    }
+    val isNetworkGoodForMediaDownload = isNetworkGoodForMediaDownload()
 
     val canProcessThreadMedia = threadDownload.downloadMedia
       && !outOfDiskSpaceError.get()
       && isNetworkGoodForMediaDownload
 
-    if (canProcessThreadMedia) {
+    val threadMediaDownload = if (canProcessThreadMedia) {
       val chanPostImages = chanPostImageRepository.selectPostImagesByOwnerThreadDatabaseId(ownerThreadDatabaseId)
         .onError { error -> Logger.e(TAG, "Failed to select images by threadId: ${ownerThreadDatabaseId}", error) }
         .mapErrorToValue { emptyList<ChanPostImage>() }
 
-      processThreadMedia(
+      enqueueThreadMedia(
+        downloadQueue = downloadQueue,
         index = index,
         total = total,
         chanPostImages = chanPostImages,
         threadDescriptor = threadDescriptor,
-        outOfDiskSpaceError = outOfDiskSpaceError,
         outputDirError = outputDirError
       )
     } else {
@@ -219,8 +239,40 @@ class ThreadDownloadingDelegate(
         "isNetworkGoodForMediaDownload=$isNetworkGoodForMediaDownload, " +
         "downloadMedia=${threadDownload.downloadMedia}, " +
         "outOfDiskSpaceError=${outOfDiskSpaceError.get()}")
+
+      null
+    }
+
+    if (threadMediaDownload == null) {
+      onThreadProcessed(threadDescriptor, downloadResult, index, total, outOfDiskSpaceError, outputDirError)
+      return
     }
 
+    // Do not keep the posts in memory while the media is being downloaded
+    val threadStatus = downloadResult.copy(posts = emptyList())
+
+    // Do not wait for the media here, the next thread can already be processed while it's being
+    // downloaded.
+    coroutineScope.launch {
+      try {
+        threadMediaDownload.awaitCompletion()
+      } finally {
+        threadMediaDownload.manifest.close()
+      }
+
+      Logger.d(TAG, "processThread($index/$total) chanThread=${threadDescriptor} media processed")
+      onThreadProcessed(threadDescriptor, threadStatus, index, total, outOfDiskSpaceError, outputDirError)
+    }
+  }
+
+  private suspend fun onThreadProcessed(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    downloadResult: DownloadResult,
+    index: Int,
+    total: Int,
+    outOfDiskSpaceError: AtomicBoolean,
+    outputDirError: AtomicBoolean,
+  ) {
     val resultMessage = when {
       outOfDiskSpaceError.get() -> "Out of disk space error"
       outputDirError.get() -> "Output directory access error"
@@ -234,6 +286,11 @@ class ThreadDownloadingDelegate(
 
     if (downloadResult.archived || downloadResult.closed || downloadResult.deleted) {
       threadDownloadManager.completeDownloading(threadDescriptor)
+
+      // The thread won't change anymore so its posts can be read from a snapshot from now on
+      chanPostRepository.writeThreadPostsSnapshot(threadDescriptor)
+        .onError { error -> Logger.e(TAG, "Failed to write posts snapshot of $threadDescriptor", error) }
+        .ignore()
     }
 
     val status = "archived: ${downloadResult.archived}, " +
@@ -243,26 +300,112 @@ class ThreadDownloadingDelegate(
       "outputDirError: ${outputDirError.get()}, "
 
     Logger.d(TAG, "processThread($index/$total) loadThreadOrCatalog($threadDescriptor) end, status: $status")
+    notifyThreadProcessed(threadDescriptor)
+  }
+
+  private fun notifyThreadProcessed(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    threadDownloadProgressNotifier.notifyProgressEvent(
+      threadDescriptor,
+      ThreadDownloadProgressNotifier.Event.Progress(1f)
+    )
+
+    threadDownloadProgressNotifier.notifyProgressEvent(
+      threadDescriptor,
+      ThreadDownloadProgressNotifier.Event.Empty
+    )
   }
 
-  private suspend fun processThreadMedia(
+  /**
+   * Puts the media of the thread that is not downloaded yet into the [downloadQueue]. Returns null
+   * when there is nothing to download.
+   * */
+  private suspend fun enqueueThreadMedia(
+    downloadQueue: ThreadMediaDownloadQueue<MediaToDownload>,
     index: Int,
     total: Int,
     chanPostImages: List<ChanPostImage>,
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    outOfDiskSpaceError: AtomicBoolean,
     outputDirError: AtomicBoolean,
-  ) {
+  ): ThreadMediaDownload? {
     if (chanPostImages.isEmpty()) {
-      Logger.d(TAG, "processThreadMedia($index/$total) threadDescriptor=${threadDescriptor}, " +
+      Logger.d(TAG, "enqueueThreadMedia($index/$total) threadDescriptor=${threadDescriptor}, " +
         "chanPostImages=${chanPostImages.size}, nothing to process")
-      return
+      return null
     }
 
-    val rootDir = fileManager.fromRawFile(appConstants.threadDownloaderCacheDir)
-    Logger.d(TAG, "processThreadMedia($index/$total) threadDescriptor=${threadDescriptor}, " +
-      "chanPostImages=${chanPostImages.size}")
+    val outputDirectory = withContext(Dispatchers.IO) { getOrCreateOutputDirectory(threadDescriptor) }
+    if (outputDirectory == null) {
+      Logger.d(TAG, "enqueueThreadMedia($index/$total) " +
+        "chanThread=${threadDescriptor} failure! outputDirectory is null")
+      outputDirError.set(true)
+      return null
+    }
+
+    val manifestResult = withContext(Dispatchers.IO) {
+      ModularResult.Try {
+        ThreadMediaManifest.load(File(appConstants.threadDownloaderCacheDir, formatDirectoryName(threadDescriptor)))
+      }
+    }
+
+    val manifest = if (manifestResult is ModularResult.Error) {
+      Logger.e(TAG, "enqueueThreadMedia($index/$total) chanThread=${threadDescriptor} " +
+        "failed to load media manifest", manifestResult.error)
+      outputDirError.set(true)
+      return null
+    } else {
+      (manifestResult as ModularResult.Value).value
+    }
+
+    if (threadDownloadManager.consumeRetryFailedMedia(threadDescriptor)) {
+      withContext(Dispatchers.IO) { manifest.resetFailedAttempts() }
+    }
 
+    val mediaToDownloadList = mutableListWithCap<MediaToDownload>(chanPostImages.size * 2)
+    val fileNames = hashSetWithCap<String>(chanPostImages.size * 2)
+    val threadMediaDownload = ThreadMediaDownload(threadDescriptor, outputDirectory, manifest)
+
+    fun addIfNeeded(imageUrl: HttpUrl?, isThumbnail: Boolean) {
+      val fileName = imageUrl?.extractFileName()
+      if (imageUrl == null || fileName.isNullOrEmpty()) {
+        return
+      }
+
+      if (!fileNames.add(fileName) || !manifest.needsDownload(fileName)) {
+        return
+      }
+
+      mediaToDownloadList += MediaToDownload(
+        threadMediaDownload = threadMediaDownload,
+        isThumbnail = isThumbnail,
+        fileName = fileName,
+        imageUrl = imageUrl
+      )
+    }
+
+    chanPostImages.forEach { postImage ->
+      addIfNeeded(postImage.actualThumbnailUrl, isThumbnail = true)
+      addIfNeeded(postImage.imageUrl, isThumbnail = false)
+    }
+
+    Logger.d(TAG, "enqueueThreadMedia($index/$total) threadDescriptor=${threadDescriptor}, " +
+      "chanPostImages=${chanPostImages.size}, manifestSize=${manifest.size}, toDownload=${mediaToDownloadList.size}")
+
+    if (mediaToDownloadList.isEmpty()) {
+      manifest.close()
+      return null
+    }
+
+    threadMediaDownload.start(mediaToDownloadList.size)
+
+    mediaToDownloadList.forEach { mediaToDownload ->
+      downloadQueue.enqueue(mediaToDownload.imageUrl.host, mediaToDownload)
+    }
+
+    return threadMediaDownload
+  }
+
+  private fun getOrCreateOutputDirectory(threadDescriptor: ChanDescriptor.ThreadDescriptor): AbstractFile? {
+    val rootDir = fileManager.fromRawFile(appConstants.threadDownloaderCacheDir)
     val directoryName = formatDirectoryName(threadDescriptor)
 
     var outputDirectory = fileManager.findFile(rootDir, directoryName)
@@ -271,10 +414,7 @@ class ThreadDownloadingDelegate(
     }
 
     if (outputDirectory == null) {
-      Logger.d(TAG, "processThreadMedia($index/$total) " +
-        "chanThread=${threadDescriptor} failure! outputDirectory is null")
-      outputDirError.set(true)
-      return
+      return null
     }
 
     val noMediaFile = outputDirectory.clone(FileSegment(NO_MEDIA_FILE_NAME))
@@ -283,86 +423,51 @@ class ThreadDownloadingDelegate(
       fileManager.create(noMediaFile)
     }
 
-    // "* 2" because thumbnails and full images
-    val progressIncrement = (1f - POSTS_PROCESSED_PROGRESS) / (chanPostImages.size.toFloat() * 2)
-    val mutex = Mutex()
-    var totalProgress = POSTS_PROCESSED_PROGRESS
-
-    parallelForEach(
-      dataList = chanPostImages,
-      parallelization = batchCount,
-      dispatcher = Dispatchers.IO
-    ) { postImage ->
-      val isNetworkGoodForMediaDownload = if (ChanSettings.threadDownloaderDownloadMediaOnMeteredNetwork.get()) {
-        true
-      } else {
-        AppModuleAndroidUtils.isConnectionUnmetered()
-      }
-
-      if (!isNetworkGoodForMediaDownload) {
-        return@parallelForEach
-      }
-
-      if (outOfDiskSpaceError.get()) {
-        return@parallelForEach
-      }
+    return outputDirectory
+  }
 
-      if (outputDirError.get()) {
-        return@parallelForEach
-      }
+  private suspend fun downloadMedia(
+    mediaToDownload: MediaToDownload,
+    outOfDiskSpaceError: AtomicBoolean,
+    outputDirError: AtomicBoolean,
+  ) {
+    val threadMediaDownload = mediaToDownload.threadMediaDownload
 
-      val thumbnailUrl = postImage.actualThumbnailUrl
-      val thumbnailName = postImage.actualThumbnailUrl?.extractFileName()
-
-      if (thumbnailUrl != null && thumbnailName.isNotNullNorEmpty()) {
-        downloadImage(
-          outputDirectory = outputDirectory,
-          isThumbnail = true,
-          name = thumbnailName,
-          imageUrl = thumbnailUrl,
-          outOfDiskSpaceError = outOfDiskSpaceError,
-          outputDirError = outputDirError
-        )
+    try {
+      if (!isNetworkGoodForMediaDownload() || outOfDiskSpaceError.get() || outputDirError.get()) {
+        // Still pending in the manifest, will be downloaded next time
+        return
       }
 
-      val newProgress1 = mutex.withLock {
-        totalProgress += progressIncrement
-        totalProgress
-      }
-      threadDownloadProgressNotifier.notifyProgressEvent(
-        threadDescriptor,
-        ThreadDownloadProgressNotifier.Event.Progress(newProgress1)
+      downloadImage(
+        outputDirectory = threadMediaDownload.outputDirectory,
+        manifest = threadMediaDownload.manifest,
+        isThumbnail = mediaToDownload.isThumbnail,
+        name = mediaToDownload.fileName,
+        imageUrl = mediaToDownload.imageUrl,
+        outOfDiskSpaceError = outOfDiskSpaceError,
+        outputDirError = outputDirError
       )
-
-      val fullImageUrl = postImage.imageUrl
-      val fullImageName = postImage.imageUrl?.extractFileName()
-
-      if (fullImageUrl != null && fullImageName.isNotNullNorEmpty()) {
-        downloadImage(
-          outputDirectory = outputDirectory,
-          isThumbnail = false,
-          name = fullImageName,
-          imageUrl = fullImageUrl,
-          outOfDiskSpaceError = outOfDiskSpaceError,
-          outputDirError = outputDirError
-        )
+    } catch (error: Throwable) {
+      if (error is CancellationException) {
+        throw error
       }
 
-      val newProgress2 = mutex.withLock {
-        totalProgress += progressIncrement
-        totalProgress
+      Logger.e(TAG, "downloadMedia(${mediaToDownload.imageUrl}) unexpected error: ${error.errorMessageOrClassName()}")
+    } finally {
+      val progress = threadMediaDownload.onMediaProcessed()
+      if (progress != null) {
+        threadDownloadProgressNotifier.notifyProgressEvent(
+          threadMediaDownload.threadDescriptor,
+          ThreadDownloadProgressNotifier.Event.Progress(progress)
+        )
       }
-      threadDownloadProgressNotifier.notifyProgressEvent(
-        threadDescriptor,
-        ThreadDownloadProgressNotifier.Event.Progress(newProgress2)
-      )
     }
-
-    Logger.d(TAG, "processThreadMedia($index/$total) chanThread=${threadDescriptor} success")
   }
 
   private suspend fun downloadImage(
     outputDirectory: AbstractFile,
+    manifest: ThreadMediaManifest,
     isThumbnail: Boolean,
     name: String,
     imageUrl: HttpUrl,
@@ -379,11 +484,6 @@ class ThreadDownloadingDelegate(
       return
     }
 
-    if (fileManager.exists(outputFile) && fileManager.getLength(outputFile) > 0L) {
-      // Already downloaded, nothing to do
-      return
-    }
-
     val site = siteResolver.findSiteForUrl(imageUrl.toString())
     val requestModifier = site?.requestModifier()
 
@@ -403,12 +503,15 @@ class ThreadDownloadingDelegate(
     if (!response.isSuccessful) {
       Logger.e(TAG, "downloadImage(isThumbnail=$isThumbnail, name=$name, imageUrl=$imageUrl) " +
         "bad response code: ${response.code}")
+      response.closeQuietly()
+      manifest.markFailed(name)
       return
     }
 
     val responseBody = if (response.body == null) {
       Logger.e(TAG, "downloadImage(isThumbnail=$isThumbnail, name=$name, imageUrl=$imageUrl) " +
         "response body is null")
+      manifest.markFailed(name)
       return
     } else {
       response.body!!
@@ -419,33 +522,110 @@ class ThreadDownloadingDelegate(
       if (outputStream == null) {
         Logger.e(TAG, "downloadImage(isThumbnail=$isThumbnail, name=$name, imageUrl=$imageUrl) " +
           "failed to get output stream for file '${outputFile.getFullPath()}'")
+        outputDirError.set(true)
         return
       }
 
-      runInterruptible {
+      val fileSize = runInterruptible {
         responseBody.byteStream().use { inputStream ->
           outputStream.use { os ->
             inputStream.copyTo(os)
           }
         }
       }
+
+      manifest.markDownloaded(name, fileSize)
     } catch (error: Throwable) {
       if (error.isOutOfDiskSpaceError()) {
         outOfDiskSpaceError.set(true)
+      } else if (error !is CancellationException) {
+        manifest.markFailed(name)
       }
 
       Logger.e(TAG, "Failed to store image into file '$outputFile', deleting it. " +
         "Error: ${error.errorMessageOrClassName()}")
       fileManager.delete(outputFile)
+
+      if (error is CancellationException) {
+        throw error
+      }
     } finally {
       responseBody.closeQuietly()
     }
   }
 
+  private fun isNetworkGoodForMediaDownload(): Boolean {
+    if (ChanSettings.threadDownloaderDownloadMediaOnMeteredNetwork.get()) {
+      return true
+    }
+
+    // Called for every media file, no need to ask the system every time
+    val now = System.currentTimeMillis()
+    if (now - lastNetworkCheckTime < NETWORK_CHECK_INTERVAL_MS) {
+      return lastNetworkCheckResult
+    }
+
+    val isConnectionUnmetered = AppModuleAndroidUtils.isConnectionUnmetered()
+    lastNetworkCheckResult = isConnectionUnmetered
+    lastNetworkCheckTime = now
+
+    return isConnectionUnmetered
+  }
+
+  private class MediaToDownload(
+    val threadMediaDownload: ThreadMediaDownload,
+    val isThumbnail: Boolean,
+    val fileName: String,
+    val imageUrl: HttpUrl
+  )
+
+  private class ThreadMediaDownload(
+    val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    val outputDirectory: AbstractFile,
+    val manifest: ThreadMediaManifest
+  ) {
+    private val completion = CompletableDeferred<Unit>()
+    private val processedCount = AtomicInteger(0)
+    @Volatile
+    private var totalCount = 0
+
+    fun start(totalCount: Int) {
+      require(totalCount > 0) { "Bad totalCount: $totalCount" }
+      this.totalCount = totalCount
+    }
+
+    suspend fun awaitCompletion() {
+      completion.await()
+    }
+
+    /**
+     * Returns the new progress of the thread or null if it didn't change enough to be worth
+     * notifying about.
+     * */
+    fun onMediaProcessed(): Float? {
+      val total = totalCount
+      val processed = processedCount.incrementAndGet()
+
+      if (processed >= total) {
+        completion.complete(Unit)
+      }
+
+      if (processed < total && percentOf(processed, total) == percentOf(processed - 1, total)) {
+        return null
+      }
+
+      return POSTS_PROCESSED_PROGRESS + (1f - POSTS_PROCESSED_PROGRESS) * (processed.toFloat() / total.toFloat())
+    }
+
+    private fun percentOf(processed: Int, total: Int): Int = (processed * 100) / total
+  }
+
   companion object {
     private const val TAG = "ThreadDownloadingDelegate"
     private const val NO_MEDIA_FILE_NAME = ".nomedia"
     private const val POSTS_PROCESSED_PROGRESS = 0.2f
+    private const val MAX_CONCURRENT_DOWNLOADS_PER_HOST = 4
+    private const val NETWORK_CHECK_INTERVAL_MS = 5_000L
 
     fun formatDirectoryName(threadDescriptor: ChanDescriptor.ThreadDescriptor): String {
       return buildString {
@@ -0,0 +1,287 @@
+package com.github.k1rakishou.chan.features.thread_downloading
+
+import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.parallelForEach
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.fsaf.FileManager
+import com.github.k1rakishou.fsaf.file.AbstractFile
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.runInterruptible
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.Writer
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.regex.Pattern
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Shared parts of the downloaded thread exporters (html/json/media).
+ *
+ * - Text entries are written straight into the zip through a buffered writer instead of building
+ *   intermediate strings/streams.
+ * - Media files (which are already compressed: jpg/png/webm/etc) are written into the zip with
+ *   deflate level 0 so they are not compressed again. Unlike STORED entries these don't need the CRC
+ *   and size up front, they are calculated by the zip stream while the file is being copied, so a
+ *   file that changes in the meantime can't make the entry inconsistent.
+ * - Progress is reported as processed/total media bytes with the current speed and ETA.
+ * */
+class ThreadExportPipeline(
+  private val appConstants: AppConstants,
+  private val fileManager: FileManager
+) {
+
+  fun threadMediaFiles(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    excludePattern: Pattern? = null
+  ): List<File> {
+    val threadMediaDirName = ThreadDownloadingDelegate.formatDirectoryName(threadDescriptor)
+    val threadMediaDir = File(appConstants.threadDownloaderCacheDir, threadMediaDirName)
+
+    val mediaFiles = threadMediaDir.listFiles()
+      ?: return emptyList()
+
+    return mediaFiles.filter { mediaFile ->
+      // Skip service files (.nomedia, media manifest)
+      if (!mediaFile.isFile || mediaFile.name.startsWith('.')) {
+        return@filter false
+      }
+
+      return@filter excludePattern == null || !excludePattern.matcher(mediaFile.name).matches()
+    }
+  }
+
+  fun createProgressTracker(
+    threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
+    excludePattern: Pattern? = null,
+    onUpdate: (ExportProgress) -> Unit
+  ): ExportProgressTracker {
+    val totalBytes = threadDescriptors.sumOf { threadDescriptor ->
+      threadMediaFiles(threadDescriptor, excludePattern).sumOf { mediaFile -> mediaFile.length() }
+    }
+
+    return ExportProgressTracker(threadDescriptors.size, totalBytes, onUpdate)
+  }
+
+  suspend fun writeTextEntry(
+    zipOutputStream: ZipOutputStream,
+    entryName: String,
+    writeFunc: suspend (Writer) -> Unit
+  ) {
+    zipOutputStream.putNextEntry(ZipEntry(entryName))
+
+    // Do not close the writer, it will close the zip stream. Flushing is enough.
+    val writer = zipOutputStream.bufferedWriter(Charsets.UTF_8)
+    writeFunc(writer)
+    writer.flush()
+
+    zipOutputStream.closeEntry()
+  }
+
+  suspend fun writeStreamEntry(
+    zipOutputStream: ZipOutputStream,
+    entryName: String,
+    inputStream: InputStream
+  ) {
+    coroutineContext.ensureActive()
+
+    zipOutputStream.putNextEntry(ZipEntry(entryName))
+    runInterruptible(Dispatchers.IO) {
+      inputStream.use { stream -> stream.copyTo(zipOutputStream, BUFFER_SIZE) }
+    }
+    zipOutputStream.closeEntry()
+  }
+
+  suspend fun writeMediaEntries(
+    zipOutputStream: ZipOutputStream,
+    mediaFiles: List<File>,
+    progressTracker: ExportProgressTracker
+  ) {
+    if (mediaFiles.isEmpty()) {
+      return
+    }
+
+    mediaFiles.forEach { mediaFile ->
+      coroutineContext.ensureActive()
+
+      runInterruptible(Dispatchers.IO) {
+        val alreadyCompressed = isAlreadyCompressed(mediaFile)
+        if (alreadyCompressed) {
+          zipOutputStream.setLevel(Deflater.NO_COMPRESSION)
+        }
+
+        try {
+          zipOutputStream.putNextEntry(ZipEntry(mediaFile.name))
+
+          mediaFile.inputStream().use { inputStream ->
+            copyWithProgress(inputStream, zipOutputStream, progressTracker)
+          }
+
+          zipOutputStream.closeEntry()
+        } finally {
+          if (alreadyCompressed) {
+            zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION)
+          }
+        }
+      }
+
+      progressTracker.publish()
+    }
+  }
+
+  suspend fun copyMediaFiles(
+    outputDirectory: AbstractFile,
+    mediaFiles: List<File>,
+    progressTracker: ExportProgressTracker
+  ): Int {
+    val succeeded = AtomicInteger(0)
+
+    parallelForEach(
+      dataList = mediaFiles,
+      parallelization = MEDIA_COPY_PARALLELIZATION,
+      dispatcher = Dispatchers.IO,
+      rethrowErrors = true
+    ) { mediaFile ->
+      val outputFile = fileManager.createFile(outputDirectory, mediaFile.name)
+      if (outputFile == null) {
+        Logger.e(TAG, "fileManager.createFile(${outputDirectory}, ${mediaFile.name}) -> null")
+        return@parallelForEach null
+      }
+
+      val outputStream = fileManager.getOutputStream(outputFile)
+      if (outputStream == null) {
+        Logger.e(TAG, "fileManager.getOutputStream(${outputFile.getFullPath()}) -> null")
+        return@parallelForEach null
+      }
+
+      runInterruptible {
+        outputStream.use { os ->
+          mediaFile.inputStream().use { inputStream ->
+            copyWithProgress(inputStream, os, progressTracker)
+          }
+        }
+      }
+
+      succeeded.incrementAndGet()
+      progressTracker.publish()
+
+      return@parallelForEach null
+    }
+
+    return succeeded.get()
+  }
+
+  private fun copyWithProgress(
+    inputStream: InputStream,
+    outputStream: OutputStream,
+    progressTracker: ExportProgressTracker
+  ) {
+    val buffer = ByteArray(BUFFER_SIZE)
+
+    while (true) {
+      val read = inputStream.read(buffer)
+      if (read < 0) {
+        break
+      }
+
+      outputStream.write(buffer, 0, read)
+      progressTracker.onBytesProcessed(read.toLong())
+    }
+  }
+
+  private fun isAlreadyCompressed(mediaFile: File): Boolean {
+    return mediaFile.extension.lowercase() in COMPRESSED_EXTENSIONS
+  }
+
+  class ExportProgress(
+    val exportedThreads: Int,
+    val totalThreads: Int,
+    val processedBytes: Long,
+    val totalBytes: Long,
+    val bytesPerSecond: Long,
+    // Null when there is not enough data yet to calculate it
+    val etaMs: Long?
+  )
+
+  class ExportProgressTracker(
+    private val totalThreads: Int,
+    private val totalBytes: Long,
+    private val onUpdate: (ExportProgress) -> Unit
+  ) {
+    private val startTime = System.nanoTime()
+    private val exportedThreads = AtomicInteger(0)
+    private val processedBytes = AtomicLong(0)
+    private val lastPublishTime = AtomicLong(0)
+
+    fun onBytesProcessed(count: Long) {
+      processedBytes.addAndGet(count)
+    }
+
+    suspend fun onThreadExported() {
+      exportedThreads.incrementAndGet()
+      publish(force = true)
+    }
+
+    suspend fun publish(force: Boolean = false) {
+      val now = System.nanoTime()
+      val lastPublish = lastPublishTime.get()
+
+      if (!force && now - lastPublish < PUBLISH_INTERVAL_NANOS) {
+        return
+      }
+
+      if (!lastPublishTime.compareAndSet(lastPublish, now) && !force) {
+        // Somebody else is publishing right now
+        return
+      }
+
+      val progress = snapshot(now)
+      withContext(Dispatchers.Main) { onUpdate(progress) }
+    }
+
+    fun snapshot(now: Long = System.nanoTime()): ExportProgress {
+      val processed = processedBytes.get()
+      val elapsedNanos = (now - startTime).coerceAtLeast(1)
+      val bytesPerSecond = (processed * NANOS_IN_SECOND / elapsedNanos)
+
+      val etaMs = if (bytesPerSecond > 0 && totalBytes > 0) {
+        ((totalBytes - processed).coerceAtLeast(0) * 1000L) / bytesPerSecond
+      } else {
+        null
+      }
+
+      return ExportProgress(
+        exportedThreads = exportedThreads.get(),
+        totalThreads = totalThreads,
+        processedBytes = processed,
+        totalBytes = totalBytes,
+        bytesPerSecond = bytesPerSecond,
+        etaMs = etaMs
+      )
+    }
+
+    companion object {
+      private const val NANOS_IN_SECOND = 1_000_000_000L
+      private const val PUBLISH_INTERVAL_NANOS = 250_000_000L
+    }
+  }
+
+  companion object {
+    private const val TAG = "ThreadExportPipeline"
+
+    private const val BUFFER_SIZE = 64 * 1024
+    private const val MEDIA_COPY_PARALLELIZATION = 4
+
+    private val COMPRESSED_EXTENSIONS = setOf(
+      "jpg", "jpeg", "png", "gif", "webp", "webm", "mp4", "mkv", "mov", "mp3", "ogg", "opus",
+      "flac", "m4a", "zip", "7z", "rar", "gz", "pdf"
+    )
+  }
+}
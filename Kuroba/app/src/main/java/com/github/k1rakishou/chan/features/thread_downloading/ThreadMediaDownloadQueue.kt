@@ -0,0 +1,77 @@
+package com.github.k1rakishou.chan.features.thread_downloading
+
+import androidx.annotation.GuardedBy
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Download queue shared by all the threads that are downloaded during one run of the thread
+ * downloader. Every host gets its own queue with [maxConcurrentDownloadsPerHost] workers so that a
+ * host with lots of media (or a slow one) can't take all of the download slots while media of other
+ * hosts is waiting, and the total amount of concurrent downloads is limited by [maxConcurrentDownloads].
+ *
+ * [downloadFunc] must not throw (other than on cancellation) since that would cancel [scope].
+ * */
+class ThreadMediaDownloadQueue<T>(
+  private val scope: CoroutineScope,
+  maxConcurrentDownloads: Int,
+  private val maxConcurrentDownloadsPerHost: Int,
+  private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+  private val downloadFunc: suspend (T) -> Unit
+) {
+  private val downloadPermits = Semaphore(maxConcurrentDownloads)
+
+  @GuardedBy("this")
+  private val hostQueues = mutableMapOf<String, Channel<T>>()
+  @GuardedBy("this")
+  private val workers = mutableListOf<Job>()
+  @GuardedBy("this")
+  private var closed = false
+
+  fun enqueue(host: String, item: T) {
+    val hostQueue = synchronized(this) {
+      check(!closed) { "Queue is already closed" }
+      hostQueues.getOrPut(host) { createHostQueue() }
+    }
+
+    // Unlimited channel, this never fails unless the channel is closed
+    hostQueue.trySend(item).getOrThrow()
+  }
+
+  /**
+   * Waits until everything that was enqueued is processed. Nothing can be enqueued afterwards.
+   * */
+  suspend fun closeAndJoin() {
+    val workersToJoin = synchronized(this) {
+      closed = true
+      hostQueues.values.forEach { hostQueue -> hostQueue.close() }
+
+      return@synchronized workers.toList()
+    }
+
+    workersToJoin.joinAll()
+  }
+
+  @GuardedBy("this")
+  private fun createHostQueue(): Channel<T> {
+    val hostQueue = Channel<T>(Channel.UNLIMITED)
+
+    repeat(maxConcurrentDownloadsPerHost) {
+      workers += scope.launch(dispatcher) {
+        for (item in hostQueue) {
+          downloadPermits.withPermit { downloadFunc(item) }
+        }
+      }
+    }
+
+    return hostQueue
+  }
+
+}
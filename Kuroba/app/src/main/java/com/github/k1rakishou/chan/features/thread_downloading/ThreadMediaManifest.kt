@@ -0,0 +1,267 @@
+package com.github.k1rakishou.chan.features.thread_downloading
+
+import androidx.annotation.GuardedBy
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.Writer
+
+/**
+ * Remembers which media files of a downloaded thread are already downloaded and which failed to
+ * download (and how many times) so that the next run only needs to download the new ones instead of
+ * checking every file of the thread directory.
+ *
+ * Stored next to the media as a text file with one "<state> <failedAttempts> <fileSize> <fileName>"
+ * line per change. Lines are only ever appended (and flushed right away) so that an interrupted run
+ * can be resumed, the file is compacted when it's loaded and contains too many outdated lines.
+ *
+ * A file that is marked as downloaded is only trusted while it still exists and has the recorded
+ * size, so a file that was deleted or truncated outside of the app is downloaded again.
+ * */
+class ThreadMediaManifest private constructor(
+  private val manifestFile: File,
+  @GuardedBy("this")
+  private val entries: MutableMap<String, Entry>
+) {
+  @GuardedBy("this")
+  private var writer: Writer? = null
+
+  val size: Int
+    @Synchronized get() = entries.size
+
+  @Synchronized
+  fun isDownloaded(fileName: String): Boolean {
+    val entry = entries[fileName]
+      ?: return false
+
+    return entry.downloaded && isFileIntact(fileName, entry)
+  }
+
+  /**
+   * Whether the file is neither downloaded (and still intact on the disk) nor failed to download
+   * [MAX_DOWNLOAD_ATTEMPTS] times.
+   * */
+  @Synchronized
+  fun needsDownload(fileName: String): Boolean {
+    val entry = entries[fileName]
+      ?: return true
+
+    if (entry.downloaded) {
+      return !isFileIntact(fileName, entry)
+    }
+
+    return entry.failedAttempts < MAX_DOWNLOAD_ATTEMPTS
+  }
+
+  @Synchronized
+  fun markDownloaded(fileName: String, fileSize: Long) {
+    val entry = Entry(
+      downloaded = true,
+      failedAttempts = entries[fileName]?.failedAttempts ?: 0,
+      fileSize = fileSize
+    )
+    entries[fileName] = entry
+
+    append(fileName, entry)
+  }
+
+  @Synchronized
+  fun markFailed(fileName: String) {
+    val entry = Entry(
+      downloaded = false,
+      failedAttempts = (entries[fileName]?.failedAttempts ?: 0) + 1,
+      fileSize = 0L
+    )
+    entries[fileName] = entry
+
+    append(fileName, entry)
+  }
+
+  /**
+   * Gives the media that failed to download [MAX_DOWNLOAD_ATTEMPTS] times another chance. Called
+   * when the user starts or resumes the thread download manually.
+   * */
+  @Synchronized
+  fun resetFailedAttempts() {
+    val failedFileNames = entries
+      .filter { (_, entry) -> !entry.downloaded && entry.failedAttempts > 0 }
+      .keys
+
+    failedFileNames.forEach { fileName ->
+      val entry = Entry(downloaded = false, failedAttempts = 0, fileSize = 0L)
+      entries[fileName] = entry
+
+      append(fileName, entry)
+    }
+  }
+
+  @Synchronized
+  fun close() {
+    try {
+      writer?.close()
+    } catch (ignored: IOException) {
+      // We flush after every line anyway
+    } finally {
+      writer = null
+    }
+  }
+
+  @GuardedBy("this")
+  private fun isFileIntact(fileName: String, entry: Entry): Boolean {
+    val file = File(manifestFile.parentFile, fileName)
+    return file.length() == entry.fileSize && file.isFile
+  }
+
+  @GuardedBy("this")
+  private fun append(fileName: String, entry: Entry) {
+    var currentWriter = writer
+    if (currentWriter == null) {
+      currentWriter = FileOutputStream(manifestFile, true).bufferedWriter()
+      writer = currentWriter
+    }
+
+    writeLine(currentWriter, fileName, entry)
+    currentWriter.flush()
+  }
+
+  data class Entry(val downloaded: Boolean, val failedAttempts: Int, val fileSize: Long)
+
+  companion object {
+    const val MANIFEST_FILE_NAME = ".media_manifest"
+    const val MAX_DOWNLOAD_ATTEMPTS = 3
+
+    private const val STATE_DOWNLOADED = 'D'
+    private const val STATE_FAILED = 'F'
+    private const val MIN_STALE_LINES_TO_COMPACT = 64
+
+    /**
+     * Loads the manifest of [directory]. When there is no manifest yet (the thread was downloaded
+     * before manifests existed) the directory is scanned once and every non-empty file is considered
+     * downloaded.
+     * */
+    @Throws(IOException::class)
+    fun load(directory: File): ThreadMediaManifest {
+      val manifestFile = File(directory, MANIFEST_FILE_NAME)
+
+      if (!manifestFile.exists()) {
+        val entries = scanDirectory(directory)
+        writeCompacted(manifestFile, entries)
+
+        return ThreadMediaManifest(manifestFile, entries)
+      }
+
+      val content = manifestFile.readText()
+      val entries = mutableMapOf<String, Entry>()
+      var linesCount = 0
+      var malformedLines = 0
+
+      // A run that got killed in the middle of writing a line leaves the file without a trailing
+      // line break. Such line can't be trusted and the file needs to be rewritten without it,
+      // otherwise the next line would be appended to the broken one.
+      val hasBrokenLastLine = content.isNotEmpty() && !content.endsWith('\n')
+      val completeContent = if (hasBrokenLastLine) {
+        content.substring(0, content.lastIndexOf('\n') + 1)
+      } else {
+        content
+      }
+
+      completeContent.lineSequence().forEach { line ->
+        if (line.isEmpty()) {
+          return@forEach
+        }
+
+        ++linesCount
+
+        if (!parseLine(line, entries)) {
+          ++malformedLines
+        }
+      }
+
+      val staleLines = linesCount - entries.size
+      val needsCompaction = malformedLines > 0
+        || hasBrokenLastLine
+        || (staleLines >= MIN_STALE_LINES_TO_COMPACT && staleLines > entries.size)
+
+      if (needsCompaction) {
+        writeCompacted(manifestFile, entries)
+      }
+
+      return ThreadMediaManifest(manifestFile, entries)
+    }
+
+    private fun scanDirectory(directory: File): MutableMap<String, Entry> {
+      val files = directory.listFiles()
+        ?: return mutableMapOf()
+
+      val entries = mutableMapOf<String, Entry>()
+
+      files.forEach { file ->
+        if (!file.isFile || file.name.startsWith('.') || file.length() <= 0L) {
+          return@forEach
+        }
+
+        entries[file.name] = Entry(downloaded = true, failedAttempts = 0, fileSize = file.length())
+      }
+
+      return entries
+    }
+
+    private fun parseLine(line: String, entries: MutableMap<String, Entry>): Boolean {
+      val firstSpace = line.indexOf(' ')
+      if (firstSpace != 1) {
+        return false
+      }
+
+      val secondSpace = line.indexOf(' ', startIndex = firstSpace + 1)
+      if (secondSpace < 0) {
+        return false
+      }
+
+      val thirdSpace = line.indexOf(' ', startIndex = secondSpace + 1)
+      if (thirdSpace < 0 || thirdSpace == line.lastIndex) {
+        return false
+      }
+
+      val downloaded = when (line[0]) {
+        STATE_DOWNLOADED -> true
+        STATE_FAILED -> false
+        else -> return false
+      }
+
+      val failedAttempts = line.substring(firstSpace + 1, secondSpace).toIntOrNull()
+        ?: return false
+
+      val fileSize = line.substring(secondSpace + 1, thirdSpace).toLongOrNull()
+        ?: return false
+
+      entries[line.substring(thirdSpace + 1)] = Entry(downloaded, failedAttempts, fileSize)
+      return true
+    }
+
+    private fun writeCompacted(manifestFile: File, entries: Map<String, Entry>) {
+      val tempFile = File(manifestFile.parentFile, "${MANIFEST_FILE_NAME}.tmp")
+
+      tempFile.bufferedWriter().use { writer ->
+        entries.forEach { (fileName, entry) -> writeLine(writer, fileName, entry) }
+      }
+
+      if (!tempFile.renameTo(manifestFile)) {
+        tempFile.delete()
+        throw IOException("Failed to rename '${tempFile.absolutePath}' into '${manifestFile.absolutePath}'")
+      }
+    }
+
+    private fun writeLine(writer: Writer, fileName: String, entry: Entry) {
+      writer
+        .append(if (entry.downloaded) STATE_DOWNLOADED else STATE_FAILED)
+        .append(' ')
+        .append(entry.failedAttempts.toString())
+        .append(' ')
+        .append(entry.fileSize.toString())
+        .append(' ')
+        .append(fileName)
+        .append('\n')
+    }
+  }
+
+}
@@ -313,7 +313,8 @@ class PostAdapter(
     chanTheme: ChanTheme,
     postIndexedList: List<PostIndexed>,
     postCellDataWidthNoPaddings: Int,
-    prevScrollPositionData: PreviousThreadScrollPositionData? = null
+    prevScrollPositionData: PreviousThreadScrollPositionData? = null,
+    threadRevision: Long? = null
   ) {
     BackgroundUtils.ensureMainThread()
 
@@ -323,7 +324,8 @@ class PostAdapter(
       postIndexedList = postIndexedList,
       postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
       theme = chanTheme,
-      prevScrollPositionData = prevScrollPositionData
+      prevScrollPositionData = prevScrollPositionData,
+      threadRevision = threadRevision
     )
 
     if (threadCellData.chanDescriptor is ChanDescriptor.ICatalogDescriptor) {
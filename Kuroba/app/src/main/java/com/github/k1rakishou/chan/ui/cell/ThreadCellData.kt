@@ -20,8 +20,11 @@ import com.github.k1rakishou.core_themes.ChanTheme
 import com.github.k1rakishou.model.data.board.pages.BoardPages
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.HighlightFilterKeyword
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostHide
 import com.github.k1rakishou.model.data.post.PostIndexed
+import com.github.k1rakishou.model.data.thread.ChanThreadChangeSet
 import dagger.Lazy
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -60,6 +63,11 @@ class ThreadCellData(
   @Volatile private var postCellCallback: PostCellInterface.PostCellCallback? = null
   private var currentTheme: ChanTheme = initialTheme
   private var lazyCalculationJob: Job? = null
+  // Revision of the thread and the inputs the current postCellDataLazyList was built with. When the
+  // inputs stay the same the cells of the posts that didn't change since that revision are reused.
+  private var lastThreadRevision: Long? = null
+  private var lastPostCellDataInputs: PostCellDataInputs? = null
+  private var lastHighlightFilterKeywordMap: Map<PostDescriptor, Set<HighlightFilterKeyword>> = emptyMap()
 
   var postViewMode: PostCellData.PostViewMode = PostCellData.PostViewMode.Normal
   var defaultIsCompact: Boolean = false
@@ -108,13 +116,20 @@ class ThreadCellData(
         val oldPostCellData = oldPostCellDataLazy.getOrCalculate()
         val postIndexed = PostIndexed(updatedPost, oldPostCellData.postIndex)
 
+        val postDescriptors = listOf(updatedPost.postDescriptor)
+
         val updatedPostCellData = postIndexedListToLazyPostCellDataList(
           postCellCallback = callback,
           chanDescriptor = descriptor,
           theme = currentTheme,
           postIndexedList = listOf(postIndexed),
-          postDescriptors = listOf(updatedPost.postDescriptor),
-          postCellDataWidthNoPaddings = oldPostCellData.postCellDataWidthNoPaddings,
+          postCellDataInputs = collectPostCellDataInputs(
+            postCellCallback = callback,
+            chanDescriptor = descriptor,
+            theme = currentTheme,
+            postCellDataWidthNoPaddings = oldPostCellData.postCellDataWidthNoPaddings
+          ),
+          highlightFilterKeywordMap = postFilterHighlightManager.getHighlightFilterKeywordForDescriptor(postDescriptors),
           oldPostCellData = oldPostCellData
         )
 
@@ -144,13 +159,20 @@ class ThreadCellData(
     return updatedAtLeastOne
   }
 
+  /**
+   * [threadRevision] is the revision of the thread (see [ChanThreadManager.getThreadRevision]) read
+   * before the [postIndexedList] was read from the cache. When it's provided the already calculated
+   * cells of the posts that haven't changed since the previous update are reused instead of being
+   * calculated again.
+   * */
   suspend fun updateThreadData(
     postCellCallback: PostCellInterface.PostCellCallback,
     chanDescriptor: ChanDescriptor,
     postIndexedList: List<PostIndexed>,
     postCellDataWidthNoPaddings: Int,
     theme: ChanTheme,
-    prevScrollPositionData: PreviousThreadScrollPositionData? = null
+    prevScrollPositionData: PreviousThreadScrollPositionData? = null,
+    threadRevision: Long? = null
   ) {
     require(postCellDataWidthNoPaddings > 0) { "Bad postCellDataWidthNoPaddings: ${postCellDataWidthNoPaddings}" }
     BackgroundUtils.ensureMainThread()
@@ -163,18 +185,57 @@ class ThreadCellData(
       postIndexed.chanPost.postDescriptor
     }
 
-    val newPostCellDataLazyList = withContext(Dispatchers.Default) {
-      return@withContext postIndexedListToLazyPostCellDataList(
+    val oldPostCellDataLazyList = postCellDataLazyList.toList()
+    val oldThreadRevision = lastThreadRevision
+    val oldPostCellDataInputs = lastPostCellDataInputs
+    val oldHighlightFilterKeywordMap = lastHighlightFilterKeywordMap
+
+    val (newPostCellDataLazyList, postCellDataInputs, highlightFilterKeywordMap) = withContext(Dispatchers.Default) {
+      val postCellDataInputs = collectPostCellDataInputs(
+        postCellCallback = postCellCallback,
+        chanDescriptor = chanDescriptor,
+        theme = theme,
+        postCellDataWidthNoPaddings = postCellDataWidthNoPaddings
+      )
+
+      val highlightFilterKeywordMap = postFilterHighlightManager.getHighlightFilterKeywordForDescriptor(postDescriptors)
+
+      val threadChangeSet = getThreadChangeSetForCellsReuse(
+        chanDescriptor = chanDescriptor,
+        threadRevision = threadRevision,
+        oldThreadRevision = oldThreadRevision,
+        postCellDataInputs = postCellDataInputs,
+        oldPostCellDataInputs = oldPostCellDataInputs
+      )
+
+      val reusablePostCells = if (threadChangeSet != null) {
+        ReusablePostCells(
+          threadChangeSet = threadChangeSet,
+          oldPostCellDataLazyList = oldPostCellDataLazyList,
+          oldHighlightFilterKeywordMap = oldHighlightFilterKeywordMap
+        )
+      } else {
+        null
+      }
+
+      val newPostCellDataLazyList = postIndexedListToLazyPostCellDataList(
         postCellCallback = postCellCallback,
         chanDescriptor = chanDescriptor,
         theme = theme,
         postIndexedList = postIndexedList,
-        postDescriptors = postDescriptors,
-        postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
-        oldPostCellData = null
+        postCellDataInputs = postCellDataInputs,
+        highlightFilterKeywordMap = highlightFilterKeywordMap,
+        oldPostCellData = null,
+        reusablePostCells = reusablePostCells
       )
+
+      return@withContext Triple(newPostCellDataLazyList, postCellDataInputs, highlightFilterKeywordMap)
     }
 
+    this.lastThreadRevision = threadRevision
+    this.lastPostCellDataInputs = postCellDataInputs
+    this.lastHighlightFilterKeywordMap = highlightFilterKeywordMap
+
     if (newPostCellDataLazyList.isNotEmpty()) {
       lazyCalculationJob?.cancel()
       lazyCalculationJob = coroutineScope.launch(Dispatchers.IO) {
@@ -239,38 +300,44 @@ class ThreadCellData(
     }
   }
 
-  private suspend fun postIndexedListToLazyPostCellDataList(
+  private fun getThreadChangeSetForCellsReuse(
+    chanDescriptor: ChanDescriptor,
+    threadRevision: Long?,
+    oldThreadRevision: Long?,
+    postCellDataInputs: PostCellDataInputs,
+    oldPostCellDataInputs: PostCellDataInputs?
+  ): ChanThreadChangeSet? {
+    if (chanDescriptor !is ChanDescriptor.ThreadDescriptor) {
+      return null
+    }
+
+    if (threadRevision == null || oldThreadRevision == null) {
+      return null
+    }
+
+    if (postCellDataInputs != oldPostCellDataInputs) {
+      return null
+    }
+
+    // The change set may also contain changes made after threadRevision (the posts we got are
+    // older than that) in which case we will just recalculate more cells than necessary.
+    val threadChangeSet = chanThreadManager.getThreadChangeSetSince(chanDescriptor, oldThreadRevision)
+    if (threadChangeSet == null || threadChangeSet.invalidated) {
+      return null
+    }
+
+    return threadChangeSet
+  }
+
+  private fun collectPostCellDataInputs(
     postCellCallback: PostCellInterface.PostCellCallback,
     chanDescriptor: ChanDescriptor,
     theme: ChanTheme,
-    postIndexedList: List<PostIndexed>,
-    postDescriptors: List<PostDescriptor>,
-    postCellDataWidthNoPaddings: Int,
-    oldPostCellData: PostCellData?
-  ): List<PostCellDataLazy> {
+    postCellDataWidthNoPaddings: Int
+  ): PostCellDataInputs {
     BackgroundUtils.ensureBackgroundThread()
 
-    val totalPostsCount = postIndexedList.size
-    val resultList = mutableListWithCap<PostCellDataLazy>(totalPostsCount)
-
-    val textSizeSp = ChanSettings.fontSize.get().toInt()
-    val detailsSizeSp = ChanSettings.detailsSizeSp()
-    val boardPostsSortOrder = PostsFilter.CatalogSortingOrder.current()
     val neverShowPages = ChanSettings.neverShowPages.get()
-    val tapNoReply = ChanSettings.tapNoReply.get()
-    val postFullDate = ChanSettings.postFullDate.get()
-    val postFullDateLocalLocale = ChanSettings.postFullDateUseLocalLocale.get()
-    val shiftPostComment = ChanSettings.shiftPostComment.get()
-    val forceShiftPostComment = ChanSettings.forceShiftPostComment.get()
-    val textOnly = ChanSettings.textOnly.get()
-    val showPostFileInfo = ChanSettings.postFileInfo.get()
-    val markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor()
-    val markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor()
-    val chanTheme = theme.copyTheme()
-    val postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get()
-    val boardPages = getBoardPages(chanDescriptor, neverShowPages, postCellCallback)
-    val isTablet = isTablet()
-    val isSplitLayout = ChanSettings.isSplitLayoutMode()
 
     val postHideMap = when (chanDescriptor) {
       is ChanDescriptor.ICatalogDescriptor -> {
@@ -291,7 +358,7 @@ class ThreadCellData(
       is ChanDescriptor.ThreadDescriptor -> ChanSettings.threadPostAlignmentMode.get()
     }
 
-    val threadPostReplyMap = mutableMapWithCap<PostDescriptor, Boolean>(postIndexedList.size)
+    val threadPostReplyMap = mutableMapWithCap<PostDescriptor, Boolean>(16)
 
     if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
       val savedReplies = savedReplyManager.getThreadSavedReplies(chanDescriptor)
@@ -301,18 +368,80 @@ class ThreadCellData(
       }
     }
 
-    val highlightFilterKeywordMap = postFilterHighlightManager.getHighlightFilterKeywordForDescriptor(postDescriptors)
+    return PostCellDataInputs(
+      postCellCallback = postCellCallback,
+      chanDescriptor = chanDescriptor,
+      theme = theme,
+      postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
+      postViewMode = postViewMode,
+      markedPostNo = defaultMarkedNo,
+      compact = defaultIsCompact,
+      boardPostViewMode = defaultBoardPostViewMode,
+      searchQuery = defaultSearchQuery,
+      textSizeSp = ChanSettings.fontSize.get().toInt(),
+      detailsSizeSp = ChanSettings.detailsSizeSp(),
+      boardPostsSortOrder = PostsFilter.CatalogSortingOrder.current(),
+      neverShowPages = neverShowPages,
+      tapNoReply = ChanSettings.tapNoReply.get(),
+      postFullDate = ChanSettings.postFullDate.get(),
+      postFullDateLocalLocale = ChanSettings.postFullDateUseLocalLocale.get(),
+      shiftPostComment = ChanSettings.shiftPostComment.get(),
+      forceShiftPostComment = ChanSettings.forceShiftPostComment.get(),
+      postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get(),
+      textOnly = ChanSettings.textOnly.get(),
+      showPostFileInfo = ChanSettings.postFileInfo.get(),
+      markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor(),
+      markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor(),
+      postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get(),
+      boardPages = getBoardPages(chanDescriptor, neverShowPages, postCellCallback),
+      isTablet = isTablet(),
+      isSplitLayout = ChanSettings.isSplitLayoutMode(),
+      postHideMap = postHideMap,
+      postAlignmentMode = postAlignmentMode,
+      threadPostReplyMap = threadPostReplyMap
+    )
+  }
+
+  private suspend fun postIndexedListToLazyPostCellDataList(
+    postCellCallback: PostCellInterface.PostCellCallback,
+    chanDescriptor: ChanDescriptor,
+    theme: ChanTheme,
+    postIndexedList: List<PostIndexed>,
+    postCellDataInputs: PostCellDataInputs,
+    highlightFilterKeywordMap: Map<PostDescriptor, Set<HighlightFilterKeyword>>,
+    oldPostCellData: PostCellData?,
+    reusablePostCells: ReusablePostCells? = null
+  ): List<PostCellDataLazy> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val totalPostsCount = postIndexedList.size
+    val resultList = mutableListWithCap<PostCellDataLazy>(totalPostsCount)
+    val chanTheme = theme.copyTheme()
+    var reusedPostCellsCount = 0
 
     postIndexedList.forEachIndexed { orderInList, postIndexed ->
+      val reusablePostCellDataLazy = reusablePostCells?.findReusable(
+        orderInList = orderInList,
+        postIndexed = postIndexed,
+        totalPostsCount = totalPostsCount,
+        highlightFilterKeywordMap = highlightFilterKeywordMap
+      )
+
+      if (reusablePostCellDataLazy != null) {
+        resultList += reusablePostCellDataLazy
+        ++reusedPostCellsCount
+        return@forEachIndexed
+      }
+
       val lazyFunc = lazy {
         val chanPost = postIndexed.chanPost
         val postDescriptor = chanPost.postDescriptor
 
-        val postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get()
-          && postViewMode != PostCellData.PostViewMode.Search
+        val postMultipleImagesCompactMode = postCellDataInputs.postMultipleImagesCompactMode
+          && postCellDataInputs.postViewMode != PostCellData.PostViewMode.Search
           && chanPost.postImages.size > 1
 
-        val boardPage = boardPages?.boardPages
+        val boardPage = postCellDataInputs.boardPages?.boardPages
           ?.firstOrNull { boardPage -> boardPage.threads[postDescriptor.threadDescriptor()] != null }
 
         val postCellData = PostCellData(
@@ -320,38 +449,38 @@ class ThreadCellData(
           post = chanPost,
           postImages = chanPost.postImages,
           postIndex = postIndexed.postIndex,
-          postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
-          textSizeSp = textSizeSp,
-          detailsSizeSp = detailsSizeSp,
+          postCellDataWidthNoPaddings = postCellDataInputs.postCellDataWidthNoPaddings,
+          textSizeSp = postCellDataInputs.textSizeSp,
+          detailsSizeSp = postCellDataInputs.detailsSizeSp,
           theme = chanTheme,
-          postViewMode = postViewMode,
-          markedPostNo = defaultMarkedNo,
+          postViewMode = postCellDataInputs.postViewMode,
+          markedPostNo = postCellDataInputs.markedPostNo,
           showDivider = oldPostCellData?.showDivider ?: defaultShowDividerFunc.invoke(orderInList, totalPostsCount),
-          compact = defaultIsCompact,
-          boardPostViewMode = defaultBoardPostViewMode,
-          boardPostsSortOrder = boardPostsSortOrder,
+          compact = postCellDataInputs.compact,
+          boardPostViewMode = postCellDataInputs.boardPostViewMode,
+          boardPostsSortOrder = postCellDataInputs.boardPostsSortOrder,
           boardPage = boardPage,
-          neverShowPages = neverShowPages,
-          tapNoReply = tapNoReply,
-          postFullDate = postFullDate,
-          postFullDateLocalLocale = postFullDateLocalLocale,
-          shiftPostComment = shiftPostComment,
-          forceShiftPostComment = forceShiftPostComment,
+          neverShowPages = postCellDataInputs.neverShowPages,
+          tapNoReply = postCellDataInputs.tapNoReply,
+          postFullDate = postCellDataInputs.postFullDate,
+          postFullDateLocalLocale = postCellDataInputs.postFullDateLocalLocale,
+          shiftPostComment = postCellDataInputs.shiftPostComment,
+          forceShiftPostComment = postCellDataInputs.forceShiftPostComment,
           postMultipleImagesCompactMode = postMultipleImagesCompactMode,
-          textOnly = textOnly,
-          showPostFileInfo = showPostFileInfo,
-          markUnseenPosts = markUnseenPosts,
-          markSeenThreads = markSeenThreads,
-          postHideMap = postHideMap,
-          searchQuery = defaultSearchQuery,
+          textOnly = postCellDataInputs.textOnly,
+          showPostFileInfo = postCellDataInputs.showPostFileInfo,
+          markUnseenPosts = postCellDataInputs.markUnseenPosts,
+          markSeenThreads = postCellDataInputs.markSeenThreads,
+          postHideMap = postCellDataInputs.postHideMap,
+          searchQuery = postCellDataInputs.searchQuery,
           keywordsToHighlight = highlightFilterKeywordMap[postDescriptor] ?: emptySet(),
-          postAlignmentMode = postAlignmentMode,
-          postCellThumbnailSizePercents = postCellThumbnailSizePercents,
+          postAlignmentMode = postCellDataInputs.postAlignmentMode,
+          postCellThumbnailSizePercents = postCellDataInputs.postCellThumbnailSizePercents,
           isSavedReply = chanPost.isSavedReply,
           isReplyToSavedReply = chanPost.repliesTo
-            .any { replyTo -> threadPostReplyMap[replyTo] == true },
-          isTablet = isTablet,
-          isSplitLayout = isSplitLayout,
+            .any { replyTo -> postCellDataInputs.threadPostReplyMap[replyTo] == true },
+          isTablet = postCellDataInputs.isTablet,
+          isSplitLayout = postCellDataInputs.isSplitLayout,
         )
 
         postCellData.postCellCallback = postCellCallback
@@ -362,12 +491,18 @@ class ThreadCellData(
 
       val postCellDataLazy = PostCellDataLazy(
         post = postIndexed.chanPost,
+        postIndex = postIndexed.postIndex,
         lazyDataCalcFunc = lazyFunc
       )
 
       resultList += postCellDataLazy
     }
 
+    if (reusablePostCells != null) {
+      Logger.d(TAG, "postIndexedListToLazyPostCellDataList() reused ${reusedPostCellsCount} out of " +
+        "${totalPostsCount} post cells (${reusablePostCells.threadChangeSet})")
+    }
+
     return resultList
   }
 
@@ -407,6 +542,9 @@ class ThreadCellData(
 
     postCellDataLazyList.clear()
 
+    lastThreadRevision = null
+    lastPostCellDataInputs = null
+    lastHighlightFilterKeywordMap = emptyMap()
     lastSeenIndicatorPosition = -1
     defaultMarkedNo = null
     error = null
@@ -611,8 +749,87 @@ class ThreadCellData(
     }
   }
 
+  /**
+   * Everything (except for the post itself) a [PostCellData] is calculated from. If the inputs are
+   * the same then the cells of the posts that didn't change can be reused.
+   * */
+  private data class PostCellDataInputs(
+    val postCellCallback: PostCellInterface.PostCellCallback,
+    val chanDescriptor: ChanDescriptor,
+    val theme: ChanTheme,
+    val postCellDataWidthNoPaddings: Int,
+    val postViewMode: PostCellData.PostViewMode,
+    val markedPostNo: Long?,
+    val compact: Boolean,
+    val boardPostViewMode: ChanSettings.BoardPostViewMode,
+    val searchQuery: PostCellData.SearchQuery,
+    val textSizeSp: Int,
+    val detailsSizeSp: Int,
+    val boardPostsSortOrder: PostsFilter.CatalogSortingOrder,
+    val neverShowPages: Boolean,
+    val tapNoReply: Boolean,
+    val postFullDate: Boolean,
+    val postFullDateLocalLocale: Boolean,
+    val shiftPostComment: Boolean,
+    val forceShiftPostComment: Boolean,
+    val postMultipleImagesCompactMode: Boolean,
+    val textOnly: Boolean,
+    val showPostFileInfo: Boolean,
+    val markUnseenPosts: Boolean,
+    val markSeenThreads: Boolean,
+    val postCellThumbnailSizePercents: Int,
+    val boardPages: BoardPages?,
+    val isTablet: Boolean,
+    val isSplitLayout: Boolean,
+    val postHideMap: Map<PostDescriptor, ChanPostHide>,
+    val postAlignmentMode: ChanSettings.PostAlignmentMode,
+    val threadPostReplyMap: Map<PostDescriptor, Boolean>
+  )
+
+  private inner class ReusablePostCells(
+    val threadChangeSet: ChanThreadChangeSet,
+    private val oldPostCellDataLazyList: List<PostCellDataLazy>,
+    private val oldHighlightFilterKeywordMap: Map<PostDescriptor, Set<HighlightFilterKeyword>>
+  ) {
+
+    fun findReusable(
+      orderInList: Int,
+      postIndexed: PostIndexed,
+      totalPostsCount: Int,
+      highlightFilterKeywordMap: Map<PostDescriptor, Set<HighlightFilterKeyword>>
+    ): PostCellDataLazy? {
+      val oldPostCellDataLazy = oldPostCellDataLazyList.getOrNull(orderInList)
+        ?: return null
+      val postDescriptor = postIndexed.chanPost.postDescriptor
+
+      if (oldPostCellDataLazy.postDescriptor != postDescriptor || oldPostCellDataLazy.postIndex != postIndexed.postIndex) {
+        return null
+      }
+
+      if (threadChangeSet.isPostChanged(postDescriptor)) {
+        return null
+      }
+
+      if (highlightFilterKeywordMap[postDescriptor] != oldHighlightFilterKeywordMap[postDescriptor]) {
+        return null
+      }
+
+      val oldTotalPostsCount = oldPostCellDataLazyList.size
+      val showDividerChanged = defaultShowDividerFunc.invoke(orderInList, totalPostsCount) !=
+        defaultShowDividerFunc.invoke(orderInList, oldTotalPostsCount)
+
+      if (showDividerChanged) {
+        return null
+      }
+
+      return oldPostCellDataLazy
+    }
+
+  }
+
   class PostCellDataLazy(
     val post: ChanPost,
+    val postIndex: Int,
     private val lazyDataCalcFunc: kotlin.Lazy<PostCellData>
   ) {
     val postDescriptor: PostDescriptor
@@ -474,7 +474,7 @@ open class ViewThreadController(
     rendezvousCoroutineExecutor.post {
       val (title, subtitle) = withContext(Dispatchers.Default) {
         val chanThread = chanThreadManager.getChanThread(threadDescriptor)
-        val originalPost = chanThread?.getOriginalPost()
+        val originalPost = chanThreadManager.getOriginalPost(threadDescriptor)
 
         val title = ChanPostUtils.getTitle(originalPost, threadDescriptor)
         var subtitle: String? = null
@@ -772,8 +772,7 @@ open class ViewThreadController(
             context = context,
             downloadClicked = { downloadMedia ->
               controllerScope.launch {
-                val threadThumbnailUrl = chanThreadManager.getChanThread(threadDescriptor)
-                  ?.getOriginalPost()
+                val threadThumbnailUrl = chanThreadManager.getOriginalPost(threadDescriptor)
                   ?.firstImage()
                   ?.actualThumbnailUrl
                   ?.toString()
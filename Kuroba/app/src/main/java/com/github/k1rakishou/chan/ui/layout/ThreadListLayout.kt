@@ -494,6 +494,11 @@ class ThreadListLayout @JvmOverloads constructor(
       recyclerView.recycledViewPool.clear()
     }
 
+    // Must be read before the posts, see ThreadCellData.updateThreadData(). Posts that are going to
+    // be reparsed are not tracked by the thread change sets so in this case all cells are recalculated.
+    val threadRevision = (descriptor as? ChanDescriptor.ThreadDescriptor)
+      ?.takeIf { additionalPostsToReparse.isEmpty() }
+      ?.let { threadDescriptor -> chanThreadManager.getThreadRevision(threadDescriptor) }
     val posts = chanThreadManager.getMutableListOfPosts(descriptor)
 
     val (filteredPosts, applyFilterDuration) = measureTimedValue {
@@ -512,6 +517,7 @@ class ThreadListLayout @JvmOverloads constructor(
         postIndexedList = filteredPosts,
         postCellDataWidthNoPaddings = recyclerViewWidth,
         prevScrollPositionData = prevScrollPositionData,
+        threadRevision = threadRevision
       )
     }
 
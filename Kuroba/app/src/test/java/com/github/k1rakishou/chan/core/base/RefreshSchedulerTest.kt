@@ -0,0 +1,130 @@
+package com.github.k1rakishou.chan.core.base
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import kotlin.random.Random
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class RefreshSchedulerTest {
+
+  @Test
+  fun `refreshes due around the same time run together`() = runTest {
+    val scheduler = createScheduler()
+    val runs = mutableListOf<Pair<String, Long>>()
+
+    // Thread refresh window is [15s, 20s], bookmarks refresh window is [22.5s, 30s]
+    refreshRepeatedly(scheduler, "thread", intervalMs = 20_000L, times = 1, runs = runs)
+    refreshRepeatedly(scheduler, "bookmarks", intervalMs = 30_000L, times = 1, runs = runs)
+    // Deadline at 24s, its window is already open when the bookmarks refresh is due
+    refreshRepeatedly(scheduler, "other", intervalMs = 24_000L, flexMs = 0L, times = 1, runs = runs)
+
+    testScheduler.advanceTimeBy(60_000L)
+    testScheduler.runCurrent()
+
+    assertEquals(
+      listOf("thread" to 20_000L, "other" to 24_000L, "bookmarks" to 24_000L),
+      runs
+    )
+  }
+
+  @Test
+  fun `refreshes never run later than their deadline`() = runTest {
+    val jitterMs = 1_000L
+    val scheduler = createScheduler(random = Random(42))
+    val runs = mutableListOf<Pair<String, Long>>()
+
+    refreshRepeatedly(scheduler, "thread", intervalMs = 20_000L, jitterMs = jitterMs, times = 5, runs = runs)
+    refreshRepeatedly(scheduler, "bookmarks", intervalMs = 33_000L, jitterMs = jitterMs, times = 3, runs = runs)
+
+    testScheduler.advanceTimeBy(200_000L)
+    testScheduler.runCurrent()
+
+    assertEquals(8, runs.size)
+    assertEquals(0, scheduler.scheduledRefreshesCount())
+
+    listOf("thread" to 20_000L, "bookmarks" to 33_000L).forEach { (tag, intervalMs) ->
+      val runTimes = runs.filter { (runTag, _) -> runTag == tag }.map { (_, runTime) -> runTime }
+
+      runTimes.fold(0L) { prevRunTime, runTime ->
+        val elapsed = runTime - prevRunTime
+        assertTrue("$tag ran too early: $elapsed", elapsed >= intervalMs - RefreshScheduler.defaultFlexMs(intervalMs))
+        assertTrue("$tag ran too late: $elapsed", elapsed <= intervalMs + jitterMs)
+        runTime
+      }
+    }
+  }
+
+  @Test
+  fun `cancelled refreshes are removed from the scheduler`() = runTest {
+    val scheduler = createScheduler()
+    val runs = mutableListOf<Pair<String, Long>>()
+
+    val job = backgroundScope.launch { scheduler.awaitRefresh(tag = "cancelled", intervalMs = 10_000L) }
+    testScheduler.runCurrent()
+    assertEquals(1, scheduler.scheduledRefreshesCount())
+
+    job.cancel()
+    testScheduler.runCurrent()
+    assertEquals(0, scheduler.scheduledRefreshesCount())
+
+    refreshRepeatedly(scheduler, "thread", intervalMs = 0L, times = 1, runs = runs)
+    testScheduler.runCurrent()
+    assertEquals(listOf("thread" to 0L), runs)
+  }
+
+  @Test
+  fun `reported deadline is the latest time the refresh runs at`() = runTest {
+    val scheduler = createScheduler(random = Random(42))
+    var reportedDeadlineMs = -1L
+    var runTimeMs = -1L
+
+    backgroundScope.launch {
+      scheduler.awaitRefresh(
+        tag = "thread",
+        intervalMs = 20_000L,
+        flexMs = 0L,
+        jitterMs = 1_000L,
+        onDeadlineChosen = { timeUntilDeadlineMs -> reportedDeadlineMs = testScheduler.currentTime + timeUntilDeadlineMs }
+      )
+
+      runTimeMs = testScheduler.currentTime
+    }
+
+    testScheduler.advanceTimeBy(60_000L)
+    testScheduler.runCurrent()
+
+    assertTrue("Unexpected deadline: $reportedDeadlineMs", reportedDeadlineMs in 20_000L..21_000L)
+    assertEquals(reportedDeadlineMs, runTimeMs)
+  }
+
+  private fun TestScope.createScheduler(random: Random = Random(0)): RefreshScheduler {
+    return RefreshScheduler(
+      scope = backgroundScope,
+      random = random,
+      currentTimeMs = { testScheduler.currentTime }
+    )
+  }
+
+  private fun TestScope.refreshRepeatedly(
+    scheduler: RefreshScheduler,
+    tag: String,
+    intervalMs: Long,
+    times: Int,
+    runs: MutableList<Pair<String, Long>>,
+    flexMs: Long = RefreshScheduler.defaultFlexMs(intervalMs),
+    jitterMs: Long = 0L
+  ) {
+    backgroundScope.launch {
+      repeat(times) {
+        scheduler.awaitRefresh(tag = tag, intervalMs = intervalMs, flexMs = flexMs, jitterMs = jitterMs)
+        runs += tag to testScheduler.currentTime
+      }
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+package com.github.k1rakishou.chan.core.base
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class TimingWheelTest {
+
+  @Test
+  fun `expires entries at their deadlines across all levels`() {
+    val timingWheel = TimingWheel<Long>(startTimeMs = 0L, tickMs = 10L, wheelSize = 4, levels = 2)
+    val deadlines = listOf(5L, 10L, 35L, 40L, 41L, 150L, 161L, 1000L)
+    deadlines.forEach { deadline -> timingWheel.add(deadline, deadline) }
+
+    val expiredAt = mutableMapOf<Long, Long>()
+    var nowMs = 0L
+
+    while (!timingWheel.isEmpty()) {
+      val nextExpirationMs = timingWheel.nextExpirationMs()!!
+      assertTrue(nextExpirationMs >= nowMs)
+
+      nowMs = nextExpirationMs
+      timingWheel.advanceTo(nowMs).forEach { deadline -> expiredAt[deadline] = nowMs }
+    }
+
+    // Deadlines are rounded up to the tick and never expire early
+    assertEquals(
+      mapOf(5L to 10L, 10L to 10L, 35L to 40L, 40L to 40L, 41L to 50L, 150L to 150L, 161L to 170L, 1000L to 1000L),
+      expiredAt
+    )
+  }
+
+  @Test
+  fun `handles removals and clock jumps`() {
+    val timingWheel = TimingWheel<Int>(startTimeMs = 0L, tickMs = 10L, wheelSize = 4, levels = 2)
+    val removed = timingWheel.add(1, 30L)
+    timingWheel.add(2, 70L)
+    timingWheel.add(3, 10_000L)
+
+    assertEquals(30L, timingWheel.expirationMs(removed))
+    assertTrue(timingWheel.remove(removed))
+    assertEquals(2, timingWheel.size)
+
+    assertEquals(listOf(2), timingWheel.advanceTo(5_000L))
+    assertEquals(listOf(3), timingWheel.advanceTo(20_000L))
+    assertTrue(timingWheel.isEmpty())
+  }
+
+}
@@ -0,0 +1,136 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.common.datastructure.LongObjectMap
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterAction
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class FilterWatcherScanCacheTest {
+  private val boardG = BoardDescriptor.create("test", "g")
+  private val boardA = BoardDescriptor.create("test", "a")
+  private val watchFilters = listOf(watchFilter(id = 1L, pattern = "test"))
+
+  @Test
+  fun `results of the previous run are returned when the filters are the same`() {
+    val cache = FilterWatcherScanCache()
+
+    val firstRun = cache.startRun(watchFilters)
+    assertNull(firstRun.get(boardG, 100L))
+    assertFalse(firstRun.invalidated)
+
+    cache.finishRun(
+      runWatchFilters = watchFilters,
+      checkedBoards = setOf(boardG),
+      scannedBoards = mapOf(boardG to evaluatedThreads(100L to evaluatedThread(opHash = 1L, matchedFilterId = 1L)))
+    )
+
+    val secondRun = cache.startRun(watchFilters.map { chanFilter -> chanFilter.copy() })
+    assertEquals(1L, secondRun.get(boardG, 100L)!!.opHash)
+    assertEquals(1L, secondRun.get(boardG, 100L)!!.matchedFilterId)
+    assertNull(secondRun.get(boardG, 101L))
+    assertNull(secondRun.get(boardA, 100L))
+  }
+
+  @Test
+  fun `changed filters invalidate everything`() {
+    val cache = FilterWatcherScanCache()
+
+    cache.startRun(watchFilters)
+    cache.finishRun(
+      runWatchFilters = watchFilters,
+      checkedBoards = setOf(boardG),
+      scannedBoards = mapOf(boardG to evaluatedThreads(100L to evaluatedThread(opHash = 1L)))
+    )
+
+    val changedFilters = listOf(watchFilter(id = 1L, pattern = "something else"))
+    val snapshot = cache.startRun(changedFilters)
+
+    assertTrue(snapshot.invalidated)
+    assertNull(snapshot.get(boardG, 100L))
+  }
+
+  @Test
+  fun `results of a run during which the filters changed are discarded`() {
+    val cache = FilterWatcherScanCache()
+
+    cache.startRun(watchFilters)
+    val changedFilters = listOf(watchFilter(id = 2L, pattern = "other"))
+    cache.startRun(changedFilters)
+
+    cache.finishRun(
+      runWatchFilters = watchFilters,
+      checkedBoards = setOf(boardG),
+      scannedBoards = mapOf(boardG to evaluatedThreads(100L to evaluatedThread(opHash = 1L)))
+    )
+
+    assertNull(cache.startRun(changedFilters).get(boardG, 100L))
+  }
+
+  @Test
+  fun `boards that are not checked anymore are dropped, boards that failed to load are kept`() {
+    val cache = FilterWatcherScanCache()
+
+    cache.startRun(watchFilters)
+    cache.finishRun(
+      runWatchFilters = watchFilters,
+      checkedBoards = setOf(boardG, boardA),
+      scannedBoards = mapOf(
+        boardG to evaluatedThreads(100L to evaluatedThread(opHash = 1L)),
+        boardA to evaluatedThreads(200L to evaluatedThread(opHash = 2L))
+      )
+    )
+
+    cache.startRun(watchFilters)
+    // The catalog of /g/ couldn't be loaded, /a/ is not checked anymore
+    cache.finishRun(
+      runWatchFilters = watchFilters,
+      checkedBoards = setOf(boardG),
+      scannedBoards = emptyMap()
+    )
+
+    val snapshot = cache.startRun(watchFilters)
+    assertEquals(1L, snapshot.get(boardG, 100L)!!.opHash)
+    assertNull(snapshot.get(boardA, 200L))
+  }
+
+  @Test
+  fun `op hash changes when subject or comment changes`() {
+    val hash = FilterWatcherScanCache.opHash("subject", "comment")
+
+    assertEquals(hash, FilterWatcherScanCache.opHash("subject", "comment"))
+    assertFalse(hash == FilterWatcherScanCache.opHash("subject", "comment edited"))
+    assertFalse(hash == FilterWatcherScanCache.opHash("subject edited", "comment"))
+    // Subject and comment must not be interchangeable
+    assertFalse(FilterWatcherScanCache.opHash("a", "b") == FilterWatcherScanCache.opHash("b", "a"))
+  }
+
+  private fun watchFilter(id: Long, pattern: String): ChanFilter {
+    return ChanFilter(
+      filterDatabaseId = id,
+      pattern = pattern,
+      action = FilterAction.WATCH.id
+    )
+  }
+
+  private fun evaluatedThread(
+    opHash: Long,
+    matchedFilterId: Long = FilterWatcherScanCache.NO_MATCHED_FILTER
+  ): FilterWatcherScanCache.EvaluatedThread {
+    return FilterWatcherScanCache.EvaluatedThread(opHash, matchedFilterId)
+  }
+
+  private fun evaluatedThreads(
+    vararg threads: Pair<Long, FilterWatcherScanCache.EvaluatedThread>
+  ): LongObjectMap<FilterWatcherScanCache.EvaluatedThread> {
+    val map = LongObjectMap<FilterWatcherScanCache.EvaluatedThread>(threads.size)
+    threads.forEach { (threadNo, evaluatedThread) -> map.put(threadNo, evaluatedThread) }
+
+    return map
+  }
+
+}
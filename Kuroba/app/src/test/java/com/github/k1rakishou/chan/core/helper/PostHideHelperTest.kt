@@ -327,11 +327,11 @@ class PostHideHelperTest {
   fun shouldNotEndUpInEndlessRecursionWhenPostReplyToEachOther() {
     val firstPost = createPost(1).apply {
       repliesTo.add(PostDescriptor.create(threadDescriptor, 2))
-      repliesFrom.add(PostDescriptor.create(threadDescriptor, 2))
+      addRepliesFrom(listOf(PostDescriptor.create(threadDescriptor, 2)))
     }
     val secondPost = createPost(2).apply {
       repliesTo.add(PostDescriptor.create(threadDescriptor, 1))
-      repliesFrom.add(PostDescriptor.create(threadDescriptor, 1))
+      addRepliesFrom(listOf(PostDescriptor.create(threadDescriptor, 1)))
     }
 
     val posts = listOf(firstPost, secondPost)
@@ -511,7 +511,7 @@ class PostHideHelperTest {
       val builder = ReplyChainBuilder().also(builderFunc)
 
       parentPosts.forEach { parentPost ->
-        parentPost.repliesFrom.addAll(builder.posts.map { it.postDescriptor })
+        parentPost.addRepliesFrom(builder.posts.map { it.postDescriptor })
         builder.posts.forEach { post -> post.repliesTo.add(parentPost.postDescriptor) }
       }
 
@@ -526,7 +526,7 @@ class PostHideHelperTest {
       val parentPost = posts.last()
       val builder = ReplyChainBuilder().also(builderFunc)
 
-      parentPost.repliesFrom.addAll(builder.posts.map { it.postDescriptor })
+      parentPost.addRepliesFrom(builder.posts.map { it.postDescriptor })
       builder.posts.forEach { post -> post.repliesTo.add(parentPost.postDescriptor) }
       posts.addAll(builder.posts)
       posts.addAll(builder.childPosts)
@@ -0,0 +1,105 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkReplyView
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.joda.time.DateTime
+import org.junit.Test
+
+class ReplyNotificationsCacheTest {
+  private val thread1 = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  private val thread2 = ChanDescriptor.ThreadDescriptor.create("test", "g", 2L)
+  private val bookmarkKey = ReplyNotificationsCache.BookmarkKey(title = "title", thumbnailUrl = null)
+
+  @Test
+  fun `thread info is invalidated when the bookmark changes`() {
+    val cache = ReplyNotificationsCache()
+    cache.putThreadInfo(thread1, threadInfo(bookmarkKey))
+
+    assertNotNull(cache.getThreadInfo(thread1, bookmarkKey))
+    assertNull(cache.getThreadInfo(thread2, bookmarkKey))
+
+    val changedBookmarkKey = bookmarkKey.copy(title = "new title")
+    assertNull(cache.getThreadInfo(thread1, changedBookmarkKey))
+
+    // The stale entry is removed
+    assertNull(cache.getThreadInfo(thread1, bookmarkKey))
+    assertEquals(0, cache.cachedThreadsCount())
+  }
+
+  @Test
+  fun `least recently used thread info is evicted`() {
+    val cache = ReplyNotificationsCache(maxCachedThreads = 2)
+    val thread3 = ChanDescriptor.ThreadDescriptor.create("test", "g", 3L)
+
+    cache.putThreadInfo(thread1, threadInfo(bookmarkKey))
+    cache.putThreadInfo(thread2, threadInfo(bookmarkKey))
+    cache.getThreadInfo(thread1, bookmarkKey)
+    cache.putThreadInfo(thread3, threadInfo(bookmarkKey))
+
+    assertNotNull(cache.getThreadInfo(thread1, bookmarkKey))
+    assertNull(cache.getThreadInfo(thread2, bookmarkKey))
+    assertNotNull(cache.getThreadInfo(thread3, bookmarkKey))
+  }
+
+  @Test
+  fun `only changed notifications are not up to date`() {
+    val cache = ReplyNotificationsCache()
+    val replies = listOf(reply(thread1, 10L), reply(thread1, 11L))
+    val fingerprint = ReplyNotificationsCache.notificationFingerprint("title", true, replies)
+
+    assertFalse(cache.isNotificationUpToDate(thread1, fingerprint))
+    cache.onNotificationShown(thread1, fingerprint)
+    assertTrue(cache.isNotificationUpToDate(thread1, fingerprint))
+
+    // alreadyNotified and time don't change what the notification looks like
+    val notifiedReplies = replies.map { reply -> reply.copy(alreadyNotified = true) }
+    assertTrue(cache.isNotificationUpToDate(thread1, ReplyNotificationsCache.notificationFingerprint("title", true, notifiedReplies)))
+
+    val newReplies = replies + reply(thread1, 12L)
+    assertFalse(cache.isNotificationUpToDate(thread1, ReplyNotificationsCache.notificationFingerprint("title", true, newReplies)))
+
+    val seenReplies = listOf(replies[0].copy(alreadySeen = true), replies[1])
+    assertFalse(cache.isNotificationUpToDate(thread1, ReplyNotificationsCache.notificationFingerprint("title", true, seenReplies)))
+
+    assertFalse(cache.isNotificationUpToDate(thread1, ReplyNotificationsCache.notificationFingerprint("title", false, replies)))
+    assertFalse(cache.isNotificationUpToDate(thread1, ReplyNotificationsCache.notificationFingerprint("other", true, replies)))
+  }
+
+  @Test
+  fun `closed notifications and deleted bookmarks are forgotten`() {
+    val cache = ReplyNotificationsCache()
+    cache.onNotificationShown(thread1, 1L)
+    cache.onNotificationShown(thread2, 2L)
+    cache.putThreadInfo(thread2, threadInfo(bookmarkKey))
+
+    cache.retainShownNotifications(setOf(thread2))
+    assertFalse(cache.isNotificationUpToDate(thread1, 1L))
+    assertTrue(cache.isNotificationUpToDate(thread2, 2L))
+
+    cache.invalidate(listOf(thread2))
+    assertFalse(cache.isNotificationUpToDate(thread2, 2L))
+    assertNull(cache.getThreadInfo(thread2, bookmarkKey))
+  }
+
+  private fun threadInfo(bookmarkKey: ReplyNotificationsCache.BookmarkKey): ReplyNotificationsCache.ThreadInfo {
+    return ReplyNotificationsCache.ThreadInfo(bookmarkKey = bookmarkKey, title = "title", thumbnail = null)
+  }
+
+  private fun reply(threadDescriptor: ChanDescriptor.ThreadDescriptor, postNo: Long): ThreadBookmarkReplyView {
+    return ThreadBookmarkReplyView(
+      postDescriptor = PostDescriptor.create(threadDescriptor, postNo),
+      repliesTo = PostDescriptor.create(threadDescriptor, 1L),
+      alreadyNotified = false,
+      alreadySeen = false,
+      alreadyRead = false,
+      time = DateTime(postNo),
+      commentRaw = ">>1 reply $postNo"
+    )
+  }
+}
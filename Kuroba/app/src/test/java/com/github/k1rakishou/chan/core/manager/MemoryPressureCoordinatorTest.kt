@@ -0,0 +1,148 @@
+package com.github.k1rakishou.chan.core.manager
+
+import android.content.ComponentCallbacks2
+import com.github.k1rakishou.chan.core.base.RefreshScheduler
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator.MemoryPressure
+import com.github.k1rakishou.chan.core.manager.MemoryPressureCoordinator.TrimPriority
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class MemoryPressureCoordinatorTest {
+  private var nowMs = 0L
+  private var heapUsage = MemoryPressureCoordinator.HeapUsage(usedBytes = 0L, maxBytes = 100L)
+  private var heapUsageAfterGc: MemoryPressureCoordinator.HeapUsage? = null
+  private val trimmed = mutableListOf<Pair<String, MemoryPressure>>()
+
+  @Test
+  fun `caches are trimmed cheapest first up to the priority allowed by the pressure`() = runTest {
+    val coordinator = createCoordinator()
+    registerCaches(coordinator)
+
+    assertEquals(
+      listOf("images" to 10L, "thumbnails" to 40L),
+      coordinator.trim(MemoryPressure.Low).map { report -> report.name to report.freed }
+    )
+    assertEquals(listOf("images", "thumbnails"), trimmed.map { (name, _) -> name })
+
+    // Higher pressure is never throttled
+    trimmed.clear()
+    coordinator.trim(MemoryPressure.Moderate)
+    assertEquals(listOf("images", "thumbnails", "catalog"), trimmed.map { (name, _) -> name })
+
+    trimmed.clear()
+    val reports = coordinator.trim(MemoryPressure.Critical)
+    assertEquals(listOf("images", "thumbnails", "catalog", "threads"), trimmed.map { (name, _) -> name })
+    assertTrue(trimmed.all { (_, memoryPressure) -> memoryPressure == MemoryPressure.Critical })
+    assertEquals(listOf("bytes", "threads", "posts", "posts"), reports.map { report -> report.unit })
+  }
+
+  @Test
+  fun `trimming at the same or lower pressure is throttled`() = runTest {
+    val coordinator = createCoordinator()
+    registerCaches(coordinator)
+
+    coordinator.trim(MemoryPressure.Moderate)
+    trimmed.clear()
+
+    assertTrue(coordinator.trim(MemoryPressure.Moderate).isEmpty())
+    assertTrue(coordinator.trim(MemoryPressure.Low).isEmpty())
+    assertTrue(trimmed.isEmpty())
+
+    nowMs += 60_000L
+    coordinator.trim(MemoryPressure.Low)
+    assertEquals(listOf("images", "thumbnails"), trimmed.map { (name, _) -> name })
+  }
+
+  @Test
+  fun `heap usage above the watermarks is turned into memory pressure`() = runTest {
+    val coordinator = createCoordinator()
+    registerCaches(coordinator)
+
+    heapUsage = heapUsage.copy(usedBytes = 50L)
+    assertNull(coordinator.checkHeapWatermark())
+
+    heapUsage = heapUsage.copy(usedBytes = 80L)
+    coordinator.trim(coordinator.checkHeapWatermark()!!)
+    assertEquals(listOf("images", "thumbnails", "catalog"), trimmed.map { (name, _) -> name })
+
+    trimmed.clear()
+    heapUsage = heapUsage.copy(usedBytes = 95L)
+    coordinator.trim(coordinator.checkHeapWatermark()!!)
+    assertEquals(listOf("images", "thumbnails", "catalog", "threads"), trimmed.map { (name, _) -> name })
+  }
+
+  @Test
+  fun `critical heap usage is only reported when it is still critical after a GC`() = runTest {
+    val coordinator = createCoordinator()
+
+    // Most of it was garbage
+    heapUsage = heapUsage.copy(usedBytes = 95L)
+    heapUsageAfterGc = heapUsage.copy(usedBytes = 50L)
+    assertNull(coordinator.checkHeapWatermark())
+
+    heapUsage = heapUsage.copy(usedBytes = 95L)
+    heapUsageAfterGc = heapUsage.copy(usedBytes = 80L)
+    assertEquals(MemoryPressure.Moderate, coordinator.checkHeapWatermark())
+
+    heapUsage = heapUsage.copy(usedBytes = 95L)
+    heapUsageAfterGc = heapUsage.copy(usedBytes = 92L)
+    assertEquals(MemoryPressure.Critical, coordinator.checkHeapWatermark())
+  }
+
+  @Test
+  fun `failing trimmer does not prevent other caches from being trimmed`() = runTest {
+    val coordinator = createCoordinator()
+    coordinator.register("broken", TrimPriority.Disposable, "bytes") { error("Boom") }
+    registerCaches(coordinator)
+
+    val reports = coordinator.trim(MemoryPressure.Low)
+    assertEquals(listOf("broken" to 0L, "images" to 10L, "thumbnails" to 40L), reports.map { report -> report.name to report.freed })
+    assertNotNull(reports.first().error)
+    assertTrue(reports.drop(1).all { report -> report.error == null })
+  }
+
+  @Test
+  fun `trim levels are mapped to memory pressure`() {
+    assertNull(MemoryPressureCoordinator.trimLevelToMemoryPressure(0))
+    assertEquals(MemoryPressure.Low, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE))
+    assertEquals(MemoryPressure.Moderate, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW))
+    assertEquals(MemoryPressure.Critical, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL))
+    assertEquals(MemoryPressure.Low, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN))
+    assertEquals(MemoryPressure.Low, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND))
+    assertEquals(MemoryPressure.Moderate, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_MODERATE))
+    assertEquals(MemoryPressure.Critical, MemoryPressureCoordinator.trimLevelToMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_COMPLETE))
+  }
+
+  private fun TestScope.createCoordinator(): MemoryPressureCoordinator {
+    return MemoryPressureCoordinator(
+      appScope = backgroundScope,
+      verboseLogs = false,
+      applicationVisibilityManager = ApplicationVisibilityManager(),
+      refreshScheduler = RefreshScheduler(backgroundScope, currentTimeMs = { testScheduler.currentTime }),
+      heapUsageProvider = { heapUsage },
+      gcRequester = { heapUsageAfterGc?.let { usageAfterGc -> heapUsage = usageAfterGc } },
+      currentTimeMs = { nowMs }
+    )
+  }
+
+  // Registered out of the priority order on purpose
+  private fun registerCaches(coordinator: MemoryPressureCoordinator) {
+    coordinator.register("threads", TrimPriority.Expensive, "posts") { memoryPressure -> trim("threads", memoryPressure, 1000L) }
+    coordinator.register("images", TrimPriority.Disposable, "bytes") { memoryPressure -> trim("images", memoryPressure, 10L) }
+    coordinator.register("catalog", TrimPriority.Rebuildable, "posts") { memoryPressure -> trim("catalog", memoryPressure, 200L) }
+    coordinator.register("thumbnails", TrimPriority.Disposable, "threads") { memoryPressure -> trim("thumbnails", memoryPressure, 40L) }
+  }
+
+  private fun trim(name: String, memoryPressure: MemoryPressure, freed: Long): Long {
+    trimmed += name to memoryPressure
+    return freed
+  }
+
+}
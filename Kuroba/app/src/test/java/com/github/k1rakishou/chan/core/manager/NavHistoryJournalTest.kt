@@ -0,0 +1,216 @@
+package com.github.k1rakishou.chan.core.manager
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.navigation.NavHistoryChangeSet
+import com.github.k1rakishou.model.data.navigation.NavHistoryElement
+import com.github.k1rakishou.model.data.navigation.NavHistoryElementInfo
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Test
+
+class NavHistoryJournalTest {
+
+  @Test
+  fun `first write is always a full rewrite`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(10)
+
+    assertNull(journal.collectChanges(navigationStack))
+
+    journal.onNavigationStackModified()
+    val pendingChanges = journal.collectChanges(navigationStack)!!
+    assertTrue(pendingChanges.changeSet is NavHistoryChangeSet.Rewrite)
+    journal.onChangesPersisted(pendingChanges)
+
+    assertNull(journal.collectChanges(navigationStack))
+  }
+
+  @Test
+  fun `moving an element to the top only writes the elements that changed their order`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    // Thread hopping between the recently opened threads
+    navigationStack.add(0, navigationStack.removeAt(2))
+    journal.onNavigationStackModified()
+    navigationStack.add(0, navigationStack.removeAt(1))
+    journal.onNavigationStackModified()
+
+    val pendingChanges = journal.collectChanges(navigationStack)!!
+    val delta = pendingChanges.changeSet as NavHistoryChangeSet.Delta
+
+    // [1, 2, 3, ...] -> [3, 1, 2, ...] -> [1, 3, 2, ...], the first element ended up where it was
+    // and only one of 2 and 3 needs a new order
+    assertEquals(1, delta.updated.size)
+    assertTrue(threadNo(delta.updated.single().value) in setOf(2L, 3L))
+    assertTrue(delta.deleted.isEmpty())
+
+    journal.onChangesPersisted(pendingChanges)
+    assertOrdersFollowTheStack(journal, navigationStack)
+    assertNull(journal.collectChanges(navigationStack))
+  }
+
+  @Test
+  fun `inserting an element at the top only writes that element`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    repeat(5) { iteration ->
+      val newElement = createNavElement(100L + iteration)
+      navigationStack.add(0, newElement)
+      journal.onNavigationStackModified()
+
+      val pendingChanges = journal.collectChanges(navigationStack)!!
+      val delta = pendingChanges.changeSet as NavHistoryChangeSet.Delta
+
+      assertEquals(listOf(newElement), delta.updated.map { indexedValue -> indexedValue.value })
+      assertTrue(delta.deleted.isEmpty())
+
+      journal.onChangesPersisted(pendingChanges)
+      assertOrdersFollowTheStack(journal, navigationStack)
+    }
+  }
+
+  @Test
+  fun `moving an element from the bottom to the top only writes that element`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    val movedElement = navigationStack.removeAt(navigationStack.lastIndex)
+    navigationStack.add(0, movedElement)
+    journal.onNavigationStackModified()
+
+    val pendingChanges = journal.collectChanges(navigationStack)!!
+    val delta = pendingChanges.changeSet as NavHistoryChangeSet.Delta
+    assertEquals(listOf(movedElement), delta.updated.map { indexedValue -> indexedValue.value })
+
+    journal.onChangesPersisted(pendingChanges)
+    assertOrdersFollowTheStack(journal, navigationStack)
+  }
+
+  @Test
+  fun `inserting elements below the top renumbers only the top elements when orders run out`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    // New elements are always inserted right below the top element so the free orders between the
+    // first two elements run out after a few insertions
+    repeat(20) { iteration ->
+      val newElement = createNavElement(100L + iteration)
+      navigationStack.add(1, newElement)
+      journal.onNavigationStackModified()
+
+      val pendingChanges = journal.collectChanges(navigationStack)!!
+      val delta = pendingChanges.changeSet as NavHistoryChangeSet.Delta
+
+      assertTrue(newElement in delta.updated.map { indexedValue -> indexedValue.value })
+      assertTrue(delta.updated.size <= 2)
+
+      journal.onChangesPersisted(pendingChanges)
+      assertOrdersFollowTheStack(journal, navigationStack)
+    }
+  }
+
+  @Test
+  fun `inserted, deleted and changed elements are written`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    val deleted = navigationStack.removeAt(navigationStack.lastIndex)
+    navigationStack.add(navigationStack.size, createNavElement(100))
+    journal.onNavigationStackModified()
+
+    navigationStack[5].navHistoryElementInfo.pinned = true
+    journal.onNavigationStackModified(listOf(navigationStack[5].descriptor()))
+
+    val delta = journal.collectChanges(navigationStack)!!.changeSet as NavHistoryChangeSet.Delta
+    assertEquals(listOf(6L, 100L), delta.updated.map { indexedValue -> threadNo(indexedValue.value) })
+    assertEquals(listOf(deleted), delta.deleted)
+  }
+
+  @Test
+  fun `failed write is retried as a full rewrite`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    navigationStack.add(0, navigationStack.removeAt(1))
+    journal.onNavigationStackModified()
+
+    val pendingChanges = journal.collectChanges(navigationStack)!!
+    assertTrue(pendingChanges.changeSet is NavHistoryChangeSet.Delta)
+    journal.onChangesPersistFailed(pendingChanges)
+
+    assertTrue(journal.collectChanges(navigationStack)!!.changeSet is NavHistoryChangeSet.Rewrite)
+  }
+
+  @Test
+  fun `reversing the stack rewrites everything`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    persistEverything(journal, navigationStack)
+
+    navigationStack.reverse()
+    journal.onNavigationStackModified()
+
+    assertTrue(journal.collectChanges(navigationStack)!!.changeSet is NavHistoryChangeSet.Rewrite)
+  }
+
+  @Test
+  fun `nothing is rewritten after the navigation stack failed to load`() {
+    val journal = NavHistoryJournal()
+    val navigationStack = createNavigationStack(20)
+    journal.onNavigationStackLoadFailed()
+
+    journal.onNavigationStackModified()
+    val pendingChanges = journal.collectChanges(navigationStack)!!
+    val delta = pendingChanges.changeSet as NavHistoryChangeSet.Delta
+    assertEquals(navigationStack, delta.updated.map { indexedValue -> indexedValue.value })
+    assertTrue(delta.deleted.isEmpty())
+    journal.onChangesPersisted(pendingChanges)
+
+    val deleted = navigationStack.removeAt(0)
+    navigationStack.add(0, navigationStack.removeAt(navigationStack.lastIndex))
+    journal.onNavigationStackModified()
+
+    val nextDelta = journal.collectChanges(navigationStack)!!.changeSet as NavHistoryChangeSet.Delta
+    assertEquals(listOf(deleted), nextDelta.deleted)
+  }
+
+  private fun persistEverything(journal: NavHistoryJournal, navigationStack: List<NavHistoryElement>) {
+    journal.onNavigationStackModified()
+    journal.onChangesPersisted(journal.collectChanges(navigationStack)!!)
+  }
+
+  private fun assertOrdersFollowTheStack(journal: NavHistoryJournal, navigationStack: List<NavHistoryElement>) {
+    val orders = navigationStack.map { navHistoryElement -> journal.persistedOrder(navHistoryElement.descriptor())!! }
+    assertEquals(orders.sorted().distinct(), orders)
+  }
+
+  private fun createNavigationStack(count: Int): MutableList<NavHistoryElement> {
+    return (1..count).map { threadNo -> createNavElement(threadNo.toLong()) }.toMutableList()
+  }
+
+  private fun createNavElement(threadNo: Long): NavHistoryElement {
+    return NavHistoryElement.Thread(
+      descriptor = ChanDescriptor.ThreadDescriptor.create("4chan", "g", threadNo),
+      navHistoryElementInfo = NavHistoryElementInfo(
+        thumbnailUrl = "https://i.4cdn.org/g/${threadNo}s.jpg".toHttpUrl(),
+        title = "Thread ${threadNo}",
+        pinned = false
+      )
+    )
+  }
+
+  private fun threadNo(navHistoryElement: NavHistoryElement): Long {
+    return (navHistoryElement.descriptor() as ChanDescriptor.ThreadDescriptor).threadNo
+  }
+
+}
@@ -0,0 +1,174 @@
+package com.github.k1rakishou.chan.core.manager
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.PostFilter
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+class PostFilterManagerTest {
+  private val threadDescriptor1 = ChanDescriptor.ThreadDescriptor.create("4chan", "g", 1L)
+  private val threadDescriptor2 = ChanDescriptor.ThreadDescriptor.create("4chan", "a", 2L)
+
+  @Test
+  fun `counters follow inserted, replaced and removed post filters`() {
+    val postFilterManager = createPostFilterManager()
+    val postDescriptors = createPostDescriptors(threadDescriptor1, 10)
+
+    postDescriptors.forEach { postDescriptor -> postFilterManager.insert(postDescriptor, PostFilter(FILTER_1)) }
+    assertEquals(10, postFilterManager.countMatchedPosts(FILTER_1))
+
+    // Replacing a post filter moves the post to the counter of the new filter
+    postFilterManager.insert(postDescriptors[0], PostFilter(FILTER_2))
+    postFilterManager.insert(postDescriptors[1], PostFilter(FILTER_2))
+    assertEquals(8, postFilterManager.countMatchedPosts(FILTER_1))
+    assertEquals(2, postFilterManager.countMatchedPosts(FILTER_2))
+
+    postFilterManager.remove(postDescriptors[0])
+    postFilterManager.remove(postDescriptors[2])
+    // Removing a post that has no post filter does nothing
+    postFilterManager.remove(postDescriptors[2])
+    assertEquals(7, postFilterManager.countMatchedPosts(FILTER_1))
+    assertEquals(1, postFilterManager.countMatchedPosts(FILTER_2))
+
+    // Post filters without an owner filter are not counted
+    postFilterManager.insert(postDescriptors[0], PostFilter(ownerFilterId = null))
+    assertEquals(7, postFilterManager.countMatchedPosts(FILTER_1))
+    assertEquals(1, postFilterManager.countMatchedPosts(FILTER_2))
+  }
+
+  @Test
+  fun `update only counts post filters that it creates`() {
+    val postFilterManager = createPostFilterManager()
+    val postDescriptors = createPostDescriptors(threadDescriptor1, 3)
+
+    postFilterManager.update(postDescriptors[0], FILTER_1) { postFilter -> postFilter.update(enable = true) }
+    postFilterManager.update(postDescriptors[0], FILTER_1) { postFilter -> postFilter.update(stub = true) }
+    postFilterManager.update(postDescriptors[1], FILTER_1) { postFilter -> postFilter.update(enable = true) }
+    assertEquals(2, postFilterManager.countMatchedPosts(FILTER_1))
+    assertTrue(postFilterManager.getFilterStub(postDescriptors[0]))
+
+    postFilterManager.updateIfExists(postDescriptors[2]) { postFilter -> postFilter.update(enable = true) }
+    assertFalse(postFilterManager.contains(postDescriptors[2]))
+    assertEquals(2, postFilterManager.countMatchedPosts(FILTER_1))
+  }
+
+  @Test
+  fun `counters are decremented when thread posts or whole threads are removed`() {
+    val postFilterManager = createPostFilterManager()
+    val thread1Posts = createPostDescriptors(threadDescriptor1, 10)
+    val thread2Posts = createPostDescriptors(threadDescriptor2, 5)
+
+    (thread1Posts + thread2Posts).forEach { postDescriptor ->
+      postFilterManager.insert(postDescriptor, PostFilter(FILTER_1))
+    }
+    assertEquals(15, postFilterManager.countMatchedPosts(FILTER_1))
+
+    val originalPost = thread1Posts.first()
+    assertEquals(9, postFilterManager.removeThreadPostsExceptOP(threadDescriptor1, originalPost))
+    assertTrue(postFilterManager.contains(originalPost))
+    assertEquals(6, postFilterManager.countMatchedPosts(FILTER_1))
+
+    postFilterManager.removeAllForDescriptor(threadDescriptor2)
+    assertFalse(thread2Posts.any { postDescriptor -> postFilterManager.contains(postDescriptor) })
+    assertEquals(1, postFilterManager.countMatchedPosts(FILTER_1))
+
+    // The thread can be used again after it was removed
+    postFilterManager.insert(thread2Posts.first(), PostFilter(FILTER_1))
+    assertEquals(2, postFilterManager.countMatchedPosts(FILTER_1))
+
+    postFilterManager.removeAllForDescriptor(threadDescriptor1.catalogDescriptor())
+    assertFalse(postFilterManager.contains(originalPost))
+    assertTrue(postFilterManager.contains(thread2Posts.first()))
+    assertEquals(1, postFilterManager.countMatchedPosts(FILTER_1))
+
+    postFilterManager.clear()
+    assertEquals(0, postFilterManager.countMatchedPosts(FILTER_1))
+  }
+
+  @Test
+  fun `inserts racing with the thread removal are neither lost nor counted twice`() {
+    val postFilterManager = createPostFilterManager()
+    val postDescriptors = createPostDescriptors(threadDescriptor1, 200)
+
+    repeat(20) {
+      val startLatch = CountDownLatch(1)
+      val writersDone = AtomicBoolean(false)
+
+      val writers = (0 until 2).map { writerIndex ->
+        thread {
+          startLatch.await()
+
+          repeat(20) {
+            postDescriptors.forEachIndexed { index, postDescriptor ->
+              if (index % 2 == writerIndex) {
+                postFilterManager.insert(postDescriptor, PostFilter(FILTER_1))
+              }
+            }
+          }
+        }
+      }
+
+      val remover = thread {
+        startLatch.await()
+
+        while (!writersDone.get()) {
+          postFilterManager.removeAllForDescriptor(threadDescriptor1)
+          Thread.yield()
+        }
+      }
+
+      startLatch.countDown()
+      writers.forEach { writer -> writer.join() }
+      writersDone.set(true)
+      remover.join()
+
+      val storedPostFilters = postDescriptors.count { postDescriptor -> postFilterManager.contains(postDescriptor) }
+      assertEquals(storedPostFilters, postFilterManager.countMatchedPosts(FILTER_1))
+
+      // Every insert that happens after the removal is stored and counted (none of them is put into
+      // the detached post filters of the removed thread)
+      postDescriptors.forEach { postDescriptor -> postFilterManager.insert(postDescriptor, PostFilter(FILTER_1)) }
+      assertTrue(postDescriptors.all { postDescriptor -> postFilterManager.contains(postDescriptor) })
+      assertEquals(postDescriptors.size, postFilterManager.countMatchedPosts(FILTER_1))
+
+      postFilterManager.removeAllForDescriptor(threadDescriptor1)
+      assertEquals(0, postFilterManager.countMatchedPosts(FILTER_1))
+    }
+  }
+
+  private fun createPostFilterManager(): PostFilterManager {
+    return PostFilterManager(
+      verboseLogsEnabled = false,
+      appScope = CoroutineScope(Dispatchers.Unconfined),
+      chanThreadsCache = ChanThreadsCache(
+        isDevBuild = false,
+        isLowRamDevice = false,
+        maxCacheSize = 1000,
+        chanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+      )
+    )
+  }
+
+  private fun createPostDescriptors(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    count: Int
+  ): List<PostDescriptor> {
+    return (0 until count).map { index -> PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo + index) }
+  }
+
+  companion object {
+    private const val FILTER_1 = 1L
+    private const val FILTER_2 = 2L
+  }
+
+}
@@ -0,0 +1,250 @@
+package com.github.k1rakishou.chan.core.site.parser
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.util.regex.Pattern
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+class QuoteScannerTest {
+
+  @Test
+  fun `patterns built from formats are the same as the old hardcoded patterns`() {
+    assertEquals("#p(\\d+)", CHAN4_FORMAT.quotePattern().pattern())
+    assertEquals("/(\\w+)/\\w+/(\\d+)#p(\\d+)", CHAN4_FORMAT.fullQuotePattern().pattern())
+
+    assertEquals("#(\\d+)", VICHAN_FORMAT.quotePattern().pattern())
+    assertEquals("/(\\w+)/\\w+/(\\d+)\\.html#(\\d+)", VICHAN_FORMAT.fullQuotePattern().pattern())
+
+    assertEquals("#(\\d+)", TAIMABA_FORMAT.quotePattern().pattern())
+    assertEquals("/(\\w+)/thread/(\\d+)#(\\d+)", TAIMABA_FORMAT.fullQuotePattern().pattern())
+
+    // The old lynxchan pattern had an unescaped dot before "html"
+    assertEquals("#(\\d+)", LYNXCHAN_FORMAT.quotePattern().pattern())
+    assertEquals("/(\\w+)/res/(\\d+)\\.html#(\\d+)", LYNXCHAN_FORMAT.fullQuotePattern().pattern())
+  }
+
+  @Test
+  fun `full quotes`() {
+    val scanner = QuoteScanner(CHAN4_FORMAT)
+
+    val fullQuote = scanner.findFullQuote("//boards.4chan.org/g/thread/123#p456")!!
+    assertEquals("g", fullQuote.boardCode)
+    assertEquals(123L, fullQuote.threadNo)
+    assertEquals(456L, fullQuote.postNo)
+
+    assertNull(scanner.findFullQuote("/g/thread/123#456"))
+    assertNull(scanner.findFullQuote("/g/thread/#p456"))
+    assertNull(scanner.findFullQuote("/g//123#p456"))
+
+    val tooBig = scanner.findFullQuote("/g/thread/123#p99999999999999999999")!!
+    assertEquals(123L, tooBig.threadNo)
+    assertNull(tooBig.postNo)
+  }
+
+  @Test
+  fun `quotes must match the whole text`() {
+    val scanner = QuoteScanner(CHAN4_FORMAT)
+
+    assertEquals(456L, scanner.matchQuote("#p456")!!.postNo)
+    assertNull(scanner.matchQuote("#p456 "))
+    assertNull(scanner.matchQuote("/g/thread/123#p456"))
+    assertNull(scanner.matchQuote("#p"))
+    assertNull(scanner.matchQuote(""))
+  }
+
+  @Test
+  fun `scanner gives the same results as the patterns`() {
+    ALL_FORMATS.forEach { quoteLinkFormat ->
+      val scanner = QuoteScanner(quoteLinkFormat)
+      val quotePattern = quoteLinkFormat.quotePattern()
+      val fullQuotePattern = quoteLinkFormat.fullQuotePattern()
+      var fullQuotesCount = 0
+      var quotesCount = 0
+
+      generateCorpus(Random(1337), count = 50_000).forEach { text ->
+        if (fullQuotePattern.matcher(text).find()) {
+          ++fullQuotesCount
+        }
+
+        if (quotePattern.matcher(text).matches()) {
+          ++quotesCount
+        }
+
+        assertEquals(text, findFullQuoteWithPattern(fullQuotePattern, text), fullQuoteToString(scanner.findFullQuote(text)))
+        assertEquals(text, matchQuoteWithPattern(quotePattern, text), quoteToString(scanner.matchQuote(text)))
+
+        assertEquals(
+          text,
+          repliesToString(ReplyParser.extractCommentReplies(quotePattern, fullQuotePattern, text)),
+          repliesToString(ReplyParser.extractCommentReplies(scanner, text))
+        )
+      }
+
+      // Make sure the corpus is not just noise
+      assertTrue(fullQuotesCount > 20)
+      assertTrue(quotesCount > 20)
+    }
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark scanner vs patterns`() {
+    val scanner = QuoteScanner(CHAN4_FORMAT)
+    val quotePattern = CHAN4_FORMAT.quotePattern()
+    val fullQuotePattern = CHAN4_FORMAT.fullQuotePattern()
+    val comments = generateComments(Random(42), count = 2000)
+
+    // Warm up
+    repeat(5) {
+      comments.forEach { comment -> ReplyParser.extractCommentReplies(quotePattern, fullQuotePattern, comment) }
+      comments.forEach { comment -> ReplyParser.extractCommentReplies(scanner, comment) }
+    }
+
+    val patternsTime = measureNanoTime {
+      repeat(10) {
+        comments.forEach { comment -> ReplyParser.extractCommentReplies(quotePattern, fullQuotePattern, comment) }
+      }
+    }
+
+    val scannerTime = measureNanoTime {
+      repeat(10) {
+        comments.forEach { comment -> ReplyParser.extractCommentReplies(scanner, comment) }
+      }
+    }
+
+    val parsedComments = comments.size * 10
+
+    println(
+      "comments=${parsedComments}, " +
+        "patterns=${patternsTime / parsedComments}ns per comment, " +
+        "scanner=${scannerTime / parsedComments}ns per comment"
+    )
+  }
+
+  // Random noise mixed with things that look like quotes of all the formats, some of which are
+  // slightly broken
+  private fun generateCorpus(random: Random, count: Int): List<String> {
+    fun StringBuilder.appendRandom(fragments: List<String>) {
+      append(fragments[random.nextInt(fragments.size)])
+    }
+
+    return (0 until count).map {
+      buildString {
+        repeat(random.nextInt(0, 6)) {
+          when (random.nextInt(3)) {
+            0 -> appendRandom(NOISE_FRAGMENTS)
+            1 -> {
+              appendRandom(POST_NO_PREFIXES)
+              appendRandom(NUMBERS)
+            }
+            else -> {
+              append('/')
+              appendRandom(BOARD_CODES)
+              append('/')
+              appendRandom(THREAD_SEGMENTS)
+              append('/')
+              appendRandom(NUMBERS)
+              appendRandom(THREAD_NO_SUFFIXES)
+              appendRandom(POST_NO_PREFIXES)
+              appendRandom(NUMBERS)
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Looks like what 4chan sends (the "com" field of a post)
+  private fun generateComments(random: Random, count: Int): List<String> {
+    return (0 until count).map {
+      buildString {
+        repeat(random.nextInt(0, 4)) {
+          val postNo = random.nextLong(100_000_000L, 999_999_999L)
+          append("<a href=\"#p${postNo}\" class=\"quotelink\">&gt;&gt;${postNo}</a><br>")
+        }
+
+        if (random.nextInt(4) == 0) {
+          val threadNo = random.nextLong(100_000_000L, 999_999_999L)
+          val postNo = threadNo + random.nextInt(1000)
+          append("<a href=\"/g/thread/${threadNo}#p${postNo}\" class=\"quotelink\">&gt;&gt;&gt;/g/${postNo}</a><br>")
+        }
+
+        repeat(random.nextInt(1, 6)) {
+          append("<span class=\"quote\">&gt;implying this is a #1 thread in /g/ right now</span><br>")
+          append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor. ")
+        }
+      }
+    }
+  }
+
+  private fun findFullQuoteWithPattern(pattern: Pattern, text: String): String? {
+    val matcher = pattern.matcher(text)
+    if (!matcher.find()) {
+      return null
+    }
+
+    return "${matcher.start()}-${matcher.end()}:${matcher.group(1)}/${matcher.group(2).toLongOrNull()}/${matcher.group(3).toLongOrNull()}"
+  }
+
+  private fun fullQuoteToString(fullQuoteMatch: QuoteScanner.FullQuoteMatch?): String? {
+    if (fullQuoteMatch == null) {
+      return null
+    }
+
+    return "${fullQuoteMatch.start}-${fullQuoteMatch.end}:${fullQuoteMatch.boardCode}/${fullQuoteMatch.threadNo}/${fullQuoteMatch.postNo}"
+  }
+
+  private fun matchQuoteWithPattern(pattern: Pattern, text: String): String? {
+    val matcher = pattern.matcher(text)
+    if (!matcher.matches()) {
+      return null
+    }
+
+    return "${matcher.start()}-${matcher.end()}:${matcher.group(1).toLongOrNull()}"
+  }
+
+  private fun quoteToString(quoteMatch: QuoteScanner.QuoteMatch?): String? {
+    if (quoteMatch == null) {
+      return null
+    }
+
+    return "${quoteMatch.start}-${quoteMatch.end}:${quoteMatch.postNo}"
+  }
+
+  private fun repliesToString(extractedQuotes: List<ReplyParser.ExtractedQuote>): String {
+    return extractedQuotes.joinToString { extractedQuote ->
+      when (extractedQuote) {
+        is ReplyParser.ExtractedQuote.FullQuote -> {
+          "${extractedQuote.boardCode}/${extractedQuote.threadId}/${extractedQuote.postId}"
+        }
+        is ReplyParser.ExtractedQuote.Quote -> {
+          "${extractedQuote.postId}"
+        }
+      }
+    }
+  }
+
+  companion object {
+    private val CHAN4_FORMAT = QuoteLinkFormat(threadSegment = null, threadNoSuffix = "", postNoPrefix = "#p")
+    private val VICHAN_FORMAT = QuoteLinkFormat(threadSegment = null, threadNoSuffix = ".html", postNoPrefix = "#")
+    private val TAIMABA_FORMAT = QuoteLinkFormat(threadSegment = "thread", threadNoSuffix = "", postNoPrefix = "#")
+    private val LYNXCHAN_FORMAT = QuoteLinkFormat(threadSegment = "res", threadNoSuffix = ".html", postNoPrefix = "#")
+
+    private val ALL_FORMATS = listOf(CHAN4_FORMAT, VICHAN_FORMAT, TAIMABA_FORMAT, LYNXCHAN_FORMAT)
+
+    private val NOISE_FRAGMENTS = listOf(
+      "/", "//", "g", "p", ".", " ", "123", "#", "<a href=\"", "\">", "&gt;&gt;", "//boards.4chan.org",
+      "é", "двач", "1١"
+    )
+    private val BOARD_CODES = listOf("g", "a_b", "vg", "", "двач", "g.")
+    private val THREAD_SEGMENTS = listOf("thread", "res", "threads", "", "t h")
+    private val THREAD_NO_SUFFIXES = listOf("", ".html", ".htm", "html", "x")
+    private val POST_NO_PREFIXES = listOf("#", "#p", "p", "##")
+    private val NUMBERS = listOf("1", "123", "4567", "0", "99999999999999999999", "", "1١")
+  }
+
+}
@@ -0,0 +1,229 @@
+package com.github.k1rakishou.chan.core.site.sites.dvach
+
+import com.github.k1rakishou.common.mutableListWithCap
+import com.squareup.moshi.Moshi
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.runBlocking
+import okio.Buffer
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.system.measureNanoTime
+
+class DvachPostsStreamReaderTest {
+  private val moshi = Moshi.Builder().build()
+  private val streamReader = DvachPostsStreamReader(moshi)
+
+  @Test
+  fun `streaming reader produces the same posts as the full tree decoding`() {
+    runBlocking {
+      val json = generateThreadJson(postsCount = 500, uniquePostersFirst = false)
+
+      val expected = moshi.adapter(DvachApiV2.DvachThreadsFresh::class.java)
+        .fromJson(Buffer().writeUtf8(json))!!
+        .threads!!
+        .first()
+        .posts!!
+
+      val actual = mutableListWithCap<DvachApiV2.DvachPost>(expected.size)
+      val readResult = streamReader.readThreadFresh(Buffer().writeUtf8(json)) { post -> actual += post }
+
+      assertEquals(expected, actual)
+      assertTrue(readResult.postsFound)
+      assertEquals(500, readResult.postsCount)
+      assertEquals(42, readResult.posters)
+      assertEquals(500, readResult.bumpLimit)
+      assertNull(readResult.error)
+    }
+  }
+
+  @Test
+  fun `unique posters are read regardless of their position`() {
+    runBlocking {
+      val json = generateThreadJson(postsCount = 10, uniquePostersFirst = true)
+      val readResult = streamReader.readThreadFresh(Buffer().writeUtf8(json)) { }
+
+      assertEquals(42, readResult.posters)
+      assertEquals(10, readResult.postsCount)
+    }
+  }
+
+  @Test
+  fun `error response does not emit posts`() {
+    runBlocking {
+      val json = """{"error": {"code": -3, "message": "Thread does not exist"}, "threads": [{"posts": []}]}"""
+      var emitted = 0
+
+      val readResult = streamReader.readThreadFresh(Buffer().writeUtf8(json)) { ++emitted }
+
+      assertEquals(0, emitted)
+      assertFalse(readResult.postsFound)
+      assertEquals(-3, readResult.error?.errorCode)
+      assertTrue(readResult.error!!.isThreadDeleted())
+    }
+  }
+
+  @Test
+  fun `error that comes after the posts is still reported`() {
+    runBlocking {
+      val posts = (1..3).joinToString(separator = ",") { index -> postJson(100L + index, 100L) }
+      val json = """{"threads": [{"posts": [$posts]}], "error": {"code": -3, "message": "Thread does not exist"}}"""
+
+      val readResult = streamReader.readThreadFresh(Buffer().writeUtf8(json)) { }
+
+      // The caller must not use the emitted posts in this case
+      assertEquals(3, readResult.postsCount)
+      assertTrue(readResult.error!!.isThreadDeleted())
+    }
+  }
+
+  @Test
+  fun `incremental and catalog responses`() {
+    runBlocking {
+      val posts = (1..5).joinToString(separator = ",") { index -> postJson(100L + index, 100L) }
+
+      val incremental = streamReader.readThreadIncremental(
+        Buffer().writeUtf8("""{"posts": [$posts], "unique_posters": 3}""")
+      ) { }
+
+      assertEquals(5, incremental.postsCount)
+      assertEquals(3, incremental.posters)
+
+      val catalog = streamReader.readCatalog(
+        Buffer().writeUtf8("""{"board": {"name": "b"}, "threads": [$posts]}""")
+      ) { }
+
+      assertEquals(5, catalog.postsCount)
+      assertNull(catalog.bumpLimit)
+    }
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark streaming vs full tree decoding of a large thread`() {
+    runBlocking {
+      val postsCount = 5000
+      val json = generateThreadJson(postsCount = postsCount, uniquePostersFirst = false)
+      val adapter = moshi.adapter(DvachApiV2.DvachThreadsFresh::class.java)
+
+      // Warm up
+      repeat(3) {
+        adapter.fromJson(Buffer().writeUtf8(json))
+        streamReader.readThreadFresh(Buffer().writeUtf8(json)) { }
+      }
+
+      // The heap is sampled after a GC at the point where the most of the response is in memory (the
+      // whole decoded tree vs the last post) so that only the live objects are counted.
+      val baselineHeap = usedHeapAfterGc()
+
+      var treeHeap = 0L
+      val treeTime = measureNanoTime {
+        val decoded = adapter.fromJson(Buffer().writeUtf8(json))!!
+        treeHeap = usedHeapAfterGc() - baselineHeap
+        assertEquals(postsCount, decoded.threads!!.first().posts!!.size)
+      }
+
+      var streamHeap = 0L
+      var postsRead = 0
+      val streamTime = measureNanoTime {
+        streamReader.readThreadFresh(Buffer().writeUtf8(json)) {
+          ++postsRead
+
+          if (postsRead == postsCount) {
+            streamHeap = usedHeapAfterGc() - baselineHeap
+          }
+        }
+      }
+
+      // Both times include one GC
+      println(
+        "DvachPostsStreamReader benchmark (${postsCount} posts, ${json.length / 1024}KB): " +
+          "tree=${treeTime / 1_000_000}ms (live heap ~${treeHeap / 1024}KB), " +
+          "stream=${streamTime / 1_000_000}ms (live heap ~${streamHeap / 1024}KB)"
+      )
+
+      assertEquals(postsCount, postsRead)
+    }
+  }
+
+  private fun usedHeapAfterGc(): Long {
+    val runtime = Runtime.getRuntime()
+
+    repeat(3) {
+      runtime.gc()
+      Thread.sleep(50)
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory()
+  }
+
+  private fun generateThreadJson(postsCount: Int, uniquePostersFirst: Boolean): String {
+    val threadNo = 1000L
+
+    val posts = (0 until postsCount).joinToString(separator = ",") { index ->
+      if (index == 0) {
+        postJson(threadNo, 0L)
+      } else {
+        postJson(threadNo + index, threadNo)
+      }
+    }
+
+    return buildString {
+      append("{")
+
+      if (uniquePostersFirst) {
+        append("\"unique_posters\": 42,")
+      }
+
+      append("\"board\": {\"bump_limit\": 500, \"name\": \"b\"},")
+      append("\"threads\": [{\"posts\": [$posts]}]")
+
+      if (!uniquePostersFirst) {
+        append(",\"unique_posters\": 42")
+      }
+
+      append("}")
+    }
+  }
+
+  private fun postJson(num: Long, parent: Long): String {
+    return """
+      {
+        "num": $num,
+        "op": 0,
+        "parent": $parent,
+        "banned": 0,
+        "closed": 0,
+        "comment": "<a href=\"/b/res/1000.html#${num - 1}\" class=\"post-reply-link\">&gt;&gt;${num - 1}</a><br>Comment of post $num",
+        "subject": "Subject $num",
+        "date": "01/01/21 Птн 00:00:00",
+        "email": "",
+        "name": "Аноним",
+        "sticky": 0,
+        "endless": 0,
+        "timestamp": 1609459200,
+        "trip": "",
+        "icon": null,
+        "lasthit": 1609459200,
+        "files": [
+          {
+            "fullname": "image_$num.jpg",
+            "md5": "d41d8cd98f00b204e9800998ecf8427e",
+            "name": "$num.jpg",
+            "path": "/b/src/1000/$num.jpg",
+            "size": 100,
+            "thumbnail": "/b/thumb/1000/${num}s.jpg",
+            "tn_height": 200,
+            "tn_width": 200,
+            "type": 1,
+            "width": 1000,
+            "height": 1000
+          }
+        ]
+      }
+    """.trimIndent()
+  }
+
+}
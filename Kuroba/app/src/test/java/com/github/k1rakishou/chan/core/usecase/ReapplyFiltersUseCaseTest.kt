@@ -0,0 +1,199 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.PostFilterInput
+import com.github.k1rakishou.chan.core.manager.ChanFilterManager
+import com.github.k1rakishou.chan.core.manager.IPostHideManager
+import com.github.k1rakishou.chan.core.manager.PostFilterManager
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterAction
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import dagger.Lazy
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import org.mockito.Mockito
+
+class ReapplyFiltersUseCaseTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "test", 1L)
+  private val appScope = CoroutineScope(Job())
+
+  private val postFilterManager = PostFilterManager(
+    verboseLogsEnabled = false,
+    appScope = appScope,
+    chanThreadsCache = ChanThreadsCache(
+      isDevBuild = false,
+      isLowRamDevice = false,
+      maxCacheSize = 1000,
+      chanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+    )
+  )
+
+  // Only the filter matching part of FilterEngine is used which doesn't touch ChanFilterManager
+  private val filterEngine = FilterEngine(
+    ChanFilterManager(
+      isDevBuild = false,
+      appScope = appScope,
+      _chanFilterRepository = Lazy { error("Not used") },
+      _chanPostRepository = Lazy { error("Not used") },
+      _chanFilterWatchRepository = Lazy { error("Not used") },
+      _postFilterHighlightManager = Lazy { error("Not used") },
+      _postFilterManager = Lazy { error("Not used") },
+      _reapplyFiltersUseCase = Lazy { error("Not used") }
+    )
+  )
+
+  private val reapplyFiltersUseCase = ReapplyFiltersUseCase(
+    Lazy { filterEngine },
+    Lazy { postFilterManager },
+    Lazy { Mockito.mock(IPostHideManager::class.java) }
+  )
+
+  @Test
+  fun `all filters are re-applied to posts matched by a changed filter`() = runTest {
+    val first = filter(id = 1, pattern = "/apple/")
+    val second = filter(id = 2, pattern = "/banana/")
+
+    // The post was matched by the first filter before its pattern was changed
+    processPost(postNo = 2, comment = "banana", matchedFilter = first)
+
+    val result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = listOf(first, second), changedFilterIds = setOf(1L))
+    )
+
+    // The second filter didn't change but it now matches the post
+    assertEquals(2L, postFilterManager.getPostFilter(post(2))?.ownerFilterId)
+    assertEquals(setOf(post(2)), result.updatedPosts)
+    assertFalse(result.postsNeedReparsing)
+  }
+
+  @Test
+  fun `all filters are re-applied to posts matched by a disabled or deleted filter`() = runTest {
+    val first = filter(id = 1, pattern = "/banana/")
+    val second = filter(id = 2, pattern = "/banana/")
+
+    processPost(postNo = 2, comment = "banana", matchedFilter = first)
+    processPost(postNo = 3, comment = "banana only", matchedFilter = first)
+    processPost(postNo = 4, comment = "cherry", matchedFilter = first)
+
+    // The first filter is not in the enabled filters anymore
+    val result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = listOf(second), changedFilterIds = setOf(1L))
+    )
+
+    assertEquals(2L, postFilterManager.getPostFilter(post(2))?.ownerFilterId)
+    assertEquals(2L, postFilterManager.getPostFilter(post(3))?.ownerFilterId)
+    // Nothing else matches this post
+    assertNull(postFilterManager.getPostFilter(post(4)))
+    assertEquals(setOf(post(2), post(3), post(4)), result.updatedPosts)
+  }
+
+  @Test
+  fun `only changed filters that precede the owner filter are applied`() = runTest {
+    val first = filter(id = 1, pattern = "/banana/")
+    val second = filter(id = 2, pattern = "/banana/")
+    val third = filter(id = 3, pattern = "/banana/")
+    val fourth = filter(id = 4, pattern = "/banana/")
+    val enabledFilters = listOf(first, second, third, fourth)
+
+    // The first filter matches the post too but it didn't change so it must not be checked again
+    processPost(postNo = 2, comment = "banana", matchedFilter = third)
+
+    var result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = enabledFilters, changedFilterIds = setOf(4L))
+    )
+
+    // The changed filter comes after the owner filter
+    assertEquals(3L, postFilterManager.getPostFilter(post(2))?.ownerFilterId)
+    assertTrue(result.updatedPosts.isEmpty())
+
+    result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = enabledFilters, changedFilterIds = setOf(2L, 4L))
+    )
+
+    // The second filter changed and comes before the owner filter so it takes over the post
+    assertEquals(2L, postFilterManager.getPostFilter(post(2))?.ownerFilterId)
+    assertEquals(setOf(post(2)), result.updatedPosts)
+  }
+
+  @Test
+  fun `changed filters are applied to posts without post filters`() = runTest {
+    val first = filter(id = 1, pattern = "/banana/")
+    val second = filter(id = 2, pattern = "/cherry/")
+
+    processPost(postNo = 2, comment = "banana", matchedFilter = null)
+    processPost(postNo = 3, comment = "cherry", matchedFilter = null)
+
+    val result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = listOf(first, second), changedFilterIds = setOf(2L))
+    )
+
+    assertNull(postFilterManager.getPostFilter(post(2)))
+    assertEquals(2L, postFilterManager.getPostFilter(post(3))?.ownerFilterId)
+    assertEquals(setOf(post(3)), result.updatedPosts)
+  }
+
+  @Test
+  fun `posts need reparsing when their filter inputs were skipped`() = runTest {
+    val first = filter(id = 1, pattern = "/banana/")
+
+    processPost(postNo = 2, comment = "banana", matchedFilter = null)
+    postFilterManager.onFilterInputsSkipped()
+
+    val result = reapplyFiltersUseCase.executeInternal(
+      ReapplyFiltersUseCase.Parameter(enabledFilters = listOf(first), changedFilterIds = setOf(1L))
+    )
+
+    assertTrue(result.postsNeedReparsing)
+    assertNull(postFilterManager.getPostFilter(post(2)))
+
+    postFilterManager.clear()
+    assertTrue(postFilterManager.hasAllFilterInputs())
+  }
+
+  private fun processPost(postNo: Long, comment: String, matchedFilter: ChanFilter?) {
+    postFilterManager.storeFilterInput(filterInput(postNo, comment))
+
+    if (matchedFilter != null) {
+      postFilterManager.insert(post(postNo), filterEngine.createPostFilter(matchedFilter))
+    }
+  }
+
+  private fun post(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun filter(id: Long, pattern: String): ChanFilter {
+    return ChanFilter(
+      filterDatabaseId = id,
+      type = FilterType.COMMENT.flag,
+      pattern = pattern,
+      action = FilterAction.HIDE.id
+    )
+  }
+
+  private fun filterInput(postNo: Long, comment: String): PostFilterInput {
+    return PostFilterInput(
+      postDescriptor = post(postNo),
+      comment = comment,
+      subject = null,
+      name = null,
+      tripcode = null,
+      posterId = null,
+      imageFileHashes = emptyList(),
+      imageFileNames = "",
+      countryCode = "",
+      op = false,
+      isSavedReply = false,
+      neverFiltered = false
+    )
+  }
+
+}
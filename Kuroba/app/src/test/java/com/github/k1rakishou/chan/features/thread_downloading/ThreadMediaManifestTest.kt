@@ -0,0 +1,121 @@
+package com.github.k1rakishou.chan.features.thread_downloading
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ThreadMediaManifestTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun `manifest is created from the already downloaded files`() {
+    val directory = temporaryFolder.newFolder()
+    File(directory, "1.jpg").writeText("image")
+    File(directory, "1s.jpg").writeText("thumbnail")
+    File(directory, "2.jpg").createNewFile()
+    File(directory, ".nomedia").createNewFile()
+
+    val manifest = ThreadMediaManifest.load(directory)
+
+    assertEquals(2, manifest.size)
+    assertTrue(manifest.isDownloaded("1.jpg"))
+    assertTrue(manifest.isDownloaded("1s.jpg"))
+    assertTrue(manifest.needsDownload("2.jpg"))
+    assertTrue(File(directory, ThreadMediaManifest.MANIFEST_FILE_NAME).exists())
+  }
+
+  @Test
+  fun `changes survive reloading`() {
+    val directory = temporaryFolder.newFolder()
+
+    File(directory, "1.jpg").writeText("image")
+
+    val manifest = ThreadMediaManifest.load(directory)
+    manifest.markDownloaded("1.jpg", 5L)
+    manifest.markFailed("2.jpg")
+    // Not closed on purpose, every line is flushed right away
+
+    val reloadedManifest = ThreadMediaManifest.load(directory)
+    assertTrue(reloadedManifest.isDownloaded("1.jpg"))
+    assertFalse(reloadedManifest.isDownloaded("2.jpg"))
+    assertTrue(reloadedManifest.needsDownload("2.jpg"))
+    assertTrue(reloadedManifest.needsDownload("3.jpg"))
+  }
+
+  @Test
+  fun `media is not downloaded anymore after too many failed attempts`() {
+    val directory = temporaryFolder.newFolder()
+
+    repeat(ThreadMediaManifest.MAX_DOWNLOAD_ATTEMPTS) {
+      val manifest = ThreadMediaManifest.load(directory)
+      assertTrue(manifest.needsDownload("1.jpg"))
+
+      manifest.markFailed("1.jpg")
+      manifest.close()
+    }
+
+    assertFalse(ThreadMediaManifest.load(directory).needsDownload("1.jpg"))
+  }
+
+  @Test
+  fun `failed attempts are reset when retrying failed media`() {
+    val directory = temporaryFolder.newFolder()
+
+    val manifest = ThreadMediaManifest.load(directory)
+    repeat(ThreadMediaManifest.MAX_DOWNLOAD_ATTEMPTS) { manifest.markFailed("1.jpg") }
+    assertFalse(manifest.needsDownload("1.jpg"))
+
+    manifest.resetFailedAttempts()
+    assertTrue(manifest.needsDownload("1.jpg"))
+    manifest.close()
+
+    assertTrue(ThreadMediaManifest.load(directory).needsDownload("1.jpg"))
+  }
+
+  @Test
+  fun `downloaded media is downloaded again when the file is missing or has a different size`() {
+    val directory = temporaryFolder.newFolder()
+    File(directory, "1.jpg").writeText("image")
+    File(directory, "2.jpg").writeText("image")
+
+    val manifest = ThreadMediaManifest.load(directory)
+    manifest.markDownloaded("3.jpg", 5L)
+    manifest.close()
+
+    File(directory, "1.jpg").delete()
+    File(directory, "2.jpg").writeText("ima")
+
+    val reloadedManifest = ThreadMediaManifest.load(directory)
+    assertTrue(reloadedManifest.needsDownload("1.jpg"))
+    assertTrue(reloadedManifest.needsDownload("2.jpg"))
+    assertTrue(reloadedManifest.needsDownload("3.jpg"))
+    assertFalse(reloadedManifest.isDownloaded("2.jpg"))
+  }
+
+  @Test
+  fun `partially written line is dropped and the manifest is compacted`() {
+    val directory = temporaryFolder.newFolder()
+    val manifestFile = File(directory, ThreadMediaManifest.MANIFEST_FILE_NAME)
+    File(directory, "2.jpg").writeText("image")
+    manifestFile.writeText("D 0 5 1.jpg\nF 1 0 2.jpg\nD 0 5 2.jpg\nD 0 5 3.jpg")
+
+    val manifest = ThreadMediaManifest.load(directory)
+    assertEquals(2, manifest.size)
+    assertTrue(manifest.isDownloaded("2.jpg"))
+    assertTrue(manifest.needsDownload("3.jpg"))
+
+    manifest.markDownloaded("4.jpg", 5L)
+    manifest.close()
+
+    val lines = manifestFile.readLines()
+    assertEquals(3, lines.size)
+    assertEquals("D 0 5 4.jpg", lines.last())
+  }
+
+}
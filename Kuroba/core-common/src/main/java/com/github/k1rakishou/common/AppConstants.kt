@@ -120,6 +120,16 @@ open class AppConstants(
       return field
     }
 
+  val threadPostsSnapshotsDir: File
+    get() {
+      if (field.exists()) {
+        return field
+      }
+
+      check(field.mkdir()) { "Failed to create thread posts snapshots directory! threadPostsSnapshotsDir=${field.absolutePath}" }
+      return field
+    }
+
   val diskCacheDir: File
     get() {
       if (field.exists()) {
@@ -174,6 +184,7 @@ open class AppConstants(
     attachFilesMetaDir = File(context.filesDir, ATTACH_FILES_META_DIR_NAME)
     mediaPreviewsDir = File(context.filesDir, MEDIA_PREVIEWS_DIR_NAME)
     threadDownloaderCacheDir = File(context.filesDir, THREAD_DOWNLOADER_DIR_NAME)
+    threadPostsSnapshotsDir = File(context.filesDir, THREAD_POSTS_SNAPSHOTS_DIR_NAME)
 
     mpvNativeLibsDir = File(context.filesDir, MPV_NATIVE_LIBS_DIR_NAME)
     mpvCertDir = File(context.filesDir, MPV_CERT_DIR_NAME)
@@ -229,6 +240,7 @@ open class AppConstants(
     private const val ATTACH_FILES_META_DIR_NAME = "attach_files_meta"
     private const val MEDIA_PREVIEWS_DIR_NAME = "media_previews"
     private const val THREAD_DOWNLOADER_DIR_NAME = "thread_downloader_storage"
+    private const val THREAD_POSTS_SNAPSHOTS_DIR_NAME = "thread_posts_snapshots"
     private const val MPV_NATIVE_LIBS_DIR_NAME = "mpv_native_libs"
     private const val MPV_CERT_DIR_NAME = "certs/mpv"
     private const val EXO_PLAYER_CACHE_DIR_NAME = "exo_player_cache"
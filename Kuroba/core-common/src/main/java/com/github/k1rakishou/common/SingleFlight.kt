@@ -0,0 +1,60 @@
+package com.github.k1rakishou.common
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ensureActive
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Coalesces concurrent executions with the same key into one. The first caller for a key executes
+ * [execute]'s function while everybody else who comes with the same key while it's still running
+ * just waits for its result. Once the execution is done the key is removed so the next call will
+ * execute the function again (caching the results is up to the caller).
+ *
+ * If the executing coroutine gets canceled the waiters do not get canceled with it, instead one of
+ * them takes over and executes the function again.
+ * */
+class SingleFlight<K : Any, V> {
+  private val inFlight = ConcurrentHashMap<K, CompletableDeferred<V>>()
+
+  val inFlightCount: Int
+    get() = inFlight.size
+
+  suspend fun execute(key: K, func: suspend () -> V): V {
+    while (true) {
+      coroutineContext.ensureActive()
+
+      val newDeferred = CompletableDeferred<V>()
+      val existingDeferred = inFlight.putIfAbsent(key, newDeferred)
+
+      if (existingDeferred != null) {
+        try {
+          return existingDeferred.await()
+        } catch (error: ExecutorCanceledException) {
+          // The coroutine that was executing the function got canceled, try again
+          continue
+        }
+      }
+
+      try {
+        val result = func()
+        newDeferred.complete(result)
+
+        return result
+      } catch (error: Throwable) {
+        if (error is CancellationException) {
+          newDeferred.completeExceptionally(ExecutorCanceledException())
+        } else {
+          newDeferred.completeExceptionally(error)
+        }
+
+        throw error
+      } finally {
+        inFlight.remove(key, newDeferred)
+      }
+    }
+  }
+
+  private class ExecutorCanceledException : Exception("Executor was canceled")
+}
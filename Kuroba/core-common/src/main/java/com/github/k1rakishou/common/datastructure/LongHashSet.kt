@@ -0,0 +1,313 @@
+package com.github.k1rakishou.common.datastructure
+
+/**
+ * Set of primitive longs (open addressing with linear probing). Unlike HashSet<Long> it doesn't
+ * allocate a boxed Long plus a map entry for every element and lookups don't box the key, which
+ * matters on hot paths like the post parsing where we check every quote of every post against the
+ * set of post numbers of a thread.
+ *
+ * Not thread-safe. Can be read from multiple threads once it's fully built and safely published.
+ * */
+class LongHashSet(expectedSize: Int = DEFAULT_EXPECTED_SIZE) {
+  // 0 is used to mark empty slots so it's stored separately
+  private var keys: LongArray
+  private var mask: Int
+  private var maxFill: Int
+  private var containsZeroKey = false
+  private var keysCount = 0
+
+  val size: Int
+    get() = if (containsZeroKey) keysCount + 1 else keysCount
+
+  init {
+    require(expectedSize >= 0) { "Bad expectedSize: $expectedSize" }
+
+    val capacity = arraySizeFor(expectedSize)
+    keys = LongArray(capacity)
+    mask = capacity - 1
+    maxFill = maxFillFor(capacity)
+  }
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun isNotEmpty(): Boolean = size != 0
+
+  operator fun contains(key: Long): Boolean {
+    if (key == EMPTY_KEY) {
+      return containsZeroKey
+    }
+
+    val currentKeys = keys
+    var index = hashIndex(key, mask)
+
+    while (true) {
+      val currentKey = currentKeys[index]
+      if (currentKey == EMPTY_KEY) {
+        return false
+      }
+
+      if (currentKey == key) {
+        return true
+      }
+
+      index = (index + 1) and mask
+    }
+  }
+
+  /**
+   * Returns true if the key was not in the set.
+   * */
+  fun add(key: Long): Boolean {
+    if (key == EMPTY_KEY) {
+      if (containsZeroKey) {
+        return false
+      }
+
+      containsZeroKey = true
+      return true
+    }
+
+    var index = hashIndex(key, mask)
+
+    while (true) {
+      val currentKey = keys[index]
+      if (currentKey == EMPTY_KEY) {
+        break
+      }
+
+      if (currentKey == key) {
+        return false
+      }
+
+      index = (index + 1) and mask
+    }
+
+    keys[index] = key
+
+    if (++keysCount >= maxFill) {
+      rehash(keys.size * 2)
+    }
+
+    return true
+  }
+
+  fun addAll(other: LongHashSet) {
+    other.forEach { key -> add(key) }
+  }
+
+  /**
+   * Returns true if the key was in the set.
+   * */
+  fun remove(key: Long): Boolean {
+    if (key == EMPTY_KEY) {
+      if (!containsZeroKey) {
+        return false
+      }
+
+      containsZeroKey = false
+      return true
+    }
+
+    var index = hashIndex(key, mask)
+
+    while (true) {
+      val currentKey = keys[index]
+      if (currentKey == EMPTY_KEY) {
+        return false
+      }
+
+      if (currentKey == key) {
+        break
+      }
+
+      index = (index + 1) and mask
+    }
+
+    shiftKeysBack(index)
+    --keysCount
+
+    return true
+  }
+
+  fun clear() {
+    keys.fill(EMPTY_KEY)
+    keysCount = 0
+    containsZeroKey = false
+  }
+
+  inline fun forEach(func: (Long) -> Unit) {
+    val iterator = longIterator()
+
+    while (iterator.hasNext()) {
+      func(iterator.nextLong())
+    }
+  }
+
+  fun longIterator(): LongIterator {
+    return object : LongIterator() {
+      private var index = 0
+      private var zeroKeyReturned = !containsZeroKey
+
+      override fun hasNext(): Boolean {
+        if (!zeroKeyReturned) {
+          return true
+        }
+
+        while (index < keys.size) {
+          if (keys[index] != EMPTY_KEY) {
+            return true
+          }
+
+          ++index
+        }
+
+        return false
+      }
+
+      override fun nextLong(): Long {
+        if (!hasNext()) {
+          throw NoSuchElementException()
+        }
+
+        if (!zeroKeyReturned) {
+          zeroKeyReturned = true
+          return EMPTY_KEY
+        }
+
+        return keys[index++]
+      }
+    }
+  }
+
+  fun toLongArray(): LongArray {
+    val result = LongArray(size)
+    var index = 0
+
+    forEach { key -> result[index++] = key }
+    return result
+  }
+
+  override fun equals(other: Any?): Boolean {
+    if (this === other) return true
+    if (other !is LongHashSet) return false
+    if (size != other.size) return false
+
+    forEach { key ->
+      if (key !in other) {
+        return false
+      }
+    }
+
+    return true
+  }
+
+  override fun hashCode(): Int {
+    var hash = 0
+    forEach { key -> hash += key.hashCode() }
+
+    return hash
+  }
+
+  override fun toString(): String {
+    return "LongHashSet(size=$size)"
+  }
+
+  // Linear probing deletion: move the following keys of the same cluster back so that lookups
+  // never stop at the freed slot while the key they are looking for is further in the cluster.
+  private fun shiftKeysBack(startIndex: Int) {
+    var freeIndex = startIndex
+
+    while (true) {
+      var index = (freeIndex + 1) and mask
+      var currentKey: Long
+
+      while (true) {
+        currentKey = keys[index]
+        if (currentKey == EMPTY_KEY) {
+          keys[freeIndex] = EMPTY_KEY
+          return
+        }
+
+        val homeIndex = hashIndex(currentKey, mask)
+        val canBeMoved = if (freeIndex <= index) {
+          homeIndex <= freeIndex || homeIndex > index
+        } else {
+          homeIndex in (index + 1)..freeIndex
+        }
+
+        if (canBeMoved) {
+          break
+        }
+
+        index = (index + 1) and mask
+      }
+
+      keys[freeIndex] = currentKey
+      freeIndex = index
+    }
+  }
+
+  private fun rehash(newCapacity: Int) {
+    val oldKeys = keys
+    val newKeys = LongArray(newCapacity)
+    val newMask = newCapacity - 1
+
+    for (key in oldKeys) {
+      if (key == EMPTY_KEY) {
+        continue
+      }
+
+      var index = hashIndex(key, newMask)
+      while (newKeys[index] != EMPTY_KEY) {
+        index = (index + 1) and newMask
+      }
+
+      newKeys[index] = key
+    }
+
+    keys = newKeys
+    mask = newMask
+    maxFill = maxFillFor(newCapacity)
+  }
+
+  companion object {
+    private const val DEFAULT_EXPECTED_SIZE = 16
+
+    internal const val EMPTY_KEY = 0L
+    internal const val LOAD_FACTOR = 0.75f
+    internal const val MAX_CAPACITY = 1 shl 30
+
+    // Post numbers are sequential so they must be scattered over the table otherwise they would
+    // all end up in one huge cluster.
+    internal fun hashIndex(key: Long, mask: Int): Int {
+      val hash = key * -7046029254386353131L
+      return (hash xor (hash ushr 32)).toInt() and mask
+    }
+
+    internal fun arraySizeFor(expectedSize: Int): Int {
+      val minCapacity = (expectedSize / LOAD_FACTOR).toLong() + 1
+      if (minCapacity >= MAX_CAPACITY) {
+        return MAX_CAPACITY
+      }
+
+      var capacity = 4
+      while (capacity < minCapacity) {
+        capacity = capacity shl 1
+      }
+
+      return capacity
+    }
+
+    internal fun maxFillFor(capacity: Int): Int {
+      return minOf(capacity - 1, (capacity * LOAD_FACTOR).toInt())
+    }
+
+    fun of(vararg keys: Long): LongHashSet {
+      val set = LongHashSet(keys.size)
+      keys.forEach { key -> set.add(key) }
+
+      return set
+    }
+  }
+
+}
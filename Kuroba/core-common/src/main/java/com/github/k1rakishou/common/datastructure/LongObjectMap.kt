@@ -0,0 +1,195 @@
+package com.github.k1rakishou.common.datastructure
+
+import com.github.k1rakishou.common.datastructure.LongHashSet.Companion.EMPTY_KEY
+import com.github.k1rakishou.common.datastructure.LongHashSet.Companion.arraySizeFor
+import com.github.k1rakishou.common.datastructure.LongHashSet.Companion.hashIndex
+import com.github.k1rakishou.common.datastructure.LongHashSet.Companion.maxFillFor
+
+/**
+ * Map with primitive long keys (open addressing with linear probing, same as [LongHashSet]).
+ * Doesn't box the keys and doesn't allocate an entry object for every mapping.
+ *
+ * Not thread-safe. Can be read from multiple threads once it's fully built and safely published.
+ * */
+@Suppress("UNCHECKED_CAST")
+class LongObjectMap<V : Any>(expectedSize: Int = DEFAULT_EXPECTED_SIZE) {
+  private var keys: LongArray
+  private var values: Array<Any?>
+  private var mask: Int
+  private var maxFill: Int
+  // 0 is used to mark empty slots so the value of the 0 key is stored separately
+  private var zeroKeyValue: V? = null
+  private var keysCount = 0
+
+  val size: Int
+    get() = if (zeroKeyValue != null) keysCount + 1 else keysCount
+
+  init {
+    require(expectedSize >= 0) { "Bad expectedSize: $expectedSize" }
+
+    val capacity = arraySizeFor(expectedSize)
+    keys = LongArray(capacity)
+    values = arrayOfNulls(capacity)
+    mask = capacity - 1
+    maxFill = maxFillFor(capacity)
+  }
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun isNotEmpty(): Boolean = size != 0
+
+  fun containsKey(key: Long): Boolean {
+    return get(key) != null
+  }
+
+  operator fun get(key: Long): V? {
+    if (key == EMPTY_KEY) {
+      return zeroKeyValue
+    }
+
+    val index = indexOf(key)
+    if (index < 0) {
+      return null
+    }
+
+    return values[index] as V
+  }
+
+  /**
+   * Returns the previous value associated with the key.
+   * */
+  fun put(key: Long, value: V): V? {
+    if (key == EMPTY_KEY) {
+      val prevValue = zeroKeyValue
+      zeroKeyValue = value
+
+      return prevValue
+    }
+
+    var index = hashIndex(key, mask)
+
+    while (true) {
+      val currentKey = keys[index]
+      if (currentKey == EMPTY_KEY) {
+        break
+      }
+
+      if (currentKey == key) {
+        val prevValue = values[index] as V
+        values[index] = value
+
+        return prevValue
+      }
+
+      index = (index + 1) and mask
+    }
+
+    keys[index] = key
+    values[index] = value
+
+    if (++keysCount >= maxFill) {
+      rehash(keys.size * 2)
+    }
+
+    return null
+  }
+
+  operator fun set(key: Long, value: V) {
+    put(key, value)
+  }
+
+  inline fun getOrPut(key: Long, defaultValue: () -> V): V {
+    val value = get(key)
+    if (value != null) {
+      return value
+    }
+
+    val newValue = defaultValue()
+    put(key, newValue)
+
+    return newValue
+  }
+
+  fun clear() {
+    keys.fill(EMPTY_KEY)
+    values.fill(null)
+    keysCount = 0
+    zeroKeyValue = null
+  }
+
+  fun forEach(func: (Long, V) -> Unit) {
+    zeroKeyValue?.let { value -> func(EMPTY_KEY, value) }
+
+    val currentKeys = keys
+    val currentValues = values
+
+    for (index in currentKeys.indices) {
+      val key = currentKeys[index]
+      if (key != EMPTY_KEY) {
+        func(key, currentValues[index] as V)
+      }
+    }
+  }
+
+  fun keySet(): LongHashSet {
+    val result = LongHashSet(size)
+    forEach { key, _ -> result.add(key) }
+
+    return result
+  }
+
+  override fun toString(): String {
+    return "LongObjectMap(size=$size)"
+  }
+
+  private fun indexOf(key: Long): Int {
+    val currentKeys = keys
+    var index = hashIndex(key, mask)
+
+    while (true) {
+      val currentKey = currentKeys[index]
+      if (currentKey == EMPTY_KEY) {
+        return -1
+      }
+
+      if (currentKey == key) {
+        return index
+      }
+
+      index = (index + 1) and mask
+    }
+  }
+
+  private fun rehash(newCapacity: Int) {
+    val oldKeys = keys
+    val oldValues = values
+    val newKeys = LongArray(newCapacity)
+    val newValues = arrayOfNulls<Any?>(newCapacity)
+    val newMask = newCapacity - 1
+
+    for (oldIndex in oldKeys.indices) {
+      val key = oldKeys[oldIndex]
+      if (key == EMPTY_KEY) {
+        continue
+      }
+
+      var index = hashIndex(key, newMask)
+      while (newKeys[index] != EMPTY_KEY) {
+        index = (index + 1) and newMask
+      }
+
+      newKeys[index] = key
+      newValues[index] = oldValues[oldIndex]
+    }
+
+    keys = newKeys
+    values = newValues
+    mask = newMask
+    maxFill = maxFillFor(newCapacity)
+  }
+
+  companion object {
+    private const val DEFAULT_EXPECTED_SIZE = 16
+  }
+
+}
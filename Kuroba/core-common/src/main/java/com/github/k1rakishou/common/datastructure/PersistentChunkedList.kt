@@ -0,0 +1,167 @@
+package com.github.k1rakishou.common.datastructure
+
+/**
+ * Immutable random access list which elements are stored in chunks of [CHUNK_SIZE] elements. A new
+ * version of the list is created with a [Builder] and it shares every chunk that was not modified
+ * with the version it was created from, so replacing or appending a couple of elements of a large
+ * list only copies the modified chunks and the (CHUNK_SIZE times smaller) chunk table instead of the
+ * whole list.
+ *
+ * Since it's immutable it can be safely read from any thread without locking as long as it is
+ * published safely (e.g. via a volatile field).
+ * */
+@Suppress("UNCHECKED_CAST")
+class PersistentChunkedList<T> private constructor(
+  private val chunks: Array<Array<Any?>>,
+  override val size: Int
+) : AbstractList<T>(), RandomAccess {
+
+  override fun get(index: Int): T {
+    if (index < 0 || index >= size) {
+      throw IndexOutOfBoundsException("index=$index, size=$size")
+    }
+
+    return chunks[index ushr CHUNK_SHIFT][index and CHUNK_MASK] as T
+  }
+
+  override fun iterator(): Iterator<T> {
+    return object : Iterator<T> {
+      private var index = 0
+
+      override fun hasNext(): Boolean = index < size
+
+      override fun next(): T {
+        if (index >= size) {
+          throw NoSuchElementException()
+        }
+
+        val element = chunks[index ushr CHUNK_SHIFT][index and CHUNK_MASK] as T
+        ++index
+
+        return element
+      }
+    }
+  }
+
+  fun newBuilder(): Builder<T> = Builder(this)
+
+  /**
+   * Not thread-safe. [build] can be called multiple times, modifications made after [build] never
+   * affect the already built lists.
+   * */
+  class Builder<T> internal constructor(
+    private var base: PersistentChunkedList<T>
+  ) {
+    private var chunks = base.chunks as Array<Array<Any?>?>
+    // Until something is modified the chunk table is shared with the base list. After that only
+    // the chunks created by this builder (and not yet published with build()) can be modified in
+    // place, the rest of them are copied first.
+    private var chunkTableOwned = false
+    private var ownedChunks = BooleanArray(0)
+
+    var size: Int = base.size
+      private set
+
+    operator fun get(index: Int): T {
+      if (index < 0 || index >= size) {
+        throw IndexOutOfBoundsException("index=$index, size=$size")
+      }
+
+      return chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK] as T
+    }
+
+    operator fun set(index: Int, element: T) {
+      if (index < 0 || index >= size) {
+        throw IndexOutOfBoundsException("index=$index, size=$size")
+      }
+
+      ownChunkTable(minCapacity = chunks.size)
+      ownChunk(index ushr CHUNK_SHIFT)[index and CHUNK_MASK] = element
+    }
+
+    fun add(element: T) {
+      val chunkIndex = size ushr CHUNK_SHIFT
+
+      if (chunkIndex >= chunks.size || chunks[chunkIndex] == null) {
+        ownChunkTable(minCapacity = chunkIndex + 1)
+        chunks[chunkIndex] = arrayOfNulls(CHUNK_SIZE)
+        ownedChunks[chunkIndex] = true
+      } else {
+        ownChunkTable(minCapacity = chunks.size)
+      }
+
+      ownChunk(chunkIndex)[size and CHUNK_MASK] = element
+      ++size
+    }
+
+    fun addAll(elements: Collection<T>) {
+      elements.forEach { element -> add(element) }
+    }
+
+    fun build(): PersistentChunkedList<T> {
+      if (!chunkTableOwned) {
+        return base
+      }
+
+      val chunksCount = (size + CHUNK_MASK) ushr CHUNK_SHIFT
+      val resultChunks = chunks.copyOf(chunksCount) as Array<Array<Any?>>
+
+      base = PersistentChunkedList(resultChunks, size)
+
+      // Everything is shared with the built list now
+      chunks = resultChunks as Array<Array<Any?>?>
+      chunkTableOwned = false
+      ownedChunks = BooleanArray(0)
+
+      return base
+    }
+
+    private fun ownChunkTable(minCapacity: Int) {
+      if (!chunkTableOwned) {
+        chunks = chunks.copyOf(minCapacity)
+        ownedChunks = BooleanArray(minCapacity)
+        chunkTableOwned = true
+        return
+      }
+
+      if (chunks.size < minCapacity) {
+        // Elements are usually appended one by one so grow the table in advance
+        val newCapacity = maxOf(minCapacity, chunks.size + (chunks.size shr 1) + 1)
+
+        chunks = chunks.copyOf(newCapacity)
+        ownedChunks = ownedChunks.copyOf(newCapacity)
+      }
+    }
+
+    private fun ownChunk(chunkIndex: Int): Array<Any?> {
+      if (!ownedChunks[chunkIndex]) {
+        chunks[chunkIndex] = chunks[chunkIndex]!!.copyOf()
+        ownedChunks[chunkIndex] = true
+      }
+
+      return chunks[chunkIndex]!!
+    }
+  }
+
+  companion object {
+    private const val CHUNK_SHIFT = 5
+    const val CHUNK_SIZE = 1 shl CHUNK_SHIFT
+    private const val CHUNK_MASK = CHUNK_SIZE - 1
+
+    private val EMPTY = PersistentChunkedList<Any?>(emptyArray(), 0)
+
+    fun <T> empty(): PersistentChunkedList<T> = EMPTY as PersistentChunkedList<T>
+
+    fun <T> from(elements: Collection<T>): PersistentChunkedList<T> {
+      if (elements.isEmpty()) {
+        return empty()
+      }
+
+      val builder = Builder(empty<T>())
+      builder.addAll(elements)
+
+      return builder.build()
+    }
+  }
+
+}
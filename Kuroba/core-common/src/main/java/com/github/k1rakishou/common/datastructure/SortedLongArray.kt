@@ -0,0 +1,91 @@
+package com.github.k1rakishou.common.datastructure
+
+/**
+ * Read-only view of an ascending sorted LongArray. Counting elements below/above some value,
+ * searching and getting the min/max element are all binary searches (or O(1)) instead of full
+ * scans. Use [of] to create it, it only copies the array when the array is not sorted already
+ * (post numbers are almost always received in ascending order).
+ *
+ * The wrapped array must not be modified afterwards.
+ * */
+class SortedLongArray private constructor(
+  private val array: LongArray
+) {
+
+  val size: Int
+    get() = array.size
+
+  fun isEmpty(): Boolean = array.isEmpty()
+
+  operator fun get(index: Int): Long = array[index]
+
+  operator fun contains(value: Long): Boolean {
+    return array.binarySearch(value) >= 0
+  }
+
+  fun minOrNull(): Long? = if (array.isEmpty()) null else array[0]
+
+  fun maxOrNull(): Long? = if (array.isEmpty()) null else array[array.lastIndex]
+
+  fun countLessOrEqual(value: Long): Int {
+    return firstIndexGreaterThan(value)
+  }
+
+  fun countGreaterThan(value: Long): Int {
+    return array.size - firstIndexGreaterThan(value)
+  }
+
+  inline fun forEach(func: (Long) -> Unit) {
+    for (index in 0 until size) {
+      func(get(index))
+    }
+  }
+
+  // Index of the first element that is greater than [value] or [size] if there is no such element.
+  // Handles duplicates.
+  private fun firstIndexGreaterThan(value: Long): Int {
+    var low = 0
+    var high = array.size
+
+    while (low < high) {
+      val mid = (low + high) ushr 1
+
+      if (array[mid] <= value) {
+        low = mid + 1
+      } else {
+        high = mid
+      }
+    }
+
+    return low
+  }
+
+  companion object {
+    private val EMPTY = SortedLongArray(LongArray(0))
+
+    fun empty(): SortedLongArray = EMPTY
+
+    fun of(array: LongArray): SortedLongArray {
+      if (array.isEmpty()) {
+        return EMPTY
+      }
+
+      if (isSorted(array)) {
+        return SortedLongArray(array)
+      }
+
+      return SortedLongArray(array.copyOf().apply { sort() })
+    }
+
+    private fun isSorted(array: LongArray): Boolean {
+      for (index in 1 until array.size) {
+        if (array[index - 1] > array[index]) {
+          return false
+        }
+      }
+
+      return true
+    }
+  }
+
+}
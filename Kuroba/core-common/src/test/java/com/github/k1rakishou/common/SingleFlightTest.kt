@@ -0,0 +1,82 @@
+package com.github.k1rakishou.common
+
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class SingleFlightTest {
+
+  @Test
+  fun `concurrent executions with the same key are coalesced`() = runBlocking {
+    val singleFlight = SingleFlight<String, Int>()
+    val executions = AtomicInteger(0)
+    val gate = CompletableDeferred<Unit>()
+
+    val results = (0 until 40).map {
+      async(Dispatchers.Default) {
+        singleFlight.execute("video") {
+          gate.await()
+          executions.incrementAndGet()
+        }
+      }
+    }
+
+    delay(100)
+    gate.complete(Unit)
+
+    results.awaitAll().forEach { result -> assertEquals(1, result) }
+    assertEquals(1, executions.get())
+    assertEquals(0, singleFlight.inFlightCount)
+  }
+
+  @Test
+  fun `different keys are executed separately`() = runBlocking {
+    val singleFlight = SingleFlight<String, String>()
+    val executions = AtomicInteger(0)
+
+    val results = listOf("a", "b", "c").map { key ->
+      async(Dispatchers.Default) {
+        singleFlight.execute(key) {
+          executions.incrementAndGet()
+          key
+        }
+      }
+    }
+
+    assertEquals(listOf("a", "b", "c"), results.awaitAll())
+    assertEquals(3, executions.get())
+  }
+
+  @Test
+  fun `waiter takes over when the executor gets canceled`() = runBlocking {
+    val singleFlight = SingleFlight<String, Int>()
+    val executions = AtomicInteger(0)
+
+    val executor = async(Dispatchers.Default) {
+      singleFlight.execute("video") {
+        executions.incrementAndGet()
+        delay(10_000)
+        -1
+      }
+    }
+
+    delay(100)
+
+    val waiter = async(Dispatchers.Default) {
+      singleFlight.execute("video") { executions.incrementAndGet() }
+    }
+
+    delay(100)
+    executor.cancel()
+
+    assertEquals(2, waiter.await())
+    assertEquals(2, executions.get())
+  }
+
+}
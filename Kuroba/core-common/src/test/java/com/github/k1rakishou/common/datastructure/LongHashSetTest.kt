@@ -0,0 +1,182 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+class LongHashSetTest {
+
+  @Test
+  fun `zero and negative keys`() {
+    val set = LongHashSet()
+
+    assertFalse(0L in set)
+    assertTrue(set.add(0L))
+    assertFalse(set.add(0L))
+    assertTrue(set.add(-1L))
+    assertTrue(set.add(Long.MIN_VALUE))
+
+    assertEquals(3, set.size)
+    assertTrue(0L in set)
+    assertTrue(-1L in set)
+    assertTrue(Long.MIN_VALUE in set)
+    assertEquals(setOf(0L, -1L, Long.MIN_VALUE), set.toLongArray().toSet())
+
+    assertTrue(set.remove(0L))
+    assertFalse(set.remove(0L))
+    assertFalse(0L in set)
+    assertEquals(2, set.size)
+  }
+
+  @Test
+  fun `random operations give the same results as HashSet`() {
+    val random = Random(1234)
+    val expected = HashSet<Long>()
+    // Small initial size to make sure the set is rehashed a couple of times
+    val set = LongHashSet(0)
+
+    repeat(50_000) {
+      // Small range of keys so that there are lots of collisions and removals of existing keys
+      val key = random.nextLong(0, 4096)
+
+      when (random.nextInt(3)) {
+        0, 1 -> assertEquals(expected.add(key), set.add(key))
+        else -> assertEquals(expected.remove(key), set.remove(key))
+      }
+
+      assertEquals(expected.size, set.size)
+    }
+
+    for (key in 0L until 4096L) {
+      assertEquals(expected.contains(key), set.contains(key))
+    }
+
+    assertEquals(expected, set.toLongArray().toSet())
+  }
+
+  @Test
+  fun `sequential post numbers`() {
+    val set = LongHashSet(16)
+    val firstPostNo = 123_456_789L
+
+    for (postNo in firstPostNo until firstPostNo + 10_000) {
+      set.add(postNo)
+    }
+
+    assertEquals(10_000, set.size)
+    assertTrue(firstPostNo in set)
+    assertTrue(firstPostNo + 9_999 in set)
+    assertFalse(firstPostNo - 1 in set)
+    assertFalse(firstPostNo + 10_000 in set)
+
+    val other = LongHashSet.of(firstPostNo, firstPostNo + 20_000)
+    set.addAll(other)
+    assertEquals(10_001, set.size)
+
+    set.clear()
+    assertTrue(set.isEmpty())
+    assertFalse(firstPostNo in set)
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark allocations of LongHashSet vs HashSet of boxed longs`() {
+    val postsCount = 1500
+    val iterations = 200
+    val lookupsPerIteration = 20_000
+    val firstPostNo = 90_000_000L
+
+    // Warm up
+    repeat(3) {
+      buildAndQueryBoxedSet(firstPostNo, postsCount, lookupsPerIteration)
+      buildAndQueryLongHashSet(firstPostNo, postsCount, lookupsPerIteration)
+    }
+
+    var boxedFound = 0
+    val boxedAllocated = measureAllocatedBytes {
+      val time = measureNanoTime {
+        repeat(iterations) { boxedFound += buildAndQueryBoxedSet(firstPostNo, postsCount, lookupsPerIteration) }
+      }
+
+      println("HashSet<Long>: ${time / 1_000_000}ms")
+    }
+
+    var primitiveFound = 0
+    val primitiveAllocated = measureAllocatedBytes {
+      val time = measureNanoTime {
+        repeat(iterations) { primitiveFound += buildAndQueryLongHashSet(firstPostNo, postsCount, lookupsPerIteration) }
+      }
+
+      println("LongHashSet: ${time / 1_000_000}ms")
+    }
+
+    println(
+      "Allocations ($iterations iterations, $postsCount posts, $lookupsPerIteration lookups each): " +
+        "HashSet<Long>=${boxedAllocated?.let { it / 1024 }}KB, LongHashSet=${primitiveAllocated?.let { it / 1024 }}KB"
+    )
+
+    assertEquals(boxedFound, primitiveFound)
+
+    if (boxedAllocated != null && primitiveAllocated != null) {
+      assertTrue(primitiveAllocated < boxedAllocated)
+    }
+  }
+
+  // Mirrors what the posts parsing does: build the set of the thread post numbers and then check
+  // every quote against it.
+  private fun buildAndQueryBoxedSet(firstPostNo: Long, postsCount: Int, lookups: Int): Int {
+    val set = HashSet<Long>(postsCount * 2)
+    for (index in 0 until postsCount) {
+      set.add(firstPostNo + index)
+    }
+
+    var found = 0
+    for (index in 0 until lookups) {
+      if (set.contains(firstPostNo + (index % (postsCount * 2)))) {
+        ++found
+      }
+    }
+
+    return found
+  }
+
+  private fun buildAndQueryLongHashSet(firstPostNo: Long, postsCount: Int, lookups: Int): Int {
+    val set = LongHashSet(postsCount)
+    for (index in 0 until postsCount) {
+      set.add(firstPostNo + index)
+    }
+
+    var found = 0
+    for (index in 0 until lookups) {
+      if (set.contains(firstPostNo + (index % (postsCount * 2)))) {
+        ++found
+      }
+    }
+
+    return found
+  }
+
+  // Returns null when the JVM can't measure allocations per thread
+  private fun measureAllocatedBytes(func: () -> Unit): Long? {
+    val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    if (threadMXBean == null || !threadMXBean.isThreadAllocatedMemorySupported) {
+      func()
+      return null
+    }
+
+    threadMXBean.isThreadAllocatedMemoryEnabled = true
+    val threadId = Thread.currentThread().id
+
+    val before = threadMXBean.getThreadAllocatedBytes(threadId)
+    func()
+    val after = threadMXBean.getThreadAllocatedBytes(threadId)
+
+    return after - before
+  }
+
+}
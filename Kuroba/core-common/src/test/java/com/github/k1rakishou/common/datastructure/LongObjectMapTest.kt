@@ -0,0 +1,55 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class LongObjectMapTest {
+
+  @Test
+  fun `put get and zero key`() {
+    val map = LongObjectMap<String>()
+
+    assertNull(map[0L])
+    assertNull(map.put(0L, "zero"))
+    assertNull(map.put(1L, "one"))
+    assertEquals("one", map.put(1L, "ONE"))
+
+    assertEquals(2, map.size)
+    assertEquals("zero", map[0L])
+    assertEquals("ONE", map[1L])
+    assertTrue(map.containsKey(0L))
+    assertFalse(map.containsKey(2L))
+
+    assertEquals("two", map.getOrPut(2L) { "two" })
+    assertEquals("two", map.getOrPut(2L) { "something else" })
+    assertEquals(LongHashSet.of(0L, 1L, 2L), map.keySet())
+
+    map.clear()
+    assertTrue(map.isEmpty())
+    assertNull(map[1L])
+  }
+
+  @Test
+  fun `random operations give the same results as HashMap`() {
+    val random = Random(4321)
+    val expected = HashMap<Long, Int>()
+    val map = LongObjectMap<Int>(0)
+
+    repeat(20_000) { value ->
+      val key = random.nextLong(-1000, 1000)
+
+      assertEquals(expected.put(key, value), map.put(key, value))
+      assertEquals(expected.size, map.size)
+    }
+
+    val actual = HashMap<Long, Int>()
+    map.forEach { key, value -> actual[key] = value }
+
+    assertEquals(expected, actual)
+  }
+
+}
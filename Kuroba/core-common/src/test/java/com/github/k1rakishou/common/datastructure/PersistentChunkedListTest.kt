@@ -0,0 +1,218 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertSame
+import junit.framework.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.thread
+import kotlin.concurrent.write
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+class PersistentChunkedListTest {
+
+  @Test
+  fun `empty list`() {
+    val list = PersistentChunkedList.empty<Int>()
+
+    assertEquals(0, list.size)
+    assertTrue(list.isEmpty())
+    assertEquals(emptyList<Int>(), list)
+    assertSame(list, list.newBuilder().build())
+  }
+
+  @Test
+  fun `old versions are not affected by the new ones`() {
+    val elementsCount = PersistentChunkedList.CHUNK_SIZE * 3 + 5
+    val first = PersistentChunkedList.from((0 until elementsCount).toList())
+
+    val builder = first.newBuilder()
+    builder[0] = -1
+    builder[elementsCount - 1] = -2
+    builder.add(1000)
+    val second = builder.build()
+
+    // The builder can be used after build() without affecting already built lists
+    builder[1] = -3
+    builder.add(1001)
+    val third = builder.build()
+
+    assertEquals((0 until elementsCount).toList(), first)
+
+    assertEquals(elementsCount + 1, second.size)
+    assertEquals(-1, second[0])
+    assertEquals(1, second[1])
+    assertEquals(-2, second[elementsCount - 1])
+    assertEquals(1000, second[elementsCount])
+
+    assertEquals(elementsCount + 2, third.size)
+    assertEquals(-1, third[0])
+    assertEquals(-3, third[1])
+    assertEquals(1000, third[elementsCount])
+    assertEquals(1001, third[elementsCount + 1])
+  }
+
+  @Test
+  fun `nothing modified returns the same list`() {
+    val list = PersistentChunkedList.from(listOf(1, 2, 3))
+    val builder = list.newBuilder()
+
+    assertEquals(2, builder[1])
+    assertSame(list, builder.build())
+  }
+
+  @Test
+  fun `random modifications give the same results as ArrayList`() {
+    val random = Random(1234)
+    val expected = mutableListOf<Int>()
+    var list = PersistentChunkedList.empty<Int>()
+    val versions = mutableListOf<Pair<List<Int>, PersistentChunkedList<Int>>>()
+
+    repeat(200) {
+      val builder = list.newBuilder()
+
+      repeat(random.nextInt(1, 20)) {
+        if (expected.isEmpty() || random.nextBoolean()) {
+          val value = random.nextInt()
+          expected += value
+          builder.add(value)
+        } else {
+          val index = random.nextInt(expected.size)
+          val value = random.nextInt()
+          expected[index] = value
+          builder[index] = value
+        }
+      }
+
+      list = builder.build()
+      versions += expected.toList() to list
+
+      assertEquals(expected, list)
+    }
+
+    versions.forEach { (expectedVersion, actualVersion) -> assertEquals(expectedVersion, actualVersion) }
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark one writer several readers, locked list vs snapshots`() {
+    val initialCount = 1000
+    val writesCount = 20_000
+    val readersCount = 4
+
+    // Warm up
+    repeat(3) {
+      runLockedListBenchmark(initialCount, writesCount / 10, readersCount)
+      runSnapshotBenchmark(initialCount, writesCount / 10, readersCount)
+    }
+
+    val locked = runLockedListBenchmark(initialCount, writesCount, readersCount)
+    val snapshots = runSnapshotBenchmark(initialCount, writesCount, readersCount)
+
+    println(
+      "writes=$writesCount, readers=$readersCount, " +
+        "locked list: writer=${locked.writerTimeNanos / 1_000_000}ms, reads=${locked.readsCount}, " +
+        "snapshots: writer=${snapshots.writerTimeNanos / 1_000_000}ms, reads=${snapshots.readsCount}"
+    )
+  }
+
+  // Mirrors how ChanThread used to work: readers copy the posts under the read lock, the writer
+  // updates a post (or appends a new one) under the write lock.
+  private fun runLockedListBenchmark(initialCount: Int, writesCount: Int, readersCount: Int): BenchmarkResult {
+    val lock = ReentrantReadWriteLock()
+    val list = ArrayList<Int>((0 until initialCount).toList())
+
+    return runBenchmark(
+      writesCount = writesCount,
+      readersCount = readersCount,
+      write = { index ->
+        lock.write {
+          if (index % 4 == 0) {
+            list.add(index)
+          } else {
+            list[index % list.size] = index
+          }
+        }
+      },
+      read = { lock.read { list.toList() }.sum() }
+    )
+  }
+
+  private fun runSnapshotBenchmark(initialCount: Int, writesCount: Int, readersCount: Int): BenchmarkResult {
+    val lock = Any()
+    val snapshotHolder = SnapshotHolder(PersistentChunkedList.from((0 until initialCount).toList()))
+
+    return runBenchmark(
+      writesCount = writesCount,
+      readersCount = readersCount,
+      write = { index ->
+        synchronized(lock) {
+          val builder = snapshotHolder.snapshot.newBuilder()
+
+          if (index % 4 == 0) {
+            builder.add(index)
+          } else {
+            builder[index % builder.size] = index
+          }
+
+          snapshotHolder.snapshot = builder.build()
+        }
+      },
+      read = { snapshotHolder.snapshot.sum() }
+    )
+  }
+
+  private fun runBenchmark(
+    writesCount: Int,
+    readersCount: Int,
+    write: (Int) -> Unit,
+    read: () -> Int
+  ): BenchmarkResult {
+    val stop = AtomicBoolean(false)
+    val readsCount = AtomicLong(0)
+    val readersReadyLatch = CountDownLatch(readersCount)
+    val startLatch = CountDownLatch(1)
+
+    val readers = (0 until readersCount).map {
+      thread {
+        readersReadyLatch.countDown()
+        startLatch.await()
+
+        while (!stop.get()) {
+          read()
+          readsCount.incrementAndGet()
+        }
+      }
+    }
+
+    readersReadyLatch.await()
+    startLatch.countDown()
+
+    val writerTimeNanos = measureNanoTime {
+      for (index in 0 until writesCount) {
+        write(index)
+      }
+    }
+
+    stop.set(true)
+    readers.forEach { reader -> reader.join() }
+
+    return BenchmarkResult(writerTimeNanos, readsCount.get())
+  }
+
+  private class SnapshotHolder(
+    @Volatile var snapshot: PersistentChunkedList<Int>
+  )
+
+  private class BenchmarkResult(
+    val writerTimeNanos: Long,
+    val readsCount: Long
+  )
+
+}
@@ -0,0 +1,54 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class SortedLongArrayTest {
+
+  @Test
+  fun `empty array`() {
+    val array = SortedLongArray.of(LongArray(0))
+
+    assertTrue(array.isEmpty())
+    assertNull(array.maxOrNull())
+    assertNull(array.minOrNull())
+    assertEquals(0, array.countLessOrEqual(100L))
+    assertEquals(0, array.countGreaterThan(100L))
+  }
+
+  @Test
+  fun `counts are the same as full scans`() {
+    val random = Random(1111)
+
+    repeat(100) {
+      // Duplicates and unsorted arrays included
+      val values = LongArray(random.nextInt(1, 200)) { random.nextLong(0, 300) }
+      val array = SortedLongArray.of(values)
+
+      assertEquals(values.maxOrNull(), array.maxOrNull())
+      assertEquals(values.minOrNull(), array.minOrNull())
+
+      for (value in -1L..301L) {
+        assertEquals(values.count { it <= value }, array.countLessOrEqual(value))
+        assertEquals(values.count { it > value }, array.countGreaterThan(value))
+        assertEquals(values.contains(value), value in array)
+      }
+    }
+  }
+
+  @Test
+  fun `unsorted array is not modified`() {
+    val unsorted = longArrayOf(3, 1, 2)
+    val array = SortedLongArray.of(unsorted)
+
+    assertTrue(unsorted.contentEquals(longArrayOf(3, 1, 2)))
+    assertEquals(1L, array[0])
+    assertEquals(3L, array[2])
+    assertFalse(4L in array)
+  }
+
+}
@@ -84,6 +84,22 @@ abstract class ChanPostDao {
   @Query("SELECT COUNT(*) FROM ${ChanPostIdEntity.TABLE_NAME}")
   abstract suspend fun totalPostsCount(): Int
 
+  @Query("""
+    SELECT
+        cp_id.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        cp_id.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        cpe.${ChanPostEntity.RAW_POST_HASH_1_COLUMN_NAME},
+        cpe.${ChanPostEntity.RAW_POST_HASH_2_COLUMN_NAME}
+    FROM ${ChanPostIdEntity.TABLE_NAME} cp_id
+    INNER JOIN ${ChanPostEntity.TABLE_NAME} cpe
+        ON cpe.${ChanPostEntity.CHAN_POST_ID_COLUMN_NAME} = cp_id.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+    WHERE
+        cp_id.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} = :ownerThreadId
+    AND
+        (cpe.${ChanPostEntity.RAW_POST_HASH_1_COLUMN_NAME} != 0 OR cpe.${ChanPostEntity.RAW_POST_HASH_2_COLUMN_NAME} != 0)
+  """)
+  abstract suspend fun selectRawPostHashesByThreadId(ownerThreadId: Long): List<RawPostHashDatabaseObject>
+
   @Query("""
     SELECT 
 	      post_id,
@@ -235,4 +251,15 @@ abstract class ChanPostDao {
     val siteName: String
   )
 
+  data class RawPostHashDatabaseObject(
+    @ColumnInfo(name = ChanPostIdEntity.POST_NO_COLUMN_NAME)
+    val postNo: Long,
+    @ColumnInfo(name = ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME)
+    val postSubNo: Long,
+    @ColumnInfo(name = ChanPostEntity.RAW_POST_HASH_1_COLUMN_NAME)
+    val rawPostHash1: Long,
+    @ColumnInfo(name = ChanPostEntity.RAW_POST_HASH_2_COLUMN_NAME)
+    val rawPostHash2: Long
+  )
+
 }
\ No newline at end of file
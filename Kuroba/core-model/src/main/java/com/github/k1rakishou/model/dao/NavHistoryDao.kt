@@ -5,6 +5,7 @@ import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.RewriteQueriesToDropUnusedColumns
+import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.entity.navigation.NavHistoryElementIdEntity
 import com.github.k1rakishou.model.entity.navigation.NavHistoryElementInfoEntity
 import com.github.k1rakishou.model.entity.navigation.NavHistoryFullDto
@@ -17,6 +18,12 @@ abstract class NavHistoryDao {
     navHistoryElementIdEntityList: List<NavHistoryElementIdEntity>
   ): List<Long>
 
+  // Must not be REPLACE because that would delete the already existing element info (cascade)
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  abstract suspend fun insertManyIdsOrIgnore(
+    navHistoryElementIdEntityList: List<NavHistoryElementIdEntity>
+  ): List<Long>
+
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   abstract suspend fun insertManyInfoOrReplace(
     navHistoryElementInfoEntityList: List<NavHistoryElementInfoEntity>
@@ -33,6 +40,42 @@ abstract class NavHistoryDao {
   """)
   abstract suspend fun selectAll(maxCount: Int): List<NavHistoryFullDto>
 
+  @RewriteQueriesToDropUnusedColumns
+  @Query("""
+    SELECT * 
+    FROM ${NavHistoryElementIdEntity.TABLE_NAME} nav_ids
+    INNER JOIN ${NavHistoryElementInfoEntity.TABLE_NAME} nav_infos
+        ON nav_ids.${NavHistoryElementIdEntity.ID_COLUMN_NAME} = nav_infos.${NavHistoryElementInfoEntity.OWNER_NAV_HISTORY_ID_COLUMN_NAME}
+    ORDER BY nav_infos.${NavHistoryElementInfoEntity.ELEMENT_ORDER_COLUMN_NAME} ASC
+    LIMIT :count
+    OFFSET :offset
+  """)
+  abstract suspend fun selectPage(offset: Int, count: Int): List<NavHistoryFullDto>
+
+  suspend fun selectIdsByDataJson(navHistoryElementDataJsons: Collection<String>): Map<String, Long> {
+    val navHistoryElementIdEntities = navHistoryElementDataJsons
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { batch -> selectManyIdEntitiesByDataJson(batch) }
+
+    if (navHistoryElementIdEntities.isEmpty()) {
+      return emptyMap()
+    }
+
+    val resultMap = HashMap<String, Long>(navHistoryElementIdEntities.size)
+
+    navHistoryElementIdEntities.forEach { navHistoryElementIdEntity ->
+      resultMap[navHistoryElementIdEntity.navHistoryElementDataJson] = navHistoryElementIdEntity.id
+    }
+
+    return resultMap
+  }
+
+  suspend fun deleteManyByDataJson(navHistoryElementDataJsons: Collection<String>) {
+    navHistoryElementDataJsons
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .forEach { batch -> deleteManyByDataJsonInternal(batch) }
+  }
+
   @RewriteQueriesToDropUnusedColumns
   @Query("""
     SELECT * 
@@ -71,4 +114,20 @@ abstract class NavHistoryDao {
   @Query("DELETE FROM ${NavHistoryElementIdEntity.TABLE_NAME}")
   abstract suspend fun deleteAll()
 
+  @Query("""
+    SELECT * 
+    FROM ${NavHistoryElementIdEntity.TABLE_NAME}
+    WHERE ${NavHistoryElementIdEntity.NAV_HISTORY_ELEMENT_DATA_JSON_COLUMN_NAME} IN (:navHistoryElementDataJsons)
+  """)
+  protected abstract suspend fun selectManyIdEntitiesByDataJson(
+    navHistoryElementDataJsons: Collection<String>
+  ): List<NavHistoryElementIdEntity>
+
+  @Query("""
+    DELETE 
+    FROM ${NavHistoryElementIdEntity.TABLE_NAME}
+    WHERE ${NavHistoryElementIdEntity.NAV_HISTORY_ELEMENT_DATA_JSON_COLUMN_NAME} IN (:navHistoryElementDataJsons)
+  """)
+  protected abstract suspend fun deleteManyByDataJsonInternal(navHistoryElementDataJsons: Collection<String>)
+
 }
\ No newline at end of file
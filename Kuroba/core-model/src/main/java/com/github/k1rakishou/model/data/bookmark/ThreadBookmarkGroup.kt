@@ -1,6 +1,5 @@
 package com.github.k1rakishou.model.data.bookmark
 
-import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
@@ -31,7 +30,9 @@ class ThreadBookmarkGroup(
   private val entries: MutableMap<Long, ThreadBookmarkGroupEntry> = mutableMapWithCap(16)
   // List<ThreadBookmarkGroupEntryDatabaseId>
   private val orders: MutableList<Long> = mutableListWithCap(16)
-  private val fastLookupDescriptorSet: MutableSet<ChanDescriptor.ThreadDescriptor> = hashSetWithCap(16)
+  // Map<ThreadDescriptor, ThreadBookmarkGroupEntry>
+  private val fastLookupDescriptorMap: MutableMap<ChanDescriptor.ThreadDescriptor, ThreadBookmarkGroupEntry> =
+    mutableMapWithCap(16)
 
   init {
     entries.clear()
@@ -40,10 +41,10 @@ class ThreadBookmarkGroup(
     orders.clear()
     orders.addAll(newOrders)
 
-    fastLookupDescriptorSet.clear()
+    fastLookupDescriptorMap.clear()
 
     entries.values.forEach { threadBookmarkGroupEntry ->
-      fastLookupDescriptorSet.add(threadBookmarkGroupEntry.threadDescriptor)
+      fastLookupDescriptorMap[threadBookmarkGroupEntry.threadDescriptor] = threadBookmarkGroupEntry
     }
 
     _matchingPattern = newMatchingPattern
@@ -68,7 +69,7 @@ class ThreadBookmarkGroup(
   @Synchronized
   fun removeThreadBookmarkGroupEntry(threadBookmarkGroupEntry: ThreadBookmarkGroupEntry) {
     entries.remove(threadBookmarkGroupEntry.databaseId)
-    fastLookupDescriptorSet.remove(threadBookmarkGroupEntry.threadDescriptor)
+    fastLookupDescriptorMap.remove(threadBookmarkGroupEntry.threadDescriptor)
     orders.remove(threadBookmarkGroupEntry.databaseId)
 
     checkConsistency()
@@ -77,7 +78,7 @@ class ThreadBookmarkGroup(
   @Synchronized
   fun addThreadBookmarkGroupEntry(threadBookmarkGroupEntry: ThreadBookmarkGroupEntry) {
     entries[threadBookmarkGroupEntry.databaseId] = threadBookmarkGroupEntry
-    fastLookupDescriptorSet.add(threadBookmarkGroupEntry.threadDescriptor)
+    fastLookupDescriptorMap[threadBookmarkGroupEntry.threadDescriptor] = threadBookmarkGroupEntry
 
     val existingIndex = orders.indexOf(threadBookmarkGroupEntry.databaseId)
     if (existingIndex < 0) {
@@ -92,7 +93,7 @@ class ThreadBookmarkGroup(
     orderInGroup: Int
   ) {
     entries[threadBookmarkGroupEntry.databaseId] = threadBookmarkGroupEntry
-    fastLookupDescriptorSet.add(threadBookmarkGroupEntry.threadDescriptor)
+    fastLookupDescriptorMap[threadBookmarkGroupEntry.threadDescriptor] = threadBookmarkGroupEntry
 
     if (orders[orderInGroup] != reserveDBId) {
       error("Inconsistency detected! expected=${reserveDBId}, actual=${orders[orderInGroup]}")
@@ -103,15 +104,14 @@ class ThreadBookmarkGroup(
 
   @Synchronized
   fun contains(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
-    return fastLookupDescriptorSet.contains(threadDescriptor)
+    return fastLookupDescriptorMap.containsKey(threadDescriptor)
   }
 
   @Synchronized
   fun getGroupEntryByThreadDescriptor(
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ): ThreadBookmarkGroupEntry? {
-    return entries.values
-      .firstOrNull { threadBookmarkGroupEntry -> threadBookmarkGroupEntry.threadDescriptor == threadDescriptor }
+    return fastLookupDescriptorMap[threadDescriptor]
   }
 
   @Synchronized
@@ -157,8 +157,8 @@ class ThreadBookmarkGroup(
     check(entries.size == orders.size) {
       "Inconsistency detected! entries.size=${entries.size}, orders.size=${orders.size}"
     }
-    check(entries.size == fastLookupDescriptorSet.size) {
-      "Inconsistency detected! entries.size=${entries.size}, fastLookupDescriptorSet.size=${fastLookupDescriptorSet.size}"
+    check(entries.size == fastLookupDescriptorMap.size) {
+      "Inconsistency detected! entries.size=${entries.size}, fastLookupDescriptorMap.size=${fastLookupDescriptorMap.size}"
     }
   }
 
@@ -167,14 +167,10 @@ class ThreadBookmarkGroup(
     fromBookmarkDescriptor: ChanDescriptor.ThreadDescriptor,
     toBookmarkDescriptor: ChanDescriptor.ThreadDescriptor
   ): Boolean {
-    val fromDatabaseId = entries.values
-      .firstOrNull { threadBookmarkGroupEntry -> threadBookmarkGroupEntry.threadDescriptor == fromBookmarkDescriptor }
-      ?.databaseId
+    val fromDatabaseId = fastLookupDescriptorMap[fromBookmarkDescriptor]?.databaseId
       ?: return false
 
-    val toDatabaseId = entries.values
-      .firstOrNull { threadBookmarkGroupEntry -> threadBookmarkGroupEntry.threadDescriptor == toBookmarkDescriptor }
-      ?.databaseId
+    val toDatabaseId = fastLookupDescriptorMap[toBookmarkDescriptor]?.databaseId
       ?: return false
 
     val fromIndex = orders.indexOfFirst { databaseId -> databaseId == fromDatabaseId }
@@ -203,7 +199,7 @@ class ThreadBookmarkGroup(
     if (groupOrder != other.groupOrder) return false
     if (entries != other.entries) return false
     if (orders != other.orders) return false
-    if (fastLookupDescriptorSet != other.fastLookupDescriptorSet) return false
+    if (fastLookupDescriptorMap != other.fastLookupDescriptorMap) return false
 
     return true
   }
@@ -215,14 +211,14 @@ class ThreadBookmarkGroup(
     result = 31 * result + groupOrder
     result = 31 * result + entries.hashCode()
     result = 31 * result + orders.hashCode()
-    result = 31 * result + fastLookupDescriptorSet.hashCode()
+    result = 31 * result + fastLookupDescriptorMap.hashCode()
     return result
   }
 
   override fun toString(): String {
     return "ThreadBookmarkGroup(groupId='$groupId', groupName='$groupName', " +
       "isExpanded=$isExpanded, groupOrder=$groupOrder, entriesCount=${entries.size}, " +
-      "ordersCount=${orders.size}, fastLookupDescriptorSetCount=${fastLookupDescriptorSet.size})"
+      "ordersCount=${orders.size}, fastLookupDescriptorMapCount=${fastLookupDescriptorMap.size})"
   }
 
   companion object {
@@ -0,0 +1,165 @@
+package com.github.k1rakishou.model.data.bookmark
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import java.util.regex.Pattern
+
+/**
+ * An immutable matcher built out of the matching patterns of all the (non default) bookmark groups.
+ * Every distinct (pattern, type) pair is compiled once and shared between all the groups that use
+ * it, and when matching a post each of them is run at most once no matter how many groups refer to
+ * it. The groups are checked in the order they were passed in (by groupOrder) and the first group
+ * that matches wins, just like [ThreadBookmarkGroup.matches] called for every group one by one.
+ *
+ * Since it's immutable it can be used without holding any locks, just build a new one whenever
+ * groups or their patterns change.
+ * */
+class ThreadBookmarkGroupMatcher private constructor(
+  private val patterns: Array<Pattern?>,
+  private val patternTypes: Array<BookmarkGroupMatchFlag.Type>,
+  private val groups: Array<CompiledGroup>
+) {
+
+  val groupsCount: Int
+    get() = groups.size
+
+  fun findFirstMatchingGroup(
+    boardDescriptor: BoardDescriptor,
+    postSubject: CharSequence,
+    postComment: CharSequence
+  ): CompiledGroup? {
+    if (groups.isEmpty()) {
+      return null
+    }
+
+    // 0 - not matched yet, 1 - matches, 2 - does not match
+    val matchResults = ByteArray(patterns.size)
+
+    fun matchPattern(patternIndex: Int): Boolean {
+      val cached = matchResults[patternIndex]
+      if (cached != NOT_MATCHED_YET) {
+        return cached == MATCHES
+      }
+
+      val pattern = patterns[patternIndex]
+      val input = when (patternTypes[patternIndex]) {
+        BookmarkGroupMatchFlag.Type.SiteName -> boardDescriptor.siteName()
+        BookmarkGroupMatchFlag.Type.BoardCode -> boardDescriptor.boardCode
+        BookmarkGroupMatchFlag.Type.PostSubject -> postSubject
+        BookmarkGroupMatchFlag.Type.PostComment -> postComment
+      }
+
+      val matches = pattern != null && pattern.matcher(input).find()
+      matchResults[patternIndex] = if (matches) MATCHES else DOES_NOT_MATCH
+
+      return matches
+    }
+
+    for (group in groups) {
+      if (group.matches(::matchPattern)) {
+        return group
+      }
+    }
+
+    return null
+  }
+
+  /**
+   * Flattened [BookmarkGroupMatchFlag] chain. The chain is evaluated as "a op1 (b op2 (c ...))" so
+   * it can be evaluated left to right while short-circuiting the same way the recursive version does.
+   * */
+  class CompiledGroup internal constructor(
+    val groupId: String,
+    val groupName: String,
+    private val patternIndexes: IntArray,
+    private val operators: Array<BookmarkGroupMatchFlag.Operator?>
+  ) {
+
+    internal inline fun matches(matchPattern: (Int) -> Boolean): Boolean {
+      for (index in patternIndexes.indices) {
+        val matches = matchPattern(patternIndexes[index])
+
+        when (operators[index]) {
+          BookmarkGroupMatchFlag.Operator.And -> {
+            if (!matches) {
+              return false
+            }
+          }
+          BookmarkGroupMatchFlag.Operator.Or -> {
+            if (matches) {
+              return true
+            }
+          }
+          null -> return matches
+        }
+      }
+
+      return false
+    }
+  }
+
+  companion object {
+    private const val NOT_MATCHED_YET: Byte = 0
+    private const val MATCHES: Byte = 1
+    private const val DOES_NOT_MATCH: Byte = 2
+
+    val EMPTY = ThreadBookmarkGroupMatcher(emptyArray(), emptyArray(), emptyArray())
+
+    /**
+     * [threadBookmarkGroups] must be sorted by groupOrder. Default group and groups without a
+     * matching pattern are skipped.
+     * */
+    fun build(threadBookmarkGroups: Collection<ThreadBookmarkGroup>): ThreadBookmarkGroupMatcher {
+      val patternIndexByKey = mutableMapOf<Pair<String, BookmarkGroupMatchFlag.Type>, Int>()
+      val patterns = mutableListOf<Pattern?>()
+      val patternTypes = mutableListOf<BookmarkGroupMatchFlag.Type>()
+      val compiledGroups = mutableListOf<CompiledGroup>()
+
+      for (threadBookmarkGroup in threadBookmarkGroups) {
+        if (threadBookmarkGroup.isDefaultGroup()) {
+          continue
+        }
+
+        val matchFlags = threadBookmarkGroup.matchingPattern?.asList()
+        if (matchFlags.isNullOrEmpty()) {
+          continue
+        }
+
+        val patternIndexes = IntArray(matchFlags.size)
+        val operators = arrayOfNulls<BookmarkGroupMatchFlag.Operator>(matchFlags.size)
+
+        matchFlags.forEachIndexed { index, matchFlag ->
+          val key = matchFlag.rawPattern to matchFlag.type
+
+          patternIndexes[index] = patternIndexByKey.getOrPut(key) {
+            patterns += matchFlag.patternCompiled
+            patternTypes += matchFlag.type
+
+            return@getOrPut patterns.lastIndex
+          }
+
+          // The last flag in the chain may still have a dangling operator, the recursive version
+          // would crash on it so treat it as the end of the chain.
+          operators[index] = if (index == matchFlags.lastIndex) null else matchFlag.operator
+        }
+
+        compiledGroups += CompiledGroup(
+          groupId = threadBookmarkGroup.groupId,
+          groupName = threadBookmarkGroup.groupName,
+          patternIndexes = patternIndexes,
+          operators = operators
+        )
+      }
+
+      if (compiledGroups.isEmpty()) {
+        return EMPTY
+      }
+
+      return ThreadBookmarkGroupMatcher(
+        patterns = patterns.toTypedArray(),
+        patternTypes = patternTypes.toTypedArray(),
+        groups = compiledGroups.toTypedArray()
+      )
+    }
+  }
+
+}
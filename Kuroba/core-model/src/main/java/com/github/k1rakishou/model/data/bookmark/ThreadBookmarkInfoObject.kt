@@ -1,34 +1,107 @@
 package com.github.k1rakishou.model.data.bookmark
 
+import com.github.k1rakishou.common.datastructure.SortedLongArray
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 
+/**
+ * Result of fetching a bookmarked thread. To keep the memory usage of a bookmark watcher cycle low
+ * we only keep the numbers of all posts of the thread while the post objects themselves (with
+ * their comments) are only kept for the original post and for the posts that reply to our posts
+ * (see [ThreadBookmarkInfoCollector]).
+ * */
 class ThreadBookmarkInfoObject(
   val threadDescriptor: ChanDescriptor.ThreadDescriptor,
-  val simplePostObjects: List<ThreadBookmarkInfoPostObject>
+  val originalPost: ThreadBookmarkInfoPostObject.OriginalPost,
+  // Post numbers of all posts of the thread (including the OP) in the order they were received
+  private val postNos: LongArray,
+  val replyPostObjects: List<ThreadBookmarkInfoPostObject>
 ) {
+  // Post numbers are almost always received in ascending order in which case the array is not
+  // copied. The post counts are updated for every bookmark on every watcher cycle so they are
+  // binary searches instead of full scans.
+  private val sortedPostNos = SortedLongArray.of(postNos)
 
-  fun getPostsCountWithoutOP(): Int {
-    check(simplePostObjects.first() is ThreadBookmarkInfoPostObject.OriginalPost) {
-      "First post of ThreadBookmarkInfoObject is not OP"
-    }
+  val postsCount: Int
+    get() = postNos.size
 
-    return simplePostObjects.size - 1
+  fun getPostsCountWithoutOP(): Int {
+    return postNos.size - 1
   }
 
   fun countAmountOfSeenPosts(lastViewedPostNo: Long): Int {
-    check(simplePostObjects.first() is ThreadBookmarkInfoPostObject.OriginalPost) {
-      "First post of ThreadBookmarkInfoObject is not OP"
+    return sortedPostNos.countLessOrEqual(lastViewedPostNo)
+  }
+
+  fun countAmountOfNewPosts(lastViewedPostNo: Long): Int {
+    return sortedPostNos.countGreaterThan(lastViewedPostNo)
+  }
+
+  fun lastThreadPostNo(): Long {
+    return sortedPostNos.maxOrNull() ?: 0L
+  }
+
+  fun forEachPostNo(func: (Long) -> Unit) {
+    postNos.forEach { postNo -> func(postNo) }
+  }
+
+}
+
+/**
+ * Collects posts of a bookmarked thread one at a time, while they are being read from the server
+ * response, so that the whole list of posts never has to be kept in memory. [keepPostObject] decides
+ * which (non OP) post objects are worth keeping, for everything else only the post number is stored.
+ * When [needPostComments] is false readers may skip reading post comments altogether.
+ * */
+class ThreadBookmarkInfoCollector(
+  val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+  expectedCapacity: Int,
+  val needPostComments: Boolean,
+  private val keepPostObject: (ThreadBookmarkInfoPostObject) -> Boolean
+) {
+  private var postNos = LongArray(expectedCapacity.coerceAtLeast(MIN_CAPACITY))
+  private var postsCount = 0
+  private var originalPost: ThreadBookmarkInfoPostObject.OriginalPost? = null
+  private val replyPostObjects = mutableListOf<ThreadBookmarkInfoPostObject>()
+
+  fun collect(postObject: ThreadBookmarkInfoPostObject) {
+    if (postsCount == postNos.size) {
+      postNos = postNos.copyOf(postNos.size * 2)
+    }
+
+    postNos[postsCount++] = postObject.postNo()
+
+    if (postObject is ThreadBookmarkInfoPostObject.OriginalPost) {
+      if (originalPost == null) {
+        originalPost = postObject
+      }
+
+      return
     }
 
-    return simplePostObjects.count { threadBookmarkInfoPostObject ->
-      threadBookmarkInfoPostObject.postNo() <= lastViewedPostNo
+    if (needPostComments && keepPostObject(postObject)) {
+      replyPostObjects += postObject
     }
   }
 
-  fun lastThreadPostNo(): Long {
-    return simplePostObjects.maxOfOrNull { simplePostObject -> simplePostObject.postNo() } ?: 0L
+  fun build(): ThreadBookmarkInfoObject {
+    val op = originalPost
+      ?: throw IllegalStateException("Thread $threadDescriptor has no OP")
+
+    check(threadDescriptor.threadNo == op.postNo) {
+      "Original post has incorrect postNo, expected: ${threadDescriptor.threadNo}, actual: ${op.postNo}"
+    }
+
+    return ThreadBookmarkInfoObject(
+      threadDescriptor = threadDescriptor,
+      originalPost = op,
+      postNos = postNos.copyOf(postsCount),
+      replyPostObjects = replyPostObjects
+    )
   }
 
+  companion object {
+    private const val MIN_CAPACITY = 16
+  }
 }
 
 sealed class ThreadBookmarkInfoPostObject {
@@ -1,36 +1,36 @@
 package com.github.k1rakishou.model.data.catalog
 
+import com.github.k1rakishou.common.mutableMapWithCap
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
-import java.util.concurrent.locks.ReentrantReadWriteLock
-import kotlin.concurrent.read
-import kotlin.concurrent.write
 
+/**
+ * Immutable view of catalog original posts. Catalogs are recreated from the cache every time they
+ * are requested so we don't want any locks or eagerly built maps in here.
+ * */
 class ChanCatalog(
   val catalogDescriptor: ChanDescriptor.ICatalogDescriptor,
   private val originalPosts: List<ChanOriginalPost>
 ) {
-  private val lock = ReentrantReadWriteLock()
-  private val postMap = mutableMapOf<PostDescriptor, ChanOriginalPost>()
+  private val postMap by lazy(LazyThreadSafetyMode.PUBLICATION) {
+    val resultMap = mutableMapWithCap<PostDescriptor, ChanOriginalPost>(originalPosts.size)
 
-  init {
-    lock.write {
-      postMap.clear()
-
-      originalPosts.forEach { chanOriginalPost ->
-        postMap[chanOriginalPost.postDescriptor] = chanOriginalPost
-      }
+    originalPosts.forEach { chanOriginalPost ->
+      resultMap[chanOriginalPost.postDescriptor] = chanOriginalPost
     }
+
+    return@lazy resultMap
   }
 
   fun postsCount(): Int {
-    return lock.read { originalPosts.size }
+    return originalPosts.size
   }
 
   fun isEmpty(): Boolean {
-    return lock.read { originalPosts.isEmpty() }
+    return originalPosts.isEmpty()
   }
 
   fun iteratePostsOrdered(iterator: (ChanOriginalPost) -> Unit) {
@@ -41,39 +41,25 @@ class ChanCatalog(
   }
 
   fun iteratePostsOrderedWhile(iterator: (ChanOriginalPost) -> Boolean) {
-    lock.read {
-      if (originalPosts.isEmpty()) {
-        return@read
-      }
-
-      for (index in originalPosts.indices) {
-        val chanPost = originalPosts.getOrNull(index)
-          ?: return@read
-
-        if (!iterator(chanPost)) {
-          return@read
-        }
+    for (chanPost in originalPosts) {
+      if (!iterator(chanPost)) {
+        return
       }
     }
   }
 
   fun <T> mapPostsOrdered(mapper: (ChanOriginalPost) -> T): List<T> {
-    return lock.read {
-      if (originalPosts.isEmpty()) {
-        return@read emptyList()
-      }
-
-      val resultList = mutableListOf<T>()
-
-      for (index in originalPosts.indices) {
-        val chanPost = originalPosts.getOrNull(index)
-          ?: return@read emptyList()
+    if (originalPosts.isEmpty()) {
+      return emptyList()
+    }
 
-        resultList += mapper(chanPost)
-      }
+    val resultList = mutableListWithCap<T>(originalPosts.size)
 
-      return@read resultList
+    for (chanPost in originalPosts) {
+      resultList += mapper(chanPost)
     }
+
+    return resultList
   }
 
   fun findPostWithRepliesRecursive(
@@ -93,14 +79,12 @@ class ChanCatalog(
 
     val postsToCheck = mutableListOf<ChanPost>()
 
-    lock.read {
-      for (post in originalPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        postsToCheck.add(post)
+    for (post in originalPosts) {
+      if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
+        continue
       }
+
+      postsToCheck.add(post)
     }
 
     for (post in postsToCheck) {
@@ -139,7 +123,7 @@ class ChanCatalog(
   }
 
   fun getPost(postDescriptor: PostDescriptor): ChanOriginalPost? {
-    return lock.read { postMap[postDescriptor] }
+    return postMap[postDescriptor]
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.github.k1rakishou.model.data.navigation
+
+sealed class NavHistoryChangeSet {
+
+  /**
+   * The whole navigation history is deleted and then written back. Also renumbers element orders to
+   * index * [ORDERS_GAP] so that elements can later be inserted or moved between (or above) the
+   * others without renumbering them.
+   * */
+  data class Rewrite(
+    val navHistoryStack: List<NavHistoryElement>
+  ) : NavHistoryChangeSet()
+
+  /**
+   * Only the elements that were inserted, moved or changed since the last write ([updated], the
+   * index of an element is its new order, orders are sparse and may be negative) and the elements
+   * that were removed ([deleted]).
+   * */
+  data class Delta(
+    val updated: List<IndexedValue<NavHistoryElement>>,
+    val deleted: List<NavHistoryElement>
+  ) : NavHistoryChangeSet()
+
+  companion object {
+    const val ORDERS_GAP = 1024
+  }
+
+}
@@ -38,15 +38,19 @@ open class ChanPost(
   @set:Synchronized
   var posterIdColor: Int = 0
 
-  @get:Synchronized
-  val repliesFrom = mutableSetOf<PostDescriptor>()
+  // Copy-on-write: the set is never modified, adding replies replaces it with a new one so readers
+  // always get a consistent set without copying it and without holding the post's lock.
+  @Volatile
+  private var _repliesFrom: Set<PostDescriptor> = emptySet()
+
+  val repliesFrom: Set<PostDescriptor>
+    get() = _repliesFrom
 
   @get:Synchronized
   val repliesTo = mutableSetOf<PostDescriptor>()
 
-  @get:Synchronized
   val repliesFromCopy: Set<PostDescriptor>
-    get() = repliesFrom.toSet()
+    get() = _repliesFrom
 
   fun postNo(): Long = postDescriptor.postNo
   fun postSubNo(): Long = postDescriptor.postSubNo
@@ -55,9 +59,26 @@ open class ChanPost(
 
   fun isOP(): Boolean = postDescriptor.isOP()
 
-  @get:Synchronized
   val repliesFromCount: Int
-    get() = repliesFrom.size
+    get() = _repliesFrom.size
+
+  fun hasReplyFrom(postDescriptor: PostDescriptor): Boolean {
+    return _repliesFrom.contains(postDescriptor)
+  }
+
+  @Synchronized
+  fun addRepliesFrom(postDescriptors: Collection<PostDescriptor>) {
+    val currentRepliesFrom = _repliesFrom
+    if (currentRepliesFrom.containsAll(postDescriptors)) {
+      return
+    }
+
+    val newRepliesFrom = LinkedHashSet<PostDescriptor>(currentRepliesFrom.size + postDescriptors.size)
+    newRepliesFrom.addAll(currentRepliesFrom)
+    newRepliesFrom.addAll(postDescriptors)
+
+    _repliesFrom = newRepliesFrom
+  }
 
   @get:Synchronized
   val postImages: List<ChanPostImage>
@@ -83,7 +104,9 @@ open class ChanPost(
       onDemandContentLoadedArray[loaderType.arrayIndex] = false
     }
 
-    repliesFrom?.let { replies -> this.repliesFrom.addAll(replies) }
+    if (!repliesFrom.isNullOrEmpty()) {
+      this._repliesFrom = LinkedHashSet(repliesFrom)
+    }
 
     if (repliesTo.isNotEmpty()) {
       this.repliesTo.addAll(repliesTo)
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.data.thread
 
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.common.datastructure.PersistentChunkedList
 import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableIteration
 import com.github.k1rakishou.common.mutableListWithCap
@@ -17,6 +18,7 @@ import com.github.k1rakishou.model.data.post.LoaderType
 import com.github.k1rakishou.model.data.post.PostComment
 import com.github.k1rakishou.model.util.ChanPostUtils
 import okhttp3.HttpUrl
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.collections.component1
 import kotlin.collections.component2
@@ -32,17 +34,30 @@ class ChanThread(
 ) {
   private val lock = ReentrantReadWriteLock()
 
-  @GuardedBy("lock")
-  private val threadPosts = mutableListOf<ChanPost>()
-  @GuardedBy("lock")
-  private val postsByPostDescriptors = mutableMapOf<PostDescriptor, ChanPost>()
+  // Posts sorted with POSTS_COMPARATOR. Readers never take the lock, they just use whatever version
+  // of the list is currently published (it's immutable). Writers build the next version (which
+  // shares all the unchanged chunks of the list with the current one) under the write lock and then
+  // publish it.
+  @Volatile
+  private var threadPosts = PersistentChunkedList.empty<ChanPost>()
   @GuardedBy("lock")
   // Stores hashes of unparsed post comments, the way we got the from the server, without any spans added yet.
   private val rawPostHashesMap = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
   @GuardedBy("lock")
+  // Posts which hashes were restored from the database and not yet confirmed by a load from the server.
+  private val restoredPostHashes = mutableSetOf<PostDescriptor>()
+  @GuardedBy("lock")
   private var lastAccessTime = initialLastAccessTime
   @GuardedBy("lock")
   private var lastUpdateTime = 0L
+  // Revision of the currently published version of the thread posts. Revisions are unique across
+  // all threads so that a thread that was removed from the cache and then created again won't be
+  // confused with the old one by the consumers of the change sets.
+  @Volatile
+  private var revision = nextRevision()
+  @GuardedBy("lock")
+  // Last MAX_CHANGE_SET_HISTORY_SIZE consecutive change sets, the last one always ends at [revision].
+  private val changeSetHistory = ArrayList<ChanThreadChangeSet>(MAX_CHANGE_SET_HISTORY_SIZE)
 
   // All the ***forUi variables/flags are used to display one-shot snackbar messages like
   // This thread is now sticky/no longer sticky/closed/archived/deleted etc
@@ -58,20 +73,49 @@ class ChanThread(
   private var isNowArchivedForUi: Boolean? = null
 
   val postsCount: Int
-    get() = lock.read { threadPosts.size }
+    get() = threadPosts.size
+
+  val currentRevision: Long
+    get() = revision
 
   val repliesCount: Int
-    get() = lock.read {
+    get() {
       val postsTotal = postsCount
       if (postsTotal <= 0) {
-        return@read 0
+        return 0
       }
 
-      return@read postsTotal - 1
+      return postsTotal - 1
     }
 
   val imagesCount: Int
-    get() = lock.read { threadPosts.sumBy { post -> post.postImages.size } }
+    get() = threadPosts.sumBy { post -> post.postImages.size }
+
+  /**
+   * Returns everything that changed in this thread since [fromRevision] or null if that's not known
+   * anymore (the revision is too old or it belongs to some other thread) in which case the caller has
+   * to rebuild whatever it has built from this thread from scratch.
+   * */
+  fun getChangeSetSince(fromRevision: Long): ChanThreadChangeSet? {
+    return lock.read {
+      if (fromRevision == revision) {
+        return@read ChanThreadChangeSet.empty(threadDescriptor, revision)
+      }
+
+      val startIndex = changeSetHistory.indexOfFirst { changeSet -> changeSet.fromRevision == fromRevision }
+      if (startIndex < 0) {
+        return@read null
+      }
+
+      var resultChangeSet = changeSetHistory[startIndex]
+
+      for (index in (startIndex + 1) until changeSetHistory.size) {
+        resultChangeSet = resultChangeSet.mergeWith(changeSetHistory[index])
+      }
+
+      return@read resultChangeSet
+    }
+  }
 
   fun getAndConsumeDeletedPostsForUi(): Int {
     return lock.write {
@@ -118,12 +162,37 @@ class ChanThread(
     }
   }
 
-  fun isClosed(): Boolean = lock.read { getOriginalPost()?.closed ?: false }
-  fun isArchived(): Boolean = lock.read { getOriginalPost()?.archived ?: false }
-  fun isDeleted(): Boolean = lock.read { getOriginalPost()?.isDeleted ?: false }
+  fun isClosed(): Boolean = getOriginalPost()?.closed ?: false
+  fun isArchived(): Boolean = getOriginalPost()?.archived ?: false
+  fun isDeleted(): Boolean = getOriginalPost()?.isDeleted ?: false
 
   fun putPostHash(postDescriptor: PostDescriptor, hash: MurmurHashUtils.Murmur3Hash) {
-    lock.write { rawPostHashesMap[postDescriptor] = hash }
+    lock.write {
+      rawPostHashesMap[postDescriptor] = hash
+      restoredPostHashes.remove(postDescriptor)
+    }
+  }
+
+  fun restorePostHashes(hashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>) {
+    lock.write {
+      hashes.forEach { (postDescriptor, hash) ->
+        if (threadPosts.indexOfPost(postDescriptor) < 0) {
+          return@forEach
+        }
+
+        if (rawPostHashesMap.containsKey(postDescriptor)) {
+          // Hashes we got from the server during this session always win
+          return@forEach
+        }
+
+        rawPostHashesMap[postDescriptor] = hash
+        restoredPostHashes.add(postDescriptor)
+      }
+    }
+  }
+
+  fun consumeRestoredPostHash(postDescriptor: PostDescriptor): Boolean {
+    return lock.write { restoredPostHashes.remove(postDescriptor) }
   }
 
   fun getPostHash(postDescriptor: PostDescriptor): MurmurHashUtils.Murmur3Hash? {
@@ -131,63 +200,89 @@ class ChanThread(
   }
 
   fun clearPostHashes() {
-    lock.write { rawPostHashesMap.clear() }
+    lock.write {
+      rawPostHashesMap.clear()
+      restoredPostHashes.clear()
+    }
   }
 
   fun getPostImage(postDescriptor: PostDescriptor, imageUrl: HttpUrl): ChanPostImage? {
-    return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]
-        ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
-    }
+    return getPost(postDescriptor)
+      ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
   }
 
   fun getPosts(postDescriptors: Collection<PostDescriptor>): List<ChanPost> {
-    return lock.read {
-      val posts = mutableListWithCap<ChanPost>(postDescriptors.size)
-
-      postDescriptors.forEach { postDescriptor ->
-        posts += postsByPostDescriptors[postDescriptor]
-          ?: return@forEach
-      }
+    val currentThreadPosts = threadPosts
+    val posts = mutableListWithCap<ChanPost>(postDescriptors.size)
 
-      return@read posts
+    postDescriptors.forEach { postDescriptor ->
+      posts += currentThreadPosts.getPostOrNull(postDescriptor)
+        ?: return@forEach
     }
+
+    return posts
   }
 
+  /**
+   * Returns the current immutable snapshot of the thread posts, it's not copied and it will never
+   * change (new versions are published instead).
+   * */
   fun getAll(): List<ChanPost> {
-    return lock.read { threadPosts.toList() }
+    return threadPosts
   }
 
-  fun addOrUpdatePosts(newChanPosts: List<ChanPost>, postsFromServerData: PostsFromServerData?): Boolean {
+  /**
+   * Returns the change set describing what has changed in the thread, it's also recorded in the
+   * change set history (see [getChangeSetSince]).
+   * */
+  fun addOrUpdatePosts(
+    newChanPosts: List<ChanPost>,
+    postsFromServerData: PostsFromServerData?
+  ): ChanThreadChangeSet {
     if (newChanPosts.isEmpty()) {
-      return true
+      return ChanThreadChangeSet.empty(threadDescriptor, revision)
     }
 
     return lock.write {
       require(newChanPosts.isNotEmpty()) { "newPosts are empty!" }
 
-      if (threadPosts.isNotEmpty()) {
-        require(threadPosts.first() is ChanOriginalPost) {
-          "First post is not an original post! post=${threadPosts.first()}"
+      val currentThreadPosts = threadPosts
+      if (currentThreadPosts.isNotEmpty()) {
+        require(currentThreadPosts.first() is ChanOriginalPost) {
+          "First post is not an original post! post=${currentThreadPosts.first()}"
         }
       }
 
-      val deletedPostsSet = findDeletedPosts(threadPosts, postsFromServerData)
+      val deletedPostsSet = findDeletedPosts(currentThreadPosts, postsFromServerData)
+      val threadPostsBuilder = currentThreadPosts.newBuilder()
+      // Posts that were not in the thread before this update, they are appended to the end of the
+      // list and may not be sorted yet so they can't be searched for with a binary search.
+      val addedPostIndexes = HashMap<PostDescriptor, Int>()
 
       var addedOrUpdatedOrDeletedPosts = false
       var addedPostsCount = 0
       var updatedPostsCount = 0
       var deletedPostsCount = 0
 
+      val addedPosts = mutableListOf<ChanPost>()
+      val changedPosts = hashSetOf<PostDescriptor>()
+      val newlyDeletedPosts = hashSetOf<PostDescriptor>()
+      val addedImages = mutableListOf<ChanPostImage>()
+      val removedImages = mutableListOf<ChanPostImage>()
+
       newChanPosts.forEach { newChanPost ->
         require(newChanPost.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
           "postDescriptor.descriptor must be thread ThreadDescriptor"
         }
 
+        val oldChanPostIndex = addedPostIndexes[newChanPost.postDescriptor]
+          ?: currentThreadPosts.indexOfPost(newChanPost.postDescriptor)
+
         // We don't have this post, just add it at the end
-        if (!postsByPostDescriptors.containsKey(newChanPost.postDescriptor)) {
-          threadPosts.add(newChanPost)
-          postsByPostDescriptors[newChanPost.postDescriptor] = newChanPost
+        if (oldChanPostIndex < 0) {
+          addedPostIndexes[newChanPost.postDescriptor] = threadPostsBuilder.size
+          threadPostsBuilder.add(newChanPost)
+          addedPosts += newChanPost
 
           addedOrUpdatedOrDeletedPosts = true
           addedPostsCount++
@@ -195,11 +290,7 @@ class ChanThread(
           return@forEach
         }
 
-        val oldChanPostIndex = threadPosts
-          .indexOfFirst { post -> post.postDescriptor == newChanPost.postDescriptor }
-        check(oldChanPostIndex >= 0) { "Bad oldChanPostIndex: $oldChanPostIndex" }
-
-        val oldChanPost = threadPosts[oldChanPostIndex]
+        val oldChanPost = threadPostsBuilder[oldChanPostIndex]
 
         if (oldChanPost is ChanOriginalPost && newChanPost is ChanOriginalPost) {
           updateThreadStatusFlagsForUi(oldChanPost, newChanPost)
@@ -207,10 +298,21 @@ class ChanThread(
 
         // We already have this post, we need to merge old and new posts into one and replace old
         // post with the merged post
-        val mergedPost = mergePosts(oldChanPost, newChanPost, deletedPostsSet)
-
-        threadPosts[oldChanPostIndex] = mergedPost
-        postsByPostDescriptors[newChanPost.postDescriptor] = mergedPost
+        val mergedChanPost = mergePosts(oldChanPost, newChanPost, deletedPostsSet)
+        threadPostsBuilder[oldChanPostIndex] = mergedChanPost
+
+        if (oldChanPostIndex < currentThreadPosts.size) {
+          // Only the posts that we had before this update can be "updated", the rest of them are
+          // still "added".
+          collectPostChanges(
+            oldChanPost = currentThreadPosts[oldChanPostIndex],
+            mergedChanPost = mergedChanPost,
+            changedPosts = changedPosts,
+            newlyDeletedPosts = newlyDeletedPosts,
+            addedImages = addedImages,
+            removedImages = removedImages
+          )
+        }
 
         addedOrUpdatedOrDeletedPosts = true
         ++updatedPostsCount
@@ -218,38 +320,46 @@ class ChanThread(
 
       if (deletedPostsSet != null && deletedPostsSet.isNotEmpty()) {
         deletedPostsSet.forEach { deletedPostDescriptor ->
-          val oldChanPostIndex = threadPosts
-            .indexOfFirst { post -> post.postDescriptor == deletedPostDescriptor }
-
+          // Deleted posts are the posts that we had before this update
+          val oldChanPostIndex = currentThreadPosts.indexOfPost(deletedPostDescriptor)
           if (oldChanPostIndex < 0) {
             return@forEach
           }
 
-          val oldPost = threadPosts.getOrNull(oldChanPostIndex)
-            ?: return@forEach
-
+          val oldPost = threadPostsBuilder[oldChanPostIndex]
           if (oldPost.isDeleted) {
             return@forEach
           }
 
-          val updatedPost = oldPost.deepCopy(overrideDeleted = true)
-
-          threadPosts[oldChanPostIndex] = updatedPost
-          postsByPostDescriptors[updatedPost.postDescriptor] = updatedPost
+          threadPostsBuilder[oldChanPostIndex] = oldPost.deepCopy(overrideDeleted = true)
+          newlyDeletedPosts += deletedPostDescriptor
 
           addedOrUpdatedOrDeletedPosts = true
           ++deletedPostsCount
         }
       }
 
+      var addedPostsSorted: List<ChanPost> = addedPosts
+
       val sortAndRecalculationDuration = measureTime {
         if (addedOrUpdatedOrDeletedPosts) {
-          if (!postsAreSorted()) {
+          var updatedThreadPosts = threadPostsBuilder.build()
+
+          // The old posts are already sorted so only the appended ones need to be checked
+          if (!postsAreSorted(updatedThreadPosts, fromIndex = currentThreadPosts.lastIndex)) {
             Logger.d(TAG, "addOrUpdatePosts() posts need to be sorted")
-            threadPosts.sortWith(POSTS_COMPARATOR)
+            updatedThreadPosts = PersistentChunkedList.from(updatedThreadPosts.sortedWith(POSTS_COMPARATOR))
+            addedPostsSorted = addedPosts.sortedWith(POSTS_COMPARATOR)
           }
 
-          recalculatePostReplies(newChanPosts)
+          val postsWithNewReplies = recalculatePostReplies(updatedThreadPosts, newChanPosts)
+          threadPosts = updatedThreadPosts
+
+          postsWithNewReplies.forEach { postDescriptor ->
+            if (postDescriptor !in addedPostIndexes) {
+              changedPosts += postDescriptor
+            }
+          }
         }
       }
 
@@ -260,13 +370,23 @@ class ChanThread(
         "updated ${updatedPostsCount} posts, marked as deleted ${deletedPostsCount} posts. " +
         "sortAndRecalculationDuration=$sortAndRecalculationDuration")
 
-      return@write addedOrUpdatedOrDeletedPosts
+      addedPostsSorted.forEach { chanPost -> addedImages.addAll(chanPost.postImages) }
+      changedPosts.removeAll(newlyDeletedPosts)
+
+      return@write recordChangeSet(
+        addedPosts = addedPostsSorted.map { chanPost -> chanPost.postDescriptor },
+        updatedPosts = changedPosts,
+        deletedPosts = newlyDeletedPosts,
+        addedImages = addedImages,
+        removedImages = removedImages
+      )
     }
   }
 
-  fun setOrUpdateOriginalPost(newChanOriginalPost: ChanOriginalPost) {
-    lock.write {
-      val oldPostDescriptor = threadPosts.firstOrNull()?.postDescriptor
+  fun setOrUpdateOriginalPost(newChanOriginalPost: ChanOriginalPost): ChanThreadChangeSet {
+    return lock.write {
+      val currentThreadPosts = threadPosts
+      val oldPostDescriptor = currentThreadPosts.firstOrNull()?.postDescriptor
       val newPostDescriptor = newChanOriginalPost.postDescriptor
 
       oldPostDescriptor?.let { oldPD ->
@@ -285,77 +405,89 @@ class ChanThread(
         }
       }
 
-      if (threadPosts.isNotEmpty()) {
-        require(threadPosts.first() is ChanOriginalPost) {
-          "First post is not an original post! post=${threadPosts.first()}"
+      val threadPostsBuilder = currentThreadPosts.newBuilder()
+
+      if (currentThreadPosts.isNotEmpty()) {
+        require(currentThreadPosts.first() is ChanOriginalPost) {
+          "First post is not an original post! post=${currentThreadPosts.first()}"
         }
 
-        val oldChanOriginalPost = threadPosts.first()
+        val oldChanOriginalPost = currentThreadPosts.first()
 
         if (oldChanOriginalPost is ChanOriginalPost) {
           updateThreadStatusFlagsForUi(oldChanOriginalPost, newChanOriginalPost)
         }
 
         val mergedChanOriginalPost = mergePosts(oldChanOriginalPost, newChanOriginalPost, null)
-
-        threadPosts[0] = mergedChanOriginalPost
-        postsByPostDescriptors[newChanOriginalPost.postDescriptor] = mergedChanOriginalPost
+        threadPostsBuilder[0] = mergedChanOriginalPost
+        threadPosts = threadPostsBuilder.build()
+        checkPostsConsistency()
+
+        val changedPosts = hashSetOf<PostDescriptor>()
+        val newlyDeletedPosts = hashSetOf<PostDescriptor>()
+        val addedImages = mutableListOf<ChanPostImage>()
+        val removedImages = mutableListOf<ChanPostImage>()
+
+        collectPostChanges(
+          oldChanPost = oldChanOriginalPost,
+          mergedChanPost = mergedChanOriginalPost,
+          changedPosts = changedPosts,
+          newlyDeletedPosts = newlyDeletedPosts,
+          addedImages = addedImages,
+          removedImages = removedImages
+        )
+
+        return@write recordChangeSet(
+          addedPosts = emptyList(),
+          updatedPosts = changedPosts,
+          deletedPosts = newlyDeletedPosts,
+          addedImages = addedImages,
+          removedImages = removedImages
+        )
       } else {
-        threadPosts.add(newChanOriginalPost)
-        postsByPostDescriptors[newChanOriginalPost.postDescriptor] = newChanOriginalPost
-
-        if (!postsAreSorted()) {
-          Logger.d(TAG, "setOrUpdateOriginalPost() posts need to be sorted")
-          threadPosts.sortWith(POSTS_COMPARATOR)
-        }
+        threadPostsBuilder.add(newChanOriginalPost)
+        threadPosts = threadPostsBuilder.build()
+        checkPostsConsistency()
+
+        return@write recordChangeSet(
+          addedPosts = listOf(newChanOriginalPost.postDescriptor),
+          updatedPosts = emptySet(),
+          deletedPosts = emptySet(),
+          addedImages = newChanOriginalPost.postImages,
+          removedImages = emptyList()
+        )
       }
-
-      checkPostsConsistency()
     }
   }
 
   fun getOriginalPostSafe(): ChanOriginalPost? {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read null
-      }
-
-      val firstPost = threadPosts.first()
-      if (firstPost is ChanOriginalPost) {
-        return@read firstPost
-      }
-
-      return null
-    }
+    return threadPosts.firstOrNull() as? ChanOriginalPost
   }
 
   fun getOriginalPost(): ChanOriginalPost? {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read null
-      }
-
-      val firstPost = threadPosts.first()
-      if (firstPost is ChanOriginalPost) {
-        return@read firstPost
-      }
+    val currentThreadPosts = threadPosts
+    if (currentThreadPosts.isEmpty()) {
+      return null
+    }
 
-      val errorMessage = buildString {
-        appendLine("First post is not an original post! firstPost=${threadPosts.first()}")
-        appendLine("Total posts count: ${threadPosts.size}")
+    val firstPost = currentThreadPosts.first()
+    if (firstPost is ChanOriginalPost) {
+      return firstPost
+    }
 
-        val indexOfOriginalPost = threadPosts.indexOfFirst { it is ChanOriginalPost }
-        appendLine("Actual index of the original post: $indexOfOriginalPost")
-      }
+    val errorMessage = buildString {
+      appendLine("First post is not an original post! firstPost=${firstPost}")
+      appendLine("Total posts count: ${currentThreadPosts.size}")
 
-      error(errorMessage)
+      val indexOfOriginalPost = currentThreadPosts.indexOfFirst { it is ChanOriginalPost }
+      appendLine("Actual index of the original post: $indexOfOriginalPost")
     }
+
+    error(errorMessage)
   }
 
   fun getPostDescriptors(): List<PostDescriptor> {
-    return lock.read {
-      return@read threadPosts.map { chanPost -> chanPost.postDescriptor }
-    }
+    return threadPosts.map { chanPost -> chanPost.postDescriptor }
   }
 
   fun updateLastAccessTime() {
@@ -386,13 +518,13 @@ class ChanThread(
     closed: Boolean?
   ) {
     lock.write {
-      if (threadPosts.isEmpty()) {
-        return@write
-      }
-
-      val chanOriginalPost = threadPosts.first() as? ChanOriginalPost
+      val chanOriginalPost = threadPosts.firstOrNull() as? ChanOriginalPost
         ?: return@write
 
+      val stateChanged = (deleted != null && chanOriginalPost.isDeleted != deleted)
+        || (archived != null && chanOriginalPost.archived != archived)
+        || (closed != null && chanOriginalPost.closed != closed)
+
       if (deleted != null) {
         if (chanOriginalPost.isDeleted != deleted) {
           isNowDeletedForUi = deleted
@@ -416,29 +548,37 @@ class ChanThread(
 
         chanOriginalPost.closed = closed
       }
+
+      if (stateChanged) {
+        recordChangeSet(
+          addedPosts = emptyList(),
+          updatedPosts = setOf(chanOriginalPost.postDescriptor),
+          deletedPosts = emptySet(),
+          addedImages = emptyList(),
+          removedImages = emptyList()
+        )
+      }
     }
   }
 
   fun canUpdateThread(): Boolean {
-    return lock.read {
-      val originalPost = getOriginalPostSafe()
-      if (originalPost == null) {
-        // I guess we should update the thread if we have no posts?
-        return@read true
-      }
-
-      return@read !originalPost.closed
-        && !originalPost.isDeleted
-        && !originalPost.archived
+    val originalPost = getOriginalPostSafe()
+    if (originalPost == null) {
+      // I guess we should update the thread if we have no posts?
+      return true
     }
+
+    return !originalPost.closed
+      && !originalPost.isDeleted
+      && !originalPost.archived
   }
 
   fun lastPost(): ChanPost? {
-    return lock.read { threadPosts.lastOrNull() }
+    return threadPosts.lastOrNull()
   }
 
   fun getPost(postDescriptor: PostDescriptor): ChanPost? {
-    return lock.read { postsByPostDescriptors[postDescriptor] }
+    return threadPosts.getPostOrNull(postDescriptor)
   }
 
   fun <T> iteratePostIndexes(
@@ -447,32 +587,57 @@ class ChanThread(
     postDescriptorSelector: (T) -> PostDescriptor,
     iterator: (ChanPost, Int) -> Unit
   ) {
-    lock.read {
-      input.forEach { inputValue ->
-        val postDescriptor = postDescriptorSelector(inputValue)
+    val currentThreadPosts = threadPosts
 
-        check(postDescriptor.threadDescriptor() == threadDescriptor) {
-          "All posts must belong to the same thread! threadDescriptor=$threadDescriptor, " +
-            "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
-        }
-
-        val postIndex = threadPosts
-          .indexOfFirst { chanPost -> chanPost.postDescriptor == postDescriptor }
-
-        if (postIndex < 0) {
-          return@forEach
-        }
+    input.forEach { inputValue ->
+      val postDescriptor = postDescriptorSelector(inputValue)
 
-        val chanPost = threadPosts.getOrNull(postIndex)
-          ?: return@forEach
+      check(postDescriptor.threadDescriptor() == threadDescriptor) {
+        "All posts must belong to the same thread! threadDescriptor=$threadDescriptor, " +
+          "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
+      }
 
-        iterator(chanPost, postIndex)
+      val postIndex = currentThreadPosts.indexOfPost(postDescriptor)
+      if (postIndex < 0) {
+        return@forEach
       }
+
+      iterator(currentThreadPosts[postIndex], postIndex)
     }
   }
 
   fun getNewPostsCount(lastPostNo: Long): Int {
-    return lock.read { threadPosts.count { chanPost -> chanPost.postNo() > lastPostNo } }
+    val currentThreadPosts = threadPosts
+    if (currentThreadPosts.isEmpty()) {
+      return 0
+    }
+
+    var newPostsCount = 0
+    var low = 0
+    var high = currentThreadPosts.size
+
+    // The posts are sorted with POSTS_COMPARATOR (the OP goes first and the rest of the posts are
+    // sorted by postNo) so we only need to find the first post after the lastPostNo.
+    val firstPost = currentThreadPosts[0]
+    if (firstPost.isOP()) {
+      if (firstPost.postNo() > lastPostNo) {
+        ++newPostsCount
+      }
+
+      low = 1
+    }
+
+    while (low < high) {
+      val mid = (low + high) ushr 1
+
+      if (currentThreadPosts[mid].postNo() <= lastPostNo) {
+        low = mid + 1
+      } else {
+        high = mid
+      }
+    }
+
+    return newPostsCount + (currentThreadPosts.size - low)
   }
 
   fun findPostWithRepliesRecursive(
@@ -490,23 +655,8 @@ class ChanThread(
       "Either includeRepliesFrom or includeRepliesTo must be true"
     }
 
-    val postsToCheck = mutableListOf<ChanPost>()
-
-    lock.read {
-      for (post in threadPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        postsToCheck.add(post)
-      }
-    }
-
-    for (post in postsToCheck) {
-      if (postsSet.contains(post)) {
-        continue
-      }
-
+    val post = getPost(postDescriptor)
+    if (post != null && !postsSet.contains(post)) {
       postsSet.add(post)
 
       if (includeRepliesFrom) {
@@ -539,26 +689,30 @@ class ChanThread(
 
   fun deletePosts(postDescriptors: Collection<PostDescriptor>) {
     lock.write {
-      require(threadPosts.isNotEmpty()) { "posts are empty!" }
-      require(threadPosts.first() is ChanOriginalPost) {
-        "First post is not an original post! post=${threadPosts.first()}"
+      val currentThreadPosts = threadPosts
+
+      require(currentThreadPosts.isNotEmpty()) { "posts are empty!" }
+      require(currentThreadPosts.first() is ChanOriginalPost) {
+        "First post is not an original post! post=${currentThreadPosts.first()}"
       }
 
-      postDescriptors.forEach { postDescriptor ->
+      val postDescriptorsToDelete = postDescriptors.toSet()
+
+      postDescriptorsToDelete.forEach { postDescriptor ->
         if (postDescriptor.isOP()) {
           Logger.e(TAG, "Deleting original post ${postDescriptor}!!! This may end up very badly!")
         }
 
-        val postIndex = threadPosts.indexOfFirst { chanPost ->
-          chanPost.postDescriptor == postDescriptor
-        }
+        rawPostHashesMap.remove(postDescriptor)
+        restoredPostHashes.remove(postDescriptor)
+      }
 
-        if (postIndex >= 0) {
-          threadPosts.removeAt(postIndex)
-        }
+      val remainingPosts = currentThreadPosts
+        .filter { chanPost -> chanPost.postDescriptor !in postDescriptorsToDelete }
 
-        rawPostHashesMap.remove(postDescriptor)
-        postsByPostDescriptors.remove(postDescriptor)
+      if (remainingPosts.size != currentThreadPosts.size) {
+        threadPosts = PersistentChunkedList.from(remainingPosts)
+        invalidateChangeSetHistory()
       }
 
       checkPostsConsistency()
@@ -573,39 +727,26 @@ class ChanThread(
   }
 
   fun iteratePostsOrderedWhile(iterator: (ChanPost) -> Boolean) {
-    lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read
-      }
-
-      for (index in threadPosts.indices) {
-        val chanPost = threadPosts.getOrNull(index)
-          ?: return@read
-
-        if (!iterator(chanPost)) {
-          return@read
-        }
+    for (chanPost in threadPosts) {
+      if (!iterator(chanPost)) {
+        return
       }
     }
   }
 
   fun <T> mapPostsOrdered(mapper: (ChanPost) -> T): List<T> {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read emptyList()
-      }
-
-      val resultList = mutableListOf<T>()
-
-      for (index in threadPosts.indices) {
-        val chanPost = threadPosts.getOrNull(index)
-          ?: return@read emptyList()
+    val currentThreadPosts = threadPosts
+    if (currentThreadPosts.isEmpty()) {
+      return emptyList()
+    }
 
-        resultList += mapper(chanPost)
-      }
+    val resultList = mutableListWithCap<T>(currentThreadPosts.size)
 
-      return@read resultList
+    for (chanPost in currentThreadPosts) {
+      resultList += mapper(chanPost)
     }
+
+    return resultList
   }
 
   fun mapPostsWithImagesAround(
@@ -620,149 +761,232 @@ class ChanThread(
     check(leftCount >= 0) { "Bad left count: $leftCount" }
     check(rightCount >= 0) { "Bad right count: $rightCount" }
 
-    return lock.read {
-      val indexOfPost = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
-      if (indexOfPost < 0) {
-        return@read emptyList()
-      }
+    val currentThreadPosts = threadPosts
+
+    val indexOfPost = currentThreadPosts.indexOfPost(postDescriptor)
+    if (indexOfPost < 0) {
+      return emptyList()
+    }
 
-      val totalCount = leftCount + rightCount
-      val postDescriptors = mutableListWithCap<PostDescriptor>(totalCount)
+    val totalCount = leftCount + rightCount
+    val postDescriptors = mutableListWithCap<PostDescriptor>(totalCount)
 
-      // Check current post and add it to the list if it has images
-      threadPosts.getOrNull(indexOfPost)?.let { currentPost ->
-        if (currentPost.postImages.isNotEmpty()) {
-          postDescriptors += currentPost.postDescriptor
-        }
+    // Check current post and add it to the list if it has images
+    currentThreadPosts.getOrNull(indexOfPost)?.let { currentPost ->
+      if (currentPost.postImages.isNotEmpty()) {
+        postDescriptors += currentPost.postDescriptor
       }
+    }
 
-      var currentPostIndex = indexOfPost - 1
-      var takeFromLeft = leftCount
+    var currentPostIndex = indexOfPost - 1
+    var takeFromLeft = leftCount
 
-      // Check posts to the left of the current post and add to the list those that have images
-      while (takeFromLeft > 0 && currentPostIndex in threadPosts.indices) {
-        val post = threadPosts.getOrNull(currentPostIndex--)
-          ?: break
+    // Check posts to the left of the current post and add to the list those that have images
+    while (takeFromLeft > 0 && currentPostIndex in currentThreadPosts.indices) {
+      val post = currentThreadPosts.getOrNull(currentPostIndex--)
+        ?: break
 
-        if (post.postImages.isEmpty()) {
-          continue
-        }
-
-        --takeFromLeft
-        postDescriptors += post.postDescriptor
+      if (post.postImages.isEmpty()) {
+        continue
       }
 
-      currentPostIndex = indexOfPost + 1
-      var takeFromRight = rightCount
+      --takeFromLeft
+      postDescriptors += post.postDescriptor
+    }
 
-      // Check posts to the right of the current post and add to the list those that have images
-      while (takeFromRight > 0 && currentPostIndex in threadPosts.indices) {
-        val post = threadPosts.getOrNull(currentPostIndex++)
-          ?: break
+    currentPostIndex = indexOfPost + 1
+    var takeFromRight = rightCount
 
-        if (post.postImages.isEmpty()) {
-          continue
-        }
+    // Check posts to the right of the current post and add to the list those that have images
+    while (takeFromRight > 0 && currentPostIndex in currentThreadPosts.indices) {
+      val post = currentThreadPosts.getOrNull(currentPostIndex++)
+        ?: break
 
-        --takeFromRight
-        postDescriptors += post.postDescriptor
+      if (post.postImages.isEmpty()) {
+        continue
       }
 
-      return@read postDescriptors
+      --takeFromRight
+      postDescriptors += post.postDescriptor
     }
+
+    return postDescriptors
   }
 
   fun getPostDescriptorRelativeTo(postDescriptor: PostDescriptor, offset: Int): PostDescriptor? {
-    return lock.read {
-      val currentPostIndex = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
-      if (currentPostIndex < 0) {
-        return@read null
-      }
+    val currentThreadPosts = threadPosts
 
-      val postIndex = (currentPostIndex + offset).coerceIn(0, threadPosts.size)
-      return@read threadPosts.getOrNull(postIndex)?.postDescriptor
+    val currentPostIndex = currentThreadPosts.indexOfPost(postDescriptor)
+    if (currentPostIndex < 0) {
+      return null
     }
+
+    val postIndex = (currentPostIndex + offset).coerceIn(0, currentThreadPosts.size)
+    return currentThreadPosts.getOrNull(postIndex)?.postDescriptor
   }
 
   fun iteratePostImages(
     postDescriptor: PostDescriptor,
     iterator: (ChanPostImage) -> Unit
   ): Boolean {
-    return lock.read {
-      val post = postsByPostDescriptors[postDescriptor]
-        ?: return@read false
+    val post = getPost(postDescriptor)
+      ?: return false
 
-      post.iteratePostImages { postImage -> iterator(postImage) }
-      return@read true
-    }
+    post.iteratePostImages { postImage -> iterator(postImage) }
+    return true
   }
 
 
   fun getThreadPostImages(): List<ChanPostImage> {
-    return lock.read {
-      val resultList = mutableListWithCap<ChanPostImage>(threadPosts.size)
+    val currentThreadPosts = threadPosts
+    val resultList = mutableListWithCap<ChanPostImage>(currentThreadPosts.size)
 
-      threadPosts.forEach { chanPost ->
-        resultList.addAll(chanPost.postImages)
-      }
-
-      return@read resultList
+    currentThreadPosts.forEach { chanPost ->
+      resultList.addAll(chanPost.postImages)
     }
+
+    return resultList
   }
 
   fun postHasImages(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]?.postImages?.isNotEmpty()
-        ?: false
-    }
+    return getPost(postDescriptor)?.postImages?.isNotEmpty()
+      ?: false
   }
 
   fun hasAtLeastOnePost(): Boolean {
-    return lock.read { threadPosts.isNotEmpty() }
+    return threadPosts.isNotEmpty()
   }
 
   fun cleanup() {
     lock.write {
-      val chanOriginalPost = threadPosts.firstOrNull()
+      val currentThreadPosts = threadPosts
+
+      val chanOriginalPost = currentThreadPosts.firstOrNull()
       if (chanOriginalPost == null) {
-        threadPosts.clear()
-        postsByPostDescriptors.clear()
+        threadPosts = PersistentChunkedList.empty()
         rawPostHashesMap.clear()
+        restoredPostHashes.clear()
+        invalidateChangeSetHistory()
 
         return@write
       }
 
-      val onlyHasOriginalPost = threadPosts.size == 1 && threadPosts.firstOrNull() === chanOriginalPost
+      val onlyHasOriginalPost = currentThreadPosts.size == 1
       if (onlyHasOriginalPost) {
         return@write
       }
 
-      threadPosts.mutableIteration { mutableIterator, chanPost ->
-        if (chanPost !== chanOriginalPost) {
+      threadPosts = PersistentChunkedList.from(listOf(chanOriginalPost))
+      invalidateChangeSetHistory()
+
+      rawPostHashesMap.mutableIteration { mutableIterator, entry ->
+        val postDescriptor = entry.key
+        if (postDescriptor != chanOriginalPost.postDescriptor) {
           mutableIterator.remove()
         }
 
         return@mutableIteration true
       }
 
-      postsByPostDescriptors.mutableIteration { mutableIterator, entry ->
-        val chanPost = entry.value
-        if (chanPost !== chanOriginalPost) {
-          mutableIterator.remove()
-        }
+      restoredPostHashes.retainAll { postDescriptor -> postDescriptor == chanOriginalPost.postDescriptor }
+    }
+  }
 
-        return@mutableIteration true
-      }
+  private fun collectPostChanges(
+    oldChanPost: ChanPost,
+    mergedChanPost: ChanPost,
+    changedPosts: MutableSet<PostDescriptor>,
+    newlyDeletedPosts: MutableSet<PostDescriptor>,
+    addedImages: MutableList<ChanPostImage>,
+    removedImages: MutableList<ChanPostImage>
+  ) {
+    if (!oldChanPost.isDeleted && mergedChanPost.isDeleted) {
+      newlyDeletedPosts += mergedChanPost.postDescriptor
+    } else if (oldChanPost != mergedChanPost) {
+      changedPosts += mergedChanPost.postDescriptor
+    }
 
-      rawPostHashesMap.mutableIteration { mutableIterator, entry ->
-        val postDescriptor = entry.key
-        if (postDescriptor != chanOriginalPost.postDescriptor) {
-          mutableIterator.remove()
-        }
+    val oldPostImages = oldChanPost.postImages
+    val mergedPostImages = mergedChanPost.postImages
 
-        return@mutableIteration true
+    if (oldPostImages.isEmpty() && mergedPostImages.isEmpty()) {
+      return
+    }
+
+    mergedPostImages.forEach { chanPostImage ->
+      if (chanPostImage !in oldPostImages) {
+        addedImages += chanPostImage
       }
     }
+
+    oldPostImages.forEach { chanPostImage ->
+      if (chanPostImage !in mergedPostImages) {
+        removedImages += chanPostImage
+      }
+    }
+  }
+
+  private fun recordChangeSet(
+    addedPosts: List<PostDescriptor>,
+    updatedPosts: Set<PostDescriptor>,
+    deletedPosts: Set<PostDescriptor>,
+    addedImages: List<ChanPostImage>,
+    removedImages: List<ChanPostImage>
+  ): ChanThreadChangeSet {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    val fromRevision = revision
+
+    val changeSet = ChanThreadChangeSet(
+      threadDescriptor = threadDescriptor,
+      fromRevision = fromRevision,
+      toRevision = fromRevision,
+      addedPosts = addedPosts,
+      updatedPosts = updatedPosts,
+      deletedPosts = deletedPosts,
+      addedImages = addedImages,
+      removedImages = removedImages,
+      invalidated = false
+    )
+
+    if (changeSet.isEmpty()) {
+      return changeSet
+    }
+
+    val toRevision = nextRevision()
+
+    val recordedChangeSet = ChanThreadChangeSet(
+      threadDescriptor = threadDescriptor,
+      fromRevision = fromRevision,
+      toRevision = toRevision,
+      addedPosts = addedPosts,
+      updatedPosts = updatedPosts,
+      deletedPosts = deletedPosts,
+      addedImages = addedImages,
+      removedImages = removedImages,
+      invalidated = false
+    )
+
+    if (changeSetHistory.size >= MAX_CHANGE_SET_HISTORY_SIZE) {
+      changeSetHistory.removeAt(0)
+    }
+
+    changeSetHistory += recordedChangeSet
+    revision = toRevision
+
+    return recordedChangeSet
+  }
+
+  /**
+   * Called when posts are removed from the thread (not marked as deleted, but actually removed from
+   * the cache). Such changes are not described with change sets, everyone who asks for the changes
+   * since any of the previous revisions will have to rebuild everything.
+   * */
+  private fun invalidateChangeSetHistory() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    changeSetHistory.clear()
+    revision = nextRevision()
   }
 
   private fun updateThreadStatusFlagsForUi(
@@ -786,7 +1010,7 @@ class ChanThread(
   }
 
   private fun findDeletedPosts(
-    oldChanPosts: MutableList<ChanPost>,
+    oldChanPosts: List<ChanPost>,
     postsFromServerData: PostsFromServerData?
   ): Set<PostDescriptor>? {
     if (postsFromServerData == null
@@ -958,17 +1182,23 @@ class ChanThread(
     }
   }
 
-  private fun recalculatePostReplies(newChanPosts: List<ChanPost>) {
+  /**
+   * Returns descriptors of the posts that got new replies.
+   * */
+  private fun recalculatePostReplies(
+    updatedThreadPosts: PersistentChunkedList<ChanPost>,
+    newChanPosts: List<ChanPost>
+  ): Set<PostDescriptor> {
     require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    val replies = HashMap<PostDescriptor, MutableList<PostDescriptor>>(threadPosts.size)
+    val replies = HashMap<PostDescriptor, MutableList<PostDescriptor>>(updatedThreadPosts.size)
 
     for (newChanPost in newChanPosts) {
-      val sourcePost = postsByPostDescriptors[newChanPost.postDescriptor]
+      val sourcePost = updatedThreadPosts.getPostOrNull(newChanPost.postDescriptor)
         ?: continue
 
       for (replyTo in sourcePost.repliesTo) {
-        if (postsByPostDescriptors[replyTo]?.repliesFrom?.contains(sourcePost.postDescriptor) == true) {
+        if (updatedThreadPosts.getPostOrNull(replyTo)?.hasReplyFrom(sourcePost.postDescriptor) == true) {
           // Already processed
           continue
         }
@@ -984,11 +1214,19 @@ class ChanThread(
       }
     }
 
+    val postsWithNewReplies = hashSetWithCap<PostDescriptor>(replies.size)
+
     for ((postNo, replyList) in replies) {
-      val subject = postsByPostDescriptors[postNo]
+      val subject = updatedThreadPosts.getPostOrNull(postNo)
+        ?: continue
 
-      subject?.repliesFrom?.addAll(replyList)
+      // The post may be shared with the currently published version of the thread posts so it must
+      // be updated under the post's own lock
+      subject.addRepliesFrom(replyList)
+      postsWithNewReplies += subject.postDescriptor
     }
+
+    return postsWithNewReplies
   }
 
   private fun checkPostsConsistency() {
@@ -996,51 +1234,36 @@ class ChanThread(
       return
     }
 
-    lock.read {
-      check(threadPosts.size == postsByPostDescriptors.size) {
-        "Sizes do not match (threadPosts.size=${threadPosts.size}, " +
-          "postsByPostDescriptors.size=${postsByPostDescriptors.size}"
-      }
+    val currentThreadPosts = threadPosts
 
-      threadPosts.forEach { chanPost1 ->
-        val chanPost2 = postsByPostDescriptors[chanPost1.postDescriptor]
+    check(postsAreSorted(currentThreadPosts, fromIndex = 0)) { "Posts are not sorted" }
 
-        if (chanPost1 is ChanOriginalPost) {
-          check(chanPost1.lastModified >= 0L) { "Bad lastModified" }
-        }
+    currentThreadPosts.forEachIndexed { index, chanPost1 ->
+      val chanPost2 = currentThreadPosts.getPostOrNull(chanPost1.postDescriptor)
 
-        if (chanPost2 is ChanOriginalPost) {
-          check(chanPost2.lastModified >= 0L) { "Bad lastModified" }
-        }
+      if (chanPost1 is ChanOriginalPost) {
+        check(chanPost1.lastModified >= 0L) { "Bad lastModified" }
+      }
 
-        checkNotNull(chanPost2) { "postsByPostDescriptors does not contain $chanPost1" }
-        check(chanPost1 == chanPost2) { "Posts do not match (chanPost1=$chanPost1, chanPost2=$chanPost2)" }
+      checkNotNull(chanPost2) { "Post lookup failed for $chanPost1" }
+      check(chanPost1 === chanPost2) { "Posts do not match (chanPost1=$chanPost1, chanPost2=$chanPost2)" }
 
-        check(chanPost1.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
-          "Only thread descriptors are allowed in the cache!" +
-            "descriptor=${chanPost1.postDescriptor.descriptor}"
+      if (index > 0) {
+        check(currentThreadPosts[index - 1].postDescriptor != chanPost1.postDescriptor) {
+          "Duplicate post $chanPost1"
         }
+      }
 
-        check(chanPost2.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
-          "Only thread descriptors are allowed in the cache!" +
-            "descriptor=${chanPost2.postDescriptor.descriptor}"
-        }
+      check(chanPost1.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
+        "Only thread descriptors are allowed in the cache!" +
+          "descriptor=${chanPost1.postDescriptor.descriptor}"
       }
     }
   }
 
-  private fun postsAreSorted(): Boolean {
-    require(lock.isWriteLocked) { "Lock must be write locked!" }
-
-    for (threadPostWindow in threadPosts.windowed(size = 2, step = 1)) {
-      val prevPost = threadPostWindow.getOrNull(0) ?: break
-      val currPost = threadPostWindow.getOrNull(1) ?: break
-
-      if (currPost.postNo() < prevPost.postNo()) {
-        return false
-      }
-
-      if (currPost.postNo() == prevPost.postNo() && currPost.postSubNo() < prevPost.postSubNo()) {
+  private fun postsAreSorted(posts: List<ChanPost>, fromIndex: Int): Boolean {
+    for (index in maxOf(fromIndex, 0) until posts.lastIndex) {
+      if (POSTS_COMPARATOR.compare(posts[index], posts[index + 1]) > 0) {
         return false
       }
     }
@@ -1061,18 +1284,18 @@ class ChanThread(
     val duplicatesSet = hashSetWithCap<PostDescriptor>(totalCount)
     val resultList = mutableListWithCap<ChanPost>(totalCount)
 
-    lock.read {
-      ranges.forEach { range ->
-        range.forEach { index ->
-          val post = threadPosts.getOrNull(index)
-            ?: return@forEach
+    val currentThreadPosts = threadPosts
 
-          if (!duplicatesSet.add(post.postDescriptor)) {
-            return@forEach
-          }
+    ranges.forEach { range ->
+      range.forEach { index ->
+        val post = currentThreadPosts.getOrNull(index)
+          ?: return@forEach
 
-          resultList += post
+        if (!duplicatesSet.add(post.postDescriptor)) {
+          return@forEach
         }
+
+        resultList += post
       }
     }
 
@@ -1080,15 +1303,13 @@ class ChanThread(
   }
 
   fun getPostWithRepliesToThisPost(postDescriptor: PostDescriptor): List<PostDescriptor> {
-    return lock.read {
-      val chanPost = postsByPostDescriptors[postDescriptor]
-        ?: return@read emptyList()
+    val chanPost = getPost(postDescriptor)
+      ?: return emptyList()
 
-      val resultPosts = mutableListOf<PostDescriptor>()
-      resultPosts += chanPost.postDescriptor
-      resultPosts.addAll(chanPost.repliesFrom)
-      return@read resultPosts
-    }
+    val resultPosts = mutableListOf<PostDescriptor>()
+    resultPosts += chanPost.postDescriptor
+    resultPosts.addAll(chanPost.repliesFromCopy)
+    return resultPosts
   }
 
   fun isThreadLockCurrentlyLocked(): Boolean {
@@ -1097,15 +1318,71 @@ class ChanThread(
 
   fun addImage(chanPostImage: ChanPostImage) {
     lock.write {
-      val chanPost = postsByPostDescriptors[chanPostImage.ownerPostDescriptor]
-        ?: return@write false
+      val chanPost = getPost(chanPostImage.ownerPostDescriptor)
+        ?: return@write
+
+      if (!chanPost.addImage(chanPostImage)) {
+        return@write
+      }
 
-      return@write chanPost.addImage(chanPostImage)
+      recordChangeSet(
+        addedPosts = emptyList(),
+        updatedPosts = setOf(chanPost.postDescriptor),
+        deletedPosts = emptySet(),
+        addedImages = listOf(chanPostImage),
+        removedImages = emptyList()
+      )
     }
   }
 
+  private fun List<ChanPost>.getPostOrNull(postDescriptor: PostDescriptor): ChanPost? {
+    val index = indexOfPost(postDescriptor)
+    if (index < 0) {
+      return null
+    }
+
+    return get(index)
+  }
+
+  /**
+   * Binary search, the posts must be sorted with [POSTS_COMPARATOR].
+   * */
+  private fun List<ChanPost>.indexOfPost(postDescriptor: PostDescriptor): Int {
+    val index = binarySearch { chanPost -> comparePostTo(chanPost, postDescriptor) }
+    if (index < 0 || get(index).postDescriptor != postDescriptor) {
+      // Not found or a post from some other thread was passed in
+      return -1
+    }
+
+    return index
+  }
+
   companion object {
     private const val TAG = "ChanThread"
+    private const val MAX_CHANGE_SET_HISTORY_SIZE = 16
+
+    private val revisionCounter = AtomicLong(0L)
+
+    private fun nextRevision(): Long = revisionCounter.incrementAndGet()
+
+    // Must be consistent with POSTS_COMPARATOR
+    private fun comparePostTo(chanPost: ChanPost, postDescriptor: PostDescriptor): Int {
+      val postIsOP = chanPost.isOP()
+      val otherIsOP = postDescriptor.isOP()
+
+      if (postIsOP && !otherIsOP) {
+        return -1
+      } else if (!postIsOP && otherIsOP) {
+        return 1
+      }
+
+      val postNoResult = chanPost.postDescriptor.postNo.compareTo(postDescriptor.postNo)
+      if (postNoResult != 0) {
+        return postNoResult
+      }
+
+      return chanPost.postDescriptor.postSubNo.compareTo(postDescriptor.postSubNo)
+    }
 
     private val POSTS_COMPARATOR = Comparator<ChanPost> { chanPost1, chanPost2 ->
       // Due to a strange thread on Lainchan where OP has postNo greater that the next post after it we
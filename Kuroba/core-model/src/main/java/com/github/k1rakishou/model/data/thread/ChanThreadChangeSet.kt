@@ -0,0 +1,163 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostImage
+
+/**
+ * Describes what changed in a [ChanThread] between two of its revisions.
+ *
+ * [addedPosts] are the posts that did not exist in the thread at [fromRevision] (in the order they
+ * are sorted in the thread), [updatedPosts] are the already existing posts which content changed
+ * (this includes the posts that got new replies) and [deletedPosts] are the posts that were marked
+ * as deleted by the server. [addedImages] and [removedImages] are the image deltas of all those posts.
+ *
+ * A change set with [invalidated] flag set means that the thread was changed in a way that can't be
+ * described with a delta (posts were removed from the cache, the thread was cleaned up, etc) so the
+ * consumers must rebuild whatever they have built out of the thread from scratch.
+ * */
+class ChanThreadChangeSet(
+  val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+  val fromRevision: Long,
+  val toRevision: Long,
+  val addedPosts: List<PostDescriptor>,
+  val updatedPosts: Set<PostDescriptor>,
+  val deletedPosts: Set<PostDescriptor>,
+  val addedImages: List<ChanPostImage>,
+  val removedImages: List<ChanPostImage>,
+  val invalidated: Boolean
+) {
+  private val addedPostsSet by lazy(LazyThreadSafetyMode.PUBLICATION) { addedPosts.toHashSet() }
+
+  /**
+   * Whether new posts were only appended to the end of the thread and nothing else changed. Most of
+   * the thread updates are like that.
+   * */
+  val appendedOnly: Boolean
+    get() = !invalidated
+      && updatedPosts.isEmpty()
+      && deletedPosts.isEmpty()
+      && removedImages.isEmpty()
+
+  fun isEmpty(): Boolean {
+    return !invalidated
+      && addedPosts.isEmpty()
+      && updatedPosts.isEmpty()
+      && deletedPosts.isEmpty()
+      && addedImages.isEmpty()
+      && removedImages.isEmpty()
+  }
+
+  /**
+   * Returns true when [postDescriptor] was added, updated or deleted by this change set.
+   * */
+  fun isPostChanged(postDescriptor: PostDescriptor): Boolean {
+    return postDescriptor in updatedPosts
+      || postDescriptor in deletedPosts
+      || addedPostsSet.contains(postDescriptor)
+  }
+
+  /**
+   * Merges this change set with the [next] one (which must start at the revision this one ends at)
+   * into a change set describing both of them.
+   * */
+  fun mergeWith(next: ChanThreadChangeSet): ChanThreadChangeSet {
+    require(threadDescriptor == next.threadDescriptor) {
+      "Change sets belong to different threads (${threadDescriptor}, ${next.threadDescriptor})"
+    }
+    require(toRevision == next.fromRevision) {
+      "Change sets are not consecutive (toRevision=${toRevision}, next.fromRevision=${next.fromRevision})"
+    }
+
+    if (invalidated || next.invalidated) {
+      return invalidated(threadDescriptor, fromRevision, next.toRevision)
+    }
+
+    val mergedAddedPosts = LinkedHashSet<PostDescriptor>(addedPosts.size + next.addedPosts.size)
+    mergedAddedPosts.addAll(addedPosts)
+    mergedAddedPosts.addAll(next.addedPosts)
+
+    // A post that was added by this change set and then updated by the next one is still just added
+    val mergedUpdatedPosts = HashSet<PostDescriptor>(updatedPosts)
+    next.updatedPosts.forEach { postDescriptor ->
+      if (postDescriptor !in addedPostsSet) {
+        mergedUpdatedPosts += postDescriptor
+      }
+    }
+
+    // A post that was added by this change set and then marked as deleted by the next one was never
+    // seen by the consumers before it got deleted, so the deletion is cancelled out by the addition
+    // (the post is still in the thread, it is reported as added in its deleted state).
+    val mergedDeletedPosts = HashSet<PostDescriptor>(deletedPosts)
+    next.deletedPosts.forEach { postDescriptor ->
+      if (postDescriptor !in addedPostsSet) {
+        mergedDeletedPosts += postDescriptor
+      }
+    }
+
+    // Same as within a single change set, deleted posts are not reported as updated
+    mergedUpdatedPosts.removeAll(mergedDeletedPosts)
+
+    val nextRemovedImages = next.removedImages.toHashSet()
+    val mergedAddedImages = addedImages.filter { chanPostImage -> chanPostImage !in nextRemovedImages } +
+      next.addedImages
+
+    val thisAddedImages = addedImages.toHashSet()
+    val mergedRemovedImages = removedImages +
+      next.removedImages.filter { chanPostImage -> chanPostImage !in thisAddedImages }
+
+    return ChanThreadChangeSet(
+      threadDescriptor = threadDescriptor,
+      fromRevision = fromRevision,
+      toRevision = next.toRevision,
+      addedPosts = mergedAddedPosts.toList(),
+      updatedPosts = mergedUpdatedPosts,
+      deletedPosts = mergedDeletedPosts,
+      addedImages = mergedAddedImages,
+      removedImages = mergedRemovedImages,
+      invalidated = false
+    )
+  }
+
+  override fun toString(): String {
+    return "ChanThreadChangeSet(threadDescriptor=$threadDescriptor, fromRevision=$fromRevision, " +
+      "toRevision=$toRevision, addedPosts=${addedPosts.size}, updatedPosts=${updatedPosts.size}, " +
+      "deletedPosts=${deletedPosts.size}, addedImages=${addedImages.size}, " +
+      "removedImages=${removedImages.size}, invalidated=$invalidated)"
+  }
+
+  companion object {
+    fun empty(threadDescriptor: ChanDescriptor.ThreadDescriptor, revision: Long): ChanThreadChangeSet {
+      return ChanThreadChangeSet(
+        threadDescriptor = threadDescriptor,
+        fromRevision = revision,
+        toRevision = revision,
+        addedPosts = emptyList(),
+        updatedPosts = emptySet(),
+        deletedPosts = emptySet(),
+        addedImages = emptyList(),
+        removedImages = emptyList(),
+        invalidated = false
+      )
+    }
+
+    fun invalidated(
+      threadDescriptor: ChanDescriptor.ThreadDescriptor,
+      fromRevision: Long,
+      toRevision: Long
+    ): ChanThreadChangeSet {
+      return ChanThreadChangeSet(
+        threadDescriptor = threadDescriptor,
+        fromRevision = fromRevision,
+        toRevision = toRevision,
+        addedPosts = emptyList(),
+        updatedPosts = emptySet(),
+        deletedPosts = emptySet(),
+        addedImages = emptyList(),
+        removedImages = emptyList(),
+        invalidated = true
+      )
+    }
+  }
+
+}
@@ -38,7 +38,13 @@ data class ChanPostEntity(
   @ColumnInfo(name = IS_SAVED_REPLY_COLUMN_NAME)
   val isSavedReply: Boolean = false,
   @ColumnInfo(name = IS_SAGE_COLUMN_NAME)
-  val isSage: Boolean = false
+  val isSage: Boolean = false,
+  // Murmur3 hash of the raw post (the way we got it from the server). Both parts are 0 when the
+  // hash is unknown.
+  @ColumnInfo(name = RAW_POST_HASH_1_COLUMN_NAME, defaultValue = "0")
+  val rawPostHash1: Long = 0L,
+  @ColumnInfo(name = RAW_POST_HASH_2_COLUMN_NAME, defaultValue = "0")
+  val rawPostHash2: Long = 0L
 ) {
   companion object {
     const val TABLE_NAME = "chan_post"
@@ -53,5 +59,7 @@ data class ChanPostEntity(
     const val IS_OP_COLUMN_NAME = "is_op"
     const val IS_SAVED_REPLY_COLUMN_NAME = "is_saved_reply"
     const val IS_SAGE_COLUMN_NAME = "is_sage"
+    const val RAW_POST_HASH_1_COLUMN_NAME = "raw_post_hash_1"
+    const val RAW_POST_HASH_2_COLUMN_NAME = "raw_post_hash_2"
   }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.mapper
 
 import android.text.SpannableString
 import androidx.core.text.toSpanned
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.PostLinkable
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
@@ -20,7 +21,8 @@ object ChanPostEntityMapper {
 
   fun toEntity(
     chanPostId: Long,
-    chanPost: ChanPost
+    chanPost: ChanPost,
+    rawPostHash: MurmurHashUtils.Murmur3Hash? = null
   ): ChanPostEntity {
     return ChanPostEntity(
       chanPostId = chanPostId,
@@ -32,10 +34,20 @@ object ChanPostEntityMapper {
       moderatorCapcode = chanPost.moderatorCapcode,
       isOp = chanPost is ChanOriginalPost,
       isSavedReply = chanPost.isSavedReply,
-      isSage = chanPost.isSage
+      isSage = chanPost.isSage,
+      rawPostHash1 = rawPostHash?.val1 ?: 0L,
+      rawPostHash2 = rawPostHash?.val2 ?: 0L
     )
   }
 
+  fun rawPostHashFromEntity(rawPostHash1: Long, rawPostHash2: Long): MurmurHashUtils.Murmur3Hash? {
+    if (rawPostHash1 == 0L && rawPostHash2 == 0L) {
+      return null
+    }
+
+    return MurmurHashUtils.Murmur3Hash(rawPostHash1, rawPostHash2)
+  }
+
   fun fromEntity(
     chanDescriptor: ChanDescriptor,
     chanThreadEntity: ChanThreadEntity,
@@ -0,0 +1,15 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v43_to_v44 : Migration(43, 44) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN raw_post_hash_1 INTEGER NOT NULL DEFAULT 0")
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN raw_post_hash_2 INTEGER NOT NULL DEFAULT 0")
+    }
+  }
+
+}
@@ -6,7 +6,9 @@ import com.github.k1rakishou.common.ModularResult.Companion.Try
 import com.github.k1rakishou.common.ModularResult.Companion.value
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.SuspendableInitializer
+import com.github.k1rakishou.common.datastructure.LongHashSet
 import com.github.k1rakishou.common.linkedMapWithCap
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
@@ -22,13 +24,17 @@ import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.mapper.ChanPostMapper
+import com.github.k1rakishou.model.source.backup.codec.ThreadPostsBackupRecord
 import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.model.source.local.ChanPostLocalSource
+import com.github.k1rakishou.model.source.snapshot.ThreadPostsSnapshot
 import com.github.k1rakishou.model.util.ensureBackgroundThread
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import java.io.File
+import java.util.concurrent.TimeUnit
 import kotlin.math.max
 import kotlin.time.measureTime
 import kotlin.time.measureTimedValue
@@ -236,10 +242,16 @@ class ChanPostRepository(
     }
   }
 
-  fun getCachedThreadPostsNos(threadDescriptor: ChanDescriptor.ThreadDescriptor): Set<Long> {
+  /**
+   * Returns a new set every time with room for [extraCapacity] more post numbers.
+   * */
+  fun getCachedThreadPostsNos(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    extraCapacity: Int = 0
+  ): LongHashSet {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
-    return chanThreadsCache.getThreadPostNoSet(threadDescriptor)
+    return chanThreadsCache.getThreadPostNoSet(threadDescriptor, extraCapacity)
   }
 
   fun getCachedPost(postDescriptor: PostDescriptor): ChanPost? {
@@ -264,6 +276,16 @@ class ChanPostRepository(
     return chanThreadsCache.getPostHash(postDescriptor)
   }
 
+  /**
+   * Returns true (only once) when the hash of this post was restored from the database by
+   * [preloadForThread] and was not yet checked against the server data.
+   * */
+  fun consumeRestoredPostHash(postDescriptor: PostDescriptor): Boolean {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+
+    return chanThreadsCache.consumeRestoredPostHash(postDescriptor)
+  }
+
   fun clearPostHashes() {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
@@ -366,7 +388,7 @@ class ChanPostRepository(
         Logger.d(TAG, "preloadForThread($threadDescriptor) begin")
 
         val time = measureTime {
-          val postsFromDatabase = localSource.getThreadPosts(threadDescriptor)
+          val postsFromDatabase = loadThreadPosts(threadDescriptor)
 
           Logger.d(TAG, "preloadForThread($threadDescriptor) got ${postsFromDatabase.size} from DB")
 
@@ -378,6 +400,13 @@ class ChanPostRepository(
               chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
               postsFromServerData = null
             )
+
+            // Restore the raw post hashes too so that unchanged posts are not parsed again when
+            // the thread is loaded from the server.
+            val rawPostHashes = localSource.getThreadPostHashes(threadDescriptor)
+            chanThreadsCache.restorePostHashes(threadDescriptor, rawPostHashes)
+
+            Logger.d(TAG, "preloadForThread($threadDescriptor) restored ${rawPostHashes.size} post hashes")
           }
         }
 
@@ -482,7 +511,7 @@ class ChanPostRepository(
           return@tryWithTransaction postsFromCache
         }
 
-        val postsFromDatabase = localSource.getThreadPosts(threadDescriptor)
+        val postsFromDatabase = loadThreadPosts(threadDescriptor)
         if (postsFromDatabase.isEmpty()) {
           return@tryWithTransaction emptyList()
         }
@@ -515,6 +544,91 @@ class ChanPostRepository(
     }
   }
 
+  /**
+   * Writes a [ThreadPostsSnapshot] of a downloaded thread so that the next time the thread is opened
+   * its posts are decoded from a single memory-mapped file instead of being rebuilt from the posts,
+   * spans, images, icons and replies tables. The snapshot is just a cache, it is ignored (and then
+   * rewritten by the next call) once the thread's posts in the database change.
+   * */
+  suspend fun writeThreadPostsSnapshot(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): ModularResult<Unit> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+    ensureBackgroundThread()
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        val postRecords = localSource.getThreadPostsSnapshotRecords(threadDescriptor)
+        if (postRecords.isEmpty()) {
+          Logger.d(TAG, "writeThreadPostsSnapshot($threadDescriptor) no posts")
+          return@tryWithTransaction
+        }
+
+        val databasePostsCount = localSource.countThreadPosts(
+          postRecords.first().chanPostFull.chanPostIdEntity.ownerThreadId
+        )
+
+        val time = measureTime {
+          ThreadPostsSnapshot.write(
+            snapshotFile = getThreadPostsSnapshotFile(threadDescriptor),
+            databasePostsCount = databasePostsCount,
+            postRecords = postRecords
+          )
+        }
+
+        Logger.d(TAG, "writeThreadPostsSnapshot($threadDescriptor) wrote ${postRecords.size} posts, took $time")
+      }
+    }
+  }
+
+  /**
+   * All the posts of a thread as they are stored in the database, for the logical backup. Returns
+   * null when the thread has no posts.
+   * */
+  suspend fun getThreadPostsBackupRecord(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): ModularResult<ThreadPostsBackupRecord?> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        val postRecords = localSource.getThreadPostsSnapshotRecords(threadDescriptor)
+        if (postRecords.isEmpty()) {
+          return@tryWithTransaction null
+        }
+
+        return@tryWithTransaction ThreadPostsBackupRecord(threadDescriptor, postRecords)
+      }
+    }
+  }
+
+  /**
+   * Inserts the posts restored from a logical backup (posts that already exist are replaced) in one
+   * transaction. Threads which board does not exist in the database are skipped. Returns the amount
+   * of restored threads.
+   * */
+  suspend fun restoreThreadPostsFromBackup(records: List<ThreadPostsBackupRecord>): ModularResult<Int> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        var restoredThreads = 0
+
+        records.forEach { record ->
+          val threadDatabaseId = localSource.insertBackupThreadPosts(record.threadDescriptor, record.postRecords)
+            ?: return@forEach
+
+          deleteThreadPostsSnapshot(record.threadDescriptor)
+
+          chanDescriptorCache.putThreadDescriptor(ThreadDBId(threadDatabaseId), record.threadDescriptor)
+          ++restoredThreads
+        }
+
+        return@tryWithTransaction restoredThreads
+      }
+    }
+  }
+
   suspend fun countThreadPosts(threadDatabaseId: Long): ModularResult<Int> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
@@ -532,6 +646,7 @@ class ChanPostRepository(
       return@dbCall tryWithTransaction {
         val result = localSource.deleteThread(threadDescriptor)
         chanThreadsCache.deleteThread(threadDescriptor)
+        deleteThreadPostsSnapshot(threadDescriptor)
 
         return@tryWithTransaction result
       }
@@ -549,6 +664,7 @@ class ChanPostRepository(
 
         if (threadDescriptors != null) {
           localSource.deleteCatalog(threadDescriptors)
+          threadDescriptors.forEach { threadDescriptor -> deleteThreadPostsSnapshot(threadDescriptor) }
         }
 
         return@tryWithTransaction
@@ -563,6 +679,7 @@ class ChanPostRepository(
       return@dbCall tryWithTransaction {
         localSource.deletePost(postDescriptor)
         chanThreadsCache.deletePost(postDescriptor)
+        deleteThreadPostsSnapshot(postDescriptor.threadDescriptor())
 
         return@tryWithTransaction
       }
@@ -611,6 +728,11 @@ class ChanPostRepository(
         // is no internet connection).
         Logger.d(TAG, "insertOrUpdateCatalogOriginalPosts() inserting ${parsedPosts.size} posts into the DB")
         localSource.insertManyOriginalPosts(parsedPosts)
+
+        // The original post of a downloaded thread may have been updated
+        parsedPosts.forEach { chanOriginalPost ->
+          deleteThreadPostsSnapshot(chanOriginalPost.postDescriptor.threadDescriptor())
+        }
       }
         .onError { error -> Logger.e(TAG, "insertOrUpdateCatalogOriginalPosts() DB insert error", error) }
         .ignore()
@@ -660,13 +782,18 @@ class ChanPostRepository(
 
   suspend fun insertOrUpdatePostsInDatabase(
     ownerThreadId: Long,
-    posts: List<ChanPost>
+    posts: List<ChanPost>,
+    rawPostHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ): ModularResult<Unit> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        return@tryWithTransaction localSource.insertThreadPosts(ownerThreadId, posts)
+        localSource.insertThreadPosts(ownerThreadId, posts, rawPostHashes)
+
+        posts
+          .mapTo(hashSetOf()) { chanPost -> chanPost.postDescriptor.threadDescriptor() }
+          .forEach { threadDescriptor -> deleteThreadPostsSnapshot(threadDescriptor) }
       }
     }
   }
@@ -783,6 +910,92 @@ class ChanPostRepository(
     }
   }
 
+  /**
+   * Loads the thread's posts from its [ThreadPostsSnapshot] when there is an up to date one (only
+   * downloaded threads have them) and from the database otherwise.
+   * */
+  private suspend fun loadThreadPosts(threadDescriptor: ChanDescriptor.ThreadDescriptor): List<ChanPost> {
+    val postsFromSnapshot = loadThreadPostsFromSnapshot(threadDescriptor)
+    if (postsFromSnapshot != null) {
+      return postsFromSnapshot
+    }
+
+    val (postsFromDatabase, duration) = measureTimedValue { localSource.getThreadPosts(threadDescriptor) }
+    Logger.d(TAG, "loadThreadPosts($threadDescriptor) loaded ${postsFromDatabase.size} posts from the database, " +
+      "took $duration")
+
+    return postsFromDatabase
+  }
+
+  private suspend fun loadThreadPostsFromSnapshot(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): List<ChanPost>? {
+    val snapshotFile = getThreadPostsSnapshotFile(threadDescriptor)
+    if (!snapshotFile.exists()) {
+      return null
+    }
+
+    val startTime = System.nanoTime()
+
+    val snapshot = Try { ThreadPostsSnapshot.open(snapshotFile) }
+      .onError { error -> Logger.e(TAG, "Failed to open snapshot of $threadDescriptor", error) }
+      .valueOrNull()
+
+    if (snapshot == null) {
+      deleteThreadPostsSnapshot(threadDescriptor)
+      return null
+    }
+
+    val chanThreadEntity = localSource.validateThreadPostsSnapshot(threadDescriptor, snapshot)
+    if (chanThreadEntity == null) {
+      Logger.d(TAG, "loadThreadPostsFromSnapshot($threadDescriptor) snapshot is outdated")
+      deleteThreadPostsSnapshot(threadDescriptor)
+      return null
+    }
+
+    // Every post is decoded right away (the thread cache needs the whole list) so log how long it
+    // took to open and validate the snapshot and how long it took to decode all of its posts.
+    val openTimeNanos = System.nanoTime() - startTime
+    val posts = mutableListWithCap<ChanPost>(snapshot.postsCount)
+
+    val result = Try {
+      for (index in 0 until snapshot.postsCount) {
+        val postRecord = snapshot.decodePost(index)
+
+        val chanPost = localSource.mapThreadPostsSnapshotRecord(threadDescriptor, chanThreadEntity, postRecord)
+          ?: continue
+
+        posts += chanPost
+      }
+    }
+
+    if (result is ModularResult.Error) {
+      Logger.e(TAG, "Failed to decode snapshot of $threadDescriptor", result.error)
+      deleteThreadPostsSnapshot(threadDescriptor)
+      return null
+    }
+
+    Logger.d(TAG, "loadThreadPostsFromSnapshot($threadDescriptor) loaded ${posts.size} posts, " +
+      "open=${TimeUnit.NANOSECONDS.toMicros(openTimeNanos)}us, " +
+      "decode=${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime - openTimeNanos)}ms")
+
+    return posts
+  }
+
+  private fun deleteThreadPostsSnapshot(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    val snapshotFile = getThreadPostsSnapshotFile(threadDescriptor)
+    if (snapshotFile.exists() && !snapshotFile.delete()) {
+      Logger.e(TAG, "Failed to delete snapshot '${snapshotFile.absolutePath}'")
+    }
+  }
+
+  private fun getThreadPostsSnapshotFile(threadDescriptor: ChanDescriptor.ThreadDescriptor): File {
+    val fileName = "${threadDescriptor.siteName()}_${threadDescriptor.boardCode()}_${threadDescriptor.threadNo}"
+      .replace(SNAPSHOT_FILE_NAME_BAD_CHARS_REGEX, "_")
+
+    return File(appConstants.threadPostsSnapshotsDir, "${fileName}.snapshot")
+  }
+
   private fun postDiffersFromCached(chanPost: ChanPost): Boolean {
     val fromCache = if (chanPost is ChanOriginalPost) {
       chanThreadsCache.getOriginalPostFromCache(chanPost.postDescriptor)
@@ -808,4 +1021,8 @@ class ChanPostRepository(
     return false
   }
 
-}
\ No newline at end of file
+  companion object {
+    private val SNAPSHOT_FILE_NAME_BAD_CHARS_REGEX = "[^A-Za-z0-9_.-]".toRegex()
+  }
+
+}
@@ -54,5 +54,13 @@ class ChanSavedReplyRepository(
     }
   }
 
+  suspend fun saveMany(chanSavedReplies: Collection<ChanSavedReply>): ModularResult<Unit> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction localSource.saveMany(chanSavedReplies)
+      }
+    }
+  }
+
   private val TAG = "ChanSavedReplyRepository"
 }
\ No newline at end of file
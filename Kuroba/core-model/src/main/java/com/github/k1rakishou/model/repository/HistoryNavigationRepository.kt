@@ -3,6 +3,7 @@ package com.github.k1rakishou.model.repository
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.navigation.NavHistoryChangeSet
 import com.github.k1rakishou.model.data.navigation.NavHistoryElement
 import com.github.k1rakishou.model.source.local.NavHistoryLocalSource
 import com.github.k1rakishou.model.util.ensureBackgroundThread
@@ -34,14 +35,30 @@ class HistoryNavigationRepository(
   }
 
   @OptIn(ExperimentalTime::class)
-  suspend fun persist(navHistoryStack: List<NavHistoryElement>): ModularResult<Unit> {
+  suspend fun loadPage(offset: Int, count: Int): ModularResult<List<NavHistoryElement>> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        ensureBackgroundThread()
+
+        val (navHistoryElements, duration) = measureTimedValue {
+          return@measureTimedValue localSource.selectPage(offset, count)
+        }
+
+        Logger.d(TAG, "loadPage(${offset}, ${count}) -> ${navHistoryElements.size} took $duration")
+        return@tryWithTransaction navHistoryElements
+      }
+    }
+  }
+
+  @OptIn(ExperimentalTime::class)
+  suspend fun applyChanges(navHistoryChangeSet: NavHistoryChangeSet): ModularResult<Unit> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         val (result, duration) = measureTimedValue {
-          return@measureTimedValue localSource.persist(navHistoryStack)
+          return@measureTimedValue localSource.applyChanges(navHistoryChangeSet)
         }
 
-        Logger.d(TAG, "persist(${navHistoryStack.size}) took $duration")
+        Logger.d(TAG, "applyChanges(${navHistoryChangeSet.javaClass.simpleName}) took $duration")
         return@tryWithTransaction result
       }
     }
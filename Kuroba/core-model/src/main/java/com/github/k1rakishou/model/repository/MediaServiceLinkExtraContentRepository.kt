@@ -1,6 +1,7 @@
 package com.github.k1rakishou.model.repository
 
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.SingleFlight
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.media.GenericVideoId
 import com.github.k1rakishou.model.data.video_service.MediaServiceLinkExtraContent
@@ -11,6 +12,7 @@ import com.github.k1rakishou.model.source.local.MediaServiceLinkExtraContentLoca
 import com.github.k1rakishou.model.source.remote.MediaServiceLinkExtraContentRemoteSource
 import com.github.k1rakishou.model.util.ensureBackgroundThread
 import kotlinx.coroutines.CoroutineScope
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 
 class MediaServiceLinkExtraContentRepository(
@@ -23,6 +25,12 @@ class MediaServiceLinkExtraContentRepository(
   private val TAG = "MediaServiceLinkExtraContentRepository"
   private val alreadyExecuted = AtomicBoolean(false)
 
+  // The same link is often posted many times in the same thread and all those posts get bound at
+  // the same time so we only want to send one request per video.
+  private val singleFlight = SingleFlight<MediaServiceKey, ModularResult<MediaServiceLinkExtraContent>>()
+  // MediaServiceKey -> time (in millis) until which we won't try to fetch it again
+  private val failedRequests = ConcurrentHashMap<MediaServiceKey, Long>()
+
   suspend fun getLinkExtraContent(
     mediaServiceType: MediaServiceType,
     requestUrl: String,
@@ -31,6 +39,27 @@ class MediaServiceLinkExtraContentRepository(
     ensureBackgroundThread()
     val mediaServiceKey = MediaServiceKey(videoId, mediaServiceType)
 
+    if (isRecentlyFailed(mediaServiceKey)) {
+      return ModularResult.error(RecentlyFailedException(mediaServiceKey))
+    }
+
+    return singleFlight.execute(mediaServiceKey) {
+      val result = getLinkExtraContentInternal(mediaServiceKey, requestUrl)
+      if (result is ModularResult.Error) {
+        rememberFailure(mediaServiceKey)
+      }
+
+      return@execute result
+    }
+  }
+
+  private suspend fun getLinkExtraContentInternal(
+    mediaServiceKey: MediaServiceKey,
+    requestUrl: String
+  ): ModularResult<MediaServiceLinkExtraContent> {
+    val videoId = mediaServiceKey.videoId
+    val mediaServiceType = mediaServiceKey.mediaServiceType
+
     return applicationScope.dbCall {
       return@dbCall RepoGenericGetAction.perform(
         tag = TAG,
@@ -112,6 +141,28 @@ class MediaServiceLinkExtraContentRepository(
     }
   }
 
+  private fun isRecentlyFailed(mediaServiceKey: MediaServiceKey): Boolean {
+    val failedUntil = failedRequests[mediaServiceKey]
+      ?: return false
+
+    if (failedUntil > System.currentTimeMillis()) {
+      return true
+    }
+
+    failedRequests.remove(mediaServiceKey, failedUntil)
+    return false
+  }
+
+  private fun rememberFailure(mediaServiceKey: MediaServiceKey) {
+    val now = System.currentTimeMillis()
+
+    if (failedRequests.size >= MAX_FAILED_REQUESTS) {
+      failedRequests.entries.removeAll { (_, failedUntil) -> failedUntil <= now }
+    }
+
+    failedRequests[mediaServiceKey] = now + FAILED_REQUEST_TTL_MS
+  }
+
   private suspend fun mediaServiceLinkExtraContentRepositoryCleanup(): ModularResult<Int> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
@@ -131,4 +182,14 @@ class MediaServiceLinkExtraContentRepository(
     val mediaServiceType: MediaServiceType
   )
 
+  class RecentlyFailedException(mediaServiceKey: MediaServiceKey) : Exception(
+    "Fetching extra content for ${mediaServiceKey.mediaServiceType} ${mediaServiceKey.videoId.id} " +
+      "has recently failed, not retrying yet"
+  )
+
+  companion object {
+    private const val FAILED_REQUEST_TTL_MS = 5 * 60 * 1000L
+    private const val MAX_FAILED_REQUESTS = 512
+  }
+
 }
\ No newline at end of file
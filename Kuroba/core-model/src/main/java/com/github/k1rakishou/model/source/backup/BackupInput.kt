@@ -0,0 +1,102 @@
+package com.github.k1rakishou.model.source.backup
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Reads what [BackupOutput] wrote. [buffer] is exposed for the decoders that work with
+ * [ByteBuffer]s directly.
+ * */
+class BackupInput(val buffer: ByteBuffer) {
+
+  fun hasRemaining(): Boolean = buffer.hasRemaining()
+
+  fun readByte(): Byte = buffer.get()
+
+  fun readBoolean(): Boolean = buffer.get() != 0.toByte()
+
+  fun readVarInt(): Int {
+    val value = readVarLong()
+    if (value < Int.MIN_VALUE || value > Int.MAX_VALUE) {
+      throw IOException("Value $value does not fit into an int")
+    }
+
+    return value.toInt()
+  }
+
+  fun readVarLong(): Long {
+    var zigzag = 0L
+    var shift = 0
+
+    while (true) {
+      if (shift >= Long.SIZE_BITS) {
+        throw IOException("Malformed varint")
+      }
+
+      val byte = buffer.get().toLong()
+      zigzag = zigzag or ((byte and 0x7FL) shl shift)
+
+      if (byte and 0x80L == 0L) {
+        break
+      }
+
+      shift += 7
+    }
+
+    return (zigzag ushr 1) xor -(zigzag and 1L)
+  }
+
+  fun readString(): String {
+    return readNullableString()
+      ?: throw IOException("Unexpected null string")
+  }
+
+  fun readNullableString(): String? {
+    val length = readVarInt()
+    if (length == BackupOutput.NULL_LENGTH) {
+      return null
+    }
+
+    if (length < 0 || length > buffer.remaining()) {
+      throw IOException("Bad string length: $length, remaining: ${buffer.remaining()}")
+    }
+
+    val string = if (buffer.hasArray()) {
+      String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, Charsets.UTF_8)
+    } else {
+      val bytes = ByteArray(length)
+      buffer.duplicate().get(bytes)
+      String(bytes, Charsets.UTF_8)
+    }
+
+    buffer.position(buffer.position() + length)
+    return string
+  }
+
+  fun readBoardDescriptor(): BoardDescriptor {
+    return BoardDescriptor.create(siteName = readString(), boardCodeInput = readString())
+  }
+
+  fun readCatalogDescriptor(): ChanDescriptor.CatalogDescriptor {
+    return ChanDescriptor.CatalogDescriptor.create(readBoardDescriptor())
+  }
+
+  fun readThreadDescriptor(): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create(readBoardDescriptor(), readVarLong())
+  }
+
+  fun readPostDescriptor(): PostDescriptor {
+    val threadDescriptor = readThreadDescriptor()
+
+    return PostDescriptor.create(
+      boardDescriptor = threadDescriptor.boardDescriptor,
+      threadNo = threadDescriptor.threadNo,
+      postNo = readVarLong(),
+      postSubNo = readVarLong()
+    )
+  }
+
+}
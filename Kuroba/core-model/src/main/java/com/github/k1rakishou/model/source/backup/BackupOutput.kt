@@ -0,0 +1,153 @@
+package com.github.k1rakishou.model.source.backup
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import java.io.DataOutputStream
+import java.io.OutputStream
+import java.util.zip.Adler32
+import java.util.zip.CRC32
+
+/**
+ * Growable, not synchronized byte buffer the backup records are encoded into. Numbers are written as
+ * zigzag varints (post numbers and timestamps usually take 4-6 bytes instead of 8), strings as a
+ * varint length followed by UTF-8 bytes.
+ *
+ * Extends [OutputStream] so that the encoders which work with [DataOutputStream] (see [dataOutput])
+ * can write into it directly.
+ * */
+class BackupOutput(initialCapacity: Int = DEFAULT_CAPACITY) : OutputStream() {
+  private var bytes = ByteArray(initialCapacity.coerceAtLeast(MIN_CAPACITY))
+  private var count = 0
+  private val crc32 = CRC32()
+  private val adler32 = Adler32()
+
+  val size: Int
+    get() = count
+
+  val dataOutput: DataOutputStream by lazy(LazyThreadSafetyMode.NONE) { DataOutputStream(this) }
+
+  override fun write(b: Int) {
+    ensureCapacity(count + 1)
+    bytes[count++] = b.toByte()
+  }
+
+  override fun write(b: ByteArray, off: Int, len: Int) {
+    ensureCapacity(count + len)
+    System.arraycopy(b, off, bytes, count, len)
+    count += len
+  }
+
+  fun writeBoolean(value: Boolean) {
+    write(if (value) 1 else 0)
+  }
+
+  fun writeVarInt(value: Int) {
+    writeVarLong(value.toLong())
+  }
+
+  fun writeVarLong(value: Long) {
+    ensureCapacity(count + MAX_VAR_LONG_SIZE)
+
+    var zigzag = (value shl 1) xor (value shr 63)
+    while (zigzag and 0x7FL.inv() != 0L) {
+      bytes[count++] = ((zigzag and 0x7FL) or 0x80L).toByte()
+      zigzag = zigzag ushr 7
+    }
+
+    bytes[count++] = zigzag.toByte()
+  }
+
+  fun writeString(value: String) {
+    val stringBytes = value.toByteArray(Charsets.UTF_8)
+    writeVarInt(stringBytes.size)
+    write(stringBytes, 0, stringBytes.size)
+  }
+
+  /**
+   * Null is encoded as -1 length so nullable strings don't need a separate flag.
+   * */
+  fun writeNullableString(value: String?) {
+    if (value == null) {
+      writeVarInt(NULL_LENGTH)
+      return
+    }
+
+    writeString(value)
+  }
+
+  fun writeBoardDescriptor(boardDescriptor: BoardDescriptor) {
+    writeString(boardDescriptor.siteName())
+    writeString(boardDescriptor.boardCode)
+  }
+
+  fun writeCatalogDescriptor(catalogDescriptor: ChanDescriptor.CatalogDescriptor) {
+    writeBoardDescriptor(catalogDescriptor.boardDescriptor)
+  }
+
+  fun writeThreadDescriptor(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    writeBoardDescriptor(threadDescriptor.boardDescriptor)
+    writeVarLong(threadDescriptor.threadNo)
+  }
+
+  fun writePostDescriptor(postDescriptor: PostDescriptor) {
+    writeThreadDescriptor(postDescriptor.threadDescriptor())
+    writeVarLong(postDescriptor.postNo)
+    writeVarLong(postDescriptor.postSubNo)
+  }
+
+  /**
+   * 64-bit checksum of the bytes written since [fromOffset]. Used to figure out whether a record
+   * changed since the previous backup, two different 32-bit checksums make accidental collisions
+   * practically impossible.
+   * */
+  fun checksum(fromOffset: Int): Long {
+    require(fromOffset in 0..count) { "Bad fromOffset: $fromOffset, size: $count" }
+
+    crc32.reset()
+    crc32.update(bytes, fromOffset, count - fromOffset)
+    adler32.reset()
+    adler32.update(bytes, fromOffset, count - fromOffset)
+
+    return (crc32.value shl 32) or adler32.value
+  }
+
+  fun copyOfRange(fromOffset: Int): ByteArray {
+    return bytes.copyOfRange(fromOffset, count)
+  }
+
+  /**
+   * Drops everything written after [offset].
+   * */
+  fun truncate(offset: Int) {
+    require(offset in 0..count) { "Bad offset: $offset, size: $count" }
+    count = offset
+  }
+
+  fun reset() {
+    count = 0
+  }
+
+  fun writeTo(outputStream: OutputStream) {
+    outputStream.write(bytes, 0, count)
+  }
+
+  internal fun array(): ByteArray = bytes
+
+  private fun ensureCapacity(capacity: Int) {
+    if (capacity <= bytes.size) {
+      return
+    }
+
+    bytes = bytes.copyOf(maxOf(capacity, bytes.size * 2))
+  }
+
+  companion object {
+    private const val DEFAULT_CAPACITY = 64 * 1024
+    private const val MIN_CAPACITY = 16
+    private const val MAX_VAR_LONG_SIZE = 10
+
+    internal const val NULL_LENGTH = -1
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.github.k1rakishou.model.source.backup
+
+/**
+ * Encodes records of one [LogicalBackup.Section]. The encoding must be deterministic (the same
+ * record is always encoded into the same bytes) since the checksums of the encoded records are used
+ * to find out which records changed since the previous backup.
+ * */
+interface BackupRecordCodec<T : Any> {
+  val section: LogicalBackup.Section
+
+  fun write(output: BackupOutput, record: T)
+  fun read(input: BackupInput): T
+}
+
+/**
+ * Codec of a [LogicalBackup.Section.keyed] section. The key identifies a record between backups
+ * (e.g. the thread of a bookmark) and is also used to record the deletions in incremental backups.
+ * */
+interface KeyedBackupRecordCodec<T : Any, K : Any> : BackupRecordCodec<T> {
+  fun keyOf(record: T): K
+
+  fun writeKey(output: BackupOutput, key: K)
+  fun readKey(input: BackupInput): K
+}
@@ -0,0 +1,78 @@
+package com.github.k1rakishou.model.source.backup
+
+/**
+ * Logical backup of the user data (filters, bookmarks, saved replies, navigation history and,
+ * optionally, posts of the bookmarked threads). Unlike the zip backup it doesn't contain the raw
+ * database files so it can be restored on top of the existing data (records are upserted) and it can
+ * be incremental (only the records that changed since the previous backup, see
+ * [LogicalBackupManifest]).
+ *
+ * File layout (big-endian):
+ *  - header: magic (int), version (int), createdOn (long), baseCreatedOn (long)
+ *  - chunks: section id (byte), chunk type (byte), records count (int), size (int), compressed size
+ *  (int), deflated records. A chunk contains records of one section only, every chunk is a batch of
+ *  records that is restored at once.
+ *  - end marker: [END_OF_CHUNKS] section id.
+ *
+ * Records are encoded with [BackupRecordCodec]s. Chunks of unknown sections are skipped so that
+ * sections can be added without breaking the older readers.
+ * */
+object LogicalBackup {
+  const val MAGIC = 0x4B4C424B // "KLBK"
+  const val VERSION = 1
+
+  const val END_OF_CHUNKS = 0
+  const val NO_BASE_BACKUP = 0L
+
+  const val HEADER_SIZE = Int.SIZE_BYTES + Int.SIZE_BYTES + Long.SIZE_BYTES + Long.SIZE_BYTES
+  const val CHUNK_HEADER_SIZE = 1 + 1 + Int.SIZE_BYTES + Int.SIZE_BYTES + Int.SIZE_BYTES
+
+  /**
+   * Records of [keyed] sections are exported one by one in incremental backups (only the new and
+   * changed ones plus the keys of the deleted ones). Sections that are not keyed are small and
+   * their order matters so they are either exported as a whole or not at all.
+   *
+   * Do not change the ids!
+   * */
+  enum class Section(val id: Int, val keyed: Boolean) {
+    Filters(1, keyed = false),
+    Bookmarks(2, keyed = true),
+    SavedReplies(3, keyed = true),
+    NavHistory(4, keyed = false),
+    ThreadPosts(5, keyed = true);
+
+    companion object {
+      fun fromId(id: Int): Section? {
+        return values().firstOrNull { section -> section.id == id }
+      }
+    }
+  }
+
+  enum class ChunkType(val value: Int) {
+    Records(0),
+    DeletedKeys(1);
+
+    companion object {
+      fun fromValue(value: Int): ChunkType? {
+        return values().firstOrNull { chunkType -> chunkType.value == value }
+      }
+    }
+  }
+
+  class Header(
+    val version: Int,
+    val createdOn: Long,
+    /**
+     * [createdOn] of the backup this incremental backup was made on top of or [NO_BASE_BACKUP].
+     * */
+    val baseCreatedOn: Long
+  ) {
+    val incremental: Boolean
+      get() = baseCreatedOn != NO_BASE_BACKUP
+
+    override fun toString(): String {
+      return "Header(version=$version, createdOn=$createdOn, baseCreatedOn=$baseCreatedOn)"
+    }
+  }
+
+}
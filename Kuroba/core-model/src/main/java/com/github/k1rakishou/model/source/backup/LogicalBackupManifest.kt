@@ -0,0 +1,127 @@
+package com.github.k1rakishou.model.source.backup
+
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+
+/**
+ * Checksums of every record (by its encoded key) of the last exported backup. Stored locally after
+ * every export, the next incremental export only writes the records which checksums differ and the
+ * keys of the records that are not there anymore.
+ *
+ * Sections that are not keyed have one entry with [WHOLE_SECTION_KEY].
+ * */
+class LogicalBackupManifest(
+  val createdOn: Long,
+  private val sections: Map<LogicalBackup.Section, Map<ByteString, Long>>
+) {
+
+  val recordsCount: Int
+    get() = sections.values.sumOf { checksums -> checksums.size }
+
+  fun hasSection(section: LogicalBackup.Section): Boolean {
+    return sections.containsKey(section)
+  }
+
+  fun checksums(section: LogicalBackup.Section): Map<ByteString, Long> {
+    return sections[section] ?: emptyMap()
+  }
+
+  internal fun sections(): Map<LogicalBackup.Section, Map<ByteString, Long>> = sections
+
+  override fun toString(): String {
+    return "LogicalBackupManifest(createdOn=$createdOn, sections=${sections.mapValues { (_, checksums) -> checksums.size }})"
+  }
+
+  companion object {
+    private const val MAGIC = 0x4B4C424D // "KLBM"
+    private const val VERSION = 1
+
+    val WHOLE_SECTION_KEY: ByteString = ByteString.EMPTY
+
+    @Throws(IOException::class)
+    fun write(manifestFile: File, manifest: LogicalBackupManifest) {
+      val tempFile = File(manifestFile.parentFile, "${manifestFile.name}.tmp")
+
+      DataOutputStream(tempFile.outputStream().buffered()).use { outputStream ->
+        outputStream.writeInt(MAGIC)
+        outputStream.writeInt(VERSION)
+        outputStream.writeLong(manifest.createdOn)
+        outputStream.writeInt(manifest.sections.size)
+
+        manifest.sections.forEach { (section, checksums) ->
+          outputStream.writeInt(section.id)
+          outputStream.writeInt(checksums.size)
+
+          checksums.forEach { (key, checksum) ->
+            outputStream.writeInt(key.size)
+            key.write(outputStream)
+            outputStream.writeLong(checksum)
+          }
+        }
+      }
+
+      if (!tempFile.renameTo(manifestFile)) {
+        tempFile.delete()
+        throw IOException("Failed to rename '${tempFile.absolutePath}' into '${manifestFile.absolutePath}'")
+      }
+    }
+
+    /**
+     * Returns null when there is no manifest or it was written by a different version of the app,
+     * in which case the next backup must be a full one.
+     * */
+    @Throws(IOException::class)
+    fun read(manifestFile: File): LogicalBackupManifest? {
+      if (!manifestFile.exists()) {
+        return null
+      }
+
+      return DataInputStream(manifestFile.inputStream().buffered()).use { inputStream ->
+        try {
+          if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+            return@use null
+          }
+
+          val createdOn = inputStream.readLong()
+          val sectionsCount = inputStream.readInt()
+          val sections = mutableMapOf<LogicalBackup.Section, Map<ByteString, Long>>()
+
+          repeat(sectionsCount) {
+            val section = LogicalBackup.Section.fromId(inputStream.readInt())
+              ?: return@use null
+            val entriesCount = inputStream.readInt()
+            if (entriesCount < 0) {
+              return@use null
+            }
+
+            val checksums = HashMap<ByteString, Long>(entriesCount * 2)
+
+            repeat(entriesCount) {
+              val keySize = inputStream.readInt()
+              if (keySize < 0) {
+                return@use null
+              }
+
+              val keyBytes = ByteArray(keySize)
+              inputStream.readFully(keyBytes)
+
+              checksums[keyBytes.toByteString()] = inputStream.readLong()
+            }
+
+            sections[section] = checksums
+          }
+
+          return@use LogicalBackupManifest(createdOn, sections)
+        } catch (error: EOFException) {
+          return@use null
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+package com.github.k1rakishou.model.source.backup
+
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+
+/**
+ * Reads a [LogicalBackup] written by [LogicalBackupWriter] one chunk at a time so that it can be
+ * restored in batches without loading the whole backup into memory.
+ * */
+class LogicalBackupReader(inputStream: InputStream) : Closeable {
+  private val dataInputStream = DataInputStream(inputStream.buffered(INPUT_BUFFER_SIZE))
+  private val inflater = Inflater(true)
+
+  private var compressedBuffer = ByteArray(LogicalBackupWriter.DEFAULT_CHUNK_SIZE)
+  private var chunkBuffer = ByteArray(LogicalBackupWriter.DEFAULT_CHUNK_SIZE * 2)
+  private var endReached = false
+
+  val header: LogicalBackup.Header
+
+  init {
+    val magic = readHeaderInt()
+    if (magic != LogicalBackup.MAGIC) {
+      throw IOException("Not a backup file (magic=${Integer.toHexString(magic)})")
+    }
+
+    val version = readHeaderInt()
+    if (version > LogicalBackup.VERSION) {
+      throw IOException("Backup was written by a newer version of the app (version=$version)")
+    }
+
+    header = LogicalBackup.Header(
+      version = version,
+      createdOn = dataInputStream.readLong(),
+      baseCreatedOn = dataInputStream.readLong()
+    )
+  }
+
+  /**
+   * Returns null once all the chunks were read. The returned chunk is only valid until the next call
+   * since the buffer it's decoded into is reused. Chunks of unknown sections or types are returned
+   * with null [Chunk.section] or [Chunk.chunkType] and must be ignored.
+   * */
+  @Throws(IOException::class)
+  fun nextChunk(): Chunk? {
+    if (endReached) {
+      return null
+    }
+
+    val sectionId = dataInputStream.readUnsignedByte()
+    if (sectionId == LogicalBackup.END_OF_CHUNKS) {
+      endReached = true
+      return null
+    }
+
+    val chunkTypeValue = dataInputStream.readUnsignedByte()
+    val recordsCount = dataInputStream.readInt()
+    val size = dataInputStream.readInt()
+    val compressedSize = dataInputStream.readInt()
+
+    if (recordsCount <= 0 || size !in 0..MAX_CHUNK_SIZE || compressedSize !in 0..MAX_CHUNK_SIZE) {
+      throw IOException("Corrupted chunk (recordsCount=$recordsCount, size=$size, compressedSize=$compressedSize)")
+    }
+
+    if (compressedBuffer.size < compressedSize) {
+      compressedBuffer = ByteArray(compressedSize)
+    }
+
+    dataInputStream.readFully(compressedBuffer, 0, compressedSize)
+
+    if (chunkBuffer.size < size) {
+      chunkBuffer = ByteArray(size)
+    }
+
+    inflateChunk(compressedSize, size)
+
+    return Chunk(
+      section = LogicalBackup.Section.fromId(sectionId),
+      chunkType = LogicalBackup.ChunkType.fromValue(chunkTypeValue),
+      recordsCount = recordsCount,
+      buffer = ByteBuffer.wrap(chunkBuffer, 0, size)
+    )
+  }
+
+  override fun close() {
+    inflater.end()
+    dataInputStream.close()
+  }
+
+  private fun inflateChunk(compressedSize: Int, size: Int) {
+    inflater.reset()
+    inflater.setInput(compressedBuffer, 0, compressedSize)
+
+    try {
+      var inflated = 0
+
+      while (inflated < size) {
+        val count = inflater.inflate(chunkBuffer, inflated, size - inflated)
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          break
+        }
+
+        inflated += count
+      }
+
+      if (inflated != size) {
+        throw IOException("Corrupted chunk (expected $size bytes, got $inflated)")
+      }
+    } catch (error: DataFormatException) {
+      throw IOException("Corrupted chunk", error)
+    }
+  }
+
+  private fun readHeaderInt(): Int {
+    try {
+      return dataInputStream.readInt()
+    } catch (error: EOFException) {
+      throw IOException("Not a backup file (too short)", error)
+    }
+  }
+
+  class Chunk(
+    val section: LogicalBackup.Section?,
+    val chunkType: LogicalBackup.ChunkType?,
+    val recordsCount: Int,
+    private val buffer: ByteBuffer
+  ) {
+
+    fun <T : Any> readRecords(codec: BackupRecordCodec<T>): List<T> {
+      check(section == codec.section) { "Chunk of section $section cannot be read with ${codec.section} codec" }
+      check(chunkType == LogicalBackup.ChunkType.Records) { "Not a records chunk: $chunkType" }
+
+      return readAll { input -> codec.read(input) }
+    }
+
+    fun <K : Any> readDeletedKeys(codec: KeyedBackupRecordCodec<*, K>): List<K> {
+      check(section == codec.section) { "Chunk of section $section cannot be read with ${codec.section} codec" }
+      check(chunkType == LogicalBackup.ChunkType.DeletedKeys) { "Not a deleted keys chunk: $chunkType" }
+
+      return readAll { input -> codec.readKey(input) }
+    }
+
+    private inline fun <T> readAll(read: (BackupInput) -> T): List<T> {
+      val input = BackupInput(buffer.duplicate())
+      val result = ArrayList<T>(recordsCount)
+
+      try {
+        repeat(recordsCount) { result += read(input) }
+      } catch (error: RuntimeException) {
+        // BufferUnderflowException, IllegalArgumentException from the models, etc.
+        throw IOException("Failed to decode a record of section $section", error)
+      }
+
+      if (input.hasRemaining()) {
+        throw IOException("Chunk of section $section has ${input.buffer.remaining()} trailing bytes")
+      }
+
+      return result
+    }
+  }
+
+  companion object {
+    private const val INPUT_BUFFER_SIZE = 32 * 1024
+    private const val MAX_CHUNK_SIZE = 64 * 1024 * 1024
+  }
+
+}
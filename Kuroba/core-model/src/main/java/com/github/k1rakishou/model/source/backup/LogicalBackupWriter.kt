@@ -0,0 +1,283 @@
+package com.github.k1rakishou.model.source.backup
+
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.zip.Deflater
+
+/**
+ * Streams a [LogicalBackup] into [outputStream]. Records are encoded into an in-memory chunk which is
+ * deflated and written out once it's bigger than [chunkSize] so the memory usage doesn't depend on
+ * the size of the backup.
+ *
+ * When [previousManifest] is not null the backup is incremental: records which checksums are the
+ * same as in [previousManifest] are skipped and the keys of the records that are not there anymore
+ * are written as [LogicalBackup.ChunkType.DeletedKeys] chunks.
+ *
+ * Usage: [writeSection] and/or [beginSection] for every section then [finish] which returns the
+ * manifest of this backup (that needs to be stored for the next incremental backup). Not
+ * thread-safe, only one section can be written at a time.
+ * */
+class LogicalBackupWriter(
+  outputStream: OutputStream,
+  private val createdOn: Long,
+  private val previousManifest: LogicalBackupManifest? = null,
+  compressionLevel: Int = Deflater.BEST_SPEED,
+  private val chunkSize: Int = DEFAULT_CHUNK_SIZE
+) : Closeable {
+  private val dataOutputStream = DataOutputStream(outputStream.buffered(OUTPUT_BUFFER_SIZE))
+  private val deflater = Deflater(compressionLevel, true)
+  private val chunk = BackupOutput(chunkSize + chunkSize / 4)
+  private val keyOutput = BackupOutput(KEY_BUFFER_SIZE)
+  private val newManifestSections = mutableMapOf<LogicalBackup.Section, Map<ByteString, Long>>()
+
+  private var compressedBuffer = ByteArray(chunkSize)
+  private var currentSectionWriter: SectionWriter<*, *>? = null
+  private var finished = false
+
+  val stats = Stats()
+
+  init {
+    dataOutputStream.writeInt(LogicalBackup.MAGIC)
+    dataOutputStream.writeInt(LogicalBackup.VERSION)
+    dataOutputStream.writeLong(createdOn)
+    dataOutputStream.writeLong(previousManifest?.createdOn ?: LogicalBackup.NO_BASE_BACKUP)
+  }
+
+  /**
+   * Writes a section that is not keyed. The whole section is skipped when nothing in it changed
+   * since the previous backup. Returns true when the section was written.
+   * */
+  @Throws(IOException::class)
+  fun <T : Any> writeSection(codec: BackupRecordCodec<T>, records: List<T>): Boolean {
+    val section = codec.section
+    check(!section.keyed) { "Section $section is keyed, use beginSection()" }
+    checkCanWrite(section)
+
+    val sectionOutput = BackupOutput()
+    val recordEndOffsets = IntArray(records.size)
+
+    records.forEachIndexed { index, record ->
+      codec.write(sectionOutput, record)
+      recordEndOffsets[index] = sectionOutput.size
+    }
+
+    val checksum = sectionOutput.checksum(0)
+    newManifestSections[section] = mapOf(LogicalBackupManifest.WHOLE_SECTION_KEY to checksum)
+
+    val previousChecksum = previousManifest
+      ?.checksums(section)
+      ?.get(LogicalBackupManifest.WHOLE_SECTION_KEY)
+
+    if (previousChecksum == checksum) {
+      stats.skippedRecords += records.size
+      return false
+    }
+
+    val sectionBytes = sectionOutput.array()
+    var recordStartOffset = 0
+    var recordsInChunk = 0
+
+    for (recordEndOffset in recordEndOffsets) {
+      chunk.write(sectionBytes, recordStartOffset, recordEndOffset - recordStartOffset)
+      recordStartOffset = recordEndOffset
+      ++recordsInChunk
+
+      if (chunk.size >= chunkSize) {
+        flushChunk(section, LogicalBackup.ChunkType.Records, recordsInChunk)
+        recordsInChunk = 0
+      }
+    }
+
+    flushChunk(section, LogicalBackup.ChunkType.Records, recordsInChunk)
+    stats.writtenRecords += records.size
+
+    return true
+  }
+
+  /**
+   * Starts a keyed section, the records are streamed via [SectionWriter.write] (so that they don't
+   * have to be loaded all at once) and the section must be closed with [SectionWriter.finish] before
+   * the next one is started.
+   * */
+  fun <T : Any, K : Any> beginSection(codec: KeyedBackupRecordCodec<T, K>): SectionWriter<T, K> {
+    check(codec.section.keyed) { "Section ${codec.section} is not keyed, use writeSection()" }
+    checkCanWrite(codec.section)
+
+    val sectionWriter = SectionWriter(codec)
+    currentSectionWriter = sectionWriter
+
+    return sectionWriter
+  }
+
+  /**
+   * Writes the end marker and returns the manifest of this backup. Sections that were not written
+   * this time keep their entries from the previous manifest (they are still in the previous backups).
+   * */
+  @Throws(IOException::class)
+  fun finish(): LogicalBackupManifest {
+    check(currentSectionWriter == null) { "Section ${currentSectionWriter?.section} is not finished" }
+    check(!finished) { "Already finished" }
+
+    dataOutputStream.writeByte(LogicalBackup.END_OF_CHUNKS)
+    dataOutputStream.flush()
+    finished = true
+
+    val sections = mutableMapOf<LogicalBackup.Section, Map<ByteString, Long>>()
+    previousManifest?.sections()?.let { previousSections -> sections.putAll(previousSections) }
+    sections.putAll(newManifestSections)
+
+    return LogicalBackupManifest(createdOn, sections)
+  }
+
+  override fun close() {
+    deflater.end()
+    dataOutputStream.close()
+  }
+
+  private fun checkCanWrite(section: LogicalBackup.Section) {
+    check(!finished) { "Already finished" }
+    check(currentSectionWriter == null) { "Section ${currentSectionWriter?.section} is not finished" }
+    check(!newManifestSections.containsKey(section)) { "Section $section was already written" }
+  }
+
+  private fun flushChunk(section: LogicalBackup.Section, chunkType: LogicalBackup.ChunkType, recordsCount: Int) {
+    if (recordsCount == 0) {
+      chunk.reset()
+      return
+    }
+
+    val compressedSize = deflateChunk()
+
+    dataOutputStream.writeByte(section.id)
+    dataOutputStream.writeByte(chunkType.value)
+    dataOutputStream.writeInt(recordsCount)
+    dataOutputStream.writeInt(chunk.size)
+    dataOutputStream.writeInt(compressedSize)
+    dataOutputStream.write(compressedBuffer, 0, compressedSize)
+
+    stats.chunks++
+    stats.rawBytes += chunk.size
+    stats.compressedBytes += compressedSize + LogicalBackup.CHUNK_HEADER_SIZE
+
+    chunk.reset()
+  }
+
+  private fun deflateChunk(): Int {
+    deflater.reset()
+    deflater.setInput(chunk.array(), 0, chunk.size)
+    deflater.finish()
+
+    var compressedSize = 0
+
+    while (!deflater.finished()) {
+      if (compressedSize == compressedBuffer.size) {
+        compressedBuffer = compressedBuffer.copyOf(compressedBuffer.size * 2)
+      }
+
+      compressedSize += deflater.deflate(compressedBuffer, compressedSize, compressedBuffer.size - compressedSize)
+    }
+
+    return compressedSize
+  }
+
+  inner class SectionWriter<T : Any, K : Any> internal constructor(
+    private val codec: KeyedBackupRecordCodec<T, K>
+  ) {
+    private val previousChecksums = previousManifest?.checksums(codec.section) ?: emptyMap()
+    private val checksums = HashMap<ByteString, Long>()
+    private var recordsInChunk = 0
+    private var sectionFinished = false
+
+    val section: LogicalBackup.Section
+      get() = codec.section
+
+    /**
+     * Returns false when the record was skipped because it didn't change since the previous backup.
+     * */
+    @Throws(IOException::class)
+    fun write(record: T): Boolean {
+      check(!sectionFinished) { "Section $section is already finished" }
+
+      keyOutput.reset()
+      codec.writeKey(keyOutput, codec.keyOf(record))
+      val key = keyOutput.copyOfRange(0).toByteString()
+
+      val recordStartOffset = chunk.size
+      codec.write(chunk, record)
+      val checksum = chunk.checksum(recordStartOffset)
+
+      check(checksums.put(key, checksum) == null) { "Duplicate key in section $section: ${codec.keyOf(record)}" }
+
+      if (previousChecksums[key] == checksum) {
+        chunk.truncate(recordStartOffset)
+        stats.skippedRecords++
+        return false
+      }
+
+      ++recordsInChunk
+      stats.writtenRecords++
+
+      if (chunk.size >= chunkSize) {
+        flushChunk(section, LogicalBackup.ChunkType.Records, recordsInChunk)
+        recordsInChunk = 0
+      }
+
+      return true
+    }
+
+    @Throws(IOException::class)
+    fun finish() {
+      check(!sectionFinished) { "Section $section is already finished" }
+
+      flushChunk(section, LogicalBackup.ChunkType.Records, recordsInChunk)
+      recordsInChunk = 0
+
+      previousChecksums.keys.forEach { key ->
+        if (checksums.containsKey(key)) {
+          return@forEach
+        }
+
+        key.write(chunk)
+        ++recordsInChunk
+        stats.deletedKeys++
+
+        if (chunk.size >= chunkSize) {
+          flushChunk(section, LogicalBackup.ChunkType.DeletedKeys, recordsInChunk)
+          recordsInChunk = 0
+        }
+      }
+
+      flushChunk(section, LogicalBackup.ChunkType.DeletedKeys, recordsInChunk)
+
+      newManifestSections[section] = checksums
+      currentSectionWriter = null
+      sectionFinished = true
+    }
+  }
+
+  class Stats {
+    var writtenRecords = 0
+    var skippedRecords = 0
+    var deletedKeys = 0
+    var chunks = 0
+    var rawBytes = 0L
+    var compressedBytes = 0L
+
+    override fun toString(): String {
+      return "Stats(writtenRecords=$writtenRecords, skippedRecords=$skippedRecords, deletedKeys=$deletedKeys, " +
+        "chunks=$chunks, rawBytes=$rawBytes, compressedBytes=$compressedBytes)"
+    }
+  }
+
+  companion object {
+    const val DEFAULT_CHUNK_SIZE = 64 * 1024
+
+    private const val OUTPUT_BUFFER_SIZE = 32 * 1024
+    private const val KEY_BUFFER_SIZE = 256
+  }
+
+}
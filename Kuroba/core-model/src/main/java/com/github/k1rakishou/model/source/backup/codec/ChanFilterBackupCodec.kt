@@ -0,0 +1,70 @@
+package com.github.k1rakishou.model.source.backup.codec
+
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.source.backup.BackupInput
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.BackupRecordCodec
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+
+/**
+ * Filters are written in the order they are shown to the user, the database id is not written
+ * since it's meaningless in a different database.
+ * */
+object ChanFilterBackupCodec : BackupRecordCodec<ChanFilter> {
+  private const val FLAG_ENABLED = 1 shl 0
+  private const val FLAG_APPLY_TO_REPLIES = 1 shl 1
+  private const val FLAG_ONLY_ON_OP = 1 shl 2
+  private const val FLAG_APPLY_TO_SAVED = 1 shl 3
+  private const val FLAG_APPLY_TO_EMPTY_COMMENTS = 1 shl 4
+  private const val FLAG_FILTER_WATCH_NOTIFY = 1 shl 5
+
+  override val section: LogicalBackup.Section = LogicalBackup.Section.Filters
+
+  override fun write(output: BackupOutput, record: ChanFilter) {
+    var flags = 0
+    if (record.enabled) flags = flags or FLAG_ENABLED
+    if (record.applyToReplies) flags = flags or FLAG_APPLY_TO_REPLIES
+    if (record.onlyOnOP) flags = flags or FLAG_ONLY_ON_OP
+    if (record.applyToSaved) flags = flags or FLAG_APPLY_TO_SAVED
+    if (record.applyToEmptyComments) flags = flags or FLAG_APPLY_TO_EMPTY_COMMENTS
+    if (record.filterWatchNotify) flags = flags or FLAG_FILTER_WATCH_NOTIFY
+
+    output.writeVarInt(flags)
+    output.writeVarInt(record.type)
+    output.writeNullableString(record.pattern)
+    output.writeVarInt(record.action)
+    output.writeVarInt(record.color)
+    output.writeNullableString(record.note)
+
+    // Sorted so that the same set of boards is always encoded the same way
+    val boards = record.boards.sortedWith(compareBy({ it.siteName() }, { it.boardCode }))
+    output.writeVarInt(boards.size)
+    boards.forEach { boardDescriptor -> output.writeBoardDescriptor(boardDescriptor) }
+  }
+
+  override fun read(input: BackupInput): ChanFilter {
+    val flags = input.readVarInt()
+    val type = input.readVarInt()
+    val pattern = input.readNullableString()
+    val action = input.readVarInt()
+    val color = input.readVarInt()
+    val note = input.readNullableString()
+    val boards = List(input.readVarInt()) { input.readBoardDescriptor() }.toSet()
+
+    return ChanFilter(
+      enabled = flags and FLAG_ENABLED != 0,
+      type = type,
+      pattern = pattern,
+      boards = boards,
+      action = action,
+      color = color,
+      note = note,
+      applyToReplies = flags and FLAG_APPLY_TO_REPLIES != 0,
+      onlyOnOP = flags and FLAG_ONLY_ON_OP != 0,
+      applyToSaved = flags and FLAG_APPLY_TO_SAVED != 0,
+      applyToEmptyComments = flags and FLAG_APPLY_TO_EMPTY_COMMENTS != 0,
+      filterWatchNotify = flags and FLAG_FILTER_WATCH_NOTIFY != 0
+    )
+  }
+
+}
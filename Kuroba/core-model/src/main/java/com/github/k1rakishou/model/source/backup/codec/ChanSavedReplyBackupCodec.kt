@@ -0,0 +1,43 @@
+package com.github.k1rakishou.model.source.backup.codec
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.source.backup.BackupInput
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.KeyedBackupRecordCodec
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+import org.joda.time.DateTime
+
+object ChanSavedReplyBackupCodec : KeyedBackupRecordCodec<ChanSavedReply, PostDescriptor> {
+
+  override val section: LogicalBackup.Section = LogicalBackup.Section.SavedReplies
+
+  override fun keyOf(record: ChanSavedReply): PostDescriptor = record.postDescriptor
+
+  override fun writeKey(output: BackupOutput, key: PostDescriptor) {
+    output.writePostDescriptor(key)
+  }
+
+  override fun readKey(input: BackupInput): PostDescriptor {
+    return input.readPostDescriptor()
+  }
+
+  override fun write(output: BackupOutput, record: ChanSavedReply) {
+    output.writePostDescriptor(record.postDescriptor)
+    output.writeNullableString(record.comment)
+    output.writeNullableString(record.subject)
+    output.writeNullableString(record.password)
+    output.writeVarLong(record.createdOn.millis)
+  }
+
+  override fun read(input: BackupInput): ChanSavedReply {
+    return ChanSavedReply(
+      postDescriptor = input.readPostDescriptor(),
+      comment = input.readNullableString(),
+      subject = input.readNullableString(),
+      password = input.readNullableString(),
+      createdOn = DateTime(input.readVarLong())
+    )
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.github.k1rakishou.model.source.backup.codec
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.navigation.NavHistoryElement
+import com.github.k1rakishou.model.data.navigation.NavHistoryElementInfo
+import com.github.k1rakishou.model.source.backup.BackupInput
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.BackupRecordCodec
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import java.io.IOException
+
+/**
+ * Navigation history elements, written in the order of the navigation history stack.
+ * */
+object NavHistoryElementBackupCodec : BackupRecordCodec<NavHistoryElement> {
+  private const val TYPE_CATALOG = 0
+  private const val TYPE_THREAD = 1
+  private const val TYPE_COMPOSITE_CATALOG = 2
+
+  override val section: LogicalBackup.Section = LogicalBackup.Section.NavHistory
+
+  override fun write(output: BackupOutput, record: NavHistoryElement) {
+    when (record) {
+      is NavHistoryElement.Catalog -> {
+        output.writeVarInt(TYPE_CATALOG)
+        output.writeCatalogDescriptor(record.descriptor)
+      }
+      is NavHistoryElement.Thread -> {
+        output.writeVarInt(TYPE_THREAD)
+        output.writeThreadDescriptor(record.descriptor)
+      }
+      is NavHistoryElement.CompositeCatalog -> {
+        output.writeVarInt(TYPE_COMPOSITE_CATALOG)
+        output.writeVarInt(record.descriptor.catalogDescriptors.size)
+        record.descriptor.catalogDescriptors.forEach { catalogDescriptor ->
+          output.writeCatalogDescriptor(catalogDescriptor)
+        }
+      }
+    }
+
+    val navHistoryElementInfo = record.navHistoryElementInfo
+    output.writeString(navHistoryElementInfo.thumbnailUrl.toString())
+    output.writeString(navHistoryElementInfo.title)
+    output.writeBoolean(navHistoryElementInfo.pinned)
+  }
+
+  override fun read(input: BackupInput): NavHistoryElement {
+    val type = input.readVarInt()
+
+    val descriptor = when (type) {
+      TYPE_CATALOG -> input.readCatalogDescriptor()
+      TYPE_THREAD -> input.readThreadDescriptor()
+      TYPE_COMPOSITE_CATALOG -> {
+        val catalogDescriptors = List(input.readVarInt()) { input.readCatalogDescriptor() }
+        ChanDescriptor.CompositeCatalogDescriptor.create(catalogDescriptors)
+      }
+      else -> throw IOException("Unknown nav history element type: $type")
+    }
+
+    val navHistoryElementInfo = NavHistoryElementInfo(
+      thumbnailUrl = input.readString().toHttpUrl(),
+      title = input.readString(),
+      pinned = input.readBoolean()
+    )
+
+    return when (descriptor) {
+      is ChanDescriptor.CatalogDescriptor -> NavHistoryElement.Catalog(descriptor, navHistoryElementInfo)
+      is ChanDescriptor.ThreadDescriptor -> NavHistoryElement.Thread(descriptor, navHistoryElementInfo)
+      is ChanDescriptor.CompositeCatalogDescriptor -> {
+        NavHistoryElement.CompositeCatalog(descriptor, navHistoryElementInfo)
+      }
+    }
+  }
+
+}
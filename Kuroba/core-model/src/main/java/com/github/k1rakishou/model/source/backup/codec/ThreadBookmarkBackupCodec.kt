@@ -0,0 +1,123 @@
+package com.github.k1rakishou.model.source.backup.codec
+
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmark
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkReply
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.source.backup.BackupInput
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.KeyedBackupRecordCodec
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import org.joda.time.DateTime
+import java.util.*
+
+/**
+ * Bookmark with its replies. Only what is persisted in the database is written (the sticky state
+ * is not persisted and is restored by the next bookmark fetch). Replies always belong to the
+ * bookmarked thread so only their post numbers are written.
+ * */
+object ThreadBookmarkBackupCodec : KeyedBackupRecordCodec<ThreadBookmark, ChanDescriptor.ThreadDescriptor> {
+  private const val REPLY_FLAG_NOTIFIED = 1 shl 0
+  private const val REPLY_FLAG_SEEN = 1 shl 1
+  private const val REPLY_FLAG_READ = 1 shl 2
+
+  override val section: LogicalBackup.Section = LogicalBackup.Section.Bookmarks
+
+  override fun keyOf(record: ThreadBookmark): ChanDescriptor.ThreadDescriptor = record.threadDescriptor
+
+  override fun writeKey(output: BackupOutput, key: ChanDescriptor.ThreadDescriptor) {
+    output.writeThreadDescriptor(key)
+  }
+
+  override fun readKey(input: BackupInput): ChanDescriptor.ThreadDescriptor {
+    return input.readThreadDescriptor()
+  }
+
+  override fun write(output: BackupOutput, record: ThreadBookmark) {
+    output.writeThreadDescriptor(record.threadDescriptor)
+    output.writeVarInt(record.seenPostsCount)
+    output.writeVarInt(record.threadRepliesCount)
+    output.writeVarLong(record.lastViewedPostNo)
+    output.writeVarLong(record.threadLastPostNo)
+    output.writeNullableString(record.title)
+    output.writeNullableString(record.thumbnailUrl?.toString())
+    output.writeVarLong(record.createdOn.millis)
+
+    val stateWords = record.state.toLongArray()
+    output.writeVarInt(stateWords.size)
+    stateWords.forEach { stateWord -> output.writeVarLong(stateWord) }
+
+    // Sorted so that the same replies are always encoded the same way
+    val replies = record.threadBookmarkReplies.values.sortedBy { reply -> reply.postDescriptor }
+    output.writeVarInt(replies.size)
+
+    replies.forEach { reply ->
+      var flags = 0
+      if (reply.alreadyNotified) flags = flags or REPLY_FLAG_NOTIFIED
+      if (reply.alreadySeen) flags = flags or REPLY_FLAG_SEEN
+      if (reply.alreadyRead) flags = flags or REPLY_FLAG_READ
+
+      output.writeVarLong(reply.postDescriptor.postNo)
+      output.writeVarLong(reply.postDescriptor.postSubNo)
+      output.writeVarLong(reply.repliesTo.postNo)
+      output.writeVarLong(reply.repliesTo.postSubNo)
+      output.writeVarInt(flags)
+      output.writeVarLong(reply.time.millis)
+      output.writeNullableString(reply.commentRaw)
+    }
+  }
+
+  override fun read(input: BackupInput): ThreadBookmark {
+    val threadDescriptor = input.readThreadDescriptor()
+    val seenPostsCount = input.readVarInt()
+    val threadRepliesCount = input.readVarInt()
+    val lastViewedPostNo = input.readVarLong()
+    val threadLastPostNo = input.readVarLong()
+    val title = input.readNullableString()
+    val thumbnailUrl = input.readNullableString()?.toHttpUrlOrNull()
+    val createdOn = DateTime(input.readVarLong())
+    val state = BitSet.valueOf(LongArray(input.readVarInt()) { input.readVarLong() })
+
+    val threadBookmark = ThreadBookmark.create(threadDescriptor, createdOn).apply {
+      this.seenPostsCount = seenPostsCount
+      this.threadRepliesCount = threadRepliesCount
+      this.lastViewedPostNo = lastViewedPostNo
+      this.threadLastPostNo = threadLastPostNo
+      this.title = title
+      this.thumbnailUrl = thumbnailUrl
+      this.state = state
+    }
+
+    repeat(input.readVarInt()) {
+      val postDescriptor = readThreadPostDescriptor(input, threadDescriptor)
+      val repliesTo = readThreadPostDescriptor(input, threadDescriptor)
+      val flags = input.readVarInt()
+
+      threadBookmark.threadBookmarkReplies[postDescriptor] = ThreadBookmarkReply(
+        postDescriptor = postDescriptor,
+        repliesTo = repliesTo,
+        alreadyNotified = flags and REPLY_FLAG_NOTIFIED != 0,
+        alreadySeen = flags and REPLY_FLAG_SEEN != 0,
+        alreadyRead = flags and REPLY_FLAG_READ != 0,
+        time = DateTime(input.readVarLong()),
+        commentRaw = input.readNullableString()
+      )
+    }
+
+    return threadBookmark
+  }
+
+  private fun readThreadPostDescriptor(
+    input: BackupInput,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): PostDescriptor {
+    return PostDescriptor.create(
+      boardDescriptor = threadDescriptor.boardDescriptor,
+      threadNo = threadDescriptor.threadNo,
+      postNo = input.readVarLong(),
+      postSubNo = input.readVarLong()
+    )
+  }
+
+}
@@ -0,0 +1,54 @@
+package com.github.k1rakishou.model.source.backup.codec
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.source.backup.BackupInput
+import com.github.k1rakishou.model.source.backup.BackupOutput
+import com.github.k1rakishou.model.source.backup.KeyedBackupRecordCodec
+import com.github.k1rakishou.model.source.backup.LogicalBackup
+import com.github.k1rakishou.model.source.snapshot.ThreadPostsSnapshot
+
+/**
+ * All the posts of a thread as one record, so incremental backups only contain the threads that got
+ * new (or changed) posts. Post rows are encoded the same way [ThreadPostsSnapshot] encodes them (the
+ * chunk compression takes care of the fixed-size numbers). Database ids of the decoded rows are the
+ * ids of the database the backup was made from and must not be used.
+ * */
+object ThreadPostsBackupCodec : KeyedBackupRecordCodec<ThreadPostsBackupRecord, ChanDescriptor.ThreadDescriptor> {
+  private const val UNKNOWN_OWNER_THREAD_ID = 0L
+
+  override val section: LogicalBackup.Section = LogicalBackup.Section.ThreadPosts
+
+  override fun keyOf(record: ThreadPostsBackupRecord): ChanDescriptor.ThreadDescriptor = record.threadDescriptor
+
+  override fun writeKey(output: BackupOutput, key: ChanDescriptor.ThreadDescriptor) {
+    output.writeThreadDescriptor(key)
+  }
+
+  override fun readKey(input: BackupInput): ChanDescriptor.ThreadDescriptor {
+    return input.readThreadDescriptor()
+  }
+
+  override fun write(output: BackupOutput, record: ThreadPostsBackupRecord) {
+    output.writeThreadDescriptor(record.threadDescriptor)
+    output.writeVarInt(record.postRecords.size)
+
+    val dataOutput = output.dataOutput
+    record.postRecords.forEach { postRecord -> ThreadPostsSnapshot.writePostRecord(dataOutput, postRecord) }
+    dataOutput.flush()
+  }
+
+  override fun read(input: BackupInput): ThreadPostsBackupRecord {
+    val threadDescriptor = input.readThreadDescriptor()
+    val postRecords = List(input.readVarInt()) {
+      ThreadPostsSnapshot.readPostRecord(input.buffer, UNKNOWN_OWNER_THREAD_ID)
+    }
+
+    return ThreadPostsBackupRecord(threadDescriptor, postRecords)
+  }
+
+}
+
+class ThreadPostsBackupRecord(
+  val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+  val postRecords: List<ThreadPostsSnapshot.PostRecord>
+)
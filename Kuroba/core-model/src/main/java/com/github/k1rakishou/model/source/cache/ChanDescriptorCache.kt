@@ -1,6 +1,5 @@
 package com.github.k1rakishou.model.source.cache
 
-import androidx.annotation.GuardedBy
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
@@ -11,77 +10,70 @@ import com.github.k1rakishou.model.data.id.PostDBId
 import com.github.k1rakishou.model.data.id.ThreadBookmarkDBId
 import com.github.k1rakishou.model.data.id.ThreadBookmarkDescriptor
 import com.github.k1rakishou.model.data.id.ThreadDBId
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
-
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Maps descriptors to their database ids (and back). Every map is a separate [ConcurrentHashMap] so
+ * reads never lock and writes only contend with writes into the same bin of the same map, which
+ * means that thread loading, the bookmark watcher and the thread downloader do not queue behind
+ * each other anymore when they all need ids at the same time.
+ *
+ * An id never changes once a row is inserted so there is nothing to protect besides the maps
+ * themselves: two coroutines missing the same key will both go to the database and put the same
+ * value into the cache. Misses are always resolved in batches (one query per board/thread and not
+ * one per descriptor).
+ * */
 class ChanDescriptorCache(
   private val database: KurobaDatabase
 ) {
-  private val mutex = Mutex()
-
-  @GuardedBy("mutex")
-  private val boardIdCache = mutableMapWithCap<BoardDescriptor, BoardDBId>(512)
-  @GuardedBy("mutex")
-  private val threadIdCache = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(512)
-  @GuardedBy("mutex")
-  private val bookmarkIdCache = mutableMapWithCap<ThreadBookmarkDescriptor, ThreadBookmarkDBId>(128)
+  private val boardIdCache = ConcurrentHashMap<BoardDescriptor, BoardDBId>(512)
+  private val threadIdCache = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(512)
+  private val bookmarkIdCache = ConcurrentHashMap<ThreadBookmarkDescriptor, ThreadBookmarkDBId>(128)
 
   private val chanBoardDao = database.chanBoardDao()
   private val chanThreadDao = database.chanThreadDao()
   private val chanPostDao = database.chanPostDao()
   private val threadBookmarkDao = database.threadBookmarkDao()
 
-  suspend fun putManyBookmarkIds(bookmarkIdMap: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>) {
-    mutex.withLock {
-      bookmarkIdMap.forEach { (threadDescriptor, bookmarkId) ->
-        bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)] = bookmarkId
-      }
+  fun putManyBookmarkIds(bookmarkIdMap: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>) {
+    bookmarkIdMap.forEach { (threadDescriptor, bookmarkId) ->
+      bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)] = bookmarkId
     }
   }
 
-  suspend fun deleteManyBookmarkIds(
+  fun deleteManyBookmarkIds(
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>
   ) {
-    mutex.withLock {
-      threadDescriptors.forEach { threadDescriptor ->
-        bookmarkIdCache.remove(ThreadBookmarkDescriptor(threadDescriptor))
-      }
+    threadDescriptors.forEach { threadDescriptor ->
+      bookmarkIdCache.remove(ThreadBookmarkDescriptor(threadDescriptor))
     }
   }
 
-  suspend fun deleteAllBookmarkIds() {
-    mutex.withLock {
-      bookmarkIdCache.clear()
-    }
+  fun deleteAllBookmarkIds() {
+    bookmarkIdCache.clear()
   }
 
-  suspend fun putBoardDescriptor(boardId: BoardDBId, boardDescriptor: BoardDescriptor) {
-    mutex.withLock { boardIdCache.put(boardDescriptor, boardId) }
+  fun putBoardDescriptor(boardId: BoardDBId, boardDescriptor: BoardDescriptor) {
+    boardIdCache[boardDescriptor] = boardId
   }
 
-  suspend fun putManyBoardDescriptors(boardIdMap: Map<BoardDescriptor, BoardDBId>) {
-    mutex.withLock {
-      boardIdMap.forEach { (boardDescriptor, boardId) ->
-        boardIdCache[boardDescriptor] = boardId
-      }
-    }
+  fun putManyBoardDescriptors(boardIdMap: Map<BoardDescriptor, BoardDBId>) {
+    boardIdCache.putAll(boardIdMap)
   }
 
-  suspend fun putThreadDescriptor(
+  fun putThreadDescriptor(
     threadId: ThreadDBId,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) {
     require(threadId.id >= 0L) { "Bad threadId: $threadId, threadDescriptor: $threadDescriptor" }
 
-    mutex.withLock {
-      threadIdCache[threadDescriptor] = threadId
-    }
+    threadIdCache[threadDescriptor] = threadId
   }
 
   suspend fun getBoardIdByBoardDescriptor(boardDescriptor: BoardDescriptor): BoardDBId? {
     database.ensureInTransaction()
 
-    val fromCache = mutex.withLock { boardIdCache[boardDescriptor] }
+    val fromCache = boardIdCache[boardDescriptor]
     if (fromCache != null) {
       return fromCache
     }
@@ -91,20 +83,20 @@ class ChanDescriptorCache(
       boardDescriptor.boardCode
     ) ?: return null
 
-    mutex.withLock { boardIdCache[boardDescriptor] = BoardDBId(fromDatabase) }
+    boardIdCache[boardDescriptor] = BoardDBId(fromDatabase)
     return BoardDBId(fromDatabase)
   }
 
-  suspend fun getThreadIdByThreadDescriptorFromCache(
+  fun getThreadIdByThreadDescriptorFromCache(
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ): ThreadDBId? {
-    return mutex.withLock { threadIdCache[threadDescriptor] }
+    return threadIdCache[threadDescriptor]
   }
 
   suspend fun getThreadIdByThreadDescriptor(threadDescriptor: ChanDescriptor.ThreadDescriptor): ThreadDBId? {
     database.ensureInTransaction()
 
-    val fromCache = mutex.withLock { threadIdCache[threadDescriptor] }
+    val fromCache = threadIdCache[threadDescriptor]
     if (fromCache != null) {
       return fromCache
     }
@@ -116,12 +108,12 @@ class ChanDescriptorCache(
       ?.let { threadIdRaw -> ThreadDBId(threadIdRaw) }
       ?: return null
 
-    mutex.withLock { threadIdCache[threadDescriptor] = fromDatabase }
+    threadIdCache[threadDescriptor] = fromDatabase
     return fromDatabase
   }
 
   suspend fun getManyThreadIdByThreadDescriptors(
-    threadDescriptors: List<ChanDescriptor.ThreadDescriptor>
+    threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>
   ): Map<ChanDescriptor.ThreadDescriptor, ThreadDBId> {
     database.ensureInTransaction()
 
@@ -130,88 +122,82 @@ class ChanDescriptorCache(
     }
 
     val resultMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(threadDescriptors)
-
-    mutex.withLock {
-      threadDescriptors.forEach { threadDescriptor ->
-        val threadId = threadIdCache[threadDescriptor]
-        if (threadId != null) {
-          resultMap[threadDescriptor] = threadId
-        }
+    val notCached = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    threadDescriptors.forEach { threadDescriptor ->
+      val threadId = threadIdCache[threadDescriptor]
+      if (threadId != null) {
+        resultMap[threadDescriptor] = threadId
+      } else {
+        notCached += threadDescriptor
       }
     }
 
-    if (resultMap.size == threadDescriptors.size) {
+    if (notCached.isEmpty()) {
       return resultMap
     }
 
-    val boardDescriptorMap = threadDescriptors
-      .groupBy { threadDescriptor -> threadDescriptor.boardDescriptor }
+    val notCachedByBoard = notCached.groupBy { threadDescriptor -> threadDescriptor.boardDescriptor }
+    val boardIdsMap = getBoardIdByBoardDescriptors(notCachedByBoard.keys)
+    val fromDatabaseMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(notCached)
 
-    boardDescriptorMap.forEach { (boardDescriptor, threadDescriptors) ->
-      val boardId = getBoardIdByBoardDescriptor(boardDescriptor)
+    notCachedByBoard.forEach { (boardDescriptor, threadDescriptors) ->
+      val boardId = boardIdsMap[boardDescriptor]
         ?: return@forEach
 
-      val threadNos = threadDescriptors
-        .map { threadDescriptor -> threadDescriptor.threadNo }
-        .toSet()
+      val threadDescriptorsByThreadNo = threadDescriptors
+        .associateBy { threadDescriptor -> threadDescriptor.threadNo }
 
-      val chanThreadEntities = chanThreadDao.selectManyByThreadNos(boardId.id, threadNos)
+      threadDescriptorsByThreadNo.keys
+        .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+        .forEach { threadNosBatch ->
+          chanThreadDao.selectManyByThreadNos(boardId.id, threadNosBatch).forEach { chanThreadEntity ->
+            val thisThreadDescriptor = threadDescriptorsByThreadNo[chanThreadEntity.threadNo]
+            checkNotNull(thisThreadDescriptor) {
+              "thisThreadDescriptor is null! threadNo=${chanThreadEntity.threadNo}"
+            }
 
-      chanThreadEntities.forEach { chanThreadEntity ->
-        val thisThreadDescriptor = threadDescriptors
-          .firstOrNull { threadDescriptor -> threadDescriptor.threadNo == chanThreadEntity.threadNo }
-        checkNotNull(thisThreadDescriptor) {
-          "thisThreadDescriptor is null! threadNo=${chanThreadEntity.threadNo}"
+            fromDatabaseMap[thisThreadDescriptor] = ThreadDBId(chanThreadEntity.threadId)
+          }
         }
-
-        resultMap[thisThreadDescriptor] = ThreadDBId(chanThreadEntity.threadId)
-      }
     }
 
-    mutex.withLock {
-      resultMap.forEach { (threadDescriptor, threadId) ->
-        threadIdCache[threadDescriptor] = threadId
-      }
-    }
+    threadIdCache.putAll(fromDatabaseMap)
+    resultMap.putAll(fromDatabaseMap)
 
     return resultMap
   }
 
   suspend fun getBoardIdByBoardDescriptors(
-    boardDescriptors: List<BoardDescriptor>
+    boardDescriptors: Collection<BoardDescriptor>
   ): Map<BoardDescriptor, BoardDBId> {
     database.ensureInTransaction()
 
     val resultMap = mutableMapWithCap<BoardDescriptor, BoardDBId>(boardDescriptors)
-
-    mutex.withLock {
-      boardDescriptors.forEach { boardDescriptor ->
-        if (boardIdCache.containsKey(boardDescriptor)) {
-          resultMap[boardDescriptor] = boardIdCache[boardDescriptor]!!
-        }
+    val notCached = mutableListOf<BoardDescriptor>()
+
+    boardDescriptors.forEach { boardDescriptor ->
+      val boardId = boardIdCache[boardDescriptor]
+      if (boardId != null) {
+        resultMap[boardDescriptor] = boardId
+      } else {
+        notCached += boardDescriptor
       }
     }
 
-    if (resultMap.size == boardDescriptors.size) {
+    if (notCached.isEmpty()) {
       return resultMap
     }
 
-    val notCached = boardDescriptors.filter { boardDescriptor ->
-      !resultMap.containsKey(boardDescriptor)
-    }
-
     notCached.forEach { boardDescriptor ->
       val boardIdRaw = chanBoardDao.selectBoardId(boardDescriptor.siteName(), boardDescriptor.boardCode)
           ?.boardId
           ?: return@forEach
 
-      resultMap[boardDescriptor] = BoardDBId(boardIdRaw)
-    }
+      val boardId = BoardDBId(boardIdRaw)
 
-    mutex.withLock {
-      resultMap.forEach { (boardDescriptor, boardId) ->
-        boardIdCache[boardDescriptor] = boardId
-      }
+      resultMap[boardDescriptor] = boardId
+      boardIdCache[boardDescriptor] = boardId
     }
 
     return resultMap
@@ -227,55 +213,41 @@ class ChanDescriptorCache(
     database.ensureInTransaction()
 
     val resultMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>(threadDescriptors)
-
-    mutex.withLock {
-      threadDescriptors.forEach { threadDescriptor ->
-        val threadBookmarkDescriptor = ThreadBookmarkDescriptor(threadDescriptor)
-
-        if (bookmarkIdCache.containsKey(threadBookmarkDescriptor)) {
-          resultMap[threadDescriptor] = bookmarkIdCache[threadBookmarkDescriptor]!!
-        }
+    val notCached = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    threadDescriptors.forEach { threadDescriptor ->
+      val threadBookmarkId = bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)]
+      if (threadBookmarkId != null) {
+        resultMap[threadDescriptor] = threadBookmarkId
+      } else {
+        notCached += threadDescriptor
       }
     }
 
-    if (resultMap.size == threadDescriptors.size) {
+    if (notCached.isEmpty()) {
       return resultMap
     }
 
-    val notCached = threadDescriptors.filter { threadDescriptor ->
-      !resultMap.containsKey(threadDescriptor)
-    }
-
-    val boardIdsMap = mutableMapWithCap<BoardDescriptor, BoardDBId>(notCached.size)
-
-    notCached.forEach { threadDescriptor ->
-      if (boardIdsMap.containsKey(threadDescriptor.boardDescriptor)) {
-        return@forEach
-      }
-
-      val boardId = getBoardIdByBoardDescriptor(threadDescriptor.boardDescriptor)
-        ?: return@forEach
-
-      boardIdsMap[threadDescriptor.boardDescriptor] = boardId
+    val threadIdsMap = getManyThreadIdByThreadDescriptors(notCached)
+    if (threadIdsMap.isEmpty()) {
+      return resultMap
     }
 
-    notCached.forEach { threadDescriptor ->
-      val boardId = requireNotNull(boardIdsMap[threadDescriptor.boardDescriptor])
-
-      val threadIdRaw = chanThreadDao.selectThreadId(boardId.id, threadDescriptor.threadNo)
-        ?: return@forEach
+    val threadDescriptorsByThreadId = threadIdsMap.entries
+      .associate { (threadDescriptor, threadId) -> threadId.id to threadDescriptor }
 
-      val threadBookmarkId = threadBookmarkDao.selectBookmarkIdByThreadId(threadIdRaw)
-        ?: return@forEach
+    threadDescriptorsByThreadId.keys
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { threadIdsBatch -> threadBookmarkDao.selectManyThreadBookmarkIdPairs(threadIdsBatch) }
+      .forEach { (threadBookmarkIdRaw, ownerThreadId) ->
+        val threadDescriptor = threadDescriptorsByThreadId[ownerThreadId]
+          ?: return@forEach
 
-      resultMap[threadDescriptor] = ThreadBookmarkDBId(threadBookmarkId)
-    }
+        val threadBookmarkId = ThreadBookmarkDBId(threadBookmarkIdRaw)
 
-    mutex.withLock {
-      resultMap.forEach { (threadDescriptor, threadBookmarkId) ->
+        resultMap[threadDescriptor] = threadBookmarkId
         bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)] = threadBookmarkId
       }
-    }
 
     return resultMap
   }
@@ -292,11 +264,9 @@ class ChanDescriptorCache(
     val resultMap =
       mutableMapWithCap<ThreadBookmarkDBId, ThreadBookmarkDescriptor>(threadBookmarkDatabaseIds)
 
-    mutex.withLock {
-      bookmarkIdCache.forEach { (threadDescriptor, databaseId) ->
-        if (databaseId in threadBookmarkDatabaseIds) {
-          resultMap[databaseId] = threadDescriptor
-        }
+    bookmarkIdCache.forEach { (threadDescriptor, databaseId) ->
+      if (databaseId in threadBookmarkDatabaseIds) {
+        resultMap[databaseId] = threadDescriptor
       }
     }
 
@@ -304,30 +274,32 @@ class ChanDescriptorCache(
       return resultMap
     }
 
-    val threadBookmarkDescriptors = threadBookmarkDao.selectThreadDescriptorsByThreadBookmarkIds(
-      threadBookmarkDatabaseIds
-        .map { threadBookmarkId -> threadBookmarkId.id }
-        .toSet()
-    )
+    val notCachedIds = threadBookmarkDatabaseIds
+      .filter { threadBookmarkId -> !resultMap.containsKey(threadBookmarkId) }
+      .map { threadBookmarkId -> threadBookmarkId.id }
 
-    mutex.withLock {
-      threadBookmarkDescriptors.forEach { threadBookmarkDescriptorDatabaseObject ->
-        check(threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId >= 0L) {
-          "Bad databaseId ${threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId}"
-        }
+    val threadBookmarkDescriptors = notCachedIds
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { threadBookmarkIdsBatch ->
+        threadBookmarkDao.selectThreadDescriptorsByThreadBookmarkIds(threadBookmarkIdsBatch.toSet())
+      }
 
-        val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(
-          threadBookmarkDescriptorDatabaseObject.bookmarkSiteName,
-          threadBookmarkDescriptorDatabaseObject.bookmarkBoardCode,
-          threadBookmarkDescriptorDatabaseObject.bookmarkThreadNo
-        )
+    threadBookmarkDescriptors.forEach { threadBookmarkDescriptorDatabaseObject ->
+      check(threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId >= 0L) {
+        "Bad databaseId ${threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId}"
+      }
 
-        val threadBookmarkId = ThreadBookmarkDBId(threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId)
-        val threadBookmarkDescriptor = ThreadBookmarkDescriptor(threadDescriptor)
+      val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(
+        threadBookmarkDescriptorDatabaseObject.bookmarkSiteName,
+        threadBookmarkDescriptorDatabaseObject.bookmarkBoardCode,
+        threadBookmarkDescriptorDatabaseObject.bookmarkThreadNo
+      )
 
-        resultMap[threadBookmarkId] = threadBookmarkDescriptor
-        bookmarkIdCache[threadBookmarkDescriptor] = threadBookmarkId
-      }
+      val threadBookmarkId = ThreadBookmarkDBId(threadBookmarkDescriptorDatabaseObject.threadBookmarkDatabaseId)
+      val threadBookmarkDescriptor = ThreadBookmarkDescriptor(threadDescriptor)
+
+      resultMap[threadBookmarkId] = threadBookmarkDescriptor
+      bookmarkIdCache[threadBookmarkDescriptor] = threadBookmarkId
     }
 
     return resultMap
@@ -345,23 +317,32 @@ class ChanDescriptorCache(
     val postDescriptorsMap = postDescriptors
       .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
 
+    // Resolve the ids of all the threads at once instead of one thread at a time
+    val threadIdsMap = getManyThreadIdByThreadDescriptors(postDescriptorsMap.keys)
+
     postDescriptorsMap.forEach { (threadDescriptor, postDescriptors) ->
-      val threadDbId = getThreadIdByThreadDescriptor(threadDescriptor)
+      val threadDbId = threadIdsMap[threadDescriptor]
         ?: return@forEach
 
-      val chanPostIdEntityList = chanPostDao.selectManyByThreadIdAndPostNos(
-        ownerThreadId = threadDbId.id,
-        postNos = postDescriptors.map { it.postNo }
-      )
+      val postDescriptorsByPostNo = postDescriptors
+        .groupBy { postDescriptor -> postDescriptor.postNo }
 
-      chanPostIdEntityList.forEach { chanPostIdEntity ->
-        val postDescriptor = postDescriptors.firstOrNull { postDescriptor ->
-          return@firstOrNull postDescriptor.postNo == chanPostIdEntity.postNo
-            && postDescriptor.postSubNo == chanPostIdEntity.postSubNo
-        } ?: return@forEach
+      postDescriptorsByPostNo.keys
+        .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+        .forEach { postNosBatch ->
+          val chanPostIdEntityList = chanPostDao.selectManyByThreadIdAndPostNos(
+            ownerThreadId = threadDbId.id,
+            postNos = postNosBatch
+          )
 
-        resultMap[postDescriptor] = PostDBId(chanPostIdEntity.postId)
-      }
+          chanPostIdEntityList.forEach { chanPostIdEntity ->
+            val postDescriptor = postDescriptorsByPostNo[chanPostIdEntity.postNo]
+              ?.firstOrNull { postDescriptor -> postDescriptor.postSubNo == chanPostIdEntity.postSubNo }
+              ?: return@forEach
+
+            resultMap[postDescriptor] = PostDBId(chanPostIdEntity.postId)
+          }
+        }
     }
 
     return resultMap
@@ -376,29 +357,28 @@ class ChanDescriptorCache(
 
     val resultMap = mutableMapWithCap<PostDBId, PostDescriptor>(chanPostIds)
 
-    val postDescriptorDatabaseObjects = chanPostDao.selectPostDescriptorDatabaseObjectsByPostIds(
-      chanPostIds
-        .map { chanPostId -> chanPostId.id }
-        .toSet()
-    )
+    val postDescriptorDatabaseObjects = chanPostIds
+      .map { chanPostId -> chanPostId.id }
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { chanPostIdsBatch ->
+        chanPostDao.selectPostDescriptorDatabaseObjectsByPostIds(chanPostIdsBatch.toSet())
+      }
 
-    mutex.withLock {
-      postDescriptorDatabaseObjects.forEach { postDescriptorDatabaseObject ->
-        check(postDescriptorDatabaseObject.postDatabaseId >= 0L) {
-          "Bad databaseId ${postDescriptorDatabaseObject.postDatabaseId}"
-        }
+    postDescriptorDatabaseObjects.forEach { postDescriptorDatabaseObject ->
+      check(postDescriptorDatabaseObject.postDatabaseId >= 0L) {
+        "Bad databaseId ${postDescriptorDatabaseObject.postDatabaseId}"
+      }
 
-        val postDescriptor = PostDescriptor.create(
-          siteName = postDescriptorDatabaseObject.siteName,
-          boardCode = postDescriptorDatabaseObject.boardCode,
-          threadNo = postDescriptorDatabaseObject.threadNo,
-          postNo = postDescriptorDatabaseObject.postNo,
-          postSubNo = postDescriptorDatabaseObject.postSubNo
-        )
+      val postDescriptor = PostDescriptor.create(
+        siteName = postDescriptorDatabaseObject.siteName,
+        boardCode = postDescriptorDatabaseObject.boardCode,
+        threadNo = postDescriptorDatabaseObject.threadNo,
+        postNo = postDescriptorDatabaseObject.postNo,
+        postSubNo = postDescriptorDatabaseObject.postSubNo
+      )
 
-        val postDBId = PostDBId(postDescriptorDatabaseObject.postDatabaseId)
-        resultMap[postDBId] = postDescriptor
-      }
+      val postDBId = PostDBId(postDescriptorDatabaseObject.postDatabaseId)
+      resultMap[postDBId] = postDescriptor
     }
 
     return resultMap
@@ -410,26 +390,24 @@ class ChanDescriptorCache(
     val resultMap = mutableMapOf<PostDBId, PostDescriptor>()
     val postDescriptorDatabaseObjects = chanPostDao.selectPostDescriptorDatabaseObjectsByThreadIds(threadId.id)
 
-    mutex.withLock {
-      postDescriptorDatabaseObjects.forEach { postDescriptorDatabaseObject ->
-        check(postDescriptorDatabaseObject.postDatabaseId >= 0L) {
-          "Bad databaseId ${postDescriptorDatabaseObject.postDatabaseId}"
-        }
+    postDescriptorDatabaseObjects.forEach { postDescriptorDatabaseObject ->
+      check(postDescriptorDatabaseObject.postDatabaseId >= 0L) {
+        "Bad databaseId ${postDescriptorDatabaseObject.postDatabaseId}"
+      }
 
-        val postDescriptor = PostDescriptor.create(
-          siteName = postDescriptorDatabaseObject.siteName,
-          boardCode = postDescriptorDatabaseObject.boardCode,
-          threadNo = postDescriptorDatabaseObject.threadNo,
-          postNo = postDescriptorDatabaseObject.postNo,
-          postSubNo = postDescriptorDatabaseObject.postSubNo
-        )
+      val postDescriptor = PostDescriptor.create(
+        siteName = postDescriptorDatabaseObject.siteName,
+        boardCode = postDescriptorDatabaseObject.boardCode,
+        threadNo = postDescriptorDatabaseObject.threadNo,
+        postNo = postDescriptorDatabaseObject.postNo,
+        postSubNo = postDescriptorDatabaseObject.postSubNo
+      )
 
-        val postDBId = PostDBId(postDescriptorDatabaseObject.postDatabaseId)
-        resultMap[postDBId] = postDescriptor
-      }
+      val postDBId = PostDBId(postDescriptorDatabaseObject.postDatabaseId)
+      resultMap[postDBId] = postDescriptor
     }
 
     return resultMap
   }
 
-}
\ No newline at end of file
+}
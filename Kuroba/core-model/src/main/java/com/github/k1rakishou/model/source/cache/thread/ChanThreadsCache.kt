@@ -1,7 +1,7 @@
 package com.github.k1rakishou.model.source.cache.thread
 
 import com.github.k1rakishou.common.MurmurHashUtils
-import com.github.k1rakishou.common.hashSetWithCap
+import com.github.k1rakishou.common.datastructure.LongHashSet
 import com.github.k1rakishou.common.linkedMapWithCap
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
@@ -13,9 +13,12 @@ import com.github.k1rakishou.model.data.options.ChanCacheOptions
 import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.thread.ChanThread
+import com.github.k1rakishou.model.data.thread.ChanThreadChangeSet
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.util.ensureBackgroundThread
+import okhttp3.HttpUrl
 import org.joda.time.Period
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
@@ -31,6 +34,12 @@ class ChanThreadsCache(
   private val chanCatalogSnapshotCache: ChanCatalogSnapshotCache
 ) {
   private val chanThreads = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ChanThread>(128)
+  // Original posts of catalog threads that were never opened. Catalogs (composite catalogs
+  // especially) may contain thousands of threads and we don't want to create a full ChanThread
+  // (with its own lock, maps and lists) for every one of them just to hold one post. An original
+  // post is moved into a ChanThread once the thread is opened and moved back once the thread posts
+  // are evicted.
+  private val catalogOriginalPosts = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ChanOriginalPost>(256)
   private val lastEvictInvokeTime = AtomicLong(0L)
   private val oneYearPeriodMillis by lazy { Period.years(1).millis }
   private val chanThreadDeleteEventListeners = CopyOnWriteArrayList<(ThreadDeleteEvent) -> Unit>()
@@ -39,6 +48,21 @@ class ChanThreadsCache(
     chanThreadDeleteEventListeners += listener
   }
 
+  /**
+   * Returns the current revision of the cached thread or null if the thread is not cached. Pass it
+   * to [getThreadChangeSetSince] later to find out what has changed in the thread since then.
+   * */
+  fun getThreadRevision(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
+    return chanThreads[threadDescriptor]?.currentRevision
+  }
+
+  fun getThreadChangeSetSince(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    fromRevision: Long
+  ): ChanThreadChangeSet? {
+    return chanThreads[threadDescriptor]?.getChangeSetSince(fromRevision)
+  }
+
   fun isThreadLockCurrentlyLocked(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
     return chanThreads[threadDescriptor]?.isThreadLockCurrentlyLocked() ?: false
   }
@@ -51,6 +75,22 @@ class ChanThreadsCache(
     return chanThreads[postDescriptor.threadDescriptor()]?.getPostHash(postDescriptor)
   }
 
+  fun restorePostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    hashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>
+  ) {
+    if (hashes.isEmpty()) {
+      return
+    }
+
+    chanThreads[threadDescriptor]?.restorePostHashes(hashes)
+  }
+
+  fun consumeRestoredPostHash(postDescriptor: PostDescriptor): Boolean {
+    return chanThreads[postDescriptor.threadDescriptor()]?.consumeRestoredPostHash(postDescriptor)
+      ?: false
+  }
+
   fun clearPostHashes() {
     chanThreads.values.forEach { chanThread -> chanThread.clearPostHashes() }
   }
@@ -91,18 +131,36 @@ class ChanThreadsCache(
           "descriptor=${chanOriginalPost.postDescriptor.descriptor}"
       }
 
-      val threadDescriptor = chanOriginalPost.postDescriptor.threadDescriptor()
-
-      val chanThread = chanThreads.getOrPut(threadDescriptor, defaultValue = {
-        return@getOrPut ChanThread(
-          isDevBuild = isDevBuild,
-          threadDescriptor = threadDescriptor,
-          initialLastAccessTime = getLastThreadAccessTime(cacheOptions)
-        )
-      })
+      // Do not update "lastUpdateTime" here because it will break catalog thread previewing
+      putCatalogOriginalPost(chanOriginalPost.postDescriptor.threadDescriptor(), chanOriginalPost)
+    }
+  }
 
+  /**
+   * Puts [chanOriginalPost] into [catalogOriginalPosts] unless the thread is already cached as a
+   * [ChanThread]. The two maps are not guarded by a common lock and the thread may get opened
+   * concurrently ([putManyThreadPostsIntoCache] publishes the [ChanThread] first and then takes the
+   * original post out of [catalogOriginalPosts]), so [chanThreads] is checked again after the put
+   * and if the thread has appeared the post is moved into it. This way the original post never
+   * stays in both maps.
+   * */
+  private fun putCatalogOriginalPost(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    chanOriginalPost: ChanOriginalPost
+  ) {
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
       chanThread.setOrUpdateOriginalPost(chanOriginalPost)
-      // Do not update "lastUpdateTime" here because it will break catalog thread previewing
+      return
+    }
+
+    catalogOriginalPosts[threadDescriptor] = chanOriginalPost
+
+    val openedChanThread = chanThreads[threadDescriptor]
+      ?: return
+
+    if (catalogOriginalPosts.remove(threadDescriptor, chanOriginalPost)) {
+      openedChanThread.setOrUpdateOriginalPost(chanOriginalPost)
     }
   }
 
@@ -139,6 +197,11 @@ class ChanThreadsCache(
       )
     })
 
+    // The thread is being opened, move the catalog original post (if any) into the full thread.
+    catalogOriginalPosts.remove(threadDescriptor)?.let { chanOriginalPost ->
+      chanThread.setOrUpdateOriginalPost(chanOriginalPost)
+    }
+
     if (cacheOptions.canStoreInMemory()) {
       chanThread.addOrUpdatePosts(parsedPosts, postsFromServerData)
     } else if (firstPost != null && firstPost is ChanOriginalPost) {
@@ -149,7 +212,11 @@ class ChanThreadsCache(
   }
 
   fun getCachedThreadsCount(): Int {
-    return chanThreads.size
+    return chanThreads.size + catalogOriginalPosts.size
+  }
+
+  fun getCatalogOnlyThreadsCount(): Int {
+    return catalogOriginalPosts.size
   }
 
   fun getThreadsWithMoreThanOnePostCount(): Int {
@@ -158,12 +225,69 @@ class ChanThreadsCache(
   }
 
   fun getThreadCachedPostsCount(threadDescriptor: ChanDescriptor.ThreadDescriptor): Int? {
-    return chanThreads[threadDescriptor]?.postsCount
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.postsCount
+    }
+
+    if (catalogOriginalPosts.containsKey(threadDescriptor)) {
+      return 1
+    }
+
+    return null
   }
 
   fun getOriginalPostFromCache(postDescriptor: PostDescriptor): ChanOriginalPost? {
+    return getOriginalPost(postDescriptor.threadDescriptor())
+  }
+
+  fun addImage(chanPostImage: ChanPostImage): Boolean {
+    val threadDescriptor = chanPostImage.ownerPostDescriptor.threadDescriptor()
+
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      chanThread.addImage(chanPostImage)
+      return true
+    }
+
+    val chanOriginalPost = catalogOriginalPosts[threadDescriptor]
+      ?.takeIf { chanOriginalPost -> chanOriginalPost.postDescriptor == chanPostImage.ownerPostDescriptor }
+      ?: return false
+
+    chanOriginalPost.addImage(chanPostImage)
+    return true
+  }
+
+  fun getPostImage(postDescriptor: PostDescriptor, imageUrl: HttpUrl): ChanPostImage? {
     val threadDescriptor = postDescriptor.threadDescriptor()
-    return chanThreads[threadDescriptor]?.getOriginalPost()
+
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.getPostImage(postDescriptor, imageUrl)
+    }
+
+    return catalogOriginalPosts[threadDescriptor]
+      ?.takeIf { chanOriginalPost -> chanOriginalPost.postDescriptor == postDescriptor }
+      ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
+  }
+
+  fun getThreadPostsFromCache(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postDescriptors: Collection<PostDescriptor>
+  ): List<ChanPost> {
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.getPosts(postDescriptors)
+    }
+
+    val chanOriginalPost = catalogOriginalPosts[threadDescriptor]
+      ?: return emptyList()
+
+    if (chanOriginalPost.postDescriptor !in postDescriptors) {
+      return emptyList()
+    }
+
+    return listOf(chanOriginalPost)
   }
 
   fun getCatalogThreadDescriptors(
@@ -180,7 +304,7 @@ class ChanThreadsCache(
       ?: return null
 
     val posts = threadDescriptors
-      .mapNotNull { threadDescriptor -> chanThreads[threadDescriptor]?.getOriginalPost() }
+      .mapNotNull { threadDescriptor -> getOriginalPost(threadDescriptor) }
 
     return ChanCatalog(catalogDescriptor, posts)
   }
@@ -192,7 +316,7 @@ class ChanThreadsCache(
   fun getPostFromCache(chanDescriptor: ChanDescriptor, postDescriptor: PostDescriptor): ChanPost? {
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
-        return chanThreads[chanDescriptor]?.getPost(postDescriptor)
+        return getThreadPostFromCache(postDescriptor)
       }
       is ChanDescriptor.ICatalogDescriptor -> {
         val threadDescriptor = chanCatalogSnapshotCache.get(chanDescriptor)
@@ -200,20 +324,28 @@ class ChanThreadsCache(
           ?.firstOrNull { threadDescriptor -> threadDescriptor.threadNo == postDescriptor.getThreadNo() }
           ?: return null
 
-        return chanThreads[threadDescriptor]?.getOriginalPost()
+        return getOriginalPost(threadDescriptor)
       }
     }
   }
 
   fun getThreadPostFromCache(postDescriptor: PostDescriptor): ChanPost? {
     val threadDescriptor = postDescriptor.threadDescriptor()
-    return chanThreads[threadDescriptor]?.getPost(postDescriptor)
+
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.getPost(postDescriptor)
+    }
+
+    return catalogOriginalPosts[threadDescriptor]
+      ?.takeIf { chanOriginalPost -> chanOriginalPost.postDescriptor == postDescriptor }
   }
 
   fun contains(chanDescriptor: ChanDescriptor): Boolean {
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
-        return chanThreads[chanDescriptor]?.hasAtLeastOnePost() ?: false
+        return chanThreads[chanDescriptor]?.hasAtLeastOnePost()
+          ?: catalogOriginalPosts.containsKey(chanDescriptor)
       }
       is ChanDescriptor.ICatalogDescriptor -> {
         val catalogThreadDescriptorList = chanCatalogSnapshotCache.get(chanDescriptor)
@@ -231,7 +363,7 @@ class ChanThreadsCache(
       linkedMapWithCap<ChanDescriptor.ThreadDescriptor, ChanOriginalPost>(threadDescriptors.size)
 
     threadDescriptors.forEach { threadDescriptor ->
-      val originalPost = chanThreads[threadDescriptor]?.getOriginalPost()
+      val originalPost = getOriginalPost(threadDescriptor)
         ?: return@forEach
 
       resultMap[threadDescriptor] = originalPost
@@ -241,16 +373,17 @@ class ChanThreadsCache(
   }
 
   fun getTotalCachedPostsCount(): Int {
-    return chanThreads.values.sumBy { chanThread -> chanThread.postsCount }
+    return chanThreads.values.sumBy { chanThread -> chanThread.postsCount } + catalogOriginalPosts.size
   }
 
   fun getLastPost(threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanPost? {
     return chanThreads[threadDescriptor]?.lastPost()
+      ?: catalogOriginalPosts[threadDescriptor]
   }
 
   fun getThreadPosts(threadDescriptor: ChanDescriptor.ThreadDescriptor): List<ChanPost> {
     val chanThread = chanThreads[threadDescriptor]
-      ?: return emptyList()
+      ?: return listOfNotNull(catalogOriginalPosts[threadDescriptor])
 
     val resultList = mutableListWithCap<ChanPost>(chanThread.postsCount)
 
@@ -261,11 +394,25 @@ class ChanThreadsCache(
     return resultList
   }
 
-  fun getThreadPostNoSet(threadDescriptor: ChanDescriptor.ThreadDescriptor): Set<Long> {
+  /**
+   * Returns a new set every time, the caller may modify it.
+   * */
+  fun getThreadPostNoSet(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    extraCapacity: Int = 0
+  ): LongHashSet {
     val chanThread = chanThreads[threadDescriptor]
-      ?: return emptySet()
+    if (chanThread == null) {
+      val resultSet = LongHashSet(extraCapacity + 1)
+
+      catalogOriginalPosts[threadDescriptor]?.let { chanOriginalPost ->
+        resultSet.add(chanOriginalPost.postDescriptor.postNo)
+      }
 
-    val resultSet = hashSetWithCap<Long>(chanThread.postsCount)
+      return resultSet
+    }
+
+    val resultSet = LongHashSet(chanThread.postsCount + extraCapacity)
 
     chanThread.iteratePostsOrdered { chanPost ->
       resultSet.add(chanPost.postDescriptor.postNo)
@@ -274,8 +421,20 @@ class ChanThreadsCache(
     return resultSet
   }
 
+  fun getNewPostsCount(threadDescriptor: ChanDescriptor.ThreadDescriptor, lastPostNo: Long): Int {
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.getNewPostsCount(lastPostNo)
+    }
+
+    val chanOriginalPost = catalogOriginalPosts[threadDescriptor]
+      ?: return 0
+
+    return if (chanOriginalPost.postDescriptor.postNo > lastPostNo) 1 else 0
+  }
+
   fun getThreadPostsCount(threadDescriptor: ChanDescriptor.ThreadDescriptor): Int {
-    return chanThreads[threadDescriptor]?.postsCount ?: 0
+    return getThreadCachedPostsCount(threadDescriptor) ?: 0
   }
 
   fun updateThreadState(
@@ -288,11 +447,51 @@ class ChanThreadsCache(
       return
     }
 
-    chanThreads[threadDescriptor]?.updateThreadState(
-      deleted = deleted,
-      archived = archived,
-      closed = closed
-    )
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      chanThread.updateThreadState(
+        deleted = deleted,
+        archived = archived,
+        closed = closed
+      )
+
+      return
+    }
+
+    val chanOriginalPost = catalogOriginalPosts[threadDescriptor]
+      ?: return
+
+    deleted?.let { chanOriginalPost.isDeleted = it }
+    archived?.let { chanOriginalPost.archived = it }
+    closed?.let { chanOriginalPost.closed = it }
+  }
+
+  /**
+   * Evicts the original posts of the never opened threads that are not a part of any of the cached
+   * catalog snapshots anymore. Returns the amount of evicted posts.
+   * */
+  fun trimCatalogOriginalPosts(): Int {
+    val countBefore = catalogOriginalPosts.size
+    evictCatalogOriginalPostsNotInCatalogs()
+
+    return (countBefore - catalogOriginalPosts.size).coerceAtLeast(0)
+  }
+
+  /**
+   * Evicts all posts (except for the original posts) of every thread but the [immuneThreadsCount]
+   * most recently accessed ones, no matter how far from [maxCacheSize] the cache is. Returns the
+   * amount of evicted posts.
+   * */
+  fun trimThreads(immuneThreadsCount: Int): Int {
+    val countBefore = getTotalCachedPostsCount()
+    if (countBefore <= 0 || chanThreads.size <= immuneThreadsCount) {
+      return 0
+    }
+
+    evictOld(immuneThreadsCount = immuneThreadsCount, amountToEvictParam = countBefore)
+    lastEvictInvokeTime.set(System.currentTimeMillis())
+
+    return (countBefore - getTotalCachedPostsCount()).coerceAtLeast(0)
   }
 
   fun updateLastAccessTime(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
@@ -310,7 +509,7 @@ class ChanThreadsCache(
 
     if (postDescriptors.size <= 1) {
       val postDescriptor = postDescriptors.first()
-      chanThreads[postDescriptor.threadDescriptor()]?.deletePosts(postDescriptors)
+      deleteThreadPosts(postDescriptor.threadDescriptor(), postDescriptors)
 
       return
     }
@@ -319,7 +518,25 @@ class ChanThreadsCache(
       .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
 
     postsMap.entries.forEach { (threadDescriptor, postDescriptors) ->
-      chanThreads[threadDescriptor]?.deletePosts(postDescriptors)
+      deleteThreadPosts(threadDescriptor, postDescriptors)
+    }
+  }
+
+  private fun deleteThreadPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postDescriptors: Collection<PostDescriptor>
+  ) {
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      chanThread.deletePosts(postDescriptors)
+      return
+    }
+
+    val chanOriginalPost = catalogOriginalPosts[threadDescriptor]
+      ?: return
+
+    if (chanOriginalPost.postDescriptor in postDescriptors) {
+      catalogOriginalPosts.remove(threadDescriptor)
     }
   }
 
@@ -336,9 +553,10 @@ class ChanThreadsCache(
 
     threadDescriptors.forEach { threadDescriptor ->
       val chanThread = chanThreads.remove(threadDescriptor)
-        ?: return@forEach
+      val catalogOriginalPost = catalogOriginalPosts.remove(threadDescriptor)
 
-      val originalPostDescriptor = chanThread.getOriginalPost()?.postDescriptor
+      val originalPostDescriptor = chanThread?.getOriginalPost()?.postDescriptor
+        ?: catalogOriginalPost?.postDescriptor
         ?: return@forEach
 
       entries += ThreadDeleteEvent.RemoveThreadPostsExceptOP.Entry(
@@ -355,6 +573,15 @@ class ChanThreadsCache(
     notifyChanThreadDeleteEventListeners(event)
   }
 
+  private fun getOriginalPost(threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanOriginalPost? {
+    val chanThread = chanThreads[threadDescriptor]
+    if (chanThread != null) {
+      return chanThread.getOriginalPost()
+    }
+
+    return catalogOriginalPosts[threadDescriptor]
+  }
+
   private fun getLastThreadAccessTime(cacheOptions: ChanCacheOptions): Long {
     val now = System.currentTimeMillis()
 
@@ -377,8 +604,15 @@ class ChanThreadsCache(
       return
     }
 
+    if (getTotalCachedPostsCount() <= maxCacheSize) {
+      return
+    }
+
+    evictCatalogOriginalPostsNotInCatalogs()
+
     val currentTotalPostsCount = getTotalCachedPostsCount()
     if (currentTotalPostsCount <= maxCacheSize) {
+      lastEvictInvokeTime.set(System.currentTimeMillis())
       return
     }
 
@@ -408,6 +642,47 @@ class ChanThreadsCache(
     lastEvictInvokeTime.set(System.currentTimeMillis())
   }
 
+  /**
+   * Removes original posts of never opened threads that are no longer a part of any of the cached
+   * catalog snapshots. This is way cheaper than evicting full threads so it always goes first.
+   * */
+  private fun evictCatalogOriginalPostsNotInCatalogs() {
+    if (catalogOriginalPosts.isEmpty()) {
+      return
+    }
+
+    val threadsToRemove = mutableListWithCap<ChanDescriptor.ThreadDescriptor>(16)
+
+    catalogOriginalPosts.keys.forEach { threadDescriptor ->
+      if (isThreadInCurrentCatalog(threadDescriptor)) {
+        return@forEach
+      }
+
+      if (catalogOriginalPosts.remove(threadDescriptor) != null) {
+        threadsToRemove += threadDescriptor
+      }
+    }
+
+    Logger.d(TAG, "evictCatalogOriginalPostsNotInCatalogs() threadsToRemove=${threadsToRemove.size}, " +
+      "catalogOriginalPosts=${catalogOriginalPosts.size}")
+
+    if (threadsToRemove.isNotEmpty()) {
+      val event = ThreadDeleteEvent.RemoveThreads(
+        evictingOld = true,
+        threadDescriptors = threadsToRemove
+      )
+
+      notifyChanThreadDeleteEventListeners(event)
+    }
+  }
+
+  private fun isThreadInCurrentCatalog(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return chanCatalogSnapshotCache.get(threadDescriptor.catalogDescriptor())
+      ?.catalogThreadDescriptorSet
+      ?.contains(threadDescriptor)
+      ?: false
+  }
+
   private fun evictOld(immuneThreadsCount: Int, amountToEvictParam: Int) {
     require(amountToEvictParam > 0) { "amountToEvictParam is too small: $amountToEvictParam" }
 
@@ -461,22 +736,24 @@ class ChanThreadsCache(
 
       chanThread.cleanup()
 
-      val isThreadInCurrentCatalog = chanCatalogSnapshotCache.get(chanThread.threadDescriptor.catalogDescriptor())
-        ?.catalogThreadDescriptorSet
-        ?.contains(threadDescriptor)
-        ?: false
+      val isThreadInCurrentCatalog = isThreadInCurrentCatalog(chanThread.threadDescriptor)
 
       if (!isThreadInCurrentCatalog && chanThread.postsCount <= 1) {
         threadsToRemove += threadDescriptor
         chanThreads.remove(threadDescriptor)
       } else {
-        val originalPostDescriptor = chanThread.getOriginalPost()?.postDescriptor
+        val originalPost = chanThread.getOriginalPost()
 
-        if (originalPostDescriptor != null) {
+        if (originalPost != null) {
           threadsToClean += ThreadDeleteEvent.RemoveThreadPostsExceptOP.Entry(
             threadDescriptor,
-            originalPostDescriptor
+            originalPost.postDescriptor
           )
+
+          // Only the original post is left, move it back into the catalog original posts.
+          if (chanThread.postsCount <= 1 && chanThreads.remove(threadDescriptor, chanThread)) {
+            putCatalogOriginalPost(threadDescriptor, originalPost)
+          }
         }
       }
     }
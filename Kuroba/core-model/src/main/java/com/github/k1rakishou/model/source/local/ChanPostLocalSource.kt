@@ -1,5 +1,6 @@
 package com.github.k1rakishou.model.source.local
 
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.flatMapIndexed
 import com.github.k1rakishou.common.mutableMapWithCap
@@ -25,6 +26,7 @@ import com.github.k1rakishou.model.mapper.ChanPostHttpIconMapper
 import com.github.k1rakishou.model.mapper.ChanPostImageMapper
 import com.github.k1rakishou.model.mapper.ChanThreadMapper
 import com.github.k1rakishou.model.mapper.TextSpanMapper
+import com.github.k1rakishou.model.source.snapshot.ThreadPostsSnapshot
 import java.util.concurrent.TimeUnit
 
 class ChanPostLocalSource(
@@ -150,7 +152,11 @@ class ChanPostLocalSource(
     insertPostsInternal(chanPostIdEntities, chanPostList)
   }
 
-  suspend fun insertThreadPosts(ownerThreadId: Long, chanPostList: List<ChanPost>) {
+  suspend fun insertThreadPosts(
+    ownerThreadId: Long,
+    chanPostList: List<ChanPost>,
+    rawPostHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
+  ) {
     ensureInTransaction()
 
     val chanPostIdEntities = chanPostList.map { chanPost ->
@@ -162,12 +168,13 @@ class ChanPostLocalSource(
       )
     }
 
-    insertPostsInternal(chanPostIdEntities, chanPostList)
+    insertPostsInternal(chanPostIdEntities, chanPostList, rawPostHashes)
   }
 
   private suspend fun insertPostsInternal(
     chanPostIdEntities: List<ChanPostIdEntity>,
-    chanPostList: List<ChanPost>
+    chanPostList: List<ChanPost>,
+    rawPostHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ) {
     chanPostDao.insertOrReplaceManyIds(chanPostIdEntities).forEachIndexed { index, postDatabaseId ->
       chanPostIdEntities[index].postId = postDatabaseId
@@ -175,7 +182,13 @@ class ChanPostLocalSource(
 
     chanPostDao.insertOrReplaceManyPosts(
       chanPostIdEntities.mapIndexed { index, chanPostIdEntity ->
-        ChanPostEntityMapper.toEntity(chanPostIdEntity.postId, chanPostList[index])
+        val chanPost = chanPostList[index]
+
+        return@mapIndexed ChanPostEntityMapper.toEntity(
+          chanPostId = chanPostIdEntity.postId,
+          chanPost = chanPost,
+          rawPostHash = rawPostHashes[chanPost.postDescriptor]
+        )
       }
     )
 
@@ -455,6 +468,152 @@ class ChanPostLocalSource(
     val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
       ?: return emptyList()
 
+    val chanPostFullList = selectThreadPosts(chanThreadEntity, postDatabaseIds)
+    if (chanPostFullList.isEmpty()) {
+      return emptyList()
+    }
+
+    val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
+
+    val textSpansGroupedByPostId = getTextSpansGroupedByPostId(postIdList)
+    val postAdditionalData = getPostsAdditionalData(postIdList)
+
+    return chanPostFullList
+      .mapNotNull { chanPostFull ->
+        val postTextSnapEntityList =
+          textSpansGroupedByPostId[chanPostFull.chanPostIdEntity.postId]
+
+        return@mapNotNull ChanPostEntityMapper.fromEntity(
+          descriptor,
+          chanThreadEntity,
+          chanPostFull.chanPostIdEntity,
+          chanPostFull.chanPostEntity,
+          postTextSnapEntityList,
+          postAdditionalData
+        )
+      }
+  }
+
+  /**
+   * Collects the same rows [getThreadPosts] uses to build the posts so that they can be written into a
+   * [ThreadPostsSnapshot].
+   * */
+  suspend fun getThreadPostsSnapshotRecords(
+    descriptor: ChanDescriptor.ThreadDescriptor
+  ): List<ThreadPostsSnapshot.PostRecord> {
+    ensureInTransaction()
+
+    val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
+      ?: return emptyList()
+
+    val chanPostFullList = selectThreadPosts(chanThreadEntity, emptyList())
+    if (chanPostFullList.isEmpty()) {
+      return emptyList()
+    }
+
+    val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
+
+    val textSpansGroupedByPostId = getTextSpansGroupedByPostId(postIdList)
+    val postAdditionalData = getPostsAdditionalData(postIdList)
+
+    return chanPostFullList.map { chanPostFull ->
+      val postId = chanPostFull.chanPostIdEntity.postId
+
+      return@map ThreadPostsSnapshot.PostRecord(
+        chanPostFull = chanPostFull,
+        textSpans = textSpansGroupedByPostId[postId] ?: emptyList(),
+        postImages = postAdditionalData.postImageByPostIdMap[postId] ?: emptyList(),
+        postIcons = postAdditionalData.postIconsByPostIdMap[postId] ?: emptyList(),
+        postReplies = postAdditionalData.postReplyToByPostIdMap[postId] ?: emptyList()
+      )
+    }
+  }
+
+  /**
+   * Returns the thread the [snapshot] was written for or null if the snapshot is outdated (the thread
+   * was deleted and then inserted again or some of its posts were deleted in bulk after the snapshot
+   * was written). Snapshots are deleted by ChanPostRepository whenever posts of a thread are inserted
+   * or updated so this is only a safety net for the bulk deletions that do not know which threads
+   * they touched.
+   * */
+  suspend fun validateThreadPostsSnapshot(
+    descriptor: ChanDescriptor.ThreadDescriptor,
+    snapshot: ThreadPostsSnapshot
+  ): ChanThreadEntity? {
+    ensureInTransaction()
+
+    val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
+      ?: return null
+
+    if (chanThreadEntity.threadId != snapshot.ownerThreadId) {
+      return null
+    }
+
+    if (chanPostDao.countThreadPosts(chanThreadEntity.threadId) != snapshot.databasePostsCount) {
+      return null
+    }
+
+    return chanThreadEntity
+  }
+
+  fun mapThreadPostsSnapshotRecord(
+    descriptor: ChanDescriptor.ThreadDescriptor,
+    chanThreadEntity: ChanThreadEntity,
+    postRecord: ThreadPostsSnapshot.PostRecord
+  ): ChanPost? {
+    val postId = postRecord.postId
+
+    val postAdditionalData = PostAdditionalData(
+      postImageByPostIdMap = mapOf(postId to postRecord.postImages),
+      postIconsByPostIdMap = mapOf(postId to postRecord.postIcons),
+      postReplyToByPostIdMap = mapOf(postId to postRecord.postReplies)
+    )
+
+    return ChanPostEntityMapper.fromEntity(
+      descriptor,
+      chanThreadEntity,
+      postRecord.chanPostFull.chanPostIdEntity,
+      postRecord.chanPostFull.chanPostEntity,
+      postRecord.textSpans,
+      postAdditionalData
+    )
+  }
+
+  /**
+   * Creates the thread if it doesn't exist yet and inserts (or replaces) the posts restored from a
+   * backup. The database ids of [postRecords] belong to a different database so the rows are mapped
+   * into posts first and then inserted as new ones. Returns the thread database id or null when the
+   * thread's board does not exist.
+   * */
+  suspend fun insertBackupThreadPosts(
+    descriptor: ChanDescriptor.ThreadDescriptor,
+    postRecords: List<ThreadPostsSnapshot.PostRecord>
+  ): Long? {
+    ensureInTransaction()
+
+    insertEmptyThread(descriptor)
+      ?: return null
+
+    val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
+      ?: return null
+
+    val chanPosts = postRecords.mapNotNull { postRecord ->
+      mapThreadPostsSnapshotRecord(descriptor, chanThreadEntity, postRecord)
+    }
+
+    if (chanPosts.isNotEmpty()) {
+      insertThreadPosts(chanThreadEntity.threadId, chanPosts)
+    }
+
+    return chanThreadEntity.threadId
+  }
+
+  private suspend fun selectThreadPosts(
+    chanThreadEntity: ChanThreadEntity,
+    postDatabaseIds: Collection<Long>
+  ): List<ChanPostFull> {
+    ensureInTransaction()
+
     val originalPost = chanPostDao.selectOriginalPost(chanThreadEntity.threadId)
       ?: return emptyList()
 
@@ -474,34 +633,52 @@ class ChanPostLocalSource(
     chanPostFullList.add(originalPost)
     chanPostFullList.addAll(threadPosts)
 
-    if (chanPostFullList.isEmpty()) {
-      return emptyList()
-    }
+    return chanPostFullList
+  }
 
-    val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
+  private suspend fun getTextSpansGroupedByPostId(postIdList: List<Long>): Map<Long, List<ChanTextSpanEntity>> {
+    ensureInTransaction()
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
+    return postIdList
       .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
       .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
       .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
+  }
 
-    val postAdditionalData = getPostsAdditionalData(postIdList)
+  suspend fun getThreadPostHashes(
+    descriptor: ChanDescriptor.ThreadDescriptor
+  ): Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> {
+    ensureInTransaction()
 
-    return chanPostFullList
-      .mapNotNull { chanPostFull ->
-        val postTextSnapEntityList =
-          textSpansGroupedByPostId[chanPostFull.chanPostIdEntity.postId]
+    val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
+      ?: return emptyMap()
 
-        return@mapNotNull ChanPostEntityMapper.fromEntity(
-          descriptor,
-          chanThreadEntity,
-          chanPostFull.chanPostIdEntity,
-          chanPostFull.chanPostEntity,
-          postTextSnapEntityList,
-          postAdditionalData
-        )
-      }
+    val rawPostHashes = chanPostDao.selectRawPostHashesByThreadId(chanThreadEntity.threadId)
+    if (rawPostHashes.isEmpty()) {
+      return emptyMap()
+    }
+
+    val resultMap = mutableMapWithCap<PostDescriptor, MurmurHashUtils.Murmur3Hash>(rawPostHashes.size)
+
+    rawPostHashes.forEach { rawPostHashDatabaseObject ->
+      val rawPostHash = ChanPostEntityMapper.rawPostHashFromEntity(
+        rawPostHash1 = rawPostHashDatabaseObject.rawPostHash1,
+        rawPostHash2 = rawPostHashDatabaseObject.rawPostHash2
+      ) ?: return@forEach
+
+      val postDescriptor = PostDescriptor.create(
+        siteName = descriptor.siteName(),
+        boardCode = descriptor.boardCode(),
+        threadNo = descriptor.threadNo,
+        postNo = rawPostHashDatabaseObject.postNo,
+        postSubNo = rawPostHashDatabaseObject.postSubNo
+      )
+
+      resultMap[postDescriptor] = rawPostHash
+    }
+
+    return resultMap
   }
 
   private suspend fun getPostsAdditionalData(postIdList: List<Long>): PostAdditionalData {
@@ -51,6 +51,19 @@ class ChanSavedReplyLocalSource(
     )
   }
 
+  /**
+   * Replaces existing saved replies with the same post descriptors (used when restoring a backup).
+   * */
+  suspend fun saveMany(chanSavedReplies: Collection<ChanSavedReply>) {
+    ensureInTransaction()
+
+    unsavePosts(chanSavedReplies.map { chanSavedReply -> chanSavedReply.postDescriptor })
+
+    chanSavedReplies.forEach { chanSavedReply ->
+      chanSavedReplyDao.insertOrIgnore(ChanSavedReplyMapper.toEntity(chanSavedReply))
+    }
+  }
+
   suspend fun unsaveAll() {
     ensureInTransaction()
 
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.source.local
 
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.navigation.NavHistoryChangeSet
 import com.github.k1rakishou.model.data.navigation.NavHistoryElement
 import com.github.k1rakishou.model.mapper.NavHistoryElementMapper
 import com.squareup.moshi.Moshi
@@ -20,6 +21,64 @@ class NavHistoryLocalSource(
       .mapNotNull { navHistoryFullDto -> NavHistoryElementMapper.fromNavHistoryEntity(navHistoryFullDto, moshi) }
   }
 
+  suspend fun selectPage(offset: Int, count: Int): List<NavHistoryElement> {
+    ensureInTransaction()
+
+    return navHistoryDao.selectPage(offset, count)
+      .mapNotNull { navHistoryFullDto -> NavHistoryElementMapper.fromNavHistoryEntity(navHistoryFullDto, moshi) }
+  }
+
+  suspend fun applyChanges(navHistoryChangeSet: NavHistoryChangeSet) {
+    ensureInTransaction()
+
+    when (navHistoryChangeSet) {
+      is NavHistoryChangeSet.Rewrite -> persist(navHistoryChangeSet.navHistoryStack)
+      is NavHistoryChangeSet.Delta -> applyDelta(navHistoryChangeSet)
+    }
+  }
+
+  private suspend fun applyDelta(delta: NavHistoryChangeSet.Delta) {
+    Logger.d(TAG, "applyDelta(updated.size=${delta.updated.size}, deleted.size=${delta.deleted.size})")
+
+    if (delta.deleted.isNotEmpty()) {
+      val deletedDataJsons = delta.deleted.mapNotNull { navHistoryElement ->
+        NavHistoryElementMapper.toNavHistoryElementIdEntity(navHistoryElement, moshi)?.navHistoryElementDataJson
+      }
+
+      navHistoryDao.deleteManyByDataJson(deletedDataJsons)
+    }
+
+    if (delta.updated.isEmpty()) {
+      return
+    }
+
+    val updatedIdEntities = delta.updated.map { (_, navHistoryElement) ->
+      NavHistoryElementMapper.toNavHistoryElementIdEntity(navHistoryElement, moshi)
+    }
+
+    // Elements that were only moved or changed already have their ids, they are ignored here
+    navHistoryDao.insertManyIdsOrIgnore(updatedIdEntities.filterNotNull())
+
+    val navHistoryIdMap = navHistoryDao.selectIdsByDataJson(
+      navHistoryElementDataJsons = updatedIdEntities.mapNotNull { idEntity -> idEntity?.navHistoryElementDataJson }
+    )
+
+    val navHistoryElementInfoEntityList = delta.updated.mapIndexedNotNull { index, (order, navHistoryElement) ->
+      val navHistoryElementDataJson = updatedIdEntities[index]?.navHistoryElementDataJson
+        ?: return@mapIndexedNotNull null
+      val navHistoryId = navHistoryIdMap[navHistoryElementDataJson]
+        ?: return@mapIndexedNotNull null
+
+      return@mapIndexedNotNull NavHistoryElementMapper.toNavHistoryElementInfoEntity(
+        navHistoryId = navHistoryId,
+        navHistoryElement = navHistoryElement,
+        order = order
+      )
+    }
+
+    navHistoryDao.insertManyInfoOrReplace(navHistoryElementInfoEntityList)
+  }
+
   suspend fun persist(navHistoryStack: List<NavHistoryElement>) {
     ensureInTransaction()
 
@@ -47,7 +106,7 @@ class NavHistoryLocalSource(
         return@mapIndexed NavHistoryElementMapper.toNavHistoryElementInfoEntity(
           navHistoryId = navHistoryId,
           navHistoryElement = navHistoryElement,
-          order = order
+          order = order * NavHistoryChangeSet.ORDERS_GAP
         )
       }
 
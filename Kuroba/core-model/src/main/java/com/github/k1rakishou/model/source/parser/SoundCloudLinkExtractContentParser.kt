@@ -11,7 +11,6 @@ import com.github.k1rakishou.model.data.media.SoundCloudVideoId
 import com.github.k1rakishou.model.data.video_service.MediaServiceType
 import okhttp3.ResponseBody
 import org.joda.time.Period
-import org.jsoup.Jsoup
 import org.jsoup.nodes.Element
 
 object SoundCloudLinkExtractContentParser : IExtractContentParser {
@@ -45,14 +44,8 @@ object SoundCloudLinkExtractContentParser : IExtractContentParser {
     val collector = SoundCloudNormalLinkContentCollector()
 
     responseBody.use { body ->
-      val document = Jsoup.parse(
-        body.byteStream(),
-        Charsets.UTF_8.name(),
-        ""
-      )
-
       parserCommandExecutor.executeCommands(
-        document,
+        body.source(),
         normalLinkParserCommandBuffer,
         collector,
         url
@@ -103,14 +96,8 @@ object SoundCloudLinkExtractContentParser : IExtractContentParser {
     val collector = SoundCloudAlbumLinkContentCollector()
 
     responseBody.use { body ->
-      val document = Jsoup.parse(
-        body.byteStream(),
-        Charsets.UTF_8.name(),
-        ""
-      )
-
       parserCommandExecutor.executeCommands(
-        document,
+        body.source(),
         albumLinkParserCommandBuffer,
         collector
       )
@@ -224,12 +211,19 @@ object SoundCloudLinkExtractContentParser : IExtractContentParser {
         && titleArtistPart.isNullOrEmpty()
         && videoDuration.isNullOrEmpty()
     }
+
+    override fun isSatisfied(): Boolean {
+      return !titleTrackNamePart.isNullOrEmpty()
+        && !titleArtistPart.isNullOrEmpty()
+        && !videoDuration.isNullOrEmpty()
+    }
   }
 
   private data class SoundCloudAlbumLinkContentCollector(
     var fullTitle: String? = null
   ) : KurobaHtmlParserCollector {
     fun isEmpty(): Boolean = fullTitle.isNullOrEmpty()
+    override fun isSatisfied(): Boolean = !fullTitle.isNullOrEmpty()
   }
 
 }
\ No newline at end of file
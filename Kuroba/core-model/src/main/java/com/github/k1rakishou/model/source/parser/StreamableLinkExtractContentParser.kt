@@ -10,7 +10,6 @@ import com.github.k1rakishou.model.data.media.MediaServiceLinkExtraInfo
 import com.github.k1rakishou.model.data.video_service.MediaServiceType
 import okhttp3.ResponseBody
 import org.joda.time.Period
-import org.jsoup.Jsoup
 
 object StreamableLinkExtractContentParser : IExtractContentParser {
   private val parserCommandBuffer = createParserCommandBuffer()
@@ -27,14 +26,8 @@ object StreamableLinkExtractContentParser : IExtractContentParser {
     val collector = StreamableLinkContentCollector()
 
     responseBody.use { body ->
-      val document = Jsoup.parse(
-        body.byteStream(),
-        Charsets.UTF_8.name(),
-        ""
-      )
-
       parserCommandExecutor.executeCommands(
-        document,
+        body.source(),
         parserCommandBuffer,
         collector,
         url
@@ -100,6 +93,11 @@ object StreamableLinkExtractContentParser : IExtractContentParser {
         && videoDuration.isNullOrEmpty()
     }
 
+    override fun isSatisfied(): Boolean {
+      return !videoTitle.isNullOrEmpty()
+        && !videoDuration.isNullOrEmpty()
+    }
+
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,347 @@
+package com.github.k1rakishou.model.source.snapshot
+
+import com.github.k1rakishou.model.data.post.ChanPostImageType
+import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Read-only copy of all the database rows of a downloaded thread's posts stored in a single file.
+ * The file is memory-mapped and every post is decoded only when it's requested via [decodePost] so
+ * opening a snapshot costs the same no matter how big the thread is. The database is still the source
+ * of truth, a snapshot may be missing or outdated and must be validated by the caller (see
+ * [ownerThreadId] and [databasePostsCount]).
+ *
+ * File layout (big-endian):
+ *  - header: magic (int), version (int), ownerThreadId (long), databasePostsCount (int), postsCount (int)
+ *  - index: offset of every post record from the beginning of the file (int per post)
+ *  - post records in the same order they were written in.
+ *
+ * Thread-safe, every [decodePost] call reads from its own view of the mapped buffer.
+ * */
+class ThreadPostsSnapshot private constructor(
+  private val buffer: ByteBuffer,
+  val ownerThreadId: Long,
+  /**
+   * The amount of the thread's posts in the database at the time the snapshot was written (may be
+   * different from [postsCount] since not every post is loaded).
+   * */
+  val databasePostsCount: Int,
+  val postsCount: Int
+) {
+
+  fun decodePost(index: Int): PostRecord {
+    require(index in 0 until postsCount) { "Bad index: $index, postsCount: $postsCount" }
+
+    val recordOffset = buffer.getInt(HEADER_SIZE + index * Int.SIZE_BYTES)
+
+    val recordBuffer = buffer.duplicate()
+    recordBuffer.position(recordOffset)
+
+    return readPostRecord(recordBuffer, ownerThreadId)
+  }
+
+  /**
+   * Same rows as the ones the database returns for a post (only the ReplyTo kind of replies).
+   * */
+  class PostRecord(
+    val chanPostFull: ChanPostFull,
+    val textSpans: List<ChanTextSpanEntity>,
+    val postImages: List<ChanPostImageEntity>,
+    val postIcons: List<ChanPostHttpIconEntity>,
+    val postReplies: List<ChanPostReplyEntity>
+  ) {
+    val postId: Long
+      get() = chanPostFull.chanPostIdEntity.postId
+  }
+
+  companion object {
+    private const val MAGIC = 0x4B545053 // "KTPS"
+    private const val VERSION = 1
+    private const val HEADER_SIZE = Int.SIZE_BYTES + Int.SIZE_BYTES + Long.SIZE_BYTES + Int.SIZE_BYTES + Int.SIZE_BYTES
+
+    private const val NULL_LENGTH = -1
+    private const val NO_IMAGE_TYPE = -1
+
+    /**
+     * Writes the [postRecords] (all of them must belong to the same thread) into a temp file first and
+     * then renames it into [snapshotFile] so that a half written snapshot is never opened.
+     * */
+    @Throws(IOException::class)
+    fun write(snapshotFile: File, databasePostsCount: Int, postRecords: List<PostRecord>) {
+      require(postRecords.isNotEmpty()) { "postRecords must not be empty" }
+
+      val ownerThreadId = postRecords.first().chanPostFull.chanPostIdEntity.ownerThreadId
+      val indexSize = postRecords.size * Int.SIZE_BYTES
+
+      val recordsOutputStream = ByteArrayOutputStream(postRecords.size * 512)
+      val recordsDataOutputStream = DataOutputStream(recordsOutputStream)
+      val recordOffsets = IntArray(postRecords.size)
+
+      postRecords.forEachIndexed { index, postRecord ->
+        check(postRecord.chanPostFull.chanPostIdEntity.ownerThreadId == ownerThreadId) {
+          "Post ${postRecord.postId} belongs to a different thread"
+        }
+
+        val recordOffset = HEADER_SIZE.toLong() + indexSize + recordsDataOutputStream.size()
+        if (recordOffset > Int.MAX_VALUE) {
+          throw IOException("Thread is too big for a snapshot")
+        }
+
+        recordOffsets[index] = recordOffset.toInt()
+        writePostRecord(recordsDataOutputStream, postRecord)
+      }
+
+      recordsDataOutputStream.flush()
+
+      val tempFile = File(snapshotFile.parentFile, "${snapshotFile.name}.tmp")
+
+      DataOutputStream(tempFile.outputStream().buffered()).use { outputStream ->
+        outputStream.writeInt(MAGIC)
+        outputStream.writeInt(VERSION)
+        outputStream.writeLong(ownerThreadId)
+        outputStream.writeInt(databasePostsCount)
+        outputStream.writeInt(postRecords.size)
+        recordOffsets.forEach { recordOffset -> outputStream.writeInt(recordOffset) }
+
+        recordsOutputStream.writeTo(outputStream)
+      }
+
+      if (!tempFile.renameTo(snapshotFile)) {
+        tempFile.delete()
+        throw IOException("Failed to rename '${tempFile.absolutePath}' into '${snapshotFile.absolutePath}'")
+      }
+    }
+
+    /**
+     * Returns null when there is no snapshot or it was written by a different version of the app.
+     * */
+    @Throws(IOException::class)
+    fun open(snapshotFile: File): ThreadPostsSnapshot? {
+      if (!snapshotFile.exists() || snapshotFile.length() < HEADER_SIZE) {
+        return null
+      }
+
+      val buffer = RandomAccessFile(snapshotFile, "r").use { randomAccessFile ->
+        // The mapping stays valid after the channel is closed
+        randomAccessFile.channel.map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length())
+      }
+
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(Int.SIZE_BYTES) != VERSION) {
+        return null
+      }
+
+      val ownerThreadId = buffer.getLong(Int.SIZE_BYTES * 2)
+      val databasePostsCount = buffer.getInt(Int.SIZE_BYTES * 2 + Long.SIZE_BYTES)
+      val postsCount = buffer.getInt(Int.SIZE_BYTES * 3 + Long.SIZE_BYTES)
+
+      if (postsCount < 0 || HEADER_SIZE.toLong() + postsCount.toLong() * Int.SIZE_BYTES > buffer.limit()) {
+        return null
+      }
+
+      return ThreadPostsSnapshot(buffer, ownerThreadId, databasePostsCount, postsCount)
+    }
+
+    internal fun writePostRecord(outputStream: DataOutputStream, postRecord: PostRecord) {
+      val chanPostIdEntity = postRecord.chanPostFull.chanPostIdEntity
+      val chanPostEntity = postRecord.chanPostFull.chanPostEntity
+
+      outputStream.writeLong(chanPostIdEntity.postId)
+      outputStream.writeLong(chanPostIdEntity.postNo)
+      outputStream.writeLong(chanPostIdEntity.postSubNo)
+
+      outputStream.writeBoolean(chanPostEntity.deleted)
+      outputStream.writeLong(chanPostEntity.timestamp)
+      writeString(outputStream, chanPostEntity.name)
+      writeString(outputStream, chanPostEntity.posterId)
+      outputStream.writeInt(chanPostEntity.posterIdColor)
+      writeString(outputStream, chanPostEntity.moderatorCapcode)
+      outputStream.writeBoolean(chanPostEntity.isOp)
+      outputStream.writeBoolean(chanPostEntity.isSavedReply)
+      outputStream.writeBoolean(chanPostEntity.isSage)
+      outputStream.writeLong(chanPostEntity.rawPostHash1)
+      outputStream.writeLong(chanPostEntity.rawPostHash2)
+
+      outputStream.writeInt(postRecord.textSpans.size)
+      postRecord.textSpans.forEach { textSpan ->
+        outputStream.writeLong(textSpan.textSpanId)
+        writeString(outputStream, textSpan.parsedText)
+        writeString(outputStream, textSpan.unparsedText)
+        writeBytes(outputStream, textSpan.spanInfoBytes)
+        outputStream.writeInt(textSpan.textType.value)
+      }
+
+      outputStream.writeInt(postRecord.postImages.size)
+      postRecord.postImages.forEach { postImage ->
+        outputStream.writeLong(postImage.postImageId)
+        writeString(outputStream, postImage.serverFilename)
+        writeString(outputStream, postImage.thumbnailUrl?.toString())
+        writeString(outputStream, postImage.imageUrl?.toString())
+        writeString(outputStream, postImage.spoilerThumbnailUrl?.toString())
+        writeString(outputStream, postImage.filename)
+        writeString(outputStream, postImage.extension)
+        outputStream.writeInt(postImage.imageWidth)
+        outputStream.writeInt(postImage.imageHeight)
+        outputStream.writeBoolean(postImage.spoiler)
+        outputStream.writeBoolean(postImage.isInlined)
+        outputStream.writeLong(postImage.fileSize)
+        writeString(outputStream, postImage.fileHash)
+        outputStream.writeInt(postImage.type?.value ?: NO_IMAGE_TYPE)
+      }
+
+      outputStream.writeInt(postRecord.postIcons.size)
+      postRecord.postIcons.forEach { postIcon ->
+        writeString(outputStream, postIcon.iconUrl.toString())
+        writeString(outputStream, postIcon.iconName)
+      }
+
+      outputStream.writeInt(postRecord.postReplies.size)
+      postRecord.postReplies.forEach { postReply ->
+        outputStream.writeLong(postReply.postReplyId)
+        outputStream.writeLong(postReply.replyNo)
+        outputStream.writeLong(postReply.replySubNo)
+        outputStream.writeInt(postReply.replyType.value)
+      }
+    }
+
+    internal fun readPostRecord(buffer: ByteBuffer, ownerThreadId: Long): PostRecord {
+      val postId = buffer.getLong()
+
+      val chanPostIdEntity = ChanPostIdEntity(
+        postId = postId,
+        ownerThreadId = ownerThreadId,
+        postNo = buffer.getLong(),
+        postSubNo = buffer.getLong()
+      )
+
+      val chanPostEntity = ChanPostEntity(
+        chanPostId = postId,
+        deleted = readBoolean(buffer),
+        timestamp = buffer.getLong(),
+        name = readString(buffer),
+        posterId = readString(buffer),
+        posterIdColor = buffer.getInt(),
+        moderatorCapcode = readString(buffer),
+        isOp = readBoolean(buffer),
+        isSavedReply = readBoolean(buffer),
+        isSage = readBoolean(buffer),
+        rawPostHash1 = buffer.getLong(),
+        rawPostHash2 = buffer.getLong()
+      )
+
+      val textSpans = List(buffer.getInt()) {
+        ChanTextSpanEntity(
+          textSpanId = buffer.getLong(),
+          ownerPostId = postId,
+          parsedText = readString(buffer)!!,
+          unparsedText = readString(buffer),
+          spanInfoBytes = readBytes(buffer),
+          textType = ChanTextSpanEntity.TextType.fromValue(buffer.getInt())
+        )
+      }
+
+      val postImages = List(buffer.getInt()) {
+        ChanPostImageEntity(
+          postImageId = buffer.getLong(),
+          ownerPostId = postId,
+          serverFilename = readString(buffer)!!,
+          thumbnailUrl = readHttpUrl(buffer),
+          imageUrl = readHttpUrl(buffer),
+          spoilerThumbnailUrl = readHttpUrl(buffer),
+          filename = readString(buffer),
+          extension = readString(buffer),
+          imageWidth = buffer.getInt(),
+          imageHeight = buffer.getInt(),
+          spoiler = readBoolean(buffer),
+          isInlined = readBoolean(buffer),
+          fileSize = buffer.getLong(),
+          fileHash = readString(buffer),
+          type = buffer.getInt()
+            .takeIf { type -> type != NO_IMAGE_TYPE }
+            ?.let { type -> ChanPostImageType.fromValue(type) }
+        )
+      }
+
+      val postIcons = List(buffer.getInt()) {
+        ChanPostHttpIconEntity(
+          iconUrl = readHttpUrl(buffer)!!,
+          ownerPostId = postId,
+          iconName = readString(buffer)!!
+        )
+      }
+
+      val postReplies = List(buffer.getInt()) {
+        ChanPostReplyEntity(
+          postReplyId = buffer.getLong(),
+          ownerPostId = postId,
+          replyNo = buffer.getLong(),
+          replySubNo = buffer.getLong(),
+          replyType = ChanPostReplyEntity.ReplyType.fromValue(buffer.getInt())
+        )
+      }
+
+      return PostRecord(
+        chanPostFull = ChanPostFull(chanPostIdEntity, chanPostEntity),
+        textSpans = textSpans,
+        postImages = postImages,
+        postIcons = postIcons,
+        postReplies = postReplies
+      )
+    }
+
+    private fun writeString(outputStream: DataOutputStream, string: String?) {
+      if (string == null) {
+        outputStream.writeInt(NULL_LENGTH)
+        return
+      }
+
+      writeBytes(outputStream, string.toByteArray(Charsets.UTF_8))
+    }
+
+    private fun writeBytes(outputStream: DataOutputStream, bytes: ByteArray) {
+      outputStream.writeInt(bytes.size)
+      outputStream.write(bytes)
+    }
+
+    private fun readString(buffer: ByteBuffer): String? {
+      val length = buffer.getInt()
+      if (length == NULL_LENGTH) {
+        return null
+      }
+
+      val bytes = ByteArray(length)
+      buffer.get(bytes)
+
+      return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun readBytes(buffer: ByteBuffer): ByteArray {
+      val bytes = ByteArray(buffer.getInt())
+      buffer.get(bytes)
+
+      return bytes
+    }
+
+    private fun readHttpUrl(buffer: ByteBuffer): HttpUrl? {
+      return readString(buffer)?.toHttpUrl()
+    }
+
+    private fun readBoolean(buffer: ByteBuffer): Boolean {
+      return buffer.get() != 0.toByte()
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+package com.github.k1rakishou.model.data.bookmark
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import org.junit.Test
+
+class ThreadBookmarkGroupMatcherTest {
+  private val g = BoardDescriptor.create("4chan", "g")
+  private val a = BoardDescriptor.create("4chan", "a")
+  private val dvach = BoardDescriptor.create("2ch", "b")
+
+  @Test
+  fun `first matching group by group order wins`() {
+    val groups = listOf(
+      group("default_group", 0, null),
+      group("anime", 1, ThreadBookmarkGroupMatchPatternBuilder
+        .newBuilder("/anime/i", BookmarkGroupMatchFlag.Type.PostSubject)
+        .or("/anime/i", BookmarkGroupMatchFlag.Type.PostComment)
+        .build()),
+      group("no_pattern", 2, null),
+      group("g_linux", 3, ThreadBookmarkGroupMatchPatternBuilder
+        .newBuilder("g", BookmarkGroupMatchFlag.Type.BoardCode)
+        .and("/linux/i", BookmarkGroupMatchFlag.Type.PostComment)
+        .build()),
+      group("anything_on_g", 4, ThreadBookmarkGroupMatchPatternBuilder
+        .newBuilder("g", BookmarkGroupMatchFlag.Type.BoardCode)
+        .build()),
+      group("dvach", 5, ThreadBookmarkGroupMatchPatternBuilder
+        .newBuilder("2ch", BookmarkGroupMatchFlag.Type.SiteName)
+        .build())
+    )
+
+    val matcher = ThreadBookmarkGroupMatcher.build(groups)
+    assertEquals(4, matcher.groupsCount)
+
+    assertEquals("anime", matcher.findFirstMatchingGroup(g, "Anime thread", "linux")?.groupId)
+    assertEquals("g_linux", matcher.findFirstMatchingGroup(g, "Desktop thread", "Post your Linux")?.groupId)
+    assertEquals("anything_on_g", matcher.findFirstMatchingGroup(g, "Desktop thread", "windows")?.groupId)
+    assertEquals("dvach", matcher.findFirstMatchingGroup(dvach, "", "")?.groupId)
+    assertNull(matcher.findFirstMatchingGroup(a, "Desktop thread", "linux"))
+  }
+
+  @Test
+  fun `compiled matcher gives the same results as matching every group one by one`() {
+    val groups = generateGroups(groupsCount = 50)
+    val matcher = ThreadBookmarkGroupMatcher.build(groups)
+
+    generatePosts(postsCount = 1000).forEach { (boardDescriptor, subject, comment) ->
+      val expected = groups
+        .firstOrNull { group -> !group.isDefaultGroup() && group.matches(boardDescriptor, subject, comment) }
+        ?.groupId
+
+      val actual = matcher.findFirstMatchingGroup(boardDescriptor, subject, comment)?.groupId
+      assertEquals("subject='$subject', comment='$comment'", expected, actual)
+    }
+  }
+
+  private fun generateGroups(groupsCount: Int): List<ThreadBookmarkGroup> {
+    return (0 until groupsCount).map { index ->
+      // Filter watcher groups look like this, the pattern is matched against both subject and comment
+      val pattern = ThreadBookmarkGroupMatchPatternBuilder
+        .newBuilder("/topic${index}\\b/i", BookmarkGroupMatchFlag.Type.PostSubject)
+        .or("/topic${index}\\b/i", BookmarkGroupMatchFlag.Type.PostComment)
+
+      if (index % 5 == 0) {
+        pattern.and("g", BookmarkGroupMatchFlag.Type.BoardCode)
+      }
+
+      group("group_$index", index + 1, pattern.build())
+    }
+  }
+
+  private fun generatePosts(postsCount: Int): List<Triple<BoardDescriptor, String, String>> {
+    val boards = listOf(g, a, dvach)
+
+    return (0 until postsCount).map { index ->
+      val subject = if (index % 3 == 0) "Topic${index % 70} general" else "Some thread #$index"
+      val comment = "Long comment ".repeat(20) + "about topic${(index * 7) % 90}"
+
+      Triple(boards[index % boards.size], subject, comment)
+    }
+  }
+
+  private fun group(groupId: String, groupOrder: Int, pattern: ThreadBookmarkGroupMatchPattern?): ThreadBookmarkGroup {
+    return ThreadBookmarkGroup(
+      groupId = groupId,
+      groupName = groupId,
+      isExpanded = true,
+      groupOrder = groupOrder,
+      newMatchingPattern = pattern
+    )
+  }
+
+}
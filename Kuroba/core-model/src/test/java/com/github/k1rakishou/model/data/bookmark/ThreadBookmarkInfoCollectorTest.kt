@@ -0,0 +1,180 @@
+package com.github.k1rakishou.model.data.bookmark
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class ThreadBookmarkInfoCollectorTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("4chan", "g", 1000L)
+
+  @Test
+  fun `collector keeps all post numbers but only the requested post objects`() {
+    val collector = ThreadBookmarkInfoCollector(
+      threadDescriptor = threadDescriptor,
+      expectedCapacity = 1,
+      needPostComments = true,
+      keepPostObject = { postObject -> postObject.comment().contains(">>1005") }
+    )
+
+    generatePosts(postsCount = 100).forEach { postObject -> collector.collect(postObject) }
+    val threadBookmarkInfoObject = collector.build()
+
+    assertEquals(100, threadBookmarkInfoObject.postsCount)
+    assertEquals(99, threadBookmarkInfoObject.getPostsCountWithoutOP())
+    assertEquals(1099L, threadBookmarkInfoObject.lastThreadPostNo())
+    assertEquals(51, threadBookmarkInfoObject.countAmountOfSeenPosts(1050L))
+    assertEquals(49, threadBookmarkInfoObject.countAmountOfNewPosts(1050L))
+    assertEquals(1000L, threadBookmarkInfoObject.originalPost.postNo)
+
+    assertEquals(1, threadBookmarkInfoObject.replyPostObjects.size)
+    assertEquals(1006L, threadBookmarkInfoObject.replyPostObjects.first().postNo())
+  }
+
+  @Test
+  fun `post objects are not kept when comments are not needed`() {
+    val collector = ThreadBookmarkInfoCollector(
+      threadDescriptor = threadDescriptor,
+      expectedCapacity = 100,
+      needPostComments = false,
+      keepPostObject = { true }
+    )
+
+    generatePosts(postsCount = 100).forEach { postObject -> collector.collect(postObject) }
+    val threadBookmarkInfoObject = collector.build()
+
+    assertEquals(100, threadBookmarkInfoObject.postsCount)
+    assertTrue(threadBookmarkInfoObject.replyPostObjects.isEmpty())
+  }
+
+  @Test
+  fun `post counts are correct when post numbers are not in ascending order`() {
+    val collector = ThreadBookmarkInfoCollector(threadDescriptor, 16, false) { false }
+
+    // Some sites (e.g. Lainchan) may have the OP postNo greater than the postNo of the replies
+    collector.collect(ThreadBookmarkInfoPostObject.RegularPost(998L, ""))
+    collector.collect(generatePosts(postsCount = 1).first())
+    collector.collect(ThreadBookmarkInfoPostObject.RegularPost(1002L, ""))
+    collector.collect(ThreadBookmarkInfoPostObject.RegularPost(1001L, ""))
+
+    val threadBookmarkInfoObject = collector.build()
+
+    assertEquals(1002L, threadBookmarkInfoObject.lastThreadPostNo())
+    assertEquals(2, threadBookmarkInfoObject.countAmountOfSeenPosts(1000L))
+    assertEquals(2, threadBookmarkInfoObject.countAmountOfNewPosts(1000L))
+    assertEquals(0, threadBookmarkInfoObject.countAmountOfNewPosts(1002L))
+
+    val postNosInReceivedOrder = mutableListOf<Long>()
+    threadBookmarkInfoObject.forEachPostNo { postNo -> postNosInReceivedOrder += postNo }
+    assertEquals(listOf(998L, 1000L, 1002L, 1001L), postNosInReceivedOrder)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `thread without OP is an error`() {
+    val collector = ThreadBookmarkInfoCollector(threadDescriptor, 16, false) { false }
+    collector.collect(ThreadBookmarkInfoPostObject.RegularPost(1001L, ""))
+    collector.build()
+  }
+
+  // One watcher cycle over 200 large bookmarks: what the post objects list (what used to be kept for
+  // every bookmark) vs the collector allocate and retain per cycle.
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark per cycle allocations of post objects vs post numbers`() {
+    val bookmarksCount = 200
+    val postsPerThread = 1500
+
+    // Warm up
+    repeat(3) {
+      runListCycle(bookmarksCount / 10, postsPerThread)
+      runCollectorCycle(bookmarksCount / 10, postsPerThread)
+    }
+
+    var retainedPosts: List<List<ThreadBookmarkInfoPostObject>>? = null
+    val heapBeforeList = usedHeapAfterGc()
+    val listAllocated = measureAllocatedBytes { retainedPosts = runListCycle(bookmarksCount, postsPerThread) }
+    val listRetained = usedHeapAfterGc() - heapBeforeList
+    assertEquals(bookmarksCount, retainedPosts!!.size)
+    retainedPosts = null
+
+    var retainedInfoObjects: List<ThreadBookmarkInfoObject>? = null
+    val heapBeforeCollector = usedHeapAfterGc()
+    val collectorAllocated = measureAllocatedBytes { retainedInfoObjects = runCollectorCycle(bookmarksCount, postsPerThread) }
+    val collectorRetained = usedHeapAfterGc() - heapBeforeCollector
+    assertEquals(bookmarksCount, retainedInfoObjects!!.size)
+
+    println(
+      "ThreadBookmarkInfoCollector benchmark ($bookmarksCount bookmarks, $postsPerThread posts each), per cycle: " +
+        "list allocated=${listAllocated?.let { it / 1024 }}KB (retained ~${listRetained / 1024}KB), " +
+        "collector allocated=${collectorAllocated?.let { it / 1024 }}KB (retained ~${collectorRetained / 1024}KB)"
+    )
+  }
+
+  private fun runListCycle(bookmarksCount: Int, postsPerThread: Int): List<List<ThreadBookmarkInfoPostObject>> {
+    return (0 until bookmarksCount).map { generatePosts(postsPerThread).toList() }
+  }
+
+  private fun runCollectorCycle(bookmarksCount: Int, postsPerThread: Int): List<ThreadBookmarkInfoObject> {
+    return (0 until bookmarksCount).map {
+      val collector = ThreadBookmarkInfoCollector(threadDescriptor, postsPerThread, false) { false }
+      generatePosts(postsPerThread).forEach { postObject -> collector.collect(postObject) }
+
+      collector.build()
+    }
+  }
+
+  private fun usedHeapAfterGc(): Long {
+    val runtime = Runtime.getRuntime()
+
+    repeat(3) {
+      runtime.gc()
+      Thread.sleep(50)
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory()
+  }
+
+  // Returns null when the JVM can't measure allocations per thread
+  private fun measureAllocatedBytes(func: () -> Unit): Long? {
+    val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    if (threadMXBean == null || !threadMXBean.isThreadAllocatedMemorySupported) {
+      func()
+      return null
+    }
+
+    threadMXBean.isThreadAllocatedMemoryEnabled = true
+    val threadId = Thread.currentThread().id
+
+    val before = threadMXBean.getThreadAllocatedBytes(threadId)
+    func()
+    val after = threadMXBean.getThreadAllocatedBytes(threadId)
+
+    return after - before
+  }
+
+  private fun generatePosts(postsCount: Int): Sequence<ThreadBookmarkInfoPostObject> {
+    val threadNo = threadDescriptor.threadNo
+
+    return (0 until postsCount).asSequence().map { index ->
+      val postNo = threadNo + index
+      val comment = ">>${postNo - 1}<br>" + "Comment of post $postNo ".repeat(8)
+
+      if (index == 0) {
+        ThreadBookmarkInfoPostObject.OriginalPost(
+          postNo = postNo,
+          closed = false,
+          archived = false,
+          isBumpLimit = false,
+          isImageLimit = false,
+          stickyThread = StickyThread.NotSticky,
+          comment = comment
+        )
+      } else {
+        ThreadBookmarkInfoPostObject.RegularPost(postNo, comment)
+      }
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ChanThreadChangeSetTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("4chan", "g", 1000L)
+
+  @Test
+  fun `merged change set contains the changes of both change sets`() {
+    val first = changeSet(
+      fromRevision = 1,
+      toRevision = 2,
+      addedPosts = listOf(post(1001), post(1002)),
+      updatedPosts = setOf(post(1000))
+    )
+    val second = changeSet(
+      fromRevision = 2,
+      toRevision = 3,
+      addedPosts = listOf(post(1003)),
+      updatedPosts = setOf(post(1000), post(1002)),
+      deletedPosts = setOf(post(999))
+    )
+
+    val merged = first.mergeWith(second)
+
+    assertEquals(1L, merged.fromRevision)
+    assertEquals(3L, merged.toRevision)
+    assertEquals(listOf(post(1001), post(1002), post(1003)), merged.addedPosts)
+    // 1002 was added by the first change set so it's still just an added post
+    assertEquals(setOf(post(1000)), merged.updatedPosts)
+    assertEquals(setOf(post(999)), merged.deletedPosts)
+    assertFalse(merged.invalidated)
+    assertFalse(merged.appendedOnly)
+
+    assertTrue(merged.isPostChanged(post(1000)))
+    assertTrue(merged.isPostChanged(post(1003)))
+    assertFalse(merged.isPostChanged(post(1004)))
+  }
+
+  @Test
+  fun `post that was added and then deleted is only reported as added`() {
+    val first = changeSet(
+      fromRevision = 1,
+      toRevision = 2,
+      addedPosts = listOf(post(1001), post(1002))
+    )
+    val second = changeSet(
+      fromRevision = 2,
+      toRevision = 3,
+      updatedPosts = setOf(post(1000)),
+      deletedPosts = setOf(post(1001))
+    )
+    val third = changeSet(
+      fromRevision = 3,
+      toRevision = 4,
+      deletedPosts = setOf(post(1000))
+    )
+
+    val merged = first.mergeWith(second).mergeWith(third)
+
+    assertEquals(listOf(post(1001), post(1002)), merged.addedPosts)
+    // 1000 was updated and then deleted so it's just a deleted post
+    assertTrue(merged.updatedPosts.isEmpty())
+    assertEquals(setOf(post(1000)), merged.deletedPosts)
+    assertTrue(merged.isPostChanged(post(1001)))
+  }
+
+  @Test
+  fun `merging with an invalidated change set invalidates the result`() {
+    val first = changeSet(fromRevision = 1, toRevision = 2, addedPosts = listOf(post(1001)))
+    val second = ChanThreadChangeSet.invalidated(threadDescriptor, fromRevision = 2, toRevision = 5)
+
+    val merged = first.mergeWith(second)
+
+    assertTrue(merged.invalidated)
+    assertFalse(merged.isEmpty())
+    assertEquals(1L, merged.fromRevision)
+    assertEquals(5L, merged.toRevision)
+  }
+
+  @Test
+  fun `only new posts means appended only`() {
+    val changeSet = changeSet(fromRevision = 1, toRevision = 2, addedPosts = listOf(post(1001)))
+
+    assertTrue(changeSet.appendedOnly)
+    assertFalse(changeSet.isEmpty())
+    assertTrue(ChanThreadChangeSet.empty(threadDescriptor, revision = 2).isEmpty())
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun `change sets that are not consecutive can't be merged`() {
+    val first = changeSet(fromRevision = 1, toRevision = 2, addedPosts = listOf(post(1001)))
+    val second = changeSet(fromRevision = 3, toRevision = 4, addedPosts = listOf(post(1002)))
+
+    first.mergeWith(second)
+  }
+
+  private fun post(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun changeSet(
+    fromRevision: Long,
+    toRevision: Long,
+    addedPosts: List<PostDescriptor> = emptyList(),
+    updatedPosts: Set<PostDescriptor> = emptySet(),
+    deletedPosts: Set<PostDescriptor> = emptySet()
+  ): ChanThreadChangeSet {
+    return ChanThreadChangeSet(
+      threadDescriptor = threadDescriptor,
+      fromRevision = fromRevision,
+      toRevision = toRevision,
+      addedPosts = addedPosts,
+      updatedPosts = updatedPosts,
+      deletedPosts = deletedPosts,
+      addedImages = emptyList(),
+      removedImages = emptyList(),
+      invalidated = false
+    )
+  }
+
+}
@@ -0,0 +1,343 @@
+package com.github.k1rakishou.model.source.backup
+
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmark
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.navigation.NavHistoryElement
+import com.github.k1rakishou.model.data.navigation.NavHistoryElementInfo
+import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.source.backup.codec.ChanFilterBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ChanSavedReplyBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.NavHistoryElementBackupCodec
+import com.github.k1rakishou.model.source.backup.codec.ThreadBookmarkBackupCodec
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.joda.time.DateTime
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import kotlin.system.measureNanoTime
+
+class LogicalBackupTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun `restored records are the same as the exported ones`() {
+    val filters = generateFilters(10)
+    val navHistory = generateNavHistory(10)
+    val bookmarks = generateBookmarks(1000)
+    val savedReplies = generateSavedReplies(1000)
+
+    val backup = writeBackup(previousManifest = null) { writer ->
+      assertTrue(writer.writeSection(ChanFilterBackupCodec, filters))
+      assertTrue(writer.writeSection(NavHistoryElementBackupCodec, navHistory))
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, bookmarks)
+      writer.writeKeyedSection(ChanSavedReplyBackupCodec, savedReplies)
+    }
+
+    val restored = readBackup(backup.bytes)
+    assertFalse(restored.header.incremental)
+
+    assertEquals(filters, restored.filters)
+    assertEquals(navHistory.map { it.descriptor() }, restored.navHistory.map { it.descriptor() })
+    assertEquals(navHistory.map { it.navHistoryElementInfo }, restored.navHistory.map { it.navHistoryElementInfo })
+    assertEquals(bookmarks, restored.bookmarks)
+    assertEquals(savedReplies, restored.savedReplies)
+    assertTrue(restored.deletedBookmarks.isEmpty())
+
+    // Records are split into multiple chunks
+    assertTrue(backup.stats.chunks > 4)
+    assertEquals(bookmarks.size + savedReplies.size + filters.size + navHistory.size, backup.stats.writtenRecords)
+  }
+
+  @Test
+  fun `incremental backup only contains changed records and deleted keys`() {
+    val filters = generateFilters(10)
+    val bookmarks = generateBookmarks(100)
+
+    val fullBackup = writeBackup(previousManifest = null) { writer ->
+      writer.writeSection(ChanFilterBackupCodec, filters)
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, bookmarks)
+    }
+
+    // One changed, one deleted and one new bookmark
+    val changedBookmarks = bookmarks.drop(1).toMutableList()
+    changedBookmarks[0] = generateBookmark(1, seenPostsCount = 999)
+    changedBookmarks += generateBookmark(1000)
+
+    val incrementalBackup = writeBackup(previousManifest = fullBackup.manifest) { writer ->
+      assertFalse(writer.writeSection(ChanFilterBackupCodec, filters))
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, changedBookmarks)
+    }
+
+    assertEquals(2, incrementalBackup.stats.writtenRecords)
+    assertEquals(1, incrementalBackup.stats.deletedKeys)
+    assertEquals(filters.size + changedBookmarks.size - 2, incrementalBackup.stats.skippedRecords)
+
+    val restored = readBackup(incrementalBackup.bytes)
+    assertTrue(restored.header.incremental)
+    assertEquals(fullBackup.manifest.createdOn, restored.header.baseCreatedOn)
+    assertTrue(restored.filters.isEmpty())
+    assertEquals(listOf(changedBookmarks.first(), changedBookmarks.last()), restored.bookmarks)
+    assertEquals(listOf(bookmarks.first().threadDescriptor), restored.deletedBookmarks)
+
+    // Sections that were not written keep their checksums for the next incremental backup
+    val nextBackup = writeBackup(previousManifest = incrementalBackup.manifest) { writer ->
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, changedBookmarks)
+    }
+
+    assertEquals(0, nextBackup.stats.writtenRecords)
+    assertTrue(nextBackup.manifest.hasSection(LogicalBackup.Section.Filters))
+  }
+
+  @Test
+  fun `manifest is the same after being stored`() {
+    val manifestFile = File(temporaryFolder.root, "backup.manifest")
+    assertNull(LogicalBackupManifest.read(manifestFile))
+
+    val backup = writeBackup(previousManifest = null) { writer ->
+      writer.writeSection(ChanFilterBackupCodec, generateFilters(5))
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, generateBookmarks(50))
+    }
+
+    LogicalBackupManifest.write(manifestFile, backup.manifest)
+    assertFalse(File(temporaryFolder.root, "backup.manifest.tmp").exists())
+
+    val manifest = requireNotNull(LogicalBackupManifest.read(manifestFile))
+    assertEquals(backup.manifest.createdOn, manifest.createdOn)
+    assertEquals(51, manifest.recordsCount)
+
+    LogicalBackup.Section.values().forEach { section ->
+      assertEquals(backup.manifest.checksums(section), manifest.checksums(section))
+    }
+
+    manifestFile.writeBytes(ByteArray(1024) { 1 })
+    assertNull(LogicalBackupManifest.read(manifestFile))
+  }
+
+  @Test
+  fun `foreign and corrupted backups are not read`() {
+    assertThrows<IOException> { LogicalBackupReader(ByteArrayInputStream(ByteArray(4))) }
+    assertThrows<IOException> { LogicalBackupReader(ByteArrayInputStream(ByteArray(1024) { 1 })) }
+
+    val backup = writeBackup(previousManifest = null) { writer ->
+      writer.writeKeyedSection(ThreadBookmarkBackupCodec, generateBookmarks(100))
+    }
+
+    val corrupted = backup.bytes.copyOf()
+    for (index in LogicalBackup.HEADER_SIZE + LogicalBackup.CHUNK_HEADER_SIZE until corrupted.size - 1) {
+      corrupted[index] = 0x7F
+    }
+
+    assertThrows<IOException> { readBackup(corrupted) }
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark export and import throughput`() {
+    val bookmarks = generateBookmarks(20_000)
+    val savedReplies = generateSavedReplies(20_000)
+
+    // Warm up
+    repeat(3) {
+      val backup = writeBackup(previousManifest = null) { writer ->
+        writer.writeKeyedSection(ThreadBookmarkBackupCodec, bookmarks)
+        writer.writeKeyedSection(ChanSavedReplyBackupCodec, savedReplies)
+      }
+
+      readBackup(backup.bytes)
+    }
+
+    lateinit var backup: WrittenBackup
+
+    val writeNanos = measureNanoTime {
+      backup = writeBackup(previousManifest = null) { writer ->
+        writer.writeKeyedSection(ThreadBookmarkBackupCodec, bookmarks)
+        writer.writeKeyedSection(ChanSavedReplyBackupCodec, savedReplies)
+      }
+    }
+
+    val readNanos = measureNanoTime { readBackup(backup.bytes) }
+
+    val incrementalNanos = measureNanoTime {
+      writeBackup(previousManifest = backup.manifest) { writer ->
+        writer.writeKeyedSection(ThreadBookmarkBackupCodec, bookmarks)
+        writer.writeKeyedSection(ChanSavedReplyBackupCodec, savedReplies)
+      }
+    }
+
+    val rawMegabytes = backup.stats.rawBytes / (1024.0 * 1024.0)
+    println("records=${bookmarks.size + savedReplies.size}, rawBytes=${backup.stats.rawBytes}, " +
+      "fileBytes=${backup.bytes.size}, ratio=${"%.2f".format(backup.stats.rawBytes.toDouble() / backup.bytes.size)}")
+    println("write: ${writeNanos / 1_000_000}ms (${"%.1f".format(rawMegabytes / (writeNanos / 1e9))} MB/s), " +
+      "read: ${readNanos / 1_000_000}ms (${"%.1f".format(rawMegabytes / (readNanos / 1e9))} MB/s), " +
+      "unchanged incremental: ${incrementalNanos / 1_000_000}ms")
+
+    assertTrue(backup.bytes.size < backup.stats.rawBytes)
+  }
+
+  private fun <T : Any, K : Any> LogicalBackupWriter.writeKeyedSection(
+    codec: KeyedBackupRecordCodec<T, K>,
+    records: List<T>
+  ) {
+    val sectionWriter = beginSection(codec)
+    records.forEach { record -> sectionWriter.write(record) }
+    sectionWriter.finish()
+  }
+
+  private fun writeBackup(
+    previousManifest: LogicalBackupManifest?,
+    func: (LogicalBackupWriter) -> Unit
+  ): WrittenBackup {
+    val outputStream = ByteArrayOutputStream()
+    val createdOn = (previousManifest?.createdOn ?: 1_600_000_000_000L) + 1000L
+
+    LogicalBackupWriter(outputStream, createdOn, previousManifest, chunkSize = 4096).use { writer ->
+      func(writer)
+      val manifest = writer.finish()
+
+      return WrittenBackup(outputStream.toByteArray(), manifest, writer.stats)
+    }
+  }
+
+  private fun readBackup(bytes: ByteArray): RestoredBackup {
+    LogicalBackupReader(ByteArrayInputStream(bytes)).use { reader ->
+      val restored = RestoredBackup(reader.header)
+
+      while (true) {
+        val chunk = reader.nextChunk()
+          ?: break
+
+        when (chunk.section to chunk.chunkType) {
+          LogicalBackup.Section.Filters to LogicalBackup.ChunkType.Records -> {
+            restored.filters += chunk.readRecords(ChanFilterBackupCodec)
+          }
+          LogicalBackup.Section.NavHistory to LogicalBackup.ChunkType.Records -> {
+            restored.navHistory += chunk.readRecords(NavHistoryElementBackupCodec)
+          }
+          LogicalBackup.Section.Bookmarks to LogicalBackup.ChunkType.Records -> {
+            restored.bookmarks += chunk.readRecords(ThreadBookmarkBackupCodec)
+          }
+          LogicalBackup.Section.Bookmarks to LogicalBackup.ChunkType.DeletedKeys -> {
+            restored.deletedBookmarks += chunk.readDeletedKeys(ThreadBookmarkBackupCodec)
+          }
+          LogicalBackup.Section.SavedReplies to LogicalBackup.ChunkType.Records -> {
+            restored.savedReplies += chunk.readRecords(ChanSavedReplyBackupCodec)
+          }
+          else -> throw IllegalStateException("Unexpected chunk ${chunk.section} ${chunk.chunkType}")
+        }
+      }
+
+      return restored
+    }
+  }
+
+  private inline fun <reified T : Throwable> assertThrows(func: () -> Unit) {
+    try {
+      func()
+    } catch (error: Throwable) {
+      assertTrue("Unexpected error: $error", error is T)
+      return
+    }
+
+    throw AssertionError("Expected ${T::class.java.simpleName} to be thrown")
+  }
+
+  private fun generateFilters(count: Int): List<ChanFilter> {
+    return (0 until count).map { index ->
+      ChanFilter(
+        enabled = index % 2 == 0,
+        type = index,
+        pattern = "/pattern $index/i",
+        boards = if (index % 3 == 0) emptySet() else setOf(BOARD_DESCRIPTOR, BoardDescriptor.create(SITE_NAME, "b$index")),
+        action = index % 4,
+        color = index * 1000,
+        note = if (index % 2 == 0) null else "note $index",
+        applyToReplies = index % 3 == 0,
+        onlyOnOP = index % 5 == 0,
+        filterWatchNotify = index % 7 == 0
+      )
+    }
+  }
+
+  private fun generateNavHistory(count: Int): List<NavHistoryElement> {
+    return (0 until count).map { index ->
+      val info = NavHistoryElementInfo(
+        thumbnailUrl = "https://example.com/$index.jpg".toHttpUrl(),
+        title = "Element $index",
+        pinned = index == 0
+      )
+
+      if (index % 2 == 0) {
+        NavHistoryElement.Thread(ChanDescriptor.ThreadDescriptor.create(BOARD_DESCRIPTOR, 100L + index), info)
+      } else {
+        NavHistoryElement.Catalog(ChanDescriptor.CatalogDescriptor.create(SITE_NAME, "b$index"), info)
+      }
+    }
+  }
+
+  private fun generateBookmarks(count: Int): List<ThreadBookmark> {
+    return (0 until count).map { index -> generateBookmark(index) }
+  }
+
+  private fun generateBookmark(index: Int, seenPostsCount: Int = index): ThreadBookmark {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(BOARD_DESCRIPTOR, 100_000L + index)
+
+    return ThreadBookmark.create(threadDescriptor, DateTime(1_600_000_000_000L + index)).apply {
+      this.seenPostsCount = seenPostsCount
+      this.threadRepliesCount = index * 2
+      this.lastViewedPostNo = 100_000L + index * 3
+      this.threadLastPostNo = 100_000L + index * 4
+      this.title = "Thread title number $index"
+      this.thumbnailUrl = if (index % 5 == 0) null else "https://example.com/thumb/$index.jpg".toHttpUrl()
+
+      if (index % 7 == 0) {
+        state.set(ThreadBookmark.BOOKMARK_STATE_THREAD_ARCHIVED)
+      }
+    }
+  }
+
+  private fun generateSavedReplies(count: Int): List<ChanSavedReply> {
+    return (0 until count).map { index ->
+      ChanSavedReply(
+        postDescriptor = PostDescriptor.create(BOARD_DESCRIPTOR, 100_000L + index / 10, 100_000L + index),
+        comment = if (index % 3 == 0) null else "Reply comment number $index >>${100_000L + index - 1}",
+        subject = if (index % 10 == 0) "Subject $index" else null,
+        password = "password$index",
+        createdOn = DateTime(1_600_000_000_000L + index)
+      )
+    }
+  }
+
+  private class WrittenBackup(
+    val bytes: ByteArray,
+    val manifest: LogicalBackupManifest,
+    val stats: LogicalBackupWriter.Stats
+  )
+
+  private class RestoredBackup(val header: LogicalBackup.Header) {
+    val filters = mutableListOf<ChanFilter>()
+    val navHistory = mutableListOf<NavHistoryElement>()
+    val bookmarks = mutableListOf<ThreadBookmark>()
+    val deletedBookmarks = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val savedReplies = mutableListOf<ChanSavedReply>()
+  }
+
+  companion object {
+    private const val SITE_NAME = "4chan"
+    private val BOARD_DESCRIPTOR = BoardDescriptor.create(SITE_NAME, "g")
+  }
+
+}
@@ -0,0 +1,265 @@
+package com.github.k1rakishou.model.source.cache
+
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.id.BoardDBId
+import com.github.k1rakishou.model.data.id.ThreadBookmarkDBId
+import com.github.k1rakishou.model.data.id.ThreadBookmarkDescriptor
+import com.github.k1rakishou.model.data.id.ThreadDBId
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+class ChanDescriptorCacheTest {
+  private val boardDescriptors = (0 until BOARDS_COUNT)
+    .map { index -> BoardDescriptor.create("test", "board${index}") }
+  private val threadDescriptors = boardDescriptors.flatMap { boardDescriptor ->
+    (1..THREADS_PER_BOARD).map { threadNo -> ChanDescriptor.ThreadDescriptor.create(boardDescriptor, threadNo.toLong()) }
+  }
+
+  private val boardIds = boardDescriptors
+    .mapIndexed { index, boardDescriptor -> boardDescriptor to BoardDBId(index.toLong() + 1) }
+    .toMap()
+  private val threadIds = threadDescriptors
+    .mapIndexed { index, threadDescriptor -> threadDescriptor to ThreadDBId(index.toLong() + 1) }
+    .toMap()
+  private val bookmarkIds = threadDescriptors
+    .filterIndexed { index, _ -> index % 4 == 0 }
+    .mapIndexed { index, threadDescriptor -> threadDescriptor to ThreadBookmarkDBId(index.toLong() + 1) }
+    .toMap()
+  // The benchmark bookmarks every thread. ChanDescriptorCache goes to the database for the bookmark
+  // ids of threads that are not in its cache and the mutex-guarded copy doesn't, so with only some
+  // threads bookmarked the two would not be doing the same work.
+  private val allThreadsBookmarkIds = threadDescriptors
+    .mapIndexed { index, threadDescriptor -> threadDescriptor to ThreadBookmarkDBId(index.toLong() + 1) }
+    .toMap()
+
+  @Test
+  fun `cached ids are returned without going to the database`() = runBlocking {
+    val cache = createChanDescriptorCache()
+
+    assertEquals(boardIds, cache.getBoardIdByBoardDescriptors(boardDescriptors))
+    assertEquals(threadIds, cache.getManyThreadIdByThreadDescriptors(threadDescriptors))
+    assertEquals(bookmarkIds, cache.getManyThreadBookmarkIds(bookmarkIds.keys.toList()))
+    assertEquals(
+      bookmarkIds.entries.associate { (threadDescriptor, bookmarkId) -> bookmarkId to ThreadBookmarkDescriptor(threadDescriptor) },
+      cache.getManyBookmarkThreadDescriptors(bookmarkIds.values.toSet())
+    )
+
+    val deletedBookmarks = bookmarkIds.keys.take(2)
+    cache.deleteManyBookmarkIds(deletedBookmarks)
+    cache.putManyBookmarkIds(bookmarkIds.filterKeys { threadDescriptor -> threadDescriptor in deletedBookmarks })
+    assertEquals(bookmarkIds, cache.getManyThreadBookmarkIds(bookmarkIds.keys.toList()))
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark concurrent readers and writers, single mutex vs concurrent maps`() {
+    val readersCount = 8
+    val writersCount = 2
+    val iterations = 5_000
+
+    // Warm up
+    repeat(3) {
+      runBenchmark(MutexGuardedDescriptorCache(), readersCount, writersCount, iterations / 10)
+      runBenchmark(ConcurrentDescriptorCache(), readersCount, writersCount, iterations / 10)
+    }
+
+    val mutexTimeNanos = runBenchmark(MutexGuardedDescriptorCache(), readersCount, writersCount, iterations)
+    val concurrentTimeNanos = runBenchmark(ConcurrentDescriptorCache(), readersCount, writersCount, iterations)
+
+    println(
+      "readers=$readersCount, writers=$writersCount, iterations=$iterations, " +
+        "single mutex: ${mutexTimeNanos / 1_000_000}ms, " +
+        "concurrent maps: ${concurrentTimeNanos / 1_000_000}ms"
+    )
+  }
+
+  // Readers do what thread loading does (resolve the ids of a batch of threads and their bookmarks),
+  // writers do what the bookmark watcher and the post persisting do (put ids of the new threads and
+  // bookmarks). Every read is checked so the benchmark also verifies that no write gets lost.
+  private fun runBenchmark(
+    descriptorCache: BenchmarkedDescriptorCache,
+    readersCount: Int,
+    writersCount: Int,
+    iterations: Int
+  ): Long {
+    runBlocking { descriptorCache.fill() }
+    val start = CompletableDeferred<Unit>()
+
+    return measureNanoTime {
+      runBlocking(Dispatchers.Default) {
+        val readers = (0 until readersCount).map { readerIndex ->
+          launch {
+            start.await()
+            val random = Random(readerIndex)
+
+            repeat(iterations) {
+              val from = random.nextInt(threadDescriptors.size - BATCH_SIZE)
+              val batch = threadDescriptors.subList(from, from + BATCH_SIZE)
+
+              assertEquals(batch.associateWith { threadDescriptor -> threadIds.getValue(threadDescriptor) }, descriptorCache.getThreadIds(batch))
+              assertEquals(boardIds[batch.first().boardDescriptor], descriptorCache.getBoardId(batch.first().boardDescriptor))
+              assertEquals(batch.associateWith { threadDescriptor -> allThreadsBookmarkIds.getValue(threadDescriptor) }, descriptorCache.getBookmarkIds(batch))
+            }
+          }
+        }
+
+        val writers = (0 until writersCount).map { writerIndex ->
+          launch {
+            start.await()
+            val random = Random(readersCount + writerIndex)
+
+            repeat(iterations) {
+              val threadDescriptor = threadDescriptors[random.nextInt(threadDescriptors.size)]
+
+              descriptorCache.putThreadId(threadDescriptor, threadIds.getValue(threadDescriptor))
+              descriptorCache.putBoardIds(mapOf(threadDescriptor.boardDescriptor to boardIds.getValue(threadDescriptor.boardDescriptor)))
+              descriptorCache.putBookmarkIds(mapOf(threadDescriptor to allThreadsBookmarkIds.getValue(threadDescriptor)))
+            }
+          }
+        }
+
+        start.complete(Unit)
+        (readers + writers).joinAll()
+      }
+    }
+  }
+
+  private fun createChanDescriptorCache(
+    bookmarkIds: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId> = this.bookmarkIds
+  ): ChanDescriptorCache {
+    val database = mock<KurobaDatabase>()
+    whenever(database.inTransaction()).thenReturn(true)
+    whenever(database.chanBoardDao()).thenReturn(mock())
+    whenever(database.chanThreadDao()).thenReturn(mock())
+    whenever(database.chanPostDao()).thenReturn(mock())
+    whenever(database.threadBookmarkDao()).thenReturn(mock())
+
+    val cache = ChanDescriptorCache(database)
+    cache.putManyBoardDescriptors(boardIds)
+    threadIds.forEach { (threadDescriptor, threadId) -> cache.putThreadDescriptor(threadId, threadDescriptor) }
+    cache.putManyBookmarkIds(bookmarkIds)
+
+    return cache
+  }
+
+  private interface BenchmarkedDescriptorCache {
+    suspend fun fill()
+    suspend fun getThreadIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>): Map<ChanDescriptor.ThreadDescriptor, ThreadDBId>
+    suspend fun getBoardId(boardDescriptor: BoardDescriptor): BoardDBId?
+    suspend fun getBookmarkIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>): Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>
+    suspend fun putThreadId(threadDescriptor: ChanDescriptor.ThreadDescriptor, threadId: ThreadDBId)
+    suspend fun putBoardIds(boardIdMap: Map<BoardDescriptor, BoardDBId>)
+    suspend fun putBookmarkIds(bookmarkIdMap: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>)
+  }
+
+  private inner class ConcurrentDescriptorCache : BenchmarkedDescriptorCache {
+    private val cache = createChanDescriptorCache(allThreadsBookmarkIds)
+
+    override suspend fun fill() {
+      // Already filled by createChanDescriptorCache()
+    }
+
+    override suspend fun getThreadIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>) =
+      cache.getManyThreadIdByThreadDescriptors(threadDescriptors)
+
+    override suspend fun getBoardId(boardDescriptor: BoardDescriptor) =
+      cache.getBoardIdByBoardDescriptor(boardDescriptor)
+
+    override suspend fun getBookmarkIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>) =
+      cache.getManyThreadBookmarkIds(threadDescriptors)
+
+    override suspend fun putThreadId(threadDescriptor: ChanDescriptor.ThreadDescriptor, threadId: ThreadDBId) =
+      cache.putThreadDescriptor(threadId, threadDescriptor)
+
+    override suspend fun putBoardIds(boardIdMap: Map<BoardDescriptor, BoardDBId>) =
+      cache.putManyBoardDescriptors(boardIdMap)
+
+    override suspend fun putBookmarkIds(bookmarkIdMap: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>) =
+      cache.putManyBookmarkIds(bookmarkIdMap)
+  }
+
+  // Mirrors how ChanDescriptorCache used to work: every map is guarded by the same mutex, reads included.
+  private inner class MutexGuardedDescriptorCache : BenchmarkedDescriptorCache {
+    private val mutex = Mutex()
+    private val boardIdCache = HashMap<BoardDescriptor, BoardDBId>(512)
+    private val threadIdCache = HashMap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(512)
+    private val bookmarkIdCache = HashMap<ThreadBookmarkDescriptor, ThreadBookmarkDBId>(128)
+
+    override suspend fun fill() {
+      putBoardIds(boardIds)
+      threadIds.forEach { (threadDescriptor, threadId) -> putThreadId(threadDescriptor, threadId) }
+      putBookmarkIds(allThreadsBookmarkIds)
+    }
+
+    override suspend fun getThreadIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>): Map<ChanDescriptor.ThreadDescriptor, ThreadDBId> {
+      val resultMap = HashMap<ChanDescriptor.ThreadDescriptor, ThreadDBId>(threadDescriptors.size)
+
+      mutex.withLock {
+        threadDescriptors.forEach { threadDescriptor ->
+          val threadId = threadIdCache[threadDescriptor]
+          if (threadId != null) {
+            resultMap[threadDescriptor] = threadId
+          }
+        }
+      }
+
+      return resultMap
+    }
+
+    override suspend fun getBoardId(boardDescriptor: BoardDescriptor): BoardDBId? {
+      return mutex.withLock { boardIdCache[boardDescriptor] }
+    }
+
+    override suspend fun getBookmarkIds(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>): Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId> {
+      val resultMap = HashMap<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>(threadDescriptors.size)
+
+      mutex.withLock {
+        threadDescriptors.forEach { threadDescriptor ->
+          val threadBookmarkId = bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)]
+          if (threadBookmarkId != null) {
+            resultMap[threadDescriptor] = threadBookmarkId
+          }
+        }
+      }
+
+      return resultMap
+    }
+
+    override suspend fun putThreadId(threadDescriptor: ChanDescriptor.ThreadDescriptor, threadId: ThreadDBId) {
+      mutex.withLock { threadIdCache[threadDescriptor] = threadId }
+    }
+
+    override suspend fun putBoardIds(boardIdMap: Map<BoardDescriptor, BoardDBId>) {
+      mutex.withLock { boardIdCache.putAll(boardIdMap) }
+    }
+
+    override suspend fun putBookmarkIds(bookmarkIdMap: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>) {
+      mutex.withLock {
+        bookmarkIdMap.forEach { (threadDescriptor, bookmarkId) ->
+          bookmarkIdCache[ThreadBookmarkDescriptor(threadDescriptor)] = bookmarkId
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val BOARDS_COUNT = 16
+    private const val THREADS_PER_BOARD = 150
+    private const val BATCH_SIZE = 20
+  }
+
+}
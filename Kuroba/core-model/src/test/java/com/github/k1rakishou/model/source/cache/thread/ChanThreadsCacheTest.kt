@@ -0,0 +1,120 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.options.ChanCacheOptions
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.data.thread.ChanThread
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertSame
+import org.junit.Ignore
+import org.junit.Test
+
+class ChanThreadsCacheTest {
+
+  @Test
+  fun `catalog threads are kept as bare original posts`() {
+    val chanThreadsCache = createChanThreadsCache()
+    val originalPosts = generateCatalogOriginalPosts(boardsCount = 2, threadsPerBoard = 10)
+
+    chanThreadsCache.putManyCatalogPostsIntoCache(originalPosts, ChanCacheOptions.onlyCacheInMemory())
+
+    assertEquals(originalPosts.size, chanThreadsCache.getCatalogOnlyThreadsCount())
+    assertEquals(originalPosts.size, chanThreadsCache.getCachedThreadsCount())
+
+    val originalPost = originalPosts.first()
+    assertSame(originalPost, chanThreadsCache.getOriginalPostFromCache(originalPost.postDescriptor))
+    assertNull(chanThreadsCache.getThread(originalPost.postDescriptor.threadDescriptor()))
+  }
+
+  // A composite catalog of 10 boards with 150 threads each. Compares the memory taken by the cache
+  // structures (the posts themselves are the same in both cases) with what it used to be when every
+  // catalog thread was stored as a ChanThread.
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark memory of a composite catalog in the cache`() {
+    val originalPosts = generateCatalogOriginalPosts(boardsCount = 10, threadsPerBoard = 150)
+    val baselineHeap = usedHeapAfterGc()
+
+    val chanThreads = originalPosts.map { chanOriginalPost ->
+      ChanThread(
+        isDevBuild = false,
+        threadDescriptor = chanOriginalPost.postDescriptor.threadDescriptor(),
+        initialLastAccessTime = 0L
+      ).apply { setOrUpdateOriginalPost(chanOriginalPost) }
+    }
+
+    val chanThreadsHeap = usedHeapAfterGc() - baselineHeap
+    assertEquals(originalPosts.size, chanThreads.size)
+
+    val chanThreadsCache = createChanThreadsCache()
+    chanThreadsCache.putManyCatalogPostsIntoCache(originalPosts, ChanCacheOptions.onlyCacheInMemory())
+
+    val catalogOriginalPostsHeap = usedHeapAfterGc() - baselineHeap - chanThreadsHeap
+    assertEquals(originalPosts.size, chanThreadsCache.getCatalogOnlyThreadsCount())
+
+    println(
+      "ChanThreadsCache composite catalog benchmark (${originalPosts.size} threads): " +
+        "ChanThread per thread ~${chanThreadsHeap / 1024}KB, " +
+        "bare original posts ~${catalogOriginalPostsHeap / 1024}KB"
+    )
+  }
+
+  private fun createChanThreadsCache(): ChanThreadsCache {
+    return ChanThreadsCache(
+      isDevBuild = false,
+      isLowRamDevice = false,
+      maxCacheSize = 100_000,
+      chanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+    )
+  }
+
+  private fun generateCatalogOriginalPosts(boardsCount: Int, threadsPerBoard: Int): List<ChanOriginalPost> {
+    return (0 until boardsCount).flatMap { boardIndex ->
+      val boardDescriptor = BoardDescriptor.create("test", "board${boardIndex}")
+
+      (1..threadsPerBoard).map { threadNo ->
+        createOriginalPost(ChanDescriptor.ThreadDescriptor.create(boardDescriptor, threadNo.toLong()))
+      }
+    }
+  }
+
+  private fun createOriginalPost(threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanOriginalPost {
+    val postNo = threadDescriptor.threadNo
+
+    return ChanOriginalPost(
+      chanPostId = 0L,
+      postDescriptor = PostDescriptor.create(threadDescriptor, postNo),
+      postImages = mutableListOf(),
+      postIcons = mutableListOf(),
+      repliesTo = mutableSetOf(),
+      timestamp = postNo,
+      postComment = PostComment(originalComment = "$postNo", originalUnparsedComment = "$postNo", emptyList()),
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0,
+      archived = false,
+      closed = false,
+      endless = false,
+      sticky = false,
+      lastModified = 0L
+    )
+  }
+
+  private fun usedHeapAfterGc(): Long {
+    val runtime = Runtime.getRuntime()
+
+    repeat(3) {
+      runtime.gc()
+      Thread.sleep(50)
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory()
+  }
+
+}
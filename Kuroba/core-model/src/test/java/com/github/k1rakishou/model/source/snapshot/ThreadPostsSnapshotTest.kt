@@ -0,0 +1,295 @@
+package com.github.k1rakishou.model.source.snapshot
+
+import androidx.room.withTransaction
+import com.github.k1rakishou.common.marshall
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostImageType
+import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
+import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
+import com.github.k1rakishou.model.source.local.ChanPostLocalSource
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import kotlin.system.measureNanoTime
+
+@RunWith(RobolectricTestRunner::class)
+class ThreadPostsSnapshotTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun `decoded posts are the same as the written ones`() {
+    val snapshotFile = File(temporaryFolder.root, "thread.snapshot")
+    val postRecords = generatePostRecords(postsCount = 100)
+
+    ThreadPostsSnapshot.write(snapshotFile, databasePostsCount = 150, postRecords = postRecords)
+    assertFalse(File(temporaryFolder.root, "thread.snapshot.tmp").exists())
+
+    val snapshot = requireNotNull(ThreadPostsSnapshot.open(snapshotFile))
+    assertEquals(OWNER_THREAD_ID, snapshot.ownerThreadId)
+    assertEquals(150, snapshot.databasePostsCount)
+    assertEquals(100, snapshot.postsCount)
+
+    // Posts can be decoded in any order
+    for (index in postRecords.indices.reversed()) {
+      assertPostRecordsEqual(postRecords[index], snapshot.decodePost(index))
+    }
+  }
+
+  @Test
+  fun `missing, truncated or foreign files are not opened`() {
+    val snapshotFile = File(temporaryFolder.root, "thread.snapshot")
+    assertNull(ThreadPostsSnapshot.open(snapshotFile))
+
+    snapshotFile.writeBytes(ByteArray(8))
+    assertNull(ThreadPostsSnapshot.open(snapshotFile))
+
+    snapshotFile.writeBytes(ByteArray(1024) { 1 })
+    assertNull(ThreadPostsSnapshot.open(snapshotFile))
+  }
+
+  @Test
+  fun `rewriting a snapshot replaces the old one`() {
+    val snapshotFile = File(temporaryFolder.root, "thread.snapshot")
+
+    ThreadPostsSnapshot.write(snapshotFile, databasePostsCount = 10, postRecords = generatePostRecords(10))
+    ThreadPostsSnapshot.write(snapshotFile, databasePostsCount = 20, postRecords = generatePostRecords(20))
+
+    val snapshot = requireNotNull(ThreadPostsSnapshot.open(snapshotFile))
+    assertEquals(20, snapshot.databasePostsCount)
+    assertEquals(20, snapshot.postsCount)
+  }
+
+  // ChanPostRepository decodes and maps every post of a snapshot before the thread can be shown, so
+  // this compares that (and the time to the first post, if the snapshot was exposed lazily) with
+  // loading the same thread from the database.
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark time to first post compared to loading the thread from the database`() {
+    runBlocking(Dispatchers.Default) {
+      val database = TestDatabaseModuleComponent().provideInMemoryKurobaDatabase()
+      val localSource = ChanPostLocalSource(database)
+      val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 500_000L)
+      val snapshotFile = File(temporaryFolder.root, "thread.snapshot")
+      val postsCount = 5000
+
+      // Junk span bytes would make every post log an unmarshalling error
+      val spanInfoBytes = ParcelableSpans().marshall()
+      val postRecords = generatePostRecords(postsCount).map { postRecord ->
+        ThreadPostsSnapshot.PostRecord(
+          chanPostFull = postRecord.chanPostFull,
+          textSpans = postRecord.textSpans.map { textSpan -> textSpan.copy(spanInfoBytes = spanInfoBytes) },
+          postImages = postRecord.postImages,
+          postIcons = postRecord.postIcons,
+          postReplies = postRecord.postReplies
+        )
+      }
+
+      database.withTransaction {
+        database.chanSiteDao().insertDefaultSiteIdsOrIgnore(listOf(ChanSiteIdEntity(SITE_NAME)))
+        database.chanBoardDao().insertBoardId(SITE_NAME, BOARD_CODE)
+        localSource.insertBackupThreadPosts(threadDescriptor, postRecords)
+
+        val storedPostRecords = localSource.getThreadPostsSnapshotRecords(threadDescriptor)
+        assertEquals(postsCount, storedPostRecords.size)
+
+        ThreadPostsSnapshot.write(snapshotFile, postsCount, storedPostRecords)
+      }
+
+      // Warm up
+      repeat(5) {
+        database.withTransaction {
+          localSource.getThreadPosts(threadDescriptor)
+          loadSnapshotPosts(localSource, threadDescriptor, snapshotFile, firstPostOnly = false)
+        }
+      }
+
+      val iterations = 10
+      var databaseNanos = 0L
+      var allPostsNanos = 0L
+      var firstPostNanos = 0L
+
+      repeat(iterations) {
+        database.withTransaction {
+          databaseNanos += measureNanoTime {
+            assertEquals(postsCount, localSource.getThreadPosts(threadDescriptor).size)
+          }
+
+          allPostsNanos += measureNanoTime {
+            assertEquals(postsCount, loadSnapshotPosts(localSource, threadDescriptor, snapshotFile, firstPostOnly = false))
+          }
+
+          firstPostNanos += measureNanoTime {
+            assertEquals(1, loadSnapshotPosts(localSource, threadDescriptor, snapshotFile, firstPostOnly = true))
+          }
+        }
+      }
+
+      println("ThreadPostsSnapshot: $postsCount posts, file size ${snapshotFile.length()} bytes, " +
+        "database ${databaseNanos / iterations / 1000}us, " +
+        "snapshot whole thread ${allPostsNanos / iterations / 1000}us, " +
+        "snapshot time to first post ${firstPostNanos / iterations / 1000}us")
+
+      assertTrue(firstPostNanos < allPostsNanos)
+    }
+  }
+
+  private fun assertPostRecordsEqual(expected: ThreadPostsSnapshot.PostRecord, actual: ThreadPostsSnapshot.PostRecord) {
+    assertEquals(expected.chanPostFull, actual.chanPostFull)
+    assertEquals(expected.postImages, actual.postImages)
+    assertEquals(expected.postIcons, actual.postIcons)
+    assertEquals(expected.postReplies, actual.postReplies)
+
+    assertEquals(expected.textSpans.size, actual.textSpans.size)
+    expected.textSpans.zip(actual.textSpans).forEach { (expectedSpan, actualSpan) ->
+      assertEquals(expectedSpan.textSpanId, actualSpan.textSpanId)
+      assertEquals(expectedSpan.ownerPostId, actualSpan.ownerPostId)
+      assertEquals(expectedSpan.parsedText, actualSpan.parsedText)
+      assertEquals(expectedSpan.unparsedText, actualSpan.unparsedText)
+      assertTrue(expectedSpan.spanInfoBytes.contentEquals(actualSpan.spanInfoBytes))
+      assertEquals(expectedSpan.textType, actualSpan.textType)
+    }
+  }
+
+  private suspend fun loadSnapshotPosts(
+    localSource: ChanPostLocalSource,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    snapshotFile: File,
+    firstPostOnly: Boolean
+  ): Int {
+    val snapshot = requireNotNull(ThreadPostsSnapshot.open(snapshotFile))
+    val chanThreadEntity = requireNotNull(localSource.validateThreadPostsSnapshot(threadDescriptor, snapshot))
+    val postsToDecode = if (firstPostOnly) 1 else snapshot.postsCount
+
+    return (0 until postsToDecode).count { index ->
+      localSource.mapThreadPostsSnapshotRecord(threadDescriptor, chanThreadEntity, snapshot.decodePost(index)) != null
+    }
+  }
+
+  private fun generatePostRecords(postsCount: Int): List<ThreadPostsSnapshot.PostRecord> {
+    return (0 until postsCount).map { index ->
+      val postId = 1000L + index
+      val postNo = 500_000L + index
+      val isOp = index == 0
+
+      val chanPostFull = ChanPostFull(
+        chanPostIdEntity = ChanPostIdEntity(
+          postId = postId,
+          ownerThreadId = OWNER_THREAD_ID,
+          postNo = postNo,
+          postSubNo = 0L
+        ),
+        chanPostEntity = ChanPostEntity(
+          chanPostId = postId,
+          deleted = index % 17 == 0,
+          timestamp = 1_600_000_000L + index,
+          name = if (index % 3 == 0) null else "Anonymous",
+          posterId = if (index % 2 == 0) "id$index" else null,
+          posterIdColor = index,
+          moderatorCapcode = null,
+          isOp = isOp,
+          isSavedReply = index % 11 == 0,
+          isSage = index % 13 == 0,
+          rawPostHash1 = postNo * 31,
+          rawPostHash2 = postNo * 17
+        )
+      )
+
+      val textSpans = listOf(
+        ChanTextSpanEntity(
+          textSpanId = postId * 10,
+          ownerPostId = postId,
+          parsedText = ">>${postNo - 1}\nComment of the post number $postNo ✓",
+          unparsedText = "<a href=\"#p${postNo - 1}\">&gt;&gt;${postNo - 1}</a><br>Comment of the post number $postNo ✓",
+          spanInfoBytes = ByteArray(index % 32) { it.toByte() },
+          textType = ChanTextSpanEntity.TextType.PostComment
+        )
+      )
+
+      val postImages = if (index % 4 == 0) {
+        listOf(
+          ChanPostImageEntity(
+            postImageId = postId * 10,
+            ownerPostId = postId,
+            serverFilename = "${1_600_000_000_000L + index}",
+            thumbnailUrl = "https://i.4cdn.org/g/${postNo}s.jpg".toHttpUrl(),
+            imageUrl = "https://i.4cdn.org/g/${postNo}.jpg".toHttpUrl(),
+            spoilerThumbnailUrl = null,
+            filename = "image_$index",
+            extension = "jpg",
+            imageWidth = 1920,
+            imageHeight = 1080,
+            spoiler = false,
+            isInlined = false,
+            fileSize = 123_456L,
+            fileHash = "hash$index",
+            type = ChanPostImageType.STATIC
+          )
+        )
+      } else {
+        emptyList()
+      }
+
+      val postIcons = if (index % 5 == 0) {
+        listOf(
+          ChanPostHttpIconEntity(
+            iconUrl = "https://s.4cdn.org/image/country/us.gif".toHttpUrl(),
+            ownerPostId = postId,
+            iconName = "United States"
+          )
+        )
+      } else {
+        emptyList()
+      }
+
+      val postReplies = if (isOp) {
+        emptyList()
+      } else {
+        listOf(
+          ChanPostReplyEntity(
+            postReplyId = postId * 10,
+            ownerPostId = postId,
+            replyNo = postNo - 1,
+            replySubNo = 0L,
+            replyType = ChanPostReplyEntity.ReplyType.ReplyTo
+          )
+        )
+      }
+
+      return@map ThreadPostsSnapshot.PostRecord(
+        chanPostFull = chanPostFull,
+        textSpans = textSpans,
+        postImages = postImages,
+        postIcons = postIcons,
+        postReplies = postReplies
+      )
+    }
+  }
+
+  companion object {
+    private const val OWNER_THREAD_ID = 42L
+    private const val SITE_NAME = "test"
+    private const val BOARD_CODE = "g"
+  }
+
+}
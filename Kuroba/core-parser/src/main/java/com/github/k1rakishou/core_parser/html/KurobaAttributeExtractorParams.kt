@@ -13,6 +13,12 @@ class KurobaAttributeExtractorParams(
   fun hasAttributesToCheck(): Boolean = checkAttributeKeysMap.isNotEmpty()
   fun hasExtractText(): Boolean = extractAttributeValues.any { extractable -> extractable is ExtractText }
 
+  fun needsCompleteElement(): Boolean {
+    return checkAttributeKeysMap.values.any { matcher ->
+      matcher is KurobaMatcher.TagMatcher && matcher.needsCompleteElement()
+    }
+  }
+
   fun matches(element: Element): Boolean {
     return checkAttributeKeysMap.all { (attributeKey, expectedValueMatcher) ->
       when (expectedValueMatcher) {
@@ -0,0 +1,102 @@
+package com.github.k1rakishou.core_parser.html
+
+import org.jsoup.nodes.Document
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+
+/**
+ * Gives [KurobaHtmlParserCommandExecutor] access to the (non-empty) child nodes of a node. Either
+ * of a fully parsed document ([DocumentNodeSource]) or of a document that is still being parsed
+ * ([StreamingNodeSource]) in which case the input is only read as far as the executor needs it.
+ * */
+internal interface KurobaHtmlNodeSource {
+  fun rootNodes(): KurobaHtmlNodeList
+  fun childNodes(node: Node): KurobaHtmlNodeList
+
+  /**
+   * Makes sure the whole subtree of [node] has been parsed.
+   * */
+  fun ensureComplete(node: Node)
+}
+
+internal interface KurobaHtmlNodeList {
+  fun getOrNull(index: Int): Node?
+
+  /**
+   * Forces the whole list to be loaded, only meant for error messages.
+   * */
+  fun count(): Int
+}
+
+internal class DocumentNodeSource(
+  private val document: Document
+) : KurobaHtmlNodeSource {
+
+  override fun rootNodes(): KurobaHtmlNodeList = childNodes(document)
+
+  override fun childNodes(node: Node): KurobaHtmlNodeList {
+    return ListNodeList(KurobaHtmlParserUtils.filterEmptyNodes(node.childNodes()))
+  }
+
+  override fun ensureComplete(node: Node) {
+    // no-op, the document is already parsed
+  }
+
+  private class ListNodeList(private val nodes: List<Node>) : KurobaHtmlNodeList {
+    override fun getOrNull(index: Int): Node? = nodes.getOrNull(index)
+    override fun count(): Int = nodes.size
+  }
+}
+
+internal class StreamingNodeSource(
+  private val treeBuilder: KurobaStreamingHtmlTreeBuilder
+) : KurobaHtmlNodeSource {
+
+  override fun rootNodes(): KurobaHtmlNodeList = childNodes(treeBuilder.document)
+
+  override fun childNodes(node: Node): KurobaHtmlNodeList {
+    return StreamingNodeList(node)
+  }
+
+  override fun ensureComplete(node: Node) {
+    while (!treeBuilder.isComplete(node)) {
+      if (!treeBuilder.pump()) {
+        break
+      }
+    }
+  }
+
+  private inner class StreamingNodeList(private val parent: Node) : KurobaHtmlNodeList {
+    private val nodes = ArrayList<Node>()
+    private var scannedChildren = 0
+
+    override fun getOrNull(index: Int): Node? {
+      while (nodes.size <= index) {
+        if (scannedChildren < parent.childNodeSize()) {
+          val childNode = parent.childNode(scannedChildren++)
+
+          if (childNode !is TextNode || !childNode.isBlank) {
+            nodes += childNode
+          }
+
+          continue
+        }
+
+        if (treeBuilder.isComplete(parent)) {
+          return null
+        }
+
+        treeBuilder.pump()
+      }
+
+      return nodes[index]
+    }
+
+    override fun count(): Int {
+      ensureComplete(parent)
+      getOrNull(Int.MAX_VALUE - 1)
+
+      return nodes.size
+    }
+  }
+}
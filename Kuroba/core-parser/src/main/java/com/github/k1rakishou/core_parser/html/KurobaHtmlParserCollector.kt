@@ -1,3 +1,11 @@
 package com.github.k1rakishou.core_parser.html
 
-interface KurobaHtmlParserCollector
\ No newline at end of file
+interface KurobaHtmlParserCollector {
+
+  /**
+   * Return true once the collector has everything it needs. The rest of the commands are not
+   * executed then (and when parsing a stream the rest of the html is not read).
+   * */
+  fun isSatisfied(): Boolean = false
+
+}
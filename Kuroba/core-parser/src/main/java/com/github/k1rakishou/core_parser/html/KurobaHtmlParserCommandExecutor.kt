@@ -13,9 +13,16 @@ import com.github.k1rakishou.core_parser.html.commands.KurobaEndLoopCommand
 import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
 import com.github.k1rakishou.core_parser.html.commands.KurobaParserStepCommand
 import com.github.k1rakishou.core_parser.html.commands.KurobaPeekCollectorCommand
+import okio.Buffer
+import okio.ForwardingSource
+import okio.Source
+import okio.buffer
+import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
 import org.jsoup.nodes.Node
+import java.io.IOException
+import java.nio.charset.Charset
 import java.util.*
 
 /**
@@ -40,25 +47,106 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
       return
     }
 
-    executeCommandsInternal(document, kurobaParserCommands, collector, url)
+    executeCommandsInternal(DocumentNodeSource(document), kurobaParserCommands, collector, url)
+  }
+
+  /**
+   * Same as the other [executeCommands] but the html is parsed while the commands are being
+   * executed and only as far as the commands need it. Once all the commands are executed (or the
+   * collector [KurobaHtmlParserCollector.isSatisfied]) the rest of the [source] is not read at all.
+   * The [source] is not closed.
+   *
+   * If the html turns out to be malformed in a way the streaming tree builder can't reproduce
+   * (see [KurobaStreamingHtmlTreeBuilder]) the whole input is parsed with Jsoup instead and the
+   * commands are executed again from the start with a new collector from [collectorFactory], so
+   * the results are always the same as with a parsed [Document]. Use the collector from the
+   * returned [StreamingExecutionResult].
+   * */
+  @Throws(HtmlParsingException::class, IOException::class)
+  fun executeCommands(
+    source: Source,
+    kurobaParserCommands: List<KurobaParserCommand<T>>,
+    collectorFactory: () -> T,
+    url: String? = null,
+    charset: Charset = Charsets.UTF_8
+  ): StreamingExecutionResult<T> {
+    parserState.clear()
+
+    var bytesRead = 0L
+    // Everything read so far, in case the input has to be parsed again with Jsoup
+    val readBytes = Buffer()
+
+    val countingSource = object : ForwardingSource(source) {
+      override fun read(sink: Buffer, byteCount: Long): Long {
+        val read = super.read(sink, byteCount)
+        if (read > 0) {
+          bytesRead += read
+          sink.copyTo(readBytes, sink.size - read, read)
+        }
+
+        return read
+      }
+    }
+
+    val reader = countingSource.buffer().inputStream().reader(charset)
+    val treeBuilder = KurobaStreamingHtmlTreeBuilder(reader)
+    val collector = collectorFactory()
+
+    try {
+      if (kurobaParserCommands.isNotEmpty()) {
+        executeCommandsInternal(StreamingNodeSource(treeBuilder), kurobaParserCommands, collector, url)
+      }
+    } catch (error: KurobaStreamingHtmlTreeBuilder.UnsupportedMarkupException) {
+      if (debugMode) {
+        Log.d(TAG, "executeCommands ${error.message}, parsing the whole input with Jsoup (url='$url')")
+      }
+
+      bytesRead += readBytes.writeAll(source)
+
+      val document = Jsoup.parse(readBytes.inputStream(), charset.name(), url ?: "")
+      val documentCollector = collectorFactory()
+      executeCommands(document, kurobaParserCommands, documentCollector, url)
+
+      return StreamingExecutionResult(
+        collector = documentCollector,
+        bytesRead = bytesRead,
+        readWholeInput = true,
+        parsedAsDocument = true
+      )
+    }
+
+    return StreamingExecutionResult(
+      collector = collector,
+      bytesRead = bytesRead,
+      readWholeInput = treeBuilder.finished,
+      parsedAsDocument = false
+    )
   }
 
   @SuppressLint("LongLogTag")
   private fun executeCommandsInternal(
-    document: Document,
+    nodeSource: KurobaHtmlNodeSource,
     kurobaParserCommands: List<KurobaParserCommand<T>>,
     collector: T,
     url: String? = null
   ) {
     var commandIndex = 0
     var nodeIndex = 0
-    var nodes = KurobaHtmlParserUtils.filterEmptyNodes(document.childNodes())
+    var nodes = nodeSource.rootNodes()
 
     while (true) {
       if (commandIndex >= kurobaParserCommands.size) {
         break
       }
 
+      if (collector.isSatisfied()) {
+        if (debugMode) {
+          Log.d(TAG, "executeCommand collector is satisfied, stopping at commandIndex=$commandIndex")
+        }
+
+        break
+      }
+
       val command = kurobaParserCommands[commandIndex]
 
       if (debugMode) {
@@ -77,11 +165,13 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
           val start = nodeIndex
           var executed = false
 
-          for (index in start until nodes.size) {
-            val node = nodes[index]
+          while (true) {
+            val node = nodes.getOrNull(nodeIndex)
+              ?: break
+
             ++nodeIndex
 
-            if (command.executeStep(node, collector)) {
+            if (command.executeStep(node, collector, nodeSource::ensureComplete)) {
               executed = true
               break
             }
@@ -95,8 +185,8 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
 
                 appendLine("{")
 
-                for (index in start until nodes.size) {
-                  val node = nodes[index]
+                for (index in start until nodes.count()) {
+                  val node = nodes.getOrNull(index)
                   appendLine(node.toString())
                 }
 
@@ -107,7 +197,7 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
             }
 
             throw HtmlParsingException("Failed to execute command: $command, " +
-              "nodesCount: ${nodes.size}, startIndex=$start, commandIndex=$commandIndex, " +
+              "nodesCount: ${nodes.count()}, startIndex=$start, commandIndex=$commandIndex, " +
               "(url='$url') $nodesDumped")
           }
 
@@ -117,7 +207,7 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
           parserState.parserStateStack.push(ParserNestingState(nodeIndex, nodes))
 
           ++commandIndex
-          nodes = KurobaHtmlParserUtils.filterEmptyNodes(nodes[nodeIndex - 1].childNodes())
+          nodes = nodeSource.childNodes(nodes.getOrNull(nodeIndex - 1)!!)
 
           nodeIndex = 0
         }
@@ -152,7 +242,7 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
 
           val node = nodes.getOrNull(nodeIndex)
 
-          if (node != null && tryMatchConditionMatchableWithNode(parserLoopState.predicateMatchables, node)) {
+          if (node != null && tryMatchConditionMatchableWithNode(nodeSource, parserLoopState.predicateMatchables, node)) {
             // continue loop
             commandIndex = parserLoopState.loopStartCommandIndex
           } else {
@@ -167,10 +257,11 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
 
           parserState.successfullyExecutedConditions.remove(command.conditionId)
 
-          for (index in start until nodes.size) {
-            val node = nodes[index]
+          while (true) {
+            val node = nodes.getOrNull(nodeIndex)
+              ?: break
 
-            if (tryMatchConditionMatchableWithNode(command.conditionMatchables, node)) {
+            if (tryMatchConditionMatchableWithNode(nodeSource, command.conditionMatchables, node)) {
               foundMatch = true
               break
             }
@@ -251,6 +342,7 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
   }
 
   private fun tryMatchConditionMatchableWithNode(
+    nodeSource: KurobaHtmlNodeSource,
     conditionMatchables: List<Matchable>,
     node: Node
   ): Boolean {
@@ -266,6 +358,10 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
             return false
           }
 
+          if (conditionMatchable.matcher.needsCompleteElement()) {
+            nodeSource.ensureComplete(node)
+          }
+
           if (!conditionMatchable.matcher.matches(node)) {
             return false
           }
@@ -276,9 +372,9 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
     return true
   }
 
-  data class ParserNestingState(
+  internal data class ParserNestingState(
     var nodeIndex: Int,
-    val nodes: List<Node>
+    val nodes: KurobaHtmlNodeList
   )
 
   data class ParserLoopState(
@@ -287,7 +383,7 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
     val predicateMatchables: List<Matchable>
   )
 
-  class ParserState(
+  internal class ParserState(
     val parserStateStack: Stack<ParserNestingState> = Stack<ParserNestingState>(),
     val parserLoopStack: Stack<ParserLoopState> = Stack<ParserLoopState>(),
     val successfullyExecutedConditions: MutableSet<Int> = mutableSetOf()
@@ -299,6 +395,26 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
     }
   }
 
+  class StreamingExecutionResult<T : KurobaHtmlParserCollector>(
+    /**
+     * The collector the results were collected into.
+     * */
+    val collector: T,
+    /**
+     * Amount of bytes that were read from the source (including the read ahead buffer).
+     * */
+    val bytesRead: Long,
+    /**
+     * False if the commands were done before reaching the end of the source.
+     * */
+    val readWholeInput: Boolean,
+    /**
+     * True if the streaming tree builder couldn't handle the html and the whole input was parsed
+     * with Jsoup instead.
+     * */
+    val parsedAsDocument: Boolean
+  )
+
   class HtmlParsingException(message: String) : Exception(message)
 
   companion object {
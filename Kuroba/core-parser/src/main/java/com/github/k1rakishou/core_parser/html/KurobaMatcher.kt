@@ -8,6 +8,12 @@ sealed class KurobaMatcher {
   sealed class TagMatcher : KurobaMatcher() {
     abstract fun matches(element: Element): Boolean
 
+    /**
+     * Whether this matcher may look at the children of the element and not only at its tag and
+     * attributes.
+     * */
+    open fun needsCompleteElement(): Boolean = false
+
     object KurobaEmptyTagMatcher : TagMatcher() {
       override fun matches(element: Element): Boolean {
         return element.attributes().isEmpty
@@ -77,6 +83,8 @@ sealed class KurobaMatcher {
         return predicate(element)
       }
 
+      override fun needsCompleteElement(): Boolean = true
+
       override fun toString(): String = "KurobaTagPredicateMatcher"
     }
 
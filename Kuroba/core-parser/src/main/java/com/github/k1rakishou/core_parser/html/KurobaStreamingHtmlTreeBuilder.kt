@@ -0,0 +1,1125 @@
+package com.github.k1rakishou.core_parser.html
+
+import org.jsoup.nodes.Attributes
+import org.jsoup.nodes.Comment
+import org.jsoup.nodes.DataNode
+import org.jsoup.nodes.Document
+import org.jsoup.nodes.DocumentType
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+import org.jsoup.parser.ParseSettings
+import org.jsoup.parser.Parser
+import org.jsoup.parser.Tag
+import java.io.IOException
+import java.io.Reader
+
+/**
+ * Builds a jsoup tree incrementally, one token per [pump] call, so that the parser commands can
+ * start matching nodes before the whole page is downloaded and can stop reading the input once
+ * they are done.
+ *
+ * This is not a full HTML5 tree builder. It handles the things that matter for the pages we parse:
+ * implied html/head/body elements, void and raw text elements, implicitly closed p/li/dd/dt/
+ * option/heading elements, implied tbody/tr and end tags that do not match any open element.
+ * Foster parenting, the adoption agency algorithm and formatting elements reconstruction are not
+ * supported. Instead of building a different tree than Jsoup.parse() would, [pump] throws
+ * [UnsupportedMarkupException] as soon as the input needs any of them (misnested formatting
+ * elements, formatting elements closed implicitly, content directly inside of a table) and the
+ * caller has to parse the input with Jsoup instead.
+ *
+ * Nodes are only ever appended to the tree, text/data/comment nodes are appended once they are
+ * complete, elements are appended as soon as their start tag is read and are complete once they
+ * are popped off the stack of open elements (see [isComplete]).
+ * */
+internal class KurobaStreamingHtmlTreeBuilder(
+  private val reader: Reader,
+  baseUri: String = ""
+) {
+  val document = Document(baseUri)
+
+  private val openElements = ArrayList<Element>(32)
+
+  private var htmlElement: Element? = null
+  private var headElement: Element? = null
+  private var bodyElement: Element? = null
+  private var mode = InsertionMode.BeforeHtml
+
+  // Element whose content is currently being read as raw text (script, style, title, etc.)
+  private var rawTextElement: Element? = null
+
+  private var buffer = CharArray(BUFFER_SIZE)
+  private var pos = 0
+  private var limit = 0
+  private var endOfInput = false
+
+  var finished = false
+    private set
+
+  /**
+   * Reads and processes the next token. Returns false once the whole input has been processed.
+   * */
+  @Throws(IOException::class, UnsupportedMarkupException::class)
+  fun pump(): Boolean {
+    if (finished) {
+      return false
+    }
+
+    if (!ensureAvailable(1)) {
+      finished = true
+      openElements.clear()
+      return false
+    }
+
+    val rawText = rawTextElement
+    if (rawText != null) {
+      readRawText(rawText)
+      return true
+    }
+
+    if (buffer[pos] == '<' && isMarkupStart(peek(1))) {
+      readMarkup()
+    } else {
+      readText()
+    }
+
+    return true
+  }
+
+  fun isComplete(node: Node): Boolean {
+    if (finished) {
+      return true
+    }
+
+    if (node is Document || node === htmlElement) {
+      return false
+    }
+
+    if (node === headElement && mode != InsertionMode.InBody) {
+      // Head tags that come after </head> but before <body> are still inserted into the head
+      return false
+    }
+
+    if (node !is Element) {
+      return true
+    }
+
+    return openElements.none { openElement -> openElement === node }
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Tokenizer
+  // ---------------------------------------------------------------------------------------------
+
+  private fun readText() {
+    // The first char is either not a '<' or a '<' that does not start any markup
+    var offset = 1
+
+    while (true) {
+      val ltOffset = indexOf("<", offset)
+      if (ltOffset < 0) {
+        offset = limit - pos
+        break
+      }
+
+      if (isMarkupStart(peek(ltOffset + 1))) {
+        offset = ltOffset
+        break
+      }
+
+      offset = ltOffset + 1
+    }
+
+    val rawText = String(buffer, pos, offset)
+    pos += offset
+
+    processText(unescape(rawText, inAttribute = false))
+  }
+
+  private fun readMarkup() {
+    when (peek(1).toChar()) {
+      '!' -> {
+        if (startsWith("<!--")) {
+          val endOffset = indexOf("-->", 2)
+          val dataStart = 4
+
+          if (endOffset < 0) {
+            val data = substring(dataStart.coerceAtMost(limit - pos), limit - pos)
+            pos = limit
+            processComment(data)
+          } else {
+            val data = if (endOffset < dataStart) "" else substring(dataStart, endOffset)
+            pos += endOffset + 3
+            processComment(data)
+          }
+
+          return
+        }
+
+        val content = readUntilGreaterThan(2)
+
+        if (content.startsWith(DOCTYPE, ignoreCase = true)) {
+          processDoctype(content.substring(DOCTYPE.length).trim())
+        } else {
+          processComment(content)
+        }
+      }
+      '?' -> processComment(readUntilGreaterThan(1))
+      '/' -> {
+        if (!isAsciiLetter(peek(2))) {
+          // "</>" is ignored, everything else is a bogus comment
+          val content = readUntilGreaterThan(2)
+          if (content.isNotEmpty()) {
+            processComment(content)
+          }
+
+          return
+        }
+
+        var offset = 2
+        while (!isTagNameEnd(peek(offset))) {
+          ++offset
+        }
+
+        val tagName = substring(2, offset).lowercase()
+        readUntilGreaterThan(offset)
+
+        processEndTag(tagName)
+      }
+      else -> readStartTag()
+    }
+  }
+
+  private fun readStartTag() {
+    var offset = 1
+    while (!isTagNameEnd(peek(offset))) {
+      ++offset
+    }
+
+    val tagName = substring(1, offset).lowercase()
+    val attributes = Attributes()
+    var selfClosing = false
+
+    while (true) {
+      offset = skipWhitespaces(offset)
+
+      val ch = peek(offset)
+      if (ch < 0) {
+        // EOF in the middle of a tag, drop it
+        pos = limit
+        return
+      }
+
+      if (ch == '>'.code) {
+        ++offset
+        break
+      }
+
+      if (ch == '/'.code) {
+        if (peek(offset + 1) == '>'.code) {
+          selfClosing = true
+          offset += 2
+          break
+        }
+
+        ++offset
+        continue
+      }
+
+      val attrNameStart = offset
+      ++offset
+
+      while (true) {
+        val nameChar = peek(offset)
+        if (nameChar < 0 || isWhitespace(nameChar) || nameChar == '/'.code || nameChar == '>'.code || nameChar == '='.code) {
+          break
+        }
+
+        ++offset
+      }
+
+      val attrName = substring(attrNameStart, offset).lowercase()
+      var attrValue: String? = null
+
+      val afterNameOffset = skipWhitespaces(offset)
+      if (peek(afterNameOffset) == '='.code) {
+        offset = skipWhitespaces(afterNameOffset + 1)
+
+        val quote = peek(offset)
+        if (quote == '"'.code || quote == '\''.code) {
+          val valueStart = offset + 1
+          offset = valueStart
+
+          while (true) {
+            val valueChar = peek(offset)
+            if (valueChar < 0 || valueChar == quote) {
+              break
+            }
+
+            ++offset
+          }
+
+          attrValue = substring(valueStart, offset)
+
+          if (peek(offset) == quote) {
+            ++offset
+          }
+        } else {
+          val valueStart = offset
+
+          while (true) {
+            val valueChar = peek(offset)
+            if (valueChar < 0 || isWhitespace(valueChar) || valueChar == '>'.code) {
+              break
+            }
+
+            ++offset
+          }
+
+          attrValue = substring(valueStart, offset)
+        }
+
+        attrValue = unescape(attrValue, inAttribute = true)
+      }
+
+      if (!attributes.hasKey(attrName)) {
+        attributes.put(attrName, attrValue)
+      }
+    }
+
+    pos += offset
+    processStartTag(tagName, attributes, selfClosing)
+  }
+
+  private fun readRawText(element: Element) {
+    val endTag = "</" + element.normalName()
+    var offset = 0
+    var endTagOffset: Int
+
+    while (true) {
+      endTagOffset = indexOfIgnoreCase(endTag, offset)
+      if (endTagOffset < 0) {
+        break
+      }
+
+      if (isTagNameEnd(peek(endTagOffset + endTag.length))) {
+        break
+      }
+
+      offset = endTagOffset + 1
+    }
+
+    val contentLength = if (endTagOffset < 0) limit - pos else endTagOffset
+    val content = String(buffer, pos, contentLength)
+    pos += contentLength
+
+    if (content.isNotEmpty()) {
+      val node: Node = when (element.normalName()) {
+        "script", "style" -> DataNode(content)
+        "title", "textarea" -> TextNode(unescape(content, inAttribute = false))
+        else -> TextNode(content)
+      }
+
+      element.appendChild(node)
+    }
+
+    if (endTagOffset >= 0) {
+      readUntilGreaterThan(endTag.length)
+    }
+
+    rawTextElement = null
+    popUntil(element)
+
+    if (mode == InsertionMode.AfterHead && currentElement() === headElement) {
+      // Was temporarily re-opened to insert a head element that came after </head>
+      pop()
+    }
+  }
+
+  /**
+   * Consumes everything up to and including the next '>' and returns what was between [fromOffset]
+   * and the '>'.
+   * */
+  private fun readUntilGreaterThan(fromOffset: Int): String {
+    val gtOffset = indexOf(">", fromOffset)
+
+    if (gtOffset < 0) {
+      val content = substring(fromOffset.coerceAtMost(limit - pos), limit - pos)
+      pos = limit
+      return content
+    }
+
+    val content = substring(fromOffset, gtOffset)
+    pos += gtOffset + 1
+    return content
+  }
+
+  private fun unescape(string: String, inAttribute: Boolean): String {
+    if (string.indexOf('&') < 0) {
+      return string
+    }
+
+    return Parser.unescapeEntities(string, inAttribute)
+  }
+
+  private fun substring(startOffset: Int, endOffset: Int): String {
+    return String(buffer, pos + startOffset, endOffset - startOffset)
+  }
+
+  private fun skipWhitespaces(fromOffset: Int): Int {
+    var offset = fromOffset
+
+    while (true) {
+      val ch = peek(offset)
+      if (ch < 0 || !isWhitespace(ch)) {
+        return offset
+      }
+
+      ++offset
+    }
+  }
+
+  private fun startsWith(string: String): Boolean {
+    if (!ensureAvailable(string.length)) {
+      return false
+    }
+
+    for (index in string.indices) {
+      if (buffer[pos + index] != string[index]) {
+        return false
+      }
+    }
+
+    return true
+  }
+
+  /**
+   * Returns the offset (relative to the current position) of [string] or -1 if the input ended
+   * before it was found.
+   * */
+  private fun indexOf(string: String, fromOffset: Int): Int {
+    if (string.length == 1) {
+      return indexOfChar(string[0], fromOffset)
+    }
+
+    return indexOfInternal(string, fromOffset, ignoreCase = false)
+  }
+
+  private fun indexOfChar(ch: Char, fromOffset: Int): Int {
+    var offset = fromOffset
+
+    while (true) {
+      while (pos + offset < limit) {
+        if (buffer[pos + offset] == ch) {
+          return offset
+        }
+
+        ++offset
+      }
+
+      if (!fill()) {
+        return -1
+      }
+    }
+  }
+
+  private fun indexOfIgnoreCase(string: String, fromOffset: Int): Int {
+    return indexOfInternal(string, fromOffset, ignoreCase = true)
+  }
+
+  private fun indexOfInternal(string: String, fromOffset: Int, ignoreCase: Boolean): Int {
+    var offset = fromOffset
+
+    while (true) {
+      // The first char is always '<' or '-' so there is no need to ignore its case
+      offset = indexOfChar(string[0], offset)
+      if (offset < 0 || !ensureAvailable(offset + string.length)) {
+        return -1
+      }
+
+      if (regionMatches(pos + offset, string, ignoreCase)) {
+        return offset
+      }
+
+      ++offset
+    }
+  }
+
+  private fun regionMatches(start: Int, string: String, ignoreCase: Boolean): Boolean {
+    for (index in string.indices) {
+      val ch = buffer[start + index]
+      val expected = string[index]
+
+      if (ch == expected) {
+        continue
+      }
+
+      if (!ignoreCase || ch.lowercaseChar() != expected.lowercaseChar()) {
+        return false
+      }
+    }
+
+    return true
+  }
+
+  /**
+   * Returns the char at [offset] (relative to the current position) or -1 if the input ended.
+   * */
+  private fun peek(offset: Int): Int {
+    if (!ensureAvailable(offset + 1)) {
+      return -1
+    }
+
+    return buffer[pos + offset].code
+  }
+
+  private fun ensureAvailable(count: Int): Boolean {
+    while (limit - pos < count) {
+      if (!fill()) {
+        return false
+      }
+    }
+
+    return true
+  }
+
+  private fun fill(): Boolean {
+    if (endOfInput) {
+      return false
+    }
+
+    if (pos > 0) {
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos)
+      limit -= pos
+      pos = 0
+    }
+
+    if (limit == buffer.size) {
+      buffer = buffer.copyOf(buffer.size * 2)
+    }
+
+    val read = reader.read(buffer, limit, buffer.size - limit)
+    if (read < 0) {
+      endOfInput = true
+      return false
+    }
+
+    limit += read
+    return true
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Tree construction
+  // ---------------------------------------------------------------------------------------------
+
+  private fun processText(text: String) {
+    if (text.isEmpty()) {
+      return
+    }
+
+    val isBlank = text.isBlank()
+
+    when (mode) {
+      InsertionMode.BeforeHtml,
+      InsertionMode.BeforeHead -> {
+        if (isBlank) {
+          return
+        }
+
+        ensureBody()
+      }
+      InsertionMode.InHead -> {
+        if (!isBlank) {
+          if (currentElement()?.normalName() == "noscript") {
+            pop()
+          }
+
+          closeHead()
+          ensureBody()
+        }
+      }
+      InsertionMode.AfterHead -> {
+        if (!isBlank) {
+          ensureBody()
+        }
+      }
+      InsertionMode.InBody -> {
+        if (!isBlank && isInTableContext()) {
+          unsupportedMarkup("text inside of <${currentElement()?.normalName()}>")
+        }
+      }
+    }
+
+    appendNode(TextNode(text))
+  }
+
+  private fun processComment(data: String) {
+    appendNode(Comment(data))
+  }
+
+  private fun processDoctype(doctype: String) {
+    if (mode != InsertionMode.BeforeHtml) {
+      return
+    }
+
+    val name = doctype.substringBefore(' ').lowercase()
+    document.appendChild(DocumentType(name, "", ""))
+  }
+
+  private fun processStartTag(tagName: String, attributes: Attributes, selfClosing: Boolean) {
+    if (tagName == HTML) {
+      if (htmlElement == null) {
+        createHtml(attributes)
+      } else {
+        mergeAttributes(htmlElement!!, attributes)
+      }
+
+      return
+    }
+
+    when (mode) {
+      InsertionMode.BeforeHtml -> {
+        createHtml(Attributes())
+        processStartTag(tagName, attributes, selfClosing)
+      }
+      InsertionMode.BeforeHead -> {
+        if (tagName == HEAD) {
+          createHead(attributes)
+          return
+        }
+
+        createHead(Attributes())
+        processStartTag(tagName, attributes, selfClosing)
+      }
+      InsertionMode.InHead -> {
+        if (tagName == HEAD) {
+          return
+        }
+
+        if (currentElement()?.normalName() == "noscript" && tagName !in NOSCRIPT_HEAD_TAGS) {
+          pop()
+          processStartTag(tagName, attributes, selfClosing)
+          return
+        }
+
+        if (tagName in HEAD_TAGS) {
+          insertElement(tagName, attributes, selfClosing)
+          return
+        }
+
+        closeHead()
+        processStartTag(tagName, attributes, selfClosing)
+      }
+      InsertionMode.AfterHead -> {
+        if (tagName == BODY) {
+          createBody(attributes)
+          return
+        }
+
+        if (tagName in HEAD_TAGS && tagName != "noscript" && tagName != "template") {
+          openElements.add(headElement!!)
+
+          if (insertElement(tagName, attributes, selfClosing) == null) {
+            // Void element, no raw text to read
+            pop()
+          }
+
+          return
+        }
+
+        ensureBody()
+        processStartTag(tagName, attributes, selfClosing)
+      }
+      InsertionMode.InBody -> processStartTagInBody(tagName, attributes, selfClosing)
+    }
+  }
+
+  private fun processStartTagInBody(tagName: String, attributes: Attributes, selfClosing: Boolean) {
+    if (isInTableContext() && !canBeInsertedIntoTable(tagName, attributes)) {
+      unsupportedMarkup("<$tagName> inside of <${currentElement()?.normalName()}>")
+    }
+
+    when (tagName) {
+      BODY -> {
+        mergeAttributes(bodyElement!!, attributes)
+        return
+      }
+      HEAD, "frameset", "frame" -> return
+      "li" -> closeListItem(setOf("li"))
+      "dd", "dt" -> closeListItem(setOf("dd", "dt"))
+      "a" -> {
+        // A new link closes the previous one. Unless the previous one is the current element this
+        // goes through the adoption agency algorithm
+        val openLink = findInScope("a", DEFAULT_SCOPE)
+        if (openLink != null) {
+          if (openLink !== currentElement()) {
+            unsupportedMarkup("nested <a>")
+          }
+
+          popUntil(openLink)
+        }
+      }
+      "button" -> {
+        val openButton = findInScope("button", DEFAULT_SCOPE)
+        if (openButton != null) {
+          popUntil(openButton)
+        }
+      }
+      "option" -> {
+        if (currentElement()?.normalName() == "option") {
+          pop()
+        }
+      }
+      "optgroup" -> {
+        if (currentElement()?.normalName() == "option") {
+          pop()
+        }
+
+        if (currentElement()?.normalName() == "optgroup") {
+          pop()
+        }
+      }
+      "form" -> {
+        if (openElements.any { element -> element.normalName() == "form" }) {
+          // Nested forms are ignored
+          return
+        }
+      }
+      "caption", "colgroup", "tbody", "thead", "tfoot" -> {
+        if (findInScope("table", TABLE_SCOPE) == null) {
+          return
+        }
+
+        clearToTableContext(setOf("table"))
+      }
+      "col" -> {
+        if (findInScope("table", TABLE_SCOPE) == null) {
+          return
+        }
+
+        if (currentElement()?.normalName() != "colgroup") {
+          clearToTableContext(setOf("table"))
+          insertElement("colgroup", Attributes(), false)
+        }
+      }
+      "tr" -> {
+        if (findInScope("table", TABLE_SCOPE) == null) {
+          return
+        }
+
+        clearToTableContext(TABLE_BODY_CONTEXT)
+
+        if (currentElement()?.normalName() == "table") {
+          insertElement("tbody", Attributes(), false)
+        }
+      }
+      "td", "th" -> {
+        if (findInScope("table", TABLE_SCOPE) == null) {
+          return
+        }
+
+        clearToTableContext(TABLE_ROW_CONTEXT)
+
+        if (currentElement()?.normalName() == "table") {
+          insertElement("tbody", Attributes(), false)
+        }
+
+        if (currentElement()?.normalName() in TABLE_SECTIONS) {
+          insertElement("tr", Attributes(), false)
+        }
+      }
+    }
+
+    if (tagName in CLOSES_P) {
+      closeParagraphInButtonScope()
+    }
+
+    if (tagName in HEADINGS && currentElement()?.normalName() in HEADINGS) {
+      pop()
+    }
+
+    insertElement(tagName, attributes, selfClosing)
+  }
+
+  private fun processEndTag(tagName: String) {
+    when (mode) {
+      InsertionMode.BeforeHtml,
+      InsertionMode.BeforeHead -> {
+        if (tagName == "br") {
+          processStartTag(tagName, Attributes(), false)
+        }
+      }
+      InsertionMode.InHead -> {
+        when {
+          tagName == HEAD -> closeHead()
+          tagName == "noscript" && currentElement()?.normalName() == "noscript" -> pop()
+          tagName == BODY || tagName == HTML || tagName == "br" -> {
+            closeHead()
+            processEndTag(tagName)
+          }
+        }
+      }
+      InsertionMode.AfterHead -> {
+        if (tagName == BODY || tagName == HTML || tagName == "br") {
+          ensureBody()
+          processEndTag(tagName)
+        }
+      }
+      InsertionMode.InBody -> processEndTagInBody(tagName)
+    }
+  }
+
+  private fun processEndTagInBody(tagName: String) {
+    when (tagName) {
+      // Everything that comes after </body> or </html> still goes into the body
+      BODY, HTML -> return
+      "br" -> {
+        if (isInTableContext()) {
+          unsupportedMarkup("</br> inside of <${currentElement()?.normalName()}>")
+        }
+
+        insertElement("br", Attributes(), false)
+        return
+      }
+      "p" -> {
+        if (findInScope("p", BUTTON_SCOPE) == null) {
+          if (isInTableContext()) {
+            unsupportedMarkup("</p> inside of <${currentElement()?.normalName()}>")
+          }
+
+          insertElement("p", Attributes(), false)
+        }
+
+        closeParagraphInButtonScope()
+        return
+      }
+      "li" -> {
+        findInScope("li", LIST_ITEM_SCOPE)?.let { element -> popUntil(element) }
+        return
+      }
+      in TABLE_ELEMENTS -> {
+        findInScope(tagName, TABLE_SCOPE)?.let { element -> popUntil(element) }
+        return
+      }
+      in BLOCK_END_TAGS -> {
+        findInScope(tagName, DEFAULT_SCOPE)?.let { element -> popUntil(element) }
+        return
+      }
+      "dd", "dt" -> {
+        findInScope(tagName, DEFAULT_SCOPE)?.let { element -> popUntil(element) }
+        return
+      }
+      in HEADINGS -> {
+        for (index in openElements.lastIndex downTo 0) {
+          val element = openElements[index]
+
+          if (element.normalName() in HEADINGS) {
+            popUntil(element)
+            return
+          }
+
+          if (element.normalName() in DEFAULT_SCOPE) {
+            return
+          }
+        }
+
+        return
+      }
+    }
+
+    for (index in openElements.lastIndex downTo 0) {
+      val element = openElements[index]
+
+      if (element.normalName() == tagName) {
+        popUntil(element)
+        return
+      }
+
+      if (element.normalName() in SPECIAL) {
+        if (tagName in FORMATTING_ELEMENTS && findInScope(tagName, DEFAULT_SCOPE) != null) {
+          // Misnested formatting element (like <b><p>text</b>)
+          unsupportedMarkup("</$tagName> closes <${element.normalName()}>")
+        }
+
+        // Stray end tag, ignore it
+        return
+      }
+    }
+  }
+
+  private fun insertElement(tagName: String, attributes: Attributes, selfClosing: Boolean): Element? {
+    val tag = Tag.valueOf(tagName, ParseSettings.htmlDefault)
+    val element = Element(tag, null, attributes)
+    appendNode(element)
+
+    if (tag.isEmpty || (selfClosing && !Tag.isKnownTag(tagName))) {
+      return null
+    }
+
+    openElements.add(element)
+
+    if (tagName in RAW_TEXT_TAGS) {
+      rawTextElement = element
+    }
+
+    return element
+  }
+
+  private fun createHtml(attributes: Attributes) {
+    val element = Element(Tag.valueOf(HTML, ParseSettings.htmlDefault), null, attributes)
+    document.appendChild(element)
+    openElements.add(element)
+
+    htmlElement = element
+    mode = InsertionMode.BeforeHead
+  }
+
+  private fun createHead(attributes: Attributes) {
+    headElement = insertElement(HEAD, attributes, false)
+    mode = InsertionMode.InHead
+  }
+
+  private fun closeHead() {
+    if (currentElement() === headElement) {
+      pop()
+    }
+
+    mode = InsertionMode.AfterHead
+  }
+
+  private fun createBody(attributes: Attributes) {
+    bodyElement = insertElement(BODY, attributes, false)
+    mode = InsertionMode.InBody
+  }
+
+  private fun ensureBody() {
+    if (mode == InsertionMode.BeforeHtml) {
+      createHtml(Attributes())
+    }
+
+    if (mode == InsertionMode.BeforeHead) {
+      createHead(Attributes())
+    }
+
+    if (mode == InsertionMode.InHead) {
+      closeHead()
+    }
+
+    if (mode == InsertionMode.AfterHead) {
+      createBody(Attributes())
+    }
+  }
+
+  private fun mergeAttributes(element: Element, attributes: Attributes) {
+    for (attribute in attributes) {
+      if (!element.hasAttr(attribute.key)) {
+        element.attributes().put(attribute)
+      }
+    }
+  }
+
+  private fun closeParagraphInButtonScope() {
+    val paragraph = findInScope("p", BUTTON_SCOPE)
+      ?: return
+
+    popUntil(paragraph)
+  }
+
+  private fun closeListItem(itemNames: Set<String>) {
+    for (index in openElements.lastIndex downTo 0) {
+      val element = openElements[index]
+
+      if (element.normalName() in itemNames) {
+        popUntil(element)
+        return
+      }
+
+      if (element.normalName() in SPECIAL && element.normalName() !in LIST_ITEM_BARRIER_EXCEPTIONS) {
+        return
+      }
+    }
+  }
+
+  private fun clearToTableContext(contextNames: Set<String>) {
+    while (true) {
+      val current = currentElement()
+        ?: return
+
+      val name = current.normalName()
+      if (name in contextNames || name == "table" || name == HTML) {
+        return
+      }
+
+      pop()
+    }
+  }
+
+  private fun findInScope(tagName: String, scopeBoundaries: Set<String>): Element? {
+    for (index in openElements.lastIndex downTo 0) {
+      val element = openElements[index]
+
+      if (element.normalName() == tagName) {
+        return element
+      }
+
+      if (element.normalName() in scopeBoundaries) {
+        return null
+      }
+    }
+
+    return null
+  }
+
+  private fun appendNode(node: Node) {
+    val parent: Element = currentElement() ?: document
+    parent.appendChild(node)
+  }
+
+  private fun currentElement(): Element? = openElements.lastOrNull()
+
+  private fun pop() {
+    openElements.removeAt(openElements.lastIndex)
+  }
+
+  private fun popUntil(element: Element) {
+    // Formatting elements that get closed implicitly are reopened by Jsoup for the content that
+    // follows them, unless the element that closes them is a scope marker (like a table cell)
+    var implicitlyClosedFormattingElement: Element? = null
+
+    while (openElements.isNotEmpty()) {
+      val popped = openElements.removeAt(openElements.lastIndex)
+      val poppedName = popped.normalName()
+
+      if (poppedName in FORMATTING_SCOPE_MARKERS) {
+        implicitlyClosedFormattingElement = null
+      } else if (popped !== element && poppedName in FORMATTING_ELEMENTS) {
+        implicitlyClosedFormattingElement = popped
+      }
+
+      if (popped === element) {
+        break
+      }
+    }
+
+    if (implicitlyClosedFormattingElement != null) {
+      unsupportedMarkup("<${implicitlyClosedFormattingElement.normalName()}> closed by </${element.normalName()}>")
+    }
+  }
+
+  private fun isInTableContext(): Boolean {
+    return currentElement()?.normalName() in TABLE_CONTEXT
+  }
+
+  private fun canBeInsertedIntoTable(tagName: String, attributes: Attributes): Boolean {
+    if (tagName == "input") {
+      return attributes.getIgnoreCase("type").equals("hidden", ignoreCase = true)
+    }
+
+    return tagName in TABLE_CONTENT_TAGS
+  }
+
+  private fun unsupportedMarkup(reason: String): Nothing {
+    throw UnsupportedMarkupException(reason)
+  }
+
+  private fun isMarkupStart(ch: Int): Boolean {
+    return ch == '!'.code || ch == '/'.code || ch == '?'.code || isAsciiLetter(ch)
+  }
+
+  private fun isTagNameEnd(ch: Int): Boolean {
+    return ch < 0 || isWhitespace(ch) || ch == '/'.code || ch == '>'.code
+  }
+
+  private fun isAsciiLetter(ch: Int): Boolean {
+    return (ch >= 'a'.code && ch <= 'z'.code) || (ch >= 'A'.code && ch <= 'Z'.code)
+  }
+
+  private fun isWhitespace(ch: Int): Boolean {
+    return ch == ' '.code || ch == '\n'.code || ch == '\t'.code || ch == '\r'.code || ch == '\u000C'.code
+  }
+
+  class UnsupportedMarkupException(reason: String) : Exception("Unsupported markup: $reason")
+
+  private enum class InsertionMode {
+    BeforeHtml,
+    BeforeHead,
+    InHead,
+    AfterHead,
+    InBody
+  }
+
+  companion object {
+    private const val BUFFER_SIZE = 8192
+    private const val DOCTYPE = "doctype"
+
+    private const val HTML = "html"
+    private const val HEAD = "head"
+    private const val BODY = "body"
+
+    private val HEAD_TAGS = setOf(
+      "base", "basefont", "bgsound", "command", "link", "meta", "title", "noscript", "noframes",
+      "style", "script", "template"
+    )
+
+    private val NOSCRIPT_HEAD_TAGS = setOf("basefont", "bgsound", "link", "meta", "noframes", "style")
+
+    private val RAW_TEXT_TAGS = setOf(
+      "script", "style", "title", "textarea", "xmp", "iframe", "noembed", "noframes"
+    )
+
+    private val HEADINGS = setOf("h1", "h2", "h3", "h4", "h5", "h6")
+
+    private val CLOSES_P = setOf(
+      "address", "article", "aside", "blockquote", "center", "details", "dialog", "dir", "div",
+      "dl", "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "main", "menu",
+      "nav", "ol", "p", "section", "summary", "ul", "h1", "h2", "h3", "h4", "h5", "h6", "pre",
+      "listing", "form", "li", "dd", "dt", "table", "hr", "xmp", "plaintext"
+    )
+
+    // End tags of these close everything that is still open inside of them (like unclosed li or p)
+    private val BLOCK_END_TAGS = setOf(
+      "address", "article", "aside", "blockquote", "button", "center", "details", "dialog", "dir",
+      "div", "dl", "fieldset", "figcaption", "figure", "footer", "form", "header", "hgroup",
+      "listing", "main", "menu", "nav", "ol", "pre", "section", "summary", "ul"
+    )
+
+    private val TABLE_ELEMENTS = setOf("table", "caption", "colgroup", "tbody", "thead", "tfoot", "tr", "td", "th")
+    private val TABLE_SECTIONS = setOf("tbody", "thead", "tfoot")
+    private val TABLE_BODY_CONTEXT = TABLE_SECTIONS
+    private val TABLE_ROW_CONTEXT = setOf("tr", "tbody", "thead", "tfoot")
+
+    private val DEFAULT_SCOPE = setOf(
+      "applet", "caption", "html", "marquee", "object", "table", "td", "th", "template"
+    )
+    private val BUTTON_SCOPE = DEFAULT_SCOPE + "button"
+    private val LIST_ITEM_SCOPE = DEFAULT_SCOPE + setOf("ol", "ul")
+    private val TABLE_SCOPE = setOf("html", "table", "template")
+
+    // Anything else that is put directly into these is moved in front of the table by Jsoup
+    private val TABLE_CONTEXT = setOf("table", "tbody", "thead", "tfoot", "tr")
+    private val TABLE_CONTENT_TAGS = setOf(
+      "caption", "colgroup", "col", "tbody", "thead", "tfoot", "tr", "td", "th", "style", "script",
+      "template"
+    )
+
+    private val FORMATTING_ELEMENTS = setOf(
+      "a", "b", "big", "code", "em", "font", "i", "nobr", "s", "small", "strike", "strong", "tt", "u"
+    )
+    private val FORMATTING_SCOPE_MARKERS = setOf(
+      "applet", "caption", "marquee", "object", "td", "th", "template"
+    )
+
+    private val LIST_ITEM_BARRIER_EXCEPTIONS = setOf("address", "div", "p")
+
+    private val SPECIAL = setOf(
+      "address", "applet", "area", "article", "aside", "base", "basefont", "bgsound", "blockquote",
+      "body", "br", "button", "caption", "center", "col", "colgroup", "command", "dd", "details",
+      "dir", "div", "dl", "dt", "embed", "fieldset", "figcaption", "figure", "footer", "form",
+      "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hgroup", "hr",
+      "html", "iframe", "img", "input", "isindex", "li", "link", "listing", "marquee", "menu",
+      "meta", "nav", "noembed", "noframes", "noscript", "object", "ol", "p", "param", "plaintext",
+      "pre", "script", "section", "select", "style", "summary", "table", "tbody", "td",
+      "textarea", "tfoot", "th", "thead", "title", "tr", "ul", "wbr", "xmp"
+    )
+  }
+}
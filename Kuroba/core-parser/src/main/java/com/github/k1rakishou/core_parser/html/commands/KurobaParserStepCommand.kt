@@ -12,14 +12,19 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
   private val kurobaHtmlElement: KurobaHtmlElement
 ) : KurobaParserCommand<T> {
 
+  /**
+   * [ensureComplete] is called with the node before running the extractor (and before matching
+   * the node when one of the matchers needs to see the whole element) so that when the html is
+   * being parsed while executing the commands the node's children are all there.
+   * */
   @Suppress("UNCHECKED_CAST")
-  fun executeStep(childNode: Node, collector: T): Boolean {
+  fun executeStep(childNode: Node, collector: T, ensureComplete: (Node) -> Unit = {}): Boolean {
     when (val element = kurobaHtmlElement) {
       is KurobaHtmlElement.Html<*> -> {
         element as KurobaHtmlElement.Html<T>
 
         if (childNode is Element && childNode.tagName() == KurobaHtmlParserCommandExecutor.HTML_TAG) {
-          runExtractorIfPresent(element, childNode, collector)
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
@@ -27,7 +32,7 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
         element as KurobaHtmlElement.Head<T>
 
         if (childNode is Element && childNode.tagName() == KurobaHtmlParserCommandExecutor.HEAD_TAG) {
-          runExtractorIfPresent(element, childNode, collector)
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
@@ -35,15 +40,15 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
         element as KurobaHtmlElement.Body<T>
 
         if (childNode is Element && childNode.tagName() == KurobaHtmlParserCommandExecutor.BODY_TAG) {
-          runExtractorIfPresent(element, childNode, collector)
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Noscript<*> -> {
         element as KurobaHtmlElement.Noscript<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
@@ -51,7 +56,7 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
         element as KurobaHtmlElement.Article<T>
 
         if (childNode is Element && childNode.tagName() == KurobaHtmlParserCommandExecutor.ARTICLE_TAG) {
-          runExtractorIfPresent(element, childNode, collector)
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
@@ -59,71 +64,71 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
         element as KurobaHtmlElement.Header<T>
 
         if (childNode is Element && childNode.tagName() == KurobaHtmlParserCommandExecutor.HEADER_TAG) {
-          runExtractorIfPresent(element, childNode, collector)
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Div<*> -> {
         element as KurobaHtmlElement.Div<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Meta<*> -> {
         element as KurobaHtmlElement.Meta<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Span<*> -> {
         element as KurobaHtmlElement.Span<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Script<*> -> {
         element as KurobaHtmlElement.Script<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Heading<*> -> {
         element as KurobaHtmlElement.Heading<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.A<*> -> {
         element as KurobaHtmlElement.A<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Title<*> -> {
         element as KurobaHtmlElement.Title<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
       is KurobaHtmlElement.Tag<*> -> {
         element as KurobaHtmlElement.Tag<T>
 
-        if (matchElementInternal(element, childNode)) {
-          runExtractorIfPresent(element, childNode, collector)
+        if (matchElementInternal(element, childNode, ensureComplete)) {
+          runExtractorIfPresent(element, childNode, collector, ensureComplete)
           return true
         }
       }
@@ -136,9 +141,12 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
   private fun runExtractorIfPresent(
     element: KurobaHtmlElement.Tag<T>,
     childNode: Node,
-    collector: T
+    collector: T,
+    ensureComplete: (Node) -> Unit
   ) {
     element.extractor?.let { extractor ->
+      ensureComplete(childNode)
+
       val extractedAttrValues = extractor.extractorParams.extractAttributeValues(childNode)
 
       extractor.extractionFunc?.invoke(
@@ -151,7 +159,8 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
 
   private fun matchElementInternal(
     tag: KurobaHtmlElement.Tag<T>,
-    childNode: Node
+    childNode: Node,
+    ensureComplete: (Node) -> Unit
   ): Boolean {
     if (tag.isEmpty() && !childNode.attributes().isEmpty) {
       return false
@@ -161,6 +170,14 @@ class KurobaParserStepCommand<T : KurobaHtmlParserCollector>(
       return false
     }
 
+    val needsCompleteElement = tag.matchables.any { matchable ->
+      matchable is TagMatchable && matchable.matcher.needsCompleteElement()
+    } || tag.extractor?.extractorParams?.needsCompleteElement() == true
+
+    if (needsCompleteElement) {
+      ensureComplete(childNode)
+    }
+
     for (matchable in tag.matchables) {
       when (matchable) {
         is PatternMatchable -> {
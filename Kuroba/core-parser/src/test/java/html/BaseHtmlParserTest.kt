@@ -1,6 +1,11 @@
 package html
 
 import android.util.Log
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCollector
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
+import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
+import okio.Buffer
+import org.jsoup.Jsoup
 import org.jsoup.nodes.Element
 import org.jsoup.nodes.Node
 import org.jsoup.nodes.TextNode
@@ -8,8 +13,35 @@ import org.mockito.ArgumentMatchers
 import org.mockito.Mockito
 import org.powermock.api.mockito.PowerMockito
 
+enum class ExecutionMode {
+  // The whole html is parsed with Jsoup first
+  Document,
+  // The html is parsed while executing the commands
+  Streaming
+}
 
-abstract class BaseHtmlParserTest {
+abstract class BaseHtmlParserTest(
+  private val executionMode: ExecutionMode = ExecutionMode.Document
+) {
+
+  fun <T : KurobaHtmlParserCollector> KurobaHtmlParserCommandExecutor<T>.executeCommands(
+    html: String,
+    kurobaParserCommands: List<KurobaParserCommand<T>>,
+    url: String? = null,
+    collectorFactory: () -> T
+  ): T {
+    return when (executionMode) {
+      ExecutionMode.Document -> {
+        val collector = collectorFactory()
+        executeCommands(Jsoup.parse(html), kurobaParserCommands, collector, url)
+
+        collector
+      }
+      ExecutionMode.Streaming -> {
+        executeCommands(Buffer().writeUtf8(html), kurobaParserCommands, collectorFactory, url).collector
+      }
+    }
+  }
 
   fun setupLogging(tag: String) {
     PowerMockito.mockStatic(Log::class.java)
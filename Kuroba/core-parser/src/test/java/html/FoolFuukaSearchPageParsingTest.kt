@@ -10,17 +10,19 @@ import com.github.k1rakishou.core_parser.html.KurobaParserCommandBuilder
 import junit.framework.Assert.assertEquals
 import junit.framework.Assert.assertTrue
 import org.joda.time.DateTime
-import org.jsoup.Jsoup
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 import java.util.regex.Pattern
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class FoolFuukaSearchPageParsingTest : BaseHtmlParserTest() {
+class FoolFuukaSearchPageParsingTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
   private val commandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
     .start {
       html()
@@ -290,14 +292,12 @@ class FoolFuukaSearchPageParsingTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val collector = TestCollector(defaultBoardCode = "c")
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<TestCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer,
-      collector
-    )
+    val collector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer
+    ) { TestCollector(defaultBoardCode = "c") }
 
     assertEquals(25, collector.searchResults.size)
     assertEquals(15, collector.pages.size)
@@ -345,14 +345,12 @@ class FoolFuukaSearchPageParsingTest : BaseHtmlParserTest() {
         .readBytes()
     val fileString = String(fileBytes)
 
-    val collector = TestCollector(defaultBoardCode = "sci")
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<TestCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer,
-      collector
-    )
+    val collector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer
+    ) { TestCollector(defaultBoardCode = "sci") }
 
     assertEquals(25, collector.searchResults.size)
     assertEquals(15, collector.pages.size)
@@ -406,14 +404,12 @@ class FoolFuukaSearchPageParsingTest : BaseHtmlParserTest() {
         .readBytes()
     val fileString = String(fileBytes)
 
-    val collector = TestCollector(defaultBoardCode = "v")
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<TestCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer,
-      collector
-    )
+    val collector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer
+    ) { TestCollector(defaultBoardCode = "v") }
 
     assertEquals(25, collector.searchResults.size)
     assertEquals(15, collector.pages.size)
@@ -482,5 +478,10 @@ class FoolFuukaSearchPageParsingTest : BaseHtmlParserTest() {
     private val POST_LINK_PATTERN = Pattern.compile("thread\\/(\\d+)\\/#q(\\d+)")
     private val PAGE_URL_PATTERN = Pattern.compile("/page/(\\d+)/$")
     private val NUMBER_PATTERN = Pattern.compile("\\d+")
+
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
   }
+
 }
\ No newline at end of file
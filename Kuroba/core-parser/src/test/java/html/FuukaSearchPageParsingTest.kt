@@ -7,17 +7,19 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
 import com.github.k1rakishou.core_parser.html.KurobaParserCommandBuilder
 import junit.framework.Assert.assertEquals
-import org.jsoup.Jsoup
 import org.jsoup.nodes.Element
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class FuukaSearchPageParsingTest : BaseHtmlParserTest() {
+class FuukaSearchPageParsingTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
   private val commandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
     .start {
       html()
@@ -130,14 +132,12 @@ class FuukaSearchPageParsingTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val collector = TestCollector()
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<TestCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer,
-      collector
-    )
+    val collector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer
+    ) { TestCollector() }
 
     assertEquals("//i.warosu.org/data/g/thumb/0798/77/1611590883616s.jpg", collector.url)
 
@@ -153,4 +153,10 @@ You are too retarded to remain alive """
     var comment: String? = null
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
@@ -6,16 +6,18 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuild
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
 import junit.framework.Assert
-import org.jsoup.Jsoup
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class GenericParserTest : BaseHtmlParserTest() {
+class GenericParserTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
   private val sequentialBuffer = KurobaHtmlParserCommandBufferBuilder<ExecutionStepsCollector>()
     .start {
       html()
@@ -257,15 +259,13 @@ class GenericParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testCollector = TestCollector1()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestCollector1>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer1,
-      testCollector
-    )
+    val testCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer1
+    ) { TestCollector1() }
 
     Assert.assertEquals(null, testCollector.nestedValue1)
     Assert.assertEquals("Nested value 2", testCollector.nestedValue2)
@@ -278,14 +278,12 @@ class GenericParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testCollector = ExecutionStepsCollector()
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<ExecutionStepsCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      sequentialBuffer,
-      testCollector
-    )
+    val testCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      sequentialBuffer
+    ) { ExecutionStepsCollector() }
 
     Assert.assertEquals("tag1", testCollector.collectedTags[0])
     Assert.assertEquals("tag2", testCollector.collectedTags[1])
@@ -299,14 +297,12 @@ class GenericParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testCollector = ExecutionStepsCollector()
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<ExecutionStepsCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      nestedBuffer,
-      testCollector
-    )
+    val testCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      nestedBuffer
+    ) { ExecutionStepsCollector() }
 
     Assert.assertEquals("tag1", testCollector.collectedTags[0])
     Assert.assertEquals("nested_tag1", testCollector.collectedTags[1])
@@ -324,15 +320,13 @@ class GenericParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testCollector = TestCollector2()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestCollector2>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer2,
-      testCollector
-    )
+    val testCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer2
+    ) { TestCollector2() }
 
     Assert.assertEquals("SoundCloud", testCollector.headerLogoText)
     Assert.assertEquals("KOT. 78", testCollector.titleTrackNamePart)
@@ -357,4 +351,10 @@ class GenericParserTest : BaseHtmlParserTest() {
     val collectedTags: MutableList<String> = mutableListOf()
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
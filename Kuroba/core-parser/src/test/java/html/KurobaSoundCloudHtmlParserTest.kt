@@ -6,17 +6,19 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuild
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
 import junit.framework.Assert.assertEquals
-import org.jsoup.Jsoup
 import org.jsoup.nodes.Element
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class KurobaSoundCloudHtmlParserTest : BaseHtmlParserTest() {
+class KurobaSoundCloudHtmlParserTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
 
   private val kurobaNormalLinkHtmlParserCommandBuffer = KurobaHtmlParserCommandBufferBuilder<TestNormalSoundCloudCollector>()
     .start {
@@ -133,15 +135,13 @@ class KurobaSoundCloudHtmlParserTest : BaseHtmlParserTest() {
         .readBytes()
     val fileString = String(fileBytes)
 
-    val testKurobaParserCollector = TestNormalSoundCloudCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestNormalSoundCloudCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaNormalLinkHtmlParserCommandBuffer,
-      testKurobaParserCollector
-    )
+    val testKurobaParserCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaNormalLinkHtmlParserCommandBuffer
+    ) { TestNormalSoundCloudCollector() }
 
     assertEquals("SoundCloud", testKurobaParserCollector.headerLogoText)
     assertEquals("KOT. 78", testKurobaParserCollector.titleTrackNamePart)
@@ -155,15 +155,13 @@ class KurobaSoundCloudHtmlParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testKurobaParserCollector = TestNormalSoundCloudCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestNormalSoundCloudCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaNormalLinkHtmlParserCommandBuffer,
-      testKurobaParserCollector
-    )
+    val testKurobaParserCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaNormalLinkHtmlParserCommandBuffer
+    ) { TestNormalSoundCloudCollector() }
 
     assertEquals("SoundCloud", testKurobaParserCollector.headerLogoText)
     assertEquals("Enter The ANISON MATRIX!!", testKurobaParserCollector.titleTrackNamePart)
@@ -177,15 +175,13 @@ class KurobaSoundCloudHtmlParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testKurobaParserCollector = TestAlbumSoundCloudCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestAlbumSoundCloudCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaAlbumLinkHtmlParserCommandBuffer,
-      testKurobaParserCollector
-    )
+    val testKurobaParserCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaAlbumLinkHtmlParserCommandBuffer
+    ) { TestAlbumSoundCloudCollector() }
 
     assertEquals("Isolation Tapes by Eoin Lyness | Free Listening on SoundCloud", testKurobaParserCollector.titleFull)
   }
@@ -201,4 +197,10 @@ class KurobaSoundCloudHtmlParserTest : BaseHtmlParserTest() {
     var titleFull: String? = null
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
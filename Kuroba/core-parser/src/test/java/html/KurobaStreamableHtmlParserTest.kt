@@ -5,17 +5,19 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCollector
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuilder
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
-import org.jsoup.Jsoup
 import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class KurobaStreamableHtmlParserTest : BaseHtmlParserTest() {
+class KurobaStreamableHtmlParserTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
 
   private val kurobaHtmlParserCommandBuffer = KurobaHtmlParserCommandBufferBuilder<TestStreamableCollector>()
     .start {
@@ -52,15 +54,13 @@ class KurobaStreamableHtmlParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testStreamableCollector = TestStreamableCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestStreamableCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaHtmlParserCommandBuffer,
-      testStreamableCollector
-    )
+    val testStreamableCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaHtmlParserCommandBuffer
+    ) { TestStreamableCollector() }
 
     Assert.assertEquals("Sakurakaze - Miko ft. A-chan [VRMix.01]", testStreamableCollector.title)
     Assert.assertEquals("227.333333", testStreamableCollector.duration)
@@ -72,15 +72,13 @@ class KurobaStreamableHtmlParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testStreamableCollector = TestStreamableCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestStreamableCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaHtmlParserCommandBuffer,
-      testStreamableCollector
-    )
+    val testStreamableCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaHtmlParserCommandBuffer
+    ) { TestStreamableCollector() }
 
     Assert.assertEquals("Streamable Video", testStreamableCollector.title)
     Assert.assertEquals("5.133333", testStreamableCollector.duration)
@@ -92,15 +90,13 @@ class KurobaStreamableHtmlParserTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testStreamableCollector = TestStreamableCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestStreamableCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaHtmlParserCommandBuffer,
-      testStreamableCollector
-    )
+    val testStreamableCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaHtmlParserCommandBuffer
+    ) { TestStreamableCollector() }
 
     Assert.assertEquals("PekoMiko - Santa Claus Is Coming To Town", testStreamableCollector.title)
     Assert.assertEquals("81.3", testStreamableCollector.duration)
@@ -111,4 +107,10 @@ class KurobaStreamableHtmlParserTest : BaseHtmlParserTest() {
     var duration: String? = null
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
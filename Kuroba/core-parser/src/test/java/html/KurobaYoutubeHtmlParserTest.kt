@@ -7,16 +7,18 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
 import junit.framework.Assert.assertEquals
 import org.joda.time.Period
-import org.jsoup.Jsoup
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class KurobaYoutubeHtmlParserTest : BaseHtmlParserTest() {
+class KurobaYoutubeHtmlParserTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
 
   private val kurobaHtmlParserCommandBuffer =
     KurobaHtmlParserCommandBufferBuilder<TestYoutubeCollector>()
@@ -67,15 +69,13 @@ class KurobaYoutubeHtmlParserTest : BaseHtmlParserTest() {
         .readBytes()
     val fileString = String(fileBytes)
 
-    val testYoutubeCollector = TestYoutubeCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestYoutubeCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaHtmlParserCommandBuffer,
-      testYoutubeCollector
-    )
+    val testYoutubeCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaHtmlParserCommandBuffer
+    ) { TestYoutubeCollector() }
 
     assertEquals("TVアニメ マブラヴ オルタネイティヴ 放送決定記念 特報PV", testYoutubeCollector.title)
     assertEquals("PT2M1S", testYoutubeCollector.duration)
@@ -88,15 +88,13 @@ class KurobaYoutubeHtmlParserTest : BaseHtmlParserTest() {
         .readBytes()
     val fileString = String(fileBytes)
 
-    val testYoutubeCollector = TestYoutubeCollector()
     val parserCommandExecutor =
       KurobaHtmlParserCommandExecutor<TestYoutubeCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      kurobaHtmlParserCommandBuffer,
-      testYoutubeCollector
-    )
+    val testYoutubeCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      kurobaHtmlParserCommandBuffer
+    ) { TestYoutubeCollector() }
 
     assertEquals("【スマホ音ゲー】音ゲー初心者が音ゲーに挑戦する【ゆっくりライブ】チャットしながら生放送", testYoutubeCollector.title)
     assertEquals("PT0M0S", testYoutubeCollector.duration)
@@ -109,4 +107,10 @@ class KurobaYoutubeHtmlParserTest : BaseHtmlParserTest() {
     var duration: String? = null
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
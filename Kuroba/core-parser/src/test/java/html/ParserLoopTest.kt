@@ -6,17 +6,19 @@ import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuild
 import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
 import com.github.k1rakishou.core_parser.html.KurobaMatcher
 import junit.framework.Assert.assertEquals
-import org.jsoup.Jsoup
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
+import org.powermock.modules.junit4.PowerMockRunnerDelegate
 import java.util.regex.Pattern
 
 @RunWith(PowerMockRunner::class)
+@PowerMockRunnerDelegate(Parameterized::class)
 @PrepareForTest(value = [Log::class])
-class ParserLoopTest : BaseHtmlParserTest() {
+class ParserLoopTest(executionMode: ExecutionMode) : BaseHtmlParserTest(executionMode) {
   private val commandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
     .start {
       html()
@@ -67,14 +69,12 @@ class ParserLoopTest : BaseHtmlParserTest() {
       .readBytes()
     val fileString = String(fileBytes)
 
-    val testCollector = TestCollector()
     val parserCommandExecutor = KurobaHtmlParserCommandExecutor<TestCollector>(debugMode = true)
 
-    parserCommandExecutor.executeCommands(
-      Jsoup.parse(fileString),
-      commandBuffer,
-      testCollector
-    )
+    val testCollector = parserCommandExecutor.executeCommands(
+      fileString,
+      commandBuffer
+    ) { TestCollector() }
 
     assertEquals(5, testCollector.collectedSpanTags.size)
     assertEquals("Test1", testCollector.collectedSpanTags[0])
@@ -88,4 +88,10 @@ class ParserLoopTest : BaseHtmlParserTest() {
     var collectedSpanTags: MutableList<String> = mutableListOf(),
   ) : KurobaHtmlParserCollector
 
+  companion object {
+    @JvmStatic
+    @Parameterized.Parameters(name = "{0}")
+    fun executionModes() = ExecutionMode.values().toList()
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+package html
+
+import android.util.Log
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCollector
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuilder
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
+import com.github.k1rakishou.core_parser.html.KurobaMatcher
+import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import okio.Buffer
+import org.jsoup.Jsoup
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.powermock.core.classloader.annotations.PrepareForTest
+import org.powermock.modules.junit4.PowerMockRunner
+import kotlin.system.measureNanoTime
+
+@RunWith(PowerMockRunner::class)
+@PrepareForTest(value = [Log::class])
+class StreamingHtmlParserTest : BaseHtmlParserTest() {
+
+  private val titleCommandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
+    .start {
+      html()
+
+      nest {
+        head()
+
+        nest {
+          title(
+            attrExtractorBuilderFunc = { extractText() },
+            extractorFunc = { _, extractedAttributeValues, collector ->
+              collector.values += extractedAttributeValues.getText()!!
+            }
+          )
+        }
+      }
+    }
+    .build()
+
+  private val youtubeCommandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
+    .start {
+      html()
+
+      nest {
+        body()
+
+        nest {
+          div(matchableBuilderFunc = { className(KurobaMatcher.PatternMatcher.stringEquals("watch-main-col")) })
+
+          nest {
+            meta(
+              attrExtractorBuilderFunc = {
+                expectAttrWithValue("itemprop", KurobaMatcher.PatternMatcher.stringEquals("name"))
+                extractAttrValueByKey("content")
+              },
+              extractorFunc = { _, extractedAttributeValues, collector ->
+                collector.values += extractedAttributeValues.getAttrValue("content")!!
+              }
+            )
+
+            meta(
+              attrExtractorBuilderFunc = {
+                expectAttrWithValue("itemprop", KurobaMatcher.PatternMatcher.stringEquals("duration"))
+                extractAttrValueByKey("content")
+              },
+              extractorFunc = { _, extractedAttributeValues, collector ->
+                collector.values += extractedAttributeValues.getAttrValue("content")!!
+              }
+            )
+          }
+        }
+      }
+    }
+    .build()
+
+  private val titleAndBodyCommandBuffer = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
+    .start {
+      html()
+
+      nest {
+        head()
+
+        nest {
+          title(
+            attrExtractorBuilderFunc = { extractText() },
+            extractorFunc = { _, extractedAttributeValues, collector ->
+              collector.values += extractedAttributeValues.getText()!!
+            }
+          )
+        }
+
+        body(extractorFunc = { node, _, testCollector -> testCollector.values += node.outerHtml() })
+      }
+    }
+    .build()
+
+  @Before
+  fun setup() {
+    setupLogging("StreamingHtmlParserTest")
+  }
+
+  @Test
+  fun `streaming stops reading once all commands are executed`() {
+    val html = readResource("parsing/soundcloud_test_html_page3_album.html")
+
+    val domCollector = TestCollector()
+    KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Jsoup.parse(html), titleCommandBuffer, domCollector)
+
+    val result = KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().writeUtf8(html), titleCommandBuffer, { TestCollector() })
+    val streamingCollector = result.collector
+
+    assertEquals(domCollector.values, streamingCollector.values)
+    assertEquals(1, streamingCollector.values.size)
+    assertFalse(result.parsedAsDocument)
+    assertFalse(result.readWholeInput)
+    assertTrue(result.bytesRead < html.toByteArray().size)
+  }
+
+  @Test
+  fun `streaming stops reading once the collector is satisfied`() {
+    val html = readResource("parsing/youtube_test_html_page1.html")
+
+    val allValuesCollector = KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().writeUtf8(html), youtubeCommandBuffer, { TestCollector() })
+      .collector
+
+    val satisfiedResult = KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().writeUtf8(html), youtubeCommandBuffer, { TestCollector(maxValues = 1) })
+    val satisfiedCollector = satisfiedResult.collector
+
+    assertEquals(listOf("TVアニメ マブラヴ オルタネイティヴ 放送決定記念 特報PV", "PT2M1S"), allValuesCollector.values)
+    assertEquals(allValuesCollector.values.take(1), satisfiedCollector.values)
+    assertFalse(satisfiedResult.readWholeInput)
+  }
+
+  @Test
+  fun `streaming handles implied elements and raw text`() {
+    val html = "<!DOCTYPE html><title>A &amp; B</title><script>if (a < b) { document.write('</div>') }</script>" +
+      "<p>first<p>second<ul><li>one<li>two</ul><table><tr><td>cell</table>"
+
+    val expected = Jsoup.parse(html).body().outerHtml()
+
+    val commands = KurobaHtmlParserCommandBufferBuilder<TestCollector>()
+      .start {
+        html()
+
+        nest {
+          body(extractorFunc = { node, _, testCollector -> testCollector.values += node.outerHtml() })
+        }
+      }
+      .build()
+
+    val result = KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().writeUtf8(html), commands, { TestCollector() })
+
+    assertFalse(result.parsedAsDocument)
+    assertEquals(expected, result.collector.values.single())
+  }
+
+  @Test
+  fun `streaming builds the same tree as jsoup for malformed html`() {
+    val malformedBodies = listOf(
+      // Misnested formatting elements (adoption agency)
+      "<p><b>bold<i>both</b>italic</i> text</p>",
+      "<b>one<p>two</b>three</p>",
+      "<a href=\"1\">one<div><a href=\"2\">two</a></div>",
+      // Formatting elements closed implicitly and reopened for the content after them
+      "<div><b>bold</div>after",
+      "<p><i>italic<p>next",
+      // Content directly inside of a table (foster parenting)
+      "<table><tr><td>cell</td></tr>stray text<div>block</div></table>",
+      "<table><b>bold</b><tr><td>cell</td></tr></table>",
+      "<table><tr><td>one</td><table><tr><td>two</td></tr></table></tr></table>",
+    )
+
+    malformedBodies.forEach { malformedBody ->
+      // The title is collected before the malformed part is read so the collector the streaming
+      // execution started with already has a value when the input is parsed again
+      val html = "<html><head><title>Title</title></head><body>$malformedBody</body></html>"
+
+      val domCollector = TestCollector()
+      KurobaHtmlParserCommandExecutor<TestCollector>()
+        .executeCommands(Jsoup.parse(html), titleAndBodyCommandBuffer, domCollector)
+
+      val result = KurobaHtmlParserCommandExecutor<TestCollector>()
+        .executeCommands(Buffer().writeUtf8(html), titleAndBodyCommandBuffer, { TestCollector() })
+
+      assertEquals(malformedBody, domCollector.values, result.collector.values)
+      assertTrue(malformedBody, result.parsedAsDocument)
+      assertTrue(malformedBody, result.readWholeInput)
+      assertEquals(malformedBody, html.toByteArray().size.toLong(), result.bytesRead)
+    }
+  }
+
+  @Test
+  fun `streaming does not fall back for formatting elements closed by table cells`() {
+    val body = "<table><tr><td><b>bold</td><td><i>italic</i></td></tr></table><p><a href=\"1\">one</a><a href=\"2\">two</a></p>"
+    val html = "<html><head><title>Title</title></head><body>$body</body></html>"
+
+    val domCollector = TestCollector()
+    KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Jsoup.parse(html), titleAndBodyCommandBuffer, domCollector)
+
+    val result = KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().writeUtf8(html), titleAndBodyCommandBuffer, { TestCollector() })
+
+    assertEquals(domCollector.values, result.collector.values)
+    assertFalse(result.parsedAsDocument)
+  }
+
+  @Ignore("Benchmark, run it manually")
+  @Test
+  fun `benchmark bytes read and time of streaming vs document parsing`() {
+    val pages = listOf(
+      "parsing/youtube_test_html_page1.html" to youtubeCommandBuffer,
+      "parsing/soundcloud_test_html_page1.html" to titleCommandBuffer,
+      "parsing/streamable_test_html_page1.html" to titleCommandBuffer,
+    )
+
+    pages.forEach { (page, commands) ->
+      val html = readResource(page)
+      val htmlBytes = html.toByteArray()
+
+      // Warm up
+      repeat(5) {
+        runDocument(htmlBytes, commands)
+        runStreaming(htmlBytes, commands)
+      }
+
+      val iterations = 20
+      var result: KurobaHtmlParserCommandExecutor.StreamingExecutionResult<TestCollector>? = null
+
+      val documentTime = measureNanoTime {
+        repeat(iterations) { runDocument(htmlBytes, commands) }
+      }
+
+      val streamingTime = measureNanoTime {
+        repeat(iterations) { result = runStreaming(htmlBytes, commands) }
+      }
+
+      println(
+        "Streaming benchmark ($page): " +
+          "document=${documentTime / iterations / 1000}us (read ${htmlBytes.size} bytes), " +
+          "streaming=${streamingTime / iterations / 1000}us (read ${result!!.bytesRead} bytes, " +
+          "parsedAsDocument=${result!!.parsedAsDocument})"
+      )
+
+      assertTrue(result!!.bytesRead <= htmlBytes.size)
+    }
+  }
+
+  private fun runDocument(htmlBytes: ByteArray, commands: List<KurobaParserCommand<TestCollector>>) {
+    val document = Jsoup.parse(htmlBytes.inputStream(), Charsets.UTF_8.name(), "")
+    KurobaHtmlParserCommandExecutor<TestCollector>().executeCommands(document, commands, TestCollector())
+  }
+
+  private fun runStreaming(
+    htmlBytes: ByteArray,
+    commands: List<KurobaParserCommand<TestCollector>>
+  ): KurobaHtmlParserCommandExecutor.StreamingExecutionResult<TestCollector> {
+    return KurobaHtmlParserCommandExecutor<TestCollector>()
+      .executeCommands(Buffer().write(htmlBytes), commands, { TestCollector() })
+  }
+
+  private fun readResource(path: String): String {
+    val fileBytes = javaClass.classLoader!!.getResourceAsStream(path).readBytes()
+    return String(fileBytes)
+  }
+
+  private data class TestCollector(
+    val maxValues: Int = Int.MAX_VALUE,
+    val values: MutableList<String> = mutableListOf()
+  ) : KurobaHtmlParserCollector {
+    override fun isSatisfied(): Boolean = values.size >= maxValues
+  }
+
+}
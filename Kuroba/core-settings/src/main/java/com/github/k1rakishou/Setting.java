@@ -1,10 +1,23 @@
 package com.github.k1rakishou;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
 import io.reactivex.Flowable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.processors.BehaviorProcessor;
 
+/**
+ * Subclasses keep the value in a volatile field which is null until the value is loaded from the
+ * {@link SettingProvider}. Reads are lock-free, the initial load and all writes are serialized on
+ * the setting instance.
+ * */
 public abstract class Setting<T> {
+    private static final AtomicReference<SettingsSnapshot> currentSnapshot =
+            new AtomicReference<>(SettingsSnapshot.EMPTY);
+    private static final List<Setting<?>> allSettings = new CopyOnWriteArrayList<>();
+
     protected final SettingProvider settingProvider;
     protected final String key;
     protected final T def;
@@ -14,6 +27,30 @@ public abstract class Setting<T> {
         this.settingProvider = settingProvider;
         this.key = key;
         this.def = def;
+
+        allSettings.add(this);
+    }
+
+    /**
+     * Returns an immutable view of the values of every setting. Use it in hot loops that need
+     * multiple settings at once instead of calling {@link #get()} on each one of them, the values
+     * returned by the snapshot are guaranteed to be consistent with each other.
+     * */
+    public static SettingsSnapshot snapshot() {
+        SettingsSnapshot snapshot = currentSnapshot.get();
+        if (snapshot.size() >= allSettings.size()) {
+            return snapshot;
+        }
+
+        // Load the settings that were never accessed so far, they publish their values into the
+        // snapshot so that every value comes from the same snapshot instead of being read lazily.
+        for (Setting<?> setting : allSettings) {
+            if (!snapshot.contains(setting)) {
+                setting.get();
+            }
+        }
+
+        return currentSnapshot.get();
     }
 
     public abstract T get();
@@ -52,4 +89,39 @@ public abstract class Setting<T> {
           .observeOn(AndroidSchedulers.mainThread());
     }
 
+    /**
+     * Must be called by subclasses every time the cached value changes (including the first load
+     * from the {@link SettingProvider}) so that {@link #snapshot()} stays up to date.
+     * */
+    protected final void publish(T value) {
+        Object snapshotValue = snapshotValue(value);
+
+        while (true) {
+            SettingsSnapshot prev = currentSnapshot.get();
+            if (prev.containsValue(this, snapshotValue)) {
+                return;
+            }
+
+            if (currentSnapshot.compareAndSet(prev, prev.with(this, snapshotValue))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Updates the snapshot and notifies {@link #listenForChanges()} listeners.
+     * */
+    protected final void onValueChanged(T value) {
+        publish(value);
+        settingState.onNext(value);
+    }
+
+    /**
+     * Converts the cached value into the value observed by {@link SettingsSnapshot#get(Setting)}.
+     * Override this when {@link #get()} transforms the cached value before returning it.
+     * */
+    protected T snapshotValue(T value) {
+        return value;
+    }
+
 }
@@ -0,0 +1,70 @@
+package com.github.k1rakishou;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An immutable copy-on-write view of setting values. A new snapshot is created every time any
+ * setting changes so reading from an existing snapshot never requires any locking.
+ * */
+public final class SettingsSnapshot {
+    static final SettingsSnapshot EMPTY = new SettingsSnapshot(Collections.emptyMap());
+
+    // Stored instead of null values so that the settings with null values are in the snapshot too
+    private static final Object NULL_VALUE = new Object();
+
+    private final Map<Setting<?>, Object> values;
+
+    private SettingsSnapshot(Map<Setting<?>, Object> values) {
+        this.values = values;
+    }
+
+    /**
+     * Returns the value of the setting at the moment this snapshot was taken. Every setting that
+     * existed when the snapshot was taken is in it (see {@link Setting#snapshot()}).
+     * */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Setting<T> setting) {
+        Object value = values.get(setting);
+        if (value == null) {
+            throw new IllegalStateException("Setting '" + setting.getKey() + "' was created after the snapshot was taken");
+        }
+
+        if (value == NULL_VALUE) {
+            return null;
+        }
+
+        return (T) value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    boolean contains(Setting<?> setting) {
+        return values.containsKey(setting);
+    }
+
+    boolean containsValue(Setting<?> setting, Object value) {
+        Object prev = values.get(setting);
+        if (prev == null) {
+            return false;
+        }
+
+        if (value == null) {
+            return prev == NULL_VALUE;
+        }
+
+        return prev.equals(value);
+    }
+
+    SettingsSnapshot with(Setting<?> setting, Object value) {
+        Map<Setting<?>, Object> newValues = new IdentityHashMap<>(values.size() + 1);
+        newValues.putAll(values);
+        newValues.put(setting, value != null ? value : NULL_VALUE);
+
+        return new SettingsSnapshot(newValues);
+    }
+
+}
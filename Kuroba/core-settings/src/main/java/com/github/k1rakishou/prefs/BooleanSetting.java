@@ -4,37 +4,48 @@ import com.github.k1rakishou.Setting;
 import com.github.k1rakishou.SettingProvider;
 
 public class BooleanSetting extends Setting<Boolean> {
-    private volatile boolean hasCached = false;
-    private Boolean cached;
+    private volatile Boolean cached;
 
     public BooleanSetting(SettingProvider settingProvider, String key, Boolean def) {
         super(settingProvider, key, def);
     }
 
     @Override
-    public synchronized Boolean get() {
-        if (!hasCached) {
-            cached = settingProvider.getBoolean(key, def);
-            hasCached = true;
+    public Boolean get() {
+        Boolean value = cached;
+        if (value != null) {
+            return value;
         }
 
-        return cached;
+        return load();
+    }
+
+    private synchronized Boolean load() {
+        Boolean value = cached;
+        if (value == null) {
+            value = settingProvider.getBoolean(key, def);
+            cached = value;
+            publish(value);
+        }
+
+        return value;
     }
 
     @Override
     public synchronized void set(Boolean value) {
         if (!value.equals(get())) {
-            cached = value;
             settingProvider.putBoolean(key, value);
-            settingState.onNext(value);
+            cached = value;
+            onValueChanged(value);
         }
     }
 
+    @Override
     public synchronized void setSync(Boolean value) {
         if (!value.equals(get())) {
-            cached = value;
             settingProvider.putBooleanSync(key, value);
-            settingState.onNext(value);
+            cached = value;
+            onValueChanged(value);
         }
     }
 
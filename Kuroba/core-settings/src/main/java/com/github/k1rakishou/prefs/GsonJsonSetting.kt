@@ -14,9 +14,9 @@ class GsonJsonSetting<T>(
   def: T
 ) : Setting<T>(settingProvider, key, def) {
   @Volatile
-  private var hasCached = false
   private var cached: T? = null
 
+  @Synchronized
   fun update(sync: Boolean, updater: (T) -> T) {
     val prev = get()
     val new = updater(prev)
@@ -33,23 +33,37 @@ class GsonJsonSetting<T>(
   }
 
   override fun get(): T {
-    if (hasCached) {
-      return cached!!
+    val value = cached
+    if (value != null) {
+      return value
+    }
+
+    return load()
+  }
+
+  @Synchronized
+  private fun load(): T {
+    val prev = cached
+    if (prev != null) {
+      return prev
     }
 
     val json = settingProvider.getString(key, ChanSettings.EMPTY_JSON)
 
-    cached = try {
-      gson.fromJson(json, clazz)
+    val value = try {
+      gson.fromJson(json, clazz) ?: def
     } catch (error: Throwable) {
       Logger.e("JsonSetting", "JsonSetting<${clazz.simpleName}>.get()", error)
       def
     }
 
-    hasCached = true
-    return cached!!
+    cached = value
+    publish(value)
+
+    return value
   }
 
+  @Synchronized
   override fun set(value: T) {
     if (cached == value) {
       return
@@ -57,12 +71,13 @@ class GsonJsonSetting<T>(
 
     cached = value
 
-    val json = gson.toJson(cached)
+    val json = gson.toJson(value)
     settingProvider.putString(key, json)
 
-    settingState.onNext(value)
+    onValueChanged(value)
   }
 
+  @Synchronized
   override fun setSync(value: T) {
     if (cached == value) {
       return
@@ -70,19 +85,21 @@ class GsonJsonSetting<T>(
 
     cached = value
 
-    val json = gson.toJson(cached)
+    val json = gson.toJson(value)
     settingProvider.putStringSync(key, json)
 
-    settingState.onNext(value)
+    onValueChanged(value)
   }
 
   fun isNotDefault(): Boolean {
     return get() != def
   }
 
+  @Synchronized
   fun reset() {
     cached = def
     settingProvider.putString(key, ChanSettings.EMPTY_JSON)
+    publish(def)
   }
 
 }
\ No newline at end of file
@@ -4,8 +4,7 @@ import com.github.k1rakishou.Setting;
 import com.github.k1rakishou.SettingProvider;
 
 public class IntegerSetting extends Setting<Integer> {
-    private volatile boolean hasCached = false;
-    private Integer cached;
+    private volatile Integer cached;
 
     public IntegerSetting(SettingProvider settingProvider, String key, Integer def) {
         super(settingProvider, key, def);
@@ -13,29 +12,40 @@ public class IntegerSetting extends Setting<Integer> {
 
     @Override
     public Integer get() {
-        if (!hasCached) {
-            cached = settingProvider.getInt(key, def);
-            hasCached = true;
+        Integer value = cached;
+        if (value != null) {
+            return value;
         }
 
-        return cached;
+        return load();
+    }
+
+    private synchronized Integer load() {
+        Integer value = cached;
+        if (value == null) {
+            value = settingProvider.getInt(key, def);
+            cached = value;
+            publish(value);
+        }
+
+        return value;
     }
 
     @Override
-    public void set(Integer value) {
+    public synchronized void set(Integer value) {
         if (!value.equals(get())) {
             settingProvider.putInt(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 
     @Override
-    public void setSync(Integer value) {
+    public synchronized void setSync(Integer value) {
         if (!value.equals(get())) {
             settingProvider.putIntSync(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 }
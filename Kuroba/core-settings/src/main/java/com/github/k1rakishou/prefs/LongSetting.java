@@ -4,8 +4,7 @@ import com.github.k1rakishou.Setting;
 import com.github.k1rakishou.SettingProvider;
 
 public class LongSetting extends Setting<Long> {
-    private volatile boolean hasCached = false;
-    private Long cached;
+    private volatile Long cached;
 
     public LongSetting(SettingProvider settingProvider, String key, Long def) {
         super(settingProvider, key, def);
@@ -13,28 +12,40 @@ public class LongSetting extends Setting<Long> {
 
     @Override
     public Long get() {
-        if (!hasCached) {
-            cached = settingProvider.getLong(key, def);
-            hasCached = true;
+        Long value = cached;
+        if (value != null) {
+            return value;
         }
 
-        return cached;
+        return load();
+    }
+
+    private synchronized Long load() {
+        Long value = cached;
+        if (value == null) {
+            value = settingProvider.getLong(key, def);
+            cached = value;
+            publish(value);
+        }
+
+        return value;
     }
 
     @Override
-    public void set(Long value) {
+    public synchronized void set(Long value) {
         if (!value.equals(get())) {
             settingProvider.putLong(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 
-    public void setSync(Long value) {
+    @Override
+    public synchronized void setSync(Long value) {
         if (!value.equals(get())) {
             settingProvider.putLongSync(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 
@@ -23,47 +23,30 @@ class MapSetting(
   private val moshi: Moshi
     get() = _moshi.get()
 
+  // Immutable copy of the map, replaced as a whole on every update so that readers never need to
+  // lock. null until the value is loaded from the settingProvider.
   @Volatile
   @GuardedBy("this")
-  private var cache: MutableMap<String, String>? = null
-
-  private fun <T : Any?> withCache(func: MutableMap<String, String>.() -> T): T {
-    val _cache = if (cache != null) {
-      cache!!
-    } else {
-      val cacheData = get()
-
-      synchronized(this) {
-        cache = cacheData.toMutableMap()
-        return@synchronized cache!!
-      }
-    }
-
-    return func(_cache)
-  }
+  private var cache: Map<String, String>? = null
 
+  @Synchronized
   fun put(key: String, value: String) {
-    val cacheCopy = withCache {
-      val copy = toMutableMap()
-      copy.put(key, value)
-      return@withCache copy
-    }
+    val copy = get().toMutableMap()
+    copy.put(key, value)
 
-    set(cacheCopy)
+    set(copy)
   }
 
   fun get(key: String): String? {
-    return withCache { get(key) }
+    return get()[key]
   }
 
+  @Synchronized
   fun remove(key: String): String? {
-    val (value, cacheCopy) = withCache {
-      val copy = toMutableMap()
-      val value = copy.remove(key)
-      return@withCache value to copy
-    }
+    val copy = get().toMutableMap()
+    val value = copy.remove(key)
 
-    set(cacheCopy)
+    set(copy)
     return value
   }
 
@@ -77,10 +60,21 @@ class MapSetting(
       return cached
     }
 
-    cache = mutableMapOf<String, String>()
+    return load()
+  }
+
+  @Synchronized
+  private fun load(): Map<String, String> {
+    val prev = cache
+    if (prev != null) {
+      return prev
+    }
+
     val json = settingProvider.getString(key, ChanSettings.EMPTY_JSON)
 
-    try {
+    val loaded = try {
+      val resultMap = mutableMapOf<String, String>()
+
       val mapSettingEntries = moshi
         .adapter<MapSettingEntries>(MapSettingEntries::class.java)
         .fromJson(json)
@@ -88,49 +82,50 @@ class MapSetting(
       if (mapSettingEntries != null) {
         mapSettingEntries.entries.forEach { mapSettingEntry ->
           val mapped = mapperFrom(mapSettingEntry)
-          cache!!.put(mapped.key, mapped.value)
+          resultMap.put(mapped.key, mapped.value)
         }
       }
+
+      resultMap
     } catch (error: Throwable) {
       Logger.e(TAG, "MapSetting.get()", error)
 
       settingProvider.putString(key, convertMapToJson(default))
-      cache = def.toMutableMap()
+      def.toMap()
     }
 
-    return cache!!
+    cache = loaded
+    publish(loaded)
+
+    return loaded
   }
 
+  @Synchronized
   override fun set(value: Map<String, String>) {
     if (value == cache) {
       return
     }
 
     val json = convertMapToJson(value)
-
-    withCache {
-      clear()
-      putAll(value)
-    }
+    val copy = value.toMap()
+    cache = copy
 
     settingProvider.putString(key, json)
-    settingState.onNext(value)
+    onValueChanged(copy)
   }
 
+  @Synchronized
   override fun setSync(value: Map<String, String>) {
     if (value == cache) {
       return
     }
 
     val json = convertMapToJson(value)
-
-    withCache {
-      clear()
-      putAll(value)
-    }
+    val copy = value.toMap()
+    cache = copy
 
     settingProvider.putStringSync(key, json)
-    settingState.onNext(value)
+    onValueChanged(copy)
   }
 
   private fun convertMapToJson(value: Map<String, String>): String {
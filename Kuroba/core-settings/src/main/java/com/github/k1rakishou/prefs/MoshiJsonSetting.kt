@@ -18,27 +18,40 @@ class MoshiJsonSetting<T>(
     get() = _moshi.get()
 
   @Volatile
-  private var hasCached = false
   private var cached: T? = null
 
   override fun get(): T {
-    if (hasCached) {
-      return cached!!
+    val value = cached
+    if (value != null) {
+      return value
+    }
+
+    return load()
+  }
+
+  @Synchronized
+  private fun load(): T {
+    val prev = cached
+    if (prev != null) {
+      return prev
     }
 
     val json = settingProvider.getString(key, ChanSettings.EMPTY_JSON)
 
-    cached = try {
-      moshi.adapter(clazz).fromJson(json)
+    val value = try {
+      moshi.adapter(clazz).fromJson(json) ?: def
     } catch (error: Throwable) {
       Logger.e("JsonSetting", "JsonSetting<${clazz.simpleName}>.get()", error)
       def
     }
 
-    hasCached = true
-    return cached!!
+    cached = value
+    publish(value)
+
+    return value
   }
 
+  @Synchronized
   override fun set(value: T) {
     if (cached == value) {
       return
@@ -46,12 +59,13 @@ class MoshiJsonSetting<T>(
 
     cached = value
 
-    val json = moshi.adapter(clazz).toJson(cached)
+    val json = moshi.adapter(clazz).toJson(value)
     settingProvider.putString(key, json)
 
-    settingState.onNext(value)
+    onValueChanged(value)
   }
 
+  @Synchronized
   override fun setSync(value: T) {
     if (cached == value) {
       return
@@ -59,19 +73,21 @@ class MoshiJsonSetting<T>(
 
     cached = value
 
-    val json = moshi.adapter(clazz).toJson(cached)
+    val json = moshi.adapter(clazz).toJson(value)
     settingProvider.putStringSync(key, json)
 
-    settingState.onNext(value)
+    onValueChanged(value)
   }
 
   fun isNotDefault(): Boolean {
     return get() != def
   }
 
+  @Synchronized
   fun reset() {
     cached = def
     settingProvider.putString(key, ChanSettings.EMPTY_JSON)
+    publish(def)
   }
 
 }
\ No newline at end of file
@@ -5,9 +5,7 @@ import com.github.k1rakishou.Setting;
 import com.github.k1rakishou.SettingProvider;
 
 public class OptionsSetting<T extends Enum & OptionSettingItem> extends Setting<T> {
-    private volatile boolean hasCached = false;
-
-    private T cached;
+    private volatile T cached;
     private T[] items;
 
     public OptionsSetting(SettingProvider settingProvider, String key, Class<T> clazz, T def) {
@@ -22,7 +20,16 @@ public class OptionsSetting<T extends Enum & OptionSettingItem> extends Setting<
 
     @Override
     public T get() {
-        if (hasCached) {
+        T value = cached;
+        if (value != null) {
+            return value;
+        }
+
+        return load();
+    }
+
+    private synchronized T load() {
+        if (cached != null) {
             return cached;
         }
 
@@ -38,23 +45,25 @@ public class OptionsSetting<T extends Enum & OptionSettingItem> extends Setting<
         }
 
         cached = selectedItem;
-        hasCached = true;
-        return cached;
+        publish(selectedItem);
+        return selectedItem;
     }
 
     @Override
-    public void set(T value) {
+    public synchronized void set(T value) {
         if (!value.equals(get())) {
             settingProvider.putString(key, value.getKey());
             cached = value;
+            publish(value);
         }
     }
 
     @Override
-    public void setSync(T value) {
+    public synchronized void setSync(T value) {
         if (!value.equals(get())) {
             settingProvider.putStringSync(key, value.getKey());
             cached = value;
+            publish(value);
         }
     }
 }
@@ -28,4 +28,8 @@ class RangeSetting(
     super.setSync(value.coerceIn(min, max))
   }
 
+  override fun snapshotValue(value: Int): Int {
+    return value.coerceIn(min, max)
+  }
+
 }
\ No newline at end of file
@@ -4,8 +4,7 @@ import com.github.k1rakishou.Setting;
 import com.github.k1rakishou.SettingProvider;
 
 public class StringSetting extends Setting<String> {
-    private volatile boolean hasCached = false;
-    private String cached;
+    private volatile String cached;
 
     public StringSetting(SettingProvider settingProvider, String key, String def) {
         super(settingProvider, key, def);
@@ -13,41 +12,53 @@ public class StringSetting extends Setting<String> {
 
     @Override
     public String get() {
-        if (!hasCached) {
-            cached = settingProvider.getString(key, def);
-            hasCached = true;
+        String value = cached;
+        if (value != null) {
+            return value;
         }
-        return cached;
+
+        return load();
+    }
+
+    private synchronized String load() {
+        String value = cached;
+        if (value == null) {
+            value = settingProvider.getString(key, def);
+            cached = value;
+            publish(value);
+        }
+
+        return value;
     }
 
     @Override
-    public void set(String value) {
+    public synchronized void set(String value) {
         if (!value.equals(get())) {
             settingProvider.putString(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 
-    public void setSync(String value) {
+    @Override
+    public synchronized void setSync(String value) {
         if (!value.equals(get())) {
             settingProvider.putStringSync(key, value);
             cached = value;
-            settingState.onNext(value);
+            onValueChanged(value);
         }
     }
 
-    public void setSyncNoCheck(String value) {
+    public synchronized void setSyncNoCheck(String value) {
         settingProvider.putStringSync(key, value);
         cached = value;
-        settingState.onNext(value);
+        onValueChanged(value);
     }
 
-    public void remove() {
+    public synchronized void remove() {
         settingProvider.removeSync(key);
-        hasCached = false;
         cached = def;
-        settingState.onNext(def);
+        onValueChanged(def);
     }
 
 }